@@ -49,6 +49,7 @@ import com.helger.peppolid.simple.doctype.SimpleDocumentTypeIdentifier;
 import com.helger.peppolid.simple.process.SimpleProcessIdentifier;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.AS4OutgoingAttachment;
+import com.helger.phase4.crypto.AS4CertificateVerdictCache;
 import com.helger.phase4.crypto.ICryptoSessionKeyProvider;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderBDXR2;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
@@ -137,6 +138,8 @@ public final class Phase4DBNAllianceSender
    * @param aCAChecker
    *        The Peppol CA checker to be used to verify the Peppol AP certificate. May not be
    *        <code>null</code>.
+   * @param aVerdictCache
+   *        The optional cache for the check results. May be <code>null</code>.
    * @param aReceiverCert
    *        The determined receiver AP certificate to check. Never <code>null</code>.
    * @param aCertificateConsumer
@@ -158,6 +161,7 @@ public final class Phase4DBNAllianceSender
    *         in case of error
    */
   private static void _checkReceiverAPCert (@NonNull final TrustedCAChecker aCAChecker,
+                                            @Nullable final AS4CertificateVerdictCache aVerdictCache,
                                             @Nullable final X509Certificate aReceiverCert,
                                             @Nullable final IPhase4PeppolCertificateCheckResultHandler aCertificateConsumer,
                                             @NonNull final ETriState eCacheRevocationCheckResult,
@@ -168,10 +172,15 @@ public final class Phase4DBNAllianceSender
       LOGGER.debug ("Using the following receiver AP certificate from the SMP: " + aReceiverCert);
 
     final OffsetDateTime aNow = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
-    final ECertificateCheckResult eCertCheckResult = aCAChecker.checkCertificate (aReceiverCert,
-                                                                                  aNow,
-                                                                                  eCacheRevocationCheckResult,
-                                                                                  eCheckMode);
+    final ECertificateCheckResult eCertCheckResult = aVerdictCache != null ? aVerdictCache.checkCertificate (aCAChecker,
+                                                                                                             aReceiverCert,
+                                                                                                             aNow,
+                                                                                                             eCacheRevocationCheckResult,
+                                                                                                             eCheckMode)
+                                                                           : aCAChecker.checkCertificate (aReceiverCert,
+                                                                                                          aNow,
+                                                                                                          eCacheRevocationCheckResult,
+                                                                                                          eCheckMode);
 
     // Interested in the certificate?
     if (aCertificateConsumer != null)
@@ -244,6 +253,7 @@ public final class Phase4DBNAllianceSender
     private ETriState m_eAPCacheRevocationCheckResult = ETriState.UNDEFINED;
     private ERevocationCheckMode m_eAPRevocationCheckMode;
     private boolean m_bAPRevocationSoftFail = CertificateRevocationCheckerDefaults.isAllowSoftFail ();
+    private AS4CertificateVerdictCache m_aCertificateVerdictCache;
 
     // Status var
     private OffsetDateTime m_aEffectiveSendingDT;
@@ -562,6 +572,25 @@ public final class Phase4DBNAllianceSender
       return thisAsT ();
     }
 
+    /**
+     * Set the cache for the receiver AP certificate check results. If set, the path validation and
+     * revocation check results are reused for subsequent messages to the same receiver AP. This is
+     * only applied if {@link #checkReceiverAPCertificate(boolean)} is <code>true</code>.
+     *
+     * @param aCertificateVerdictCache
+     *        The cache to use. May be <code>null</code> to check the certificate on every send (the
+     *        default).
+     * @return this for chaining
+     * @see AS4CertificateVerdictCache#getDefaultInstance()
+     * @since 4.5.5
+     */
+    @NonNull
+    public final IMPLTYPE certificateVerdictCache (@Nullable final AS4CertificateVerdictCache aCertificateVerdictCache)
+    {
+      m_aCertificateVerdictCache = aCertificateVerdictCache;
+      return thisAsT ();
+    }
+
     /**
      * The effective sending date time of the message. That is set only if message sending takes
      * place.
@@ -621,6 +650,7 @@ public final class Phase4DBNAllianceSender
         // Check if the received certificate is a valid Peppol AP certificate
         // Throws Phase4PeppolException in case of error
         _checkReceiverAPCert (m_aCAChecker,
+                              m_aCertificateVerdictCache,
                               aReceiverCert,
                               m_aCertificateConsumer,
                               m_eAPCacheRevocationCheckResult,
@@ -46,7 +46,7 @@ import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.IProcessIdentifier;
 import com.helger.phase4.ebms3header.Ebms3Error;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
-import com.helger.phase4.marshaller.Ebms3SignalMessageMarshaller;
+import com.helger.phase4.marshaller.AS4Marshallers;
 import com.helger.phase4.sender.EAS4UserMessageSendResult;
 import com.helger.security.certificate.CertificateHelper;
 import com.helger.security.certificate.ECertificateCheckResult;
@@ -772,7 +772,7 @@ public class Phase4DBNAllianceSendingReport
     if (hasAS4SendingException ())
       aJson.add ("sendingException", fEx.apply (m_aAS4SendingException));
     if (hasAS4ReceivedSignalMsg ())
-      aJson.add ("as4ReceivedSignalMsg", new Ebms3SignalMessageMarshaller ().getAsString (m_aAS4ReceivedSignalMsg));
+      aJson.add ("as4ReceivedSignalMsg", AS4Marshallers.getEbms3SignalMessageMarshaller ().getAsString (m_aAS4ReceivedSignalMsg));
     aJson.add ("as4ResponseError", m_bAS4ResponseError);
     if (hasAS4ResponseErrors ())
     {
@@ -898,7 +898,7 @@ public class Phase4DBNAllianceSendingReport
       ret.addChild (fEx.apply (m_aAS4SendingException, "AS4SendingException"));
     if (hasAS4ReceivedSignalMsg ())
       ret.addElementNS (sNamespaceURI, "AS4ReceivedSignalMsg")
-         .addChild (new Ebms3SignalMessageMarshaller ().getAsMicroElement (m_aAS4ReceivedSignalMsg));
+         .addChild (AS4Marshallers.getEbms3SignalMessageMarshaller ().getAsMicroElement (m_aAS4ReceivedSignalMsg));
     ret.addElementNS (sNamespaceURI, "AS4ResponseError").addText (m_bAS4ResponseError);
     if (hasAS4ResponseErrors ())
     {
@@ -30,6 +30,7 @@ import com.helger.peppol.xhe.read.DBNAllianceXHEDataReader;
 import com.helger.peppolid.factory.DBNAllianceIdentifierFactory;
 import com.helger.peppolid.factory.IIdentifierFactory;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.crypto.AS4CertificateVerdictCache;
 import com.helger.phase4.dbnalliance.servlet.Phase4DBNAllianceReceiverConfiguration.Phase4DBNAllianceReceiverConfigurationBuilder;
 import com.helger.phase4.logging.Phase4LoggerFactory;
 import com.helger.security.certificate.TrustedCAChecker;
@@ -64,6 +65,7 @@ public final class Phase4DBNAllianceDefaultReceiverConfiguration
   private static boolean s_bCheckSigningCertificateRevocation = DEFAULT_CHECK_SIGNING_CERTIFICATE_REVOCATION;
   private static TrustedCAChecker s_aAPCAChecker = DEFAULT_CA_CHECKER;
   private static boolean s_bAPRevocationSoftFail = CertificateRevocationCheckerDefaults.isAllowSoftFail ();
+  private static AS4CertificateVerdictCache s_aAPCertificateVerdictCache;
 
   private Phase4DBNAllianceDefaultReceiverConfiguration ()
   {}
@@ -287,6 +289,31 @@ public final class Phase4DBNAllianceDefaultReceiverConfiguration
     }
   }
 
+  /**
+   * @return The cache for the results of the inbound signing certificate check. May be
+   *         <code>null</code> (the default) if the certificate of every incoming message should be
+   *         checked.
+   * @since 4.5.5
+   */
+  @Nullable
+  public static AS4CertificateVerdictCache getAPCertificateVerdictCache ()
+  {
+    return s_aAPCertificateVerdictCache;
+  }
+
+  /**
+   * Set the cache for the results of the inbound signing certificate check.
+   *
+   * @param a
+   *        The cache to use. May be <code>null</code> to check the certificate of every incoming
+   *        message.
+   * @since 4.5.5
+   */
+  public static void setAPCertificateVerdictCache (@Nullable final AS4CertificateVerdictCache a)
+  {
+    s_aAPCertificateVerdictCache = a;
+  }
+
   /**
    * Get the statically configured data as a {@link Phase4DBNAllianceReceiverConfigurationBuilder}
    * instance. This allows for modification before building the final object.
@@ -315,7 +342,8 @@ public final class Phase4DBNAllianceDefaultReceiverConfiguration
                                                  .performXHEValueChecks (isPerformXHEValueChecks ())
                                                  .checkSigningCertificateRevocation (isCheckSigningCertificateRevocation ())
                                                  .apCAChecker (getAPCAChecker ())
-                                                 .apRevocationSoftFail (isAPRevocationSoftFail ());
+                                                 .apRevocationSoftFail (isAPRevocationSoftFail ())
+                                                 .apCertificateVerdictCache (getAPCertificateVerdictCache ());
   }
 
   /**
@@ -28,6 +28,7 @@ import com.helger.base.string.StringHelper;
 import com.helger.base.tostring.ToStringGenerator;
 import com.helger.peppolid.factory.IIdentifierFactory;
 import com.helger.peppolid.factory.SimpleIdentifierFactory;
+import com.helger.phase4.crypto.AS4CertificateVerdictCache;
 import com.helger.security.certificate.TrustedCAChecker;
 import com.helger.security.revocation.CertificateRevocationCheckerDefaults;
 import com.helger.smpclient.bdxr2.IBDXR2ServiceMetadataProvider;
@@ -50,6 +51,7 @@ public final class Phase4DBNAllianceReceiverConfiguration
   private final boolean m_bCheckSigningCertificateRevocation;
   private final TrustedCAChecker m_aAPCAChecker;
   private final boolean m_bAPRevocationSoftFail;
+  private final AS4CertificateVerdictCache m_aAPCertificateVerdictCache;
 
   /**
    * Constructor
@@ -90,6 +92,62 @@ public final class Phase4DBNAllianceReceiverConfiguration
                                                  final boolean bCheckSigningCertificateRevocation,
                                                  @NonNull final TrustedCAChecker aAPCAChecker,
                                                  final boolean bAPRevocationSoftFail)
+  {
+    this (bReceiverCheckEnabled,
+          aSMPClient,
+          sAS4EndpointURL,
+          aAPCertificate,
+          aXHEIdentifierFactory,
+          bPerformXHEValueChecks,
+          bCheckSigningCertificateRevocation,
+          aAPCAChecker,
+          bAPRevocationSoftFail,
+          null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bReceiverCheckEnabled
+   *        <code>true</code> if the receiver checks are enabled, <code>false</code> otherwise
+   * @param aSMPClient
+   *        The SMP metadata provider to be used. May not be <code>null</code> if receiver checks
+   *        are enabled.
+   * @param sAS4EndpointURL
+   *        The endpoint URL to check against. May neither be <code>null</code> nor empty if
+   *        receiver checks are enabled.
+   * @param aAPCertificate
+   *        The AP certificate to be used for compatibility. May not be <code>null</code> if
+   *        receiver checks are enabled.
+   * @param aXHEIdentifierFactory
+   *        The identifier factory to be used for XHE parsing. May not be <code>null</code>.
+   * @param bPerformXHEValueChecks
+   *        <code>true</code> if XHE value checks should be performed.
+   * @param bCheckSigningCertificateRevocation
+   *        <code>true</code> if signing certificate revocation checks should be performed.
+   * @param aAPCAChecker
+   *        The DBNAlliance AP CA checker. May not be <code>null</code>.
+   * @param bAPRevocationSoftFail
+   *        <code>true</code> to accept
+   *        {@link com.helger.security.certificate.ECertificateCheckResult#REVOCATION_STATUS_UNKNOWN}
+   *        from the AP CA checker as valid, <code>false</code> to treat it as invalid. Defaults to
+   *        {@link CertificateRevocationCheckerDefaults#isAllowSoftFail()}. Applies to the inbound
+   *        signing certificate check.
+   * @param aAPCertificateVerdictCache
+   *        The cache for the results of the inbound signing certificate check. May be
+   *        <code>null</code> to check the certificate of every incoming message.
+   * @since 4.5.5
+   */
+  public Phase4DBNAllianceReceiverConfiguration (final boolean bReceiverCheckEnabled,
+                                                 @Nullable final IBDXR2ServiceMetadataProvider aSMPClient,
+                                                 @Nullable final String sAS4EndpointURL,
+                                                 @Nullable final X509Certificate aAPCertificate,
+                                                 @NonNull final IIdentifierFactory aXHEIdentifierFactory,
+                                                 final boolean bPerformXHEValueChecks,
+                                                 final boolean bCheckSigningCertificateRevocation,
+                                                 @NonNull final TrustedCAChecker aAPCAChecker,
+                                                 final boolean bAPRevocationSoftFail,
+                                                 @Nullable final AS4CertificateVerdictCache aAPCertificateVerdictCache)
   {
     if (bReceiverCheckEnabled)
       ValueEnforcer.notNull (aSMPClient, "SMPClient");
@@ -107,6 +165,7 @@ public final class Phase4DBNAllianceReceiverConfiguration
     m_bCheckSigningCertificateRevocation = bCheckSigningCertificateRevocation;
     m_aAPCAChecker = aAPCAChecker;
     m_bAPRevocationSoftFail = bAPRevocationSoftFail;
+    m_aAPCertificateVerdictCache = aAPCertificateVerdictCache;
   }
 
   public boolean isReceiverCheckEnabled ()
@@ -188,6 +247,17 @@ public final class Phase4DBNAllianceReceiverConfiguration
     return m_bAPRevocationSoftFail;
   }
 
+  /**
+   * @return The cache for the results of the inbound signing certificate check. May be
+   *         <code>null</code> if the certificate of every incoming message should be checked.
+   * @since 4.5.5
+   */
+  @Nullable
+  public AS4CertificateVerdictCache getAPCertificateVerdictCache ()
+  {
+    return m_aAPCertificateVerdictCache;
+  }
+
   @Override
   public String toString ()
   {
@@ -201,6 +271,7 @@ public final class Phase4DBNAllianceReceiverConfiguration
                                                 m_bCheckSigningCertificateRevocation)
                                        .append ("APCAChecker", m_aAPCAChecker)
                                        .append ("APRevocationSoftFail", m_bAPRevocationSoftFail)
+                                       .append ("APCertificateVerdictCache", m_aAPCertificateVerdictCache)
                                        .getToString ();
   }
 
@@ -244,6 +315,7 @@ public final class Phase4DBNAllianceReceiverConfiguration
     private boolean m_bCheckSigningCertificateRevocation;
     private TrustedCAChecker m_aAPCAChecker;
     private boolean m_bAPRevocationSoftFail = CertificateRevocationCheckerDefaults.isAllowSoftFail ();
+    private AS4CertificateVerdictCache m_aAPCertificateVerdictCache;
 
     public Phase4DBNAllianceReceiverConfigurationBuilder ()
     {}
@@ -258,7 +330,8 @@ public final class Phase4DBNAllianceReceiverConfiguration
                                                            .performXHEValueChecks (aSrc.isPerformXHEValueChecks ())
                                                            .checkSigningCertificateRevocation (aSrc.isCheckSigningCertificateRevocation ())
                                                            .apCAChecker (aSrc.getAPCAChecker ())
-                                                           .apRevocationSoftFail (aSrc.isAPRevocationSoftFail ());
+                                                           .apRevocationSoftFail (aSrc.isAPRevocationSoftFail ())
+                                                           .apCertificateVerdictCache (aSrc.getAPCertificateVerdictCache ());
     }
 
     @NonNull
@@ -343,6 +416,24 @@ public final class Phase4DBNAllianceReceiverConfiguration
       return this;
     }
 
+    /**
+     * Set the cache for the results of the inbound signing certificate check. If set, path
+     * validation and revocation checks are not repeated for every message of the same sender.
+     *
+     * @param a
+     *        The cache to use. May be <code>null</code> to check the certificate of every incoming
+     *        message (the default).
+     * @return this for chaining
+     * @see AS4CertificateVerdictCache#getDefaultInstance()
+     * @since 4.5.5
+     */
+    @NonNull
+    public Phase4DBNAllianceReceiverConfigurationBuilder apCertificateVerdictCache (@Nullable final AS4CertificateVerdictCache a)
+    {
+      m_aAPCertificateVerdictCache = a;
+      return this;
+    }
+
     @NonNull
     public Phase4DBNAllianceReceiverConfiguration build ()
     {
@@ -368,7 +459,8 @@ public final class Phase4DBNAllianceReceiverConfiguration
                                                          m_bPerformXHEValueChecks,
                                                          m_bCheckSigningCertificateRevocation,
                                                          m_aAPCAChecker,
-                                                         m_bAPRevocationSoftFail);
+                                                         m_bAPRevocationSoftFail,
+                                                         m_aAPCertificateVerdictCache);
     }
   }
 }
@@ -63,6 +63,7 @@ import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.IAS4Attachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.crypto.AS4CertificateVerdictCache;
 import com.helger.phase4.ebms3header.Ebms3Property;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
@@ -492,8 +493,13 @@ public class Phase4DBNAllianceServletMessageProcessorSPI implements IAS4Incoming
       // Check if signing AP certificate is revoked
       // * Use global caching setting
       // * Use global certificate check mode
-      final ECertificateCheckResult eCertCheckResult = aReceiverCheckData.getAPCAChecker ()
-                                                                         .checkCertificate (aSenderSigningCert, aNow);
+      final AS4CertificateVerdictCache aVerdictCache = aReceiverCheckData.getAPCertificateVerdictCache ();
+      final ECertificateCheckResult eCertCheckResult = aVerdictCache != null ? aVerdictCache.checkCertificate (aReceiverCheckData.getAPCAChecker (),
+                                                                                                             aSenderSigningCert,
+                                                                                                             aNow)
+                                                                             : aReceiverCheckData.getAPCAChecker ()
+                                                                                                 .checkCertificate (aSenderSigningCert,
+                                                                                                                    aNow);
       if (eCertCheckResult.isInvalid ())
       {
         if (aReceiverCheckData.isAPRevocationSoftFail () &&
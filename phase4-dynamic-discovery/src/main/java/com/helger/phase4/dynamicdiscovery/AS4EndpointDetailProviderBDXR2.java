@@ -57,6 +57,7 @@ public class AS4EndpointDetailProviderBDXR2 implements IAS4EndpointDetailProvide
 
   private final IBDXR2ServiceMetadataProvider m_aSMPClient;
   private ISMPTransportProfile m_aTP = DEFAULT_TRANSPORT_PROFILE;
+  private AS4SMPEndpointCache <EndpointType> m_aEndpointCache;
   private EndpointType m_aEndpoint;
 
   public AS4EndpointDetailProviderBDXR2 (@NonNull final IBDXR2ServiceMetadataProvider aSMPClient)
@@ -99,6 +100,33 @@ public class AS4EndpointDetailProviderBDXR2 implements IAS4EndpointDetailProvide
     return this;
   }
 
+  /**
+   * @return The shared endpoint cache to be used. May be <code>null</code>.
+   * @since 4.5.5
+   */
+  @Nullable
+  public final AS4SMPEndpointCache <EndpointType> getEndpointCache ()
+  {
+    return m_aEndpointCache;
+  }
+
+  /**
+   * Set the shared endpoint cache to be used. This only has an effect if it is called prior to
+   * {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}.
+   *
+   * @param aEndpointCache
+   *        The endpoint cache to be used. May be <code>null</code> to perform the SMP lookup on
+   *        every initialization.
+   * @return this for chaining.
+   * @since 4.5.5
+   */
+  @NonNull
+  public final AS4EndpointDetailProviderBDXR2 setEndpointCache (@Nullable final AS4SMPEndpointCache <EndpointType> aEndpointCache)
+  {
+    m_aEndpointCache = aEndpointCache;
+    return this;
+  }
+
   /**
    * @return The endpoint resolved. May only be non-<code>null</code> if
    *         {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)} was
@@ -134,7 +162,18 @@ public class AS4EndpointDetailProviderBDXR2 implements IAS4EndpointDetailProvide
       // Perform SMP lookup
       try
       {
-        m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
+        if (m_aEndpointCache != null)
+          m_aEndpoint = m_aEndpointCache.getOrLookup (AS4SMPEndpointCacheKey.create (m_aSMPClient,
+                                                                                     aReceiverID,
+                                                                                     aDocTypeID,
+                                                                                     aProcID,
+                                                                                     m_aTP),
+                                                      () -> m_aSMPClient.getEndpoint (aReceiverID,
+                                                                                      aDocTypeID,
+                                                                                      aProcID,
+                                                                                      m_aTP));
+        else
+          m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
         if (m_aEndpoint == null)
           throw new Phase4SMPException ("Failed to resolve SMP endpoint (" +
                                         aReceiverID.getURIEncoded () +
@@ -212,6 +251,7 @@ public class AS4EndpointDetailProviderBDXR2 implements IAS4EndpointDetailProvide
   {
     return new ToStringGenerator (null).append ("SMPClient", m_aSMPClient)
                                        .append ("TransportProfile", m_aTP)
+                                       .appendIfNotNull ("EndpointCache", m_aEndpointCache)
                                        .appendIfNotNull ("Endpoint", m_aEndpoint)
                                        .getToString ();
   }
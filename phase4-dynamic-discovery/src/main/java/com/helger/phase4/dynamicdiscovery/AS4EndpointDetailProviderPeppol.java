@@ -28,7 +28,9 @@ import com.helger.annotation.style.OverrideOnDemand;
 import com.helger.base.enforce.ValueEnforcer;
 import com.helger.base.string.StringHelper;
 import com.helger.base.tostring.ToStringGenerator;
+import com.helger.base.wrapper.Wrapper;
 import com.helger.datetime.helper.PDTFactory;
+import com.helger.peppol.sml.ISMLInfo;
 import com.helger.peppol.smp.ESMPTransportProfile;
 import com.helger.peppol.smp.ISMPTransportProfile;
 import com.helger.peppolid.IDocumentTypeIdentifier;
@@ -45,6 +47,8 @@ import com.helger.smpclient.peppol.ISMPExtendedServiceMetadataProvider;
 import com.helger.smpclient.peppol.ISMPServiceGroupProvider;
 import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
 import com.helger.smpclient.peppol.SMPClientReadOnly;
+import com.helger.smpclient.url.ISMPURLProvider;
+import com.helger.smpclient.url.SMPDNSResolutionException;
 import com.helger.xsds.peppol.smp1.EndpointType;
 import com.helger.xsds.peppol.smp1.SignedServiceMetadataType;
 
@@ -61,9 +65,14 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
 
   private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4EndpointDetailProviderPeppol.class);
 
-  private final ISMPServiceGroupProvider m_aServiceGroupProvider;
-  private final ISMPExtendedServiceMetadataProvider m_aServiceMetadataProvider;
+  // Only null if dynamic discovery is used and the SMP client was not yet needed
+  private volatile ISMPServiceGroupProvider m_aServiceGroupProvider;
+  private volatile ISMPExtendedServiceMetadataProvider m_aServiceMetadataProvider;
+  // Only set for dynamic discovery
+  private final ISMPURLProvider m_aSMPURLProvider;
+  private final ISMLInfo m_aSMLInfo;
   private ISMPTransportProfile m_aTP = DEFAULT_TRANSPORT_PROFILE;
+  private AS4SMPEndpointCache <EndpointType> m_aEndpointCache;
   private EndpointType m_aEndpoint;
 
   public AS4EndpointDetailProviderPeppol (@NonNull final ISMPServiceGroupProvider aServiceGroupProvider,
@@ -73,26 +82,76 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
     ValueEnforcer.notNull (aServiceMetadataProvider, "ServiceMetadataProvider");
     m_aServiceGroupProvider = aServiceGroupProvider;
     m_aServiceMetadataProvider = aServiceMetadataProvider;
+    m_aSMPURLProvider = null;
+    m_aSMLInfo = null;
   }
 
   /**
-   * @return The service group provider passed in the constructor. Never <code>null</code>.
+   * Constructor for dynamic discovery. The SMP client for the receiver is only created if the SMP
+   * needs to be queried, so that the DNS lookup of the SMP is not performed, if a cached endpoint is
+   * used.
+   *
+   * @param aSMPURLProvider
+   *        The SMP URL provider to resolve the SMP of the receiver. May not be <code>null</code>.
+   * @param aSMLInfo
+   *        The SML to use for resolving the SMP of the receiver. May not be <code>null</code>.
+   * @since 4.5.5
    */
-  @NonNull
+  public AS4EndpointDetailProviderPeppol (@NonNull final ISMPURLProvider aSMPURLProvider,
+                                          @NonNull final ISMLInfo aSMLInfo)
+  {
+    ValueEnforcer.notNull (aSMPURLProvider, "SMPURLProvider");
+    ValueEnforcer.notNull (aSMLInfo, "SMLInfo");
+    m_aServiceGroupProvider = null;
+    m_aServiceMetadataProvider = null;
+    m_aSMPURLProvider = aSMPURLProvider;
+    m_aSMLInfo = aSMLInfo;
+  }
+
+  /**
+   * @return The service group provider passed in the constructor or the SMP client created for
+   *         dynamic discovery. May only be <code>null</code> if dynamic discovery is used and no SMP
+   *         query was performed so far.
+   */
+  @Nullable
   public final ISMPServiceGroupProvider getServiceGroupProvider ()
   {
     return m_aServiceGroupProvider;
   }
 
   /**
-   * @return The service metadata provider passed in the constructor. Never <code>null</code>.
+   * @return The service metadata provider passed in the constructor or the SMP client created for
+   *         dynamic discovery. May only be <code>null</code> if dynamic discovery is used and no SMP
+   *         query was performed so far.
    */
-  @NonNull
+  @Nullable
   public final ISMPServiceMetadataProvider getServiceMetadataProvider ()
   {
     return m_aServiceMetadataProvider;
   }
 
+  /**
+   * @return The SMP URL provider used for dynamic discovery. May be <code>null</code> if a fixed SMP
+   *         client is used.
+   * @since 4.5.5
+   */
+  @Nullable
+  public final ISMPURLProvider getSMPURLProvider ()
+  {
+    return m_aSMPURLProvider;
+  }
+
+  /**
+   * @return The SML used for dynamic discovery. May be <code>null</code> if a fixed SMP client is
+   *         used.
+   * @since 4.5.5
+   */
+  @Nullable
+  public final ISMLInfo getSMLInfo ()
+  {
+    return m_aSMLInfo;
+  }
+
   /**
    * @return The transport profile to be used. Defaults to {@link #DEFAULT_TRANSPORT_PROFILE}.
    */
@@ -118,6 +177,33 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
     return this;
   }
 
+  /**
+   * @return The shared endpoint cache to be used. May be <code>null</code>.
+   * @since 4.5.5
+   */
+  @Nullable
+  public final AS4SMPEndpointCache <EndpointType> getEndpointCache ()
+  {
+    return m_aEndpointCache;
+  }
+
+  /**
+   * Set the shared endpoint cache to be used. This only has an effect if it is called prior to
+   * {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}.
+   *
+   * @param aEndpointCache
+   *        The endpoint cache to be used. May be <code>null</code> to perform the SMP lookup on
+   *        every initialization.
+   * @return this for chaining.
+   * @since 4.5.5
+   */
+  @NonNull
+  public final AS4EndpointDetailProviderPeppol setEndpointCache (@Nullable final AS4SMPEndpointCache <EndpointType> aEndpointCache)
+  {
+    m_aEndpointCache = aEndpointCache;
+    return this;
+  }
+
   /**
    * @return The endpoint resolved. May only be non-<code>null</code> after
    *         {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)} was
@@ -129,13 +215,39 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
     return m_aEndpoint;
   }
 
+  @NonNull
+  private synchronized ISMPExtendedServiceMetadataProvider _getOrCreateServiceMetadataProvider (@NonNull final IParticipantIdentifier aReceiverID) throws SMPClientException
+  {
+    if (m_aServiceMetadataProvider == null)
+    {
+      // Dynamic discovery - this performs the DNS lookup
+      final SMPClientReadOnly aSMPClient;
+      try
+      {
+        aSMPClient = new SMPClientReadOnly (m_aSMPURLProvider, aReceiverID, m_aSMLInfo);
+      }
+      catch (final SMPDNSResolutionException ex)
+      {
+        throw new SMPClientException ("Failed to resolve the SMP of " +
+                                      aReceiverID.getURIEncoded () +
+                                      " in " +
+                                      m_aSMLInfo.getDNSZone (),
+                                      ex);
+      }
+      m_aServiceGroupProvider = aSMPClient;
+      m_aServiceMetadataProvider = aSMPClient;
+    }
+    return m_aServiceMetadataProvider;
+  }
+
   @Nullable
   @OverrideOnDemand
   protected SignedServiceMetadataType resolvedSchemeSpecificServiceMetadata (@NonNull final IParticipantIdentifier aReceiverID,
                                                                              @NonNull final IDocumentTypeIdentifier aDocTypeID) throws SMPClientException
   {
     // Resolve per scheme
-    return m_aServiceMetadataProvider.getSchemeSpecificServiceMetadataOrNull (aReceiverID, aDocTypeID);
+    return _getOrCreateServiceMetadataProvider (aReceiverID).getSchemeSpecificServiceMetadataOrNull (aReceiverID,
+                                                                                                     aDocTypeID);
   }
 
   public void init (@NonNull final IDocumentTypeIdentifier aDocTypeID,
@@ -164,26 +276,42 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
       // Perform SMP lookup
       try
       {
-        final boolean bWildcard;
-        final SignedServiceMetadataType aSSM;
-
-        // PFUOI 4.3.0
-        aSSM = resolvedSchemeSpecificServiceMetadata (aReceiverID, aDocTypeID);
         // This is just a heuristic, because it is only evaluated in logging
-        bWildcard = aSSM != null &&
-          PeppolIdentifierHelper.DOCUMENT_TYPE_SCHEME_PEPPOL_DOCTYPE_WILDCARD.equals (aDocTypeID.getScheme ()) &&
+        final boolean bWildcard = PeppolIdentifierHelper.DOCUMENT_TYPE_SCHEME_PEPPOL_DOCTYPE_WILDCARD.equals (aDocTypeID.getScheme ()) &&
           aDocTypeID.getValue ().indexOf (PeppolIdentifierHelper.DOCUMENT_TYPE_WILDCARD_INDICATOR) >= 0;
 
-        if (aSSM != null)
+        // Remains unset if a cached result is used
+        final Wrapper <Boolean> aSSMFound = new Wrapper <> ();
+        final AS4SMPEndpointCache.ILookup <EndpointType> aLookup = () -> {
+          // PFUOI 4.3.0
+          final SignedServiceMetadataType aSSM = resolvedSchemeSpecificServiceMetadata (aReceiverID, aDocTypeID);
+          aSSMFound.set (Boolean.valueOf (aSSM != null));
+          if (aSSM == null)
+            return null;
+          return SMPClientReadOnly.getEndpointAt (aSSM.getServiceMetadata (),
+                                                  aProcID,
+                                                  m_aTP,
+                                                  PDTFactory.getCurrentLocalDateTime ());
+        };
+
+        if (m_aEndpointCache != null)
         {
-          m_aEndpoint = SMPClientReadOnly.getEndpointAt (aSSM.getServiceMetadata (),
-                                                         aProcID,
-                                                         m_aTP,
-                                                         PDTFactory.getCurrentLocalDateTime ());
+          // For dynamic discovery the SML and the receiver determine the SMP
+          final String sSMPID = m_aSMLInfo != null ? AS4SMPEndpointCacheKey.getSMLID (m_aSMLInfo)
+                                                   : AS4SMPEndpointCacheKey.getSMPID (m_aServiceMetadataProvider);
+          m_aEndpoint = m_aEndpointCache.getOrLookup (AS4SMPEndpointCacheKey.createForSMPID (sSMPID,
+                                                                                     aReceiverID,
+                                                                                     aDocTypeID,
+                                                                                     aProcID,
+                                                                                     m_aTP),
+                                                      aLookup);
         }
+        else
+          m_aEndpoint = aLookup.lookup ();
 
         if (m_aEndpoint == null)
         {
+          final Boolean aFound = aSSMFound.get ();
           throw new Phase4SMPException ("Failed to resolve SMP endpoint (" +
                                         aReceiverID.getURIEncoded () +
                                         ", " +
@@ -195,8 +323,9 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
                                         ")" +
                                         (bWildcard ? " [wildcard]" : " [static]") +
                                         " - " +
-                                        (aSSM == null ? "server error"
-                                                      : "failed to select endpoint from ServiceMetadata"));
+                                        (aFound == null ? "cached negative lookup result"
+                                                        : aFound.booleanValue () ? "failed to select endpoint from ServiceMetadata"
+                                                                                 : "server error"));
         }
 
         if (LOGGER.isDebugEnabled ())
@@ -266,7 +395,10 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
   {
     return new ToStringGenerator (null).append ("ServiceGroupProvider", m_aServiceGroupProvider)
                                        .append ("ServiceMetadataProvider", m_aServiceMetadataProvider)
+                                       .appendIfNotNull ("SMPURLProvider", m_aSMPURLProvider)
+                                       .appendIfNotNull ("SMLInfo", m_aSMLInfo)
                                        .append ("TransportProfile", m_aTP)
+                                       .appendIfNotNull ("EndpointCache", m_aEndpointCache)
                                        .appendIfNotNull ("Endpoint", m_aEndpoint)
                                        .getToString ();
   }
@@ -284,4 +416,23 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
   {
     return new AS4EndpointDetailProviderPeppol (aSMPClient, aSMPClient);
   }
+
+  /**
+   * Create a new {@link AS4EndpointDetailProviderPeppol} that uses dynamic discovery to find the SMP
+   * of the receiver. Use this together with an {@link AS4SMPEndpointCache}, so that neither the DNS
+   * lookup nor the SMP query is performed for cached endpoints.
+   *
+   * @param aSMPURLProvider
+   *        The SMP URL provider to resolve the SMP of the receiver. May not be <code>null</code>.
+   * @param aSMLInfo
+   *        The SML to use for resolving the SMP of the receiver. May not be <code>null</code>.
+   * @return Never <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  public static AS4EndpointDetailProviderPeppol createDynamic (@NonNull final ISMPURLProvider aSMPURLProvider,
+                                                               @NonNull final ISMLInfo aSMLInfo)
+  {
+    return new AS4EndpointDetailProviderPeppol (aSMPURLProvider, aSMLInfo);
+  }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.phase4.util.AS4RefreshingCache;
+import com.helger.smpclient.exception.SMPClientException;
+
+/**
+ * A bounded, TTL based cache for SMP endpoint lookups that can be shared between multiple
+ * {@link IAS4EndpointDetailProvider} instances (and therefore between multiple sending operations).
+ * See {@link AS4RefreshingCache} for the details of the caching strategy. The queried SMP is part
+ * of the {@link AS4SMPEndpointCacheKey}, so a cache instance can be shared between providers
+ * querying different SMP networks.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ * @param <T>
+ *        The endpoint type to be cached
+ */
+@ThreadSafe
+public class AS4SMPEndpointCache <T> extends AS4RefreshingCache <AS4SMPEndpointCacheKey, T>
+{
+  /**
+   * The lookup to perform on a cache miss.
+   *
+   * @param <T>
+   *        The endpoint type
+   */
+  @FunctionalInterface
+  public interface ILookup <T> extends AS4RefreshingCache.ILookup <T, SMPClientException>
+  {
+    /**
+     * @return The resolved endpoint or <code>null</code> if no endpoint was found.
+     * @throws SMPClientException
+     *         In case of an SMP error
+     */
+    @Nullable
+    T lookup () throws SMPClientException;
+  }
+
+  public static final Duration DEFAULT_TTL = Duration.ofHours (1);
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes (5);
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+
+  /**
+   * Constructor using the default settings and the default background refresh executor.
+   */
+  public AS4SMPEndpointCache ()
+  {
+    this (DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_MAX_SIZE, DEFAULT_REFRESH_AHEAD_FACTOR, getDefaultRefreshExecutor ());
+  }
+
+  /**
+   * Constructor without a stale grace period.
+   *
+   * @param aTTL
+   *        The time to live of positive results. May not be <code>null</code> and must be positive.
+   * @param aNegativeTTL
+   *        The time to live of negative results. May not be <code>null</code> and must not be
+   *        negative. Use {@link Duration#ZERO} to disable negative caching.
+   * @param nMaxSize
+   *        The maximum number of entries. Must be &gt; 0.
+   * @param dRefreshAheadFactor
+   *        The fraction of the lifetime after which an entry is refreshed in the background, if it
+   *        is used. Must be between 0 and 1.
+   * @param aRefreshExecutor
+   *        The executor for background refreshes. May be <code>null</code> to disable background
+   *        refreshes.
+   */
+  public AS4SMPEndpointCache (@NonNull final Duration aTTL,
+                              @NonNull final Duration aNegativeTTL,
+                              @Nonnegative final int nMaxSize,
+                              final double dRefreshAheadFactor,
+                              @Nullable final Executor aRefreshExecutor)
+  {
+    this (aTTL, aNegativeTTL, Duration.ZERO, nMaxSize, dRefreshAheadFactor, aRefreshExecutor);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aTTL
+   *        The time to live of positive results. May not be <code>null</code> and must be positive.
+   * @param aNegativeTTL
+   *        The time to live of negative results. May not be <code>null</code> and must not be
+   *        negative. Use {@link Duration#ZERO} to disable negative caching.
+   * @param aStaleGracePeriod
+   *        The time after expiry, in which a stale endpoint is still returned while it is refreshed
+   *        in the background. May not be <code>null</code> and must not be negative.
+   * @param nMaxSize
+   *        The maximum number of entries. Must be &gt; 0.
+   * @param dRefreshAheadFactor
+   *        The fraction of the lifetime after which an entry is refreshed in the background, if it
+   *        is used. Must be between 0 and 1.
+   * @param aRefreshExecutor
+   *        The executor for background refreshes. May be <code>null</code> to disable background
+   *        refreshes.
+   */
+  public AS4SMPEndpointCache (@NonNull final Duration aTTL,
+                              @NonNull final Duration aNegativeTTL,
+                              @NonNull final Duration aStaleGracePeriod,
+                              @Nonnegative final int nMaxSize,
+                              final double dRefreshAheadFactor,
+                              @Nullable final Executor aRefreshExecutor)
+  {
+    super (aTTL, aNegativeTTL, aStaleGracePeriod, nMaxSize, dRefreshAheadFactor, aRefreshExecutor);
+  }
+}
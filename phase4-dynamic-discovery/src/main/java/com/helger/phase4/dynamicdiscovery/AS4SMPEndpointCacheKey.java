@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import org.jspecify.annotations.NonNull;
+
+import com.helger.annotation.Nonempty;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.hashcode.HashCodeGenerator;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.peppol.sml.ISMLInfo;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.smpclient.AbstractGenericSMPClient;
+
+/**
+ * The key of an {@link AS4SMPEndpointCache} entry. It consists of the identity of the queried SMP,
+ * the receiver participant ID, the document type ID, the process ID and the transport profile ID.
+ * All identifiers are stored in their URI encoded form. The SMP identity is part of the key, so that
+ * the same cache can be shared between SMP clients of different networks (e.g. production and
+ * test). For dynamic discovery the SML is used as the SMP identity, because together with the
+ * receiver ID it determines the SMP, without the need for a DNS lookup.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@Immutable
+public final class AS4SMPEndpointCacheKey
+{
+  private final String m_sSMPID;
+  private final String m_sReceiverID;
+  private final String m_sDocTypeID;
+  private final String m_sProcessID;
+  private final String m_sTransportProfileID;
+
+  public AS4SMPEndpointCacheKey (@NonNull @Nonempty final String sSMPID,
+                                 @NonNull @Nonempty final String sReceiverID,
+                                 @NonNull @Nonempty final String sDocTypeID,
+                                 @NonNull @Nonempty final String sProcessID,
+                                 @NonNull @Nonempty final String sTransportProfileID)
+  {
+    ValueEnforcer.notEmpty (sSMPID, "SMPID");
+    ValueEnforcer.notEmpty (sReceiverID, "ReceiverID");
+    ValueEnforcer.notEmpty (sDocTypeID, "DocTypeID");
+    ValueEnforcer.notEmpty (sProcessID, "ProcessID");
+    ValueEnforcer.notEmpty (sTransportProfileID, "TransportProfileID");
+    m_sSMPID = sSMPID;
+    m_sReceiverID = sReceiverID;
+    m_sDocTypeID = sDocTypeID;
+    m_sProcessID = sProcessID;
+    m_sTransportProfileID = sTransportProfileID;
+  }
+
+  /**
+   * @return The identity of the queried SMP. See {@link #getSMPID(Object)} and
+   *         {@link #getSMLID(ISMLInfo)}.
+   */
+  @NonNull
+  @Nonempty
+  public String getSMPID ()
+  {
+    return m_sSMPID;
+  }
+
+  @NonNull
+  @Nonempty
+  public String getReceiverID ()
+  {
+    return m_sReceiverID;
+  }
+
+  @NonNull
+  @Nonempty
+  public String getDocTypeID ()
+  {
+    return m_sDocTypeID;
+  }
+
+  @NonNull
+  @Nonempty
+  public String getProcessID ()
+  {
+    return m_sProcessID;
+  }
+
+  @NonNull
+  @Nonempty
+  public String getTransportProfileID ()
+  {
+    return m_sTransportProfileID;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final AS4SMPEndpointCacheKey rhs = (AS4SMPEndpointCacheKey) o;
+    return m_sSMPID.equals (rhs.m_sSMPID) &&
+           m_sReceiverID.equals (rhs.m_sReceiverID) &&
+           m_sDocTypeID.equals (rhs.m_sDocTypeID) &&
+           m_sProcessID.equals (rhs.m_sProcessID) &&
+           m_sTransportProfileID.equals (rhs.m_sTransportProfileID);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_sSMPID)
+                                       .append (m_sReceiverID)
+                                       .append (m_sDocTypeID)
+                                       .append (m_sProcessID)
+                                       .append (m_sTransportProfileID)
+                                       .getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("SMPID", m_sSMPID)
+                                       .append ("ReceiverID", m_sReceiverID)
+                                       .append ("DocTypeID", m_sDocTypeID)
+                                       .append ("ProcessID", m_sProcessID)
+                                       .append ("TransportProfileID", m_sTransportProfileID)
+                                       .getToString ();
+  }
+
+  /**
+   * Get the identity of the provided SMP client. For the SMP clients of the SMP client library, this
+   * is the SMP host URI - for dynamically resolved clients this URI is the result of the SML lookup
+   * and therefore differs between networks. For all other objects, the identity of the object is
+   * used.
+   *
+   * @param aSMPClient
+   *        The SMP client to get the identity from. May not be <code>null</code>.
+   * @return The SMP identity and never <code>null</code>.
+   */
+  @NonNull
+  @Nonempty
+  public static String getSMPID (@NonNull final Object aSMPClient)
+  {
+    ValueEnforcer.notNull (aSMPClient, "SMPClient");
+    if (aSMPClient instanceof final AbstractGenericSMPClient <?> aGenericClient)
+      return aGenericClient.getSMPHostURI ();
+    return aSMPClient.getClass ().getName () + '@' + Integer.toHexString (System.identityHashCode (aSMPClient));
+  }
+
+  /**
+   * Get the SMP identity for dynamic discovery via the provided SML. The SMP of a receiver is
+   * determined by the SML and the receiver ID, which is part of the key anyway.
+   *
+   * @param aSMLInfo
+   *        The SML used to resolve the SMP. May not be <code>null</code>.
+   * @return The SMP identity and never <code>null</code>.
+   */
+  @NonNull
+  @Nonempty
+  public static String getSMLID (@NonNull final ISMLInfo aSMLInfo)
+  {
+    ValueEnforcer.notNull (aSMLInfo, "SMLInfo");
+    return "sml:" + aSMLInfo.getDNSZone ();
+  }
+
+  /**
+   * Create a new cache key from the provided identifiers.
+   *
+   * @param aSMPClient
+   *        The queried SMP client. May not be <code>null</code>. See {@link #getSMPID(Object)}.
+   * @param aReceiverID
+   *        Receiver participant ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcID
+   *        Process ID. May not be <code>null</code>.
+   * @param aTP
+   *        Transport profile. May not be <code>null</code>.
+   * @return The new key and never <code>null</code>.
+   */
+  @NonNull
+  public static AS4SMPEndpointCacheKey create (@NonNull final Object aSMPClient,
+                                               @NonNull final IParticipantIdentifier aReceiverID,
+                                               @NonNull final IDocumentTypeIdentifier aDocTypeID,
+                                               @NonNull final IProcessIdentifier aProcID,
+                                               @NonNull final ISMPTransportProfile aTP)
+  {
+    return createForSMPID (getSMPID (aSMPClient), aReceiverID, aDocTypeID, aProcID, aTP);
+  }
+
+  /**
+   * Create a new cache key from the provided identifiers.
+   *
+   * @param sSMPID
+   *        The identity of the queried SMP. May neither be <code>null</code> nor empty. See
+   *        {@link #getSMPID(Object)} and {@link #getSMLID(ISMLInfo)}.
+   * @param aReceiverID
+   *        Receiver participant ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcID
+   *        Process ID. May not be <code>null</code>.
+   * @param aTP
+   *        Transport profile. May not be <code>null</code>.
+   * @return The new key and never <code>null</code>.
+   */
+  @NonNull
+  public static AS4SMPEndpointCacheKey createForSMPID (@NonNull @Nonempty final String sSMPID,
+                                                       @NonNull final IParticipantIdentifier aReceiverID,
+                                                       @NonNull final IDocumentTypeIdentifier aDocTypeID,
+                                                       @NonNull final IProcessIdentifier aProcID,
+                                                       @NonNull final ISMPTransportProfile aTP)
+  {
+    return new AS4SMPEndpointCacheKey (sSMPID,
+                                       aReceiverID.getURIEncoded (),
+                                       aDocTypeID.getURIEncoded (),
+                                       aProcID.getURIEncoded (),
+                                       aTP.getID ());
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.helger.peppol.sml.ESML;
+import com.helger.peppol.smp.ESMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.peppolid.factory.PeppolIdentifierFactory;
+import com.helger.smpclient.exception.SMPClientException;
+import com.helger.smpclient.url.PeppolNaptrURLProvider;
+import com.helger.xsds.peppol.smp1.EndpointType;
+
+/**
+ * Test class for class {@link AS4SMPEndpointCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4SMPEndpointCacheTest
+{
+  private static final AS4SMPEndpointCacheKey KEY1 = new AS4SMPEndpointCacheKey ("http://smp.example.org",
+                                                                                 "iso6523-actorid-upis::9915:a",
+                                                                                 "doctype",
+                                                                                 "process",
+                                                                                 "tp");
+  private static final AS4SMPEndpointCacheKey KEY2 = new AS4SMPEndpointCacheKey ("http://smp.example.org",
+                                                                                 "iso6523-actorid-upis::9915:b",
+                                                                                 "doctype",
+                                                                                 "process",
+                                                                                 "tp");
+  // Same as KEY1 but another SMP
+  private static final AS4SMPEndpointCacheKey KEY1_OTHER_SMP = new AS4SMPEndpointCacheKey ("http://smp.test.example.org",
+                                                                                           "iso6523-actorid-upis::9915:a",
+                                                                                           "doctype",
+                                                                                           "process",
+                                                                                           "tp");
+
+  private static final class TestCache extends AS4SMPEndpointCache <String>
+  {
+    private final AtomicLong m_aNow = new AtomicLong (0);
+
+    TestCache (final int nMaxSize)
+    {
+      // Execute refreshes synchronously
+      super (Duration.ofSeconds (100), Duration.ofSeconds (10), nMaxSize, 0.8, Runnable::run);
+    }
+
+    @Override
+    protected long getCurrentNanos ()
+    {
+      return m_aNow.get ();
+    }
+
+    void advance (final Duration aDuration)
+    {
+      m_aNow.addAndGet (aDuration.toNanos ());
+    }
+  }
+
+  @Test
+  public void testBasic () throws Exception
+  {
+    final TestCache aCache = new TestCache (10);
+    final AtomicInteger aLookups = new AtomicInteger (0);
+
+    // Miss
+    assertEquals ("ep1", aCache.getOrLookup (KEY1, () -> "ep" + aLookups.incrementAndGet ()));
+    assertEquals (1, aCache.getMissCount ());
+    assertEquals (1, aCache.size ());
+
+    // Hit
+    assertEquals ("ep1", aCache.getOrLookup (KEY1, () -> "ep" + aLookups.incrementAndGet ()));
+    assertEquals (1, aCache.getHitCount ());
+    assertEquals (1, aLookups.get ());
+
+    // Hit in the refresh-ahead window - returns the old value and refreshes
+    aCache.advance (Duration.ofSeconds (85));
+    assertEquals ("ep1", aCache.getOrLookup (KEY1, () -> "ep" + aLookups.incrementAndGet ()));
+    assertEquals (1, aCache.getRefreshCount ());
+    assertEquals ("ep2", aCache.getOrLookup (KEY1, () -> "ep" + aLookups.incrementAndGet ()));
+
+    // Expired
+    aCache.advance (Duration.ofSeconds (101));
+    assertEquals ("ep3", aCache.getOrLookup (KEY1, () -> "ep" + aLookups.incrementAndGet ()));
+    assertEquals (2, aCache.getMissCount ());
+
+    // Negative caching
+    assertNull (aCache.getOrLookup (KEY2, () -> null));
+    assertNull (aCache.getOrLookup (KEY2, () -> "should not be called"));
+    assertEquals (1, aCache.getNegativeHitCount ());
+    aCache.advance (Duration.ofSeconds (11));
+    assertEquals ("found", aCache.getOrLookup (KEY2, () -> "found"));
+  }
+
+  @Test
+  public void testErrorsAreNotCached () throws Exception
+  {
+    final TestCache aCache = new TestCache (10);
+    try
+    {
+      aCache.getOrLookup (KEY1, () -> {
+        throw new SMPClientException ("Test error");
+      });
+      fail ();
+    }
+    catch (final SMPClientException ex)
+    {
+      // expected
+    }
+    assertEquals (1, aCache.getLookupErrorCount ());
+    assertEquals (0, aCache.size ());
+    assertEquals ("ep", aCache.getOrLookup (KEY1, () -> "ep"));
+  }
+
+  @Test
+  public void testSMPIsPartOfTheKey () throws Exception
+  {
+    final TestCache aCache = new TestCache (10);
+    assertEquals ("prod", aCache.getOrLookup (KEY1, () -> "prod"));
+    assertEquals ("test", aCache.getOrLookup (KEY1_OTHER_SMP, () -> "test"));
+    assertEquals ("prod", aCache.getOrLookup (KEY1, () -> "other"));
+    assertEquals (2, aCache.size ());
+
+    final Object aClient1 = new Object ();
+    final Object aClient2 = new Object ();
+    assertEquals (AS4SMPEndpointCacheKey.getSMPID (aClient1), AS4SMPEndpointCacheKey.getSMPID (aClient1));
+    assertNotEquals (AS4SMPEndpointCacheKey.getSMPID (aClient1), AS4SMPEndpointCacheKey.getSMPID (aClient2));
+  }
+
+  @Test
+  public void testEviction () throws Exception
+  {
+    final TestCache aCache = new TestCache (1);
+    aCache.getOrLookup (KEY1, () -> "ep1");
+    aCache.getOrLookup (KEY2, () -> "ep2");
+    assertEquals (1, aCache.size ());
+    assertEquals (1, aCache.getEvictionCount ());
+    // KEY1 was evicted
+    assertEquals ("ep1b", aCache.getOrLookup (KEY1, () -> "ep1b"));
+  }
+
+  @Test
+  public void testSMLIsPartOfTheKey ()
+  {
+    final IParticipantIdentifier aReceiverID = PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:a");
+    final IDocumentTypeIdentifier aDocTypeID = PeppolIdentifierFactory.INSTANCE.createDocumentTypeIdentifierWithDefaultScheme ("doctype");
+    final IProcessIdentifier aProcID = PeppolIdentifierFactory.INSTANCE.createProcessIdentifierWithDefaultScheme ("process");
+    final ESMPTransportProfile eTP = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+
+    final String sSMLID = AS4SMPEndpointCacheKey.getSMLID (ESML.DIGIT_TEST);
+    assertEquals (sSMLID, AS4SMPEndpointCacheKey.getSMLID (ESML.DIGIT_TEST));
+    assertNotEquals (sSMLID, AS4SMPEndpointCacheKey.getSMLID (ESML.DIGIT_PRODUCTION));
+
+    assertEquals (AS4SMPEndpointCacheKey.createForSMPID (sSMLID, aReceiverID, aDocTypeID, aProcID, eTP),
+                  AS4SMPEndpointCacheKey.createForSMPID (sSMLID, aReceiverID, aDocTypeID, aProcID, eTP));
+    assertNotEquals (AS4SMPEndpointCacheKey.createForSMPID (sSMLID, aReceiverID, aDocTypeID, aProcID, eTP),
+                     AS4SMPEndpointCacheKey.createForSMPID (AS4SMPEndpointCacheKey.getSMLID (ESML.DIGIT_PRODUCTION),
+                                                            aReceiverID,
+                                                            aDocTypeID,
+                                                            aProcID,
+                                                            eTP));
+  }
+
+  @Test
+  public void testDynamicDiscoveryWithoutDNSLookup () throws Exception
+  {
+    final IParticipantIdentifier aReceiverID = PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:a");
+    final IDocumentTypeIdentifier aDocTypeID = PeppolIdentifierFactory.INSTANCE.createDocumentTypeIdentifierWithDefaultScheme ("doctype");
+    final IProcessIdentifier aProcID = PeppolIdentifierFactory.INSTANCE.createProcessIdentifierWithDefaultScheme ("process");
+    final ESMPTransportProfile eTP = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+
+    final AS4SMPEndpointCache <EndpointType> aCache = new AS4SMPEndpointCache <> ();
+    final EndpointType aEndpoint = new EndpointType ();
+    aEndpoint.setTransportProfile (eTP.getID ());
+    aCache.getOrLookup (AS4SMPEndpointCacheKey.createForSMPID (AS4SMPEndpointCacheKey.getSMLID (ESML.DIGIT_TEST),
+                                                               aReceiverID,
+                                                               aDocTypeID,
+                                                               aProcID,
+                                                               eTP),
+                        () -> aEndpoint);
+
+    final AS4EndpointDetailProviderPeppol aProvider = AS4EndpointDetailProviderPeppol.createDynamic (PeppolNaptrURLProvider.INSTANCE,
+                                                                                                    ESML.DIGIT_TEST)
+                                                                                     .setEndpointCache (aCache);
+    aProvider.init (aDocTypeID, aProcID, aReceiverID);
+    assertSame (aEndpoint, aProvider.getEndpoint ());
+    // No SMP client was created and therefore no DNS lookup was performed
+    assertNull (aProvider.getServiceMetadataProvider ());
+    assertNotNull (aProvider.getSMLInfo ());
+    assertEquals (1, aCache.getHitCount ());
+  }
+}
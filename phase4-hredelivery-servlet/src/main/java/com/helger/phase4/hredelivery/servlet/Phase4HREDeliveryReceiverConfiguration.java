@@ -29,6 +29,7 @@ import com.helger.base.tostring.ToStringGenerator;
 import com.helger.peppolid.factory.IIdentifierFactory;
 import com.helger.peppolid.factory.PeppolIdentifierFactory;
 import com.helger.peppolid.factory.SimpleIdentifierFactory;
+import com.helger.phase4.crypto.AS4CertificateVerdictCache;
 import com.helger.security.certificate.TrustedCAChecker;
 import com.helger.security.revocation.CertificateRevocationCheckerDefaults;
 import com.helger.smpclient.bdxr1.IBDXRExtendedServiceMetadataProvider;
@@ -52,6 +53,7 @@ public final class Phase4HREDeliveryReceiverConfiguration
   private final boolean m_bCheckSigningCertificateRevocation;
   private final TrustedCAChecker m_aAPCAChecker;
   private final boolean m_bAPRevocationSoftFail;
+  private final AS4CertificateVerdictCache m_aAPCertificateVerdictCache;
 
   /**
    * Constructor
@@ -92,6 +94,62 @@ public final class Phase4HREDeliveryReceiverConfiguration
                                                  final boolean bCheckSigningCertificateRevocation,
                                                  @NonNull final TrustedCAChecker aAPCAChecker,
                                                  final boolean bAPRevocationSoftFail)
+  {
+    this (bReceiverCheckEnabled,
+          aSMPClient,
+          sAS4EndpointURL,
+          aAPCertificate,
+          aSBDHIdentifierFactory,
+          bPerformSBDHValueChecks,
+          bCheckSigningCertificateRevocation,
+          aAPCAChecker,
+          bAPRevocationSoftFail,
+          null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bReceiverCheckEnabled
+   *        <code>true</code> if the receiver checks are enabled, <code>false</code> otherwise
+   * @param aSMPClient
+   *        The SMP metadata provider to be used. May not be <code>null</code> if receiver checks
+   *        are enabled.
+   * @param sAS4EndpointURL
+   *        The endpoint URL to check against. May neither be <code>null</code> nor empty if
+   *        receiver checks are enabled.
+   * @param aAPCertificate
+   *        The AP certificate to be used for compatibility. May not be <code>null</code> if
+   *        receiver checks are enabled.
+   * @param aSBDHIdentifierFactory
+   *        The identifier factory to be used for SBDH parsing. May not be <code>null</code>.
+   * @param bPerformSBDHValueChecks
+   *        <code>true</code> if SBDH value checks should be performed.
+   * @param bCheckSigningCertificateRevocation
+   *        <code>true</code> if signing certificate revocation checks should be performed.
+   * @param aAPCAChecker
+   *        The HR eDelivery AP CA checker. May not be <code>null</code>.
+   * @param bAPRevocationSoftFail
+   *        <code>true</code> to accept
+   *        {@link com.helger.security.certificate.ECertificateCheckResult#REVOCATION_STATUS_UNKNOWN}
+   *        from the AP CA checker as valid, <code>false</code> to treat it as invalid. Defaults to
+   *        {@link CertificateRevocationCheckerDefaults#isAllowSoftFail()}. Applies to the inbound
+   *        signing certificate check.
+   * @param aAPCertificateVerdictCache
+   *        The cache for the results of the inbound signing certificate check. May be
+   *        <code>null</code> to check the certificate of every incoming message.
+   * @since 4.5.5
+   */
+  public Phase4HREDeliveryReceiverConfiguration (final boolean bReceiverCheckEnabled,
+                                                 @Nullable final IBDXRExtendedServiceMetadataProvider aSMPClient,
+                                                 @Nullable final String sAS4EndpointURL,
+                                                 @Nullable final X509Certificate aAPCertificate,
+                                                 @NonNull final IIdentifierFactory aSBDHIdentifierFactory,
+                                                 final boolean bPerformSBDHValueChecks,
+                                                 final boolean bCheckSigningCertificateRevocation,
+                                                 @NonNull final TrustedCAChecker aAPCAChecker,
+                                                 final boolean bAPRevocationSoftFail,
+                                                 @Nullable final AS4CertificateVerdictCache aAPCertificateVerdictCache)
   {
     if (bReceiverCheckEnabled)
       ValueEnforcer.notNull (aSMPClient, "SMPClient");
@@ -109,6 +167,7 @@ public final class Phase4HREDeliveryReceiverConfiguration
     m_bCheckSigningCertificateRevocation = bCheckSigningCertificateRevocation;
     m_aAPCAChecker = aAPCAChecker;
     m_bAPRevocationSoftFail = bAPRevocationSoftFail;
+    m_aAPCertificateVerdictCache = aAPCertificateVerdictCache;
   }
 
   public boolean isReceiverCheckEnabled ()
@@ -190,6 +249,17 @@ public final class Phase4HREDeliveryReceiverConfiguration
     return m_bAPRevocationSoftFail;
   }
 
+  /**
+   * @return The cache for the results of the inbound signing certificate check. May be
+   *         <code>null</code> if the certificate of every incoming message should be checked.
+   * @since 4.5.5
+   */
+  @Nullable
+  public AS4CertificateVerdictCache getAPCertificateVerdictCache ()
+  {
+    return m_aAPCertificateVerdictCache;
+  }
+
   @Override
   public String toString ()
   {
@@ -203,6 +273,7 @@ public final class Phase4HREDeliveryReceiverConfiguration
                                                 m_bCheckSigningCertificateRevocation)
                                        .append ("APCAChecker", m_aAPCAChecker)
                                        .append ("APRevocationSoftFail", m_bAPRevocationSoftFail)
+                                       .append ("APCertificateVerdictCache", m_aAPCertificateVerdictCache)
                                        .getToString ();
   }
 
@@ -246,6 +317,7 @@ public final class Phase4HREDeliveryReceiverConfiguration
     private boolean m_bCheckSigningCertificateRevocation;
     private TrustedCAChecker m_aAPCAChecker;
     private boolean m_bAPRevocationSoftFail = CertificateRevocationCheckerDefaults.isAllowSoftFail ();
+    private AS4CertificateVerdictCache m_aAPCertificateVerdictCache;
 
     public Phase4HREDeliveryReceiverConfigurationBuilder ()
     {}
@@ -260,7 +332,8 @@ public final class Phase4HREDeliveryReceiverConfiguration
                                                            .performSBDHValueChecks (aSrc.isPerformSBDHValueChecks ())
                                                            .checkSigningCertificateRevocation (aSrc.isCheckSigningCertificateRevocation ())
                                                            .apCAChecker (aSrc.getAPCAChecker ())
-                                                           .apRevocationSoftFail (aSrc.isAPRevocationSoftFail ());
+                                                           .apRevocationSoftFail (aSrc.isAPRevocationSoftFail ())
+                                                           .apCertificateVerdictCache (aSrc.getAPCertificateVerdictCache ());
     }
 
     @NonNull
@@ -351,6 +424,24 @@ public final class Phase4HREDeliveryReceiverConfiguration
       return this;
     }
 
+    /**
+     * Set the cache for the results of the inbound signing certificate check. If set, path
+     * validation and revocation checks are not repeated for every message of the same sender.
+     *
+     * @param a
+     *        The cache to use. May be <code>null</code> to check the certificate of every incoming
+     *        message (the default).
+     * @return this for chaining
+     * @see AS4CertificateVerdictCache#getDefaultInstance()
+     * @since 4.5.5
+     */
+    @NonNull
+    public Phase4HREDeliveryReceiverConfigurationBuilder apCertificateVerdictCache (@Nullable final AS4CertificateVerdictCache a)
+    {
+      m_aAPCertificateVerdictCache = a;
+      return this;
+    }
+
     @NonNull
     public Phase4HREDeliveryReceiverConfiguration build ()
     {
@@ -376,7 +467,8 @@ public final class Phase4HREDeliveryReceiverConfiguration
                                                          m_bPerformSBDHValueChecks,
                                                          m_bCheckSigningCertificateRevocation,
                                                          m_aAPCAChecker,
-                                                         m_bAPRevocationSoftFail);
+                                                         m_bAPRevocationSoftFail,
+                                                         m_aAPCertificateVerdictCache);
     }
   }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.base.CGlobal;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.tostring.ToStringGenerator;
+
+/**
+ * Settings for the compression of outgoing attachments. The compression can either be performed
+ * serially on the calling thread (the default) or in parallel: in parallel mode the input is split
+ * into blocks that are compressed concurrently and emitted as consecutive GZIP members, which is
+ * still a standard GZIP stream. The settings can be defined per {@link AS4OutgoingAttachment} or
+ * globally via {@link #setDefault(AS4CompressionSettings)}.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@Immutable
+public final class AS4CompressionSettings
+{
+  /** The default compression level */
+  public static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+  /** The default block size for parallel compression: 1 MB */
+  public static final int DEFAULT_BLOCK_SIZE = CGlobal.BYTES_PER_MEGABYTE;
+  /** The minimum block size for parallel compression: 64 KB */
+  public static final int MIN_BLOCK_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  /** Serial compression with the default level - same as before */
+  public static final AS4CompressionSettings SERIAL = new AS4CompressionSettings (false,
+                                                                                  DEFAULT_LEVEL,
+                                                                                  DEFAULT_BLOCK_SIZE,
+                                                                                  null);
+  /** Parallel compression with the default level and block size on the common fork-join pool */
+  public static final AS4CompressionSettings PARALLEL = new AS4CompressionSettings (true,
+                                                                                    DEFAULT_LEVEL,
+                                                                                    DEFAULT_BLOCK_SIZE,
+                                                                                    null);
+
+  private static volatile AS4CompressionSettings s_aDefault = SERIAL;
+
+  private final boolean m_bParallel;
+  private final int m_nLevel;
+  private final int m_nBlockSize;
+  private final ExecutorService m_aExecutor;
+
+  /**
+   * Constructor
+   *
+   * @param bParallel
+   *        <code>true</code> to compress in parallel, <code>false</code> to compress serially.
+   * @param nLevel
+   *        The compression level. Must be between 0 and 9 or -1 for the default level.
+   * @param nBlockSize
+   *        The size of a single block in bytes for parallel compression. Must be &ge;
+   *        {@link #MIN_BLOCK_SIZE}.
+   * @param aExecutor
+   *        The executor to compress the blocks on. May be <code>null</code> to use the common
+   *        fork-join pool. Only relevant for parallel compression.
+   */
+  public AS4CompressionSettings (final boolean bParallel,
+                                 final int nLevel,
+                                 @Nonnegative final int nBlockSize,
+                                 @Nullable final ExecutorService aExecutor)
+  {
+    ValueEnforcer.isTrue (nLevel == Deflater.DEFAULT_COMPRESSION ||
+                          (nLevel >= Deflater.NO_COMPRESSION && nLevel <= Deflater.BEST_COMPRESSION),
+                          "Level must be between 0 and 9 or -1");
+    ValueEnforcer.isTrue (nBlockSize >= MIN_BLOCK_SIZE, "BlockSize is too small");
+    m_bParallel = bParallel;
+    m_nLevel = nLevel;
+    m_nBlockSize = nBlockSize;
+    m_aExecutor = aExecutor;
+  }
+
+  /**
+   * @return <code>true</code> if compression happens in parallel, <code>false</code> if it happens
+   *         serially.
+   */
+  public boolean isParallel ()
+  {
+    return m_bParallel;
+  }
+
+  /**
+   * @return The compression level. Either between 0 and 9 or -1 for the default level.
+   */
+  public int getLevel ()
+  {
+    return m_nLevel;
+  }
+
+  /**
+   * @return The block size in bytes for parallel compression.
+   */
+  @Nonnegative
+  public int getBlockSize ()
+  {
+    return m_nBlockSize;
+  }
+
+  /**
+   * @return The executor for parallel compression. Never <code>null</code>.
+   */
+  @NonNull
+  public ExecutorService getExecutor ()
+  {
+    return m_aExecutor != null ? m_aExecutor : ForkJoinPool.commonPool ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Parallel", m_bParallel)
+                                       .append ("Level", m_nLevel)
+                                       .append ("BlockSize", m_nBlockSize)
+                                       .append ("Executor", m_aExecutor)
+                                       .getToString ();
+  }
+
+  /**
+   * Create serial compression settings with a custom level.
+   *
+   * @param nLevel
+   *        The compression level. Must be between 0 and 9 or -1 for the default level.
+   * @return The new settings and never <code>null</code>.
+   */
+  @NonNull
+  public static AS4CompressionSettings createSerial (final int nLevel)
+  {
+    return new AS4CompressionSettings (false, nLevel, DEFAULT_BLOCK_SIZE, null);
+  }
+
+  /**
+   * Create parallel compression settings on the common fork-join pool.
+   *
+   * @param nLevel
+   *        The compression level. Must be between 0 and 9 or -1 for the default level.
+   * @param nBlockSize
+   *        The size of a single block in bytes. Must be &ge; {@link #MIN_BLOCK_SIZE}.
+   * @return The new settings and never <code>null</code>.
+   */
+  @NonNull
+  public static AS4CompressionSettings createParallel (final int nLevel, @Nonnegative final int nBlockSize)
+  {
+    return new AS4CompressionSettings (true, nLevel, nBlockSize, null);
+  }
+
+  /**
+   * @return The global default compression settings that are used, if no settings are defined on
+   *         an attachment. Defaults to {@link #SERIAL}. Never <code>null</code>.
+   */
+  @NonNull
+  public static AS4CompressionSettings getDefault ()
+  {
+    return s_aDefault;
+  }
+
+  /**
+   * Set the global default compression settings.
+   *
+   * @param aSettings
+   *        The settings to use. May not be <code>null</code>.
+   */
+  public static void setDefault (@NonNull final AS4CompressionSettings aSettings)
+  {
+    ValueEnforcer.notNull (aSettings, "Settings");
+    s_aDefault = aSettings;
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import org.jspecify.annotations.NonNull;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.NotThreadSafe;
+import com.helger.base.CGlobal;
+
+/**
+ * A GZIP input stream with a larger default buffer that reuses {@link Inflater} instances across
+ * streams. Creating an {@link Inflater} allocates native memory, which is expensive when many small
+ * attachments are decompressed. Inflaters are taken from a small global pool and returned upon
+ * {@link #close()}. Like {@link java.util.zip.GZIPInputStream} multiple concatenated GZIP members
+ * are supported, so the output of {@link AS4ParallelGZIPOutputStream} can be read as well.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@NotThreadSafe
+public class AS4GZIPInputStream extends InflaterInputStream
+{
+  /** The default buffer size of 64 KB */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  /** The maximum number of pooled inflaters */
+  public static final int MAX_POOLED_INFLATERS = 64;
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+  private static final int TRAILER_SIZE = 8;
+
+  private static final BlockingQueue <Inflater> INFLATER_POOL = new ArrayBlockingQueue <> (MAX_POOLED_INFLATERS);
+
+  private final CRC32 m_aCRC = new CRC32 ();
+  private boolean m_bEOS = false;
+  private boolean m_bClosed = false;
+
+  /**
+   * Constructor using the default buffer size.
+   *
+   * @param aIS
+   *        The GZIP compressed input stream. May not be <code>null</code>.
+   * @throws IOException
+   *         If the GZIP header is invalid
+   */
+  public AS4GZIPInputStream (@NonNull final InputStream aIS) throws IOException
+  {
+    this (aIS, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aIS
+   *        The GZIP compressed input stream. May not be <code>null</code>.
+   * @param nBufferSize
+   *        The input buffer size. Must be &gt; 0.
+   * @throws IOException
+   *         If the GZIP header is invalid
+   */
+  public AS4GZIPInputStream (@NonNull final InputStream aIS, @Nonnegative final int nBufferSize) throws IOException
+  {
+    super (aIS, _borrowInflater (), nBufferSize);
+    try
+    {
+      _readHeader (in);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      _returnInflater (inf);
+      throw ex;
+    }
+  }
+
+  @NonNull
+  private static Inflater _borrowInflater ()
+  {
+    final Inflater ret = INFLATER_POOL.poll ();
+    return ret != null ? ret : new Inflater (true);
+  }
+
+  private static void _returnInflater (@NonNull final Inflater aInflater)
+  {
+    aInflater.reset ();
+    if (!INFLATER_POOL.offer (aInflater))
+      aInflater.end ();
+  }
+
+  private static int _readUByte (@NonNull final InputStream aIS) throws IOException
+  {
+    final int b = aIS.read ();
+    if (b == -1)
+      throw new EOFException ();
+    return b;
+  }
+
+  private static int _readUShort (@NonNull final InputStream aIS) throws IOException
+  {
+    final int b = _readUByte (aIS);
+    return (_readUByte (aIS) << 8) | b;
+  }
+
+  private static long _readUInt (@NonNull final InputStream aIS) throws IOException
+  {
+    final long s = _readUShort (aIS);
+    return ((long) _readUShort (aIS) << 16) | s;
+  }
+
+  private static void _skipBytes (@NonNull final InputStream aIS, final int nBytes) throws IOException
+  {
+    for (int i = 0; i < nBytes; ++i)
+      _readUByte (aIS);
+  }
+
+  /**
+   * Read a GZIP member header.
+   *
+   * @return The number of bytes read
+   */
+  private int _readHeader (@NonNull final InputStream aIS) throws IOException
+  {
+    final CheckedInputStream aCIS = new CheckedInputStream (aIS, m_aCRC);
+    m_aCRC.reset ();
+    if (_readUShort (aCIS) != GZIP_MAGIC)
+      throw new ZipException ("Not in GZIP format");
+    if (_readUByte (aCIS) != 8)
+      throw new ZipException ("Unsupported compression method");
+    final int nFlags = _readUByte (aCIS);
+    // Skip MTIME, XFL, and OS fields
+    _skipBytes (aCIS, 6);
+    int nRead = 10;
+    if ((nFlags & FEXTRA) == FEXTRA)
+    {
+      final int nExtraLen = _readUShort (aCIS);
+      _skipBytes (aCIS, nExtraLen);
+      nRead += nExtraLen + 2;
+    }
+    if ((nFlags & FNAME) == FNAME)
+    {
+      do
+      {
+        nRead++;
+      } while (_readUByte (aCIS) != 0);
+    }
+    if ((nFlags & FCOMMENT) == FCOMMENT)
+    {
+      do
+      {
+        nRead++;
+      } while (_readUByte (aCIS) != 0);
+    }
+    if ((nFlags & FHCRC) == FHCRC)
+    {
+      final int nHeaderCRC = (int) m_aCRC.getValue () & 0xffff;
+      if (_readUShort (aCIS) != nHeaderCRC)
+        throw new ZipException ("Corrupt GZIP header");
+      nRead += 2;
+    }
+    m_aCRC.reset ();
+    return nRead;
+  }
+
+  /**
+   * Read the trailer of the current member and the header of the next member if there is one.
+   *
+   * @return <code>true</code> if the end of the stream was reached, <code>false</code> if another
+   *         member follows.
+   */
+  private boolean _readTrailer () throws IOException
+  {
+    InputStream aIS = in;
+    final int nRemaining = inf.getRemaining ();
+    if (nRemaining > 0)
+    {
+      // Some bytes are already in the input buffer
+      aIS = new SequenceInputStream (new ByteArrayInputStream (buf, len - nRemaining, nRemaining),
+                                     new FilterInputStream (in)
+                                     {
+                                       @Override
+                                       public void close ()
+                                       {
+                                         // Don't close the source stream
+                                       }
+                                     });
+    }
+
+    if (_readUInt (aIS) != m_aCRC.getValue ())
+      throw new ZipException ("Corrupt GZIP trailer (CRC)");
+    // ISIZE is the input size modulo 2^32
+    if (_readUInt (aIS) != (inf.getBytesWritten () & 0xffffffffL))
+      throw new ZipException ("Corrupt GZIP trailer (size)");
+
+    // Check if another member follows
+    final int nHeaderLen;
+    try
+    {
+      nHeaderLen = _readHeader (aIS);
+    }
+    catch (final IOException ex)
+    {
+      // End of stream or trailing garbage - ignore like GZIPInputStream
+      return true;
+    }
+
+    inf.reset ();
+    final int nConsumed = TRAILER_SIZE + nHeaderLen;
+    if (nRemaining > nConsumed)
+      inf.setInput (buf, len - nRemaining + nConsumed, nRemaining - nConsumed);
+    return false;
+  }
+
+  @Override
+  public int read (final byte @NonNull [] aBuf, final int nOfs, final int nLen) throws IOException
+  {
+    if (m_bClosed)
+      throw new IOException ("Stream closed");
+    if (m_bEOS)
+      return -1;
+
+    while (true)
+    {
+      final int nRead = super.read (aBuf, nOfs, nLen);
+      if (nRead >= 0)
+      {
+        m_aCRC.update (aBuf, nOfs, nRead);
+        return nRead;
+      }
+      if (_readTrailer ())
+      {
+        m_bEOS = true;
+        return -1;
+      }
+    }
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    if (!m_bClosed)
+    {
+      m_bClosed = true;
+      m_bEOS = true;
+      try
+      {
+        super.close ();
+      }
+      finally
+      {
+        _returnInflater (inf);
+      }
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+
+import org.jspecify.annotations.NonNull;
+import org.slf4j.Logger;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.WillNotClose;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.string.StringHelper;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.http.CHttpHeader;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+import jakarta.mail.Header;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeUtility;
+
+/**
+ * A streaming implementation of {@link IAS4IncomingStreamingAttachmentFactory}. The MIME part body
+ * is decoded and read exactly once: small parts are kept in memory, larger parts are written
+ * straight to a spool entry of the {@link AS4ResourceHelper}. While reading, the size of the decoded
+ * content is determined and stored in the created {@link WSS4JAttachment}.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@Immutable
+public class AS4IncomingStreamingAttachmentFactory implements IAS4IncomingStreamingAttachmentFactory
+{
+  /** Same threshold as {@link WSS4JAttachment#canBeKeptInMemory(long)} */
+  public static final int DEFAULT_IN_MEMORY_THRESHOLD = AS4SpoolingOutputStream.DEFAULT_IN_MEMORY_THRESHOLD;
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4IncomingStreamingAttachmentFactory.class);
+
+  private final int m_nInMemoryThreshold;
+
+  /**
+   * Constructor using the default in-memory threshold.
+   */
+  public AS4IncomingStreamingAttachmentFactory ()
+  {
+    this (DEFAULT_IN_MEMORY_THRESHOLD);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nInMemoryThreshold
+   *        The maximum number of bytes of a decoded attachment that is kept in memory. Larger
+   *        attachments are stored in a temporary file. Must be &ge; 0.
+   */
+  public AS4IncomingStreamingAttachmentFactory (@Nonnegative final int nInMemoryThreshold)
+  {
+    ValueEnforcer.isGE0 (nInMemoryThreshold, "InMemoryThreshold");
+    m_nInMemoryThreshold = nInMemoryThreshold;
+  }
+
+  /**
+   * @return The maximum number of bytes of an attachment that is kept in memory. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getInMemoryThreshold ()
+  {
+    return m_nInMemoryThreshold;
+  }
+
+  @NonNull
+  public WSS4JAttachment createAttachment (@NonNull final InternetHeaders aHeaders,
+                                           @NonNull @WillNotClose final InputStream aBodyIS,
+                                           @NonNull final AS4ResourceHelper aResHelper) throws IOException,
+                                                                                        MessagingException
+  {
+    ValueEnforcer.notNull (aHeaders, "Headers");
+    ValueEnforcer.notNull (aBodyIS, "BodyIS");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    final WSS4JAttachment ret = new WSS4JAttachment (aResHelper, aHeaders.getHeader (CHttpHeader.CONTENT_TYPE, null));
+
+    {
+      // Reference in Content-ID header is: "<ID>"
+      // See
+      // http://docs.oasis-open.org/wss-m/wss/v1.1.1/os/wss-SwAProfile-v1.1.1-os.html
+      // chapter 5.2
+      final String sRealContentID = StringHelper.trimStartAndEnd (aHeaders.getHeader (CHttpHeader.CONTENT_ID, null),
+                                                                  '<',
+                                                                  '>');
+      ret.setId (sRealContentID);
+    }
+
+    // Decode the Content-Transfer-Encoding on the fly
+    final String sCTE = aHeaders.getHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, null);
+    final InputStream aDecodedIS = StringHelper.isEmpty (sCTE) ? aBodyIS : MimeUtility.decode (aBodyIS, sCTE.trim ());
+
+    // Small parts stay in memory, larger parts are spilled to a spool entry
+    final AS4SpoolingOutputStream aSpoolOS = AS4SpoolingOutputStream.spool (aDecodedIS, m_nInMemoryThreshold, aResHelper);
+    final long nTotalLen = aSpoolOS.getSize ();
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Streamed WSS4J attachment with " +
+                    nTotalLen +
+                    " bytes " +
+                    (aSpoolOS.isInMemory () ? "in-memory" : "to a spool entry"));
+
+    ret.setSourceStreamProvider (aSpoolOS.getContent ());
+    ret.setContentLength (nTotalLen);
+
+    // Take all MIME part headers
+    final Enumeration <Header> aEnum = aHeaders.getAllHeaders ();
+    while (aEnum.hasMoreElements ())
+    {
+      final Header aHeader = aEnum.nextElement ();
+      ret.addHeader (aHeader.getName (), aHeader.getValue ());
+    }
+
+    // These headers are mandatory and overwrite headers from the MIME body part
+    ret.addHeader (CHttpHeader.CONTENT_DESCRIPTION, WSS4JAttachment.CONTENT_DESCRIPTION_ATTACHMENT);
+    ret.addHeader (CHttpHeader.CONTENT_ID, WSS4JAttachment.CONTENT_ID_PREFIX + ret.getId () + WSS4JAttachment.CONTENT_ID_SUFFIX);
+    ret.addHeader (CHttpHeader.CONTENT_TYPE, ret.getMimeType ());
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Finished streaming of incoming WSS4J attachment with " + nTotalLen + " bytes");
+
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("InMemoryThreshold", m_nInMemoryThreshold).getToString ();
+  }
+}
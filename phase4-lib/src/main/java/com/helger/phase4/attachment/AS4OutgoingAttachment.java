@@ -52,6 +52,8 @@ public class AS4OutgoingAttachment
   private final String m_sFilename;
   private final IMimeType m_aMimeType;
   private final EAS4CompressionMode m_eCompressionMode;
+  private final boolean m_bDataIsCompressed;
+  private final AS4CompressionSettings m_aCompressionSettings;
   private final Charset m_aCharset;
   private final ICommonsOrderedMap <String, String> m_aCustomProperties;
 
@@ -63,17 +65,70 @@ public class AS4OutgoingAttachment
                                    @Nullable final EAS4CompressionMode eCompressionMode,
                                    @Nullable final Charset aCharset,
                                    @Nullable final ICommonsOrderedMap <String, String> aCustomProperties)
+  {
+    this (aDataBytes,
+          aDataFile,
+          sContentID,
+          sFilename,
+          aMimeType,
+          eCompressionMode,
+          false,
+          null,
+          aCharset,
+          aCustomProperties);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDataBytes
+   *        The data as bytes. Either this or the file must be present.
+   * @param aDataFile
+   *        The data as file. Either this or the bytes must be present.
+   * @param sContentID
+   *        Optional Content-ID. May be <code>null</code>.
+   * @param sFilename
+   *        Optional filename. May be <code>null</code>.
+   * @param aMimeType
+   *        The MIME type of the uncompressed data. May not be <code>null</code>.
+   * @param eCompressionMode
+   *        The compression mode to use. May be <code>null</code>.
+   * @param bDataIsCompressed
+   *        <code>true</code> if the provided data is already compressed with the provided
+   *        compression mode, <code>false</code> if it is uncompressed.
+   * @param aCompressionSettings
+   *        Optional compression settings. May be <code>null</code> to use the global default.
+   * @param aCharset
+   *        Optional charset. May be <code>null</code>.
+   * @param aCustomProperties
+   *        Optional custom properties. May be <code>null</code>.
+   * @since 4.5.5
+   */
+  protected AS4OutgoingAttachment (@Nullable final ByteArrayWrapper aDataBytes,
+                                   @Nullable final File aDataFile,
+                                   @Nullable final String sContentID,
+                                   @Nullable final String sFilename,
+                                   @NonNull final IMimeType aMimeType,
+                                   @Nullable final EAS4CompressionMode eCompressionMode,
+                                   final boolean bDataIsCompressed,
+                                   @Nullable final AS4CompressionSettings aCompressionSettings,
+                                   @Nullable final Charset aCharset,
+                                   @Nullable final ICommonsOrderedMap <String, String> aCustomProperties)
   {
     ValueEnforcer.isTrue (aDataBytes != null || aDataFile != null, "SrcData or SrcFile must be present");
     ValueEnforcer.isFalse (aDataBytes != null && aDataFile != null,
                            "Either SrcData or SrcFile must be present but not both");
     ValueEnforcer.notNull (aMimeType, "MimeType");
+    ValueEnforcer.isFalse (bDataIsCompressed && eCompressionMode == null,
+                           "If the data is compressed, a compression mode must be present");
     m_aDataBytes = aDataBytes;
     m_aDataFile = aDataFile;
     m_sContentID = sContentID;
     m_sFilename = sFilename;
     m_aMimeType = aMimeType;
     m_eCompressionMode = eCompressionMode;
+    m_bDataIsCompressed = bDataIsCompressed;
+    m_aCompressionSettings = aCompressionSettings;
     m_aCharset = aCharset;
     // Create a clone
     m_aCustomProperties = aCustomProperties != null ? aCustomProperties.getClone () : new CommonsLinkedHashMap <> ();
@@ -159,6 +214,28 @@ public class AS4OutgoingAttachment
     return m_eCompressionMode;
   }
 
+  /**
+   * @return <code>true</code> if the data is already compressed with the compression mode, so that
+   *         no further compression is needed. <code>false</code> if the data is uncompressed.
+   * @since 4.5.5
+   */
+  public final boolean isDataCompressed ()
+  {
+    return m_bDataIsCompressed;
+  }
+
+  /**
+   * @return The compression settings to be used for this attachment. May be <code>null</code> in
+   *         which case the global default is used.
+   * @since 4.5.5
+   * @see AS4CompressionSettings#getDefault()
+   */
+  @Nullable
+  public final AS4CompressionSettings getCompressionSettings ()
+  {
+    return m_aCompressionSettings;
+  }
+
   /**
    * @return The character set to use. May be <code>null</code>.
    * @since 0.14.0
@@ -200,6 +277,8 @@ public class AS4OutgoingAttachment
                                        .append ("Filename", m_sFilename)
                                        .append ("MimeType", m_aMimeType)
                                        .append ("CompressionMode", m_eCompressionMode)
+                                       .append ("DataIsCompressed", m_bDataIsCompressed)
+                                       .append ("CompressionSettings", m_aCompressionSettings)
                                        .append ("Charset", m_aCharset)
                                        .append ("CustomProperties", m_aCustomProperties)
                                        .getToString ();
@@ -230,6 +309,8 @@ public class AS4OutgoingAttachment
     private String m_sFilename;
     private IMimeType m_aMimeType;
     private EAS4CompressionMode m_eCompressionMode;
+    private boolean m_bDataIsCompressed;
+    private AS4CompressionSettings m_aCompressionSettings;
     private Charset m_aCharset;
     private final ICommonsOrderedMap <String, String> m_aCustomProperties = new CommonsLinkedHashMap <> ();
 
@@ -314,6 +395,41 @@ public class AS4OutgoingAttachment
       return this;
     }
 
+    /**
+     * Define if the provided data is already compressed with the provided compression mode. This
+     * allows to compress the data directly while creating it, without the need for an additional
+     * compression pass. Default is <code>false</code>.
+     *
+     * @param b
+     *        <code>true</code> if the data is already compressed, <code>false</code> if not.
+     * @return this for chaining
+     * @since 4.5.5
+     */
+    @NonNull
+    public Builder dataIsCompressed (final boolean b)
+    {
+      m_bDataIsCompressed = b;
+      return this;
+    }
+
+    /**
+     * Define the compression settings to use for this attachment, e.g. to compress a large
+     * attachment in parallel. Only relevant if a compression mode is set and the data is not
+     * already compressed.
+     *
+     * @param a
+     *        The compression settings to use. May be <code>null</code> to use the global default.
+     * @return this for chaining
+     * @since 4.5.5
+     * @see AS4CompressionSettings#getDefault()
+     */
+    @NonNull
+    public Builder compressionSettings (@Nullable final AS4CompressionSettings a)
+    {
+      m_aCompressionSettings = a;
+      return this;
+    }
+
     /**
      * Define the charset of the outgoing attachment.
      *
@@ -408,6 +524,8 @@ public class AS4OutgoingAttachment
         throw new IllegalStateException ("Phase4OutgoingAttachment has no 'data' element");
       if (m_aMimeType == null)
         throw new IllegalStateException ("Phase4OutgoingAttachment has no 'mimeType' element");
+      if (m_bDataIsCompressed && m_eCompressionMode == null)
+        throw new IllegalStateException ("Phase4OutgoingAttachment has compressed data but no 'compression' element");
     }
 
     @NonNull
@@ -420,6 +538,8 @@ public class AS4OutgoingAttachment
                                         m_sFilename,
                                         m_aMimeType,
                                         m_eCompressionMode,
+                                        m_bDataIsCompressed,
+                                        m_aCompressionSettings,
                                         m_aCharset,
                                         m_aCustomProperties);
     }
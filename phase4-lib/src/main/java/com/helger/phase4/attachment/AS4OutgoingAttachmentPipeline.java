@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.SecretKey;
+
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.encryption.XMLCipherUtil;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+
+import com.helger.annotation.WillClose;
+import com.helger.annotation.WillNotClose;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.iface.IHasInputStream;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.wss.WSSConfigManager;
+
+/**
+ * Single pass processing of outgoing attachment content. The source of each attachment is read
+ * exactly once and streamed through the pending compression, the digest calculation for the
+ * signature and the encryption into one spool. The signature digest is handed to the signer, so
+ * that WSS4J does not need to read the attachment again, and the spooled cipher text is reused for
+ * sending, retries and dumping without encrypting again.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@Immutable
+public final class AS4OutgoingAttachmentPipeline
+{
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4OutgoingAttachmentPipeline.class);
+  private static final SecureRandom SECURE_RANDOM = new SecureRandom ();
+
+  private AS4OutgoingAttachmentPipeline ()
+  {}
+
+  /**
+   * Check if the signature digest of an attachment with the provided MIME type can be calculated
+   * outside of WSS4J. The attachment content signature transform canonicalizes XML content and
+   * normalizes the line endings of text content, so the digest is only calculated over the raw bytes
+   * for all other MIME types.
+   *
+   * @param sMimeType
+   *        The effective MIME type of the attachment (after compression). May be <code>null</code>.
+   * @return <code>true</code> if the digest can be calculated over the raw bytes.
+   */
+  public static boolean isPrecomputedDigestSupported (@Nullable final String sMimeType)
+  {
+    if (sMimeType == null)
+      return false;
+    final String sLC = sMimeType.toLowerCase (Locale.ROOT);
+    return !sLC.startsWith ("text/") &&
+           !sLC.startsWith ("application/xml") &&
+           !sLC.matches ("(application|image)/[^;]*\\+xml.*");
+  }
+
+  /**
+   * Get the JCA name of the message digest algorithm with the provided XML Security URI.
+   *
+   * @param sDigestAlgorithmURI
+   *        The digest algorithm URI, as used in the signature. May not be <code>null</code>.
+   * @return The JCA algorithm name. Never <code>null</code>.
+   * @throws IllegalArgumentException
+   *         If the algorithm URI is unknown
+   */
+  @NonNull
+  public static String getDigestAlgorithmName (@NonNull final String sDigestAlgorithmURI)
+  {
+    // Ensure the XML Security algorithms are registered
+    WSSConfigManager.getInstance ();
+
+    final String ret = JCEMapper.translateURItoJCEID (sDigestAlgorithmURI);
+    if (ret == null)
+      throw new IllegalArgumentException ("Unsupported digest algorithm '" + sDigestAlgorithmURI + "'");
+    return ret;
+  }
+
+  @NonNull
+  private static OutputStream _createEncryptingStream (@NonNull @WillClose final OutputStream aOS,
+                                                       @NonNull final SecretKey aSessionKey,
+                                                       @NonNull final String sCryptAlgorithmURI) throws IOException
+  {
+    final String sJCEID = JCEMapper.translateURItoJCEID (sCryptAlgorithmURI);
+    if (sJCEID == null)
+      throw new IOException ("Unsupported encryption algorithm '" + sCryptAlgorithmURI + "'");
+
+    try
+    {
+      final byte [] aIV = new byte [JCEMapper.getIVLengthFromURI (sCryptAlgorithmURI) / 8];
+      SECURE_RANDOM.nextBytes (aIV);
+
+      final Cipher aCipher = Cipher.getInstance (sJCEID);
+      aCipher.init (Cipher.ENCRYPT_MODE,
+                    aSessionKey,
+                    XMLCipherUtil.constructBlockCipherParameters (sCryptAlgorithmURI, aIV));
+
+      // Same layout as created by WSS4J: the IV followed by the cipher text
+      aOS.write (aIV);
+      return new CipherOutputStream (aOS, aCipher);
+    }
+    catch (final GeneralSecurityException ex)
+    {
+      throw new IOException ("Failed to initialize the cipher for '" + sCryptAlgorithmURI + "'", ex);
+    }
+  }
+
+  /**
+   * Compress the provided source in a single pass. The result is set as the source and the
+   * compressed source stream provider of the provided attachment, together with the content length.
+   *
+   * @param aSrcIS
+   *        The uncompressed source stream. Will be closed. May not be <code>null</code>.
+   * @param eCompressionMode
+   *        The compression mode to use. May not be <code>null</code>.
+   * @param aCompressionSettings
+   *        The compression settings to use. May be <code>null</code> to use the global default.
+   * @param aAttachment
+   *        The attachment to fill. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper to spool the compressed content. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of an IO error
+   */
+  public static void compress (@NonNull @WillClose final InputStream aSrcIS,
+                               @NonNull final EAS4CompressionMode eCompressionMode,
+                               @Nullable final AS4CompressionSettings aCompressionSettings,
+                               @NonNull final WSS4JAttachment aAttachment,
+                               @NonNull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
+  {
+    ValueEnforcer.notNull (aSrcIS, "SrcIS");
+    ValueEnforcer.notNull (eCompressionMode, "CompressionMode");
+    ValueEnforcer.notNull (aAttachment, "Attachment");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    final AS4CompressionSettings aRealSettings = aCompressionSettings != null ? aCompressionSettings
+                                                                              : AS4CompressionSettings.getDefault ();
+    final AS4SpoolingOutputStream aSpoolOS = new AS4SpoolingOutputStream (aResHelper,
+                                                                          AS4SpoolingOutputStream.DEFAULT_IN_MEMORY_THRESHOLD);
+    try (final InputStream aIS = aSrcIS)
+    {
+      // Closing the compressing stream closes the whole chain
+      try (final OutputStream aOS = eCompressionMode.getCompressStream (aSpoolOS, aRealSettings))
+      {
+        AS4SpoolingOutputStream.copy (aIS, aOS);
+      }
+    }
+
+    final IHasInputStream aContent = aSpoolOS.getContent ();
+    aAttachment.setSourceStreamProvider (aContent);
+    // Preserve the compressed data for non-repudiation purposes - the
+    // signature digests are calculated over the compressed data
+    aAttachment.setCompressedSourceStreamProvider (aContent);
+    aAttachment.setContentLength (aSpoolOS.getSize ());
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Compressed outgoing attachment '" +
+                    aAttachment.getId () +
+                    "' in a single pass to " +
+                    aSpoolOS.getSize () +
+                    " bytes");
+  }
+
+  /**
+   * Process all outgoing attachments in a single pass each: the source is read once and streamed
+   * through the pending compression, the digest calculation and the encryption. Depending on the
+   * parameters, the following is stored in each attachment:
+   * <ul>
+   * <li>The content digest, that is used by the signer instead of reading the attachment
+   * again.</li>
+   * <li>The spooled cipher text, that is used by the encryptor instead of encrypting lazily while
+   * sending.</li>
+   * <li>If the attachment is not encrypted, the spooled compressed content, that replaces the
+   * uncompressed source.</li>
+   * </ul>
+   * Attachments without anything to do are not read at all.
+   *
+   * @param aAttachments
+   *        The attachments to process. May not be <code>null</code>.
+   * @param sDigestAlgorithmURI
+   *        The signature digest algorithm URI. May be <code>null</code> if the message is not
+   *        signed.
+   * @param aSessionKey
+   *        The session key that will be used by the encryptor. May be <code>null</code> if the
+   *        message is not encrypted.
+   * @param sCryptAlgorithmURI
+   *        The encryption algorithm URI. Only relevant if a session key is provided.
+   * @param aResHelper
+   *        The resource helper to spool the content. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of an IO error
+   */
+  public static void process (@NonNull final Iterable <? extends WSS4JAttachment> aAttachments,
+                              @Nullable final String sDigestAlgorithmURI,
+                              @Nullable final SecretKey aSessionKey,
+                              @Nullable final String sCryptAlgorithmURI,
+                              @NonNull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
+  {
+    ValueEnforcer.notNull (aAttachments, "Attachments");
+    ValueEnforcer.isTrue (aSessionKey == null || sCryptAlgorithmURI != null, "CryptAlgorithmURI must be present");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    // Ensure the XML Security algorithms are registered
+    WSSConfigManager.getInstance ();
+
+    final String sDigestAlgorithm = sDigestAlgorithmURI == null ? null : getDigestAlgorithmName (sDigestAlgorithmURI);
+
+    for (final WSS4JAttachment aAttachment : aAttachments)
+    {
+      final boolean bCompress = aAttachment.isCompressionPending ();
+      final boolean bDigest = sDigestAlgorithm != null && isPrecomputedDigestSupported (aAttachment.getMimeType ());
+      final boolean bEncrypt = aSessionKey != null;
+      final IHasInputStream aSrcISP = aAttachment.internalGetRawSourceStreamProvider ();
+      // Non-repeatable sources must be spooled in any case
+      final boolean bSpoolContent = !bEncrypt && (bCompress || !aSrcISP.isReadMultiple ());
+
+      if (!bDigest && !bEncrypt && !bSpoolContent)
+      {
+        // Nothing to do - don't touch the source
+        continue;
+      }
+
+      AS4SpoolingOutputStream aSpoolOS = null;
+      if (bEncrypt || bSpoolContent)
+        aSpoolOS = new AS4SpoolingOutputStream (aResHelper, AS4SpoolingOutputStream.DEFAULT_IN_MEMORY_THRESHOLD);
+
+      final MessageDigest aMD;
+      try
+      {
+        aMD = bDigest ? MessageDigest.getInstance (sDigestAlgorithm) : null;
+      }
+      catch (final GeneralSecurityException ex)
+      {
+        throw new IOException ("Failed to create message digest '" + sDigestAlgorithm + "'", ex);
+      }
+
+      // Build the chain from the inside out: spool <- cipher <- digest <- compression
+      OutputStream aOS = aSpoolOS != null ? aSpoolOS : OutputStream.nullOutputStream ();
+      if (bEncrypt)
+        aOS = _createEncryptingStream (aOS, aSessionKey, sCryptAlgorithmURI);
+      if (aMD != null)
+        aOS = new DigestOutputStream (aOS, aMD);
+      if (bCompress)
+      {
+        final AS4CompressionSettings aSettings = aAttachment.getPendingCompressionSettings ();
+        aOS = aAttachment.getCompressionMode ()
+                         .getCompressStream (aOS,
+                                             aSettings != null ? aSettings : AS4CompressionSettings.getDefault ());
+      }
+
+      final InputStream aSrcIS = aSrcISP.getInputStream ();
+      if (aSrcIS == null)
+        throw new IOException ("Failed to open source of attachment '" + aAttachment.getId () + "'");
+      try (final InputStream aIS = aSrcIS; final OutputStream aChainOS = aOS)
+      {
+        // Closing the outer most stream closes the whole chain
+        AS4SpoolingOutputStream.copy (aIS, aChainOS);
+      }
+
+      if (aMD != null)
+        aAttachment.setContentDigest (sDigestAlgorithm, aMD.digest ());
+
+      if (bEncrypt)
+      {
+        aAttachment.setEncryptedContent (aSpoolOS.getContent (), aSpoolOS.getSize (), aSessionKey, sCryptAlgorithmURI);
+      }
+      else
+        if (bSpoolContent)
+        {
+          aAttachment.setSourceStreamProvider (aSpoolOS.getContent ());
+          if (bCompress)
+          {
+            // Preserve the compressed data for non-repudiation purposes
+            aAttachment.setCompressedSourceStreamProvider (aSpoolOS.getContent ());
+          }
+          aAttachment.setContentLength (aSpoolOS.getSize ());
+        }
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Processed outgoing attachment '" +
+                      aAttachment.getId () +
+                      "' in a single pass [" +
+                      (bCompress ? "compress " : "") +
+                      (bDigest ? "digest " : "") +
+                      (bEncrypt ? "encrypt " : "") +
+                      "]" +
+                      (aSpoolOS != null ? " to " + aSpoolOS.getSize () + " spooled bytes" : ""));
+    }
+  }
+}
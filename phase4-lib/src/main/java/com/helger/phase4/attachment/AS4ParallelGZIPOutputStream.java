@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.jspecify.annotations.NonNull;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.NotThreadSafe;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
+import com.helger.base.tostring.ToStringGenerator;
+
+/**
+ * A GZIP output stream that compresses the data in parallel. The input is split into blocks of a
+ * fixed size, each block is compressed on the provided executor as an independent GZIP member and
+ * the members are written in order. Concatenated GZIP members are a valid GZIP stream (RFC 1952,
+ * chapter 2.2) so any GZIP reader can decompress the result. The number of blocks in flight is
+ * limited, so the memory consumption is bound independent of the input size.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@NotThreadSafe
+public class AS4ParallelGZIPOutputStream extends OutputStream
+{
+  // Magic, CM=deflate, no flags, no mtime, no extra flags, OS=unknown
+  private static final byte [] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+  private static final int DEFLATE_BUFFER_SIZE = 16 * 1024;
+
+  private final OutputStream m_aOS;
+  private final int m_nLevel;
+  private final int m_nBlockSize;
+  private final ExecutorService m_aExecutor;
+  private final int m_nMaxPendingBlocks;
+  private final Deque <Future <byte []>> m_aPending = new ArrayDeque <> ();
+  private byte [] m_aBlock;
+  private int m_nBlockLen = 0;
+  private boolean m_bAnyMemberWritten = false;
+  private boolean m_bClosed = false;
+
+  /**
+   * Constructor
+   *
+   * @param aOS
+   *        The output stream to write the compressed data to. Is closed when this stream is closed.
+   *        May not be <code>null</code>.
+   * @param aSettings
+   *        The compression settings to use. May not be <code>null</code>.
+   */
+  public AS4ParallelGZIPOutputStream (@NonNull final OutputStream aOS,
+                                      @NonNull final AS4CompressionSettings aSettings)
+  {
+    this (aOS,
+          aSettings.getLevel (),
+          aSettings.getBlockSize (),
+          aSettings.getExecutor (),
+          2 * Runtime.getRuntime ().availableProcessors ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aOS
+   *        The output stream to write the compressed data to. Is closed when this stream is closed.
+   *        May not be <code>null</code>.
+   * @param nLevel
+   *        The compression level. Must be between 0 and 9 or -1 for the default level.
+   * @param nBlockSize
+   *        The size of a single block in bytes. Must be &gt; 0.
+   * @param aExecutor
+   *        The executor to compress the blocks on. May not be <code>null</code>.
+   * @param nMaxPendingBlocks
+   *        The maximum number of blocks that are compressed concurrently. Must be &gt; 0.
+   */
+  public AS4ParallelGZIPOutputStream (@NonNull final OutputStream aOS,
+                                      final int nLevel,
+                                      @Nonnegative final int nBlockSize,
+                                      @NonNull final ExecutorService aExecutor,
+                                      @Nonnegative final int nMaxPendingBlocks)
+  {
+    ValueEnforcer.notNull (aOS, "OutputStream");
+    ValueEnforcer.isGT0 (nBlockSize, "BlockSize");
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    ValueEnforcer.isGT0 (nMaxPendingBlocks, "MaxPendingBlocks");
+    m_aOS = aOS;
+    m_nLevel = nLevel;
+    m_nBlockSize = nBlockSize;
+    m_aExecutor = aExecutor;
+    m_nMaxPendingBlocks = nMaxPendingBlocks;
+    m_aBlock = new byte [nBlockSize];
+  }
+
+  private static void _writeIntLE (@NonNull final OutputStream aOS, final int n) throws IOException
+  {
+    aOS.write (n & 0xff);
+    aOS.write ((n >>> 8) & 0xff);
+    aOS.write ((n >>> 16) & 0xff);
+    aOS.write ((n >>> 24) & 0xff);
+  }
+
+  /**
+   * Compress the provided data into a single, complete GZIP member.
+   *
+   * @param aData
+   *        The data to compress. May not be <code>null</code>.
+   * @param nLen
+   *        The number of bytes to compress, starting at offset 0.
+   * @param nLevel
+   *        The compression level to use.
+   * @return The complete GZIP member including header and trailer. Never <code>null</code>.
+   * @throws IOException
+   *         Never in practice
+   */
+  @NonNull
+  static byte [] compressMember (final byte @NonNull [] aData, final int nLen, final int nLevel) throws IOException
+  {
+    final Deflater aDeflater = new Deflater (nLevel, true);
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (nLen / 2 + 64))
+    {
+      aBAOS.write (GZIP_HEADER);
+
+      aDeflater.setInput (aData, 0, nLen);
+      aDeflater.finish ();
+      final byte [] aBuf = new byte [DEFLATE_BUFFER_SIZE];
+      while (!aDeflater.finished ())
+      {
+        final int nDeflated = aDeflater.deflate (aBuf);
+        aBAOS.write (aBuf, 0, nDeflated);
+      }
+
+      // Trailer: CRC32 and ISIZE
+      final CRC32 aCRC = new CRC32 ();
+      aCRC.update (aData, 0, nLen);
+      _writeIntLE (aBAOS, (int) aCRC.getValue ());
+      _writeIntLE (aBAOS, nLen);
+      return aBAOS.toByteArray ();
+    }
+    finally
+    {
+      aDeflater.end ();
+    }
+  }
+
+  private void _ensureOpen () throws IOException
+  {
+    if (m_bClosed)
+      throw new IOException ("Stream is already closed");
+  }
+
+  private void _writeFirstPending () throws IOException
+  {
+    final Future <byte []> aFuture = m_aPending.removeFirst ();
+    try
+    {
+      m_aOS.write (aFuture.get ());
+      m_bAnyMemberWritten = true;
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ("Interrupted while waiting for a compressed block");
+    }
+    catch (final ExecutionException ex)
+    {
+      throw new IOException ("Failed to compress block", ex.getCause ());
+    }
+  }
+
+  private void _submitBlock () throws IOException
+  {
+    if (m_nBlockLen == 0)
+      return;
+
+    final byte [] aData = m_aBlock;
+    final int nLen = m_nBlockLen;
+    final int nLevel = m_nLevel;
+    m_aPending.addLast (m_aExecutor.submit ( () -> compressMember (aData, nLen, nLevel)));
+    m_aBlock = new byte [m_nBlockSize];
+    m_nBlockLen = 0;
+
+    // Limit the memory consumption
+    while (m_aPending.size () > m_nMaxPendingBlocks)
+      _writeFirstPending ();
+  }
+
+  private void _writeAllPending () throws IOException
+  {
+    while (!m_aPending.isEmpty ())
+      _writeFirstPending ();
+  }
+
+  @Override
+  public void write (final int b) throws IOException
+  {
+    _ensureOpen ();
+    m_aBlock[m_nBlockLen++] = (byte) b;
+    if (m_nBlockLen == m_nBlockSize)
+      _submitBlock ();
+  }
+
+  @Override
+  public void write (final byte @NonNull [] aBuf, final int nOfs, final int nLen) throws IOException
+  {
+    ValueEnforcer.isArrayOfsLen (aBuf, nOfs, nLen);
+    _ensureOpen ();
+
+    int nCurOfs = nOfs;
+    int nRemaining = nLen;
+    while (nRemaining > 0)
+    {
+      final int nChunk = Math.min (nRemaining, m_nBlockSize - m_nBlockLen);
+      System.arraycopy (aBuf, nCurOfs, m_aBlock, m_nBlockLen, nChunk);
+      m_nBlockLen += nChunk;
+      nCurOfs += nChunk;
+      nRemaining -= nChunk;
+      if (m_nBlockLen == m_nBlockSize)
+        _submitBlock ();
+    }
+  }
+
+  /**
+   * Flushing finishes the current block as a separate GZIP member, waits for all pending blocks
+   * and flushes the underlying stream. Frequent flushing therefore reduces the compression ratio.
+   */
+  @Override
+  public void flush () throws IOException
+  {
+    _ensureOpen ();
+    _submitBlock ();
+    _writeAllPending ();
+    m_aOS.flush ();
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    if (m_bClosed)
+      return;
+    m_bClosed = true;
+
+    try
+    {
+      _submitBlock ();
+      _writeAllPending ();
+      if (!m_bAnyMemberWritten)
+      {
+        // Empty input - an empty member is required for a valid GZIP stream
+        m_aOS.write (compressMember (m_aBlock, 0, m_nLevel));
+      }
+    }
+    finally
+    {
+      // Don't leave any compression running in case of an error
+      for (final Future <byte []> aFuture : m_aPending)
+        aFuture.cancel (true);
+      m_aPending.clear ();
+      m_aBlock = null;
+      m_aOS.close ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Level", m_nLevel)
+                                       .append ("BlockSize", m_nBlockSize)
+                                       .append ("Executor", m_aExecutor)
+                                       .append ("MaxPendingBlocks", m_nMaxPendingBlocks)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.jspecify.annotations.NonNull;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.WillNotClose;
+import com.helger.annotation.concurrent.NotThreadSafe;
+import com.helger.base.CGlobal;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.iface.IHasInputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.phase4.messaging.mime.AS4KnownLengthContent;
+import com.helger.phase4.spool.IAS4SpoolEntry;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * An output stream that keeps the written content in memory as long as it does not exceed a
+ * threshold, and spills it to a spool entry of an {@link AS4ResourceHelper} otherwise. The memory
+ * buffer grows with the content, so small contents don't allocate the whole threshold. After the
+ * stream was closed, the content can be read as often as needed via {@link #getContent()}.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@NotThreadSafe
+public final class AS4SpoolingOutputStream extends OutputStream
+{
+  /** Same threshold as {@link WSS4JAttachment#canBeKeptInMemory(long)} */
+  public static final int DEFAULT_IN_MEMORY_THRESHOLD = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private static final int COPY_BUFFER_SIZE = 16 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private final AS4ResourceHelper m_aResHelper;
+  private final int m_nInMemoryThreshold;
+  private NonBlockingByteArrayOutputStream m_aBAOS = new NonBlockingByteArrayOutputStream ();
+  private IAS4SpoolEntry m_aSpoolEntry;
+  private OutputStream m_aSpoolOS;
+  private long m_nSize;
+  private IHasInputStream m_aContent;
+
+  /**
+   * Constructor
+   *
+   * @param aResHelper
+   *        The resource helper to create the spool entry from. May not be <code>null</code>.
+   * @param nInMemoryThreshold
+   *        The maximum number of bytes that are kept in memory. Must be &ge; 0.
+   */
+  public AS4SpoolingOutputStream (@NonNull @WillNotClose final AS4ResourceHelper aResHelper,
+                                  @Nonnegative final int nInMemoryThreshold)
+  {
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+    ValueEnforcer.isGE0 (nInMemoryThreshold, "InMemoryThreshold");
+    m_aResHelper = aResHelper;
+    m_nInMemoryThreshold = nInMemoryThreshold;
+  }
+
+  private void _ensureCapacity (final int nAdditional) throws IOException
+  {
+    if (m_aContent != null)
+      throw new IOException ("The spooling stream was already closed");
+
+    if (m_aSpoolOS == null && m_nSize + nAdditional > m_nInMemoryThreshold)
+    {
+      // Spill to the spool
+      m_aSpoolEntry = m_aResHelper.createSpoolEntry ();
+      m_aSpoolOS = m_aSpoolEntry.getOutputStream ();
+      m_aBAOS.writeTo (m_aSpoolOS);
+      m_aBAOS = null;
+    }
+  }
+
+  @Override
+  public void write (final int b) throws IOException
+  {
+    _ensureCapacity (1);
+    if (m_aSpoolOS != null)
+      m_aSpoolOS.write (b);
+    else
+      m_aBAOS.write (b);
+    m_nSize++;
+  }
+
+  @Override
+  public void write (final byte @NonNull [] aBuf, final int nOfs, final int nLen) throws IOException
+  {
+    _ensureCapacity (nLen);
+    if (m_aSpoolOS != null)
+      m_aSpoolOS.write (aBuf, nOfs, nLen);
+    else
+      m_aBAOS.write (aBuf, nOfs, nLen);
+    m_nSize += nLen;
+  }
+
+  @Override
+  public void flush () throws IOException
+  {
+    if (m_aSpoolOS != null)
+      m_aSpoolOS.flush ();
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    if (m_aContent == null)
+    {
+      if (m_aSpoolOS != null)
+      {
+        m_aSpoolOS.close ();
+        m_aSpoolOS = null;
+
+        final File aFile = m_aSpoolEntry.getFile ();
+        // Only file based content is known to be unmodified afterwards
+        m_aContent = aFile != null ? AS4KnownLengthContent.ofFile (aFile) : m_aSpoolEntry;
+      }
+      else
+      {
+        m_aContent = AS4KnownLengthContent.ofBytes (m_aBAOS.toByteArray ());
+        m_aBAOS = null;
+      }
+    }
+  }
+
+  /**
+   * @return The number of bytes written so far.
+   */
+  @Nonnegative
+  public long getSize ()
+  {
+    return m_nSize;
+  }
+
+  /**
+   * @return <code>true</code> if the content is kept in memory, <code>false</code> if it was
+   *         spilled to a spool entry.
+   */
+  public boolean isInMemory ()
+  {
+    return m_aSpoolEntry == null;
+  }
+
+  /**
+   * @return The written content that can be read multiple times. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the stream was not yet closed
+   */
+  @NonNull
+  public IHasInputStream getContent ()
+  {
+    if (m_aContent == null)
+      throw new IllegalStateException ("The spooling stream must be closed before the content can be accessed");
+    return m_aContent;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("InMemoryThreshold", m_nInMemoryThreshold)
+                                       .append ("Size", m_nSize)
+                                       .append ("SpoolEntry", m_aSpoolEntry)
+                                       .getToString ();
+  }
+
+  /**
+   * Copy the complete input stream to the output stream. Neither stream is closed.
+   *
+   * @param aIS
+   *        The stream to read from. May not be <code>null</code>.
+   * @param aOS
+   *        The stream to write to. May not be <code>null</code>.
+   * @return The number of bytes copied.
+   * @throws IOException
+   *         In case of a read or write error
+   */
+  @Nonnegative
+  public static long copy (@NonNull @WillNotClose final InputStream aIS,
+                           @NonNull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    final byte [] aBuf = new byte [COPY_BUFFER_SIZE];
+    long nTotal = 0;
+    int nRead;
+    while ((nRead = aIS.read (aBuf)) >= 0)
+    {
+      aOS.write (aBuf, 0, nRead);
+      nTotal += nRead;
+    }
+    return nTotal;
+  }
+
+  /**
+   * Read the provided stream exactly once and keep the content in memory or in a spool entry,
+   * depending on its size.
+   *
+   * @param aIS
+   *        The stream to read. Is not closed. May not be <code>null</code>.
+   * @param nInMemoryThreshold
+   *        The maximum number of bytes that are kept in memory. Must be &ge; 0.
+   * @param aResHelper
+   *        The resource helper to create the spool entry from. May not be <code>null</code>.
+   * @return The closed spooling stream, from which the content and the size can be retrieved. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         In case of a read or write error
+   */
+  @NonNull
+  public static AS4SpoolingOutputStream spool (@NonNull @WillNotClose final InputStream aIS,
+                                               @Nonnegative final int nInMemoryThreshold,
+                                               @NonNull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
+  {
+    ValueEnforcer.notNull (aIS, "IS");
+
+    final AS4SpoolingOutputStream ret = new AS4SpoolingOutputStream (aResHelper, nInMemoryThreshold);
+    try (ret)
+    {
+      copy (aIS, ret);
+    }
+    return ret;
+  }
+}
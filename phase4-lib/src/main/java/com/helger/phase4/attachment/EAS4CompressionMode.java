@@ -19,7 +19,7 @@ package com.helger.phase4.attachment;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.GZIPInputStream;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import org.jspecify.annotations.NonNull;
@@ -46,14 +46,28 @@ public enum EAS4CompressionMode implements IHasID <String>
     @NonNull
     public InputStream getDecompressStream (@NonNull final InputStream aIS) throws IOException
     {
-      return new GZIPInputStream (aIS);
+      return new AS4GZIPInputStream (aIS);
     }
 
     @Override
     @NonNull
-    public OutputStream getCompressStream (@NonNull final OutputStream aOS) throws IOException
+    public OutputStream getCompressStream (@NonNull final OutputStream aOS,
+                                           @NonNull final AS4CompressionSettings aSettings) throws IOException
     {
-      return new GZIPOutputStream (aOS);
+      if (aSettings.isParallel ())
+        return new AS4ParallelGZIPOutputStream (aOS, aSettings);
+
+      final int nLevel = aSettings.getLevel ();
+      if (nLevel == Deflater.DEFAULT_COMPRESSION)
+        return new GZIPOutputStream (aOS);
+
+      return new GZIPOutputStream (aOS)
+      {
+        {
+          // Nothing was deflated yet, so the level applies to all data
+          def.setLevel (nLevel);
+        }
+      };
     }
   };
 
@@ -119,17 +133,38 @@ public enum EAS4CompressionMode implements IHasID <String>
   @NonNull
   public abstract InputStream getDecompressStream (@NonNull InputStream aIS) throws IOException;
 
+  /**
+   * Get an {@link OutputStream} to compress the provided {@link OutputStream} using the global
+   * default compression settings.
+   *
+   * @param aOS
+   *        The source {@link OutputStream}. May not be <code>null</code>.
+   * @return The compressing {@link OutputStream}
+   * @throws IOException
+   *         In case of IO error
+   * @see AS4CompressionSettings#getDefault()
+   */
+  @NonNull
+  public final OutputStream getCompressStream (@NonNull final OutputStream aOS) throws IOException
+  {
+    return getCompressStream (aOS, AS4CompressionSettings.getDefault ());
+  }
+
   /**
    * Get an {@link OutputStream} to compress the provided {@link OutputStream}.
    *
    * @param aOS
    *        The source {@link OutputStream}. May not be <code>null</code>.
+   * @param aSettings
+   *        The compression settings to use. May not be <code>null</code>.
    * @return The compressing {@link OutputStream}
    * @throws IOException
    *         In case of IO error
+   * @since 4.5.5
    */
   @NonNull
-  public abstract OutputStream getCompressStream (@NonNull OutputStream aOS) throws IOException;
+  public abstract OutputStream getCompressStream (@NonNull OutputStream aOS,
+                                                  @NonNull AS4CompressionSettings aSettings) throws IOException;
 
   @Nullable
   public static EAS4CompressionMode getFromMimeTypeStringOrNull (@Nullable final String sMimeType)
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+
+import org.jspecify.annotations.NonNull;
+
+import com.helger.annotation.WillNotClose;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+import jakarta.mail.Header;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeBodyPart;
+
+/**
+ * Extended {@link IAS4IncomingAttachmentFactory} that creates attachments directly from the MIME
+ * part headers and the still encoded MIME part body stream. If an implementation of this interface
+ * is used, the incoming MIME parts are not buffered in a {@link MimeBodyPart}, so the content is
+ * read exactly once.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@FunctionalInterface
+public interface IAS4IncomingStreamingAttachmentFactory extends IAS4IncomingAttachmentFactory
+{
+  /**
+   * Create an attachment from a single streamed MIME part.
+   *
+   * @param aHeaders
+   *        The already parsed MIME part headers. May not be <code>null</code>.
+   * @param aBodyIS
+   *        The MIME part body, still in the Content-Transfer-Encoding of the part. Must be read
+   *        completely before returning. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The internal attachment representation. Never <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @throws MessagingException
+   *         In case MIME part decoding fails.
+   */
+  @NonNull
+  WSS4JAttachment createAttachment (@NonNull InternetHeaders aHeaders,
+                                    @NonNull @WillNotClose InputStream aBodyIS,
+                                    @NonNull AS4ResourceHelper aResHelper) throws IOException, MessagingException;
+
+  @Override
+  @NonNull
+  default WSS4JAttachment createAttachment (@NonNull final MimeBodyPart aBodyPart,
+                                            @NonNull final AS4ResourceHelper aResHelper) throws IOException,
+                                                                                         MessagingException
+  {
+    final InternetHeaders aHeaders = new InternetHeaders ();
+    final Enumeration <Header> aEnum = aBodyPart.getAllHeaders ();
+    while (aEnum.hasMoreElements ())
+    {
+      final Header aHeader = aEnum.nextElement ();
+      aHeaders.addHeader (aHeader.getName (), aHeader.getValue ());
+    }
+    try (final InputStream aIS = aBodyPart.getRawInputStream ())
+    {
+      return createAttachment (aHeaders, aIS, aResHelper);
+    }
+  }
+}
@@ -25,6 +25,8 @@ import java.nio.charset.Charset;
 import java.util.Enumeration;
 import java.util.Map;
 
+import javax.crypto.SecretKey;
+
 import org.apache.wss4j.common.ext.Attachment;
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
@@ -37,10 +39,7 @@ import com.helger.annotation.style.UnsupportedOperation;
 import com.helger.base.CGlobal;
 import com.helger.base.enforce.ValueEnforcer;
 import com.helger.base.io.iface.IHasInputStream;
-import com.helger.base.io.nonblocking.NonBlockingBufferedOutputStream;
-import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
 import com.helger.base.io.stream.HasInputStream;
-import com.helger.base.io.stream.StreamHelper;
 import com.helger.base.string.StringHelper;
 import com.helger.base.tostring.ToStringGenerator;
 import com.helger.collection.commons.CommonsLinkedHashMap;
@@ -51,6 +50,8 @@ import com.helger.mail.cte.EContentTransferEncoding;
 import com.helger.mail.datasource.InputStreamProviderDataSource;
 import com.helger.mime.IMimeType;
 import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.messaging.mime.AS4KnownLengthContent;
+import com.helger.phase4.messaging.mime.AS4SoapMimeMultipart;
 import com.helger.phase4.model.message.MessageHelperMethods;
 import com.helger.phase4.util.AS4ResourceHelper;
 
@@ -86,6 +87,75 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   private Charset m_aCharset;
   private String m_sUncompressedMimeType;
   private final ICommonsOrderedMap <String, String> m_aCustomPartProps = new CommonsLinkedHashMap <> ();
+  private long m_nContentLength = -1;
+  private String m_sContentDigestAlgorithm;
+  private byte [] m_aContentDigest;
+  private boolean m_bCompressionPending;
+  private AS4CompressionSettings m_aPendingCompressionSettings;
+  private IHasInputStream m_aEncryptedISP;
+  private long m_nEncryptedContentLength = -1;
+  private SecretKey m_aEncryptionKey;
+  private String m_sEncryptionAlgorithmURI;
+
+  /**
+   * An input stream that opens the compressed content only when it is first accessed. This allows
+   * WSS4J to open the source stream of an attachment with pending compression without compressing
+   * it, as long as the stream is not read.
+   *
+   * @author Philip Helger
+   */
+  private final class DeferredSourceInputStream extends InputStream
+  {
+    private InputStream m_aDelegate;
+    private boolean m_bClosed;
+
+    @NonNull
+    private InputStream _getDelegate () throws IOException
+    {
+      if (m_bClosed)
+        throw new IOException ("The stream was already closed");
+      if (m_aDelegate == null)
+      {
+        _compressPendingContent ();
+        m_aDelegate = m_aISP.getInputStream ();
+        if (m_aDelegate == null)
+          throw new IOException ("Got no InputStream from " + m_aISP);
+      }
+      return m_aDelegate;
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      return _getDelegate ().read ();
+    }
+
+    @Override
+    public int read (final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      return _getDelegate ().read (aBuf, nOfs, nLen);
+    }
+
+    @Override
+    public long skip (final long n) throws IOException
+    {
+      return _getDelegate ().skip (n);
+    }
+
+    @Override
+    public int available () throws IOException
+    {
+      return _getDelegate ().available ();
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      m_bClosed = true;
+      if (m_aDelegate != null)
+        m_aDelegate.close ();
+    }
+  }
 
   public WSS4JAttachment (@NonNull @WillNotClose final AS4ResourceHelper aResHelper, @Nullable final String sMimeType)
   {
@@ -154,15 +224,54 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   {
     ValueEnforcer.notNull (aResourceHelper, "ResourceHelper");
 
-    // This will e.g. throw an UncheckedIOException if compression is enabled,
-    // but the transmitted document is not compressed
-    final InputStream ret = m_aISP.getInputStream ();
-    if (ret == null)
-      throw new IllegalStateException ("Got no InputStream from " + m_aISP);
+    final InputStream ret;
+    if (m_bCompressionPending)
+    {
+      // Compress only if the stream is really read
+      ret = new DeferredSourceInputStream ();
+    }
+    else
+    {
+      // This will e.g. throw an UncheckedIOException if compression is enabled,
+      // but the transmitted document is not compressed
+      ret = m_aISP.getInputStream ();
+      if (ret == null)
+        throw new IllegalStateException ("Got no InputStream from " + m_aISP);
+    }
     aResourceHelper.addCloseable (ret);
     return ret;
   }
 
+  private void _compressPendingContent () throws IOException
+  {
+    if (m_bCompressionPending)
+    {
+      final InputStream aSrcIS = m_aISP.getInputStream ();
+      if (aSrcIS == null)
+        throw new IOException ("Got no InputStream from " + m_aISP);
+      // Resets the pending state
+      AS4OutgoingAttachmentPipeline.compress (aSrcIS,
+                                              m_eCompressionMode,
+                                              m_aPendingCompressionSettings,
+                                              this,
+                                              m_aResHelper);
+    }
+  }
+
+  @NonNull
+  private IHasInputStream _getEffectiveISP ()
+  {
+    try
+    {
+      _compressPendingContent ();
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException (ex);
+    }
+    return m_aISP;
+  }
+
   /**
    * @deprecated Do not use this, because it can be opened only once. Use
    *             {@link #setSourceStreamProvider(IHasInputStream)} instead.
@@ -175,8 +284,22 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     throw new UnsupportedOperationException ("Use setSourceStreamProvider instead");
   }
 
+  /**
+   * @return The source stream provider. If compression is pending, it is performed by this call.
+   *         May be <code>null</code>.
+   */
   @Nullable
   public IHasInputStream getInputStreamProvider ()
+  {
+    return m_aISP == null ? null : _getEffectiveISP ();
+  }
+
+  /**
+   * @return The source stream provider without performing a pending compression. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  final IHasInputStream internalGetRawSourceStreamProvider ()
   {
     return m_aISP;
   }
@@ -185,12 +308,65 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   {
     ValueEnforcer.notNull (aISP, "InputStreamProvider");
     m_aISP = aISP;
+    m_bCompressionPending = false;
+    m_aPendingCompressionSettings = null;
   }
 
+  /**
+   * Set the uncompressed source stream provider. The content is compressed with the compression
+   * mode of this attachment, when it is needed for the first time. That allows the outgoing
+   * attachment pipeline to compress, digest and encrypt the source in a single pass.
+   *
+   * @param aISP
+   *        The uncompressed input stream provider. May not be <code>null</code>.
+   * @param aCompressionSettings
+   *        Optional compression settings to use. May be <code>null</code> to use the global default.
+   * @throws IllegalStateException
+   *         If no compression mode is set
+   * @since 4.5.5
+   * @see AS4OutgoingAttachmentPipeline#process(Iterable, String, SecretKey, String,
+   *      AS4ResourceHelper)
+   */
+  public void setUncompressedSourceStreamProvider (@NonNull final IHasInputStream aISP,
+                                                   @Nullable final AS4CompressionSettings aCompressionSettings)
+  {
+    ValueEnforcer.notNull (aISP, "InputStreamProvider");
+    if (m_eCompressionMode == null)
+      throw new IllegalStateException ("No compression mode is set");
+    m_aISP = aISP;
+    m_aCompressedISP = null;
+    m_bCompressionPending = true;
+    m_aPendingCompressionSettings = aCompressionSettings;
+  }
+
+  /**
+   * @return <code>true</code> if the source is not yet compressed, <code>false</code> if not.
+   * @since 4.5.5
+   */
+  public final boolean isCompressionPending ()
+  {
+    return m_bCompressionPending;
+  }
+
+  /**
+   * @return The compression settings for a pending compression. May be <code>null</code>.
+   */
+  @Nullable
+  final AS4CompressionSettings getPendingCompressionSettings ()
+  {
+    return m_aPendingCompressionSettings;
+  }
+
+  /**
+   * @return The compressed source stream provider. If compression is pending, it is performed by
+   *         this call. May be <code>null</code>.
+   */
   @Override
   @Nullable
   public IHasInputStream getCompressedSourceStreamProvider ()
   {
+    if (m_bCompressionPending)
+      _getEffectiveISP ();
     return m_aCompressedISP;
   }
 
@@ -256,10 +432,171 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     return this;
   }
 
+  /**
+   * @return The number of bytes of the attachment content, if known. Set for incoming attachments
+   *         that were created by a streaming attachment factory and for outgoing attachments that
+   *         were compressed or encrypted. -1 if unknown.
+   * @since 4.5.5
+   */
+  public final long getContentLength ()
+  {
+    return m_nContentLength;
+  }
+
+  public final boolean hasContentLength ()
+  {
+    return m_nContentLength >= 0;
+  }
+
+  /**
+   * Set the number of bytes of the attachment content.
+   *
+   * @param nContentLength
+   *        The number of bytes or -1 if unknown.
+   * @return this for chaining
+   * @since 4.5.5
+   */
+  @NonNull
+  public final WSS4JAttachment setContentLength (final long nContentLength)
+  {
+    m_nContentLength = nContentLength;
+    return this;
+  }
+
+  /**
+   * @return The name of the message digest algorithm used to create {@link #getContentDigest()}.
+   *         May be <code>null</code>.
+   * @since 4.5.5
+   */
+  @Nullable
+  public final String getContentDigestAlgorithm ()
+  {
+    return m_sContentDigestAlgorithm;
+  }
+
+  /**
+   * @return The digest over the attachment content, as calculated while the content was read. For
+   *         outgoing attachments this is the digest over the compressed content, that is used as
+   *         the signature digest. May be <code>null</code>.
+   * @since 4.5.5
+   */
+  @Nullable
+  @ReturnsMutableObject
+  public final byte [] getContentDigest ()
+  {
+    return m_aContentDigest;
+  }
+
+  public final boolean hasContentDigest ()
+  {
+    return m_aContentDigest != null;
+  }
+
+  /**
+   * Set the digest over the attachment content.
+   *
+   * @param sContentDigestAlgorithm
+   *        The name of the message digest algorithm used. May be <code>null</code>.
+   * @param aContentDigest
+   *        The digest bytes. May be <code>null</code>.
+   * @return this for chaining
+   * @since 4.5.5
+   */
+  @NonNull
+  public final WSS4JAttachment setContentDigest (@Nullable final String sContentDigestAlgorithm,
+                                                 final byte @Nullable [] aContentDigest)
+  {
+    m_sContentDigestAlgorithm = sContentDigestAlgorithm;
+    m_aContentDigest = aContentDigest;
+    return this;
+  }
+
+  /**
+   * Get the content digest, if it was created with the provided digest algorithm.
+   *
+   * @param sContentDigestAlgorithm
+   *        The JCA name of the requested digest algorithm. May be <code>null</code>.
+   * @return <code>null</code> if no such digest is present.
+   * @since 4.5.5
+   */
+  @Nullable
+  @ReturnsMutableObject
+  public final byte [] getContentDigest (@Nullable final String sContentDigestAlgorithm)
+  {
+    return m_aContentDigest != null && sContentDigestAlgorithm != null &&
+           sContentDigestAlgorithm.equals (m_sContentDigestAlgorithm) ? m_aContentDigest : null;
+  }
+
+  /**
+   * Set the already encrypted content of this attachment, consisting of the IV followed by the
+   * cipher text.
+   *
+   * @param aEncryptedISP
+   *        The encrypted content. Must be readable multiple times. May not be <code>null</code>.
+   * @param nEncryptedContentLength
+   *        The number of bytes of the encrypted content.
+   * @param aEncryptionKey
+   *        The session key used for encryption. May not be <code>null</code>.
+   * @param sEncryptionAlgorithmURI
+   *        The encryption algorithm URI used. May not be <code>null</code>.
+   * @return this for chaining
+   * @since 4.5.5
+   */
+  @NonNull
+  public final WSS4JAttachment setEncryptedContent (@NonNull final IHasInputStream aEncryptedISP,
+                                                    final long nEncryptedContentLength,
+                                                    @NonNull final SecretKey aEncryptionKey,
+                                                    @NonNull final String sEncryptionAlgorithmURI)
+  {
+    ValueEnforcer.notNull (aEncryptedISP, "EncryptedISP");
+    ValueEnforcer.isTrue (aEncryptedISP.isReadMultiple (), "EncryptedISP must be repeatable");
+    ValueEnforcer.notNull (aEncryptionKey, "EncryptionKey");
+    ValueEnforcer.notNull (sEncryptionAlgorithmURI, "EncryptionAlgorithmURI");
+    m_aEncryptedISP = aEncryptedISP;
+    m_nEncryptedContentLength = nEncryptedContentLength;
+    m_aEncryptionKey = aEncryptionKey;
+    m_sEncryptionAlgorithmURI = sEncryptionAlgorithmURI;
+    return this;
+  }
+
+  /**
+   * Get the already encrypted content, if it was encrypted with the provided key and algorithm.
+   *
+   * @param aEncryptionKey
+   *        The session key to be used. May not be <code>null</code>.
+   * @param sEncryptionAlgorithmURI
+   *        The encryption algorithm URI to be used. May not be <code>null</code>.
+   * @return <code>null</code> if no matching encrypted content is present.
+   * @since 4.5.5
+   */
+  @Nullable
+  public final IHasInputStream getEncryptedSourceStreamProvider (@NonNull final SecretKey aEncryptionKey,
+                                                                 @NonNull final String sEncryptionAlgorithmURI)
+  {
+    if (m_aEncryptedISP != null &&
+        aEncryptionKey.equals (m_aEncryptionKey) &&
+        sEncryptionAlgorithmURI.equals (m_sEncryptionAlgorithmURI))
+      return m_aEncryptedISP;
+    return null;
+  }
+
+  /**
+   * @return The number of bytes of the encrypted content set via
+   *         {@link #setEncryptedContent(IHasInputStream, long, SecretKey, String)} or -1 if none is
+   *         present.
+   * @since 4.5.5
+   */
+  public final long getEncryptedContentLength ()
+  {
+    return m_nEncryptedContentLength;
+  }
+
   @NonNull
   private DataSource _getAsDataSource ()
   {
-    final InputStreamProviderDataSource aDS = new InputStreamProviderDataSource (m_aISP, getId (), getMimeType ());
+    final InputStreamProviderDataSource aDS = new InputStreamProviderDataSource (_getEffectiveISP (),
+                                                                                 getId (),
+                                                                                 getMimeType ());
     return aDS.getEncodingAware (getContentTransferEncoding ());
   }
 
@@ -308,7 +645,15 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     aMimeBodyPart.setHeader (CHttpHeader.CONTENT_TYPE, getMimeType ());
     aMimeBodyPart.setHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, getContentTransferEncoding ().getID ());
 
-    aMimeMultipart.addBodyPart (aMimeBodyPart);
+    if (aMimeMultipart instanceof final AS4SoapMimeMultipart aSoapMultipart &&
+        _getEffectiveISP () instanceof final AS4KnownLengthContent aKnownLengthContent &&
+        getContentTransferEncoding () == EContentTransferEncoding.BINARY)
+    {
+      // The raw content is written as-is, so the length is known
+      aSoapMultipart.addBodyPart (aMimeBodyPart, aKnownLengthContent);
+    }
+    else
+      aMimeMultipart.addBodyPart (aMimeBodyPart);
   }
 
   @NonNull
@@ -328,7 +673,10 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                        .append ("ISP", m_aISP)
                                        .append ("CompressedISP", m_aCompressedISP)
                                        .append ("CTE", m_eCTE)
+                                       .append ("ContentLength", m_nContentLength)
                                        .append ("CM", m_eCompressionMode)
+                                       .append ("CompressionPending", m_bCompressionPending)
+                                       .append ("EncryptedISP", m_aEncryptedISP)
                                        .append ("Charset", m_aCharset)
                                        .getToString ();
   }
@@ -357,6 +705,25 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   public static WSS4JAttachment createOutgoingFileAttachment (@NonNull final AS4OutgoingAttachment aAttachment,
                                                               @NonNull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
   {
+    if (aAttachment.isDataCompressed ())
+    {
+      // Data was already compressed when it was created
+      final WSS4JAttachment ret = new WSS4JAttachment (aResHelper, aAttachment.getMimeType ().getAsString ());
+      ret.setId (aAttachment.getContentID ());
+      ret.setCharset (aAttachment.getCharset ());
+      _addOutgoingHeaders (ret, aAttachment.getFilename ());
+      ret.setCompressionMode (aAttachment.getCompressionMode ());
+
+      final IHasInputStream aISP = aAttachment.hasDataBytes () ? AS4KnownLengthContent.ofBytes (aAttachment.getDataBytes ()
+                                                                                                         .bytes ())
+                                                               : AS4KnownLengthContent.ofFile (aAttachment.getDataFile ());
+      ret.setSourceStreamProvider (aISP);
+      // Preserve the compressed data for non-repudiation purposes
+      ret.setCompressedSourceStreamProvider (aISP);
+      ret.customPartProperties ().putAll (aAttachment.customProperties ());
+      return ret;
+    }
+
     if (aAttachment.hasDataBytes ())
     {
       // Byte array
@@ -365,6 +732,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                                                 aAttachment.getFilename (),
                                                                 aAttachment.getMimeType (),
                                                                 aAttachment.getCompressionMode (),
+                                                                aAttachment.getCompressionSettings (),
                                                                 aAttachment.getCharset (),
                                                                 aResHelper);
       ret.customPartProperties ().putAll (aAttachment.customProperties ());
@@ -379,6 +747,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                                                 aAttachment.getFilename (),
                                                                 aAttachment.getMimeType (),
                                                                 aAttachment.getCompressionMode (),
+                                                                aAttachment.getCompressionSettings (),
                                                                 aAttachment.getCharset (),
                                                                 aResHelper);
       ret.customPartProperties ().putAll (aAttachment.customProperties ());
@@ -390,7 +759,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
   }
 
   /**
-   * Quasi constructor. Performs compression internally if necessary.
+   * Quasi constructor. Compression is performed lazily if necessary.
    *
    * @param aSrcFile
    *        Source, uncompressed, unencrypted file.
@@ -419,6 +788,52 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                                               @Nullable final EAS4CompressionMode eCompressionMode,
                                                               @Nullable final Charset aCharset,
                                                               @NonNull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
+  {
+    return createOutgoingFileAttachment (aSrcFile,
+                                         sContentID,
+                                         sFilename,
+                                         aMimeType,
+                                         eCompressionMode,
+                                         null,
+                                         aCharset,
+                                         aResHelper);
+  }
+
+  /**
+   * Quasi constructor. Compression is performed lazily if necessary.
+   *
+   * @param aSrcFile
+   *        Source, uncompressed, unencrypted file.
+   * @param sContentID
+   *        Content-ID of the attachment. If <code>null</code> a random ID is created.
+   * @param sFilename
+   *        Filename of the attachment. May be <code>null</code> in which case no
+   *        <code>Content-Disposition</code> header is created.
+   * @param aMimeType
+   *        Original mime type of the file.
+   * @param eCompressionMode
+   *        Optional compression mode to use. May be <code>null</code>.
+   * @param aCompressionSettings
+   *        Optional compression settings to use. May be <code>null</code> to use the global
+   *        default. Only relevant if a compression mode is present.
+   * @param aCharset
+   *        The character set to use. May be <code>null</code> (since 0.14.0)
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The newly created attachment instance. Never <code>null</code>.
+   * @throws IOException
+   *         In case something goes wrong during compression
+   * @since 4.5.5
+   */
+  @NonNull
+  public static WSS4JAttachment createOutgoingFileAttachment (@NonNull final File aSrcFile,
+                                                              @Nullable final String sContentID,
+                                                              @Nullable final String sFilename,
+                                                              @NonNull final IMimeType aMimeType,
+                                                              @Nullable final EAS4CompressionMode eCompressionMode,
+                                                              @Nullable final AS4CompressionSettings aCompressionSettings,
+                                                              @Nullable final Charset aCharset,
+                                                              @NonNull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
   {
     ValueEnforcer.notNull (aSrcFile, "File");
     ValueEnforcer.notNull (aMimeType, "MimeType");
@@ -428,46 +843,68 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     ret.setCharset (aCharset);
     _addOutgoingHeaders (ret, sFilename);
 
-    // If the attachment has an compressionMode do it directly, so that
-    // encryption later on works on the compressed content
-    final File aRealFile;
     if (eCompressionMode != null)
     {
       ret.setCompressionMode (eCompressionMode);
 
-      // Create temporary file with compressed content to avoid that the
-      // original is compressed more than once
-      aRealFile = aResHelper.createTempFile ();
-      try (final NonBlockingBufferedOutputStream aFOS = FileHelper.getBufferedOutputStream (aRealFile))
-      {
-        if (aFOS != null)
-          try (final OutputStream aOS = eCompressionMode.getCompressStream (aFOS))
-          {
-            StreamHelper.copyInputStreamToOutputStream (FileHelper.getBufferedInputStream (aSrcFile), aOS);
-          }
-      }
+      // Compress lazily, so that compression, signature digest and encryption
+      // can be performed in a single pass over the original
+      ret.setUncompressedSourceStreamProvider (AS4KnownLengthContent.ofFile (aSrcFile), aCompressionSettings);
     }
     else
     {
       // No compression - use file as-is
-      aRealFile = aSrcFile;
-    }
-
-    // Set a stream provider that can be read multiple times (opens a new
-    // FileInputStream internally)
-    final IHasInputStream aISP = HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile));
-    ret.setSourceStreamProvider (aISP);
-    if (eCompressionMode != null)
-    {
-      // Preserve the compressed data for non-repudiation purposes - the
-      // signature digests are calculated over the compressed data
-      ret.setCompressedSourceStreamProvider (aISP);
+      // Set a stream provider that can be read multiple times and that knows
+      // the length of the content
+      ret.setSourceStreamProvider (AS4KnownLengthContent.ofFile (aSrcFile));
     }
     return ret;
   }
 
   /**
-   * Quasi constructor. Performs compression internally.
+   * Quasi constructor. Compression is performed lazily if necessary.
+   *
+   * @param aSrcData
+   *        Source in-memory data, uncompressed, unencrypted.
+   * @param sContentID
+   *        Optional content ID or <code>null</code> to create a random one. Filename of the
+   *        attachment. May be <code>null</code> in which case no <code>Content-Disposition</code>
+   *        header is created.
+   * @param sFilename
+   *        Optional filename to use in the "Content-Disposition" headers. May be <code>null</code>.
+   * @param aMimeType
+   *        Original mime type of the file. May not be <code>null</code>.
+   * @param eCompressionMode
+   *        Optional compression mode to use. May be <code>null</code>.
+   * @param aCharset
+   *        The character set to use. May be <code>null</code> (since 0.14.0)
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The newly created attachment instance. Never <code>null</code>.
+   * @throws IOException
+   *         In case something goes wrong during compression
+   */
+  @NonNull
+  public static WSS4JAttachment createOutgoingFileAttachment (final byte @NonNull [] aSrcData,
+                                                              @Nullable final String sContentID,
+                                                              @Nullable final String sFilename,
+                                                              @NonNull final IMimeType aMimeType,
+                                                              @Nullable final EAS4CompressionMode eCompressionMode,
+                                                              @Nullable final Charset aCharset,
+                                                              @NonNull final AS4ResourceHelper aResHelper) throws IOException
+  {
+    return createOutgoingFileAttachment (aSrcData,
+                                         sContentID,
+                                         sFilename,
+                                         aMimeType,
+                                         eCompressionMode,
+                                         null,
+                                         aCharset,
+                                         aResHelper);
+  }
+
+  /**
+   * Quasi constructor. Compression is performed lazily if necessary.
    *
    * @param aSrcData
    *        Source in-memory data, uncompressed, unencrypted.
@@ -481,6 +918,9 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
    *        Original mime type of the file. May not be <code>null</code>.
    * @param eCompressionMode
    *        Optional compression mode to use. May be <code>null</code>.
+   * @param aCompressionSettings
+   *        Optional compression settings to use. May be <code>null</code> to use the global
+   *        default. Only relevant if a compression mode is present.
    * @param aCharset
    *        The character set to use. May be <code>null</code> (since 0.14.0)
    * @param aResHelper
@@ -488,6 +928,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
    * @return The newly created attachment instance. Never <code>null</code>.
    * @throws IOException
    *         In case something goes wrong during compression
+   * @since 4.5.5
    */
   @NonNull
   public static WSS4JAttachment createOutgoingFileAttachment (final byte @NonNull [] aSrcData,
@@ -495,6 +936,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
                                                               @Nullable final String sFilename,
                                                               @NonNull final IMimeType aMimeType,
                                                               @Nullable final EAS4CompressionMode eCompressionMode,
+                                                              @Nullable final AS4CompressionSettings aCompressionSettings,
                                                               @Nullable final Charset aCharset,
                                                               @NonNull final AS4ResourceHelper aResHelper) throws IOException
   {
@@ -507,32 +949,18 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     ret.setCharset (aCharset);
     _addOutgoingHeaders (ret, sFilename);
 
-    // If the attachment has an compressionMode do it directly, so that
-    // encryption later on works on the compressed content
     if (eCompressionMode != null)
     {
       ret.setCompressionMode (eCompressionMode);
 
-      // Create temporary file with compressed content
-      final File aRealFile = aResHelper.createTempFile ();
-      try (final NonBlockingBufferedOutputStream aFOS = FileHelper.getBufferedOutputStream (aRealFile))
-      {
-        if (aFOS != null)
-          try (final OutputStream aOS = eCompressionMode.getCompressStream (aFOS))
-          {
-            aOS.write (aSrcData);
-          }
-      }
-      final IHasInputStream aISP = HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile));
-      ret.setSourceStreamProvider (aISP);
-      // Preserve the compressed data for non-repudiation purposes - the
-      // signature digests are calculated over the compressed data
-      ret.setCompressedSourceStreamProvider (aISP);
+      // Compress lazily, so that compression, signature digest and encryption
+      // can be performed in a single pass over the original
+      ret.setUncompressedSourceStreamProvider (AS4KnownLengthContent.ofBytes (aSrcData), aCompressionSettings);
     }
     else
     {
       // No compression - use data as-is
-      ret.setSourceStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aSrcData)));
+      ret.setSourceStreamProvider (AS4KnownLengthContent.ofBytes (aSrcData));
     }
     return ret;
   }
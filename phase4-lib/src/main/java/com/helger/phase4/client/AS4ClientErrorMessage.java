@@ -148,7 +148,9 @@ public class AS4ClientErrorMessage extends AbstractAS4ClientSignalMessage <AS4Cl
 
     // Wrap SOAP XML
     return new AS4ClientBuiltMessage (sMessageID,
-                                      new HttpXMLEntity (aDoc, getSoapVersion ().getMimeType ()),
+                                      new HttpXMLEntity (aDoc,
+                                                         getSoapVersion ().getMimeType (),
+                                                         getAS4ResourceHelper ()),
                                       aCreatedDSReferences);
   }
 }
@@ -123,7 +123,9 @@ public class AS4ClientPullRequestMessage extends AbstractAS4ClientSignalMessage
 
     // Wrap SOAP XML
     return new AS4ClientBuiltMessage (sMessageID,
-                                      new HttpXMLEntity (aDoc, getSoapVersion ().getMimeType ()),
+                                      new HttpXMLEntity (aDoc,
+                                                         getSoapVersion ().getMimeType (),
+                                                         getAS4ResourceHelper ()),
                                       aCreatedDSReferences);
   }
 }
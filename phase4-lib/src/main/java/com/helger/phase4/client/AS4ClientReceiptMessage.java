@@ -194,7 +194,9 @@ public class AS4ClientReceiptMessage extends AbstractAS4ClientSignalMessage <AS4
 
     // Wrap SOAP XML
     return new AS4ClientBuiltMessage (sMessageID,
-                                      new HttpXMLEntity (aDoc, getSoapVersion ().getMimeType ()),
+                                      new HttpXMLEntity (aDoc,
+                                                         getSoapVersion ().getMimeType (),
+                                                         getAS4ResourceHelper ()),
                                       aCreatedDSReferences);
   }
 }
@@ -21,7 +21,10 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.function.Function;
 
+import javax.crypto.SecretKey;
+
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.ext.WSSecurityException.ErrorCode;
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
@@ -39,8 +42,10 @@ import com.helger.collection.commons.ICommonsList;
 import com.helger.io.file.FilenameHelper;
 import com.helger.mime.IMimeType;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.AS4OutgoingAttachmentPipeline;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.crypto.AS4CryptParams;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.ebms3header.Ebms3CollaborationInfo;
 import com.helger.phase4.ebms3header.Ebms3MessageInfo;
@@ -715,10 +720,38 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
       aCallback.onSoapDocument (aPureSoapDoc);
 
     // 1. compress
-    // Is done when the attachments are added
+    // Is done lazily, after the attachments were added
     if (aCallback != null && bAttachmentsPresent)
       aCallback.onBuiltAttachments (m_aAttachments);
 
+    final AS4CryptParams aCryptParams = cryptParams ().getClone ();
+    if (bAttachmentsPresent && (bSign || bEncrypt))
+    {
+      SecretKey aSessionKey = null;
+      if (bEncrypt)
+      {
+        // Use the same session key for the attachments and for WSS4J
+        final SecretKey aFixedSessionKey = aCryptParams.getSessionKeyProvider ().getSessionKey ();
+        aCryptParams.setSessionKeyProvider ( () -> aFixedSessionKey);
+        aSessionKey = aFixedSessionKey;
+      }
+
+      // Compress, digest and encrypt each attachment in a single pass
+      try
+      {
+        AS4OutgoingAttachmentPipeline.process (m_aAttachments,
+                                               bSign ? signingParams ().getAlgorithmSignDigest ().getAlgorithmURI ()
+                                                     : null,
+                                               aSessionKey,
+                                               aCryptParams.getAlgorithmCrypt ().getAlgorithmURI (),
+                                               getAS4ResourceHelper ());
+      }
+      catch (final IOException ex)
+      {
+        throw new WSSecurityException (ErrorCode.FAILURE, ex, "Failed to process the outgoing attachments");
+      }
+    }
+
     // 2. sign and/or encrypt
     Document aResultSoapDoc = aPureSoapDoc;
     AS4MimeMessage aMimeMsg = null;
@@ -771,7 +804,7 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
                                                         aCryptoFactoryCrypt,
                                                         bMustUnderstand,
                                                         getAS4ResourceHelper (),
-                                                        cryptParams ().getClone ());
+                                                        aCryptParams);
 
           if (aCallback != null)
             aCallback.onEncryptedMimeMessage (aMimeMsg);
@@ -783,7 +816,7 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
                                                                                     eSoapVersion,
                                                                                     aResultSoapDoc,
                                                                                     bMustUnderstand,
-                                                                                    cryptParams ().getClone ());
+                                                                                    aCryptParams);
 
             if (aCallback != null)
               aCallback.onEncryptedSoapDocument (aEncryptedSoapDoc);
@@ -819,7 +852,9 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
     {
       // Wrap SOAP XML
       ret = new AS4ClientBuiltMessage (sMessageID,
-                                       new HttpXMLEntity (aResultSoapDoc, eSoapVersion.getMimeType ()),
+                                       new HttpXMLEntity (aResultSoapDoc,
+                                                          eSoapVersion.getMimeType (),
+                                                          getAS4ResourceHelper ()),
                                        aCreatedDSReferences);
     }
 
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.security.cert.X509Certificate;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
 import org.apache.hc.core5.http.Header;
@@ -512,67 +513,233 @@ public abstract class AbstractAS4Client <IMPLTYPE extends AbstractAS4Client <IMP
     // Create a new message ID for each build!
     final String sMessageID = createMessageID ();
     final AS4ClientBuiltMessage aBuiltMsg = buildMessage (sMessageID, aCallback);
-    HttpEntity aBuiltEntity = aBuiltMsg.getHttpEntity ();
-    HttpHeaderMap aBuiltHttpHeaders = aBuiltMsg.getAllCustomHttpHeaders ();
+    return sendBuiltMessageWithRetries (sURL, aBuiltMsg, aResponseHandler, aOutgoingDumper, aRetryCallback);
+  }
 
-    if (false)
-    {
-      // Test custom header only
-      if (aBuiltHttpHeaders == null)
-        aBuiltHttpHeaders = new HttpHeaderMap ();
-      aBuiltHttpHeaders.addHeader ("X-UseEcsProxy", "1");
-    }
+  /**
+   * Asynchronous version of
+   * {@link #sendMessageWithRetries(String, HttpClientResponseHandler, IAS4ClientBuildMessageCallback, IAS4OutgoingDumper, IAS4RetryCallback)}.
+   * The message is built synchronously in the calling thread and the sending including all retries
+   * happens asynchronously via
+   * {@link IHttpPoster#sendGenericMessageWithRetriesAsync(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback, java.util.function.Consumer)}.
+   * The resource helper of this client must not be closed before the returned future is
+   * completed.
+   *
+   * @param <T>
+   *        The response data type
+   * @param sURL
+   *        The URL to send the HTTP POST to
+   * @param aResponseHandler
+   *        The response handler that converts the HTTP response to a domain object. May not be
+   *        <code>null</code>.
+   * @param aCallback
+   *        An optional callback for the different stages of building the document. May be
+   *        <code>null</code>.
+   * @param aOutgoingDumper
+   *        An outgoing dumper to be used. Maybe <code>null</code>. If <code>null</code> the global
+   *        outgoing dumper from {@link AS4DumpManager} is used.
+   * @param aRetryCallback
+   *        An optional callback to be invoked if a retry happens on HTTP level. May be
+   *        <code>null</code>.
+   * @return The future that is completed with the sent message after the last attempt. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         in case of error when building the message
+   * @throws WSSecurityException
+   *         In case there is an issue with signing/encryption
+   * @throws MessagingException
+   *         in case something happens in MIME wrapping
+   * @since 4.5.5
+   */
+  @NonNull
+  public final <T> CompletableFuture <AS4ClientSentMessage <T>> sendMessageWithRetriesAsync (@NonNull final String sURL,
+                                                                                             @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                                             @Nullable final IAS4ClientBuildMessageCallback aCallback,
+                                                                                             @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                                             @Nullable final IAS4RetryCallback aRetryCallback) throws IOException,
+                                                                                                                                               WSSecurityException,
+                                                                                                                                               MessagingException
+  {
+    ValueEnforcer.notNull (sURL, "URL");
+    ValueEnforcer.notNull (aResponseHandler, "ResponseHandler");
 
-    LOGGER.info ("phase4 --- sending.withretries:start");
+    // Create a new message ID for each build!
+    final String sMessageID = createMessageID ();
+    final AS4ClientBuiltMessage aBuiltMsg = buildMessage (sMessageID, aCallback);
+    return sendBuiltMessageWithRetriesAsync (sURL, aBuiltMsg, aResponseHandler, aOutgoingDumper, aRetryCallback);
+  }
+
+  /**
+   * The state of a single send operation of a built message.
+   *
+   * @param <T>
+   *        The response data type
+   */
+  private final class SendContext <T>
+  {
+    private final AS4ClientBuiltMessage m_aBuiltMsg;
+    private final HttpEntity m_aEntity;
+    // Keep the HTTP response status line for external evaluation
+    private final Wrapper <StatusLine> m_aStatusLineKeeper = new Wrapper <> ();
+    // Keep the HTTP response headers for external evaluation
+    private final HttpHeaderMap m_aResponseHeaders = new HttpHeaderMap ();
+    // Capture the remote TLS server certificates of the (last) successful
+    // HTTPS exchange so they can be surfaced via AS4ClientSentMessage
+    private final Wrapper <ICommonsList <X509Certificate>> m_aRemoteTlsPeerCertsHolder = new Wrapper <> ();
+    private final HttpClientResponseHandler <T> m_aRealResponseHandler;
 
-    if (m_aHttpRetrySettings.isRetryEnabled () ||
-      aOutgoingDumper != null ||
-      AS4DumpManager.getOutgoingDumper () != null)
+    SendContext (@NonNull final AS4ClientBuiltMessage aBuiltMsg,
+                 @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                 @Nullable final IAS4OutgoingDumper aOutgoingDumper) throws IOException
     {
-      // Ensure a repeatable entity is provided
-      aBuiltEntity = m_aResHelper.createRepeatableHttpEntity (aBuiltEntity);
-    }
+      m_aBuiltMsg = aBuiltMsg;
 
-    // Keep the HTTP response status line for external evaluation
-    final Wrapper <StatusLine> aStatusLineKeeper = new Wrapper <> ();
+      HttpEntity aBuiltEntity = aBuiltMsg.getHttpEntity ();
+      if (m_aHttpRetrySettings.isRetryEnabled () ||
+        aOutgoingDumper != null ||
+        AS4DumpManager.getOutgoingDumper () != null)
+      {
+        // Ensure a repeatable entity is provided
+        aBuiltEntity = m_aResHelper.createRepeatableHttpEntity (aBuiltEntity);
+      }
+      m_aEntity = aBuiltEntity;
 
-    // Keep the HTTP response headers for external evaluation
-    final HttpHeaderMap aResponseHeaders = new HttpHeaderMap ();
+      m_aRealResponseHandler = resp -> {
+        // Remember the HTTP response data
+        m_aStatusLineKeeper.set (new StatusLine (resp));
+
+        // Remember the response headers
+        final Header [] aHeaders = resp.getHeaders ();
+        if (aHeaders != null)
+          for (final Header aHeader : aHeaders)
+            m_aResponseHeaders.addHeader (aHeader.getName (), aHeader.getValue ());
 
-    final HttpClientResponseHandler <T> aRealResponseHandler = resp -> {
-      // Remember the HTTP response data
-      aStatusLineKeeper.set (new StatusLine (resp));
+        // Call the original handler
+        return aResponseHandler.handleResponse (resp);
+      };
+    }
 
-      // Remember the response headers
-      final Header [] aHeaders = resp.getHeaders ();
-      if (aHeaders != null)
-        for (final Header aHeader : aHeaders)
-          aResponseHeaders.addHeader (aHeader.getName (), aHeader.getValue ());
+    @NonNull
+    AS4ClientSentMessage <T> createSentMessage (@Nullable final T aResponseContent)
+    {
+      return new AS4ClientSentMessage <> (m_aBuiltMsg,
+                                          m_aRemoteTlsPeerCertsHolder.get (),
+                                          m_aStatusLineKeeper.get (),
+                                          m_aResponseHeaders,
+                                          aResponseContent);
+    }
+  }
 
-      // Call the original handler
-      return aResponseHandler.handleResponse (resp);
-    };
+  /**
+   * Send an AS4 client message that was previously created by
+   * {@link #buildMessage(String, IAS4ClientBuildMessageCallback)} to the provided URL. This methods
+   * does take retries into account. It synchronously handles the retries and only returns after the
+   * last retry. Separating building and sending allows to e.g. build the next message while the
+   * current one is sent.
+   *
+   * @param <T>
+   *        The response data type
+   * @param sURL
+   *        The URL to send the HTTP POST to. May not be <code>null</code>.
+   * @param aBuiltMsg
+   *        The built message to be sent. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The response handler that converts the HTTP response to a domain object. May not be
+   *        <code>null</code>.
+   * @param aOutgoingDumper
+   *        An outgoing dumper to be used. Maybe <code>null</code>. If <code>null</code> the global
+   *        outgoing dumper from {@link AS4DumpManager} is used.
+   * @param aRetryCallback
+   *        An optional callback to be invoked if a retry happens on HTTP level. May be
+   *        <code>null</code>.
+   * @return The sent message. Never <code>null</code>.
+   * @throws IOException
+   *         in case of error when sending the message
+   * @since 4.5.5
+   */
+  @NonNull
+  public final <T> AS4ClientSentMessage <T> sendBuiltMessageWithRetries (@NonNull final String sURL,
+                                                                         @NonNull final AS4ClientBuiltMessage aBuiltMsg,
+                                                                         @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                         @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                         @Nullable final IAS4RetryCallback aRetryCallback) throws IOException
+  {
+    ValueEnforcer.notNull (sURL, "URL");
+    ValueEnforcer.notNull (aBuiltMsg, "BuiltMsg");
+    ValueEnforcer.notNull (aResponseHandler, "ResponseHandler");
 
-    // Capture the remote TLS server certificates of the (last) successful
-    // HTTPS exchange so they can be surfaced via AS4ClientSentMessage
-    final Wrapper <ICommonsList <X509Certificate>> aRemoteTlsPeerCertsHolder = new Wrapper <> ();
+    LOGGER.info ("phase4 --- sending.withretries:start");
+
+    final SendContext <T> aCtx = new SendContext <> (aBuiltMsg, aResponseHandler, aOutgoingDumper);
     final T aResponseContent = m_aHttpPoster.sendGenericMessageWithRetries (sURL,
-                                                                            aBuiltHttpHeaders,
-                                                                            aBuiltEntity,
-                                                                            sMessageID,
+                                                                            aBuiltMsg.getAllCustomHttpHeaders (),
+                                                                            aCtx.m_aEntity,
+                                                                            aBuiltMsg.getMessageID (),
                                                                             m_aHttpRetrySettings,
-                                                                            aRealResponseHandler,
+                                                                            aCtx.m_aRealResponseHandler,
                                                                             aOutgoingDumper,
                                                                             aRetryCallback,
-                                                                            aRemoteTlsPeerCertsHolder::set);
-    final AS4ClientSentMessage <T> ret = new AS4ClientSentMessage <> (aBuiltMsg,
-                                                                      aRemoteTlsPeerCertsHolder.get (),
-                                                                      aStatusLineKeeper.get (),
-                                                                      aResponseHeaders,
-                                                                      aResponseContent);
+                                                                            aCtx.m_aRemoteTlsPeerCertsHolder::set);
+    final AS4ClientSentMessage <T> ret = aCtx.createSentMessage (aResponseContent);
 
     LOGGER.info ("phase4 --- sending.withretries:end");
 
     return ret;
   }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendBuiltMessageWithRetries(String, AS4ClientBuiltMessage, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}.
+   * No thread is blocked while waiting between two attempts. The resource helper of this client
+   * must not be closed before the returned future is completed.
+   *
+   * @param <T>
+   *        The response data type
+   * @param sURL
+   *        The URL to send the HTTP POST to. May not be <code>null</code>.
+   * @param aBuiltMsg
+   *        The built message to be sent. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The response handler that converts the HTTP response to a domain object. May not be
+   *        <code>null</code>.
+   * @param aOutgoingDumper
+   *        An outgoing dumper to be used. Maybe <code>null</code>. If <code>null</code> the global
+   *        outgoing dumper from {@link AS4DumpManager} is used.
+   * @param aRetryCallback
+   *        An optional callback to be invoked if a retry happens on HTTP level. May be
+   *        <code>null</code>.
+   * @return The future that is completed with the sent message after the last attempt. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         in case the entity cannot be made repeatable
+   * @since 4.5.5
+   */
+  @NonNull
+  public final <T> CompletableFuture <AS4ClientSentMessage <T>> sendBuiltMessageWithRetriesAsync (@NonNull final String sURL,
+                                                                                                  @NonNull final AS4ClientBuiltMessage aBuiltMsg,
+                                                                                                  @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                                                  @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                                                  @Nullable final IAS4RetryCallback aRetryCallback) throws IOException
+  {
+    ValueEnforcer.notNull (sURL, "URL");
+    ValueEnforcer.notNull (aBuiltMsg, "BuiltMsg");
+    ValueEnforcer.notNull (aResponseHandler, "ResponseHandler");
+
+    LOGGER.info ("phase4 --- sending.withretries.async:start");
+
+    final SendContext <T> aCtx = new SendContext <> (aBuiltMsg, aResponseHandler, aOutgoingDumper);
+    return m_aHttpPoster.<T> sendGenericMessageWithRetriesAsync (sURL,
+                                                                 aBuiltMsg.getAllCustomHttpHeaders (),
+                                                                 aCtx.m_aEntity,
+                                                                 aBuiltMsg.getMessageID (),
+                                                                 m_aHttpRetrySettings,
+                                                                 aCtx.m_aRealResponseHandler,
+                                                                 aOutgoingDumper,
+                                                                 aRetryCallback,
+                                                                 aCtx.m_aRemoteTlsPeerCertsHolder::set)
+                        .thenApply (aResponseContent -> {
+                          LOGGER.info ("phase4 --- sending.withretries.async:end");
+                          return aCtx.createSentMessage (aResponseContent);
+                        });
+  }
 }
@@ -45,7 +45,9 @@ public interface IAS4RetryCallback
    *        be 1 retry: one original try and one retry. If the number is e.g. 11: one original try
    *        and 10 retries.
    * @param nRetryIntervalMS
-   *        The milliseconds to be waited before the next retry.
+   *        The milliseconds to be waited before the next retry. For asynchronous sending this is the
+   *        effective delay, including the jitter and the backoff of other failures to the same
+   *        destination.
    * @param ex
    *        The exception that occurred during sending. Usually an IOException. Never
    *        <code>null</code>.
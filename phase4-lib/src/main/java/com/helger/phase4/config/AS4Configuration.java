@@ -40,6 +40,7 @@ import com.helger.config.source.resource.properties.ConfigurationSourcePropertie
 import com.helger.io.resource.IReadableResource;
 import com.helger.io.resourceprovider.ReadableResourceProviderChain;
 import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.wss.EWSSSynchronizationMode;
 
 /**
  * This class contains the central phase4 configuration. <br>
@@ -63,6 +64,62 @@ public final class AS4Configuration
   public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY = "phase4.wss4j.syncsecurity";
   public static final boolean DEFAULT_PHASE4_WSS4J_SYNCSECURITY = false;
 
+  /**
+   * The property to define how sign/verify and encrypt/decrypt are synchronized, if
+   * {@link #PROPERTY_PHASE4_WSS4J_SYNCSECURITY} is enabled. See {@link EWSSSynchronizationMode} for
+   * the supported values.
+   *
+   * @since 4.5.5
+   */
+  public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY_MODE = "phase4.wss4j.syncsecurity.mode";
+  public static final EWSSSynchronizationMode DEFAULT_PHASE4_WSS4J_SYNCSECURITY_MODE = EWSSSynchronizationMode.DEFAULT;
+
+  /**
+   * The property to define if the file system based managers should use
+   * {@link com.helger.phase4.duplicate.AS4DuplicateManagerFileLog} instead of the XML based
+   * duplicate manager.
+   *
+   * @since 4.5.5
+   */
+  public static final String PROPERTY_PHASE4_MANAGER_DUPLICATE_FILELOG = "phase4.manager.duplicate.filelog";
+  public static final boolean DEFAULT_PHASE4_MANAGER_DUPLICATE_FILELOG = false;
+
+  /**
+   * The property to define if the in-memory managers should use
+   * {@link com.helger.phase4.duplicate.AS4DuplicateManagerInMemoryBucketed} instead of the default
+   * in-memory duplicate manager.
+   *
+   * @since 4.5.5
+   */
+  public static final String PROPERTY_PHASE4_MANAGER_DUPLICATE_BUCKETED = "phase4.manager.duplicate.bucketed";
+  public static final boolean DEFAULT_PHASE4_MANAGER_DUPLICATE_BUCKETED = false;
+
+  /**
+   * The boolean property to enable virtual threads for the phase4 internal executors. This only has
+   * an effect on Java 21 or later.
+   *
+   * @since 4.5.5
+   */
+  public static final String PROPERTY_PHASE4_THREADS_VIRTUAL = "phase4.threads.virtual";
+  public static final boolean DEFAULT_PHASE4_THREADS_VIRTUAL = true;
+
+  /**
+   * The boolean property to skip the XML Schema validation when serializing the AS4 messages
+   * created by phase4 itself (ebMS headers, SOAP envelopes, receipts).
+   *
+   * @since 4.5.5
+   */
+  public static final String PROPERTY_PHASE4_MARSHALLER_OUTBOUND_TRUSTED = "phase4.marshaller.outbound.trusted";
+  public static final boolean DEFAULT_PHASE4_MARSHALLER_OUTBOUND_TRUSTED = false;
+
+  /**
+   * The boolean property to enable the XML Schema validation of received ebMS headers.
+   *
+   * @since 4.5.5
+   */
+  public static final String PROPERTY_PHASE4_MARSHALLER_INBOUND_VALIDATE = "phase4.marshaller.inbound.validate";
+  public static final boolean DEFAULT_PHASE4_MARSHALLER_INBOUND_VALIDATE = true;
+
   /**
    * The duration property for the incoming message duplicate disposal time. Supports the unit-less
    * form (e.g. <code>10m</code>, <code>1h 30m</code>) since v4.5.0.
@@ -232,6 +289,66 @@ public final class AS4Configuration
     return StringParser.parseBool (sValue, DEFAULT_PHASE4_MANAGER_INMEMORY);
   }
 
+  /**
+   * @return <code>true</code> if the file system based managers should use the append-only binary
+   *         log for incoming duplicate detection instead of the XML file. The configuration item is
+   *         <code>phase4.manager.duplicate.filelog</code>. Defaults to <code>false</code>.
+   * @since 4.5.5
+   */
+  public static boolean isUseFileLogDuplicateManager ()
+  {
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_MANAGER_DUPLICATE_FILELOG);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_MANAGER_DUPLICATE_FILELOG);
+  }
+
+  /**
+   * @return <code>true</code> if the in-memory managers should use the bucketed concurrent
+   *         implementation for incoming duplicate detection. The configuration item is
+   *         <code>phase4.manager.duplicate.bucketed</code>. Defaults to <code>false</code>.
+   * @since 4.5.5
+   */
+  public static boolean isUseBucketedDuplicateManager ()
+  {
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_MANAGER_DUPLICATE_BUCKETED);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_MANAGER_DUPLICATE_BUCKETED);
+  }
+
+  /**
+   * @return <code>true</code> if virtual threads should be used for the phase4 internal executors,
+   *         if the runtime supports them. The configuration item is
+   *         <code>phase4.threads.virtual</code>. Defaults to <code>true</code>.
+   * @since 4.5.5
+   */
+  public static boolean isUseVirtualThreads ()
+  {
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_THREADS_VIRTUAL);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_THREADS_VIRTUAL);
+  }
+
+  /**
+   * @return <code>true</code> if the AS4 messages created by phase4 itself should be serialized
+   *         without XML Schema validation. The configuration item is
+   *         <code>phase4.marshaller.outbound.trusted</code>. Defaults to <code>false</code>.
+   * @since 4.5.5
+   */
+  public static boolean isMarshallerOutboundTrusted ()
+  {
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_MARSHALLER_OUTBOUND_TRUSTED);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_MARSHALLER_OUTBOUND_TRUSTED);
+  }
+
+  /**
+   * @return <code>true</code> if received ebMS headers should be validated against the XML Schema.
+   *         The configuration item is <code>phase4.marshaller.inbound.validate</code>. Defaults to
+   *         <code>true</code>.
+   * @since 4.5.5
+   */
+  public static boolean isMarshallerInboundValidate ()
+  {
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_MARSHALLER_INBOUND_VALIDATE);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_MARSHALLER_INBOUND_VALIDATE);
+  }
+
   /**
    * @return <code>true</code> if all WSS4J actions should be explicitly synchronized. This is
    *         needed if multiple workers sending/receiving AS4 messages from the same JVM. The
@@ -250,6 +367,19 @@ public final class AS4Configuration
     return StringParser.parseBool (sValue, DEFAULT_PHASE4_WSS4J_SYNCSECURITY);
   }
 
+  /**
+   * @return The synchronization mode to be used if {@link #isWSS4JSynchronizedSecurity()} is
+   *         enabled. The configuration item is <code>phase4.wss4j.syncsecurity.mode</code>. Never
+   *         <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  public static EWSSSynchronizationMode getWSS4JSynchronizationMode ()
+  {
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_WSS4J_SYNCSECURITY_MODE);
+    return EWSSSynchronizationMode.getFromIDOrDefault (sValue, DEFAULT_PHASE4_WSS4J_SYNCSECURITY_MODE);
+  }
+
   /**
    * @return The AS4 profile to use, taken from the configuration item
    *         <code>phase4.default.profile</code> (changed in 3.0.0; was <code>phase4.profile</code>
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Executor;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.annotation.style.OverrideOnDemand;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.hashcode.HashCodeGenerator;
+import com.helger.base.state.ETriState;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.util.AS4RefreshingCache;
+import com.helger.security.certificate.ECertificateCheckResult;
+import com.helger.security.certificate.TrustedCAChecker;
+import com.helger.security.messagedigest.EMessageDigestAlgorithm;
+import com.helger.security.revocation.ERevocationCheckMode;
+
+/**
+ * A cache for the results of certificate checks with a {@link TrustedCAChecker}, so that path
+ * building and revocation checking (OCSP/CRL) is not repeated for every message exchanged with the
+ * same partner. The key is the SHA-256 fingerprint of the certificate together with the checker and
+ * the check settings.
+ * <ul>
+ * <li>A valid result depends on the revocation status and is kept for the revocation TTL.</li>
+ * <li>All other invalid results (e.g. untrusted issuer or revoked) are kept for the path TTL.</li>
+ * <li>{@link ECertificateCheckResult#REVOCATION_STATUS_UNKNOWN} is revalidated on each access.</li>
+ * <li>Certificates outside of their validity period are always checked directly.</li>
+ * <li>If caching of revocation check results is explicitly disabled ({@link ETriState#FALSE}), the
+ * certificate is always checked directly.</li>
+ * </ul>
+ * A cache miss is checked for the date time provided by the caller.
+ * Frequently used certificates are rechecked in the background before their entry expires, so that
+ * the request path does not need to wait for OCSP responders.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4CertificateVerdictCache extends AS4RefreshingCache <AS4CertificateVerdictCache.Key, ECertificateCheckResult>
+{
+  /**
+   * The cache key.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  public static final class Key
+  {
+    private final byte [] m_aFingerprint;
+    private final TrustedCAChecker m_aChecker;
+    private final ETriState m_eCacheRevocationCheckResult;
+    private final ERevocationCheckMode m_eCheckMode;
+    // status vars
+    private int m_nHashCode = 0;
+
+    Key (@NonNull final byte [] aFingerprint,
+         @NonNull final TrustedCAChecker aChecker,
+         @NonNull final ETriState eCacheRevocationCheckResult,
+         @Nullable final ERevocationCheckMode eCheckMode)
+    {
+      m_aFingerprint = aFingerprint;
+      m_aChecker = aChecker;
+      m_eCacheRevocationCheckResult = eCacheRevocationCheckResult;
+      m_eCheckMode = eCheckMode;
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      // Checkers are compared by identity, as they have different trust anchors
+      return Arrays.equals (m_aFingerprint, rhs.m_aFingerprint) &&
+             m_aChecker == rhs.m_aChecker &&
+             m_eCacheRevocationCheckResult == rhs.m_eCacheRevocationCheckResult &&
+             m_eCheckMode == rhs.m_eCheckMode;
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      int ret = m_nHashCode;
+      if (ret == 0)
+        ret = m_nHashCode = new HashCodeGenerator (this).append (Arrays.hashCode (m_aFingerprint))
+                                                        .append (System.identityHashCode (m_aChecker))
+                                                        .append (m_eCacheRevocationCheckResult)
+                                                        .append (m_eCheckMode)
+                                                        .getHashCode ();
+      return ret;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (null).append ("Fingerprint", Arrays.toString (m_aFingerprint))
+                                         .append ("CacheRevocationCheckResult", m_eCacheRevocationCheckResult)
+                                         .append ("CheckMode", m_eCheckMode)
+                                         .getToString ();
+    }
+  }
+
+  public static final Duration DEFAULT_PATH_TTL = Duration.ofHours (6);
+  public static final Duration DEFAULT_REVOCATION_TTL = Duration.ofMinutes (30);
+  public static final Duration DEFAULT_STALE_GRACE_PERIOD = Duration.ofMinutes (5);
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+
+  private static final class SingletonHolder
+  {
+    static final AS4CertificateVerdictCache INSTANCE = new AS4CertificateVerdictCache ();
+  }
+
+  private final Duration m_aPathTTL;
+
+  /**
+   * Constructor using the default settings and the default background refresh executor.
+   */
+  public AS4CertificateVerdictCache ()
+  {
+    this (DEFAULT_PATH_TTL,
+          DEFAULT_REVOCATION_TTL,
+          DEFAULT_STALE_GRACE_PERIOD,
+          DEFAULT_MAX_SIZE,
+          DEFAULT_REFRESH_AHEAD_FACTOR,
+          getDefaultRefreshExecutor ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aPathTTL
+   *        The time to live of invalid results that don't depend on the revocation status. May not
+   *        be <code>null</code> and must be positive.
+   * @param aRevocationTTL
+   *        The time to live of valid results, after which the revocation status must be rechecked.
+   *        May not be <code>null</code> and must be positive.
+   * @param aStaleGracePeriod
+   *        The time after expiry, in which a stale result is still used while it is rechecked in
+   *        the background. May not be <code>null</code> and must not be negative.
+   * @param nMaxSize
+   *        The maximum number of entries. Must be &gt; 0.
+   * @param dRefreshAheadFactor
+   *        The fraction of the lifetime after which an entry is rechecked in the background, if it
+   *        is used. Must be between 0 and 1.
+   * @param aRefreshExecutor
+   *        The executor for background rechecks. May be <code>null</code> to disable background
+   *        rechecks.
+   */
+  public AS4CertificateVerdictCache (@NonNull final Duration aPathTTL,
+                                     @NonNull final Duration aRevocationTTL,
+                                     @NonNull final Duration aStaleGracePeriod,
+                                     @Nonnegative final int nMaxSize,
+                                     final double dRefreshAheadFactor,
+                                     @Nullable final Executor aRefreshExecutor)
+  {
+    // No null values are cached
+    super (aRevocationTTL, Duration.ZERO, aStaleGracePeriod, nMaxSize, dRefreshAheadFactor, aRefreshExecutor);
+    ValueEnforcer.notNull (aPathTTL, "PathTTL");
+    ValueEnforcer.isTrue (!aPathTTL.isNegative () && !aPathTTL.isZero (), "PathTTL must be positive");
+    m_aPathTTL = aPathTTL;
+  }
+
+  /**
+   * @return The global default instance. Never <code>null</code>.
+   */
+  @NonNull
+  public static AS4CertificateVerdictCache getDefaultInstance ()
+  {
+    return SingletonHolder.INSTANCE;
+  }
+
+  /**
+   * @return The time to live of invalid results that don't depend on the revocation status. Never
+   *         <code>null</code>.
+   */
+  @NonNull
+  public final Duration getPathTimeToLive ()
+  {
+    return m_aPathTTL;
+  }
+
+  /**
+   * @return The time to live of valid results. Never <code>null</code>.
+   */
+  @NonNull
+  public final Duration getRevocationTimeToLive ()
+  {
+    return getTimeToLive ();
+  }
+
+  @Override
+  @NonNull
+  protected Duration getTimeToLiveOf (@Nullable final ECertificateCheckResult eValue)
+  {
+    if (eValue == null || eValue == ECertificateCheckResult.REVOCATION_STATUS_UNKNOWN)
+      return Duration.ZERO;
+    if (eValue.isValid ())
+      return getTimeToLive ();
+    return m_aPathTTL;
+  }
+
+  /**
+   * Perform the actual certificate check. Overridable for testing purposes.
+   *
+   * @param aChecker
+   *        The checker to use. Never <code>null</code>.
+   * @param aCert
+   *        The certificate to check. May be <code>null</code>.
+   * @param aCheckDT
+   *        The date time for which the check should be performed. Never <code>null</code>.
+   * @param eCacheRevocationCheckResult
+   *        The revocation result caching flag to pass to the checker. Never <code>null</code>.
+   * @param eCheckMode
+   *        The revocation check mode to pass to the checker. May be <code>null</code>.
+   * @return The check result. May not be <code>null</code>.
+   */
+  @NonNull
+  @OverrideOnDemand
+  protected ECertificateCheckResult performCheck (@NonNull final TrustedCAChecker aChecker,
+                                                  @Nullable final X509Certificate aCert,
+                                                  @NonNull final OffsetDateTime aCheckDT,
+                                                  @NonNull final ETriState eCacheRevocationCheckResult,
+                                                  @Nullable final ERevocationCheckMode eCheckMode)
+  {
+    return aChecker.checkCertificate (aCert, aCheckDT, eCacheRevocationCheckResult, eCheckMode);
+  }
+
+  @Nullable
+  private static byte [] _getFingerprint (@NonNull final X509Certificate aCert)
+  {
+    try
+    {
+      final MessageDigest aMD = EMessageDigestAlgorithm.SHA_256.createMessageDigest ();
+      return aMD.digest (aCert.getEncoded ());
+    }
+    catch (final CertificateEncodingException ex)
+    {
+      return null;
+    }
+  }
+
+  private static boolean _isWithinValidityPeriod (@NonNull final X509Certificate aCert,
+                                                  @NonNull final OffsetDateTime aCheckDT)
+  {
+    final Date aDate = Date.from (aCheckDT.toInstant ());
+    return !aDate.before (aCert.getNotBefore ()) && !aDate.after (aCert.getNotAfter ());
+  }
+
+  /**
+   * Check the provided certificate with the provided checker, using a cached result if possible.
+   *
+   * @param aChecker
+   *        The checker to use. May not be <code>null</code>.
+   * @param aCert
+   *        The certificate to check. May be <code>null</code>.
+   * @param aCheckDT
+   *        The date time for which the check should be performed. May not be <code>null</code>.
+   * @param eCacheRevocationCheckResult
+   *        The revocation result caching flag to pass to the checker. May not be <code>null</code>.
+   * @param eCheckMode
+   *        The revocation check mode to pass to the checker. May be <code>null</code>.
+   * @return The check result. Never <code>null</code>.
+   */
+  @NonNull
+  public ECertificateCheckResult checkCertificate (@NonNull final TrustedCAChecker aChecker,
+                                                   @Nullable final X509Certificate aCert,
+                                                   @NonNull final OffsetDateTime aCheckDT,
+                                                   @NonNull final ETriState eCacheRevocationCheckResult,
+                                                   @Nullable final ERevocationCheckMode eCheckMode)
+  {
+    ValueEnforcer.notNull (aChecker, "Checker");
+    ValueEnforcer.notNull (aCheckDT, "CheckDT");
+    ValueEnforcer.notNull (eCacheRevocationCheckResult, "CacheRevocationCheckResult");
+
+    if (eCacheRevocationCheckResult == ETriState.FALSE)
+    {
+      // The caller explicitly requested a fresh revocation check - don't cache
+      return performCheck (aChecker, aCert, aCheckDT, eCacheRevocationCheckResult, eCheckMode);
+    }
+
+    final byte [] aFingerprint = aCert == null ? null : _getFingerprint (aCert);
+    if (aFingerprint == null || !_isWithinValidityPeriod (aCert, aCheckDT))
+    {
+      // The result depends on the check date time - don't cache
+      return performCheck (aChecker, aCert, aCheckDT, eCacheRevocationCheckResult, eCheckMode);
+    }
+
+    final Key aKey = new Key (aFingerprint, aChecker, eCacheRevocationCheckResult, eCheckMode);
+    // A miss uses the date time of the caller, background rechecks use the current date time
+    return getOrLookup (aKey,
+                        () -> performCheck (aChecker, aCert, aCheckDT, eCacheRevocationCheckResult, eCheckMode),
+                        () -> performCheck (aChecker,
+                                            aCert,
+                                            MetaAS4Manager.getTimestampMgr ().getCurrentDateTime (),
+                                            eCacheRevocationCheckResult,
+                                            eCheckMode));
+  }
+
+  /**
+   * Check the provided certificate with the provided checker, using a cached result if possible.
+   * The global revocation settings are used.
+   *
+   * @param aChecker
+   *        The checker to use. May not be <code>null</code>.
+   * @param aCert
+   *        The certificate to check. May be <code>null</code>.
+   * @param aCheckDT
+   *        The date time for which the check should be performed. May not be <code>null</code>.
+   * @return The check result. Never <code>null</code>.
+   */
+  @NonNull
+  public ECertificateCheckResult checkCertificate (@NonNull final TrustedCAChecker aChecker,
+                                                   @Nullable final X509Certificate aCert,
+                                                   @NonNull final OffsetDateTime aCheckDT)
+  {
+    return checkCertificate (aChecker, aCert, aCheckDT, ETriState.UNDEFINED, null);
+  }
+}
@@ -0,0 +1,1088 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.GuardedBy;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.annotation.style.ReturnsMutableCopy;
+import com.helger.base.concurrent.SimpleReadWriteLock;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.base.state.EChange;
+import com.helger.base.state.EContinue;
+import com.helger.base.string.StringHelper;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+
+/**
+ * A persistent duplicate checker that is optimized for a high message volume. Instead of
+ * rewriting an XML file, every registered message ID is appended to a binary log file. To find
+ * message IDs quickly, each log file has a memory-mapped hash index next to it, that maps the hash
+ * of the message ID to the offset of the record in the log file.<br>
+ * The data is split into segments (log file plus index file). A new segment is started, if the
+ * current segment covers more than the configured segment duration or if its index is filled
+ * above 75%. If a segment filled up within its duration, the next segment gets twice the capacity.
+ * Eviction simply deletes all segments that contain only items that are before the reference date
+ * time - no items are removed one by one.<br>
+ * Only the segments within the disposal duration are probed for duplicates. Whenever a new segment
+ * is started, the segments outside of the disposal duration are deleted, and the segment duration
+ * is at least 1/{@value #MAX_SEGMENTS_PER_DISPOSAL} of the disposal duration. That bounds the
+ * number of open file channels and memory mappings, even if the eviction job is not running.<br>
+ * Registrations don't block each other, except for the short append to the current segment.
+ * Concurrent registrations of the same message ID are serialized via a lock stripe.<br>
+ * Note: because of the segment granularity, items may be retained up to one segment duration
+ * longer than requested by {@link #evictAllItemsBefore(OffsetDateTime)}. That is never harmful for
+ * duplicate detection.<br>
+ * On startup, all existing segments of the directory are opened. If an index file does not match
+ * its log file (e.g. after a crash), the index is rebuilt from the log file and an incomplete last
+ * record is truncated.<br>
+ * A segment is deleted by emptying its log file first. If the files of a segment cannot be deleted
+ * (e.g. on Windows while the index is still mapped), the empty log file remains as a tombstone and
+ * the segment is deleted on the next start instead of being reloaded.<br>
+ * Call {@link #close()} when the instance is no longer needed.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4DuplicateManagerFileLog implements IAS4DuplicateManager, AutoCloseable
+{
+  /** The default number of index slots per segment. Must be a power of 2. */
+  public static final int DEFAULT_SEGMENT_CAPACITY = 64 * 1024;
+  /** The default maximum time span covered by a single segment */
+  public static final Duration DEFAULT_SEGMENT_DURATION = Duration.ofMinutes (5);
+  /** The maximum number of segments within the disposal duration */
+  public static final int MAX_SEGMENTS_PER_DISPOSAL = 32;
+
+  public static final String LOG_FILE_EXTENSION = ".dlog";
+  public static final String INDEX_FILE_EXTENSION = ".didx";
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4DuplicateManagerFileLog.class);
+
+  // "P4DI"
+  private static final int INDEX_MAGIC = 0x50344449;
+  // 64 MB index
+  private static final int MAX_SEGMENT_CAPACITY = 4 * 1024 * 1024;
+  // Must be a power of 2
+  private static final int LOCK_STRIPES = 64;
+  private static final int INDEX_VERSION = 1;
+  private static final int INDEX_HEADER_SIZE = 64;
+  private static final int INDEX_SLOT_SIZE = 16;
+  private static final int HDR_OFS_MAGIC = 0;
+  private static final int HDR_OFS_VERSION = 4;
+  private static final int HDR_OFS_CAPACITY = 8;
+  private static final int HDR_OFS_COUNT = 12;
+  private static final int HDR_OFS_MIN_TS = 16;
+  private static final int HDR_OFS_MAX_TS = 24;
+  private static final int HDR_OFS_LOG_LENGTH = 32;
+  private static final int HDR_OFS_REMOVED_COUNT = 40;
+  private static final double MAX_LOAD_FACTOR = 0.75;
+  // The timestamp of a removed record in the log
+  private static final long REMOVED_TS = Long.MIN_VALUE;
+  // The log offset of a removed record in the index
+  private static final long REMOVED_OFFSET = -1;
+
+  /**
+   * A single segment, consisting of an append-only log file and a memory-mapped open addressing
+   * hash index. Not thread-safe - the outer class takes care of locking. Appends and removals are
+   * serialized, lookups may run concurrently to an append.
+   *
+   * @author Philip Helger
+   */
+  private static final class Segment
+  {
+    private final long m_nSeqNo;
+    private final File m_aLogFile;
+    private final File m_aIndexFile;
+    private final FileChannel m_aLogChannel;
+    private final FileChannel m_aIndexChannel;
+    // Set to null when the segment is deleted
+    private MappedByteBuffer m_aIndex;
+    private final int m_nCapacity;
+    // The number of used index slots, including removed items
+    private int m_nCount;
+    private int m_nRemovedCount;
+    private long m_nMinTS;
+    private long m_nMaxTS;
+    private long m_nLogLength;
+
+    private Segment (final long nSeqNo,
+                     @NonNull final File aLogFile,
+                     @NonNull final File aIndexFile,
+                     @NonNull final FileChannel aLogChannel,
+                     @NonNull final FileChannel aIndexChannel,
+                     @NonNull final MappedByteBuffer aIndex,
+                     final int nCapacity)
+    {
+      m_nSeqNo = nSeqNo;
+      m_aLogFile = aLogFile;
+      m_aIndexFile = aIndexFile;
+      m_aLogChannel = aLogChannel;
+      m_aIndexChannel = aIndexChannel;
+      m_aIndex = aIndex;
+      m_nCapacity = nCapacity;
+      m_nCount = m_aIndex.getInt (HDR_OFS_COUNT);
+      m_nRemovedCount = m_aIndex.getInt (HDR_OFS_REMOVED_COUNT);
+      m_nMinTS = m_aIndex.getLong (HDR_OFS_MIN_TS);
+      m_nMaxTS = m_aIndex.getLong (HDR_OFS_MAX_TS);
+      m_nLogLength = m_aIndex.getLong (HDR_OFS_LOG_LENGTH);
+    }
+
+    private int size ()
+    {
+      return m_nCount - m_nRemovedCount;
+    }
+
+    private boolean isEmpty ()
+    {
+      return size () == 0;
+    }
+
+    private boolean isFull ()
+    {
+      return m_nCount >= (int) (m_nCapacity * MAX_LOAD_FACTOR);
+    }
+
+    private int _getSlot (final long nHash)
+    {
+      return (int) (nHash ^ (nHash >>> 32)) & (m_nCapacity - 1);
+    }
+
+    /**
+     * @return The index position of the slot of the provided message ID or -1 if not found
+     */
+    private int _findSlotPos (@NonNull final String sMessageID, final long nHash) throws IOException
+    {
+      int nSlot = _getSlot (nHash);
+      while (true)
+      {
+        final int nPos = INDEX_HEADER_SIZE + nSlot * INDEX_SLOT_SIZE;
+        final long nSlotHash = m_aIndex.getLong (nPos);
+        if (nSlotHash == 0)
+          return -1;
+        if (nSlotHash == nHash)
+        {
+          // Verify against the log, to rule out hash collisions
+          final long nOffset = m_aIndex.getLong (nPos + 8);
+          if (nOffset != REMOVED_OFFSET)
+          {
+            final AS4DuplicateItem aItem = _readItem (m_aLogChannel, nOffset);
+            if (aItem != null && aItem.getMessageID ().equals (sMessageID))
+              return nPos;
+          }
+        }
+        nSlot = (nSlot + 1) & (m_nCapacity - 1);
+      }
+    }
+
+    /**
+     * @return The log offset of the record with the provided message ID or -1 if not found
+     */
+    private long find (@NonNull final String sMessageID, final long nHash) throws IOException
+    {
+      final int nPos = _findSlotPos (sMessageID, nHash);
+      return nPos < 0 ? -1 : m_aIndex.getLong (nPos + 8);
+    }
+
+    /**
+     * Remove the item with the provided message ID. The record in the log is marked as removed in
+     * place and the index slot is kept, so that probing for other message IDs still works.
+     *
+     * @return <code>true</code> if the item was found and removed
+     */
+    private boolean remove (@NonNull final String sMessageID, final long nHash) throws IOException
+    {
+      final int nPos = _findSlotPos (sMessageID, nHash);
+      if (nPos < 0)
+        return false;
+
+      // Mark the log first - the log is the source of a rebuilt index
+      final long nOffset = m_aIndex.getLong (nPos + 8);
+      final ByteBuffer aTS = ByteBuffer.allocate (8);
+      aTS.putLong (REMOVED_TS).flip ();
+      _writeFully (m_aLogChannel, aTS, nOffset + 4);
+
+      m_aIndex.putLong (nPos + 8, REMOVED_OFFSET);
+      m_nRemovedCount++;
+      m_aIndex.putInt (HDR_OFS_REMOVED_COUNT, m_nRemovedCount);
+      return true;
+    }
+
+    @Nullable
+    private AS4DuplicateItem getItem (@NonNull final String sMessageID, final long nHash) throws IOException
+    {
+      final long nOffset = find (sMessageID, nHash);
+      return nOffset < 0 ? null : _readItem (m_aLogChannel, nOffset);
+    }
+
+    private void _putIndex (final long nHash, final long nOffset, final long nTS)
+    {
+      int nSlot = _getSlot (nHash);
+      while (m_aIndex.getLong (INDEX_HEADER_SIZE + nSlot * INDEX_SLOT_SIZE) != 0)
+        nSlot = (nSlot + 1) & (m_nCapacity - 1);
+      final int nPos = INDEX_HEADER_SIZE + nSlot * INDEX_SLOT_SIZE;
+      m_aIndex.putLong (nPos + 8, nOffset);
+      m_aIndex.putLong (nPos, nHash);
+
+      m_nCount++;
+      if (m_nCount == 1 || nTS < m_nMinTS)
+        m_nMinTS = nTS;
+      if (m_nCount == 1 || nTS > m_nMaxTS)
+        m_nMaxTS = nTS;
+      m_aIndex.putInt (HDR_OFS_COUNT, m_nCount);
+      m_aIndex.putLong (HDR_OFS_MIN_TS, m_nMinTS);
+      m_aIndex.putLong (HDR_OFS_MAX_TS, m_nMaxTS);
+    }
+
+    private void append (@NonNull final AS4DuplicateItem aItem, final long nHash) throws IOException
+    {
+      final ByteBuffer aRecord = _createRecord (aItem);
+      final long nOffset = m_nLogLength;
+      _writeFully (m_aLogChannel, aRecord, nOffset);
+
+      _putIndex (nHash, nOffset, aItem.getDateTime ().toInstant ().toEpochMilli ());
+      // Update the log length last - a mismatch triggers an index rebuild on startup
+      m_nLogLength = nOffset + aRecord.capacity ();
+      m_aIndex.putLong (HDR_OFS_LOG_LENGTH, m_nLogLength);
+    }
+
+    private void forEachItem (@NonNull final ObjLongConsumer <AS4DuplicateItem> aConsumer) throws IOException
+    {
+      long nOffset = 0;
+      while (nOffset < m_nLogLength)
+      {
+        final AS4DuplicateItem aItem = _readItem (m_aLogChannel, nOffset);
+        if (aItem != null)
+          aConsumer.accept (aItem, nOffset);
+        nOffset += 4 + _readInt (m_aLogChannel, nOffset);
+      }
+    }
+
+    private void close ()
+    {
+      try
+      {
+        m_aIndex.force ();
+        m_aLogChannel.force (false);
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        LOGGER.warn ("Failed to flush duplicate segment " + m_nSeqNo, ex);
+      }
+      StreamHelper.close (m_aIndexChannel);
+      StreamHelper.close (m_aLogChannel);
+    }
+
+    private void closeAndDelete ()
+    {
+      try
+      {
+        // An empty log file is the tombstone of a segment, in case the files cannot be deleted
+        m_aIndex.putInt (HDR_OFS_MAGIC, 0);
+        m_aIndex.force ();
+        m_aLogChannel.truncate (0);
+        m_aLogChannel.force (true);
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        LOGGER.warn ("Failed to mark duplicate segment " + m_nSeqNo + " as deleted", ex);
+      }
+      StreamHelper.close (m_aIndexChannel);
+      StreamHelper.close (m_aLogChannel);
+      // Drop the reference to the mapping. On Windows a mapped file cannot be deleted, before the
+      // mapping was garbage collected.
+      m_aIndex = null;
+
+      // Keep the log file as the tombstone, if the index file cannot be deleted
+      if (!_deleteSegmentFiles (m_aLogFile, m_aIndexFile))
+        LOGGER.warn ("Failed to delete duplicate segment " +
+                     m_nSeqNo +
+                     " - it will be deleted on the next start");
+    }
+  }
+
+  private final File m_aDirectory;
+  private final int m_nSegmentCapacity;
+  private final long m_nSegmentMillis;
+  // 0 for no limit
+  private final long m_nDisposalMillis;
+
+  // Write lock for structural changes, read lock for registrations and lookups
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  // Serializes appends while the read lock is held
+  private final Lock m_aAppendLock = new ReentrantLock ();
+  // Serializes check and append of the same message ID
+  private final Lock [] m_aStripeLocks = new Lock [LOCK_STRIPES];
+  // Ordered from oldest to newest. Appended while holding the read and the append lock, so that
+  // lookups can iterate concurrently
+  private final List <Segment> m_aSegments = new CopyOnWriteArrayList <> ();
+  @GuardedBy ("m_aAppendLock")
+  private long m_nNextSeqNo = 0;
+  @GuardedBy ("m_aRWLock")
+  private boolean m_bClosed = false;
+
+  /**
+   * Constructor using the default segment settings and the configured disposal duration.
+   *
+   * @param aDirectory
+   *        The directory to store the segments in. Is created if it does not exist. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         If the existing segments could not be opened
+   * @see AS4Configuration#getIncomingDuplicateDisposal()
+   */
+  public AS4DuplicateManagerFileLog (@NonNull final File aDirectory) throws IOException
+  {
+    this (aDirectory, DEFAULT_SEGMENT_CAPACITY, DEFAULT_SEGMENT_DURATION);
+  }
+
+  /**
+   * Constructor using the configured disposal duration.
+   *
+   * @param aDirectory
+   *        The directory to store the segments in. Is created if it does not exist. May not be
+   *        <code>null</code>.
+   * @param nSegmentCapacity
+   *        The number of index slots per segment. Must be a power of 2 and &ge; 16. A segment
+   *        contains at most 75% of this number of items.
+   * @param aSegmentDuration
+   *        The maximum time span covered by a single segment. Smaller segments make eviction more
+   *        precise, larger segments reduce the number of files. May not be <code>null</code>.
+   * @throws IOException
+   *         If the existing segments could not be opened
+   * @see AS4Configuration#getIncomingDuplicateDisposal()
+   */
+  public AS4DuplicateManagerFileLog (@NonNull final File aDirectory,
+                                     @Nonnegative final int nSegmentCapacity,
+                                     @NonNull final Duration aSegmentDuration) throws IOException
+  {
+    this (aDirectory, nSegmentCapacity, aSegmentDuration, AS4Configuration.getIncomingDuplicateDisposal ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to store the segments in. Is created if it does not exist. May not be
+   *        <code>null</code>.
+   * @param nSegmentCapacity
+   *        The number of index slots per segment. Must be a power of 2 and &ge; 16. A segment
+   *        contains at most 75% of this number of items.
+   * @param aSegmentDuration
+   *        The maximum time span covered by a single segment. Smaller segments make eviction more
+   *        precise, larger segments reduce the number of files. May not be <code>null</code>.
+   * @param aDisposalDuration
+   *        The time after which message IDs are no longer checked for duplicates. Segments older
+   *        than that are not probed and are deleted when a new segment is started. May be
+   *        <code>null</code> or non-positive to keep all segments until they are evicted.
+   * @throws IOException
+   *         If the existing segments could not be opened
+   */
+  public AS4DuplicateManagerFileLog (@NonNull final File aDirectory,
+                                     @Nonnegative final int nSegmentCapacity,
+                                     @NonNull final Duration aSegmentDuration,
+                                     @Nullable final Duration aDisposalDuration) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isTrue (nSegmentCapacity >= 16 &&
+                          nSegmentCapacity <= MAX_SEGMENT_CAPACITY &&
+                          Integer.bitCount (nSegmentCapacity) == 1,
+                          () -> "SegmentCapacity must be a power of 2 and >= 16 but is " + nSegmentCapacity);
+    ValueEnforcer.notNull (aSegmentDuration, "SegmentDuration");
+    ValueEnforcer.isGT0 (aSegmentDuration.toMillis (), "SegmentDuration.Millis");
+    m_aDirectory = aDirectory;
+    m_nSegmentCapacity = nSegmentCapacity;
+    m_nDisposalMillis = aDisposalDuration == null ? 0 : Math.max (0, aDisposalDuration.toMillis ());
+    // Limit the number of segments within the disposal duration
+    m_nSegmentMillis = Math.max (aSegmentDuration.toMillis (), m_nDisposalMillis / MAX_SEGMENTS_PER_DISPOSAL);
+    for (int i = 0; i < LOCK_STRIPES; ++i)
+      m_aStripeLocks[i] = new ReentrantLock ();
+
+    if (!aDirectory.isDirectory () && !aDirectory.mkdirs ())
+      throw new IOException ("Failed to create duplicate directory " + aDirectory.getAbsolutePath ());
+    _openExistingSegments ();
+  }
+
+  @NonNull
+  private static String _getBaseName (final long nSeqNo)
+  {
+    return StringHelper.getLeadingZero (nSeqNo, 16);
+  }
+
+  private void _openExistingSegments () throws IOException
+  {
+    final File [] aLogFiles = m_aDirectory.listFiles ( (d, n) -> n.endsWith (LOG_FILE_EXTENSION));
+    final ICommonsList <Long> aSeqNos = new CommonsArrayList <> ();
+    if (aLogFiles != null)
+      for (final File aLogFile : aLogFiles)
+      {
+        final String sName = aLogFile.getName ();
+        try
+        {
+          aSeqNos.add (Long.valueOf (sName.substring (0, sName.length () - LOG_FILE_EXTENSION.length ())));
+        }
+        catch (final NumberFormatException ex)
+        {
+          LOGGER.warn ("Ignoring unexpected file " + aLogFile.getAbsolutePath ());
+        }
+      }
+    aSeqNos.sortInline (Long::compare);
+
+    for (final Long aSeqNo : aSeqNos)
+    {
+      final long nSeqNo = aSeqNo.longValue ();
+      final String sBaseName = _getBaseName (nSeqNo);
+      final File aLogFile = new File (m_aDirectory, sBaseName + LOG_FILE_EXTENSION);
+      if (aLogFile.length () == 0)
+      {
+        // Tombstone of a deleted segment or segment without items - delete without mapping the
+        // index
+        if (!_deleteSegmentFiles (aLogFile, new File (m_aDirectory, sBaseName + INDEX_FILE_EXTENSION)))
+          LOGGER.warn ("Failed to delete empty duplicate segment " + aLogFile.getAbsolutePath ());
+      }
+      else
+      {
+        final Segment aSegment = _openSegment (nSeqNo, m_nSegmentCapacity);
+        if (aSegment.isEmpty ())
+          aSegment.closeAndDelete ();
+        else
+          m_aSegments.add (aSegment);
+      }
+      m_nNextSeqNo = nSeqNo + 1;
+    }
+    if (!m_aSegments.isEmpty ())
+      LOGGER.info ("Opened " + m_aSegments.size () + " duplicate segment(s) in " + m_aDirectory.getAbsolutePath ());
+  }
+
+  /**
+   * Delete the files of a segment. The index file is deleted first, so that the log file remains
+   * as a tombstone if the index file cannot be deleted.
+   *
+   * @return <code>true</code> if both files are gone
+   */
+  private static boolean _deleteSegmentFiles (@NonNull final File aLogFile, @NonNull final File aIndexFile)
+  {
+    if (aIndexFile.exists () && !aIndexFile.delete ())
+      return false;
+    return !aLogFile.exists () || aLogFile.delete ();
+  }
+
+  @NonNull
+  private static MappedByteBuffer _mapIndex (@NonNull final FileChannel aIndexChannel, final int nCapacity) throws IOException
+  {
+    return aIndexChannel.map (FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) nCapacity * INDEX_SLOT_SIZE);
+  }
+
+  @NonNull
+  private Segment _openSegment (final long nSeqNo, final int nNewCapacity) throws IOException
+  {
+    final String sBaseName = _getBaseName (nSeqNo);
+    final File aLogFile = new File (m_aDirectory, sBaseName + LOG_FILE_EXTENSION);
+    final File aIndexFile = new File (m_aDirectory, sBaseName + INDEX_FILE_EXTENSION);
+    final FileChannel aLogChannel = FileChannel.open (aLogFile.toPath (),
+                                                      StandardOpenOption.CREATE,
+                                                      StandardOpenOption.READ,
+                                                      StandardOpenOption.WRITE);
+    FileChannel aIndexChannel = null;
+    try
+    {
+      aIndexChannel = FileChannel.open (aIndexFile.toPath (),
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+      final long nLogSize = aLogChannel.size ();
+      final long nIndexSize = aIndexChannel.size ();
+
+      // Check if the existing index is consistent with the log
+      if (nIndexSize > INDEX_HEADER_SIZE)
+      {
+        final ByteBuffer aHeader = ByteBuffer.allocate (INDEX_HEADER_SIZE);
+        _readFully (aIndexChannel, aHeader, 0);
+        final int nCapacity = aHeader.getInt (HDR_OFS_CAPACITY);
+        if (aHeader.getInt (HDR_OFS_MAGIC) == INDEX_MAGIC &&
+            aHeader.getInt (HDR_OFS_VERSION) == INDEX_VERSION &&
+            nCapacity > 0 &&
+            Integer.bitCount (nCapacity) == 1 &&
+            nIndexSize == INDEX_HEADER_SIZE + (long) nCapacity * INDEX_SLOT_SIZE &&
+            aHeader.getLong (HDR_OFS_LOG_LENGTH) == nLogSize)
+        {
+          return new Segment (nSeqNo,
+                              aLogFile,
+                              aIndexFile,
+                              aLogChannel,
+                              aIndexChannel,
+                              _mapIndex (aIndexChannel, nCapacity),
+                              nCapacity);
+        }
+      }
+
+      // Index is missing or inconsistent
+      return _rebuildSegment (nSeqNo, aLogFile, aIndexFile, aLogChannel, aIndexChannel, nNewCapacity);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      StreamHelper.close (aIndexChannel);
+      StreamHelper.close (aLogChannel);
+      throw ex;
+    }
+  }
+
+  @NonNull
+  private Segment _rebuildSegment (final long nSeqNo,
+                                   @NonNull final File aLogFile,
+                                   @NonNull final File aIndexFile,
+                                   @NonNull final FileChannel aLogChannel,
+                                   @NonNull final FileChannel aIndexChannel,
+                                   final int nMinCapacity) throws IOException
+  {
+    // Scan all complete records of the log
+    final long nLogSize = aLogChannel.size ();
+    final ICommonsList <AS4DuplicateItem> aItems = new CommonsArrayList <> ();
+    final ICommonsList <Long> aOffsets = new CommonsArrayList <> ();
+    long nOffset = 0;
+    while (nOffset + 4 <= nLogSize)
+    {
+      final int nRecordLen = _readInt (aLogChannel, nOffset);
+      if (nRecordLen <= 0 || nOffset + 4 + nRecordLen > nLogSize)
+        break;
+      final AS4DuplicateItem aItem;
+      try
+      {
+        aItem = _readItem (aLogChannel, nOffset);
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        // Corrupt record
+        break;
+      }
+      if (aItem != null)
+      {
+        // Removed records are not indexed
+        aItems.add (aItem);
+        aOffsets.add (Long.valueOf (nOffset));
+      }
+      nOffset += 4 + nRecordLen;
+    }
+
+    if (nOffset < nLogSize)
+    {
+      LOGGER.warn ("Truncating duplicate log file " +
+                   aLogFile.getAbsolutePath () +
+                   " from " +
+                   nLogSize +
+                   " to " +
+                   nOffset +
+                   " bytes");
+      aLogChannel.truncate (nOffset);
+    }
+
+    // Make sure the load factor is not exceeded
+    int nCapacity = nMinCapacity;
+    while (aItems.size () >= (int) (nCapacity * MAX_LOAD_FACTOR))
+      nCapacity <<= 1;
+
+    // Start with an empty index
+    aIndexChannel.truncate (0);
+    final MappedByteBuffer aIndex = _mapIndex (aIndexChannel, nCapacity);
+    aIndex.putInt (HDR_OFS_MAGIC, INDEX_MAGIC);
+    aIndex.putInt (HDR_OFS_VERSION, INDEX_VERSION);
+    aIndex.putInt (HDR_OFS_CAPACITY, nCapacity);
+
+    final Segment ret = new Segment (nSeqNo, aLogFile, aIndexFile, aLogChannel, aIndexChannel, aIndex, nCapacity);
+    for (int i = 0; i < aItems.size (); ++i)
+    {
+      final AS4DuplicateItem aItem = aItems.get (i);
+      ret._putIndex (_getHash (aItem.getMessageID ()),
+                     aOffsets.get (i).longValue (),
+                     aItem.getDateTime ().toInstant ().toEpochMilli ());
+    }
+    ret.m_nLogLength = nOffset;
+    aIndex.putLong (HDR_OFS_LOG_LENGTH, nOffset);
+
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Rebuilt duplicate index " + aIndexFile.getAbsolutePath () + " with " + aItems.size () + " item(s)");
+    return ret;
+  }
+
+  /**
+   * @return The 64-bit FNV-1a hash of the provided string. Never 0, as 0 marks an empty slot.
+   */
+  private static long _getHash (@NonNull final String s)
+  {
+    long ret = 0xcbf29ce484222325L;
+    for (final byte b : s.getBytes (StandardCharsets.UTF_8))
+    {
+      ret ^= b & 0xff;
+      ret *= 0x100000001b3L;
+    }
+    return ret == 0 ? 1 : ret;
+  }
+
+  private static void _writeFully (@NonNull final FileChannel aChannel,
+                                   @NonNull final ByteBuffer aBuffer,
+                                   final long nPosition) throws IOException
+  {
+    long nPos = nPosition;
+    while (aBuffer.hasRemaining ())
+      nPos += aChannel.write (aBuffer, nPos);
+  }
+
+  private static void _readFully (@NonNull final FileChannel aChannel,
+                                  @NonNull final ByteBuffer aBuffer,
+                                  final long nPosition) throws IOException
+  {
+    long nPos = nPosition;
+    while (aBuffer.hasRemaining ())
+    {
+      final int nRead = aChannel.read (aBuffer, nPos);
+      if (nRead < 0)
+        throw new EOFException ("Unexpected end of file at position " + nPos);
+      nPos += nRead;
+    }
+    aBuffer.flip ();
+  }
+
+  private static int _readInt (@NonNull final FileChannel aChannel, final long nPosition) throws IOException
+  {
+    final ByteBuffer aBuf = ByteBuffer.allocate (4);
+    _readFully (aChannel, aBuf, nPosition);
+    return aBuf.getInt ();
+  }
+
+  private static int _getEncodedLength (@Nullable final byte [] aBytes)
+  {
+    return 4 + (aBytes == null ? 0 : aBytes.length);
+  }
+
+  private static void _putString (@NonNull final ByteBuffer aBuf, @Nullable final byte [] aBytes)
+  {
+    if (aBytes == null)
+      aBuf.putInt (-1);
+    else
+    {
+      aBuf.putInt (aBytes.length);
+      aBuf.put (aBytes);
+    }
+  }
+
+  @Nullable
+  private static String _getString (@NonNull final ByteBuffer aBuf)
+  {
+    final int nLen = aBuf.getInt ();
+    if (nLen < 0)
+      return null;
+    final byte [] aBytes = new byte [nLen];
+    aBuf.get (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Record layout: int record length (excluding this field), long epoch millis, int zone offset
+   * seconds, message ID, profile ID, PMode ID. Each string is encoded as int length (-1 for
+   * <code>null</code>) followed by the UTF-8 bytes.
+   */
+  @NonNull
+  private static ByteBuffer _createRecord (@NonNull final AS4DuplicateItem aItem)
+  {
+    final byte [] aMessageID = aItem.getMessageID ().getBytes (StandardCharsets.UTF_8);
+    final byte [] aProfileID = aItem.getProfileID () == null ? null : aItem.getProfileID ()
+                                                                           .getBytes (StandardCharsets.UTF_8);
+    final byte [] aPModeID = aItem.getPModeID () == null ? null : aItem.getPModeID ().getBytes (StandardCharsets.UTF_8);
+    final int nRecordLen = 8 +
+                           4 +
+                           _getEncodedLength (aMessageID) +
+                           _getEncodedLength (aProfileID) +
+                           _getEncodedLength (aPModeID);
+    final ByteBuffer ret = ByteBuffer.allocate (4 + nRecordLen);
+    ret.putInt (nRecordLen);
+    ret.putLong (aItem.getDateTime ().toInstant ().toEpochMilli ());
+    ret.putInt (aItem.getDateTime ().getOffset ().getTotalSeconds ());
+    _putString (ret, aMessageID);
+    _putString (ret, aProfileID);
+    _putString (ret, aPModeID);
+    ret.flip ();
+    return ret;
+  }
+
+  /**
+   * @return <code>null</code> if the record was removed
+   */
+  @Nullable
+  private static AS4DuplicateItem _readItem (@NonNull final FileChannel aChannel, final long nOffset) throws IOException
+  {
+    final int nRecordLen = _readInt (aChannel, nOffset);
+    if (nRecordLen <= 0)
+      throw new IOException ("Invalid duplicate record length " + nRecordLen + " at offset " + nOffset);
+    final ByteBuffer aBuf = ByteBuffer.allocate (nRecordLen);
+    _readFully (aChannel, aBuf, nOffset + 4);
+
+    final long nEpochMillis = aBuf.getLong ();
+    if (nEpochMillis == REMOVED_TS)
+      return null;
+    final ZoneOffset aZoneOffset = ZoneOffset.ofTotalSeconds (aBuf.getInt ());
+    final String sMessageID = _getString (aBuf);
+    final String sProfileID = _getString (aBuf);
+    final String sPModeID = _getString (aBuf);
+    return new AS4DuplicateItem (OffsetDateTime.ofInstant (Instant.ofEpochMilli (nEpochMillis), aZoneOffset),
+                                 sMessageID,
+                                 sProfileID,
+                                 sPModeID);
+  }
+
+  private void _checkNotClosed ()
+  {
+    if (m_bClosed)
+      throw new IllegalStateException ("This AS4DuplicateManagerFileLog was already closed");
+  }
+
+  @NonNull
+  private Lock _getStripeLock (final long nHash)
+  {
+    return m_aStripeLocks[(int) (nHash ^ (nHash >>> 32)) & (LOCK_STRIPES - 1)];
+  }
+
+  @NonNull
+  @GuardedBy ("m_aAppendLock")
+  private Segment _getSegmentForAppend (final long nTS) throws IOException
+  {
+    final Segment aLast = m_aSegments.isEmpty () ? null : m_aSegments.get (m_aSegments.size () - 1);
+    if (aLast != null && !aLast.isFull () && (aLast.isEmpty () || nTS - aLast.m_nMinTS < m_nSegmentMillis))
+      return aLast;
+
+    // A segment that filled up within its duration indicates a high volume - use a larger index
+    // to limit the number of segments
+    int nCapacity = m_nSegmentCapacity;
+    if (aLast != null && aLast.isFull () && nTS - aLast.m_nMinTS < m_nSegmentMillis)
+      nCapacity = Math.max (nCapacity, Math.min (aLast.m_nCapacity << 1, MAX_SEGMENT_CAPACITY));
+
+    // Start a new segment
+    final Segment ret = _openSegment (m_nNextSeqNo, nCapacity);
+    m_nNextSeqNo++;
+    m_aSegments.add (ret);
+    return ret;
+  }
+
+  /**
+   * Delete all segments that contain only items before the provided timestamp.
+   *
+   * @param nRefTS
+   *        The reference timestamp in epoch milliseconds.
+   * @param aEvictedIDs
+   *        The list to add the message IDs of the deleted segments to. May be <code>null</code>.
+   */
+  @GuardedBy ("m_aRWLock")
+  private void _deleteSegmentsBefore (final long nRefTS, @Nullable final ICommonsList <String> aEvictedIDs)
+  {
+    // Segments are ordered from oldest to newest
+    while (!m_aSegments.isEmpty ())
+    {
+      final Segment aSegment = m_aSegments.get (0);
+      if (!aSegment.isEmpty () && aSegment.m_nMaxTS >= nRefTS)
+        break;
+
+      if (aEvictedIDs != null)
+        try
+        {
+          aSegment.forEachItem ( (aItem, nOffset) -> aEvictedIDs.add (aItem.getMessageID ()));
+        }
+        catch (final IOException ex)
+        {
+          LOGGER.error ("Failed to read evicted message IDs from " + aSegment.m_aLogFile.getAbsolutePath (), ex);
+        }
+      aSegment.closeAndDelete ();
+      m_aSegments.remove (0);
+    }
+  }
+
+  @NonNull
+  public EContinue registerAndCheck (@Nullable final String sMessageID,
+                                     @Nullable final String sProfileID,
+                                     @Nullable final String sPModeID)
+  {
+    if (StringHelper.isEmpty (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
+    final long nHash = _getHash (sMessageID);
+    final long nTS = aItem.getDateTime ().toInstant ().toEpochMilli ();
+    // Segments with only older items are no longer relevant
+    final long nWindowStartTS = m_nDisposalMillis > 0 ? nTS - m_nDisposalMillis : Long.MIN_VALUE;
+    final Lock aStripeLock = _getStripeLock (nHash);
+    boolean bNewSegment = false;
+
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      _checkNotClosed ();
+      aStripeLock.lock ();
+      try
+      {
+        // Newest first, as duplicates are usually recent
+        for (int i = m_aSegments.size () - 1; i >= 0; --i)
+        {
+          final Segment aSegment = m_aSegments.get (i);
+          if (aSegment.m_nMaxTS >= nWindowStartTS && aSegment.find (sMessageID, nHash) >= 0)
+          {
+            // ID already in use
+            return EContinue.BREAK;
+          }
+        }
+
+        m_aAppendLock.lock ();
+        try
+        {
+          final int nSegmentCount = m_aSegments.size ();
+          _getSegmentForAppend (nTS).append (aItem, nHash);
+          bNewSegment = m_aSegments.size () > nSegmentCount;
+        }
+        finally
+        {
+          m_aAppendLock.unlock ();
+        }
+      }
+      finally
+      {
+        aStripeLock.unlock ();
+      }
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to persist duplicate item for message ID '" + sMessageID + "'", ex);
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+
+    if (bNewSegment && m_nDisposalMillis > 0)
+    {
+      // Release the segments outside of the disposal duration
+      m_aRWLock.writeLocked ( () -> {
+        if (!m_bClosed)
+          _deleteSegmentsBefore (nWindowStartTS, null);
+      });
+    }
+    return EContinue.CONTINUE;
+  }
+
+  @NonNull
+  public EChange unregister (@Nullable final String sMessageID)
+  {
+    if (StringHelper.isEmpty (sMessageID))
+      return EChange.UNCHANGED;
+
+    final long nHash = _getHash (sMessageID);
+    return m_aRWLock.writeLockedGet ( () -> {
+      _checkNotClosed ();
+      try
+      {
+        for (final Segment aSegment : m_aSegments)
+          if (aSegment.remove (sMessageID, nHash))
+            return EChange.CHANGED;
+        return EChange.UNCHANGED;
+      }
+      catch (final IOException ex)
+      {
+        throw new IllegalStateException ("Failed to remove duplicate item for message ID '" + sMessageID + "'", ex);
+      }
+    });
+  }
+
+  @NonNull
+  public EChange clearCache ()
+  {
+    return m_aRWLock.writeLockedGet ( () -> {
+      if (m_aSegments.isEmpty ())
+        return EChange.UNCHANGED;
+      for (final Segment aSegment : m_aSegments)
+        aSegment.closeAndDelete ();
+      m_aSegments.clear ();
+      return EChange.CHANGED;
+    });
+  }
+
+  @NonNull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@NonNull final OffsetDateTime aRefDT)
+  {
+    ValueEnforcer.notNull (aRefDT, "RefDT");
+
+    final long nRefTS = aRefDT.toInstant ().toEpochMilli ();
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    m_aRWLock.writeLocked ( () -> _deleteSegmentsBefore (nRefTS, ret));
+    return ret;
+  }
+
+  public boolean isEmpty ()
+  {
+    return size () == 0;
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aRWLock.readLockedInt ( () -> {
+      m_aAppendLock.lock ();
+      try
+      {
+        int ret = 0;
+        for (final Segment aSegment : m_aSegments)
+          ret += aSegment.size ();
+        return ret;
+      }
+      finally
+      {
+        m_aAppendLock.unlock ();
+      }
+    });
+  }
+
+  /**
+   * @return The number of currently used segments. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getSegmentCount ()
+  {
+    return m_aRWLock.readLockedInt (m_aSegments::size);
+  }
+
+  /**
+   * @return The directory in which the segments are stored. Never <code>null</code>.
+   */
+  @NonNull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    if (StringHelper.isEmpty (sMessageID))
+      return null;
+
+    final long nHash = _getHash (sMessageID);
+    final Lock aStripeLock = _getStripeLock (nHash);
+    return m_aRWLock.readLockedGet ( () -> {
+      aStripeLock.lock ();
+      try
+      {
+        // Newest first
+        for (int i = m_aSegments.size () - 1; i >= 0; --i)
+        {
+          final AS4DuplicateItem ret = m_aSegments.get (i).getItem (sMessageID, nHash);
+          if (ret != null)
+            return ret;
+        }
+        return null;
+      }
+      catch (final IOException ex)
+      {
+        throw new IllegalStateException ("Failed to read duplicate item for message ID '" + sMessageID + "'", ex);
+      }
+      finally
+      {
+        aStripeLock.unlock ();
+      }
+    });
+  }
+
+  @NonNull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    final ICommonsList <IAS4DuplicateItem> ret = new CommonsArrayList <> ();
+    m_aRWLock.readLocked ( () -> {
+      m_aAppendLock.lock ();
+      try
+      {
+        for (final Segment aSegment : m_aSegments)
+          try
+          {
+            aSegment.forEachItem ( (aItem, nOffset) -> ret.add (aItem));
+          }
+          catch (final IOException ex)
+          {
+            throw new IllegalStateException ("Failed to read duplicate log file " +
+                                             aSegment.m_aLogFile.getAbsolutePath (),
+                                             ex);
+          }
+      }
+      finally
+      {
+        m_aAppendLock.unlock ();
+      }
+    });
+    return ret;
+  }
+
+  /**
+   * Flush and close all open segments. After this method was called, no more messages can be
+   * registered. Calling this method more than once has no effect.
+   */
+  public void close ()
+  {
+    m_aRWLock.writeLocked ( () -> {
+      if (!m_bClosed)
+      {
+        m_bClosed = true;
+        for (final Segment aSegment : m_aSegments)
+          aSegment.close ();
+        m_aSegments.clear ();
+      }
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Directory", m_aDirectory)
+                                       .append ("SegmentCapacity", m_nSegmentCapacity)
+                                       .append ("SegmentMillis", m_nSegmentMillis)
+                                       .append ("DisposalMillis", m_nDisposalMillis)
+                                       .getToString ();
+  }
+}
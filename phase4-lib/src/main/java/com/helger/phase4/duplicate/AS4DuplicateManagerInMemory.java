@@ -82,6 +82,15 @@ public class AS4DuplicateManagerInMemory implements IAS4DuplicateManager
     return EContinue.CONTINUE;
   }
 
+  @NonNull
+  public EChange unregister (@Nullable final String sMessageID)
+  {
+    if (StringHelper.isEmpty (sMessageID))
+      return EChange.UNCHANGED;
+
+    return m_aRWLock.writeLockedGet ( () -> EChange.valueOf (m_aMap.remove (sMessageID) != null));
+  }
+
   @NonNull
   public EChange clearCache ()
   {
@@ -92,23 +101,14 @@ public class AS4DuplicateManagerInMemory implements IAS4DuplicateManager
   @ReturnsMutableCopy
   public ICommonsList <String> evictAllItemsBefore (@NonNull final OffsetDateTime aRefDT)
   {
-    // Get all message IDs to be removed
+    // Get and remove all message IDs in a single pass
     final ICommonsList <String> aEvictItems = new CommonsArrayList <> ();
-    m_aRWLock.readLocked ( () -> m_aMap.forEachValue (x -> x.getDateTime ().isBefore (aRefDT),
-                                                      x -> aEvictItems.add (x.getMessageID ())));
-    if (aEvictItems.isNotEmpty ())
-    {
-      // Bulk erase all
-      m_aRWLock.writeLock ().lock ();
-      try
-      {
-        m_aMap.removeIfKey (aEvictItems::contains);
-      }
-      finally
-      {
-        m_aRWLock.writeLock ().unlock ();
-      }
-    }
+    m_aRWLock.writeLocked ( () -> m_aMap.values ().removeIf (x -> {
+      if (!x.getDateTime ().isBefore (aRefDT))
+        return false;
+      aEvictItems.add (x.getMessageID ());
+      return true;
+    }));
     return aEvictItems;
   }
 
@@ -135,7 +135,8 @@ public class AS4DuplicateManagerInMemory implements IAS4DuplicateManager
     if (StringHelper.isEmpty (sMessageID))
       return null;
 
-    return findFirst (x -> x.getMessageID ().equals (sMessageID));
+    // The map is keyed by message ID
+    return m_aRWLock.readLockedGet ( () -> m_aMap.get (sMessageID));
   }
 
   @NonNull
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.GuardedBy;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.annotation.style.ReturnsMutableCopy;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.state.EChange;
+import com.helger.base.state.EContinue;
+import com.helger.base.string.StringHelper;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+
+/**
+ * An in-memory duplicate checker that is optimized for a large number of retained message IDs and
+ * concurrent access. All message IDs are kept in a {@link ConcurrentHashMap}, so that registration
+ * and lookup are O(1) and don't need a global lock. Additionally each item is put into a time
+ * bucket (by default one bucket per minute). Eviction simply detaches all buckets that are
+ * completely before the reference date time and removes only the contained items - no full scan is
+ * needed.<br>
+ * Note: because of the bucket granularity, items may be retained up to one bucket duration longer
+ * than requested by {@link #evictAllItemsBefore(OffsetDateTime)}. That is never harmful for
+ * duplicate detection.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4DuplicateManagerInMemoryBucketed implements IAS4DuplicateManager
+{
+  public static final Duration DEFAULT_BUCKET_DURATION = Duration.ofMinutes (1);
+
+  /**
+   * The items of a single time bucket. Once the bucket was detached for eviction, no more items can
+   * be added, so that no item is lost between looking up the bucket and adding the item.
+   */
+  private static final class Bucket
+  {
+    // A lock instead of "synchronized" to not pin virtual threads
+    private final Lock m_aLock = new ReentrantLock ();
+    @GuardedBy ("m_aLock")
+    private final List <AS4DuplicateItem> m_aItems = new ArrayList <> ();
+    @GuardedBy ("m_aLock")
+    private boolean m_bDetached = false;
+
+    boolean add (@NonNull final AS4DuplicateItem aItem)
+    {
+      m_aLock.lock ();
+      try
+      {
+        if (m_bDetached)
+          return false;
+        m_aItems.add (aItem);
+        return true;
+      }
+      finally
+      {
+        m_aLock.unlock ();
+      }
+    }
+
+    @NonNull
+    List <AS4DuplicateItem> detach ()
+    {
+      m_aLock.lock ();
+      try
+      {
+        m_bDetached = true;
+        return m_aItems;
+      }
+      finally
+      {
+        m_aLock.unlock ();
+      }
+    }
+  }
+
+  private final long m_nBucketMillis;
+  private final Map <String, AS4DuplicateItem> m_aMap = new ConcurrentHashMap <> ();
+  // Bucket index to the items of that bucket
+  private final ConcurrentNavigableMap <Long, Bucket> m_aBuckets = new ConcurrentSkipListMap <> ();
+
+  public AS4DuplicateManagerInMemoryBucketed ()
+  {
+    this (DEFAULT_BUCKET_DURATION);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aBucketDuration
+   *        The time span covered by a single bucket. Must be at least one millisecond. Smaller
+   *        buckets make eviction more precise, larger buckets reduce the number of buckets.
+   */
+  public AS4DuplicateManagerInMemoryBucketed (@NonNull final Duration aBucketDuration)
+  {
+    ValueEnforcer.notNull (aBucketDuration, "BucketDuration");
+    m_nBucketMillis = aBucketDuration.toMillis ();
+    ValueEnforcer.isGT0 (m_nBucketMillis, "BucketDuration.Millis");
+  }
+
+  /**
+   * @return The duration of a single bucket. Never <code>null</code>.
+   */
+  @NonNull
+  public final Duration getBucketDuration ()
+  {
+    return Duration.ofMillis (m_nBucketMillis);
+  }
+
+  private long _getBucketIndex (@NonNull final OffsetDateTime aDT)
+  {
+    return Math.floorDiv (aDT.toInstant ().toEpochMilli (), m_nBucketMillis);
+  }
+
+  @NonNull
+  public EContinue registerAndCheck (@Nullable final String sMessageID,
+                                     @Nullable final String sProfileID,
+                                     @Nullable final String sPModeID)
+  {
+    if (StringHelper.isEmpty (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
+    if (m_aMap.putIfAbsent (aItem.getID (), aItem) != null)
+    {
+      // ID already in use
+      return EContinue.BREAK;
+    }
+
+    final Long aBucketIndex = Long.valueOf (_getBucketIndex (aItem.getDateTime ()));
+    while (!m_aBuckets.computeIfAbsent (aBucketIndex, k -> new Bucket ()).add (aItem))
+    {
+      // The bucket was evicted in the meantime - use a new one
+    }
+    return EContinue.CONTINUE;
+  }
+
+  @NonNull
+  public EChange unregister (@Nullable final String sMessageID)
+  {
+    if (StringHelper.isEmpty (sMessageID))
+      return EChange.UNCHANGED;
+
+    // The item stays in its bucket, but eviction only removes the identical item from the map
+    return EChange.valueOf (m_aMap.remove (sMessageID) != null);
+  }
+
+  @NonNull
+  public EChange clearCache ()
+  {
+    if (m_aMap.isEmpty ())
+      return EChange.UNCHANGED;
+    m_aBuckets.clear ();
+    m_aMap.clear ();
+    return EChange.CHANGED;
+  }
+
+  @NonNull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@NonNull final OffsetDateTime aRefDT)
+  {
+    ValueEnforcer.notNull (aRefDT, "RefDT");
+
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+
+    // All buckets strictly before the bucket of the reference date time
+    final Long aRefBucket = Long.valueOf (_getBucketIndex (aRefDT));
+    Map.Entry <Long, Bucket> aEntry;
+    while ((aEntry = m_aBuckets.firstEntry ()) != null && aEntry.getKey ().compareTo (aRefBucket) < 0)
+    {
+      // Detach the whole bucket at once
+      if (m_aBuckets.remove (aEntry.getKey (), aEntry.getValue ()))
+        for (final AS4DuplicateItem aItem : aEntry.getValue ().detach ())
+        {
+          // Only remove if it was not re-registered in the meantime
+          if (m_aMap.remove (aItem.getID (), aItem))
+            ret.add (aItem.getMessageID ());
+        }
+    }
+    return ret;
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aMap.isEmpty ();
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aMap.size ();
+  }
+
+  /**
+   * @return The number of currently used time buckets. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getBucketCount ()
+  {
+    return m_aBuckets.size ();
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    if (StringHelper.isEmpty (sMessageID))
+      return null;
+
+    return m_aMap.get (sMessageID);
+  }
+
+  @NonNull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    return new CommonsArrayList <> (m_aMap.values ());
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("BucketMillis", m_nBucketMillis)
+                                       .append ("Size", m_aMap.size ())
+                                       .append ("BucketCount", m_aBuckets.size ())
+                                       .getToString ();
+  }
+}
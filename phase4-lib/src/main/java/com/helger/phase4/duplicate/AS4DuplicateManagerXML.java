@@ -69,6 +69,21 @@ public class AS4DuplicateManagerXML extends AbstractPhotonMapBasedWALDAO <IAS4Du
     return EContinue.CONTINUE;
   }
 
+  @NonNull
+  public EChange unregister (@Nullable final String sMessageID)
+  {
+    if (StringHelper.isEmpty (sMessageID))
+      return EChange.UNCHANGED;
+
+    // The item ID is the message ID
+    return m_aRWLock.writeLockedGet ( () -> {
+      if (getOfID (sMessageID) == null)
+        return EChange.UNCHANGED;
+      internalDeleteItem (sMessageID);
+      return EChange.CHANGED;
+    });
+  }
+
   @NonNull
   public EChange clearCache ()
   {
@@ -80,6 +80,23 @@ public interface IAS4DuplicateManager
   @NonNull
   EContinue registerAndCheck (@Nullable String sMessageID, @Nullable String sProfileID, @Nullable String sPModeID);
 
+  /**
+   * Remove the entry with the provided message ID, so that a message with this ID is no longer
+   * considered a duplicate. This is needed if a message could not be accepted after the duplicate
+   * check (e.g. because it could not be stored), so that the retry of the sender is processed.<br>
+   * The default implementation does nothing.
+   *
+   * @param sMessageID
+   *        Message ID to remove. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the entry was removed, {@link EChange#UNCHANGED} otherwise.
+   * @since 4.5.5
+   */
+  @NonNull
+  default EChange unregister (@Nullable final String sMessageID)
+  {
+    return EChange.UNCHANGED;
+  }
+
   /**
    * Remove all entries in the cache.
    *
@@ -16,7 +16,6 @@
  */
 package com.helger.phase4.incoming;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -52,18 +51,17 @@ import com.helger.base.wrapper.Wrapper;
 import com.helger.collection.CollectionFind;
 import com.helger.collection.commons.CommonsArrayList;
 import com.helger.collection.commons.ICommonsList;
-import com.helger.collection.commons.ICommonsOrderedMap;
 import com.helger.diagnostics.error.IError;
 import com.helger.diagnostics.error.list.ErrorList;
 import com.helger.http.CHttp;
 import com.helger.http.CHttpHeader;
 import com.helger.http.header.HttpHeaderMap;
-import com.helger.io.file.FileHelper;
 import com.helger.mime.IMimeType;
 import com.helger.mime.parse.MimeTypeParser;
 import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.attachment.IAS4IncomingStreamingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.AS4DumpManager;
@@ -94,6 +92,7 @@ import com.helger.phase4.model.pmode.resolve.IAS4PModeResolver;
 import com.helger.phase4.profile.IAS4Profile;
 import com.helger.phase4.profile.IAS4ProfileValidator;
 import com.helger.phase4.profile.IAS4ProfileValidator.EAS4ProfileValidationMode;
+import com.helger.phase4.spool.IAS4SpoolEntry;
 import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.util.AS4XMLHelper;
 import com.helger.phase4.util.Phase4Exception;
@@ -108,6 +107,7 @@ import com.helger.xml.serialize.read.DOMReader;
 import com.helger.xml.serialize.read.DOMReaderSettings;
 
 import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetHeaders;
 import jakarta.mail.internet.MimeBodyPart;
 
 /**
@@ -263,11 +263,11 @@ public final class AS4IncomingHandler
 
             try (final MultipartItemInputStream aBodyPartIS = aMulti.createInputStream ())
             {
-              // Read headers AND content
-              final MimeBodyPart aBodyPart = new MimeBodyPart (aBodyPartIS);
-
               if (nIndex == 0)
               {
+                // Read headers AND content
+                final MimeBodyPart aBodyPart = new MimeBodyPart (aBodyPartIS);
+
                 // First MIME part -> SOAP document
                 if (LOGGER.isDebugEnabled ())
                   LOGGER.debug ("Parsing first MIME part as SOAP document");
@@ -311,7 +311,19 @@ public final class AS4IncomingHandler
                 if (LOGGER.isDebugEnabled ())
                   LOGGER.debug ("Parsing MIME part #" + nIndex + " as attachment");
 
-                final WSS4JAttachment aAttachment = aIAF.createAttachment (aBodyPart, aResHelper);
+                final WSS4JAttachment aAttachment;
+                if (aIAF instanceof final IAS4IncomingStreamingAttachmentFactory aStreamingIAF)
+                {
+                  // Read only the headers and stream the content once
+                  final InternetHeaders aPartHeaders = new InternetHeaders (aBodyPartIS);
+                  aAttachment = aStreamingIAF.createAttachment (aPartHeaders, aBodyPartIS, aResHelper);
+                }
+                else
+                {
+                  // Read headers AND content
+                  final MimeBodyPart aBodyPart = new MimeBodyPart (aBodyPartIS);
+                  aAttachment = aIAF.createAttachment (aBodyPart, aResHelper);
+                }
                 aIncomingAttachments.add (aAttachment);
               }
             }
@@ -497,7 +509,7 @@ public final class AS4IncomingHandler
       }
     }
 
-    final ICommonsOrderedMap <QName, ISoapHeaderElementProcessor> aAllRegisteredProcessors = aRegistry.getAllElementProcessors ();
+    final Map <QName, ISoapHeaderElementProcessor> aAllRegisteredProcessors = aRegistry.getAllElementProcessorsView ();
     if (aAllRegisteredProcessors.isEmpty ())
       LOGGER.error ("No SOAP Header element processor is registered");
 
@@ -596,25 +608,25 @@ public final class AS4IncomingHandler
   private static IHasInputStream _createReadMultipleISP (@NonNull final AS4ResourceHelper aResHelper,
                                                          @NonNull final IHasInputStream aSrcISP)
   {
-    final Wrapper <File> aTempFileWrapper = new Wrapper <> ();
+    final Wrapper <IAS4SpoolEntry> aSpoolEntryWrapper = new Wrapper <> ();
     return new HasInputStream (() -> {
       try
       {
-        File aTempFile = aTempFileWrapper.get ();
-        if (aTempFile == null)
+        IAS4SpoolEntry aSpoolEntry = aSpoolEntryWrapper.get ();
+        if (aSpoolEntry == null)
         {
           final InputStream aSrcIS = aSrcISP.getInputStream ();
           if (aSrcIS == null)
             throw new IllegalStateException ("Failed to create InputStream from " + aSrcISP);
 
-          aTempFile = aResHelper.createTempFile ();
-          try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aTempFile))
+          aSpoolEntry = aResHelper.createSpoolEntry ();
+          try (final OutputStream aOS = aSpoolEntry.getOutputStream ())
           {
             StreamHelper.copyInputStreamToOutputStream (aSrcIS, aOS);
           }
-          aTempFileWrapper.set (aTempFile);
+          aSpoolEntryWrapper.set (aSpoolEntry);
         }
-        return FileHelper.getBufferedInputStream (aTempFile);
+        return aSpoolEntry.getInputStream ();
       }
       catch (final IOException ex)
       {
@@ -994,7 +1006,8 @@ public final class AS4IncomingHandler
       final AS4ErrorList aErrorMessages = new AS4ErrorList ();
 
       // Use the sending PMode as fallback, because from the incoming
-      // receipt/error it is impossible to detect a PMode
+      // receipt/error it is impossible to detect a PMode. The sending PMode
+      // is usually specific to this message, so the registry is not cached.
       final SoapHeaderElementProcessorRegistry aRegistry = SoapHeaderElementProcessorRegistry.createDefault (aPModeResolver,
                                                                                                              aCryptoFactorySign,
                                                                                                              aCryptoFactoryCrypt,
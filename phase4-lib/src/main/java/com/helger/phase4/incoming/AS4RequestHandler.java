@@ -23,11 +23,15 @@ import java.nio.charset.Charset;
 import java.security.cert.X509Certificate;
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import javax.crypto.SecretKey;
+
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.ext.WSSecurityException.ErrorCode;
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
@@ -59,6 +63,7 @@ import com.helger.mime.IMimeType;
 import com.helger.mime.parse.MimeTypeParser;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.AS4DecompressException;
+import com.helger.phase4.attachment.AS4OutgoingAttachmentPipeline;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.IAS4RetryCallback;
@@ -79,8 +84,12 @@ import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.AS4Error;
 import com.helger.phase4.error.AS4ErrorList;
 import com.helger.phase4.incoming.AS4IncomingHandler.IAS4ParsedMessageCallback;
+import com.helger.phase4.incoming.async.AS4AsyncProcessingEngine;
 import com.helger.phase4.incoming.crypto.IAS4IncomingSecurityConfiguration;
+import com.helger.phase4.incoming.inbox.AS4Inbox;
 import com.helger.phase4.incoming.mgr.AS4IncomingMessageProcessorManager;
+import com.helger.phase4.incoming.pull.AS4MPCMessageStore;
+import com.helger.phase4.incoming.pull.IAS4PullRequestAuthorizer;
 import com.helger.phase4.incoming.soap.SoapHeaderElementProcessorRegistry;
 import com.helger.phase4.incoming.spi.AS4MessageProcessorResult;
 import com.helger.phase4.incoming.spi.AS4SignalMessageProcessorResult;
@@ -117,7 +126,6 @@ import com.helger.phase4.util.AS4XMLHelper;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.phase4.util.Phase4IncomingException;
 import com.helger.phase4.util.Phase4RuntimeException;
-import com.helger.photon.io.PhotonWorkerPool;
 import com.helger.xml.serialize.write.XMLWriter;
 
 import jakarta.mail.MessagingException;
@@ -179,9 +187,8 @@ public class AS4RequestHandler implements AutoCloseable
     public void applyToResponse (@NonNull final IAS4ResponseAbstraction aHttpResponse,
                                  @Nullable final IAS4OutgoingDumper aOutgoingDumper)
     {
-      final String sXML = AS4XMLHelper.serializeXML (m_aDoc);
       final Charset aCharset = AS4XMLHelper.XWS.getCharset ();
-      final byte [] aXMLBytes = sXML.getBytes (aCharset);
+      final byte [] aXMLBytes = AS4XMLHelper.serializeXMLToBytes (m_aDoc);
       aHttpResponse.setContent (aXMLBytes, aCharset);
       aHttpResponse.setMimeType (m_aMimeType);
       aHttpResponse.setStatus (m_nResponseStatusCode);
@@ -386,6 +393,10 @@ public class AS4RequestHandler implements AutoCloseable
   /** By default get all message processors from the global SPI registry */
   private Supplier <? extends ICommonsList <IAS4IncomingMessageProcessorSPI>> m_aProcessorSupplier = AS4IncomingMessageProcessorManager::getAllProcessors;
   private IAS4RequestHandlerErrorConsumer m_aErrorConsumer;
+  private AS4Inbox m_aInbox;
+  private AS4MPCMessageStore m_aMPCMessageStore;
+  private IAS4PullRequestAuthorizer m_aPullRequestAuthorizer = IAS4PullRequestAuthorizer.DEFAULT_INSTANCE;
+  private AS4AsyncProcessingEngine m_aAsyncProcessingEngine = AS4AsyncProcessingEngine.getDefaultInstance ();
 
   public AS4RequestHandler (@NonNull final IAS4IncomingMessageMetadata aMessageMetadata)
   {
@@ -784,6 +795,120 @@ public class AS4RequestHandler implements AutoCloseable
     return this;
   }
 
+  /**
+   * @return The engine used for asynchronous processing and sending of asynchronous responses. By
+   *         default this is {@link AS4AsyncProcessingEngine#getDefaultInstance()}.
+   * @since 4.5.5
+   */
+  @NonNull
+  public final AS4AsyncProcessingEngine getAsyncProcessingEngine ()
+  {
+    return m_aAsyncProcessingEngine;
+  }
+
+  /**
+   * Set the engine used for asynchronous processing and sending of asynchronous responses. This is
+   * usually done in
+   * {@link com.helger.phase4.servlet.IAS4ServletRequestHandlerCustomizer#customizeBeforeHandling(com.helger.web.scope.IRequestWebScopeWithoutResponse, com.helger.phase4.servlet.AS4UnifiedResponse, AS4RequestHandler)}.
+   *
+   * @param aAsyncProcessingEngine
+   *        The engine to be used. May not be <code>null</code>.
+   * @return this for chaining
+   * @since 4.5.5
+   */
+  @NonNull
+  public final AS4RequestHandler setAsyncProcessingEngine (@NonNull final AS4AsyncProcessingEngine aAsyncProcessingEngine)
+  {
+    ValueEnforcer.notNull (aAsyncProcessingEngine, "AsyncProcessingEngine");
+    m_aAsyncProcessingEngine = aAsyncProcessingEngine;
+    return this;
+  }
+
+  /**
+   * @return The durable inbox to be used for one-way user messages. <code>null</code> by default.
+   * @since 4.5.5
+   */
+  @Nullable
+  public final AS4Inbox getInbox ()
+  {
+    return m_aInbox;
+  }
+
+  /**
+   * Set the durable inbox to be used. If an inbox is set, incoming one-way user messages are only
+   * persisted in the inbox before the receipt is returned, and the SPIs are invoked afterwards by the
+   * inbox (at least once). If no inbox is set, the SPIs are invoked synchronously.
+   *
+   * @param aInbox
+   *        The inbox to be used. May be <code>null</code>.
+   * @return this for chaining
+   * @since 4.5.5
+   */
+  @NonNull
+  public final AS4RequestHandler setInbox (@Nullable final AS4Inbox aInbox)
+  {
+    m_aInbox = aInbox;
+    return this;
+  }
+
+  /**
+   * @return The MPC message store to serve PullRequests from. <code>null</code> by default.
+   * @since 4.5.5
+   */
+  @Nullable
+  public final AS4MPCMessageStore getMPCMessageStore ()
+  {
+    return m_aMPCMessageStore;
+  }
+
+  /**
+   * Set the MPC message store to be used. If a store is set, incoming PullRequests are answered with
+   * the next message of the requested MPC from the store and incoming Receipts acknowledge the
+   * pulled messages in the store. The SPIs are not invoked for PullRequests in that case. If no store
+   * is set, PullRequests are handled by the SPIs.
+   *
+   * @param aMPCMessageStore
+   *        The store to be used. May be <code>null</code>.
+   * @return this for chaining
+   * @since 4.5.5
+   */
+  @NonNull
+  public final AS4RequestHandler setMPCMessageStore (@Nullable final AS4MPCMessageStore aMPCMessageStore)
+  {
+    m_aMPCMessageStore = aMPCMessageStore;
+    return this;
+  }
+
+  /**
+   * @return The authorizer that decides which party may pull from which MPC of the MPC message
+   *         store. Never <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  public final IAS4PullRequestAuthorizer getPullRequestAuthorizer ()
+  {
+    return m_aPullRequestAuthorizer;
+  }
+
+  /**
+   * Set the authorizer that decides which party may pull from which MPC of the MPC message store.
+   * Pulled messages can only be acknowledged by the party that pulled them. Only used if an MPC
+   * message store is set.
+   *
+   * @param aPullRequestAuthorizer
+   *        The authorizer to be used. May not be <code>null</code>.
+   * @return this for chaining
+   * @since 4.5.5
+   * @see #setMPCMessageStore(AS4MPCMessageStore)
+   */
+  @NonNull
+  public final AS4RequestHandler setPullRequestAuthorizer (@NonNull final IAS4PullRequestAuthorizer aPullRequestAuthorizer)
+  {
+    ValueEnforcer.notNull (aPullRequestAuthorizer, "PullRequestAuthorizer");
+    m_aPullRequestAuthorizer = aPullRequestAuthorizer;
+    return this;
+  }
+
   /**
    * @return An optional error consumer. <code>null</code> by default.
    * @since 0.9.7
@@ -812,6 +937,88 @@ public class AS4RequestHandler implements AutoCloseable
     return this;
   }
 
+  /**
+   * Answer an incoming PullRequest with the next message of the requested MPC from the MPC message
+   * store.
+   */
+  private void _servePullRequestFromStore (@NonNull final Ebms3SignalMessage aEbmsSignalMessage,
+                                           @NonNull final IAS4IncomingMessageState aIncomingState,
+                                           @NonNull final AS4ErrorList aEbmsErrorMessagesTarget,
+                                           @NonNull final SPIInvocationResult aSPIResult)
+  {
+    final String sMessageID = aIncomingState.getMessageID ();
+    final String sMPCID = aEbmsSignalMessage.getPullRequest ().getMpc ();
+    final String sEffectiveMPCID = StringHelper.isEmpty (sMPCID) ? CAS4.DEFAULT_MPC_ID : sMPCID;
+    final String sPartyID = m_aPullRequestAuthorizer.getPartyID (aIncomingState);
+    if (!m_aPullRequestAuthorizer.isPullAllowed (sEffectiveMPCID, sPartyID, aIncomingState))
+    {
+      final String sDetails = "The PullRequest is not authorized to pull from the MPC '" + sEffectiveMPCID + "'";
+      LOGGER.warn (sDetails + " - party ID '" + sPartyID + "'");
+      aEbmsErrorMessagesTarget.add (EEbmsError.EBMS_FAILED_AUTHENTICATION.errorBuilder (m_aLocale)
+                                                                         .refToMessageInError (sMessageID)
+                                                                         .errorDetail (sDetails)
+                                                                         .build ());
+      return;
+    }
+
+    try
+    {
+      final Ebms3UserMessage aPullReturnUserMsg = m_aMPCMessageStore.dequeue (sEffectiveMPCID, sPartyID);
+      if (aPullReturnUserMsg == null)
+      {
+        // No message contained in the MPC
+        final String sDetails = "No UserMessage contained in the MPC '" + sMPCID + "'";
+        LOGGER.info (sDetails);
+        aEbmsErrorMessagesTarget.add (EEbmsError.EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL.errorBuilder (m_aLocale)
+                                                                                     .refToMessageInError (sMessageID)
+                                                                                     .errorDetail (sDetails)
+                                                                                     .build ());
+      }
+      else
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Returning message ID '" +
+                        aPullReturnUserMsg.getMessageInfo ().getMessageId () +
+                        "' from MPC '" +
+                        sMPCID +
+                        "'");
+        aSPIResult.setPullReturnUserMsg (aPullReturnUserMsg);
+        aSPIResult.setSuccess (true);
+      }
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to read the next message of MPC '" + sMPCID + "' from the MPC message store", ex);
+      aEbmsErrorMessagesTarget.add (EEbmsError.EBMS_OTHER.errorBuilder (m_aLocale)
+                                                         .refToMessageInError (sMessageID)
+                                                         .errorDetail ("The MPC message store could not be read")
+                                                         .build ());
+    }
+  }
+
+  /**
+   * Acknowledge the message referenced by an incoming Receipt in the MPC message store. Receipts
+   * for messages that are not contained in the store or that were not pulled by the sender of the
+   * Receipt are ignored.
+   */
+  private void _acknowledgeInStore (@NonNull final Ebms3SignalMessage aEbmsSignalMessage,
+                                    @NonNull final IAS4IncomingMessageState aIncomingState)
+  {
+    final String sRefToMessageID = aEbmsSignalMessage.getMessageInfo ().getRefToMessageId ();
+    final String sPartyID = m_aPullRequestAuthorizer.getPartyID (aIncomingState);
+    try
+    {
+      if (m_aMPCMessageStore.acknowledge (sRefToMessageID, sPartyID).isChanged ())
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Acknowledged pulled message ID '" + sRefToMessageID + "' in the MPC message store");
+    }
+    catch (final IOException ex)
+    {
+      // The message will be redelivered
+      LOGGER.error ("Failed to acknowledge message ID '" + sRefToMessageID + "' in the MPC message store", ex);
+    }
+  }
+
   /**
    * Invoke custom SPI message processors
    *
@@ -1579,6 +1786,55 @@ public class AS4RequestHandler implements AutoCloseable
     return aMimeMsg;
   }
 
+  /**
+   * Compress, digest and encrypt each response attachment in a single pass, so that neither the
+   * signing nor the encryption needs to read the attachments again.
+   *
+   * @param aResponseAttachments
+   *        The response attachments. May not be <code>null</code>.
+   * @param aSigningParams
+   *        Signing parameters
+   * @param aCryptParams
+   *        Encryption parameters
+   * @return The encryption parameters to be used. Never <code>null</code>.
+   * @throws WSSecurityException
+   *         on error
+   */
+  @NonNull
+  private AS4CryptParams _processResponseAttachments (@NonNull final ICommonsList <WSS4JAttachment> aResponseAttachments,
+                                                      @NonNull final AS4SigningParams aSigningParams,
+                                                      @NonNull final AS4CryptParams aCryptParams) throws WSSecurityException
+  {
+    final boolean bSign = aSigningParams.isSigningEnabled ();
+    final boolean bEncrypt = aCryptParams.isCryptEnabled (null);
+    if (aResponseAttachments.isEmpty () || (!bSign && !bEncrypt))
+      return aCryptParams;
+
+    final AS4CryptParams ret = aCryptParams.getClone ();
+    SecretKey aSessionKey = null;
+    if (bEncrypt)
+    {
+      // Use the same session key for the attachments and for WSS4J
+      final SecretKey aFixedSessionKey = ret.getSessionKeyProvider ().getSessionKey ();
+      ret.setSessionKeyProvider ( () -> aFixedSessionKey);
+      aSessionKey = aFixedSessionKey;
+    }
+
+    try
+    {
+      AS4OutgoingAttachmentPipeline.process (aResponseAttachments,
+                                             bSign ? aSigningParams.getAlgorithmSignDigest ().getAlgorithmURI () : null,
+                                             aSessionKey,
+                                             ret.getAlgorithmCrypt ().getAlgorithmURI (),
+                                             m_aResHelper);
+    }
+    catch (final IOException ex)
+    {
+      throw new WSSecurityException (ErrorCode.FAILURE, ex, "Failed to process the response attachments");
+    }
+    return ret;
+  }
+
   /**
    * With this method it is possible to send a usermessage back, the method will check if signing is
    * needed and if the message needs to be a mime message.
@@ -1612,6 +1868,9 @@ public class AS4RequestHandler implements AutoCloseable
                                                                                                       MessagingException
   {
     final String sResponseMessageID = aResponseUserMsg.getEbms3UserMessage ().getMessageInfo ().getMessageId ();
+    final AS4CryptParams aEffectiveCryptParams = _processResponseAttachments (aResponseAttachments,
+                                                                              aSigningParams,
+                                                                              aCryptParams);
     final Document aSignedDoc = _signResponseIfNeeded (aResponseAttachments,
                                                        aSigningParams,
                                                        aResponseUserMsg.getAsSoapDocument (),
@@ -1636,7 +1895,7 @@ public class AS4RequestHandler implements AutoCloseable
       final AS4MimeMessage aMimeMsg = _createMimeMessageForResponse (aSignedDoc,
                                                                      aResponseAttachments,
                                                                      eSoapVersion,
-                                                                     aCryptParams);
+                                                                     aEffectiveCryptParams);
       ret = new AS4ResponseFactoryMIME (m_aIncomingMessageMetadata,
                                         aIncomingState,
                                         sResponseMessageID,
@@ -1680,12 +1939,12 @@ public class AS4RequestHandler implements AutoCloseable
     final AS4ErrorList aEbmsErrorMessages = new AS4ErrorList ();
 
     // Create the SOAP header element processor list
-    final SoapHeaderElementProcessorRegistry aRegistry = SoapHeaderElementProcessorRegistry.createDefault (m_aPModeResolver,
-                                                                                                           m_aCryptoFactorySign,
-                                                                                                           m_aCryptoFactoryCrypt,
-                                                                                                           (IPMode) null,
-                                                                                                           m_aIncomingSecurityConfig,
-                                                                                                           m_aIncomingReceiverConfig);
+    final SoapHeaderElementProcessorRegistry aRegistry = SoapHeaderElementProcessorRegistry.getOrCreateDefault (m_aPModeResolver,
+                                                                                                                m_aCryptoFactorySign,
+                                                                                                                m_aCryptoFactoryCrypt,
+                                                                                                                (IPMode) null,
+                                                                                                                m_aIncomingSecurityConfig,
+                                                                                                                m_aIncomingReceiverConfig);
 
     // Decompose the SOAP message
     final IAS4IncomingMessageState aIncomingState = AS4IncomingHandler.processEbmsMessage (m_aResHelper,
@@ -1788,21 +2047,63 @@ public class AS4RequestHandler implements AutoCloseable
         aIncomingState.getEffectivePModeLegNumber () <= 0 ||
         (aPMode.getMEPBinding () == EMEPBinding.PUSH_PUSH && aIncomingState.getEffectivePModeLegNumber () == 2))
       {
-        // Invoke SPIs synchronously
-
-        // Might add to aErrorMessages
-        // Might add to aResponseAttachments
-        // Might add to m_aPullReturnUserMsg
-        _invokeSPIsForIncoming (aHttpHeaders,
-                                aEbmsUserMessage,
-                                aEbmsSignalMessage,
-                                aPayloadNode,
-                                aDecryptedAttachments,
-                                aPMode,
-                                aIncomingState,
-                                aEbmsErrorMessages,
-                                aResponseAttachments,
-                                aSPIResult);
+        if (m_aInbox != null && aEbmsUserMessage != null && aPMode != null && aPMode.getMEP ().isOneWay ())
+        {
+          // Only persist durably - the SPIs are invoked by the inbox
+          try
+          {
+            final String sEntryID = m_aInbox.accept (m_aIncomingMessageMetadata,
+                                                     aHttpHeaders,
+                                                     aEbmsUserMessage,
+                                                     aPMode,
+                                                     aPayloadNode,
+                                                     aDecryptedAttachments,
+                                                     aIncomingState);
+            if (LOGGER.isDebugEnabled ())
+              LOGGER.debug ("Accepted message ID '" + aIncomingState.getMessageID () + "' as inbox entry '" + sEntryID + "'");
+            aSPIResult.setSuccess (true);
+          }
+          catch (final IOException ex)
+          {
+            LOGGER.error ("Failed to store message ID '" + aIncomingState.getMessageID () + "' in the inbox", ex);
+            // The message was not accepted - the retry of the sender must not be a duplicate
+            MetaAS4Manager.getIncomingDuplicateMgr ().unregister (aIncomingState.getMessageID ());
+            aEbmsErrorMessages.add (EEbmsError.EBMS_OTHER.errorBuilder (m_aLocale)
+                                                         .refToMessageInError (aIncomingState.getMessageID ())
+                                                         .errorDetail ("The message could not be stored durably")
+                                                         .build ());
+          }
+        }
+        else
+          if (m_aMPCMessageStore != null && aEbmsSignalMessage != null && aEbmsSignalMessage.getPullRequest () != null)
+          {
+            // Serve the PullRequest from the store
+            _servePullRequestFromStore (aEbmsSignalMessage, aIncomingState, aEbmsErrorMessages, aSPIResult);
+          }
+          else
+          {
+            if (m_aMPCMessageStore != null && aEbmsSignalMessage != null && aEbmsSignalMessage.getReceipt () != null)
+            {
+              // Remove the pulled message from the store
+              _acknowledgeInStore (aEbmsSignalMessage, aIncomingState);
+            }
+
+            // Invoke SPIs synchronously
+
+            // Might add to aErrorMessages
+            // Might add to aResponseAttachments
+            // Might add to m_aPullReturnUserMsg
+            _invokeSPIsForIncoming (aHttpHeaders,
+                                    aEbmsUserMessage,
+                                    aEbmsSignalMessage,
+                                    aPayloadNode,
+                                    aDecryptedAttachments,
+                                    aPMode,
+                                    aIncomingState,
+                                    aEbmsErrorMessages,
+                                    aResponseAttachments,
+                                    aSPIResult);
+          }
         if (aSPIResult.isFailure ())
           LOGGER.warn ("Error invoking synchronous SPIs");
         else
@@ -1932,10 +2233,9 @@ public class AS4RequestHandler implements AutoCloseable
           // invoke client with new document
           final Document aAsyncResponse;
           {
-            final BasicHttpPoster aSender = new BasicHttpPoster ();
+            final BasicHttpPoster aSender = m_aAsyncProcessingEngine.createHttpPoster ();
             final HttpHeaderMap aResponseHttpHeaders = null;
-            // TODO make async send parameters customizable
-            final HttpRetrySettings aRetrySettings = new HttpRetrySettings ();
+            final HttpRetrySettings aRetrySettings = m_aAsyncProcessingEngine.getRetrySettings ();
             final Consumer <? super ICommonsList <X509Certificate>> aRemoteTlsCertConsumer = null;
             aAsyncResponse = aSender.sendGenericMessageWithRetries (sAsyncResponseURL,
                                                                     aResponseHttpHeaders,
@@ -1953,14 +2253,32 @@ public class AS4RequestHandler implements AutoCloseable
                                                                                           AS4HttpDebug.getDebugXMLWriterSettings ())));
         };
 
-        final CompletableFuture <Void> aFuture = PhotonWorkerPool.getInstance ()
-                                                                 .runThrowing (CAS4.LIB_NAME + " async processing", r);
+        try
+        {
+          final CompletableFuture <Void> aFuture = m_aAsyncProcessingEngine.submit (CAS4.LIB_NAME +
+                                                                                    " async processing",
+                                                                                    r);
 
-        if (m_aSoapProcessingFinalizedCB != null)
+          if (m_aSoapProcessingFinalizedCB != null)
+          {
+            // Give the outside world the possibility to get notified when the
+            // processing is done
+            aFuture.thenRun ( () -> m_aSoapProcessingFinalizedCB.onProcessingFinalized (false));
+          }
+        }
+        catch (final RejectedExecutionException ex)
         {
-          // Give the outside world the possibility to get notified when the
-          // processing is done
-          aFuture.thenRun ( () -> m_aSoapProcessingFinalizedCB.onProcessingFinalized (false));
+          // Overloaded - the sender should retry later, and the retry must not be a duplicate
+          MetaAS4Manager.getIncomingDuplicateMgr ().unregister (sMessageID);
+          aEbmsErrorMessages.add (AS4Error.builder ()
+                                          .ebmsError (EEbmsError.EBMS_OTHER.errorBuilder (m_aLocale)
+                                                                           .refToMessageInError (sMessageID)
+                                                                           .errorDetail ("The message cannot be processed asynchronously at the moment. Please retry later."))
+                                          .httpStatusCode (CHttp.HTTP_SERVICE_UNAVAILABLE)
+                                          .build ());
+
+          if (m_aSoapProcessingFinalizedCB != null)
+            m_aSoapProcessingFinalizedCB.onProcessingFinalized (true);
         }
       }
     }
@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.async;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.jspecify.annotations.NonNull;
+import org.slf4j.Logger;
+
+import com.helger.annotation.Nonempty;
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.iface.IThrowingRunnable;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.messaging.http.BasicHttpPoster;
+import com.helger.phase4.messaging.http.HttpRetrySettings;
+import com.helger.phase4.util.AS4Executors;
+
+/**
+ * The engine used by the request handler for asynchronous processing (e.g. the leg 1 processing of
+ * the PUSH_PUSH MEP binding including sending the asynchronous response). It uses a fixed number of
+ * threads and a bounded queue, so that bursts of incoming messages cannot exhaust the resources of
+ * the server. If the queue is full, the configured {@link EAS4AsyncRejectionPolicy} applies. By
+ * default the message is then rejected with HTTP status code 503, so that the sender retries later
+ * and the servlet threads stay available. {@link EAS4AsyncRejectionPolicy#CALLER_RUNS} can be used
+ * to process the message in the calling thread instead - this throttles the senders, but blocks a
+ * servlet thread for the complete processing. To use it, provide a custom instance via
+ * {@link com.helger.phase4.incoming.AS4RequestHandler#setAsyncProcessingEngine(AS4AsyncProcessingEngine)}.<br>
+ * Additionally the HTTP poster and the retry settings used for sending asynchronous responses are
+ * configured here.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4AsyncProcessingEngine implements AutoCloseable
+{
+  /** The default number of worker threads if platform threads are used */
+  public static final int DEFAULT_PLATFORM_THREAD_COUNT = Math.max (2, Runtime.getRuntime ().availableProcessors ());
+  /**
+   * The default number of worker threads if virtual threads are used. The tasks are mostly waiting
+   * for the network, so the number of CPUs is no sensible limit here.
+   */
+  public static final int DEFAULT_VIRTUAL_THREAD_COUNT = 1_000;
+  public static final int DEFAULT_QUEUE_CAPACITY = 1_000;
+  /**
+   * By default messages are rejected if the queue is full, so that the sender retries later
+   */
+  public static final EAS4AsyncRejectionPolicy DEFAULT_REJECTION_POLICY = EAS4AsyncRejectionPolicy.REJECT;
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4AsyncProcessingEngine.class);
+
+  private static final class SingletonHolder
+  {
+    static final AS4AsyncProcessingEngine INSTANCE = new AS4AsyncProcessingEngine ("phase4-async-",
+                                                                                   getDefaultThreadCount (),
+                                                                                   DEFAULT_QUEUE_CAPACITY,
+                                                                                   DEFAULT_REJECTION_POLICY);
+  }
+
+  private final String m_sName;
+  private final int m_nQueueCapacity;
+  private final EAS4AsyncRejectionPolicy m_eRejectionPolicy;
+  private final ThreadPoolExecutor m_aExecutor;
+  private volatile Supplier <? extends BasicHttpPoster> m_aHttpPosterFactory = BasicHttpPoster::new;
+  // A lock instead of "synchronized" to not pin virtual threads
+  private final Lock m_aRetrySettingsLock = new ReentrantLock ();
+  private final HttpRetrySettings m_aRetrySettings = new HttpRetrySettings ();
+
+  private final AtomicLong m_aSubmittedCount = new AtomicLong ();
+  private final AtomicLong m_aRejectedCount = new AtomicLong ();
+  private final AtomicLong m_aCallerRunsCount = new AtomicLong ();
+  private final AtomicLong m_aCompletedCount = new AtomicLong ();
+  private final AtomicLong m_aFailedCount = new AtomicLong ();
+
+  /**
+   * Constructor
+   *
+   * @param sName
+   *        The name of the engine, used as the thread name prefix. May neither be
+   *        <code>null</code> nor empty.
+   * @param nThreadCount
+   *        The number of worker threads. Must be &gt; 0.
+   * @param nQueueCapacity
+   *        The maximum number of waiting tasks. Must be &gt; 0.
+   * @param eRejectionPolicy
+   *        The policy to apply if the queue is full. May not be <code>null</code>.
+   */
+  public AS4AsyncProcessingEngine (@NonNull @Nonempty final String sName,
+                                   @Nonnegative final int nThreadCount,
+                                   @Nonnegative final int nQueueCapacity,
+                                   @NonNull final EAS4AsyncRejectionPolicy eRejectionPolicy)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.isGT0 (nThreadCount, "ThreadCount");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.notNull (eRejectionPolicy, "RejectionPolicy");
+    m_sName = sName;
+    m_nQueueCapacity = nQueueCapacity;
+    m_eRejectionPolicy = eRejectionPolicy;
+
+    // Virtual threads if available - the tasks are mostly waiting for the network
+    final ThreadFactory aTF = AS4Executors.createThreadFactory (sName);
+    m_aExecutor = new ThreadPoolExecutor (nThreadCount,
+                                          nThreadCount,
+                                          60,
+                                          TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue <> (nQueueCapacity),
+                                          aTF,
+                                          new ThreadPoolExecutor.AbortPolicy ());
+    m_aExecutor.allowCoreThreadTimeOut (true);
+  }
+
+  /**
+   * @return The default number of worker threads. This is {@link #DEFAULT_VIRTUAL_THREAD_COUNT} if
+   *         {@link AS4Executors#isVirtualThreadEnabled()} is <code>true</code>,
+   *         {@link #DEFAULT_PLATFORM_THREAD_COUNT} otherwise. Always &gt; 0.
+   */
+  @Nonnegative
+  public static int getDefaultThreadCount ()
+  {
+    return AS4Executors.isVirtualThreadEnabled () ? DEFAULT_VIRTUAL_THREAD_COUNT : DEFAULT_PLATFORM_THREAD_COUNT;
+  }
+
+  /**
+   * @return The global default instance using daemon threads, the default thread count, the
+   *         default queue capacity and the default rejection policy. Never <code>null</code>.
+   */
+  @NonNull
+  public static AS4AsyncProcessingEngine getDefaultInstance ()
+  {
+    return SingletonHolder.INSTANCE;
+  }
+
+  /**
+   * @return The name of the engine as provided in the constructor. Neither <code>null</code> nor
+   *         empty.
+   */
+  @NonNull
+  @Nonempty
+  public final String getName ()
+  {
+    return m_sName;
+  }
+
+  /**
+   * @return The number of worker threads. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getThreadCount ()
+  {
+    return m_aExecutor.getMaximumPoolSize ();
+  }
+
+  /**
+   * @return The maximum number of waiting tasks. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getQueueCapacity ()
+  {
+    return m_nQueueCapacity;
+  }
+
+  /**
+   * @return The policy applied if the queue is full. Never <code>null</code>.
+   */
+  @NonNull
+  public final EAS4AsyncRejectionPolicy getRejectionPolicy ()
+  {
+    return m_eRejectionPolicy;
+  }
+
+  /**
+   * @return A new HTTP poster to be used for sending an asynchronous response. Never
+   *         <code>null</code>.
+   */
+  @NonNull
+  public BasicHttpPoster createHttpPoster ()
+  {
+    final BasicHttpPoster ret = m_aHttpPosterFactory.get ();
+    if (ret == null)
+      throw new IllegalStateException ("The HTTP poster factory returned null");
+    return ret;
+  }
+
+  /**
+   * Set the factory for the HTTP posters used for sending asynchronous responses. This can e.g. be
+   * used to customize the HTTP client settings.
+   *
+   * @param aHttpPosterFactory
+   *        The factory to use. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @NonNull
+  public final AS4AsyncProcessingEngine setHttpPosterFactory (@NonNull final Supplier <? extends BasicHttpPoster> aHttpPosterFactory)
+  {
+    ValueEnforcer.notNull (aHttpPosterFactory, "HttpPosterFactory");
+    m_aHttpPosterFactory = aHttpPosterFactory;
+    return this;
+  }
+
+  /**
+   * @return A copy of the retry settings used for sending asynchronous responses. Never
+   *         <code>null</code>.
+   */
+  @NonNull
+  public HttpRetrySettings getRetrySettings ()
+  {
+    final HttpRetrySettings ret = new HttpRetrySettings ();
+    m_aRetrySettingsLock.lock ();
+    try
+    {
+      ret.assignFrom (m_aRetrySettings);
+    }
+    finally
+    {
+      m_aRetrySettingsLock.unlock ();
+    }
+    return ret;
+  }
+
+  /**
+   * Set the retry settings used for sending asynchronous responses.
+   *
+   * @param aRetrySettings
+   *        The retry settings to copy from. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @NonNull
+  public final AS4AsyncProcessingEngine setRetrySettings (@NonNull final HttpRetrySettings aRetrySettings)
+  {
+    ValueEnforcer.notNull (aRetrySettings, "RetrySettings");
+    m_aRetrySettingsLock.lock ();
+    try
+    {
+      m_aRetrySettings.assignFrom (aRetrySettings);
+    }
+    finally
+    {
+      m_aRetrySettingsLock.unlock ();
+    }
+    return this;
+  }
+
+  private void _run (@NonNull final String sDescription, @NonNull final IThrowingRunnable <Exception> aRunnable)
+  {
+    try
+    {
+      aRunnable.run ();
+      m_aCompletedCount.incrementAndGet ();
+    }
+    catch (final Exception ex)
+    {
+      m_aFailedCount.incrementAndGet ();
+      LOGGER.error ("Error in '" + sDescription + "'", ex);
+    }
+  }
+
+  /**
+   * Submit a new task for asynchronous processing. Exceptions thrown by the task are logged and
+   * counted.
+   *
+   * @param sDescription
+   *        The description of the task for logging. May not be <code>null</code>.
+   * @param aRunnable
+   *        The task to execute. May not be <code>null</code>.
+   * @return The future that completes after the task was executed. Never <code>null</code>.
+   * @throws RejectedExecutionException
+   *         If the queue is full and the rejection policy is {@link EAS4AsyncRejectionPolicy#REJECT}
+   *         or if the engine was closed.
+   */
+  @NonNull
+  public CompletableFuture <Void> submit (@NonNull final String sDescription,
+                                          @NonNull final IThrowingRunnable <Exception> aRunnable)
+  {
+    ValueEnforcer.notNull (sDescription, "Description");
+    ValueEnforcer.notNull (aRunnable, "Runnable");
+
+    try
+    {
+      final CompletableFuture <Void> ret = CompletableFuture.runAsync ( () -> _run (sDescription, aRunnable),
+                                                                      m_aExecutor);
+      m_aSubmittedCount.incrementAndGet ();
+      return ret;
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      if (m_eRejectionPolicy == EAS4AsyncRejectionPolicy.CALLER_RUNS && !m_aExecutor.isShutdown ())
+      {
+        m_aCallerRunsCount.incrementAndGet ();
+        _run (sDescription, aRunnable);
+        return CompletableFuture.completedFuture (null);
+      }
+      m_aRejectedCount.incrementAndGet ();
+      LOGGER.warn ("Rejecting '" + sDescription + "' because the queue of '" + m_sName + "' is full");
+      throw ex;
+    }
+  }
+
+  /**
+   * @return The number of tasks currently waiting in the queue. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getQueueSize ()
+  {
+    return m_aExecutor.getQueue ().size ();
+  }
+
+  /**
+   * @return The number of tasks currently executed. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getActiveCount ()
+  {
+    return m_aExecutor.getActiveCount ();
+  }
+
+  /**
+   * @return The number of tasks accepted for asynchronous execution. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getSubmittedCount ()
+  {
+    return m_aSubmittedCount.get ();
+  }
+
+  /**
+   * @return The number of tasks rejected because the queue was full. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getRejectedCount ()
+  {
+    return m_aRejectedCount.get ();
+  }
+
+  /**
+   * @return The number of tasks executed in the calling thread because the queue was full. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public long getCallerRunsCount ()
+  {
+    return m_aCallerRunsCount.get ();
+  }
+
+  /**
+   * @return The number of tasks finished without an exception. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getCompletedCount ()
+  {
+    return m_aCompletedCount.get ();
+  }
+
+  /**
+   * @return The number of tasks finished with an exception. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getFailedCount ()
+  {
+    return m_aFailedCount.get ();
+  }
+
+  /**
+   * Stop accepting new tasks. Already queued tasks are still executed.
+   */
+  public void close ()
+  {
+    m_aExecutor.shutdown ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Name", m_sName)
+                                       .append ("ThreadCount", getThreadCount ())
+                                       .append ("QueueCapacity", m_nQueueCapacity)
+                                       .append ("RejectionPolicy", m_eRejectionPolicy)
+                                       .append ("RetrySettings", m_aRetrySettings)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.async;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonempty;
+import com.helger.base.id.IHasID;
+import com.helger.base.lang.EnumHelper;
+
+/**
+ * Defines what happens if the queue of the {@link AS4AsyncProcessingEngine} is full.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+public enum EAS4AsyncRejectionPolicy implements IHasID <String>
+{
+  /**
+   * Reject the incoming message with an AS4 error and HTTP status code 503, so that the sender can
+   * retry later.
+   */
+  REJECT ("reject"),
+  /**
+   * Execute the asynchronous processing in the calling thread. This slows down the acceptance of
+   * new messages and effectively throttles the senders.
+   */
+  CALLER_RUNS ("callerruns");
+
+  private final String m_sID;
+
+  EAS4AsyncRejectionPolicy (@NonNull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @NonNull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EAS4AsyncRejectionPolicy getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EAS4AsyncRejectionPolicy.class, sID);
+  }
+}
@@ -0,0 +1,601 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.inbox;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.w3c.dom.Node;
+
+import com.helger.annotation.Nonempty;
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.incoming.IAS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.IAS4IncomingMessageState;
+import com.helger.phase4.incoming.mgr.AS4IncomingMessageProcessorManager;
+import com.helger.phase4.incoming.spi.AS4MessageProcessorResult;
+import com.helger.phase4.incoming.spi.IAS4IncomingMessageProcessorSPI;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.error.AS4ErrorList;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.util.AS4Executors;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * A durable "accept-then-process" inbox for inbound AS4 user messages. When an inbox is configured
+ * on the request handler, a one-way user message is only persisted via {@link AS4InboxStore} before
+ * the receipt is returned to the sender. The registered {@link IAS4IncomingMessageProcessorSPI}
+ * implementations are invoked afterwards by a bounded pool of worker threads, independent of the
+ * HTTP request. Failed invocations are retried after a delay, until the maximum number of attempts
+ * is reached. In that case the entry is moved to the "failed" directory of the store.<br>
+ * The queue of the worker threads is bounded. If it is full, the entry just stays in the "pending"
+ * directory of the store and is queued as soon as a worker becomes available, so that a large
+ * backlog does not consume memory for queued tasks.<br>
+ * Pending entries that were not processed (e.g. because of a crash or a shutdown) are processed
+ * again when the inbox is created the next time. This means that the SPIs are invoked "at least
+ * once" per message and SPI implementations must be able to deal with repeated invocations.<br>
+ * Note: in inbox mode the SPI results are not available to the synchronous response, so neither
+ * asynchronous response URLs nor response attachments are supported.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4Inbox implements AutoCloseable
+{
+  public static final int DEFAULT_WORKER_COUNT = Math.max (2, Runtime.getRuntime ().availableProcessors ());
+  public static final int DEFAULT_QUEUE_CAPACITY = 1_000;
+  public static final int DEFAULT_MAX_ATTEMPTS = 5;
+  public static final Duration DEFAULT_RETRY_DELAY = Duration.ofMinutes (1);
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4Inbox.class);
+  private static final int THROUGHPUT_SECONDS = 60;
+
+  private final AS4InboxStore m_aStore;
+  private final int m_nMaxAttempts;
+  private final Duration m_aRetryDelay;
+  private final Locale m_aLocale;
+  private final int m_nQueueCapacity;
+  private final ThreadPoolExecutor m_aWorkers;
+  private final ScheduledExecutorService m_aScheduler;
+  private volatile Supplier <? extends ICommonsList <IAS4IncomingMessageProcessorSPI>> m_aProcessorSupplier = AS4IncomingMessageProcessorManager::getAllProcessors;
+
+  // All entries not yet finally processed, sorted by acceptance
+  private final NavigableSet <String> m_aPending = new ConcurrentSkipListSet <> ();
+  // Entries that are queued, processed or waiting for a retry
+  private final Set <String> m_aInProgress = ConcurrentHashMap.newKeySet ();
+  // Set if an entry was left in the store because the worker queue was full
+  private final AtomicBoolean m_aOverflow = new AtomicBoolean (false);
+  // PModes of entries accepted in this run - avoids a lookup for transient PModes
+  private final Map <String, IPMode> m_aKnownPModes = new ConcurrentHashMap <> ();
+
+  private final AtomicLong m_aAcceptedCount = new AtomicLong ();
+  private final AtomicLong m_aProcessedCount = new AtomicLong ();
+  private final AtomicLong m_aRetriedCount = new AtomicLong ();
+  private final AtomicLong m_aFailedCount = new AtomicLong ();
+  // Processed messages per second of the last minute (ring buffer)
+  private final AtomicLongArray m_aThroughputSeconds = new AtomicLongArray (THROUGHPUT_SECONDS);
+  private final AtomicLongArray m_aThroughputCounts = new AtomicLongArray (THROUGHPUT_SECONDS);
+
+  /**
+   * Constructor with default settings.
+   *
+   * @param aStore
+   *        The durable store to use. May not be <code>null</code>.
+   */
+  public AS4Inbox (@NonNull final AS4InboxStore aStore)
+  {
+    this (aStore, DEFAULT_WORKER_COUNT, DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_DELAY, Locale.US);
+  }
+
+  /**
+   * Constructor using the default queue capacity. All pending entries of the store are scheduled
+   * for processing immediately.
+   *
+   * @param aStore
+   *        The durable store to use. May not be <code>null</code>.
+   * @param nWorkerCount
+   *        The number of worker threads invoking the SPIs. Must be &gt; 0.
+   * @param nMaxAttempts
+   *        The maximum number of processing attempts per message. Must be &gt; 0.
+   * @param aRetryDelay
+   *        The delay between two processing attempts. May not be <code>null</code>.
+   * @param aLocale
+   *        The locale used for error messages. May not be <code>null</code>.
+   */
+  public AS4Inbox (@NonNull final AS4InboxStore aStore,
+                   @Nonnegative final int nWorkerCount,
+                   @Nonnegative final int nMaxAttempts,
+                   @NonNull final Duration aRetryDelay,
+                   @NonNull final Locale aLocale)
+  {
+    this (aStore, nWorkerCount, DEFAULT_QUEUE_CAPACITY, nMaxAttempts, aRetryDelay, aLocale);
+  }
+
+  /**
+   * Constructor. All pending entries of the store are scheduled for processing immediately.
+   *
+   * @param aStore
+   *        The durable store to use. May not be <code>null</code>.
+   * @param nWorkerCount
+   *        The number of worker threads invoking the SPIs. Must be &gt; 0.
+   * @param nQueueCapacity
+   *        The maximum number of entries waiting for a worker thread. Additional entries stay in the
+   *        store until a worker is available. Must be &gt; 0.
+   * @param nMaxAttempts
+   *        The maximum number of processing attempts per message. Must be &gt; 0.
+   * @param aRetryDelay
+   *        The delay between two processing attempts. May not be <code>null</code>.
+   * @param aLocale
+   *        The locale used for error messages. May not be <code>null</code>.
+   */
+  public AS4Inbox (@NonNull final AS4InboxStore aStore,
+                   @Nonnegative final int nWorkerCount,
+                   @Nonnegative final int nQueueCapacity,
+                   @Nonnegative final int nMaxAttempts,
+                   @NonNull final Duration aRetryDelay,
+                   @NonNull final Locale aLocale)
+  {
+    ValueEnforcer.notNull (aStore, "Store");
+    ValueEnforcer.isGT0 (nWorkerCount, "WorkerCount");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.isGT0 (nMaxAttempts, "MaxAttempts");
+    ValueEnforcer.notNull (aRetryDelay, "RetryDelay");
+    ValueEnforcer.isFalse (aRetryDelay.isNegative (), "RetryDelay may not be negative");
+    ValueEnforcer.notNull (aLocale, "Locale");
+    m_aStore = aStore;
+    m_nMaxAttempts = nMaxAttempts;
+    m_aRetryDelay = aRetryDelay;
+    m_aLocale = aLocale;
+    m_nQueueCapacity = nQueueCapacity;
+    m_aWorkers = new ThreadPoolExecutor (nWorkerCount,
+                                         nWorkerCount,
+                                         0,
+                                         TimeUnit.MILLISECONDS,
+                                         new ArrayBlockingQueue <> (nQueueCapacity),
+                                         AS4Executors.createThreadFactory ("phase4-inbox-"),
+                                         new ThreadPoolExecutor.AbortPolicy ());
+    m_aScheduler = Executors.newSingleThreadScheduledExecutor (AS4Executors.createPlatformThreadFactory ("phase4-inbox-retry-"));
+
+    // Crash recovery
+    final ICommonsList <String> aRecovered = aStore.getAllPendingEntryIDs ();
+    if (aRecovered.isNotEmpty ())
+    {
+      LOGGER.info ("Recovering " + aRecovered.size () + " pending inbox entries");
+      m_aPending.addAll (aRecovered);
+      m_aOverflow.set (true);
+      _enqueueOverflow ();
+    }
+  }
+
+  /**
+   * @return The underlying store. Never <code>null</code>.
+   */
+  @NonNull
+  public final AS4InboxStore getStore ()
+  {
+    return m_aStore;
+  }
+
+  /**
+   * @return The maximum number of entries waiting for a worker thread. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getQueueCapacity ()
+  {
+    return m_nQueueCapacity;
+  }
+
+  /**
+   * @return The maximum number of processing attempts per message. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxAttempts ()
+  {
+    return m_nMaxAttempts;
+  }
+
+  /**
+   * @return The delay between two processing attempts. Never <code>null</code>.
+   */
+  @NonNull
+  public final Duration getRetryDelay ()
+  {
+    return m_aRetryDelay;
+  }
+
+  /**
+   * @return The supplier used to get all SPIs that should be invoked. Never <code>null</code>.
+   */
+  @NonNull
+  public final Supplier <? extends ICommonsList <IAS4IncomingMessageProcessorSPI>> getProcessorSupplier ()
+  {
+    return m_aProcessorSupplier;
+  }
+
+  /**
+   * Set a different processor supplier
+   *
+   * @param aProcessorSupplier
+   *        The processor supplier to be used. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @NonNull
+  public final AS4Inbox setProcessorSupplier (@NonNull final Supplier <? extends ICommonsList <IAS4IncomingMessageProcessorSPI>> aProcessorSupplier)
+  {
+    ValueEnforcer.notNull (aProcessorSupplier, "ProcessorSupplier");
+    m_aProcessorSupplier = aProcessorSupplier;
+    return this;
+  }
+
+  /**
+   * Queue the provided entry for processing.
+   *
+   * @param sEntryID
+   *        The entry to process.
+   * @return <code>false</code> if the worker queue is full, <code>true</code> otherwise.
+   */
+  private boolean _enqueue (@NonNull final String sEntryID)
+  {
+    if (!m_aInProgress.add (sEntryID))
+    {
+      // Already queued
+      return true;
+    }
+
+    try
+    {
+      m_aWorkers.execute ( () -> _process (sEntryID));
+      return true;
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      m_aInProgress.remove (sEntryID);
+      if (m_aWorkers.isShutdown ())
+      {
+        // Closed - the entry stays on disk and is recovered on the next start
+        LOGGER.warn ("Inbox is closed - inbox entry '" + sEntryID + "' will be processed after the next start");
+        return true;
+      }
+
+      // Queue is full - the entry stays on disk and is queued when a worker is available
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Inbox queue is full - inbox entry '" + sEntryID + "' is queued later");
+      m_aOverflow.set (true);
+      return false;
+    }
+  }
+
+  /**
+   * Queue the entries that were left in the store because the worker queue was full, in acceptance
+   * order, until the queue is full again.
+   */
+  private void _enqueueOverflow ()
+  {
+    // Reset before iterating, so that an overflow during the iteration is not lost
+    if (m_aOverflow.compareAndSet (true, false))
+      for (final String sEntryID : m_aPending)
+        if (!m_aInProgress.contains (sEntryID) && !_enqueue (sEntryID))
+          break;
+  }
+
+  /**
+   * Durably accept a new inbound user message and schedule it for processing. When this method
+   * returns successfully, the message is persisted and the receipt may be sent.
+   *
+   * @param aMessageMetadata
+   *        The incoming message metadata. May not be <code>null</code>.
+   * @param aHttpHeaders
+   *        The incoming HTTP headers. May not be <code>null</code>.
+   * @param aUserMessage
+   *        The ebMS user message. May not be <code>null</code>.
+   * @param aPMode
+   *        The PMode used. May be <code>null</code>.
+   * @param aPayloadNode
+   *        The SOAP body payload. May be <code>null</code>.
+   * @param aDecryptedAttachments
+   *        The decrypted attachments. May be <code>null</code>.
+   * @param aIncomingState
+   *        The incoming message state. May not be <code>null</code>.
+   * @return The ID of the new inbox entry. Neither <code>null</code> nor empty.
+   * @throws IOException
+   *         If the message could not be persisted. In that case the message must be rejected.
+   */
+  @NonNull
+  @Nonempty
+  public String accept (@NonNull final IAS4IncomingMessageMetadata aMessageMetadata,
+                        @NonNull final HttpHeaderMap aHttpHeaders,
+                        @NonNull final Ebms3UserMessage aUserMessage,
+                        @Nullable final IPMode aPMode,
+                        @Nullable final Node aPayloadNode,
+                        @Nullable final ICommonsList <WSS4JAttachment> aDecryptedAttachments,
+                        @NonNull final IAS4IncomingMessageState aIncomingState) throws IOException
+  {
+    final String sEntryID = m_aStore.store (aMessageMetadata,
+                                            aHttpHeaders,
+                                            aUserMessage,
+                                            aPMode,
+                                            aPayloadNode,
+                                            aDecryptedAttachments,
+                                            aIncomingState);
+    if (aPMode != null)
+      m_aKnownPModes.put (sEntryID, aPMode);
+    m_aAcceptedCount.incrementAndGet ();
+    m_aPending.add (sEntryID);
+    _enqueue (sEntryID);
+    return sEntryID;
+  }
+
+  private boolean _invokeSPIs (@NonNull final AS4InboxMessage aMsg)
+  {
+    final String sMessageID = aMsg.getIncomingState ().getMessageID ();
+    final ICommonsList <IAS4IncomingMessageProcessorSPI> aAllProcessors = m_aProcessorSupplier.get ();
+    if (aAllProcessors.isEmpty ())
+    {
+      LOGGER.error ("No IAS4IncomingMessageProcessorSPI is available to process inbox entry '" +
+                    aMsg.getEntryID () +
+                    "'");
+      return false;
+    }
+
+    for (final IAS4IncomingMessageProcessorSPI aProcessor : aAllProcessors)
+      if (aProcessor != null)
+      {
+        final AS4ErrorList aProcessingErrorMessages = new AS4ErrorList ();
+        final AS4MessageProcessorResult aResult = aProcessor.processAS4UserMessage (aMsg.getMessageMetadata (),
+                                                                                    aMsg.getHttpHeaders (),
+                                                                                    aMsg.getUserMessage (),
+                                                                                    aMsg.getPMode (),
+                                                                                    aMsg.getPayloadNode (),
+                                                                                    aMsg.getAttachments (),
+                                                                                    aMsg.getIncomingState (),
+                                                                                    aProcessingErrorMessages);
+        if (aResult == null || aResult.isFailure () || aProcessingErrorMessages.isNotEmpty ())
+        {
+          LOGGER.warn ("AS4 message processor " +
+                       aProcessor +
+                       " failed on message ID '" +
+                       sMessageID +
+                       "' of inbox entry '" +
+                       aMsg.getEntryID () +
+                       "'. Details: " +
+                       aProcessingErrorMessages);
+          return false;
+        }
+        if (aResult.getAsyncResponseURL () != null)
+          LOGGER.warn ("AS4 message processor " +
+                       aProcessor +
+                       " returned an asynchronous response URL, which is not supported in inbox mode");
+      }
+    return true;
+  }
+
+  private void _recordProcessed ()
+  {
+    m_aProcessedCount.incrementAndGet ();
+    final long nSecond = System.currentTimeMillis () / 1000;
+    final int nSlot = (int) (nSecond % THROUGHPUT_SECONDS);
+    if (m_aThroughputSeconds.getAndSet (nSlot, nSecond) != nSecond)
+      m_aThroughputCounts.set (nSlot, 0);
+    m_aThroughputCounts.incrementAndGet (nSlot);
+  }
+
+  private void _process (@NonNull final String sEntryID)
+  {
+    if (!m_aPending.contains (sEntryID))
+    {
+      // Finally processed while it was queued again from the overflow
+      m_aInProgress.remove (sEntryID);
+      return;
+    }
+
+    try
+    {
+      _processAttempt (sEntryID);
+    }
+    finally
+    {
+      _enqueueOverflow ();
+    }
+  }
+
+  private void _processAttempt (@NonNull final String sEntryID)
+  {
+    int nAttempts = m_nMaxAttempts;
+    boolean bSuccess = false;
+    // A new resource helper per attempt, as the attachments are bound to it
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // Count the attempt before the processing, so that a crash is counted as well
+      nAttempts = m_aStore.incrementAttempts (sEntryID);
+      final AS4InboxMessage aMsg = m_aStore.load (sEntryID, aResHelper, m_aLocale, m_aKnownPModes.get (sEntryID));
+      bSuccess = _invokeSPIs (aMsg);
+    }
+    catch (final Exception ex)
+    {
+      LOGGER.error ("Error processing inbox entry '" + sEntryID + "'", ex);
+    }
+
+    if (bSuccess)
+    {
+      m_aStore.remove (sEntryID);
+      m_aPending.remove (sEntryID);
+      m_aKnownPModes.remove (sEntryID);
+      m_aInProgress.remove (sEntryID);
+      _recordProcessed ();
+    }
+    else
+      if (nAttempts >= m_nMaxAttempts)
+      {
+        LOGGER.error ("Inbox entry '" + sEntryID + "' finally failed after " + nAttempts + " attempts");
+        m_aStore.moveToFailed (sEntryID);
+        m_aPending.remove (sEntryID);
+        m_aKnownPModes.remove (sEntryID);
+        m_aInProgress.remove (sEntryID);
+        m_aFailedCount.incrementAndGet ();
+      }
+      else
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Retrying inbox entry '" + sEntryID + "' in " + m_aRetryDelay);
+        m_aRetriedCount.incrementAndGet ();
+        try
+        {
+          m_aScheduler.schedule ( () -> {
+            m_aInProgress.remove (sEntryID);
+            _enqueue (sEntryID);
+          }, m_aRetryDelay.toMillis (), TimeUnit.MILLISECONDS);
+        }
+        catch (final RejectedExecutionException ex)
+        {
+          // Closed - recovered on the next start
+        }
+      }
+  }
+
+  /**
+   * @return The number of accepted messages that are not yet finally processed. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getBacklogSize ()
+  {
+    return m_aPending.size ();
+  }
+
+  /**
+   * @return The age of the oldest message in the backlog. {@link Duration#ZERO} if the backlog is
+   *         empty.
+   */
+  @NonNull
+  public Duration getOldestBacklogAge ()
+  {
+    final String sOldest = m_aPending.isEmpty () ? null : m_aPending.first ();
+    final long nAcceptedMillis = sOldest == null ? -1 : AS4InboxStore.getAcceptedMillis (sOldest);
+    if (nAcceptedMillis < 0)
+      return Duration.ZERO;
+    return Duration.ofMillis (Math.max (0, System.currentTimeMillis () - nAcceptedMillis));
+  }
+
+  /**
+   * @return The number of messages accepted since the inbox was created. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getAcceptedCount ()
+  {
+    return m_aAcceptedCount.get ();
+  }
+
+  /**
+   * @return The number of messages successfully processed since the inbox was created. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public long getProcessedCount ()
+  {
+    return m_aProcessedCount.get ();
+  }
+
+  /**
+   * @return The number of scheduled retries since the inbox was created. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getRetriedCount ()
+  {
+    return m_aRetriedCount.get ();
+  }
+
+  /**
+   * @return The number of messages that finally failed since the inbox was created. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getFailedCount ()
+  {
+    return m_aFailedCount.get ();
+  }
+
+  /**
+   * @return The number of messages successfully processed within the last minute. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getProcessedInLastMinute ()
+  {
+    final long nNowSecond = System.currentTimeMillis () / 1000;
+    long ret = 0;
+    for (int i = 0; i < THROUGHPUT_SECONDS; ++i)
+      if (nNowSecond - m_aThroughputSeconds.get (i) < THROUGHPUT_SECONDS)
+        ret += m_aThroughputCounts.get (i);
+    return ret;
+  }
+
+  /**
+   * Stop processing. Messages that are currently processed are finished, but no new processing
+   * attempts are started. All messages not yet processed stay in the store and are processed when
+   * the next inbox on the same store is created.
+   */
+  public void close ()
+  {
+    m_aScheduler.shutdownNow ();
+    m_aWorkers.shutdown ();
+    try
+    {
+      if (!m_aWorkers.awaitTermination (30, TimeUnit.SECONDS))
+        m_aWorkers.shutdownNow ();
+    }
+    catch (final InterruptedException ex)
+    {
+      m_aWorkers.shutdownNow ();
+      Thread.currentThread ().interrupt ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Store", m_aStore)
+                                       .append ("QueueCapacity", m_nQueueCapacity)
+                                       .append ("MaxAttempts", m_nMaxAttempts)
+                                       .append ("RetryDelay", m_aRetryDelay)
+                                       .append ("Locale", m_aLocale)
+                                       .append ("BacklogSize", m_aPending.size ())
+                                       .getToString ();
+  }
+}
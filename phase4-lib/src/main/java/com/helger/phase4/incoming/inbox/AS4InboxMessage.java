@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.inbox;
+
+import java.time.OffsetDateTime;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.w3c.dom.Node;
+
+import com.helger.annotation.Nonempty;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.incoming.IAS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.IAS4IncomingMessageState;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * A single inbound user message restored from the {@link AS4InboxStore}, ready to be passed to
+ * the incoming message processor SPIs. All attachments are bound to the resource helper used for
+ * loading.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@Immutable
+public final class AS4InboxMessage
+{
+  private final String m_sEntryID;
+  private final OffsetDateTime m_aAcceptedDT;
+  private final int m_nAttempts;
+  private final IAS4IncomingMessageMetadata m_aMessageMetadata;
+  private final HttpHeaderMap m_aHttpHeaders;
+  private final Ebms3UserMessage m_aUserMessage;
+  private final IPMode m_aPMode;
+  private final Node m_aPayloadNode;
+  private final ICommonsList <WSS4JAttachment> m_aAttachments;
+  private final IAS4IncomingMessageState m_aIncomingState;
+
+  AS4InboxMessage (@NonNull @Nonempty final String sEntryID,
+                   @NonNull final OffsetDateTime aAcceptedDT,
+                   final int nAttempts,
+                   @NonNull final IAS4IncomingMessageMetadata aMessageMetadata,
+                   @NonNull final HttpHeaderMap aHttpHeaders,
+                   @NonNull final Ebms3UserMessage aUserMessage,
+                   @Nullable final IPMode aPMode,
+                   @Nullable final Node aPayloadNode,
+                   @NonNull final ICommonsList <WSS4JAttachment> aAttachments,
+                   @NonNull final IAS4IncomingMessageState aIncomingState)
+  {
+    ValueEnforcer.notEmpty (sEntryID, "EntryID");
+    m_sEntryID = sEntryID;
+    m_aAcceptedDT = aAcceptedDT;
+    m_nAttempts = nAttempts;
+    m_aMessageMetadata = aMessageMetadata;
+    m_aHttpHeaders = aHttpHeaders;
+    m_aUserMessage = aUserMessage;
+    m_aPMode = aPMode;
+    m_aPayloadNode = aPayloadNode;
+    m_aAttachments = aAttachments;
+    m_aIncomingState = aIncomingState;
+  }
+
+  /**
+   * @return The ID of the inbox entry. Neither <code>null</code> nor empty.
+   */
+  @NonNull
+  @Nonempty
+  public String getEntryID ()
+  {
+    return m_sEntryID;
+  }
+
+  /**
+   * @return The date time when the message was accepted into the inbox. Never <code>null</code>.
+   */
+  @NonNull
+  public OffsetDateTime getAcceptedDT ()
+  {
+    return m_aAcceptedDT;
+  }
+
+  /**
+   * @return The number of previous, failed processing attempts. Always &ge; 0.
+   */
+  public int getAttempts ()
+  {
+    return m_nAttempts;
+  }
+
+  @NonNull
+  public IAS4IncomingMessageMetadata getMessageMetadata ()
+  {
+    return m_aMessageMetadata;
+  }
+
+  @NonNull
+  public HttpHeaderMap getHttpHeaders ()
+  {
+    return m_aHttpHeaders;
+  }
+
+  @NonNull
+  public Ebms3UserMessage getUserMessage ()
+  {
+    return m_aUserMessage;
+  }
+
+  /**
+   * @return The PMode of the message. May be <code>null</code> if the PMode could not be resolved
+   *         after a restart.
+   */
+  @Nullable
+  public IPMode getPMode ()
+  {
+    return m_aPMode;
+  }
+
+  @Nullable
+  public Node getPayloadNode ()
+  {
+    return m_aPayloadNode;
+  }
+
+  @NonNull
+  public ICommonsList <WSS4JAttachment> getAttachments ()
+  {
+    return m_aAttachments;
+  }
+
+  @NonNull
+  public IAS4IncomingMessageState getIncomingState ()
+  {
+    return m_aIncomingState;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("EntryID", m_sEntryID)
+                                       .append ("AcceptedDT", m_aAcceptedDT)
+                                       .append ("Attempts", m_nAttempts)
+                                       .append ("PMode", m_aPMode)
+                                       .append ("Attachments#", m_aAttachments.size ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,715 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.inbox;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.OffsetDateTime;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.BiConsumer;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.helger.annotation.Nonempty;
+import com.helger.annotation.WillNotClose;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.annotation.style.ReturnsMutableCopy;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.iface.IHasInputStream;
+import com.helger.base.io.stream.HasInputStream;
+import com.helger.base.string.StringHelper;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.CommonsHashMap;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.collection.commons.ICommonsMap;
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.io.file.FileHelper;
+import com.helger.phase4.attachment.AS4DecompressException;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.incoming.AS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.AS4IncomingMessageState;
+import com.helger.phase4.incoming.IAS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.IAS4IncomingMessageState;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.marshaller.AS4Marshallers;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.messaging.mime.AS4KnownLengthContent;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.util.AS4IOHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * The durable file system storage of the {@link AS4Inbox}. Each accepted message is stored in a
+ * separate directory containing the message metadata, the ebMS user message, the optional SOAP
+ * body payload and all attachments. All files are synced to disk and the directory is first
+ * written to a temporary location and afterwards atomically moved into the "pending" directory. So
+ * after a crash, each entry in "pending" is complete, and incomplete entries are discarded. Entries
+ * that finally failed are moved to the "failed" directory for manual inspection.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4InboxStore
+{
+  public static final String DIR_TMP = "tmp";
+  public static final String DIR_PENDING = "pending";
+  public static final String DIR_FAILED = "failed";
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4InboxStore.class);
+
+  private static final String FILE_ENTRY = "entry.properties";
+  private static final String FILE_ATTEMPTS = "attempts";
+  private static final String FILE_USER_MESSAGE = "usermessage.xml";
+  private static final String FILE_PAYLOAD = "payload.xml";
+  private static final String FILE_ATTACHMENT_PREFIX = "attachment-";
+
+  private static final String KEY_ACCEPTED_DT = "accepted.dt";
+  private static final String KEY_INCOMING_UNIQUE_ID = "incoming.uniqueid";
+  private static final String KEY_INCOMING_DT = "incoming.dt";
+  private static final String KEY_REMOTE_ADDR = "remote.addr";
+  private static final String KEY_REMOTE_HOST = "remote.host";
+  private static final String KEY_REMOTE_PORT = "remote.port";
+  private static final String KEY_REMOTE_USER = "remote.user";
+  private static final String KEY_HEADER_COUNT = "header.count";
+  private static final String KEY_HEADER_PREFIX = "header.";
+  private static final String KEY_SOAP_VERSION = "soap.version";
+  private static final String KEY_MESSAGE_ID = "message.id";
+  private static final String KEY_REF_TO_MESSAGE_ID = "message.reftoid";
+  private static final String KEY_PROFILE_ID = "profile.id";
+  private static final String KEY_PMODE_ID = "pmode.id";
+  private static final String KEY_LEG_NUMBER = "pmode.leg";
+  private static final String KEY_MPC_ID = "mpc.id";
+  private static final String KEY_INITIATOR_ID = "initiator.id";
+  private static final String KEY_RESPONDER_ID = "responder.id";
+  private static final String KEY_SIGNING_CERT = "signing.cert";
+  private static final String KEY_ATTACHMENT_COUNT = "attachment.count";
+  private static final String KEY_ATTACHMENT_PREFIX = "attachment.";
+
+  private final File m_aTmpDir;
+  private final File m_aPendingDir;
+  private final File m_aFailedDir;
+
+  /**
+   * Constructor. Creates the required directories and removes all incomplete entries from a
+   * previous run.
+   *
+   * @param aBaseDir
+   *        The base directory to use. May not be <code>null</code>.
+   * @throws IOException
+   *         If the directories cannot be created
+   */
+  public AS4InboxStore (@NonNull final File aBaseDir) throws IOException
+  {
+    ValueEnforcer.notNull (aBaseDir, "BaseDir");
+    m_aTmpDir = new File (aBaseDir, DIR_TMP);
+    m_aPendingDir = new File (aBaseDir, DIR_PENDING);
+    m_aFailedDir = new File (aBaseDir, DIR_FAILED);
+    for (final File aDir : new File [] { m_aTmpDir, m_aPendingDir, m_aFailedDir })
+      if (AS4IOHelper.getFileOperationManager ().createDirRecursiveIfNotExisting (aDir).isFailure ())
+        throw new IOException ("Failed to create inbox directory '" + aDir.getAbsolutePath () + "'");
+
+    // Incomplete entries from a crash while writing
+    for (final File aDir : _listDirs (m_aTmpDir))
+    {
+      LOGGER.warn ("Removing incomplete inbox entry '" + aDir.getName () + "'");
+      AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+
+  @NonNull
+  private static File [] _listDirs (@NonNull final File aDir)
+  {
+    final File [] ret = aDir.listFiles (File::isDirectory);
+    return ret == null ? new File [0] : ret;
+  }
+
+  @NonNull
+  @Nonempty
+  private static String _createEntryID (@NonNull final OffsetDateTime aAcceptedDT,
+                                        @NonNull @Nonempty final String sIncomingUniqueID)
+  {
+    // The prefix makes the natural sort order the acceptance order
+    return StringHelper.getLeadingZero (aAcceptedDT.toInstant ().toEpochMilli (), 15) +
+           "-" +
+           sIncomingUniqueID.replaceAll ("[^A-Za-z0-9._-]", "_");
+  }
+
+  /**
+   * Get the acceptance time of the provided entry ID in milliseconds since the epoch.
+   *
+   * @param sEntryID
+   *        The entry ID to check. May not be <code>null</code>.
+   * @return -1 if the entry ID is invalid.
+   */
+  public static long getAcceptedMillis (@NonNull final String sEntryID)
+  {
+    final int nIdx = sEntryID.indexOf ('-');
+    return nIdx > 0 ? StringHelper.parseLong (sEntryID.substring (0, nIdx), -1) : -1;
+  }
+
+  private static void _fsyncDir (@NonNull final File aDir)
+  {
+    try (final FileChannel aFC = FileChannel.open (aDir.toPath (), StandardOpenOption.READ))
+    {
+      aFC.force (true);
+    }
+    catch (final IOException ex)
+    {
+      // Not all platforms support syncing directories
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Failed to sync directory '" + aDir.getAbsolutePath () + "': " + ex.getMessage ());
+    }
+  }
+
+  @FunctionalInterface
+  private interface IContentWriter
+  {
+    void writeTo (@NonNull OutputStream aOS) throws IOException;
+  }
+
+  private static void _writeFileSynced (@NonNull final File aFile, @NonNull final IContentWriter aWriter) throws IOException
+  {
+    try (final FileOutputStream aFOS = new FileOutputStream (aFile))
+    {
+      final OutputStream aOS = new BufferedOutputStream (aFOS);
+      aWriter.writeTo (aOS);
+      aOS.flush ();
+      // Make sure the data is on disk before the entry becomes visible
+      aFOS.getFD ().sync ();
+    }
+  }
+
+  private static void _writeProperties (@NonNull final File aFile, @NonNull final Properties aProps) throws IOException
+  {
+    _writeFileSynced (aFile, aOS -> aProps.store (aOS, null));
+  }
+
+  @NonNull
+  private static Properties _readProperties (@NonNull final File aFile) throws IOException
+  {
+    final Properties ret = new Properties ();
+    try (final InputStream aIS = FileHelper.getBufferedInputStream (aFile))
+    {
+      if (aIS == null)
+        throw new IOException ("Failed to open '" + aFile.getAbsolutePath () + "'");
+      ret.load (aIS);
+    }
+    return ret;
+  }
+
+  private static void _setIfNotNull (@NonNull final Properties aProps,
+                                     @NonNull final String sKey,
+                                     @Nullable final String sValue)
+  {
+    if (sValue != null)
+      aProps.setProperty (sKey, sValue);
+  }
+
+  private static void _storeMap (@NonNull final Properties aProps,
+                                 @NonNull final String sPrefix,
+                                 @NonNull final Map <String, String> aMap)
+  {
+    int nIndex = 0;
+    for (final Map.Entry <String, String> aEntry : aMap.entrySet ())
+      if (aEntry.getKey () != null && aEntry.getValue () != null)
+      {
+        aProps.setProperty (sPrefix + nIndex + ".name", aEntry.getKey ());
+        aProps.setProperty (sPrefix + nIndex + ".value", aEntry.getValue ());
+        nIndex++;
+      }
+    aProps.setProperty (sPrefix + "count", Integer.toString (nIndex));
+  }
+
+  private static void _readMap (@NonNull final Properties aProps,
+                                @NonNull final String sPrefix,
+                                @NonNull final BiConsumer <String, String> aConsumer)
+  {
+    final int nCount = StringHelper.parseInt (aProps.getProperty (sPrefix + "count"), 0);
+    for (int i = 0; i < nCount; ++i)
+      aConsumer.accept (aProps.getProperty (sPrefix + i + ".name"), aProps.getProperty (sPrefix + i + ".value"));
+  }
+
+  /**
+   * Durably store a new inbound message. When this method returns, the message is on disk.
+   *
+   * @param aMessageMetadata
+   *        The incoming message metadata. May not be <code>null</code>.
+   * @param aHttpHeaders
+   *        The incoming HTTP headers. May not be <code>null</code>.
+   * @param aUserMessage
+   *        The ebMS user message. May not be <code>null</code>.
+   * @param aPMode
+   *        The PMode used. May be <code>null</code>.
+   * @param aPayloadNode
+   *        The SOAP body payload. May be <code>null</code>.
+   * @param aAttachments
+   *        The decrypted attachments. May be <code>null</code>.
+   * @param aIncomingState
+   *        The incoming message state. May not be <code>null</code>.
+   * @return The ID of the new entry. Neither <code>null</code> nor empty.
+   * @throws IOException
+   *         If storing fails. In that case nothing is stored.
+   */
+  @NonNull
+  @Nonempty
+  public String store (@NonNull final IAS4IncomingMessageMetadata aMessageMetadata,
+                       @NonNull final HttpHeaderMap aHttpHeaders,
+                       @NonNull final Ebms3UserMessage aUserMessage,
+                       @Nullable final IPMode aPMode,
+                       @Nullable final Node aPayloadNode,
+                       @Nullable final ICommonsList <WSS4JAttachment> aAttachments,
+                       @NonNull final IAS4IncomingMessageState aIncomingState) throws IOException
+  {
+    final OffsetDateTime aAcceptedDT = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
+    final String sEntryID = _createEntryID (aAcceptedDT, aMessageMetadata.getIncomingUniqueID ());
+    final File aTmpDir = new File (m_aTmpDir, sEntryID);
+    if (AS4IOHelper.getFileOperationManager ().createDir (aTmpDir).isFailure ())
+      throw new IOException ("Failed to create inbox directory '" + aTmpDir.getAbsolutePath () + "'");
+
+    boolean bSuccess = false;
+    try
+    {
+      final Properties aProps = new Properties ();
+      aProps.setProperty (KEY_ACCEPTED_DT, aAcceptedDT.toString ());
+      aProps.setProperty (KEY_INCOMING_UNIQUE_ID, aMessageMetadata.getIncomingUniqueID ());
+      aProps.setProperty (KEY_INCOMING_DT, aMessageMetadata.getIncomingDT ().toString ());
+      _setIfNotNull (aProps, KEY_REMOTE_ADDR, aMessageMetadata.getRemoteAddr ());
+      _setIfNotNull (aProps, KEY_REMOTE_HOST, aMessageMetadata.getRemoteHost ());
+      aProps.setProperty (KEY_REMOTE_PORT, Integer.toString (aMessageMetadata.getRemotePort ()));
+      _setIfNotNull (aProps, KEY_REMOTE_USER, aMessageMetadata.getRemoteUser ());
+      final int [] aHeaderIndex = { 0 };
+      aHttpHeaders.forEachSingleHeader ( (sName, sValue) -> {
+        aProps.setProperty (KEY_HEADER_PREFIX + aHeaderIndex[0] + ".name", sName);
+        aProps.setProperty (KEY_HEADER_PREFIX + aHeaderIndex[0] + ".value", sValue);
+        aHeaderIndex[0]++;
+      }, false);
+      aProps.setProperty (KEY_HEADER_COUNT, Integer.toString (aHeaderIndex[0]));
+      aProps.setProperty (KEY_SOAP_VERSION, aIncomingState.getSoapVersion ().getVersion ());
+      _setIfNotNull (aProps, KEY_MESSAGE_ID, aIncomingState.getMessageID ());
+      _setIfNotNull (aProps, KEY_REF_TO_MESSAGE_ID, aIncomingState.getRefToMessageID ());
+      _setIfNotNull (aProps, KEY_PROFILE_ID, aIncomingState.getProfileID ());
+      _setIfNotNull (aProps, KEY_PMODE_ID, aPMode == null ? null : aPMode.getID ());
+      aProps.setProperty (KEY_LEG_NUMBER, Integer.toString (aIncomingState.getEffectivePModeLegNumber ()));
+      _setIfNotNull (aProps, KEY_MPC_ID, aIncomingState.getMPC () == null ? null : aIncomingState.getMPC ().getID ());
+      _setIfNotNull (aProps, KEY_INITIATOR_ID, aIncomingState.getInitiatorID ());
+      _setIfNotNull (aProps, KEY_RESPONDER_ID, aIncomingState.getResponderID ());
+      final X509Certificate aSigningCert = aIncomingState.getSigningCertificate ();
+      if (aSigningCert != null)
+        try
+        {
+          aProps.setProperty (KEY_SIGNING_CERT, Base64.getEncoder ().encodeToString (aSigningCert.getEncoded ()));
+        }
+        catch (final CertificateException ex)
+        {
+          throw new IOException ("Failed to encode signing certificate", ex);
+        }
+
+      // User message
+      final Document aUserMessageDoc = AS4Marshallers.getEbms3UserMessageMarshaller ().getAsDocument (aUserMessage);
+      if (aUserMessageDoc == null)
+        throw new IOException ("Failed to serialize the ebMS user message");
+      _writeFileSynced (new File (aTmpDir, FILE_USER_MESSAGE), aOS -> AS4XMLHelper.serializeXML (aUserMessageDoc, aOS));
+
+      // SOAP body payload
+      if (aPayloadNode != null)
+        _writeFileSynced (new File (aTmpDir, FILE_PAYLOAD), aOS -> AS4XMLHelper.serializeXML (aPayloadNode, aOS));
+
+      // Attachments
+      int nAttachmentIndex = 0;
+      if (aAttachments != null)
+        for (final WSS4JAttachment aAttachment : aAttachments)
+        {
+          final String sPrefix = KEY_ATTACHMENT_PREFIX + nAttachmentIndex + ".";
+          _setIfNotNull (aProps, sPrefix + "id", aAttachment.getId ());
+          _setIfNotNull (aProps, sPrefix + "mimetype", aAttachment.getUncompressedMimeType ());
+          final Charset aCharset = aAttachment.getCharsetOrDefault (null);
+          _setIfNotNull (aProps, sPrefix + "charset", aCharset == null ? null : aCharset.name ());
+          _storeMap (aProps, sPrefix + "header.", aAttachment.getHeaders ());
+          _storeMap (aProps, sPrefix + "property.", aAttachment.customPartProperties ());
+
+          // Store compressed data if available, as that is what was signed
+          final EAS4CompressionMode eCompressionMode = aAttachment.getCompressionMode ();
+          final IHasInputStream aCompressedISP = aAttachment.getCompressedSourceStreamProvider ();
+          final boolean bStoreCompressed = eCompressionMode != null && aCompressedISP != null;
+          if (bStoreCompressed)
+            aProps.setProperty (sPrefix + "compression", eCompressionMode.getID ());
+
+          _writeFileSynced (new File (aTmpDir, FILE_ATTACHMENT_PREFIX + nAttachmentIndex), aOS -> {
+            try (final InputStream aIS = bStoreCompressed ? aCompressedISP.getInputStream ()
+                                                          : aAttachment.getSourceStream ())
+            {
+              if (aIS == null)
+                throw new IOException ("Failed to open attachment '" + aAttachment.getId () + "'");
+              aIS.transferTo (aOS);
+            }
+          });
+          nAttachmentIndex++;
+        }
+      aProps.setProperty (KEY_ATTACHMENT_COUNT, Integer.toString (nAttachmentIndex));
+
+      _writeProperties (new File (aTmpDir, FILE_ENTRY), aProps);
+      _fsyncDir (aTmpDir);
+
+      // Make the entry visible
+      final File aPendingDir = new File (m_aPendingDir, sEntryID);
+      try
+      {
+        Files.move (aTmpDir.toPath (), aPendingDir.toPath (), StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (final AtomicMoveNotSupportedException ex)
+      {
+        Files.move (aTmpDir.toPath (), aPendingDir.toPath ());
+      }
+      _fsyncDir (m_aPendingDir);
+      bSuccess = true;
+    }
+    finally
+    {
+      if (!bSuccess)
+        AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (aTmpDir);
+    }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Stored inbox entry '" + sEntryID + "' for message ID '" + aIncomingState.getMessageID () + "'");
+    return sEntryID;
+  }
+
+  /**
+   * @return The IDs of all pending entries in acceptance order. Never <code>null</code>.
+   */
+  @NonNull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllPendingEntryIDs ()
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    for (final File aDir : _listDirs (m_aPendingDir))
+      ret.add (aDir.getName ());
+    ret.sort (String::compareTo);
+    return ret;
+  }
+
+  /**
+   * @return The number of entries that finally failed. Always &ge; 0.
+   */
+  public int getFailedEntryCount ()
+  {
+    return _listDirs (m_aFailedDir).length;
+  }
+
+  /**
+   * Get the number of previous processing attempts of the provided entry.
+   *
+   * @param sEntryID
+   *        The entry ID. May not be <code>null</code>.
+   * @return The number of attempts. Always &ge; 0.
+   */
+  public int getAttempts (@NonNull final String sEntryID)
+  {
+    final File aFile = new File (new File (m_aPendingDir, sEntryID), FILE_ATTEMPTS);
+    if (!aFile.isFile ())
+      return 0;
+    try
+    {
+      return StringHelper.parseInt (new String (Files.readAllBytes (aFile.toPath ()),
+                                                StandardCharsets.ISO_8859_1).trim (),
+                                    0);
+    }
+    catch (final IOException ex)
+    {
+      return 0;
+    }
+  }
+
+  /**
+   * Durably increment the number of processing attempts of the provided entry.
+   *
+   * @param sEntryID
+   *        The entry ID. May not be <code>null</code>.
+   * @return The new number of attempts.
+   * @throws IOException
+   *         If writing fails
+   */
+  public int incrementAttempts (@NonNull final String sEntryID) throws IOException
+  {
+    final int ret = getAttempts (sEntryID) + 1;
+    final File aFile = new File (new File (m_aPendingDir, sEntryID), FILE_ATTEMPTS);
+    _writeFileSynced (aFile,
+                      aOS -> aOS.write (Integer.toString (ret)
+                                               .getBytes (StandardCharsets.ISO_8859_1)));
+    return ret;
+  }
+
+  /**
+   * Remove the provided entry after successful processing.
+   *
+   * @param sEntryID
+   *        The entry ID. May not be <code>null</code>.
+   */
+  public void remove (@NonNull final String sEntryID)
+  {
+    final File aDir = new File (m_aPendingDir, sEntryID);
+    if (AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (aDir).isFailure ())
+      LOGGER.error ("Failed to delete inbox entry '" + aDir.getAbsolutePath () + "'");
+    else
+      _fsyncDir (m_aPendingDir);
+  }
+
+  /**
+   * Move the provided entry to the "failed" directory after it finally failed.
+   *
+   * @param sEntryID
+   *        The entry ID. May not be <code>null</code>.
+   */
+  public void moveToFailed (@NonNull final String sEntryID)
+  {
+    final File aSrc = new File (m_aPendingDir, sEntryID);
+    final File aDst = new File (m_aFailedDir, sEntryID);
+    try
+    {
+      Files.move (aSrc.toPath (), aDst.toPath ());
+      _fsyncDir (m_aPendingDir);
+      _fsyncDir (m_aFailedDir);
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to move inbox entry '" + sEntryID + "' to the failed directory", ex);
+    }
+  }
+
+  @Nullable
+  private static X509Certificate _readCertificate (@Nullable final String sBase64)
+  {
+    if (StringHelper.isEmpty (sBase64))
+      return null;
+    try
+    {
+      return (X509Certificate) CertificateFactory.getInstance ("X.509")
+                                                 .generateCertificate (new ByteArrayInputStream (Base64.getDecoder ()
+                                                                                                       .decode (sBase64)));
+    }
+    catch (final CertificateException | IllegalArgumentException ex)
+    {
+      LOGGER.warn ("Failed to read stored signing certificate: " + ex.getMessage ());
+      return null;
+    }
+  }
+
+  @NonNull
+  private static WSS4JAttachment _loadAttachment (@NonNull final Properties aProps,
+                                                  @NonNull final String sPrefix,
+                                                  @NonNull final File aContentFile,
+                                                  @NonNull @WillNotClose final AS4ResourceHelper aResHelper,
+                                                  @NonNull final ICommonsMap <String, EAS4CompressionMode> aCompressedIDs)
+  {
+    final WSS4JAttachment ret = new WSS4JAttachment (aResHelper, aProps.getProperty (sPrefix + "mimetype"));
+    ret.setId (aProps.getProperty (sPrefix + "id"));
+    _readMap (aProps, sPrefix + "header.", ret::addHeader);
+    _readMap (aProps, sPrefix + "property.", (k, v) -> ret.customPartProperties ().put (k, v));
+    final String sCharset = aProps.getProperty (sPrefix + "charset");
+    if (StringHelper.isNotEmpty (sCharset))
+      ret.setCharset (Charset.forName (sCharset));
+
+    final AS4KnownLengthContent aContent = AS4KnownLengthContent.ofFile (aContentFile);
+    final EAS4CompressionMode eCompressionMode = EAS4CompressionMode.getFromIDOrNull (aProps.getProperty (sPrefix +
+                                                                                                         "compression"));
+    if (eCompressionMode != null)
+    {
+      ret.setCompressedSourceStreamProvider (aContent);
+      ret.setSourceStreamProvider (HasInputStream.multiple ( () -> {
+        try
+        {
+          return eCompressionMode.getDecompressStream (aContent.getInputStream ());
+        }
+        catch (final IOException ex)
+        {
+          throw new AS4DecompressException (ex);
+        }
+      }));
+      ret.setCompressionMode (eCompressionMode);
+      if (ret.getId () != null)
+        aCompressedIDs.put (ret.getId (), eCompressionMode);
+    }
+    else
+      ret.setSourceStreamProvider (aContent);
+    return ret;
+  }
+
+  /**
+   * Load a pending entry.
+   *
+   * @param sEntryID
+   *        The entry ID to load. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper to bind the attachments to. May not be <code>null</code>.
+   * @param aLocale
+   *        The locale for the incoming message state. May not be <code>null</code>.
+   * @param aKnownPMode
+   *        The PMode instance, if it is still known from acceptance. May be <code>null</code> in
+   *        which case the PMode is resolved by its ID from the PMode manager.
+   * @return The loaded message. Never <code>null</code>.
+   * @throws IOException
+   *         If the entry cannot be read
+   */
+  @NonNull
+  public AS4InboxMessage load (@NonNull final String sEntryID,
+                               @NonNull @WillNotClose final AS4ResourceHelper aResHelper,
+                               @NonNull final Locale aLocale,
+                               @Nullable final IPMode aKnownPMode) throws IOException
+  {
+    final File aDir = new File (m_aPendingDir, sEntryID);
+    final Properties aProps = _readProperties (new File (aDir, FILE_ENTRY));
+
+    // Metadata
+    final AS4IncomingMessageMetadata aMetadata = new AS4IncomingMessageMetadata (aProps.getProperty (KEY_INCOMING_UNIQUE_ID),
+                                                                                 OffsetDateTime.parse (aProps.getProperty (KEY_INCOMING_DT)),
+                                                                                 EAS4MessageMode.REQUEST)
+    {};
+    aMetadata.setRemoteAddr (aProps.getProperty (KEY_REMOTE_ADDR));
+    aMetadata.setRemoteHost (aProps.getProperty (KEY_REMOTE_HOST));
+    aMetadata.setRemotePort (StringHelper.parseInt (aProps.getProperty (KEY_REMOTE_PORT), -1));
+    aMetadata.setRemoteUser (aProps.getProperty (KEY_REMOTE_USER));
+    final HttpHeaderMap aHttpHeaders = new HttpHeaderMap ();
+    final int nHeaderCount = StringHelper.parseInt (aProps.getProperty (KEY_HEADER_COUNT), 0);
+    for (int i = 0; i < nHeaderCount; ++i)
+      aHttpHeaders.addHeader (aProps.getProperty (KEY_HEADER_PREFIX + i + ".name"),
+                              aProps.getProperty (KEY_HEADER_PREFIX + i + ".value"));
+    aMetadata.setHttpHeaders (aHttpHeaders);
+
+    // User message
+    final Ebms3UserMessage aUserMessage;
+    try (final InputStream aIS = FileHelper.getBufferedInputStream (new File (aDir, FILE_USER_MESSAGE)))
+    {
+      final Document aDoc = aIS == null ? null : DOMReader.readXMLDOM (aIS);
+      aUserMessage = aDoc == null ? null : AS4Marshallers.getEbms3UserMessageMarshaller ().read (aDoc);
+    }
+    if (aUserMessage == null)
+      throw new IOException ("Failed to read the ebMS user message of inbox entry '" + sEntryID + "'");
+
+    // Payload
+    Node aPayloadNode = null;
+    final File aPayloadFile = new File (aDir, FILE_PAYLOAD);
+    if (aPayloadFile.isFile ())
+      try (final InputStream aIS = FileHelper.getBufferedInputStream (aPayloadFile))
+      {
+        final Document aDoc = aIS == null ? null : DOMReader.readXMLDOM (aIS);
+        if (aDoc == null)
+          throw new IOException ("Failed to read the SOAP body payload of inbox entry '" + sEntryID + "'");
+        aPayloadNode = aDoc.getDocumentElement ();
+      }
+
+    // Attachments
+    final ICommonsMap <String, EAS4CompressionMode> aCompressedIDs = new CommonsHashMap <> ();
+    final ICommonsList <WSS4JAttachment> aAttachments = new CommonsArrayList <> ();
+    final int nAttachmentCount = StringHelper.parseInt (aProps.getProperty (KEY_ATTACHMENT_COUNT), 0);
+    for (int i = 0; i < nAttachmentCount; ++i)
+      aAttachments.add (_loadAttachment (aProps,
+                                         KEY_ATTACHMENT_PREFIX + i + ".",
+                                         new File (aDir, FILE_ATTACHMENT_PREFIX + i),
+                                         aResHelper,
+                                         aCompressedIDs));
+
+    // PMode
+    final String sPModeID = aProps.getProperty (KEY_PMODE_ID);
+    IPMode aPMode = aKnownPMode;
+    if (aPMode == null && StringHelper.isNotEmpty (sPModeID))
+    {
+      aPMode = MetaAS4Manager.getPModeMgr ().getPModeOfID (sPModeID);
+      if (aPMode == null)
+        LOGGER.warn ("Failed to resolve PMode '" + sPModeID + "' of inbox entry '" + sEntryID + "'");
+    }
+
+    // Incoming state
+    final ESoapVersion eSoapVersion = ESoapVersion.getFromVersionOrDefault (aProps.getProperty (KEY_SOAP_VERSION),
+                                                                           ESoapVersion.AS4_DEFAULT);
+    final AS4IncomingMessageState aState = new AS4IncomingMessageState (eSoapVersion, aResHelper, aLocale);
+    aState.setMessageID (aProps.getProperty (KEY_MESSAGE_ID));
+    aState.setRefToMessageID (aProps.getProperty (KEY_REF_TO_MESSAGE_ID));
+    aState.setMessageTimestamp (aUserMessage.getMessageInfo ().getTimestamp ());
+    aState.setPMode (aPMode);
+    if (aPMode != null)
+    {
+      final int nLegNumber = StringHelper.parseInt (aProps.getProperty (KEY_LEG_NUMBER), 0);
+      final PModeLeg aLeg = nLegNumber == 1 ? aPMode.getLeg1 () : nLegNumber == 2 ? aPMode.getLeg2 () : null;
+      if (aLeg != null)
+        aState.setEffectivePModeLeg (nLegNumber, aLeg);
+    }
+    final String sProfileID = aProps.getProperty (KEY_PROFILE_ID);
+    if (StringHelper.isNotEmpty (sProfileID))
+      aState.setAS4Profile (MetaAS4Manager.getProfileMgr ().getProfileOfID (sProfileID));
+    final String sMPCID = aProps.getProperty (KEY_MPC_ID);
+    if (StringHelper.isNotEmpty (sMPCID))
+      aState.setMPC (MetaAS4Manager.getMPCMgr ().getMPCOfID (sMPCID));
+    aState.setInitiatorID (aProps.getProperty (KEY_INITIATOR_ID));
+    aState.setResponderID (aProps.getProperty (KEY_RESPONDER_ID));
+    aState.setSigningCertificate (_readCertificate (aProps.getProperty (KEY_SIGNING_CERT)));
+    aState.setSoapBodyPayloadPresent (aPayloadNode != null);
+    aState.setSoapBodyPayloadNode (aPayloadNode);
+    aState.setDecryptedAttachments (aAttachments);
+    aState.setCompressedAttachmentIDs (aCompressedIDs);
+    aState.setSoapHeaderElementProcessingSuccessful (true);
+
+    return new AS4InboxMessage (sEntryID,
+                                OffsetDateTime.parse (aProps.getProperty (KEY_ACCEPTED_DT)),
+                                getAttempts (sEntryID),
+                                aMetadata,
+                                aHttpHeaders,
+                                aUserMessage,
+                                aPMode,
+                                aPayloadNode,
+                                aAttachments,
+                                aState);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("PendingDir", m_aPendingDir)
+                                       .append ("FailedDir", m_aFailedDir)
+                                       .getToString ();
+  }
+}
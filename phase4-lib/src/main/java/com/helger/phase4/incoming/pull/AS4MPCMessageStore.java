@@ -0,0 +1,985 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.pull;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.w3c.dom.Document;
+
+import com.helger.annotation.Nonempty;
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.GuardedBy;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.concurrent.SimpleReadWriteLock;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.equals.EqualsHelper;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.base.state.EChange;
+import com.helger.base.string.StringHelper;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.CommonsHashMap;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.collection.commons.ICommonsMap;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.marshaller.AS4Marshallers;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * A persistent store for user messages that are waiting to be pulled, organized as one FIFO queue
+ * per MPC (Message Partition Channel). It is meant to be used on the server side of a PULL MEP:
+ * messages are enqueued by the application and each incoming PullRequest on an MPC dequeues the
+ * oldest message of that MPC. A dequeued message is handed out "in flight" and is only removed
+ * durably, when a Receipt referencing its message ID is received. If no Receipt is received within
+ * the redelivery timeout, the message is handed out again by one of the next PullRequests on the
+ * same MPC (at least once delivery).<br>
+ * All changes are appended to a single binary log file, so that enqueue, dequeue and acknowledge
+ * are O(1) and never rewrite existing data. Only the index (MPC, message ID and log offset) of the
+ * pending messages is kept in memory. When the head cache of an MPC runs empty, the serialized user
+ * messages of the next pending messages of that MPC are prefetched from the log file in one go, so
+ * that subsequent PullRequests don't need to access the file. Each dequeue returns a new user
+ * message instance that is not shared with the caller of enqueue. The log file is compacted
+ * automatically, when most of its content belongs to acknowledged messages.<br>
+ * The in flight state is not persisted. After a restart, all messages that were not acknowledged
+ * are pending again.<br>
+ * Call {@link #close()} when the instance is no longer needed.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4MPCMessageStore implements AutoCloseable
+{
+  /** The default time after which an unacknowledged message is handed out again */
+  public static final Duration DEFAULT_REDELIVERY_TIMEOUT = Duration.ofMinutes (5);
+  /** The default number of pending user messages per MPC that are prefetched from the log file */
+  public static final int DEFAULT_HEAD_CACHE_SIZE = 64;
+  /** The minimum log file size before an automatic compaction is considered */
+  public static final long COMPACTION_MIN_LOG_SIZE = 1024L * 1024L;
+
+  public static final String LOG_FILE_NAME = "mpcstore.mlog";
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4MPCMessageStore.class);
+
+  private static final byte RECORD_TYPE_ENQUEUE = 1;
+  private static final byte RECORD_TYPE_ACK = 2;
+
+  private enum EEntryState
+  {
+    PENDING,
+    IN_FLIGHT,
+    ACKNOWLEDGED;
+  }
+
+  /**
+   * A single stored message. Not thread-safe - the outer class takes care of locking.
+   *
+   * @author Philip Helger
+   */
+  private static final class MessageEntry
+  {
+    private final String m_sMPCID;
+    private final String m_sMessageID;
+    private long m_nOffset;
+    private final int m_nLength;
+    private EEntryState m_eState = EEntryState.PENDING;
+    // Only set for prefetched pending messages
+    private byte [] m_aCachedXML;
+    private long m_nRedeliveryTS;
+    // The party that the message was handed out to last
+    private String m_sPartyID;
+
+    private MessageEntry (@NonNull final String sMPCID,
+                          @NonNull final String sMessageID,
+                          final long nOffset,
+                          final int nLength)
+    {
+      m_sMPCID = sMPCID;
+      m_sMessageID = sMessageID;
+      m_nOffset = nOffset;
+      m_nLength = nLength;
+    }
+  }
+
+  /**
+   * The queues of a single MPC. Acknowledged entries are removed lazily when they reach the head of
+   * a queue. Not thread-safe - the outer class takes care of locking.
+   *
+   * @author Philip Helger
+   */
+  private static final class Partition
+  {
+    private final ArrayDeque <MessageEntry> m_aPending = new ArrayDeque <> ();
+    // Ordered by redelivery time, as the redelivery timeout is constant
+    private final ArrayDeque <MessageEntry> m_aInFlight = new ArrayDeque <> ();
+    private int m_nPendingCount;
+    private int m_nInFlightCount;
+    private int m_nCachedCount;
+
+    @Nullable
+    private MessageEntry pollExpiredInFlight (final long nNow)
+    {
+      MessageEntry aEntry;
+      while ((aEntry = m_aInFlight.peekFirst ()) != null)
+      {
+        if (aEntry.m_eState != EEntryState.IN_FLIGHT)
+        {
+          // Acknowledged in the meantime
+          m_aInFlight.pollFirst ();
+        }
+        else
+        {
+          if (aEntry.m_nRedeliveryTS > nNow)
+            return null;
+          return m_aInFlight.pollFirst ();
+        }
+      }
+      return null;
+    }
+
+    @Nullable
+    private MessageEntry pollPending ()
+    {
+      MessageEntry aEntry;
+      while ((aEntry = m_aPending.pollFirst ()) != null)
+        if (aEntry.m_eState == EEntryState.PENDING)
+          return aEntry;
+      return null;
+    }
+  }
+
+  private final File m_aDirectory;
+  private final File m_aLogFile;
+  private final long m_nRedeliveryMillis;
+  private final int m_nHeadCacheSize;
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private FileChannel m_aLogChannel;
+  @GuardedBy ("m_aRWLock")
+  private long m_nLogLength;
+  // The number of log bytes belonging to not acknowledged messages
+  @GuardedBy ("m_aRWLock")
+  private long m_nLiveLength;
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, MessageEntry> m_aEntries = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, Partition> m_aPartitions = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private boolean m_bClosed = false;
+
+  /**
+   * Constructor using the default settings.
+   *
+   * @param aDirectory
+   *        The directory to store the log file in. Is created if it does not exist. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         If the existing log file could not be opened
+   */
+  public AS4MPCMessageStore (@NonNull final File aDirectory) throws IOException
+  {
+    this (aDirectory, DEFAULT_REDELIVERY_TIMEOUT, DEFAULT_HEAD_CACHE_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to store the log file in. Is created if it does not exist. May not be
+   *        <code>null</code>.
+   * @param aRedeliveryTimeout
+   *        The time after which a dequeued but not acknowledged message is handed out again. May
+   *        not be <code>null</code>.
+   * @param nHeadCacheSize
+   *        The maximum number of pending user messages per MPC that are prefetched from the log
+   *        file and kept in memory. Must be &ge; 0. If it is 0, each message is read separately.
+   * @throws IOException
+   *         If the existing log file could not be opened
+   */
+  public AS4MPCMessageStore (@NonNull final File aDirectory,
+                             @NonNull final Duration aRedeliveryTimeout,
+                             @Nonnegative final int nHeadCacheSize) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.notNull (aRedeliveryTimeout, "RedeliveryTimeout");
+    ValueEnforcer.isGT0 (aRedeliveryTimeout.toMillis (), "RedeliveryTimeout.Millis");
+    ValueEnforcer.isGE0 (nHeadCacheSize, "HeadCacheSize");
+    m_aDirectory = aDirectory;
+    m_aLogFile = new File (aDirectory, LOG_FILE_NAME);
+    m_nRedeliveryMillis = aRedeliveryTimeout.toMillis ();
+    m_nHeadCacheSize = nHeadCacheSize;
+
+    if (!aDirectory.isDirectory () && !aDirectory.mkdirs ())
+      throw new IOException ("Failed to create MPC store directory " + aDirectory.getAbsolutePath ());
+    _openLog ();
+  }
+
+  /**
+   * @return The directory the log file is stored in. Never <code>null</code>.
+   */
+  @NonNull
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return The time after which a dequeued but not acknowledged message is handed out again.
+   *         Never <code>null</code>.
+   */
+  @NonNull
+  public final Duration getRedeliveryTimeout ()
+  {
+    return Duration.ofMillis (m_nRedeliveryMillis);
+  }
+
+  /**
+   * @return The maximum number of pending user messages per MPC that are prefetched from the log
+   *         file and kept in memory. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getHeadCacheSize ()
+  {
+    return m_nHeadCacheSize;
+  }
+
+  @NonNull
+  private static String _getEffectiveMPCID (@Nullable final String sMPCID)
+  {
+    return StringHelper.isEmpty (sMPCID) ? CAS4.DEFAULT_MPC_ID : sMPCID;
+  }
+
+  @NonNull
+  private Partition _getOrCreatePartition (@NonNull final String sMPCID)
+  {
+    return m_aPartitions.computeIfAbsent (sMPCID, k -> new Partition ());
+  }
+
+  private void _openLog () throws IOException
+  {
+    m_aLogChannel = FileChannel.open (m_aLogFile.toPath (),
+                                      StandardOpenOption.CREATE,
+                                      StandardOpenOption.READ,
+                                      StandardOpenOption.WRITE);
+    try
+    {
+      final long nLogSize = m_aLogChannel.size ();
+      long nOffset = 0;
+      while (nOffset + 4 <= nLogSize)
+      {
+        final int nRecordLen = _readInt (m_aLogChannel, nOffset);
+        if (nRecordLen <= 0 || nOffset + 4 + nRecordLen > nLogSize)
+          break;
+        try
+        {
+          _replayRecord (nOffset, nRecordLen);
+        }
+        catch (final IOException | RuntimeException ex)
+        {
+          // Corrupt record
+          break;
+        }
+        nOffset += 4 + nRecordLen;
+      }
+
+      if (nOffset < nLogSize)
+      {
+        LOGGER.warn ("Truncating MPC store log file " +
+                     m_aLogFile.getAbsolutePath () +
+                     " from " +
+                     nLogSize +
+                     " to " +
+                     nOffset +
+                     " bytes");
+        m_aLogChannel.truncate (nOffset);
+      }
+      m_nLogLength = nOffset;
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      StreamHelper.close (m_aLogChannel);
+      throw ex;
+    }
+
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Opened MPC store log file " +
+                   m_aLogFile.getAbsolutePath () +
+                   " with " +
+                   m_aEntries.size () +
+                   " pending message(s) in " +
+                   m_aPartitions.size () +
+                   " MPC(s)");
+  }
+
+  private void _replayRecord (final long nOffset, final int nRecordLen) throws IOException
+  {
+    final ByteBuffer aBuf = ByteBuffer.allocate (nRecordLen);
+    _readFully (m_aLogChannel, aBuf, nOffset + 4);
+    final byte nType = aBuf.get ();
+    switch (nType)
+    {
+      case RECORD_TYPE_ENQUEUE:
+      {
+        final String sMPCID = _getString (aBuf);
+        final String sMessageID = _getString (aBuf);
+        // Duplicate records are not written, but be lenient
+        if (!m_aEntries.containsKey (sMessageID))
+        {
+          final MessageEntry aEntry = new MessageEntry (sMPCID, sMessageID, nOffset, 4 + nRecordLen);
+          m_aEntries.put (sMessageID, aEntry);
+          final Partition aPartition = _getOrCreatePartition (sMPCID);
+          aPartition.m_aPending.addLast (aEntry);
+          aPartition.m_nPendingCount++;
+          m_nLiveLength += aEntry.m_nLength;
+        }
+        break;
+      }
+      case RECORD_TYPE_ACK:
+      {
+        final String sMessageID = _getString (aBuf);
+        final MessageEntry aEntry = m_aEntries.remove (sMessageID);
+        if (aEntry != null)
+        {
+          aEntry.m_eState = EEntryState.ACKNOWLEDGED;
+          m_aPartitions.get (aEntry.m_sMPCID).m_nPendingCount--;
+          m_nLiveLength -= aEntry.m_nLength;
+        }
+        break;
+      }
+      default:
+        throw new IOException ("Invalid MPC store record type " + nType + " at offset " + nOffset);
+    }
+  }
+
+  private void _checkNotClosed ()
+  {
+    if (m_bClosed)
+      throw new IllegalStateException ("This AS4MPCMessageStore was already closed");
+  }
+
+  /**
+   * Append the provided record to the log and make sure it is on disk.
+   *
+   * @return The offset of the record
+   */
+  private long _append (@NonNull final ByteBuffer aRecord) throws IOException
+  {
+    final long nOffset = m_nLogLength;
+    _writeFully (m_aLogChannel, aRecord, nOffset);
+    m_aLogChannel.force (false);
+    m_nLogLength = nOffset + aRecord.capacity ();
+    return nOffset;
+  }
+
+  /**
+   * Add a new user message to the end of the queue of the provided MPC. When this method returns,
+   * the message was durably stored.
+   *
+   * @param sMPCID
+   *        The ID of the MPC to add the message to. If it is <code>null</code> or empty, the
+   *        default MPC is used.
+   * @param aUserMessage
+   *        The user message to be pulled. Must have a message ID. May not be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the message was added, {@link EChange#UNCHANGED} if a
+   *         message with the same message ID is already contained.
+   * @throws IOException
+   *         If the message could not be written
+   */
+  @NonNull
+  public EChange enqueue (@Nullable final String sMPCID,
+                          @NonNull final Ebms3UserMessage aUserMessage) throws IOException
+  {
+    ValueEnforcer.notNull (aUserMessage, "UserMessage");
+    ValueEnforcer.notNull (aUserMessage.getMessageInfo (), "UserMessage.MessageInfo");
+    final String sMessageID = aUserMessage.getMessageInfo ().getMessageId ();
+    ValueEnforcer.notEmpty (sMessageID, "UserMessage.MessageInfo.MessageId");
+    final String sEffectiveMPCID = _getEffectiveMPCID (sMPCID);
+
+    // Serialize outside of the lock
+    final Document aDoc = AS4Marshallers.getEbms3UserMessageMarshaller ().getAsDocument (aUserMessage);
+    if (aDoc == null)
+      throw new IOException ("Failed to serialize user message '" + sMessageID + "'");
+    final ByteBuffer aRecord = _createEnqueueRecord (sEffectiveMPCID,
+                                                     sMessageID,
+                                                     AS4XMLHelper.serializeXMLToBytes (aDoc));
+
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      _checkNotClosed ();
+      if (m_aEntries.containsKey (sMessageID))
+        return EChange.UNCHANGED;
+
+      final long nOffset = _append (aRecord);
+      final MessageEntry aEntry = new MessageEntry (sEffectiveMPCID, sMessageID, nOffset, aRecord.capacity ());
+      final Partition aPartition = _getOrCreatePartition (sEffectiveMPCID);
+      m_aEntries.put (sMessageID, aEntry);
+      aPartition.m_aPending.addLast (aEntry);
+      aPartition.m_nPendingCount++;
+      m_nLiveLength += aEntry.m_nLength;
+      return EChange.CHANGED;
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * Get the next message of the provided MPC. Messages that were handed out before and were not
+   * acknowledged within the redelivery timeout are returned first, followed by the pending messages
+   * in the order they were enqueued. The returned message stays in the store until it is
+   * acknowledged via {@link #acknowledge(String)}.
+   *
+   * @param sMPCID
+   *        The ID of the MPC to get the message from. If it is <code>null</code> or empty, the
+   *        default MPC is used.
+   * @return <code>null</code> if no message is available for the MPC.
+   * @throws IOException
+   *         If the message could not be read
+   */
+  @Nullable
+  public Ebms3UserMessage dequeue (@Nullable final String sMPCID) throws IOException
+  {
+    return dequeue (sMPCID, null);
+  }
+
+  /**
+   * Get the next message of the provided MPC on behalf of the provided party. Messages that were
+   * handed out before and were not acknowledged within the redelivery timeout are returned first,
+   * followed by the pending messages in the order they were enqueued. The returned message stays in
+   * the store until it is acknowledged via {@link #acknowledge(String, String)} by the same party or
+   * via {@link #acknowledge(String)}.
+   *
+   * @param sMPCID
+   *        The ID of the MPC to get the message from. If it is <code>null</code> or empty, the
+   *        default MPC is used.
+   * @param sPartyID
+   *        The ID of the party the message is handed out to. May be <code>null</code>.
+   * @return <code>null</code> if no message is available for the MPC.
+   * @throws IOException
+   *         If the message could not be read
+   * @see IAS4PullRequestAuthorizer#getPartyID(com.helger.phase4.incoming.IAS4IncomingMessageState)
+   */
+  @Nullable
+  public Ebms3UserMessage dequeue (@Nullable final String sMPCID, @Nullable final String sPartyID) throws IOException
+  {
+    final String sEffectiveMPCID = _getEffectiveMPCID (sMPCID);
+    final long nNow = System.currentTimeMillis ();
+
+    final String sMessageID;
+    final byte [] aXML;
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      _checkNotClosed ();
+      final Partition aPartition = m_aPartitions.get (sEffectiveMPCID);
+      if (aPartition == null)
+        return null;
+
+      MessageEntry aEntry = aPartition.pollExpiredInFlight (nNow);
+      final boolean bRedelivery = aEntry != null;
+      if (bRedelivery)
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Redelivering message '" + aEntry.m_sMessageID + "' on MPC '" + sEffectiveMPCID + "'");
+      }
+      else
+      {
+        aEntry = aPartition.pollPending ();
+        if (aEntry == null)
+          return null;
+      }
+
+      // Read before changing the state, so that a failed read leaves the entry where it was
+      if (aEntry.m_aCachedXML != null)
+      {
+        // Release the cache slot - a redelivery reads from the log
+        aXML = aEntry.m_aCachedXML;
+        aEntry.m_aCachedXML = null;
+        aPartition.m_nCachedCount--;
+      }
+      else
+        try
+        {
+          aXML = _readUserMessageXML (aEntry);
+        }
+        catch (final IOException ex)
+        {
+          if (bRedelivery)
+            aPartition.m_aInFlight.addFirst (aEntry);
+          else
+            aPartition.m_aPending.addFirst (aEntry);
+          throw ex;
+        }
+      sMessageID = aEntry.m_sMessageID;
+
+      if (!bRedelivery)
+      {
+        aEntry.m_eState = EEntryState.IN_FLIGHT;
+        aPartition.m_nPendingCount--;
+        aPartition.m_nInFlightCount++;
+      }
+
+      aEntry.m_nRedeliveryTS = nNow + m_nRedeliveryMillis;
+      aEntry.m_sPartyID = sPartyID;
+      aPartition.m_aInFlight.addLast (aEntry);
+
+      if (aPartition.m_nCachedCount == 0)
+        _prefetch (aPartition);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+
+    // Parse outside of the lock - each call creates a new instance
+    return _parseUserMessage (sMessageID, aXML);
+  }
+
+  /**
+   * Read the serialized user messages of the next pending messages of the provided partition from
+   * the log file, until the head cache is full.
+   */
+  @GuardedBy ("m_aRWLock")
+  private void _prefetch (@NonNull final Partition aPartition)
+  {
+    try
+    {
+      for (final MessageEntry aEntry : aPartition.m_aPending)
+      {
+        if (aPartition.m_nCachedCount >= m_nHeadCacheSize)
+          break;
+        if (aEntry.m_eState == EEntryState.PENDING && aEntry.m_aCachedXML == null)
+        {
+          aEntry.m_aCachedXML = _readUserMessageXML (aEntry);
+          aPartition.m_nCachedCount++;
+        }
+      }
+    }
+    catch (final IOException ex)
+    {
+      // Not critical - the messages are read again when they are dequeued
+      LOGGER.warn ("Failed to prefetch messages from MPC store log file " + m_aLogFile.getAbsolutePath (), ex);
+    }
+  }
+
+  /**
+   * Acknowledge the message with the provided ID, usually because a Receipt for it was received.
+   * The message is durably removed from the store.
+   *
+   * @param sMessageID
+   *        The ID of the message to acknowledge. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the message was contained and was acknowledged,
+   *         {@link EChange#UNCHANGED} otherwise.
+   * @throws IOException
+   *         If the acknowledgement could not be written
+   */
+  @NonNull
+  public EChange acknowledge (@Nullable final String sMessageID) throws IOException
+  {
+    return _acknowledge (sMessageID, false, null);
+  }
+
+  /**
+   * Acknowledge the message with the provided ID on behalf of the provided party, usually because a
+   * Receipt for it was received. The message is only acknowledged, if it was handed out and the
+   * party is the one it was handed out to last. The message is durably removed from the store.
+   *
+   * @param sMessageID
+   *        The ID of the message to acknowledge. May be <code>null</code>.
+   * @param sPartyID
+   *        The ID of the acknowledging party. May be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the message was contained, was handed out to the party and
+   *         was acknowledged, {@link EChange#UNCHANGED} otherwise.
+   * @throws IOException
+   *         If the acknowledgement could not be written
+   * @see #dequeue(String, String)
+   */
+  @NonNull
+  public EChange acknowledge (@Nullable final String sMessageID, @Nullable final String sPartyID) throws IOException
+  {
+    return _acknowledge (sMessageID, true, sPartyID);
+  }
+
+  @NonNull
+  private EChange _acknowledge (@Nullable final String sMessageID,
+                                final boolean bCheckParty,
+                                @Nullable final String sPartyID) throws IOException
+  {
+    if (StringHelper.isEmpty (sMessageID))
+      return EChange.UNCHANGED;
+
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      _checkNotClosed ();
+      final MessageEntry aEntry = m_aEntries.get (sMessageID);
+      if (aEntry == null)
+        return EChange.UNCHANGED;
+
+      if (bCheckParty &&
+          (aEntry.m_eState != EEntryState.IN_FLIGHT || !EqualsHelper.equals (aEntry.m_sPartyID, sPartyID)))
+      {
+        LOGGER.warn ("Ignoring the acknowledgement of message '" +
+                     sMessageID +
+                     "' by party '" +
+                     sPartyID +
+                     "', because it was not handed out to that party");
+        return EChange.UNCHANGED;
+      }
+
+      _append (_createAckRecord (sMessageID));
+      m_aEntries.remove (sMessageID);
+
+      // The entry is removed lazily from the queues
+      final Partition aPartition = m_aPartitions.get (aEntry.m_sMPCID);
+      if (aEntry.m_eState == EEntryState.IN_FLIGHT)
+        aPartition.m_nInFlightCount--;
+      else
+        aPartition.m_nPendingCount--;
+      if (aEntry.m_aCachedXML != null)
+      {
+        aEntry.m_aCachedXML = null;
+        aPartition.m_nCachedCount--;
+      }
+      aEntry.m_eState = EEntryState.ACKNOWLEDGED;
+      m_nLiveLength -= aEntry.m_nLength;
+
+      if (m_nLogLength >= COMPACTION_MIN_LOG_SIZE && m_nLiveLength * 2 < m_nLogLength)
+        try
+        {
+          _compact ();
+        }
+        catch (final IOException ex)
+        {
+          // The acknowledgement itself is persisted - retry with the next one
+          LOGGER.warn ("Failed to compact MPC store log file " + m_aLogFile.getAbsolutePath (), ex);
+        }
+      return EChange.CHANGED;
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * Rewrite the log file so that it only contains the messages that were not acknowledged. This
+   * happens automatically when most of the log file belongs to acknowledged messages, so usually
+   * there is no need to call this method manually.
+   *
+   * @throws IOException
+   *         If the log file could not be rewritten
+   */
+  public void compact () throws IOException
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      _checkNotClosed ();
+      _compact ();
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _compact () throws IOException
+  {
+    // In flight messages were enqueued before all pending messages
+    final ICommonsList <MessageEntry> aLiveEntries = new CommonsArrayList <> (m_aEntries.size ());
+    for (final Partition aPartition : m_aPartitions.values ())
+    {
+      aPartition.m_aInFlight.removeIf (x -> x.m_eState == EEntryState.ACKNOWLEDGED);
+      aPartition.m_aPending.removeIf (x -> x.m_eState == EEntryState.ACKNOWLEDGED);
+      aLiveEntries.addAll (aPartition.m_aInFlight);
+      aLiveEntries.addAll (aPartition.m_aPending);
+    }
+    m_aPartitions.values ().removeIf (x -> x.m_aInFlight.isEmpty () && x.m_aPending.isEmpty ());
+
+    // Copy all live records unmodified into a new file
+    final long nOldLogLength = m_nLogLength;
+    final File aTmpFile = new File (m_aDirectory, LOG_FILE_NAME + ".tmp");
+    final long [] aNewOffsets = new long [aLiveEntries.size ()];
+    long nNewLength = 0;
+    try (final FileChannel aTmpChannel = FileChannel.open (aTmpFile.toPath (),
+                                                           StandardOpenOption.CREATE,
+                                                           StandardOpenOption.TRUNCATE_EXISTING,
+                                                           StandardOpenOption.WRITE))
+    {
+      for (int i = 0; i < aNewOffsets.length; ++i)
+      {
+        final MessageEntry aEntry = aLiveEntries.get (i);
+        final ByteBuffer aRecord = ByteBuffer.allocate (aEntry.m_nLength);
+        _readFully (m_aLogChannel, aRecord, aEntry.m_nOffset);
+        _writeFully (aTmpChannel, aRecord, nNewLength);
+        aNewOffsets[i] = nNewLength;
+        nNewLength += aEntry.m_nLength;
+      }
+      aTmpChannel.force (true);
+    }
+
+    StreamHelper.close (m_aLogChannel);
+    try
+    {
+      try
+      {
+        Files.move (aTmpFile.toPath (),
+                    m_aLogFile.toPath (),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (final AtomicMoveNotSupportedException ex)
+      {
+        Files.move (aTmpFile.toPath (), m_aLogFile.toPath (), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    finally
+    {
+      // Either the old or the new log file
+      m_aLogChannel = FileChannel.open (m_aLogFile.toPath (), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    for (int i = 0; i < aNewOffsets.length; ++i)
+      aLiveEntries.get (i).m_nOffset = aNewOffsets[i];
+    m_nLogLength = nNewLength;
+    m_nLiveLength = nNewLength;
+
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Compacted MPC store log file " +
+                   m_aLogFile.getAbsolutePath () +
+                   " from " +
+                   nOldLogLength +
+                   " to " +
+                   nNewLength +
+                   " bytes");
+  }
+
+  private byte @NonNull [] _readUserMessageXML (@NonNull final MessageEntry aEntry) throws IOException
+  {
+    final ByteBuffer aBuf = ByteBuffer.allocate (aEntry.m_nLength - 4);
+    _readFully (m_aLogChannel, aBuf, aEntry.m_nOffset + 4);
+    // Skip type, MPC ID and message ID
+    aBuf.get ();
+    _getString (aBuf);
+    _getString (aBuf);
+    final byte [] ret = new byte [aBuf.getInt ()];
+    aBuf.get (ret);
+    return ret;
+  }
+
+  @NonNull
+  private static Ebms3UserMessage _parseUserMessage (@NonNull final String sMessageID,
+                                                     final byte @NonNull [] aXML) throws IOException
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new NonBlockingByteArrayInputStream (aXML));
+    final Ebms3UserMessage ret = aDoc == null ? null : AS4Marshallers.getEbms3UserMessageMarshaller ().read (aDoc);
+    if (ret == null)
+      throw new IOException ("Failed to read user message '" + sMessageID + "' from the MPC store");
+    return ret;
+  }
+
+  /**
+   * @param sMPCID
+   *        The ID of the MPC to check. If it is <code>null</code> or empty, the default MPC is
+   *        used.
+   * @return The number of messages of the MPC, that were not yet handed out. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getPendingCount (@Nullable final String sMPCID)
+  {
+    final String sEffectiveMPCID = _getEffectiveMPCID (sMPCID);
+    return m_aRWLock.readLockedInt ( () -> {
+      final Partition aPartition = m_aPartitions.get (sEffectiveMPCID);
+      return aPartition == null ? 0 : aPartition.m_nPendingCount;
+    });
+  }
+
+  /**
+   * @param sMPCID
+   *        The ID of the MPC to check. If it is <code>null</code> or empty, the default MPC is
+   *        used.
+   * @return The number of messages of the MPC, that were handed out but not yet acknowledged.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public int getInFlightCount (@Nullable final String sMPCID)
+  {
+    final String sEffectiveMPCID = _getEffectiveMPCID (sMPCID);
+    return m_aRWLock.readLockedInt ( () -> {
+      final Partition aPartition = m_aPartitions.get (sEffectiveMPCID);
+      return aPartition == null ? 0 : aPartition.m_nInFlightCount;
+    });
+  }
+
+  /**
+   * @return The total number of messages in all MPCs that were not yet acknowledged. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aRWLock.readLockedInt (m_aEntries::size);
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aRWLock.readLockedBoolean (m_aEntries::isEmpty);
+  }
+
+  /**
+   * @return The current size of the log file in bytes. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getLogFileSize ()
+  {
+    return m_aRWLock.readLockedLong ( () -> m_nLogLength);
+  }
+
+  /**
+   * Flush and close the log file. After this method was called, the store can no longer be used.
+   * Calling this method more than once has no effect.
+   */
+  public void close ()
+  {
+    m_aRWLock.writeLocked ( () -> {
+      if (!m_bClosed)
+      {
+        m_bClosed = true;
+        try
+        {
+          m_aLogChannel.force (false);
+        }
+        catch (final IOException | RuntimeException ex)
+        {
+          LOGGER.warn ("Failed to flush MPC store log file " + m_aLogFile.getAbsolutePath (), ex);
+        }
+        StreamHelper.close (m_aLogChannel);
+        m_aEntries.clear ();
+        m_aPartitions.clear ();
+      }
+    });
+  }
+
+  private static void _writeFully (@NonNull final FileChannel aChannel,
+                                   @NonNull final ByteBuffer aBuffer,
+                                   final long nPosition) throws IOException
+  {
+    long nPos = nPosition;
+    while (aBuffer.hasRemaining ())
+      nPos += aChannel.write (aBuffer, nPos);
+  }
+
+  private static void _readFully (@NonNull final FileChannel aChannel,
+                                  @NonNull final ByteBuffer aBuffer,
+                                  final long nPosition) throws IOException
+  {
+    long nPos = nPosition;
+    while (aBuffer.hasRemaining ())
+    {
+      final int nRead = aChannel.read (aBuffer, nPos);
+      if (nRead < 0)
+        throw new EOFException ("Unexpected end of file at position " + nPos);
+      nPos += nRead;
+    }
+    aBuffer.flip ();
+  }
+
+  private static int _readInt (@NonNull final FileChannel aChannel, final long nPosition) throws IOException
+  {
+    final ByteBuffer aBuf = ByteBuffer.allocate (4);
+    _readFully (aChannel, aBuf, nPosition);
+    return aBuf.getInt ();
+  }
+
+  @NonNull
+  private static String _getString (@NonNull final ByteBuffer aBuf)
+  {
+    final byte [] aBytes = new byte [aBuf.getInt ()];
+    aBuf.get (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Record layout: int record length (excluding this field), byte type 1, MPC ID, message ID, user
+   * message XML. Each field is encoded as int length followed by the bytes (UTF-8 for strings).
+   */
+  @NonNull
+  private static ByteBuffer _createEnqueueRecord (@NonNull @Nonempty final String sMPCID,
+                                                  @NonNull @Nonempty final String sMessageID,
+                                                  final byte @NonNull [] aXML)
+  {
+    final byte [] aMPCID = sMPCID.getBytes (StandardCharsets.UTF_8);
+    final byte [] aMessageID = sMessageID.getBytes (StandardCharsets.UTF_8);
+    final int nRecordLen = 1 + 4 + aMPCID.length + 4 + aMessageID.length + 4 + aXML.length;
+    final ByteBuffer ret = ByteBuffer.allocate (4 + nRecordLen);
+    ret.putInt (nRecordLen);
+    ret.put (RECORD_TYPE_ENQUEUE);
+    ret.putInt (aMPCID.length).put (aMPCID);
+    ret.putInt (aMessageID.length).put (aMessageID);
+    ret.putInt (aXML.length).put (aXML);
+    ret.flip ();
+    return ret;
+  }
+
+  /**
+   * Record layout: int record length (excluding this field), byte type 2, message ID encoded as int
+   * length followed by the UTF-8 bytes.
+   */
+  @NonNull
+  private static ByteBuffer _createAckRecord (@NonNull @Nonempty final String sMessageID)
+  {
+    final byte [] aMessageID = sMessageID.getBytes (StandardCharsets.UTF_8);
+    final int nRecordLen = 1 + 4 + aMessageID.length;
+    final ByteBuffer ret = ByteBuffer.allocate (4 + nRecordLen);
+    ret.putInt (nRecordLen);
+    ret.put (RECORD_TYPE_ACK);
+    ret.putInt (aMessageID.length).put (aMessageID);
+    ret.flip ();
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Directory", m_aDirectory)
+                                       .append ("RedeliveryMillis", m_nRedeliveryMillis)
+                                       .append ("HeadCacheSize", m_nHeadCacheSize)
+                                       .getToString ();
+  }
+}
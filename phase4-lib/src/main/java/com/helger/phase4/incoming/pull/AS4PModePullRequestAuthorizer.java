@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.pull;
+
+import java.security.cert.X509Certificate;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.base.equals.EqualsHelper;
+import com.helger.base.string.StringHelper;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.incoming.IAS4IncomingMessageState;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+
+/**
+ * The default implementation of {@link IAS4PullRequestAuthorizer}. A PullRequest is allowed, if
+ * the PMode resolved for it uses a pulling MEP binding and one of its legs is bound to the
+ * requested MPC. The party is identified by the subject of the certificate the incoming message
+ * was signed with, so unsigned messages share the <code>null</code> party ID.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+public class AS4PModePullRequestAuthorizer implements IAS4PullRequestAuthorizer
+{
+  @Nullable
+  public String getPartyID (@NonNull final IAS4IncomingMessageState aIncomingState)
+  {
+    final X509Certificate aCert = aIncomingState.getSigningCertificate ();
+    return aCert == null ? null : aCert.getSubjectX500Principal ().getName ();
+  }
+
+  private static boolean _isLegForMPC (@Nullable final PModeLeg aLeg, @NonNull final String sMPCID)
+  {
+    if (aLeg == null)
+      return false;
+    final String sLegMPCID = aLeg.getBusinessInfo () == null ? null : aLeg.getBusinessInfo ().getMPCID ();
+    return EqualsHelper.equals (StringHelper.isEmpty (sLegMPCID) ? CAS4.DEFAULT_MPC_ID : sLegMPCID, sMPCID);
+  }
+
+  public boolean isPullAllowed (@NonNull final String sMPCID,
+                                @Nullable final String sPartyID,
+                                @NonNull final IAS4IncomingMessageState aIncomingState)
+  {
+    final IPMode aPMode = aIncomingState.getPMode ();
+    if (aPMode == null)
+      return false;
+
+    final EMEPBinding eMEPBinding = aPMode.getMEPBinding ();
+    if (eMEPBinding != EMEPBinding.PULL && eMEPBinding != EMEPBinding.PUSH_PULL && eMEPBinding != EMEPBinding.PULL_PUSH)
+      return false;
+
+    return _isLegForMPC (aPMode.getLeg1 (), sMPCID) || _isLegForMPC (aPMode.getLeg2 (), sMPCID);
+  }
+}
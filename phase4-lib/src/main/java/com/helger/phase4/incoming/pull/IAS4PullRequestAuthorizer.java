@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.pull;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.phase4.incoming.IAS4IncomingMessageState;
+
+/**
+ * Callback interface to decide which party may pull messages from which MPC of an
+ * {@link AS4MPCMessageStore}. The party that pulled a message is the only one that may acknowledge
+ * it with a Receipt.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+public interface IAS4PullRequestAuthorizer
+{
+  /** The default instance that checks the MPC against the PMode of the PullRequest */
+  IAS4PullRequestAuthorizer DEFAULT_INSTANCE = new AS4PModePullRequestAuthorizer ();
+
+  /**
+   * Get the ID of the party that sent an incoming PullRequest or Receipt. It is remembered for each
+   * pulled message and a Receipt is only accepted if the ID of its sender is equal to the ID of the
+   * party that pulled the message.
+   *
+   * @param aIncomingState
+   *        The message state of processing. Never <code>null</code>.
+   * @return The party ID or <code>null</code> if the sender is not known.
+   */
+  @Nullable
+  String getPartyID (@NonNull IAS4IncomingMessageState aIncomingState);
+
+  /**
+   * Check if an incoming PullRequest is allowed to pull from the provided MPC.
+   *
+   * @param sMPCID
+   *        The ID of the MPC to pull from. Never <code>null</code>.
+   * @param sPartyID
+   *        The party ID as returned by {@link #getPartyID(IAS4IncomingMessageState)}. May be
+   *        <code>null</code>.
+   * @param aIncomingState
+   *        The message state of processing. Never <code>null</code>.
+   * @return <code>true</code> if the PullRequest may be served, <code>false</code> if it must be
+   *         rejected.
+   */
+  boolean isPullAllowed (@NonNull String sMPCID,
+                         @Nullable String sPartyID,
+                         @NonNull IAS4IncomingMessageState aIncomingState);
+}
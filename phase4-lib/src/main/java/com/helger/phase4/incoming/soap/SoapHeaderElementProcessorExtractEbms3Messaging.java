@@ -42,6 +42,7 @@ import com.helger.diagnostics.error.IError;
 import com.helger.diagnostics.error.list.ErrorList;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.ebms3header.Ebms3CollaborationInfo;
 import com.helger.phase4.ebms3header.Ebms3Error;
 import com.helger.phase4.ebms3header.Ebms3MessageInfo;
@@ -232,8 +233,10 @@ public class SoapHeaderElementProcessorExtractEbms3Messaging implements ISoapHea
     final Locale aLocale = aIncomingState.getLocale ();
 
     // Parse EBMS3 Messaging object
+    // A new marshaller is needed, because the errors are collected per message
     final ErrorList aErrorList = new ErrorList ();
-    final Ebms3Messaging aJaxbMessaging = new Ebms3MessagingMarshaller ().setCollectErrors (aErrorList).read (aElement);
+    final Ebms3MessagingMarshaller aMarshaller = new Ebms3MessagingMarshaller (AS4Configuration.isMarshallerInboundValidate ());
+    final Ebms3Messaging aJaxbMessaging = aMarshaller.setCollectErrors (aErrorList).read (aElement);
 
     // If the ebms3reader above fails aMessaging will be null => invalid/not
     // wellformed
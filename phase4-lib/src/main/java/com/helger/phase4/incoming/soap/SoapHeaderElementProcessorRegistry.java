@@ -17,6 +17,10 @@
 package com.helger.phase4.incoming.soap;
 
 import java.security.Provider;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -26,10 +30,13 @@ import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
 
-import com.helger.annotation.concurrent.NotThreadSafe;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.annotation.style.ReturnsImmutableObject;
 import com.helger.annotation.style.ReturnsMutableCopy;
 import com.helger.base.enforce.ValueEnforcer;
 import com.helger.base.equals.EqualsHelper;
+import com.helger.base.hashcode.HashCodeGenerator;
 import com.helger.collection.commons.CommonsLinkedHashMap;
 import com.helger.collection.commons.ICommonsOrderedMap;
 import com.helger.phase4.crypto.AS4SigningParams;
@@ -45,28 +52,115 @@ import com.helger.phase4.model.pmode.resolve.IAS4PModeResolver;
 /**
  * This class manages the SOAP header element processors. This is used to validate the "must
  * understand" SOAP requirement. It manages all instances of {@link ISoapHeaderElementProcessor}.
+ * <br>
+ * The registry is thread-safe: registering a processor replaces the internal map with an updated
+ * copy, so that lookups never need to lock. Registrations are rare and happen during setup only.
+ * <br>
+ * A registry can be frozen via {@link #freeze()}. Afterwards no more processors can be registered,
+ * so that the content of a shared instance can no longer change. Use
+ * {@link #getOrCreateDefault(IAS4PModeResolver, IAS4CryptoFactory, IAS4CryptoFactory, IPMode, IAS4IncomingSecurityConfiguration, IAS4IncomingReceiverConfiguration)}
+ * to reuse a frozen default registry instead of creating a new one for every message.
  *
  * @author Philip Helger
  * @author Gregor Scholtysik
  */
-@NotThreadSafe
+@ThreadSafe
 public class SoapHeaderElementProcessorRegistry
 {
+  /**
+   * The key for the cached default registries. All elements are compared by identity, as this is
+   * what the created processors reference.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  private static final class DefaultKey
+  {
+    private final Object [] m_aElements;
+    private final int m_nHashCode;
+
+    DefaultKey (@NonNull final Object... aElements)
+    {
+      m_aElements = aElements;
+      final HashCodeGenerator aHCG = new HashCodeGenerator (this);
+      for (final Object aElement : aElements)
+        aHCG.append (System.identityHashCode (aElement));
+      m_nHashCode = aHCG.getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final DefaultKey rhs = (DefaultKey) o;
+      if (m_aElements.length != rhs.m_aElements.length)
+        return false;
+      for (int i = 0; i < m_aElements.length; ++i)
+        if (m_aElements[i] != rhs.m_aElements[i])
+          return false;
+      return true;
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+  }
+
+  /** The maximum number of cached default registries */
+  public static final int MAX_CACHED_DEFAULT_REGISTRIES = 256;
+
   private static final Logger LOGGER = Phase4LoggerFactory.getLogger (SoapHeaderElementProcessorRegistry.class);
-  private final ICommonsOrderedMap <QName, ISoapHeaderElementProcessor> m_aMap = new CommonsLinkedHashMap <> ();
+  private static final Map <DefaultKey, SoapHeaderElementProcessorRegistry> DEFAULT_CACHE = new ConcurrentHashMap <> ();
+
+  // Never modified after publication - replaced on registration
+  private volatile ICommonsOrderedMap <QName, ISoapHeaderElementProcessor> m_aMap = new CommonsLinkedHashMap <> ();
+  private volatile Map <QName, ISoapHeaderElementProcessor> m_aMapView = Collections.unmodifiableMap (m_aMap);
+  private volatile boolean m_bFrozen = false;
 
   public SoapHeaderElementProcessorRegistry ()
   {}
 
-  public void registerHeaderElementProcessor (@NonNull final QName aQName,
-                                              @NonNull final ISoapHeaderElementProcessor aProcessor)
+  /**
+   * Freeze this registry. Afterwards no further processors can be registered.
+   *
+   * @return this for chaining
+   * @since 4.5.5
+   */
+  @NonNull
+  public final synchronized SoapHeaderElementProcessorRegistry freeze ()
+  {
+    m_bFrozen = true;
+    return this;
+  }
+
+  /**
+   * @return <code>true</code> if this registry is frozen, <code>false</code> if not.
+   * @since 4.5.5
+   */
+  public final boolean isFrozen ()
+  {
+    return m_bFrozen;
+  }
+
+  public synchronized void registerHeaderElementProcessor (@NonNull final QName aQName,
+                                                           @NonNull final ISoapHeaderElementProcessor aProcessor)
   {
     ValueEnforcer.notNull (aQName, "QName");
     ValueEnforcer.notNull (aProcessor, "Processor");
+    if (m_bFrozen)
+      throw new IllegalStateException ("This registry is frozen and cannot be modified");
 
     if (m_aMap.containsKey (aQName))
       throw new IllegalArgumentException ("A processor for QName " + aQName.toString () + " is already registered!");
-    m_aMap.put (aQName, aProcessor);
+    final ICommonsOrderedMap <QName, ISoapHeaderElementProcessor> aNewMap = m_aMap.getClone ();
+    aNewMap.put (aQName, aProcessor);
+    m_aMap = aNewMap;
+    m_aMapView = Collections.unmodifiableMap (aNewMap);
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Successfully registered SOAP header element processor for " + aQName.toString ());
@@ -92,6 +186,20 @@ public class SoapHeaderElementProcessorRegistry
     return m_aMap.getClone ();
   }
 
+  /**
+   * Get all registered processors without copying them. For frozen registries, this is the
+   * preferred way to iterate all processors on the hot path.
+   *
+   * @return An unmodifiable view on all processors in registration order. Never <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  @ReturnsImmutableObject
+  public Map <QName, ISoapHeaderElementProcessor> getAllElementProcessorsView ()
+  {
+    return m_aMapView;
+  }
+
   @NonNull
   public static SoapHeaderElementProcessorRegistry createDefault (@NonNull final IAS4PModeResolver aPModeResolver,
                                                                   @NonNull final IAS4CryptoFactory aCryptoFactorySign,
@@ -137,4 +245,74 @@ public class SoapHeaderElementProcessorRegistry
                                                                              aSigningParams));
     return ret;
   }
+
+  /**
+   * Get a frozen default registry for the provided parameters. The registry is created via
+   * {@link #createDefault(IAS4PModeResolver, IAS4CryptoFactory, IAS4CryptoFactory, IPMode, IAS4IncomingSecurityConfiguration, IAS4IncomingReceiverConfiguration)}
+   * only once and cached afterwards, as the contained processors don't hold any per message state.
+   * The cache key consists of the identity of all objects referenced by the processors, so a
+   * changed security configuration leads to a new registry. The number of cached registries is
+   * limited - if the limit is reached, an arbitrary entry is evicted.<br>
+   * Therefore only long-living objects should be passed in. Especially a fallback PMode that is
+   * created per message would create a new registry per message and evict the shared ones - use
+   * {@link #createDefault(IAS4PModeResolver, IAS4CryptoFactory, IAS4CryptoFactory, IPMode, IAS4IncomingSecurityConfiguration, IAS4IncomingReceiverConfiguration)}
+   * in that case.
+   *
+   * @param aPModeResolver
+   *        PMode resolver. May not be <code>null</code>.
+   * @param aCryptoFactorySign
+   *        Signing crypto factory. May not be <code>null</code>.
+   * @param aCryptoFactoryCrypt
+   *        Crypting crypto factory. May not be <code>null</code>.
+   * @param aFallbackPMode
+   *        Fallback PMode. May be <code>null</code>.
+   * @param aIncomingSecurityConfiguration
+   *        Incoming security configuration. May not be <code>null</code>.
+   * @param aIncomingReceiverConfiguration
+   *        Incoming receiver configuration. May not be <code>null</code>.
+   * @return The frozen registry and never <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  public static SoapHeaderElementProcessorRegistry getOrCreateDefault (@NonNull final IAS4PModeResolver aPModeResolver,
+                                                                       @NonNull final IAS4CryptoFactory aCryptoFactorySign,
+                                                                       @NonNull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                                                       @Nullable final IPMode aFallbackPMode,
+                                                                       @NonNull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
+                                                                       @NonNull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration)
+  {
+    // Only the parts of the security configuration that are referenced are part of the key
+    final AS4SigningParams aSigningParams = aIncomingSecurityConfiguration.getSigningParams ();
+    final DefaultKey aKey = new DefaultKey (aPModeResolver,
+                                            aCryptoFactorySign,
+                                            aCryptoFactoryCrypt,
+                                            aFallbackPMode,
+                                            aSigningParams,
+                                            aIncomingSecurityConfiguration.getDecryptParameterModifier (),
+                                            aIncomingReceiverConfiguration);
+    SoapHeaderElementProcessorRegistry ret = DEFAULT_CACHE.get (aKey);
+    if (ret == null)
+    {
+      ret = createDefault (aPModeResolver,
+                           aCryptoFactorySign,
+                           aCryptoFactoryCrypt,
+                           aFallbackPMode,
+                           aIncomingSecurityConfiguration,
+                           aIncomingReceiverConfiguration).freeze ();
+      if (DEFAULT_CACHE.size () >= MAX_CACHED_DEFAULT_REGISTRIES)
+      {
+        // Evict an arbitrary entry
+        final Iterator <DefaultKey> it = DEFAULT_CACHE.keySet ().iterator ();
+        if (it.hasNext ())
+        {
+          it.next ();
+          it.remove ();
+        }
+      }
+      final SoapHeaderElementProcessorRegistry aOld = DEFAULT_CACHE.putIfAbsent (aKey, ret);
+      if (aOld != null)
+        ret = aOld;
+    }
+    return ret;
+  }
 }
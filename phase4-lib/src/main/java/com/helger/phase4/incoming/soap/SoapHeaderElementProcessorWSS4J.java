@@ -16,7 +16,6 @@
  */
 package com.helger.phase4.incoming.soap;
 
-import java.io.File;
 import java.io.IOException;
 import java.security.Provider;
 import java.security.cert.X509Certificate;
@@ -24,6 +23,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
@@ -46,13 +47,11 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import com.helger.base.enforce.ValueEnforcer;
-import com.helger.base.io.stream.HasInputStream;
 import com.helger.base.io.stream.StreamHelper;
 import com.helger.base.state.ESuccess;
 import com.helger.base.string.StringHelper;
 import com.helger.collection.commons.CommonsArrayList;
 import com.helger.collection.commons.ICommonsList;
-import com.helger.io.file.FileHelper;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.attachment.WSS4JAttachmentCallbackHandler;
@@ -70,6 +69,8 @@ import com.helger.phase4.logging.Phase4LoggerFactory;
 import com.helger.phase4.model.error.EEbmsError;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegSecurity;
+import com.helger.phase4.spool.IAS4SpoolEntry;
 import com.helger.phase4.wss.WSSConfigManager;
 import com.helger.phase4.wss.WSSSynchronizer;
 import com.helger.xml.XMLHelper;
@@ -86,6 +87,8 @@ public class SoapHeaderElementProcessorWSS4J implements ISoapHeaderElementProces
   public static final QName QNAME_SECURITY = new QName ("http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd",
                                                         "Security");
   private static final Logger LOGGER = Phase4LoggerFactory.getLogger (SoapHeaderElementProcessorWSS4J.class);
+  // The algorithm suites are only read by WSS4J and can therefore be shared
+  private static final Map <String, AlgorithmSuite> ALGORITHM_SUITES = new ConcurrentHashMap <> ();
 
   private final IAS4CryptoFactory m_aCryptoFactorySign;
   private final IAS4CryptoFactory m_aCryptoFactoryCrypt;
@@ -112,6 +115,18 @@ public class SoapHeaderElementProcessorWSS4J implements ISoapHeaderElementProces
     m_aSigningParams = aSigningParams;
   }
 
+  @NonNull
+  private static AlgorithmSuite _createAlgorithmSuite (@Nullable final String sEncryptionAlgorithmURI,
+                                                       @Nullable final String sSignatureAlgorithmURI)
+  {
+    final AlgorithmSuite ret = new AlgorithmSuite ();
+    if (sEncryptionAlgorithmURI != null)
+      ret.addEncryptionMethod (sEncryptionAlgorithmURI);
+    if (sSignatureAlgorithmURI != null)
+      ret.addSignatureMethod (sSignatureAlgorithmURI);
+    return ret;
+  }
+
   @NonNull
   private ESuccess _verifyAndDecrypt (@NonNull final Document aSOAPDoc,
                                       @NonNull final ICommonsList <WSS4JAttachment> aAttachments,
@@ -162,33 +177,38 @@ public class SoapHeaderElementProcessorWSS4J implements ISoapHeaderElementProces
       final PModeLeg aPModeLeg = aIncomingState.getEffectivePModeLeg ();
       if (aPModeLeg != null && aPModeLeg.hasSecurity ())
       {
-        final AlgorithmSuite aAlgorithmSuite = new AlgorithmSuite ();
-        boolean bUseAlgorithmSuite = false;
+        final PModeLegSecurity aSecurity = aPModeLeg.getSecurity ();
 
         // Does the PMode leg define an encryption algorithm?
-        if (aPModeLeg.getSecurity ().getX509EncryptionAlgorithm () != null)
-        {
-          final String sAlgorithmURI = aPModeLeg.getSecurity ().getX509EncryptionAlgorithm ().getAlgorithmURI ();
-          if (LOGGER.isDebugEnabled ())
-            LOGGER.debug ("Testing that the received message was encrypted with algorithm '" + sAlgorithmURI + "'");
-
-          aAlgorithmSuite.addEncryptionMethod (sAlgorithmURI);
-          bUseAlgorithmSuite = true;
-        }
+        final String sEncryptionAlgorithmURI = aSecurity.getX509EncryptionAlgorithm () == null ? null
+                                                                                               : aSecurity.getX509EncryptionAlgorithm ()
+                                                                                                          .getAlgorithmURI ();
+        if (sEncryptionAlgorithmURI != null && LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Testing that the received message was encrypted with algorithm '" +
+                        sEncryptionAlgorithmURI +
+                        "'");
 
         // Does the PMode leg define an signing algorithm?
-        if (aPModeLeg.getSecurity ().getX509SignatureAlgorithm () != null)
-        {
-          final String sAlgorithmURI = aPModeLeg.getSecurity ().getX509SignatureAlgorithm ().getAlgorithmURI ();
-          if (LOGGER.isDebugEnabled ())
-            LOGGER.debug ("Testing that the received message was signed with algorithm '" + sAlgorithmURI + "'");
+        final String sSignatureAlgorithmURI = aSecurity.getX509SignatureAlgorithm () == null ? null
+                                                                                             : aSecurity.getX509SignatureAlgorithm ()
+                                                                                                        .getAlgorithmURI ();
+        if (sSignatureAlgorithmURI != null && LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Testing that the received message was signed with algorithm '" + sSignatureAlgorithmURI + "'");
 
-          aAlgorithmSuite.addSignatureMethod (sAlgorithmURI);
-          bUseAlgorithmSuite = true;
-        }
-
-        if (bUseAlgorithmSuite)
+        if (sEncryptionAlgorithmURI != null || sSignatureAlgorithmURI != null)
+        {
+          final AlgorithmSuite aAlgorithmSuite;
+          if (m_aDecryptParameterModifier == null)
+          {
+            // Nobody can modify it - so it can be shared
+            aAlgorithmSuite = ALGORITHM_SUITES.computeIfAbsent (sEncryptionAlgorithmURI + ' ' + sSignatureAlgorithmURI,
+                                                                k -> _createAlgorithmSuite (sEncryptionAlgorithmURI,
+                                                                                            sSignatureAlgorithmURI));
+          }
+          else
+            aAlgorithmSuite = _createAlgorithmSuite (sEncryptionAlgorithmURI, sSignatureAlgorithmURI);
           aRequestData.setAlgorithmSuite (aAlgorithmSuite);
+        }
       }
 
       // Enable CRL checking
@@ -345,18 +365,18 @@ public class SoapHeaderElementProcessorWSS4J implements ISoapHeaderElementProces
         // Always copy to a temporary file, so that decrypted content can be
         // read more than once. By default the stream can only be read once
         // Not nice, but working :)
-        final File aTempFile = aIncomingState.getResourceHelper ().createTempFile ();
+        final IAS4SpoolEntry aSpoolEntry = aIncomingState.getResourceHelper ().createSpoolEntry ();
         if (StreamHelper.copyByteStream ()
                         .from (aResponseAttachment.getSourceStream ())
                         .closeFrom (true)
-                        .to (FileHelper.getBufferedOutputStream (aTempFile))
+                        .to (aSpoolEntry.getOutputStream ())
                         .closeTo (true)
                         .build ()
                         .isFailure ())
         {
-          LOGGER.error ("Failed to write response attachment to temporary file '" + aTempFile.getAbsolutePath () + "'");
+          LOGGER.error ("Failed to write response attachment to spool entry " + aSpoolEntry);
         }
-        aResponseAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile)));
+        aResponseAttachment.setSourceStreamProvider (aSpoolEntry);
       }
 
       // Remember in State
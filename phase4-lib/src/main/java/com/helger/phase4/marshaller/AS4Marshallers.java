@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import org.jspecify.annotations.NonNull;
+
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * Shared marshaller instances for the AS4 objects that phase4 serializes on every message. The
+ * marshallers are stateless in between two calls - the JAXB context is cached and a fresh JAXB
+ * marshaller is created per operation - so creating them on every message only costs the
+ * construction of the instance and the lookup of the XML Schema. The instances returned from this
+ * class are shared and must therefore NOT be modified (e.g. via <code>setCollectErrors</code> or
+ * <code>setFormattedOutput</code>). If customization is needed, create a new instance instead.<br>
+ * For outbound messages that are created by phase4 itself the XML Schema validation can be skipped
+ * via {@link AS4Configuration#isMarshallerOutboundTrusted()} ("trusted outbound" mode). This saves
+ * the schema validation CPU time on every sent message and on every receipt. In this mode the SOAP
+ * envelope and the ebMS 3 Messaging header are created directly with {@link Ebms3DOMWriter}. Inbound
+ * validation is controlled separately via {@link AS4Configuration#isMarshallerInboundValidate()}.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public final class AS4Marshallers
+{
+  private static final class Validating
+  {
+    static final Ebms3MessagingMarshaller EBMS3_MESSAGING = new Ebms3MessagingMarshaller (true);
+    static final Soap11EnvelopeMarshaller SOAP11_ENVELOPE = new Soap11EnvelopeMarshaller (true);
+    static final Soap12EnvelopeMarshaller SOAP12_ENVELOPE = new Soap12EnvelopeMarshaller (true);
+    static final NonRepudiationInformationMarshaller NON_REPUDIATION_INFORMATION = new NonRepudiationInformationMarshaller (true);
+  }
+
+  private static final class Trusted
+  {
+    static final Ebms3MessagingMarshaller EBMS3_MESSAGING = new Ebms3MessagingMarshaller (false);
+    static final Soap11EnvelopeMarshaller SOAP11_ENVELOPE = new Soap11EnvelopeMarshaller (false);
+    static final Soap12EnvelopeMarshaller SOAP12_ENVELOPE = new Soap12EnvelopeMarshaller (false);
+    static final NonRepudiationInformationMarshaller NON_REPUDIATION_INFORMATION = new NonRepudiationInformationMarshaller (false);
+  }
+
+  // No XML Schema available for these - so always the same
+  private static final Ebms3UserMessageMarshaller EBMS3_USER_MESSAGE = new Ebms3UserMessageMarshaller ();
+  private static final Ebms3SignalMessageMarshaller EBMS3_SIGNAL_MESSAGE = new Ebms3SignalMessageMarshaller ();
+
+  private AS4Marshallers ()
+  {}
+
+  /**
+   * @return <code>true</code> if the outbound marshallers skip the XML Schema validation.
+   * @see AS4Configuration#isMarshallerOutboundTrusted()
+   */
+  public static boolean isOutboundTrusted ()
+  {
+    return AS4Configuration.isMarshallerOutboundTrusted ();
+  }
+
+  /**
+   * @return The shared marshaller for outbound ebMS 3 Messaging headers. Never <code>null</code>.
+   */
+  @NonNull
+  public static Ebms3MessagingMarshaller getOutboundEbms3MessagingMarshaller ()
+  {
+    return isOutboundTrusted () ? Trusted.EBMS3_MESSAGING : Validating.EBMS3_MESSAGING;
+  }
+
+  /**
+   * @return The shared marshaller for outbound SOAP 1.1 envelopes. Never <code>null</code>.
+   */
+  @NonNull
+  public static Soap11EnvelopeMarshaller getOutboundSoap11EnvelopeMarshaller ()
+  {
+    return isOutboundTrusted () ? Trusted.SOAP11_ENVELOPE : Validating.SOAP11_ENVELOPE;
+  }
+
+  /**
+   * @return The shared marshaller for outbound SOAP 1.2 envelopes. Never <code>null</code>.
+   */
+  @NonNull
+  public static Soap12EnvelopeMarshaller getOutboundSoap12EnvelopeMarshaller ()
+  {
+    return isOutboundTrusted () ? Trusted.SOAP12_ENVELOPE : Validating.SOAP12_ENVELOPE;
+  }
+
+  /**
+   * @return The shared marshaller for outbound NonRepudiationInformation elements in receipts.
+   *         Never <code>null</code>.
+   */
+  @NonNull
+  public static NonRepudiationInformationMarshaller getOutboundNonRepudiationInformationMarshaller ()
+  {
+    return isOutboundTrusted () ? Trusted.NON_REPUDIATION_INFORMATION : Validating.NON_REPUDIATION_INFORMATION;
+  }
+
+  /**
+   * @return The shared marshaller for ebMS 3 UserMessage elements. This one never validates,
+   *         because there is no dedicated XML Schema element for it. Never <code>null</code>.
+   */
+  @NonNull
+  public static Ebms3UserMessageMarshaller getEbms3UserMessageMarshaller ()
+  {
+    return EBMS3_USER_MESSAGE;
+  }
+
+  /**
+   * @return The shared marshaller for ebMS 3 SignalMessage elements. This one never validates,
+   *         because there is no dedicated XML Schema element for it. Never <code>null</code>.
+   */
+  @NonNull
+  public static Ebms3SignalMessageMarshaller getEbms3SignalMessageMarshaller ()
+  {
+    return EBMS3_SIGNAL_MESSAGE;
+  }
+}
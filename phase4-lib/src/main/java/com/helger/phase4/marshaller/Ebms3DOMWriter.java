@@ -0,0 +1,502 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.state.ESuccess;
+import com.helger.base.string.StringHelper;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.datetime.web.PDTWebDateHelper;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ebms3header.Ebms3AgreementRef;
+import com.helger.phase4.ebms3header.Ebms3CollaborationInfo;
+import com.helger.phase4.ebms3header.Ebms3Description;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.ebms3header.Ebms3From;
+import com.helger.phase4.ebms3header.Ebms3MessageInfo;
+import com.helger.phase4.ebms3header.Ebms3MessageProperties;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.Ebms3PartInfo;
+import com.helger.phase4.ebms3header.Ebms3PartProperties;
+import com.helger.phase4.ebms3header.Ebms3PartyId;
+import com.helger.phase4.ebms3header.Ebms3PartyInfo;
+import com.helger.phase4.ebms3header.Ebms3PayloadInfo;
+import com.helger.phase4.ebms3header.Ebms3Property;
+import com.helger.phase4.ebms3header.Ebms3PullRequest;
+import com.helger.phase4.ebms3header.Ebms3Receipt;
+import com.helger.phase4.ebms3header.Ebms3Schema;
+import com.helger.phase4.ebms3header.Ebms3Service;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.ebms3header.Ebms3To;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.xml.XMLFactory;
+
+/**
+ * A writer that creates the DOM of the ebMS 3 Messaging header and the surrounding SOAP envelope
+ * directly from the JAXB model objects, without going through JAXB marshalling. The resulting DOM
+ * has the same structure as the one created by {@link Ebms3MessagingMarshaller} and
+ * {@link Soap11EnvelopeMarshaller} / {@link Soap12EnvelopeMarshaller}, but no XML Schema validation
+ * is performed. Therefore this writer is only used in the "trusted outbound" mode (see
+ * {@link AS4Marshallers#isOutboundTrusted()}).<br>
+ * Extension content (<code>xsd:any</code>) is only supported if it is a DOM {@link Element}. If
+ * other content is found, <code>null</code> is returned and the caller should fall back to JAXB.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@Immutable
+public final class Ebms3DOMWriter
+{
+  private static final String NS = CAS4.EBMS_NS;
+  private static final String PREFIX = "eb:";
+
+  private Ebms3DOMWriter ()
+  {}
+
+  @NonNull
+  private static Element _element (@NonNull final Document aDoc, @NonNull final String sLocalName)
+  {
+    return aDoc.createElementNS (NS, PREFIX + sLocalName);
+  }
+
+  @NonNull
+  private static Element _append (@NonNull final Element aParent, @NonNull final String sLocalName)
+  {
+    return (Element) aParent.appendChild (_element (aParent.getOwnerDocument (), sLocalName));
+  }
+
+  private static void _appendText (@NonNull final Element aParent,
+                                   @NonNull final String sLocalName,
+                                   @Nullable final String sValue)
+  {
+    if (sValue != null)
+      _append (aParent, sLocalName).appendChild (aParent.getOwnerDocument ().createTextNode (sValue));
+  }
+
+  private static void _setText (@NonNull final Element aElement, @Nullable final String sValue)
+  {
+    if (sValue != null)
+      aElement.appendChild (aElement.getOwnerDocument ().createTextNode (sValue));
+  }
+
+  private static void _setAttr (@NonNull final Element aElement,
+                                @NonNull final String sName,
+                                @Nullable final String sValue)
+  {
+    if (sValue != null)
+      aElement.setAttributeNS (null, sName, sValue);
+  }
+
+  @Nullable
+  private static String _getDeclaredNamespaceURI (@NonNull final Element aElement, @Nullable final String sPrefix)
+  {
+    // Don't use Node.lookupNamespaceURI, because that also considers the namespace of the element
+    // itself and not only the declarations
+    final String sLocalName = StringHelper.isEmpty (sPrefix) ? XMLConstants.XMLNS_ATTRIBUTE : sPrefix;
+    Node aCur = aElement;
+    while (aCur instanceof final Element aCurElement)
+    {
+      final Attr aAttr = aCurElement.getAttributeNodeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI, sLocalName);
+      if (aAttr != null)
+        return aAttr.getValue ();
+      aCur = aCur.getParentNode ();
+    }
+    return null;
+  }
+
+  private static void _declareNamespace (@NonNull final Element aElement,
+                                         @Nullable final String sPrefix,
+                                         @Nullable final String sNamespaceURI)
+  {
+    if (XMLConstants.XML_NS_URI.equals (sNamespaceURI) || XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals (sNamespaceURI))
+      return;
+
+    final String sDeclared = _getDeclaredNamespaceURI (aElement, sPrefix);
+    if (StringHelper.isEmpty (sNamespaceURI))
+    {
+      // Element without namespace inside a default namespace
+      if (StringHelper.isEmpty (sPrefix) && StringHelper.isNotEmpty (sDeclared))
+        aElement.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE, "");
+      return;
+    }
+
+    if (!sNamespaceURI.equals (sDeclared))
+      aElement.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                               StringHelper.isEmpty (sPrefix) ? XMLConstants.XMLNS_ATTRIBUTE
+                                                              : XMLConstants.XMLNS_ATTRIBUTE + ":" + sPrefix,
+                               sNamespaceURI);
+  }
+
+  /**
+   * Make sure all namespaces used inside the provided element are declared via "xmlns" attributes.
+   * This is required for imported elements that were created without explicit declarations,
+   * because the XML canonicalization used for signing only considers declared namespaces.
+   */
+  private static void _declareAllNamespaces (@NonNull final Element aElement)
+  {
+    _declareNamespace (aElement, aElement.getPrefix (), aElement.getNamespaceURI ());
+
+    final NamedNodeMap aAttrs = aElement.getAttributes ();
+    final ICommonsList <Attr> aNSAttrs = new CommonsArrayList <> ();
+    for (int i = 0; i < aAttrs.getLength (); ++i)
+    {
+      final Attr aAttr = (Attr) aAttrs.item (i);
+      if (aAttr.getPrefix () != null && aAttr.getNamespaceURI () != null)
+        aNSAttrs.add (aAttr);
+    }
+    for (final Attr aAttr : aNSAttrs)
+      _declareNamespace (aElement, aAttr.getPrefix (), aAttr.getNamespaceURI ());
+
+    for (Node aChild = aElement.getFirstChild (); aChild != null; aChild = aChild.getNextSibling ())
+      if (aChild instanceof final Element aChildElement)
+        _declareAllNamespaces (aChildElement);
+  }
+
+  @NonNull
+  private static ESuccess _appendAny (@NonNull final Element aParent, @NonNull final List <Object> aAny)
+  {
+    for (final Object aObj : aAny)
+    {
+      if (!(aObj instanceof final Element aSrc))
+      {
+        // E.g. a JAXBElement - needs JAXB
+        return ESuccess.FAILURE;
+      }
+      // Always copy, as JAXB does
+      final Element aCopy = (Element) aParent.appendChild (aParent.getOwnerDocument ().importNode (aSrc, true));
+      _declareAllNamespaces (aCopy);
+    }
+    return ESuccess.SUCCESS;
+  }
+
+  private static void _setOtherAttributes (@NonNull final Element aElement, @NonNull final Map <QName, String> aAttrs)
+  {
+    int nIndex = 0;
+    for (final Map.Entry <QName, String> aEntry : aAttrs.entrySet ())
+    {
+      final QName aQName = aEntry.getKey ();
+      final String sNamespaceURI = aQName.getNamespaceURI ();
+      if (StringHelper.isEmpty (sNamespaceURI))
+        aElement.setAttributeNS (null, aQName.getLocalPart (), aEntry.getValue ());
+      else
+      {
+        String sPrefix = StringHelper.isNotEmpty (aQName.getPrefix ()) ? aQName.getPrefix ()
+                                                                       : Ebms3NamespaceHandler.getInstance ()
+                                                                                              .getPrefix (sNamespaceURI);
+        final String sDeclared = sPrefix == null ? null : _getDeclaredNamespaceURI (aElement, sPrefix);
+        if (sPrefix == null || (sDeclared != null && !sDeclared.equals (sNamespaceURI)))
+          sPrefix = "ns" + nIndex++;
+        _declareNamespace (aElement, sPrefix, sNamespaceURI);
+        aElement.setAttributeNS (sNamespaceURI, sPrefix + ":" + aQName.getLocalPart (), aEntry.getValue ());
+      }
+    }
+  }
+
+  private static void _appendMessageInfo (@NonNull final Element aParent, @Nullable final Ebms3MessageInfo aMessageInfo)
+  {
+    if (aMessageInfo != null)
+    {
+      final Element eMessageInfo = _append (aParent, "MessageInfo");
+      if (aMessageInfo.getTimestamp () != null)
+        _appendText (eMessageInfo, "Timestamp", PDTWebDateHelper.getAsStringXSD (aMessageInfo.getTimestamp ()));
+      _appendText (eMessageInfo, "MessageId", aMessageInfo.getMessageId ());
+      _appendText (eMessageInfo, "RefToMessageId", aMessageInfo.getRefToMessageId ());
+    }
+  }
+
+  private static void _appendDescription (@NonNull final Element aParent, @Nullable final Ebms3Description aDescription)
+  {
+    if (aDescription != null)
+    {
+      final Element eDescription = _append (aParent, "Description");
+      if (aDescription.getLang () != null)
+        eDescription.setAttributeNS (XMLConstants.XML_NS_URI, "xml:lang", aDescription.getLang ());
+      _setText (eDescription, aDescription.getValue ());
+    }
+  }
+
+  private static void _appendProperties (@NonNull final Element aParent, @NonNull final List <Ebms3Property> aProperties)
+  {
+    for (final Ebms3Property aProperty : aProperties)
+    {
+      final Element eProperty = _append (aParent, "Property");
+      _setAttr (eProperty, "name", aProperty.getName ());
+      _setAttr (eProperty, "type", aProperty.getType ());
+      _setText (eProperty, aProperty.getValue ());
+    }
+  }
+
+  private static void _appendPartyIDs (@NonNull final Element aParent, @NonNull final List <Ebms3PartyId> aPartyIDs)
+  {
+    for (final Ebms3PartyId aPartyID : aPartyIDs)
+    {
+      final Element ePartyId = _append (aParent, "PartyId");
+      _setAttr (ePartyId, "type", aPartyID.getType ());
+      _setText (ePartyId, aPartyID.getValue ());
+    }
+  }
+
+  private static void _appendUserMessage (@NonNull final Element eUserMessage, @NonNull final Ebms3UserMessage aUserMessage)
+  {
+    _setAttr (eUserMessage, "mpc", aUserMessage.getMpc ());
+    _appendMessageInfo (eUserMessage, aUserMessage.getMessageInfo ());
+
+    final Ebms3PartyInfo aPartyInfo = aUserMessage.getPartyInfo ();
+    if (aPartyInfo != null)
+    {
+      final Element ePartyInfo = _append (eUserMessage, "PartyInfo");
+      final Ebms3From aFrom = aPartyInfo.getFrom ();
+      if (aFrom != null)
+      {
+        final Element eFrom = _append (ePartyInfo, "From");
+        _appendPartyIDs (eFrom, aFrom.getPartyId ());
+        _appendText (eFrom, "Role", aFrom.getRole ());
+      }
+      final Ebms3To aTo = aPartyInfo.getTo ();
+      if (aTo != null)
+      {
+        final Element eTo = _append (ePartyInfo, "To");
+        _appendPartyIDs (eTo, aTo.getPartyId ());
+        _appendText (eTo, "Role", aTo.getRole ());
+      }
+    }
+
+    final Ebms3CollaborationInfo aCollaborationInfo = aUserMessage.getCollaborationInfo ();
+    if (aCollaborationInfo != null)
+    {
+      final Element eCollaborationInfo = _append (eUserMessage, "CollaborationInfo");
+      final Ebms3AgreementRef aAgreementRef = aCollaborationInfo.getAgreementRef ();
+      if (aAgreementRef != null)
+      {
+        final Element eAgreementRef = _append (eCollaborationInfo, "AgreementRef");
+        _setAttr (eAgreementRef, "type", aAgreementRef.getType ());
+        _setAttr (eAgreementRef, "pmode", aAgreementRef.getPmode ());
+        _setText (eAgreementRef, aAgreementRef.getValue ());
+      }
+      final Ebms3Service aService = aCollaborationInfo.getService ();
+      if (aService != null)
+      {
+        final Element eService = _append (eCollaborationInfo, "Service");
+        _setAttr (eService, "type", aService.getType ());
+        _setText (eService, aService.getValue ());
+      }
+      _appendText (eCollaborationInfo, "Action", aCollaborationInfo.getAction ());
+      _appendText (eCollaborationInfo, "ConversationId", aCollaborationInfo.getConversationId ());
+    }
+
+    final Ebms3MessageProperties aMessageProperties = aUserMessage.getMessageProperties ();
+    if (aMessageProperties != null)
+      _appendProperties (_append (eUserMessage, "MessageProperties"), aMessageProperties.getProperty ());
+
+    final Ebms3PayloadInfo aPayloadInfo = aUserMessage.getPayloadInfo ();
+    if (aPayloadInfo != null)
+    {
+      final Element ePayloadInfo = _append (eUserMessage, "PayloadInfo");
+      for (final Ebms3PartInfo aPartInfo : aPayloadInfo.getPartInfo ())
+      {
+        final Element ePartInfo = _append (ePayloadInfo, "PartInfo");
+        _setAttr (ePartInfo, "href", aPartInfo.getHref ());
+        final Ebms3Schema aSchema = aPartInfo.getSchema ();
+        if (aSchema != null)
+        {
+          final Element eSchema = _append (ePartInfo, "Schema");
+          _setAttr (eSchema, "location", aSchema.getLocation ());
+          _setAttr (eSchema, "version", aSchema.getVersion ());
+          _setAttr (eSchema, "namespace", aSchema.getNamespace ());
+        }
+        _appendDescription (ePartInfo, aPartInfo.getDescription ());
+        final Ebms3PartProperties aPartProperties = aPartInfo.getPartProperties ();
+        if (aPartProperties != null)
+          _appendProperties (_append (ePartInfo, "PartProperties"), aPartProperties.getProperty ());
+      }
+    }
+  }
+
+  @NonNull
+  private static ESuccess _appendSignalMessage (@NonNull final Element eSignalMessage,
+                                                @NonNull final Ebms3SignalMessage aSignalMessage)
+  {
+    _appendMessageInfo (eSignalMessage, aSignalMessage.getMessageInfo ());
+
+    final Ebms3PullRequest aPullRequest = aSignalMessage.getPullRequest ();
+    if (aPullRequest != null)
+    {
+      final Element ePullRequest = _append (eSignalMessage, "PullRequest");
+      _setAttr (ePullRequest, "mpc", aPullRequest.getMpc ());
+      _setOtherAttributes (ePullRequest, aPullRequest.getOtherAttributes ());
+      if (_appendAny (ePullRequest, aPullRequest.getAny ()).isFailure ())
+        return ESuccess.FAILURE;
+    }
+
+    final Ebms3Receipt aReceipt = aSignalMessage.getReceipt ();
+    if (aReceipt != null)
+      if (_appendAny (_append (eSignalMessage, "Receipt"), aReceipt.getAny ()).isFailure ())
+        return ESuccess.FAILURE;
+
+    for (final Ebms3Error aError : aSignalMessage.getError ())
+    {
+      final Element eError = _append (eSignalMessage, "Error");
+      _setAttr (eError, "category", aError.getCategory ());
+      _setAttr (eError, "refToMessageInError", aError.getRefToMessageInError ());
+      _setAttr (eError, "errorCode", aError.getErrorCode ());
+      _setAttr (eError, "origin", aError.getOrigin ());
+      _setAttr (eError, "severity", aError.getSeverity ());
+      _setAttr (eError, "shortDescription", aError.getShortDescription ());
+      _appendDescription (eError, aError.getDescription ());
+      _appendText (eError, "ErrorDetail", aError.getErrorDetail ());
+    }
+
+    return _appendAny (eSignalMessage, aSignalMessage.getAny ());
+  }
+
+  /**
+   * Create the DOM element for the provided ebMS 3 UserMessage. The element is not appended to the
+   * document.
+   *
+   * @param aDoc
+   *        The owning document. May not be <code>null</code>.
+   * @param aUserMessage
+   *        The UserMessage to write. May not be <code>null</code>.
+   * @return The created element and never <code>null</code>.
+   */
+  @NonNull
+  public static Element createUserMessageElement (@NonNull final Document aDoc,
+                                                  @NonNull final Ebms3UserMessage aUserMessage)
+  {
+    ValueEnforcer.notNull (aDoc, "Doc");
+    ValueEnforcer.notNull (aUserMessage, "UserMessage");
+
+    final Element ret = _element (aDoc, "UserMessage");
+    _declareNamespace (ret, "eb", NS);
+    _appendUserMessage (ret, aUserMessage);
+    return ret;
+  }
+
+  /**
+   * Create the DOM element for the provided ebMS 3 Messaging header. The element is not appended to
+   * the document.
+   *
+   * @param aDoc
+   *        The owning document. May not be <code>null</code>.
+   * @param aMessaging
+   *        The Messaging header to write. May not be <code>null</code>.
+   * @return <code>null</code> if the Messaging header contains extension content that is not a DOM
+   *         element.
+   */
+  @Nullable
+  public static Element createMessagingElement (@NonNull final Document aDoc, @NonNull final Ebms3Messaging aMessaging)
+  {
+    ValueEnforcer.notNull (aDoc, "Doc");
+    ValueEnforcer.notNull (aMessaging, "Messaging");
+
+    final Element ret = _element (aDoc, "Messaging");
+    _declareNamespace (ret, "eb", NS);
+    _setAttr (ret, "id", aMessaging.getId ());
+    if (aMessaging.isS11MustUnderstand () != null)
+    {
+      final ESoapVersion eSoapVersion = ESoapVersion.SOAP_11;
+      _declareNamespace (ret, eSoapVersion.getNamespacePrefix (), eSoapVersion.getNamespaceURI ());
+      ret.setAttributeNS (eSoapVersion.getNamespaceURI (),
+                          eSoapVersion.getNamespacePrefix () + ":mustUnderstand",
+                          aMessaging.isS11MustUnderstand ().toString ());
+    }
+    if (aMessaging.isS12MustUnderstand () != null)
+    {
+      final ESoapVersion eSoapVersion = ESoapVersion.SOAP_12;
+      _declareNamespace (ret, eSoapVersion.getNamespacePrefix (), eSoapVersion.getNamespaceURI ());
+      ret.setAttributeNS (eSoapVersion.getNamespaceURI (),
+                          eSoapVersion.getNamespacePrefix () + ":mustUnderstand",
+                          aMessaging.isS12MustUnderstand ().toString ());
+    }
+    _setOtherAttributes (ret, aMessaging.getOtherAttributes ());
+
+    for (final Ebms3SignalMessage aSignalMessage : aMessaging.getSignalMessage ())
+      if (_appendSignalMessage (_append (ret, "SignalMessage"), aSignalMessage).isFailure ())
+        return null;
+    for (final Ebms3UserMessage aUserMessage : aMessaging.getUserMessage ())
+      _appendUserMessage (_append (ret, "UserMessage"), aUserMessage);
+    if (_appendAny (ret, aMessaging.getAny ()).isFailure ())
+      return null;
+    return ret;
+  }
+
+  /**
+   * Create a new SOAP document with the provided ebMS 3 Messaging header and an optional body
+   * payload.
+   *
+   * @param eSoapVersion
+   *        The SOAP version to use. May not be <code>null</code>.
+   * @param aMessaging
+   *        The Messaging header to write. May not be <code>null</code>.
+   * @param aSoapBodyPayload
+   *        The optional SOAP body payload. It is copied into the new document. May be
+   *        <code>null</code>.
+   * @return <code>null</code> if the Messaging header contains extension content that is not a DOM
+   *         element.
+   */
+  @Nullable
+  public static Document createSoapDocument (@NonNull final ESoapVersion eSoapVersion,
+                                             @NonNull final Ebms3Messaging aMessaging,
+                                             @Nullable final Node aSoapBodyPayload)
+  {
+    ValueEnforcer.notNull (eSoapVersion, "SoapVersion");
+    ValueEnforcer.notNull (aMessaging, "Messaging");
+
+    final String sNamespaceURI = eSoapVersion.getNamespaceURI ();
+    final String sPrefix = eSoapVersion.getNamespacePrefix () + ":";
+
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eEnvelope = (Element) aDoc.appendChild (aDoc.createElementNS (sNamespaceURI, sPrefix + "Envelope"));
+    _declareNamespace (eEnvelope, eSoapVersion.getNamespacePrefix (), sNamespaceURI);
+
+    final String sHeaderName = sPrefix + eSoapVersion.getHeaderElementName ();
+    final Element eHeader = (Element) eEnvelope.appendChild (aDoc.createElementNS (sNamespaceURI, sHeaderName));
+    final Element eMessaging = createMessagingElement (aDoc, aMessaging);
+    if (eMessaging == null)
+      return null;
+    eHeader.appendChild (eMessaging);
+
+    final String sBodyName = sPrefix + eSoapVersion.getBodyElementName ();
+    final Element eBody = (Element) eEnvelope.appendChild (aDoc.createElementNS (sNamespaceURI, sBodyName));
+    final Node aRealSoapBodyPayload = aSoapBodyPayload instanceof Document d ? d.getDocumentElement ()
+                                                                             : aSoapBodyPayload;
+    if (aRealSoapBodyPayload != null)
+    {
+      final Node aCopy = eBody.appendChild (aDoc.importNode (aRealSoapBodyPayload, true));
+      if (aCopy instanceof final Element aCopyElement)
+        _declareAllNamespaces (aCopyElement);
+    }
+    return aDoc;
+  }
+}
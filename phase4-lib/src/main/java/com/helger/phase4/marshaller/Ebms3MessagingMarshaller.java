@@ -46,7 +46,21 @@ public class Ebms3MessagingMarshaller extends GenericJAXBMarshaller <Ebms3Messag
 
   public Ebms3MessagingMarshaller ()
   {
-    super (Ebms3Messaging.class, XSDS, new ObjectFactory ()::createMessaging);
+    this (true);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bValidate
+   *        <code>true</code> to validate against the XML Schemas when reading and writing,
+   *        <code>false</code> to skip validation. Skipping validation is only recommended for
+   *        objects created by phase4 itself.
+   * @since 4.5.5
+   */
+  public Ebms3MessagingMarshaller (final boolean bValidate)
+  {
+    super (Ebms3Messaging.class, bValidate ? XSDS : null, new ObjectFactory ()::createMessaging);
     setNamespaceContext (Ebms3NamespaceHandler.getInstance ());
   }
 }
@@ -47,11 +47,25 @@ public class NonRepudiationInformationMarshaller extends GenericJAXBMarshaller <
                                                             "NonRepudiationInformation");
 
   public NonRepudiationInformationMarshaller ()
+  {
+    this (true);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bValidate
+   *        <code>true</code> to validate against the XML Schemas when reading and writing,
+   *        <code>false</code> to skip validation. Skipping validation is only recommended for
+   *        objects created by phase4 itself.
+   * @since 4.5.5
+   */
+  public NonRepudiationInformationMarshaller (final boolean bValidate)
   {
     // Information is taken from the @XmlRootElement of
     // NonRepudiationInformation
     super (NonRepudiationInformation.class,
-           XSDS,
+           bValidate ? XSDS : null,
            createSimpleJAXBElement (ROOT_ELEMENT_QNAME, NonRepudiationInformation.class));
     setNamespaceContext (Ebms3NamespaceHandler.getInstance ());
   }
@@ -43,10 +43,26 @@ public class Soap11EnvelopeMarshaller extends GenericJAXBMarshaller <Soap11Envel
                                                             ESoapVersion.SOAP_11.getNamespacePrefix ());
 
   public Soap11EnvelopeMarshaller ()
+  {
+    this (true);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bValidate
+   *        <code>true</code> to validate against the XML Schemas when reading and writing,
+   *        <code>false</code> to skip validation. Skipping validation is only recommended for
+   *        objects created by phase4 itself.
+   * @since 4.5.5
+   */
+  public Soap11EnvelopeMarshaller (final boolean bValidate)
   {
     // Information is taken from the @XmlType of
     // Soap11Envelope and from @XmlSchema of package-info
-    super (Soap11Envelope.class, XSDS, createSimpleJAXBElement (ROOT_ELEMENT_QNAME, Soap11Envelope.class));
+    super (Soap11Envelope.class,
+           bValidate ? XSDS : null,
+           createSimpleJAXBElement (ROOT_ELEMENT_QNAME, Soap11Envelope.class));
     setNamespaceContext (Soap11NamespaceHandler.getInstance ());
   }
 }
@@ -45,10 +45,26 @@ public class Soap12EnvelopeMarshaller extends GenericJAXBMarshaller <Soap12Envel
                                                             ESoapVersion.SOAP_12.getNamespacePrefix ());
 
   public Soap12EnvelopeMarshaller ()
+  {
+    this (true);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bValidate
+   *        <code>true</code> to validate against the XML Schemas when reading and writing,
+   *        <code>false</code> to skip validation. Skipping validation is only recommended for
+   *        objects created by phase4 itself.
+   * @since 4.5.5
+   */
+  public Soap12EnvelopeMarshaller (final boolean bValidate)
   {
     // Information is taken from the @XmlType of
     // Soap12Envelope and from @XmlSchema of package-info
-    super (Soap12Envelope.class, XSDS, createSimpleJAXBElement (ROOT_ELEMENT_QNAME, Soap12Envelope.class));
+    super (Soap12Envelope.class,
+           bValidate ? XSDS : null,
+           createSimpleJAXBElement (ROOT_ELEMENT_QNAME, Soap12Envelope.class));
     setNamespaceContext (Soap12NamespaceHandler.getInstance ());
   }
 }
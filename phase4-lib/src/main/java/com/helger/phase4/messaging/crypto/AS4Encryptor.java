@@ -32,7 +32,10 @@ import com.helger.annotation.Nonempty;
 import com.helger.annotation.WillNotClose;
 import com.helger.annotation.concurrent.Immutable;
 import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.iface.IHasInputStream;
+import com.helger.collection.commons.CommonsHashMap;
 import com.helger.collection.commons.ICommonsList;
+import com.helger.collection.commons.ICommonsMap;
 import com.helger.mail.cte.EContentTransferEncoding;
 import com.helger.mime.CMimeType;
 import com.helger.phase4.attachment.WSS4JAttachment;
@@ -294,11 +297,31 @@ public final class AS4Encryptor
     // The attachment callback handler contains the encrypted attachments
     // Important: read the attachment stream only once!
     final ICommonsList <WSS4JAttachment> aEncryptedAttachments = aAttachmentCallbackHandler.getAllResponseAttachments ();
+    final ICommonsMap <String, WSS4JAttachment> aSrcAttachments = new CommonsHashMap <> ();
+    for (final WSS4JAttachment aSrcAttachment : aAttachments)
+      aSrcAttachments.put (aSrcAttachment.getId (), aSrcAttachment);
+    final String sAlgorithmURI = aCryptParams.getAlgorithmCrypt ().getAlgorithmURI ();
     // MIME Type and CTE must be set for encrypted attachments!
     for (final WSS4JAttachment aAttachment : aEncryptedAttachments)
     {
       aAttachment.overwriteMimeType (CMimeType.APPLICATION_OCTET_STREAM.getAsString ());
       aAttachment.setContentTransferEncoding (EContentTransferEncoding.BINARY);
+
+      // Use the cipher text created by the outgoing attachment pipeline with
+      // the same session key, if present. It is repeatable and was created in
+      // the same pass as the compression and the signature digest. Otherwise
+      // WSS4J encrypts lazily while the message is written.
+      final WSS4JAttachment aSrcAttachment = aSrcAttachments.get (aAttachment.getId ());
+      if (aSrcAttachment != null)
+      {
+        final IHasInputStream aEncryptedISP = aSrcAttachment.getEncryptedSourceStreamProvider (aSymmetricKey,
+                                                                                               sAlgorithmURI);
+        if (aEncryptedISP != null)
+        {
+          aAttachment.setSourceStreamProvider (aEncryptedISP);
+          aAttachment.setContentLength (aSrcAttachment.getEncryptedContentLength ());
+        }
+      }
     }
 
     // Use the encrypted attachments!
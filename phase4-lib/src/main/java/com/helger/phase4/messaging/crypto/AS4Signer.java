@@ -16,10 +16,21 @@
  */
 package com.helger.phase4.messaging.crypto;
 
+import java.security.GeneralSecurityException;
+import java.util.List;
+
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+
 import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.WSS4JConstants;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.ext.WSSecurityException.ErrorCode;
 import org.apache.wss4j.dom.message.WSSecHeader;
 import org.apache.wss4j.dom.message.WSSecSignature;
+import org.apache.wss4j.dom.transform.AttachmentTransformParameterSpec;
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
@@ -31,7 +42,9 @@ import com.helger.annotation.WillNotClose;
 import com.helger.annotation.concurrent.Immutable;
 import com.helger.base.enforce.ValueEnforcer;
 import com.helger.collection.CollectionHelper;
+import com.helger.collection.commons.CommonsArrayList;
 import com.helger.collection.commons.ICommonsList;
+import com.helger.phase4.attachment.AS4OutgoingAttachmentPipeline;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.attachment.WSS4JAttachmentCallbackHandler;
 import com.helger.phase4.config.AS4Configuration;
@@ -60,6 +73,73 @@ public final class AS4Signer
   private AS4Signer ()
   {}
 
+  private static boolean _hasAllContentDigests (@Nullable final ICommonsList <WSS4JAttachment> aAttachments,
+                                                @NonNull final String sDigestAlgorithm)
+  {
+    if (CollectionHelper.isEmpty (aAttachments))
+      return false;
+    for (final WSS4JAttachment aAttachment : aAttachments)
+      if (aAttachment.getContentDigest (sDigestAlgorithm) == null ||
+          !AS4OutgoingAttachmentPipeline.isPrecomputedDigestSupported (aAttachment.getMimeType ()))
+        return false;
+    return true;
+  }
+
+  /**
+   * Same as {@link WSSecSignature#build(org.apache.wss4j.common.crypto.Crypto)}, but the
+   * references to the attachments use the digests calculated by the outgoing attachment pipeline,
+   * so that the attachments don't need to be read again.
+   */
+  @NonNull
+  private static Document _buildWithContentDigests (@NonNull final Document aPreSigningMessage,
+                                                    @NonNull final WSSecSignature aBuilder,
+                                                    @NonNull final IAS4CryptoFactory aCryptoFactorySign,
+                                                    @NonNull final ICommonsList <WSS4JAttachment> aAttachments,
+                                                    @NonNull final WSS4JAttachmentCallbackHandler aAttachmentCallbackHandler,
+                                                    @NonNull final String sDigestAlgorithmURI,
+                                                    @NonNull final String sDigestAlgorithm) throws WSSecurityException
+  {
+    aBuilder.prepare (aCryptoFactorySign.getCrypto (ECryptoMode.ENCRYPT_SIGN));
+
+    // All parts except the attachments are handled by WSS4J
+    final ICommonsList <WSEncryptionPart> aNonAttachmentParts = new CommonsArrayList <> (aBuilder.getParts ());
+    aNonAttachmentParts.removeIf (x -> CID_ATTACHMENTS.equals (x.getId ()));
+    final List <Reference> aReferences = new CommonsArrayList <> (aBuilder.addReferencesToSign (aNonAttachmentParts));
+
+    try
+    {
+      // Same provider as used by WSS4J
+      final XMLSignatureFactory aSignatureFactory = XMLSignatureFactory.getInstance ("DOM", "ApacheXMLDSig");
+      final DigestMethod aDigestMethod = aSignatureFactory.newDigestMethod (sDigestAlgorithmURI, null);
+      for (final WSS4JAttachment aAttachment : aAttachments)
+      {
+        // Same transform as in WSSecSignatureBase, so that the receiver can
+        // verify it
+        final Transform aTransform = aSignatureFactory.newTransform (WSS4JConstants.SWA_ATTACHMENT_CONTENT_SIG_TRANS,
+                                                                     new AttachmentTransformParameterSpec (aAttachmentCallbackHandler,
+                                                                                                           aAttachment));
+        // The precomputed digest value avoids that the reference is digested
+        // again
+        aReferences.add (aSignatureFactory.newReference (MessageHelperMethods.PREFIX_CID + aAttachment.getId (),
+                                                         aDigestMethod,
+                                                         new CommonsArrayList <> (aTransform),
+                                                         null,
+                                                         null,
+                                                         aAttachment.getContentDigest (sDigestAlgorithm)));
+      }
+    }
+    catch (final GeneralSecurityException ex)
+    {
+      throw new WSSecurityException (ErrorCode.FAILED_SIGNATURE, ex);
+    }
+
+    aBuilder.computeSignature (aReferences);
+    if (aBuilder.getBinarySecurityTokenElement () != null)
+      aBuilder.prependBSTElementToHeader ();
+    // The document is signed in place
+    return aPreSigningMessage;
+  }
+
   @NonNull
   private static Document _createSignedMessage (@NonNull final IAS4CryptoFactory aCryptoFactorySign,
                                                 @NonNull final Document aPreSigningMessage,
@@ -121,6 +201,7 @@ public final class AS4Signer
     // Same element name for SOAP 1.1 and SOAP 1.2
     aBuilder.getParts ().add (new WSEncryptionPart ("Body", eSoapVersion.getNamespaceURI (), ENCRYPTION_MODE_CONTENT));
 
+    WSS4JAttachmentCallbackHandler aAttachmentCallbackHandler = null;
     if (CollectionHelper.isNotEmpty (aAttachments))
     {
       // Modify builder for attachments
@@ -128,8 +209,7 @@ public final class AS4Signer
       // "cid:Attachments" is a predefined ID used inside WSSecSignatureBase
       aBuilder.getParts ().add (new WSEncryptionPart (CID_ATTACHMENTS, ENCRYPTION_MODE_CONTENT));
 
-      final WSS4JAttachmentCallbackHandler aAttachmentCallbackHandler = new WSS4JAttachmentCallbackHandler (aAttachments,
-                                                                                                            aResHelper);
+      aAttachmentCallbackHandler = new WSS4JAttachmentCallbackHandler (aAttachments, aResHelper);
       aBuilder.setAttachmentCallbackHandler (aAttachmentCallbackHandler);
     }
 
@@ -148,6 +228,26 @@ public final class AS4Signer
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("After running WSSecSignatureCustomizer.customize");
     }
+    else
+    {
+      // Use the attachment digests of the outgoing attachment pipeline if
+      // they are present for all attachments. A customized builder always
+      // uses the default build process.
+      final String sDigestAlgorithmURI = aSigningParams.getAlgorithmSignDigest ().getAlgorithmURI ();
+      final String sDigestAlgorithm = AS4OutgoingAttachmentPipeline.getDigestAlgorithmName (sDigestAlgorithmURI);
+      if (_hasAllContentDigests (aAttachments, sDigestAlgorithm))
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Using the precomputed digests of " + aAttachments.size () + " attachment(s)");
+        return _buildWithContentDigests (aPreSigningMessage,
+                                         aBuilder,
+                                         aCryptoFactorySign,
+                                         aAttachments,
+                                         aAttachmentCallbackHandler,
+                                         sDigestAlgorithmURI,
+                                         sDigestAlgorithm);
+      }
+    }
 
     return aBuilder.build (aCryptoFactorySign.getCrypto (ECryptoMode.ENCRYPT_SIGN));
   }
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.security.cert.X509Certificate;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import org.apache.hc.client5.http.classic.methods.HttpPost;
@@ -36,6 +37,7 @@ import org.slf4j.Logger;
 import com.helger.annotation.Nonempty;
 import com.helger.annotation.Nonnegative;
 import com.helger.annotation.WillNotClose;
+import com.helger.annotation.style.OverrideOnDemand;
 import com.helger.base.concurrent.ThreadHelper;
 import com.helger.base.enforce.ValueEnforcer;
 import com.helger.base.io.stream.StreamHelper;
@@ -82,6 +84,7 @@ public class BasicHttpPoster implements IHttpPoster
   private HttpClientFactory m_aHttpClientFactory = createDefaultHttpClientFactory ();
   private Consumer <? super HttpPost> m_aHttpCustomizer;
   private boolean m_bQuoteHttpHeaders = DEFAULT_QUOTE_HTTP_HEADERS;
+  private HttpRetryScheduler m_aRetryScheduler = HttpRetryScheduler.getDefaultInstance ();
 
   public BasicHttpPoster ()
   {}
@@ -194,7 +197,7 @@ public class BasicHttpPoster implements IHttpPoster
     LOGGER.info ("Starting to transmit AS4 Message to '" + sURL + "'");
 
     IOException aCaughtException = null;
-    try (final HttpClientManager aClientMgr = new HttpClientManager (m_aHttpClientFactory))
+    try
     {
       final HttpPost aPost = new HttpPost (sURL);
 
@@ -235,7 +238,7 @@ public class BasicHttpPoster implements IHttpPoster
 
       // Execute main HTTP request
       final HttpClientContext aHttpClientContext = HttpClientContext.create ();
-      final T ret = aClientMgr.execute (aPost, aHttpClientContext, aResponseHandler);
+      final T ret = executeHttpPost (aPost, aHttpClientContext, aResponseHandler);
 
       // Surface the TLS peer (server) certificates if requested. The
       // CapturingTlsSocketStrategy is wired in by HttpClientFactory by default.
@@ -272,6 +275,37 @@ public class BasicHttpPoster implements IHttpPoster
     }
   }
 
+  /**
+   * Execute the provided HTTP POST request. The default implementation creates a new
+   * {@link HttpClientManager} from the contained HttpClientFactory for every invocation and closes
+   * it afterwards. Override this method to use a long-living HTTP client instead.
+   *
+   * @param <T>
+   *        Response data type
+   * @param aPost
+   *        The fully prepared HTTP POST request. May not be <code>null</code>.
+   * @param aHttpClientContext
+   *        The HTTP client context to be used. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler that should be used to convert the HTTP response to a domain
+   *        object. May not be <code>null</code>.
+   * @return The HTTP response. May be <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @since 4.5.5
+   */
+  @Nullable
+  @OverrideOnDemand
+  protected <T> T executeHttpPost (@NonNull final HttpPost aPost,
+                                   @NonNull final HttpClientContext aHttpClientContext,
+                                   @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    try (final HttpClientManager aClientMgr = new HttpClientManager (m_aHttpClientFactory))
+    {
+      return aClientMgr.execute (aPost, aHttpClientContext, aResponseHandler);
+    }
+  }
+
   @NonNull
   protected static HttpEntity createDumpingHttpEntity (@Nullable final IAS4OutgoingDumper aOutgoingDumper,
                                                        @NonNull final HttpEntity aSrcEntity,
@@ -536,12 +570,100 @@ public class BasicHttpPoster implements IHttpPoster
     }
   }
 
+  /**
+   * @return The retry scheduler to be used for asynchronous sending. Never <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  public final HttpRetryScheduler getRetryScheduler ()
+  {
+    return m_aRetryScheduler;
+  }
+
+  /**
+   * Set the retry scheduler to be used for asynchronous sending. By default the global
+   * {@link HttpRetryScheduler#getDefaultInstance()} is used.
+   *
+   * @param aRetryScheduler
+   *        The retry scheduler to be used. May not be <code>null</code>.
+   * @return this for chaining
+   * @since 4.5.5
+   */
+  @NonNull
+  public final BasicHttpPoster setRetryScheduler (@NonNull final HttpRetryScheduler aRetryScheduler)
+  {
+    ValueEnforcer.notNull (aRetryScheduler, "RetryScheduler");
+    m_aRetryScheduler = aRetryScheduler;
+    return this;
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendGenericMessageWithRetries(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback, Consumer)}.
+   * Each attempt is executed on the send executor of the {@link HttpRetryScheduler} set in this
+   * instance and the waiting time between the attempts does not block any thread.
+   *
+   * @param <T>
+   *        Response data type
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param sMessageID
+   *        the AS4 message ID. May not be <code>null</code>.
+   * @param aRetrySettings
+   *        The retry settings to use. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler that should be used to convert the HTTP response to a domain
+   *        object.
+   * @param aOutgoingDumper
+   *        An optional outgoing dumper for this message. May be <code>null</code> to use the global
+   *        one.
+   * @param aRetryCallback
+   *        An optional retry callback that is invoked, before a retry happens. May be
+   *        <code>null</code>.
+   * @param aRemoteTlsPeerCertConsumer
+   *        An optional consumer that is invoked with the remote TLS server certificates after each
+   *        successful HTTPS attempt. May be <code>null</code>.
+   * @return The future that is completed with the HTTP response data as indicated by the response
+   *         handler, or that is completed exceptionally with the exception of the last attempt.
+   *         Never <code>null</code>.
+   * @since 4.5.5
+   */
+  @Override
+  @NonNull
+  public <T> CompletableFuture <T> sendGenericMessageWithRetriesAsync (@NonNull final String sURL,
+                                                                       @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                                       @NonNull final HttpEntity aHttpEntity,
+                                                                       @NonNull final String sMessageID,
+                                                                       @NonNull final HttpRetrySettings aRetrySettings,
+                                                                       @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                       @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                       @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                       @Nullable final Consumer <? super ICommonsList <X509Certificate>> aRemoteTlsPeerCertConsumer)
+  {
+    return HttpAsyncRetryingSend.start (this,
+                                        sURL,
+                                        aCustomHttpHeaders,
+                                        aHttpEntity,
+                                        sMessageID,
+                                        aRetrySettings,
+                                        aResponseHandler,
+                                        aOutgoingDumper,
+                                        aRetryCallback,
+                                        aRemoteTlsPeerCertConsumer,
+                                        m_aRetryScheduler);
+  }
+
   @Override
   public String toString ()
   {
     return new ToStringGenerator (this).append ("HttpClientFactory", m_aHttpClientFactory)
                                        .append ("HttpCustomizer", m_aHttpCustomizer)
                                        .append ("QuoteHttpHeaders", m_bQuoteHttpHeaders)
+                                       .append ("RetryScheduler", m_aRetryScheduler)
                                        .getToString ();
   }
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.base.wrapper.Wrapper;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.dump.AS4DumpManager;
+import com.helger.phase4.dump.IAS4OutgoingDumper;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.messaging.EAS4MessageMode;
+
+/**
+ * Internal state of a single asynchronous send with retries. Each attempt is a separate task on
+ * the {@link HttpRetryScheduler} and each attempt is a single synchronous send of the
+ * {@link IHttpPoster}.
+ *
+ * @author Philip Helger
+ * @param <T>
+ *        Response data type
+ * @since 4.5.5
+ */
+final class HttpAsyncRetryingSend <T> implements Runnable
+{
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (HttpAsyncRetryingSend.class);
+
+  private final IHttpPoster m_aHttpPoster;
+  private final String m_sURL;
+  private final HttpHeaderMap m_aCustomHttpHeaders;
+  private final HttpEntity m_aHttpEntity;
+  private final String m_sMessageID;
+  private final HttpRetrySettings m_aRetrySettings;
+  private final HttpClientResponseHandler <? extends T> m_aResponseHandler;
+  private final IAS4OutgoingDumper m_aOutgoingDumper;
+  private final IAS4RetryCallback m_aRetryCallback;
+  private final Consumer <? super ICommonsList <X509Certificate>> m_aRemoteTlsPeerCertConsumer;
+  private final HttpRetryScheduler m_aScheduler;
+  private final String m_sDestinationKey;
+  private final int m_nMaxTries;
+  private final CompletableFuture <T> m_aFuture = new CompletableFuture <> ();
+  // Only accessed by one thread at a time
+  private final Wrapper <OutputStream> m_aDumpOSHolder = new Wrapper <> ();
+  private int m_nTry = 0;
+  private Duration m_aDurationBeforeRetry;
+
+  private HttpAsyncRetryingSend (@NonNull final IHttpPoster aHttpPoster,
+                                 @NonNull final String sURL,
+                                 @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                 @NonNull final HttpEntity aHttpEntity,
+                                 @NonNull final String sMessageID,
+                                 @NonNull final HttpRetrySettings aRetrySettings,
+                                 @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                 @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                 @Nullable final IAS4RetryCallback aRetryCallback,
+                                 @Nullable final Consumer <? super ICommonsList <X509Certificate>> aRemoteTlsPeerCertConsumer,
+                                 @NonNull final HttpRetryScheduler aScheduler)
+  {
+    m_aHttpPoster = aHttpPoster;
+    m_sURL = sURL;
+    m_aCustomHttpHeaders = aCustomHttpHeaders;
+    m_aHttpEntity = aHttpEntity;
+    m_sMessageID = sMessageID;
+    m_aRetrySettings = aRetrySettings;
+    m_aResponseHandler = aResponseHandler;
+    m_aOutgoingDumper = aOutgoingDumper;
+    m_aRetryCallback = aRetryCallback;
+    m_aRemoteTlsPeerCertConsumer = aRemoteTlsPeerCertConsumer;
+    m_aScheduler = aScheduler;
+    m_sDestinationKey = HttpRetryScheduler.getDestinationKey (sURL);
+    m_nMaxTries = aRetrySettings.isRetryEnabled () ? 1 + aRetrySettings.getMaxRetries () : 1;
+    m_aDurationBeforeRetry = aRetrySettings.getDurationBeforeRetry ();
+  }
+
+  private void _finish (@Nullable final T aResult, @Nullable final Exception aException)
+  {
+    // Add the possibility to close open resources
+    if (m_aOutgoingDumper != null && m_aDumpOSHolder.isSet ())
+      try
+      {
+        m_aOutgoingDumper.onEndRequest (EAS4MessageMode.REQUEST, null, null, m_sMessageID, aException);
+      }
+      catch (final Exception ex)
+      {
+        LOGGER.error ("OutgoingDumper.onEndRequest failed. Dumper=" +
+                      m_aOutgoingDumper +
+                      "; MessageID=" +
+                      m_sMessageID,
+                      ex);
+      }
+
+    if (aException != null)
+      m_aFuture.completeExceptionally (aException);
+    else
+      m_aFuture.complete (aResult);
+  }
+
+  public void run ()
+  {
+    final int nMaxRetries = m_nMaxTries - 1;
+    if (m_nTry > 0)
+      LOGGER.info ("Async retry #" + m_nTry + "/" + nMaxRetries + " for sending message with ID '" + m_sMessageID + "'");
+
+    final T aResult;
+    try
+    {
+      try
+      {
+        // Create a new one every time (for new filename, new timestamp, etc.)
+        final HttpEntity aDumpingEntity = BasicHttpPoster.createDumpingHttpEntity (m_aOutgoingDumper,
+                                                                                   m_aHttpEntity,
+                                                                                   m_sMessageID,
+                                                                                   m_aCustomHttpHeaders,
+                                                                                   m_nTry,
+                                                                                   m_aDumpOSHolder);
+        // A single attempt without retries
+        aResult = m_aHttpPoster.sendGenericMessage (m_sURL,
+                                                    m_aCustomHttpHeaders,
+                                                    aDumpingEntity,
+                                                    m_aResponseHandler,
+                                                    m_aRemoteTlsPeerCertConsumer);
+      }
+      finally
+      {
+        // Flush and close the dump output stream (if any)
+        StreamHelper.close (m_aDumpOSHolder.get ());
+      }
+    }
+    catch (final IOException ex)
+    {
+      _onFailedAttempt (ex);
+      return;
+    }
+    catch (final RuntimeException ex)
+    {
+      _finish (null, ex);
+      return;
+    }
+
+    m_aScheduler.onSuccessfulAttempt (m_sDestinationKey);
+    _finish (aResult, null);
+  }
+
+  private void _onFailedAttempt (@NonNull final IOException ex)
+  {
+    // Last try? -> propagate exception
+    if (m_nTry == m_nMaxTries - 1)
+    {
+      _finish (null, ex);
+      return;
+    }
+
+    // After the first retry, increase the waiting time
+    if (m_nTry > 1)
+      m_aDurationBeforeRetry = HttpRetrySettings.getIncreased (m_aDurationBeforeRetry,
+                                                               m_aRetrySettings.getRetryIncreaseFactor ());
+
+    // Consider other failures to the same destination
+    final Duration aEffectiveDuration = m_aScheduler.onFailedAttempt (m_sDestinationKey,
+                                                                      m_aScheduler.getJittered (m_aDurationBeforeRetry));
+    if (m_aRetryCallback != null)
+      if (m_aRetryCallback.onBeforeRetry (m_sMessageID,
+                                          m_sURL,
+                                          m_nTry,
+                                          m_nMaxTries,
+                                          aEffectiveDuration.toMillis (),
+                                          ex)
+                          .isBreak ())
+      {
+        // Explicitly interrupt retry
+        LOGGER.warn ("Error sending message '" +
+                     m_sMessageID +
+                     "' to '" +
+                     m_sURL +
+                     ": " +
+                     ex.getClass ().getSimpleName () +
+                     " - " +
+                     ex.getMessage ());
+        LOGGER.info ("Retrying was explicitly stopped by the RetryCallback");
+
+        // Propagate Exception as if it would be the last retry
+        _finish (null, ex);
+        return;
+      }
+
+    LOGGER.warn ("Error sending message '" +
+                 m_sMessageID +
+                 "' to '" +
+                 m_sURL +
+                 "': " +
+                 ex.getClass ().getSimpleName () +
+                 " - " +
+                 ex.getMessage ());
+    LOGGER.info ("Scheduling retry in " + aEffectiveDuration.toMillis () + " ms");
+
+    m_nTry++;
+    try
+    {
+      m_aScheduler.schedule (this, aEffectiveDuration);
+    }
+    catch (final RejectedExecutionException ex2)
+    {
+      _finish (null, ex2);
+    }
+  }
+
+  /**
+   * Start an asynchronous send with retries. Each attempt is executed on the send executor of the
+   * provided scheduler and the waiting time between the attempts does not block any thread.
+   *
+   * @param <T>
+   *        Response data type
+   * @param aHttpPoster
+   *        The HTTP poster to perform the single attempts. May not be <code>null</code>.
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param sMessageID
+   *        the AS4 message ID. May not be <code>null</code>.
+   * @param aRetrySettings
+   *        The retry settings to use. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler. May not be <code>null</code>.
+   * @param aOutgoingDumper
+   *        An optional outgoing dumper for this message. May be <code>null</code> to use the global
+   *        one.
+   * @param aRetryCallback
+   *        An optional retry callback. May be <code>null</code>.
+   * @param aRemoteTlsPeerCertConsumer
+   *        An optional consumer for the remote TLS server certificates. May be <code>null</code>.
+   * @param aScheduler
+   *        The scheduler to use. May not be <code>null</code>.
+   * @return The future that is completed with the HTTP response data or that is completed
+   *         exceptionally with the exception of the last attempt. Never <code>null</code>.
+   */
+  @NonNull
+  static <T> CompletableFuture <T> start (@NonNull final IHttpPoster aHttpPoster,
+                                          @NonNull final String sURL,
+                                          @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                          @NonNull final HttpEntity aHttpEntity,
+                                          @NonNull final String sMessageID,
+                                          @NonNull final HttpRetrySettings aRetrySettings,
+                                          @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                          @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                          @Nullable final IAS4RetryCallback aRetryCallback,
+                                          @Nullable final Consumer <? super ICommonsList <X509Certificate>> aRemoteTlsPeerCertConsumer,
+                                          @NonNull final HttpRetryScheduler aScheduler)
+  {
+    ValueEnforcer.notNull (aHttpPoster, "HttpPoster");
+    ValueEnforcer.notEmpty (sURL, "URL");
+    ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
+    ValueEnforcer.notNull (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aRetrySettings, "RetrySettings");
+    ValueEnforcer.notNull (aResponseHandler, "ResponseHandler");
+    ValueEnforcer.notNull (aScheduler, "Scheduler");
+
+    if (aRetrySettings.isRetryEnabled () && !aHttpEntity.isRepeatable ())
+      throw new IllegalStateException ("If retry is enabled, a repeatable entity must be provided");
+
+    // Parameter or global one - may still be null
+    final IAS4OutgoingDumper aRealOutgoingDumper = aOutgoingDumper != null ? aOutgoingDumper
+                                                                           : AS4DumpManager.getOutgoingDumper ();
+
+    final HttpAsyncRetryingSend <T> aSend = new HttpAsyncRetryingSend <> (aHttpPoster,
+                                                                          sURL,
+                                                                          aCustomHttpHeaders,
+                                                                          aHttpEntity,
+                                                                          sMessageID,
+                                                                          aRetrySettings,
+                                                                          aResponseHandler,
+                                                                          aRealOutgoingDumper,
+                                                                          aRetryCallback,
+                                                                          aRemoteTlsPeerCertConsumer,
+                                                                          aScheduler);
+    try
+    {
+      aScheduler.execute (aSend);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      aSend.m_aFuture.completeExceptionally (ex);
+    }
+    return aSend.m_aFuture;
+  }
+}
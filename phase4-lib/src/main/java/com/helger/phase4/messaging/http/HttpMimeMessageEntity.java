@@ -22,29 +22,39 @@ import java.io.OutputStream;
 
 import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
 import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
 
 import com.helger.annotation.Nonempty;
 import com.helger.base.enforce.ValueEnforcer;
 import com.helger.base.tostring.ToStringGenerator;
+import com.helger.phase4.logging.Phase4LoggerFactory;
 import com.helger.phase4.messaging.mime.AS4MimeMessage;
+import com.helger.phase4.messaging.mime.AS4MimeMultipartWriter;
 
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 
 /**
- * Special HTTP entity that reads and writes to a {@link MimeMessage}.
+ * Special HTTP entity that reads and writes to a {@link MimeMessage}. If the raw content of all body
+ * parts is known (see {@link AS4MimeMultipartWriter}), the exact content length is provided, so that
+ * no chunked transfer encoding is needed.
  *
  * @author Philip Helger
  * @author bayerlma
  */
 public class HttpMimeMessageEntity extends AbstractHttpEntity
 {
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (HttpMimeMessageEntity.class);
+
   private final AS4MimeMessage m_aMsg;
+  private final AS4MimeMultipartWriter m_aWriter;
 
   protected HttpMimeMessageEntity (@NonNull @Nonempty final String sContentType, @NonNull final AS4MimeMessage aMsg)
   {
     super (sContentType, null);
     m_aMsg = aMsg;
+    m_aWriter = AS4MimeMultipartWriter.createOrNull (aMsg);
   }
 
   @Override
@@ -62,6 +72,17 @@ public class HttpMimeMessageEntity extends AbstractHttpEntity
     return m_aMsg;
   }
 
+  /**
+   * @return The writer that is used to determine the content length. May be <code>null</code> if
+   *         the content length is unknown.
+   * @since 4.5.5
+   */
+  @Nullable
+  public final AS4MimeMultipartWriter getKnownLengthWriter ()
+  {
+    return m_aWriter;
+  }
+
   @Override
   public boolean isRepeatable ()
   {
@@ -70,6 +91,16 @@ public class HttpMimeMessageEntity extends AbstractHttpEntity
 
   public long getContentLength ()
   {
+    if (m_aWriter != null)
+      try
+      {
+        return m_aWriter.getContentLength ();
+      }
+      catch (final MessagingException ex)
+      {
+        // Fall back to chunked transfer encoding
+        LOGGER.warn ("Failed to determine the content length of the MIME message - sending it chunked", ex);
+      }
     // length unknown - negative number
     return -1;
   }
@@ -98,7 +129,10 @@ public class HttpMimeMessageEntity extends AbstractHttpEntity
     ValueEnforcer.notNull (aOS, "OutputStream");
     try
     {
-      m_aMsg.writeTo (aOS);
+      if (m_aWriter != null)
+        m_aWriter.writeTo (aOS);
+      else
+        m_aMsg.writeTo (aOS);
     }
     catch (final MessagingException ex)
     {
@@ -109,7 +143,9 @@ public class HttpMimeMessageEntity extends AbstractHttpEntity
   @Override
   public String toString ()
   {
-    return ToStringGenerator.getDerived (super.toString ()).append ("MimeMsg", m_aMsg).getToString ();
+    return ToStringGenerator.getDerived (super.toString ()).append ("MimeMsg", m_aMsg)
+                                                           .append ("KnownLengthWriter", m_aWriter)
+                                                           .getToString ();
   }
 
   @NonNull
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jspecify.annotations.NonNull;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.phase4.util.AS4Executors;
+
+/**
+ * The scheduler used for asynchronous HTTP sending with retries. Each send attempt is executed on
+ * the provided send executor, whereas the waiting time between two attempts is handled by a
+ * {@link ScheduledExecutorService}. So no thread is blocked while waiting for the next retry.<br>
+ * Additionally a random jitter is applied to each retry delay and the backoff state is maintained
+ * per destination (scheme, host and port): if a destination failed, retries of other messages to
+ * the same destination are not scheduled before the backoff of that destination has passed. A
+ * successful send resets the backoff of the destination.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class HttpRetryScheduler implements AutoCloseable
+{
+  /** The default jitter factor of 10% */
+  public static final double DEFAULT_JITTER_FACTOR = 0.1;
+
+  private static final class SingletonHolder
+  {
+    static final HttpRetryScheduler INSTANCE = new HttpRetryScheduler (_createDefaultSendExecutor (),
+                                                                       DEFAULT_JITTER_FACTOR);
+  }
+
+  private final ScheduledExecutorService m_aScheduler;
+  private final Executor m_aSendExecutor;
+  private final double m_dJitterFactor;
+  // Destination key to "earliest next retry" in epoch millis
+  private final Map <String, Long> m_aDestinationBackoff = new ConcurrentHashMap <> ();
+
+  @NonNull
+  private static ExecutorService _createDefaultSendExecutor ()
+  {
+    // Virtual threads if available - a waiting send doesn't block a platform thread
+    return AS4Executors.createTaskExecutor ("phase4-http-send-");
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aSendExecutor
+   *        The executor on which the send attempts are executed. May not be <code>null</code>.
+   * @param dJitterFactor
+   *        The jitter factor to apply to each retry delay. Must be between 0 and 1. A value of 0.1
+   *        means that the effective delay is randomly chosen within +/- 10% of the configured
+   *        delay.
+   */
+  public HttpRetryScheduler (@NonNull final Executor aSendExecutor, final double dJitterFactor)
+  {
+    ValueEnforcer.notNull (aSendExecutor, "SendExecutor");
+    ValueEnforcer.isBetweenInclusive (dJitterFactor, "JitterFactor", 0d, 1d);
+    m_aScheduler = Executors.newSingleThreadScheduledExecutor (AS4Executors.createPlatformThreadFactory ("phase4-http-retry-"));
+    m_aSendExecutor = aSendExecutor;
+    m_dJitterFactor = dJitterFactor;
+  }
+
+  /**
+   * @return The global default instance using daemon threads. Never <code>null</code>.
+   */
+  @NonNull
+  public static HttpRetryScheduler getDefaultInstance ()
+  {
+    return SingletonHolder.INSTANCE;
+  }
+
+  /**
+   * @return The executor used for the send attempts. Never <code>null</code>.
+   */
+  @NonNull
+  public final Executor getSendExecutor ()
+  {
+    return m_aSendExecutor;
+  }
+
+  /**
+   * @return The jitter factor. Between 0 and 1.
+   */
+  public final double getJitterFactor ()
+  {
+    return m_dJitterFactor;
+  }
+
+  /**
+   * Get the destination key for the provided URL. That is the combination of scheme, host and
+   * port.
+   *
+   * @param sURL
+   *        The URL to get the key from. May not be <code>null</code>.
+   * @return The destination key and never <code>null</code>.
+   */
+  @NonNull
+  public static String getDestinationKey (@NonNull final String sURL)
+  {
+    try
+    {
+      final URI aURI = URI.create (sURL);
+      if (aURI.getScheme () != null && aURI.getRawAuthority () != null)
+        return aURI.getScheme () + "://" + aURI.getRawAuthority ();
+    }
+    catch (final IllegalArgumentException ex)
+    {
+      // Fall through
+    }
+    return sURL;
+  }
+
+  /**
+   * Apply the configured jitter onto the provided duration.
+   *
+   * @param aDuration
+   *        The duration to apply the jitter on. May not be <code>null</code>.
+   * @return The jittered duration. Never <code>null</code> and never negative.
+   */
+  @NonNull
+  public Duration getJittered (@NonNull final Duration aDuration)
+  {
+    if (m_dJitterFactor == 0)
+      return aDuration;
+    final long nMillis = aDuration.toMillis ();
+    final double dRandom = ThreadLocalRandom.current ().nextDouble (-m_dJitterFactor, m_dJitterFactor);
+    return Duration.ofMillis (Math.max (0, Math.round (nMillis * (1 + dRandom))));
+  }
+
+  /**
+   * Register a failed attempt to the provided destination and determine the effective delay until
+   * the next try. The result is at least the provided delay, but may be longer if another message
+   * to the same destination caused a longer backoff.
+   *
+   * @param sDestinationKey
+   *        The destination key as created by {@link #getDestinationKey(String)}. May not be
+   *        <code>null</code>.
+   * @param aDelay
+   *        The delay until the next retry, as determined by the retry settings. May not be
+   *        <code>null</code>.
+   * @return The effective delay until the next try. Never <code>null</code>.
+   */
+  @NonNull
+  public Duration onFailedAttempt (@NonNull final String sDestinationKey, @NonNull final Duration aDelay)
+  {
+    final long nNow = System.currentTimeMillis ();
+    final long nRequested = nNow + aDelay.toMillis ();
+    final long nEffective = m_aDestinationBackoff.merge (sDestinationKey,
+                                                         Long.valueOf (nRequested),
+                                                         (a, b) -> a.longValue () >= b.longValue () ? a : b)
+                                                 .longValue ();
+    return Duration.ofMillis (Math.max (0, nEffective - nNow));
+  }
+
+  /**
+   * Register a successful attempt to the provided destination. This resets the backoff state of
+   * the destination.
+   *
+   * @param sDestinationKey
+   *        The destination key as created by {@link #getDestinationKey(String)}. May not be
+   *        <code>null</code>.
+   */
+  public void onSuccessfulAttempt (@NonNull final String sDestinationKey)
+  {
+    m_aDestinationBackoff.remove (sDestinationKey);
+  }
+
+  /**
+   * @return The number of destinations that are currently in backoff state.
+   */
+  @Nonnegative
+  public int getDestinationsInBackoffCount ()
+  {
+    final long nNow = System.currentTimeMillis ();
+    m_aDestinationBackoff.values ().removeIf (x -> x.longValue () < nNow);
+    return m_aDestinationBackoff.size ();
+  }
+
+  /**
+   * Execute the provided send attempt now, on the send executor.
+   *
+   * @param aAttempt
+   *        The attempt to execute. May not be <code>null</code>.
+   */
+  public void execute (@NonNull final Runnable aAttempt)
+  {
+    m_aSendExecutor.execute (aAttempt);
+  }
+
+  /**
+   * Execute the provided send attempt on the send executor after the provided delay has passed. No
+   * thread is blocked while waiting.
+   *
+   * @param aAttempt
+   *        The attempt to execute. May not be <code>null</code>.
+   * @param aDelay
+   *        The delay to wait. May not be <code>null</code>.
+   */
+  public void schedule (@NonNull final Runnable aAttempt, @NonNull final Duration aDelay)
+  {
+    m_aScheduler.schedule ( () -> m_aSendExecutor.execute (aAttempt), aDelay.toMillis (), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Shutdown the scheduler. Pending retries are no longer executed. The send executor is not
+   * touched.
+   */
+  public void close ()
+  {
+    m_aScheduler.shutdownNow ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SendExecutor", m_aSendExecutor)
+                                       .append ("JitterFactor", m_dJitterFactor)
+                                       .getToString ();
+  }
+}
@@ -16,26 +16,190 @@
  */
 package com.helger.phase4.messaging.http;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
 import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
 import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
 import org.w3c.dom.Node;
 
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.WillNotClose;
+import com.helger.base.CGlobal;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.base.tostring.ToStringGenerator;
 import com.helger.mime.IMimeType;
+import com.helger.phase4.messaging.mime.AS4KnownLengthContent;
+import com.helger.phase4.spool.AS4MemoryFirstSpool;
+import com.helger.phase4.spool.IAS4SpoolEntry;
+import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.util.AS4XMLHelper;
 
 /**
- * Special HttpClient HTTP POST entity that contains a DOM Node as a serialized String. This entity
- * is repeatable.
+ * Special HttpClient HTTP POST entity that contains a DOM Node in serialized form. The node is
+ * serialized exactly once, directly into bytes (without an intermediate String). If an
+ * {@link AS4ResourceHelper} is provided, serialized content exceeding a threshold is spilled to a
+ * file of the resource helpers spool. This entity is repeatable and has a known content length.
  *
  * @author Philip Helger
  */
-public class HttpXMLEntity extends StringEntity
+public class HttpXMLEntity extends AbstractHttpEntity
 {
-  public HttpXMLEntity (@NonNull final Node aNode, @NonNull final IMimeType aMimeType)
+  /** The default threshold above which the serialized XML is spilled to a file */
+  public static final int DEFAULT_IN_MEMORY_THRESHOLD = CGlobal.BYTES_PER_MEGABYTE;
+
+  private final byte [] m_aBytes;
+  private final IAS4SpoolEntry m_aSpoolEntry;
+
+  @NonNull
+  private static ContentType _getContentType (@NonNull final IMimeType aMimeType)
   {
     // ContentType Required for AS4.NET
-    super (AS4XMLHelper.serializeXML (aNode),
-           ContentType.parse (aMimeType.getAsString ()).withCharset (AS4XMLHelper.XWS.getCharset ()));
+    return ContentType.parse (aMimeType.getAsString ()).withCharset (AS4XMLHelper.XWS.getCharset ());
+  }
+
+  /**
+   * Constructor that keeps the serialized XML in memory.
+   *
+   * @param aNode
+   *        The node to be serialized. May not be <code>null</code>.
+   * @param aMimeType
+   *        The MIME type to use. May not be <code>null</code>.
+   */
+  public HttpXMLEntity (@NonNull final Node aNode, @NonNull final IMimeType aMimeType)
+  {
+    super (_getContentType (aMimeType), null);
+    m_aBytes = AS4XMLHelper.serializeXMLToBytes (aNode);
+    m_aSpoolEntry = null;
+  }
+
+  /**
+   * Constructor that keeps the serialized XML in memory up to the default threshold and spills it
+   * to a file afterwards.
+   *
+   * @param aNode
+   *        The node to be serialized. May not be <code>null</code>.
+   * @param aMimeType
+   *        The MIME type to use. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper that owns the spill file. May not be <code>null</code>.
+   * @since 4.5.5
+   */
+  public HttpXMLEntity (@NonNull final Node aNode,
+                        @NonNull final IMimeType aMimeType,
+                        @NonNull @WillNotClose final AS4ResourceHelper aResHelper)
+  {
+    this (aNode, aMimeType, aResHelper, DEFAULT_IN_MEMORY_THRESHOLD);
+  }
+
+  /**
+   * Constructor that keeps the serialized XML in memory up to the provided threshold and spills it
+   * to a file afterwards.
+   *
+   * @param aNode
+   *        The node to be serialized. May not be <code>null</code>.
+   * @param aMimeType
+   *        The MIME type to use. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper that owns the spill file. May not be <code>null</code>.
+   * @param nInMemoryThreshold
+   *        The maximum number of bytes to keep in memory. Must be &ge; 0.
+   * @since 4.5.5
+   */
+  public HttpXMLEntity (@NonNull final Node aNode,
+                        @NonNull final IMimeType aMimeType,
+                        @NonNull @WillNotClose final AS4ResourceHelper aResHelper,
+                        @Nonnegative final int nInMemoryThreshold)
+  {
+    super (_getContentType (aMimeType), null);
+    ValueEnforcer.notNull (aNode, "Node");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    try
+    {
+      final IAS4SpoolEntry aSpoolEntry = new AS4MemoryFirstSpool (aResHelper.getSpool (), nInMemoryThreshold).createEntry ();
+      // Ensure the spill file is deleted together with the other resources
+      aResHelper.addCloseable (aSpoolEntry);
+      try (final OutputStream aOS = aSpoolEntry.getOutputStream ())
+      {
+        AS4XMLHelper.serializeXML (aNode, aOS);
+      }
+      m_aBytes = null;
+      m_aSpoolEntry = aSpoolEntry;
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to serialize XML", ex);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the serialized XML is kept in memory, <code>false</code> if it was
+   *         spilled to a file.
+   * @since 4.5.5
+   */
+  public final boolean isInMemory ()
+  {
+    return m_aBytes != null || m_aSpoolEntry.isInMemory ();
+  }
+
+  public final boolean isRepeatable ()
+  {
+    return true;
+  }
+
+  @Nonnegative
+  public final long getContentLength ()
+  {
+    return m_aBytes != null ? m_aBytes.length : m_aSpoolEntry.getSize ();
+  }
+
+  public final boolean isStreaming ()
+  {
+    return false;
+  }
+
+  @NonNull
+  public final InputStream getContent ()
+  {
+    return m_aBytes != null ? new NonBlockingByteArrayInputStream (m_aBytes) : m_aSpoolEntry.getInputStream ();
+  }
+
+  @Override
+  public void writeTo (@NonNull final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OutputStream");
+    if (m_aBytes != null)
+      aOS.write (m_aBytes);
+    else
+    {
+      final File aFile = m_aSpoolEntry.getFile ();
+      if (aFile != null)
+        AS4KnownLengthContent.ofFile (aFile).writeTo (aOS);
+      else
+        StreamHelper.copyInputStreamToOutputStream (m_aSpoolEntry.getInputStream (), aOS);
+    }
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    // The spool entry is closed by the resource helper
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("ContentLength", getContentLength ())
+                            .append ("InMemory", isInMemory ())
+                            .getToString ();
   }
 }
@@ -18,6 +18,7 @@ package com.helger.phase4.messaging.http;
 
 import java.io.IOException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import org.apache.hc.client5.http.classic.methods.HttpPost;
@@ -263,4 +264,66 @@ public interface IHttpPoster
                                           aOutgoingDumper,
                                           aRetryCallback);
   }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendGenericMessageWithRetries(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, HttpClientResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback, Consumer)}.
+   * <p>
+   * The default implementation executes each attempt as a separate task on the send executor of
+   * the default {@link HttpRetryScheduler}, using
+   * {@link #sendGenericMessage(String, HttpHeaderMap, HttpEntity, HttpClientResponseHandler, Consumer)}
+   * for the single attempts. No thread is blocked between two attempts. {@link BasicHttpPoster} uses
+   * its own {@link HttpRetryScheduler}.
+   *
+   * @param <T>
+   *        Response data type
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional http header map that should be applied. May be <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param sMessageID
+   *        the AS4 message ID. May not be <code>null</code>.
+   * @param aRetrySettings
+   *        The retry settings to use. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler that should be used to convert the HTTP response to a domain
+   *        object.
+   * @param aOutgoingDumper
+   *        An optional outgoing dumper for this message. May be <code>null</code> to use the global
+   *        one.
+   * @param aRetryCallback
+   *        An optional retry callback that is invoked, before a retry happens. May be
+   *        <code>null</code>.
+   * @param aRemoteTlsPeerCertConsumer
+   *        An optional consumer that is invoked with the remote TLS server certificates after each
+   *        successful HTTPS attempt. May be <code>null</code>.
+   * @return The future that is completed with the HTTP response data as indicated by the response
+   *         handler, or that is completed exceptionally. Never <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  default <T> CompletableFuture <T> sendGenericMessageWithRetriesAsync (@NonNull final String sURL,
+                                                                        @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                                        @NonNull final HttpEntity aHttpEntity,
+                                                                        @NonNull final String sMessageID,
+                                                                        @NonNull final HttpRetrySettings aRetrySettings,
+                                                                        @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                                        @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                        @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                        @Nullable final Consumer <? super ICommonsList <X509Certificate>> aRemoteTlsPeerCertConsumer)
+  {
+    return HttpAsyncRetryingSend.start (this,
+                                        sURL,
+                                        aCustomHttpHeaders,
+                                        aHttpEntity,
+                                        sMessageID,
+                                        aRetrySettings,
+                                        aResponseHandler,
+                                        aOutgoingDumper,
+                                        aRetryCallback,
+                                        aRemoteTlsPeerCertConsumer,
+                                        HttpRetryScheduler.getDefaultInstance ());
+  }
 }
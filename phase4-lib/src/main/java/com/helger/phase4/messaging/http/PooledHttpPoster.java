@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.util.TimeValue;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.GuardedBy;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.concurrent.SimpleReadWriteLock;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+
+/**
+ * A long-living, thread-safe variant of {@link BasicHttpPoster}. Instead of creating a new HTTP
+ * client for every message, a single {@link HttpClientManager} is created lazily from the
+ * contained {@link HttpClientFactory} and reused for all subsequent sends. That way TCP connections
+ * are kept alive in the connection pool and TLS sessions can be resumed, so the handshake costs
+ * are not paid for every message.<br>
+ * The number of concurrent requests is limited per route (scheme, host and port) and in total. The
+ * connection pool of the HTTP client uses the same limits. Connections that were idle for longer
+ * than the configured duration are evicted in the background.<br>
+ * The same instance is meant to be shared across threads and messages, e.g. via
+ * {@link com.helger.phase4.client.AbstractAS4Client#setHttpPoster(IHttpPoster)} or via
+ * <code>customHttpPoster</code> of the sender builders. Note: the HTTP client factory of the
+ * sender builders is ignored in that case - configure it on this object instead. Call
+ * {@link #close()} when the instance is no longer needed.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class PooledHttpPoster extends BasicHttpPoster implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+  public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 100;
+  public static final Duration DEFAULT_IDLE_EVICTION_DURATION = Duration.ofSeconds (30);
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (PooledHttpPoster.class);
+
+  private final int m_nMaxConnectionsPerRoute;
+  private final int m_nMaxConnectionsTotal;
+  private final Duration m_aIdleEvictionDuration;
+  private final Semaphore m_aTotalPermits;
+  private final Map <String, Semaphore> m_aRoutePermits = new ConcurrentHashMap <> ();
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private HttpClientManager m_aClientMgr;
+  @GuardedBy ("m_aRWLock")
+  private HttpClientFactory m_aClientMgrFactory;
+  @GuardedBy ("m_aRWLock")
+  private boolean m_bClosed = false;
+
+  /**
+   * Constructor using the default limits.
+   */
+  public PooledHttpPoster ()
+  {
+    this (DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_TOTAL, DEFAULT_IDLE_EVICTION_DURATION);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxConnectionsPerRoute
+   *        The maximum number of concurrent requests per route. Must be &gt; 0.
+   * @param nMaxConnectionsTotal
+   *        The maximum number of concurrent requests in total. Must be &gt; 0.
+   * @param aIdleEvictionDuration
+   *        The duration after which idle connections are closed. May not be <code>null</code>.
+   */
+  public PooledHttpPoster (@Nonnegative final int nMaxConnectionsPerRoute,
+                           @Nonnegative final int nMaxConnectionsTotal,
+                           @NonNull final Duration aIdleEvictionDuration)
+  {
+    ValueEnforcer.isGT0 (nMaxConnectionsPerRoute, "MaxConnectionsPerRoute");
+    ValueEnforcer.isGT0 (nMaxConnectionsTotal, "MaxConnectionsTotal");
+    ValueEnforcer.notNull (aIdleEvictionDuration, "IdleEvictionDuration");
+    ValueEnforcer.isFalse (aIdleEvictionDuration.isNegative () || aIdleEvictionDuration.isZero (),
+                           "IdleEvictionDuration must be positive");
+    m_nMaxConnectionsPerRoute = nMaxConnectionsPerRoute;
+    m_nMaxConnectionsTotal = nMaxConnectionsTotal;
+    m_aIdleEvictionDuration = aIdleEvictionDuration;
+    m_aTotalPermits = new Semaphore (nMaxConnectionsTotal, true);
+  }
+
+  /**
+   * @return The maximum number of concurrent requests per route. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxConnectionsPerRoute ()
+  {
+    return m_nMaxConnectionsPerRoute;
+  }
+
+  /**
+   * @return The maximum number of concurrent requests in total. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxConnectionsTotal ()
+  {
+    return m_nMaxConnectionsTotal;
+  }
+
+  /**
+   * @return The duration after which idle connections are evicted. Never <code>null</code>.
+   */
+  @NonNull
+  public final Duration getIdleEvictionDuration ()
+  {
+    return m_aIdleEvictionDuration;
+  }
+
+  /**
+   * @return The number of requests that are currently in flight over all routes.
+   */
+  @Nonnegative
+  public final int getActiveRequestCount ()
+  {
+    return m_nMaxConnectionsTotal - m_aTotalPermits.availablePermits ();
+  }
+
+  /**
+   * @return The number of distinct routes this poster has sent to so far.
+   */
+  @Nonnegative
+  public final int getRouteCount ()
+  {
+    return m_aRoutePermits.size ();
+  }
+
+  /**
+   * @return <code>true</code> if {@link #close()} was called on this object.
+   */
+  public final boolean isClosed ()
+  {
+    return m_aRWLock.readLockedBoolean ( () -> m_bClosed);
+  }
+
+  @NonNull
+  private static String _getRouteKey (@NonNull final HttpPost aPost)
+  {
+    return aPost.getScheme () + "://" + aPost.getAuthority ();
+  }
+
+  /**
+   * Create the connection manager for the long-living HTTP client. It is created from the provided
+   * factory and the pool limits are set to the limits of this object, so that the connection pool
+   * never becomes the bottleneck for requests that already passed the limits of this object.
+   *
+   * @param aHttpClientFactory
+   *        The HTTP client factory to use. Never <code>null</code>.
+   * @return The new connection manager. Never <code>null</code>.
+   */
+  @NonNull
+  protected HttpClientConnectionManager createPooledConnectionManager (@NonNull final HttpClientFactory aHttpClientFactory)
+  {
+    final HttpClientConnectionManager ret = aHttpClientFactory.createConnectionManager (aHttpClientFactory
+                                                                                          .createTlsSocketStrategy ());
+    if (ret instanceof final PoolingHttpClientConnectionManager aPoolingMgr)
+    {
+      aPoolingMgr.setMaxTotal (m_nMaxConnectionsTotal);
+      aPoolingMgr.setDefaultMaxPerRoute (m_nMaxConnectionsPerRoute);
+    }
+    else
+      LOGGER.warn ("The HttpClientFactory created a non-pooling connection manager - the connection limits cannot be applied");
+    return ret;
+  }
+
+  /**
+   * Create the long-living HTTP client manager. The client is created from the provided factory,
+   * using the connection manager from {@link #createPooledConnectionManager(HttpClientFactory)},
+   * with background eviction of expired and idle connections enabled.
+   *
+   * @param aHttpClientFactory
+   *        The HTTP client factory to use. Never <code>null</code>.
+   * @return The new HTTP client manager. Never <code>null</code>.
+   */
+  @NonNull
+  protected HttpClientManager createPooledHttpClientManager (@NonNull final HttpClientFactory aHttpClientFactory)
+  {
+    final TimeValue aIdleTime = TimeValue.ofMilliseconds (m_aIdleEvictionDuration.toMillis ());
+    return new HttpClientManager ( () -> aHttpClientFactory.createHttpClientBuilder ()
+                                                           .setConnectionManager (createPooledConnectionManager (aHttpClientFactory))
+                                                           .evictExpiredConnections ()
+                                                           .evictIdleConnections (aIdleTime)
+                                                           .build ());
+  }
+
+  @NonNull
+  private HttpClientManager _getOrCreateClientManager ()
+  {
+    final HttpClientFactory aCurFactory = getHttpClientFactory ();
+
+    // Fast path - already created with the current factory
+    HttpClientManager ret = m_aRWLock.readLockedGet ( () -> {
+      if (m_bClosed)
+        throw new IllegalStateException ("This PooledHttpPoster was already closed");
+      return m_aClientMgrFactory == aCurFactory ? m_aClientMgr : null;
+    });
+    if (ret == null)
+    {
+      m_aRWLock.writeLock ().lock ();
+      try
+      {
+        if (m_bClosed)
+          throw new IllegalStateException ("This PooledHttpPoster was already closed");
+
+        // Try again in write lock
+        if (m_aClientMgrFactory == aCurFactory && m_aClientMgr != null)
+          ret = m_aClientMgr;
+        else
+        {
+          if (m_aClientMgr != null)
+          {
+            // The HTTP client factory was changed in the meantime
+            LOGGER.info ("The HttpClientFactory of the PooledHttpPoster changed - recreating the HTTP client");
+            StreamHelper.close (m_aClientMgr);
+          }
+          ret = createPooledHttpClientManager (aCurFactory);
+          m_aClientMgr = ret;
+          m_aClientMgrFactory = aCurFactory;
+        }
+      }
+      finally
+      {
+        m_aRWLock.writeLock ().unlock ();
+      }
+    }
+    return ret;
+  }
+
+  @Override
+  @Nullable
+  protected <T> T executeHttpPost (@NonNull final HttpPost aPost,
+                                   @NonNull final HttpClientContext aHttpClientContext,
+                                   @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    final HttpClientManager aClientMgr = _getOrCreateClientManager ();
+    final Semaphore aRoutePermits = m_aRoutePermits.computeIfAbsent (_getRouteKey (aPost),
+                                                                     k -> new Semaphore (m_nMaxConnectionsPerRoute,
+                                                                                         true));
+    try
+    {
+      aRoutePermits.acquire ();
+      try
+      {
+        m_aTotalPermits.acquire ();
+        try
+        {
+          // Don't close the client manager
+          return aClientMgr.execute (aPost, aHttpClientContext, aResponseHandler);
+        }
+        finally
+        {
+          m_aTotalPermits.release ();
+        }
+      }
+      finally
+      {
+        aRoutePermits.release ();
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      final InterruptedIOException ex2 = new InterruptedIOException ("Interrupted while waiting for a free HTTP connection");
+      ex2.initCause (ex);
+      throw ex2;
+    }
+  }
+
+  /**
+   * Close the underlying HTTP client and all pooled connections. After this method was called, no
+   * more messages can be sent with this object. Calling this method more than once has no effect.
+   */
+  public void close ()
+  {
+    m_aRWLock.writeLocked ( () -> {
+      if (!m_bClosed)
+      {
+        m_bClosed = true;
+        StreamHelper.close (m_aClientMgr);
+        m_aClientMgr = null;
+        m_aClientMgrFactory = null;
+      }
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("MaxConnectionsPerRoute", m_nMaxConnectionsPerRoute)
+                            .append ("MaxConnectionsTotal", m_nMaxConnectionsTotal)
+                            .append ("IdleEvictionDuration", m_aIdleEvictionDuration)
+                            .getToString ();
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.mime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.iface.IHasInputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.io.file.FileHelper;
+
+/**
+ * A repeatable input stream provider for content with a length that is known in advance. The
+ * content is either an in-memory byte array or an existing file. Because of the known length, MIME
+ * messages consisting only of such contents can be sent with a "Content-Length" instead of chunked
+ * transfer encoding. File content is written via {@link FileChannel#transferTo(long, long,
+ * WritableByteChannel)} so that the data does not need to be copied through the Java heap where
+ * the target permits it.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@Immutable
+public final class AS4KnownLengthContent implements IHasInputStream
+{
+  private final byte [] m_aBytes;
+  private final File m_aFile;
+
+  private AS4KnownLengthContent (final byte @Nullable [] aBytes, @Nullable final File aFile)
+  {
+    m_aBytes = aBytes;
+    m_aFile = aFile;
+  }
+
+  /**
+   * @return The underlying file or <code>null</code> if this is in-memory content.
+   */
+  @Nullable
+  public File getFile ()
+  {
+    return m_aFile;
+  }
+
+  /**
+   * @return <code>true</code> if this is in-memory content, <code>false</code> if it is file based.
+   */
+  public boolean isInMemory ()
+  {
+    return m_aBytes != null;
+  }
+
+  /**
+   * @return The length of the content in bytes. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getLength ()
+  {
+    return m_aBytes != null ? m_aBytes.length : m_aFile.length ();
+  }
+
+  public boolean isReadMultiple ()
+  {
+    return true;
+  }
+
+  @Nullable
+  public InputStream getInputStream ()
+  {
+    if (m_aBytes != null)
+      return new NonBlockingByteArrayInputStream (m_aBytes);
+    return FileHelper.getBufferedInputStream (m_aFile);
+  }
+
+  /**
+   * Write the complete content to the provided output stream. The output stream is not closed.
+   *
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  public void writeTo (@NonNull final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OutputStream");
+
+    if (m_aBytes != null)
+    {
+      aOS.write (m_aBytes);
+      return;
+    }
+
+    try (final FileChannel aSrc = FileChannel.open (m_aFile.toPath (), StandardOpenOption.READ))
+    {
+      // Use the file channel directly if possible to avoid an additional copy
+      final WritableByteChannel aDst;
+      if (aOS instanceof final FileOutputStream aFOS)
+        aDst = aFOS.getChannel ();
+      else
+        aDst = Channels.newChannel (aOS);
+      final long nSize = aSrc.size ();
+      long nPos = 0;
+      while (nPos < nSize)
+        nPos += aSrc.transferTo (nPos, nSize - nPos, aDst);
+      // Don't close aDst, as that would close the output stream
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Bytes#", m_aBytes == null ? -1 : m_aBytes.length)
+                                       .append ("File", m_aFile)
+                                       .getToString ();
+  }
+
+  /**
+   * Create content from an in-memory byte array. The byte array is not copied.
+   *
+   * @param aBytes
+   *        The bytes to use. May not be <code>null</code>.
+   * @return The new content and never <code>null</code>.
+   */
+  @NonNull
+  public static AS4KnownLengthContent ofBytes (final byte @NonNull [] aBytes)
+  {
+    ValueEnforcer.notNull (aBytes, "Bytes");
+    return new AS4KnownLengthContent (aBytes, null);
+  }
+
+  /**
+   * Create content from an existing file. The file must not be modified afterwards.
+   *
+   * @param aFile
+   *        The file to use. May not be <code>null</code>.
+   * @return The new content and never <code>null</code>.
+   */
+  @NonNull
+  public static AS4KnownLengthContent ofFile (@NonNull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    return new AS4KnownLengthContent (null, aFile);
+  }
+}
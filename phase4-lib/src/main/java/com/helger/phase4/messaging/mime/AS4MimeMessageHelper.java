@@ -16,6 +16,7 @@
  */
 package com.helger.phase4.messaging.mime;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.function.BiConsumer;
 
@@ -27,6 +28,7 @@ import org.w3c.dom.Document;
 
 import com.helger.annotation.style.ReturnsMutableCopy;
 import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
 import com.helger.collection.commons.CommonsArrayList;
 import com.helger.collection.commons.ICommonsList;
 import com.helger.http.CHttpHeader;
@@ -130,7 +132,19 @@ public final class AS4MimeMessageHelper
       aMessagePart.setDataHandler (new DataHandler (new DOMSource (aSoapEnvelope), sRootContentType));
       // Set AFTER DataHandler
       aMessagePart.setHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, eCTE.getID ());
-      aMimeMultipart.addBodyPart (aMessagePart);
+
+      // Serialize once, so that the length is known and it is not serialized again on each write
+      final byte [] aSoapBytes;
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        aMessagePart.getDataHandler ().writeTo (aBAOS);
+        aSoapBytes = aBAOS.toByteArray ();
+      }
+      catch (final IOException ex)
+      {
+        throw new MessagingException ("Failed to serialize SOAP envelope", ex);
+      }
+      aMimeMultipart.addBodyPart (aMessagePart, AS4KnownLengthContent.ofBytes (aSoapBytes));
     }
 
     boolean bIsRepeatable = true;
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.mime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Enumeration;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.tostring.ToStringGenerator;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * A writer for MIME messages created by {@link AS4MimeMessageHelper} that knows the raw content of
+ * all body parts in advance. It creates exactly the same byte sequence as {@link MimeMessage#writeTo(OutputStream)} but is able to determine the total length
+ * up front, so that the message can be sent with a "Content-Length" header. Additionally file based
+ * body parts are streamed directly from the file.<br>
+ * Note: the headers are evaluated every time the length is determined or the message is written,
+ * so it is safe to remove the MIME message headers (e.g. to use them as HTTP headers) after this
+ * writer was created.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+public final class AS4MimeMultipartWriter
+{
+  private static final String CRLF_STR = "\r\n";
+  private static final byte [] CRLF = { '\r', '\n' };
+  private static final byte [] DASHES = { '-', '-' };
+
+  private final MimeMessage m_aMsg;
+  private final AS4SoapMimeMultipart m_aMultipart;
+  private final byte [] m_aBoundary;
+
+  private AS4MimeMultipartWriter (@NonNull final MimeMessage aMsg,
+                                  @NonNull final AS4SoapMimeMultipart aMultipart,
+                                  @NonNull final String sBoundary)
+  {
+    m_aMsg = aMsg;
+    m_aMultipart = aMultipart;
+    m_aBoundary = _getAsciiBytes (sBoundary);
+  }
+
+  // Same as jakarta.mail LineOutputStream without "allowutf8"
+  private static byte @NonNull [] _getAsciiBytes (@NonNull final String s)
+  {
+    final int nLen = s.length ();
+    final byte [] ret = new byte [nLen];
+    for (int i = 0; i < nLen; ++i)
+      ret[i] = (byte) s.charAt (i);
+    return ret;
+  }
+
+  private static byte @NonNull [] _getHeaderBytes (@NonNull final Enumeration <String> aHeaderLines)
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    while (aHeaderLines.hasMoreElements ())
+      aSB.append (aHeaderLines.nextElement ()).append (CRLF_STR);
+    // Empty line after the headers
+    aSB.append (CRLF_STR);
+    return _getAsciiBytes (aSB.toString ());
+  }
+
+  @NonNull
+  private MimeBodyPart _getBodyPart (final int nIndex) throws MessagingException
+  {
+    return (MimeBodyPart) m_aMultipart.getBodyPart (nIndex);
+  }
+
+  @NonNull
+  private AS4KnownLengthContent _getContent (final int nIndex)
+  {
+    final AS4KnownLengthContent ret = m_aMultipart.getKnownLengthContent (nIndex);
+    if (ret == null)
+      throw new IllegalStateException ("The content of body part " + nIndex + " is unknown");
+    return ret;
+  }
+
+  /**
+   * @return The exact number of bytes that are written by {@link #writeTo(OutputStream)}.
+   * @throws MessagingException
+   *         In case of MIME error
+   */
+  @Nonnegative
+  public long getContentLength () throws MessagingException
+  {
+    long ret = _getHeaderBytes (m_aMsg.getAllHeaderLines ()).length;
+    final int nCount = m_aMultipart.getCount ();
+    for (int i = 0; i < nCount; ++i)
+    {
+      // "--" boundary CRLF
+      ret += DASHES.length + m_aBoundary.length + CRLF.length;
+      ret += _getHeaderBytes (_getBodyPart (i).getAllHeaderLines ()).length;
+      ret += _getContent (i).getLength ();
+      ret += CRLF.length;
+    }
+    // "--" boundary "--" CRLF
+    ret += DASHES.length + m_aBoundary.length + DASHES.length + CRLF.length;
+    return ret;
+  }
+
+  /**
+   * Write the whole MIME message to the provided output stream. The output stream is not closed.
+   *
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of write error
+   * @throws MessagingException
+   *         In case of MIME error
+   */
+  public void writeTo (@NonNull final OutputStream aOS) throws IOException, MessagingException
+  {
+    ValueEnforcer.notNull (aOS, "OutputStream");
+
+    aOS.write (_getHeaderBytes (m_aMsg.getAllHeaderLines ()));
+    final int nCount = m_aMultipart.getCount ();
+    for (int i = 0; i < nCount; ++i)
+    {
+      aOS.write (DASHES);
+      aOS.write (m_aBoundary);
+      aOS.write (CRLF);
+      aOS.write (_getHeaderBytes (_getBodyPart (i).getAllHeaderLines ()));
+      _getContent (i).writeTo (aOS);
+      aOS.write (CRLF);
+    }
+    aOS.write (DASHES);
+    aOS.write (m_aBoundary);
+    aOS.write (DASHES);
+    aOS.write (CRLF);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Msg", m_aMsg).append ("Multipart", m_aMultipart).getToString ();
+  }
+
+  /**
+   * Create a writer for the provided MIME message, if the raw content of all body parts is known.
+   *
+   * @param aMsg
+   *        The MIME message to write. May not be <code>null</code>.
+   * @return <code>null</code> if the message was not created by {@link AS4MimeMessageHelper} or if
+   *         the length of at least one body part is unknown.
+   */
+  @Nullable
+  public static AS4MimeMultipartWriter createOrNull (@NonNull final MimeMessage aMsg)
+  {
+    ValueEnforcer.notNull (aMsg, "Msg");
+    try
+    {
+      if (aMsg.getContent () instanceof final AS4SoapMimeMultipart aMultipart &&
+          aMultipart.getPreamble () == null &&
+          aMultipart.hasAllKnownLengthContents () &&
+          aMultipart.getCount () > 0)
+      {
+        final String sBoundary = new ContentType (aMultipart.getContentType ()).getParameter ("boundary");
+        if (sBoundary != null)
+          return new AS4MimeMultipartWriter (aMsg, aMultipart, sBoundary);
+      }
+    }
+    catch (final IOException | MessagingException ex)
+    {
+      // Fall through
+    }
+    return null;
+  }
+}
@@ -17,10 +17,16 @@
 package com.helger.phase4.messaging.mime;
 
 import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
 
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
 import com.helger.phase4.model.ESoapVersion;
 
+import jakarta.mail.BodyPart;
+import jakarta.mail.MessagingException;
 import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMultipart;
 import jakarta.mail.internet.ParseException;
 
@@ -36,6 +42,11 @@ public class AS4SoapMimeMultipart extends MimeMultipart
   public static final String RELATED = "related";
   public static final String CT_PARAM_TYPE = "type";
 
+  // Known length content per body part, in the same order as the body parts
+  private final ICommonsList <AS4KnownLengthContent> m_aKnownLengthContents = new CommonsArrayList <> ();
+  // Set to false if body parts were modified in a way that breaks the order
+  private boolean m_bKnownLengthContentsValid = true;
+
   public AS4SoapMimeMultipart (@NonNull final ESoapVersion eSoapVersion) throws ParseException
   {
     super (RELATED);
@@ -47,4 +58,79 @@ public class AS4SoapMimeMultipart extends MimeMultipart
     // No "charset" parameter here (see #263)
     contentType = aContentType.toString ();
   }
+
+  @Override
+  public synchronized void addBodyPart (final BodyPart aPart) throws MessagingException
+  {
+    super.addBodyPart (aPart);
+    m_aKnownLengthContents.add (null);
+  }
+
+  @Override
+  public synchronized void addBodyPart (final BodyPart aPart, final int nIndex) throws MessagingException
+  {
+    super.addBodyPart (aPart, nIndex);
+    m_bKnownLengthContentsValid = false;
+  }
+
+  @Override
+  public synchronized boolean removeBodyPart (final BodyPart aPart) throws MessagingException
+  {
+    m_bKnownLengthContentsValid = false;
+    return super.removeBodyPart (aPart);
+  }
+
+  @Override
+  public synchronized void removeBodyPart (final int nIndex) throws MessagingException
+  {
+    m_bKnownLengthContentsValid = false;
+    super.removeBodyPart (nIndex);
+  }
+
+  /**
+   * Add a body part together with the raw content it contains. The raw content must be exactly what
+   * is written as the body part content, so the body part must use an identity
+   * Content-Transfer-Encoding like "binary".
+   *
+   * @param aPart
+   *        The body part to add. May not be <code>null</code>.
+   * @param aKnownLengthContent
+   *        The raw content of the body part. May be <code>null</code> if unknown.
+   * @throws MessagingException
+   *         In case of error
+   * @since 4.5.5
+   */
+  public synchronized void addBodyPart (@NonNull final MimeBodyPart aPart,
+                                        @Nullable final AS4KnownLengthContent aKnownLengthContent) throws MessagingException
+  {
+    super.addBodyPart (aPart);
+    m_aKnownLengthContents.add (aKnownLengthContent);
+  }
+
+  /**
+   * @param nIndex
+   *        The 0-based body part index.
+   * @return The known length content of the body part at the provided index or <code>null</code> if
+   *         it is unknown.
+   * @since 4.5.5
+   */
+  @Nullable
+  public synchronized AS4KnownLengthContent getKnownLengthContent (final int nIndex)
+  {
+    if (!m_bKnownLengthContentsValid || nIndex < 0 || nIndex >= m_aKnownLengthContents.size ())
+      return null;
+    return m_aKnownLengthContents.get (nIndex);
+  }
+
+  /**
+   * @return <code>true</code> if the raw content of all body parts is known, <code>false</code> if
+   *         not.
+   * @since 4.5.5
+   */
+  public synchronized boolean hasAllKnownLengthContents ()
+  {
+    return m_bKnownLengthContentsValid &&
+           m_aKnownLengthContents.isNotEmpty () &&
+           !m_aKnownLengthContents.contains (null);
+  }
 }
@@ -18,7 +18,9 @@ package com.helger.phase4.mgr;
 
 import org.jspecify.annotations.NonNull;
 
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.duplicate.AS4DuplicateManagerInMemory;
+import com.helger.phase4.duplicate.AS4DuplicateManagerInMemoryBucketed;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.mpc.MPCManagerInMemory;
@@ -35,6 +37,41 @@ import com.helger.phase4.profile.IAS4ProfileManager;
  */
 public class AS4ManagerFactoryInMemory implements IAS4ManagerFactory
 {
+  private final boolean m_bUseBucketedDuplicateManager;
+
+  /**
+   * Constructor using the configuration item
+   * {@link AS4Configuration#isUseBucketedDuplicateManager()} to determine the duplicate manager
+   * implementation.
+   */
+  public AS4ManagerFactoryInMemory ()
+  {
+    this (AS4Configuration.isUseBucketedDuplicateManager ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bUseBucketedDuplicateManager
+   *        <code>true</code> to use {@link AS4DuplicateManagerInMemoryBucketed} for incoming
+   *        duplicate detection, <code>false</code> to use {@link AS4DuplicateManagerInMemory}.
+   * @since 4.5.5
+   */
+  public AS4ManagerFactoryInMemory (final boolean bUseBucketedDuplicateManager)
+  {
+    m_bUseBucketedDuplicateManager = bUseBucketedDuplicateManager;
+  }
+
+  /**
+   * @return <code>true</code> if {@link AS4DuplicateManagerInMemoryBucketed} is used for incoming
+   *         duplicate detection, <code>false</code> if {@link AS4DuplicateManagerInMemory} is used.
+   * @since 4.5.5
+   */
+  public final boolean isUseBucketedDuplicateManager ()
+  {
+    return m_bUseBucketedDuplicateManager;
+  }
+
   @NonNull
   public IMPCManager createMPCManager ()
   {
@@ -50,6 +87,8 @@ public class AS4ManagerFactoryInMemory implements IAS4ManagerFactory
   @NonNull
   public IAS4DuplicateManager createDuplicateManager ()
   {
+    if (m_bUseBucketedDuplicateManager)
+      return new AS4DuplicateManagerInMemoryBucketed ();
     return new AS4DuplicateManagerInMemory ();
   }
 
@@ -16,9 +16,13 @@
  */
 package com.helger.phase4.mgr;
 
+import java.io.IOException;
+
 import org.jspecify.annotations.NonNull;
 
 import com.helger.dao.DAOException;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.duplicate.AS4DuplicateManagerFileLog;
 import com.helger.phase4.duplicate.AS4DuplicateManagerXML;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
@@ -28,6 +32,7 @@ import com.helger.phase4.model.pmode.PModeManagerXML;
 import com.helger.phase4.profile.AS4ProfileManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
 import com.helger.phase4.util.Phase4Exception;
+import com.helger.photon.io.WebFileIO;
 
 /**
  * Implementation of {@link IAS4ManagerFactory} creating managers that are persisting to disk.
@@ -40,6 +45,42 @@ public class AS4ManagerFactoryPersistingFileSystem implements IAS4ManagerFactory
   private static final String MPC_XML = "as4-mpc.xml";
   private static final String PMODE_XML = "as4-pmode.xml";
   private static final String INCOMING_DUPLICATE_XML = "as4-duplicate-incoming.xml";
+  private static final String INCOMING_DUPLICATE_DIR = "as4-duplicate-incoming";
+
+  private final boolean m_bUseFileLogDuplicateManager;
+
+  /**
+   * Constructor using the configuration item
+   * {@link AS4Configuration#isUseFileLogDuplicateManager()} to determine the duplicate manager
+   * implementation.
+   */
+  public AS4ManagerFactoryPersistingFileSystem ()
+  {
+    this (AS4Configuration.isUseFileLogDuplicateManager ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bUseFileLogDuplicateManager
+   *        <code>true</code> to use {@link AS4DuplicateManagerFileLog} for incoming duplicate
+   *        detection, <code>false</code> to use {@link AS4DuplicateManagerXML}.
+   * @since 4.5.5
+   */
+  public AS4ManagerFactoryPersistingFileSystem (final boolean bUseFileLogDuplicateManager)
+  {
+    m_bUseFileLogDuplicateManager = bUseFileLogDuplicateManager;
+  }
+
+  /**
+   * @return <code>true</code> if {@link AS4DuplicateManagerFileLog} is used for incoming duplicate
+   *         detection, <code>false</code> if {@link AS4DuplicateManagerXML} is used.
+   * @since 4.5.5
+   */
+  public final boolean isUseFileLogDuplicateManager ()
+  {
+    return m_bUseFileLogDuplicateManager;
+  }
 
   @NonNull
   public IMPCManager createMPCManager () throws Phase4Exception
@@ -72,9 +113,11 @@ public class AS4ManagerFactoryPersistingFileSystem implements IAS4ManagerFactory
   {
     try
     {
+      if (m_bUseFileLogDuplicateManager)
+        return new AS4DuplicateManagerFileLog (WebFileIO.getDataIO ().getFile (INCOMING_DUPLICATE_DIR));
       return new AS4DuplicateManagerXML (INCOMING_DUPLICATE_XML);
     }
-    catch (final DAOException ex)
+    catch (final DAOException | IOException ex)
     {
       throw new Phase4Exception ("Error creating AS4DuplicateManager", ex).setRetryFeasible (false);
     }
@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 import com.helger.annotation.style.UsedViaReflection;
 import com.helger.base.enforce.ValueEnforcer;
 import com.helger.base.exception.InitializationException;
+import com.helger.base.io.stream.StreamHelper;
 import com.helger.base.lang.clazz.ClassHelper;
 import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
@@ -117,6 +118,14 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
     }
   }
 
+  @Override
+  protected void onBeforeDestroy (@NonNull final IScope aScopeToBeDestroyed) throws Exception
+  {
+    // E.g. for file based duplicate managers
+    if (m_aIncomingDuplicateMgr instanceof final AutoCloseable aCloseable)
+      StreamHelper.close (aCloseable);
+  }
+
   @NonNull
   public static MetaAS4Manager getInstance ()
   {
@@ -34,8 +34,8 @@ import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.ebms3header.MessagePartNRInformation;
 import com.helger.phase4.ebms3header.NonRepudiationInformation;
 import com.helger.phase4.logging.Phase4LoggerFactory;
-import com.helger.phase4.marshaller.Ebms3UserMessageMarshaller;
-import com.helger.phase4.marshaller.NonRepudiationInformationMarshaller;
+import com.helger.phase4.marshaller.AS4Marshallers;
+import com.helger.phase4.marshaller.Ebms3DOMWriter;
 import com.helger.phase4.model.ESoapVersion;
 import com.helger.xml.XMLFactory;
 import com.helger.xsds.xmldsig.ReferenceType;
@@ -120,6 +120,8 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
                                                                              false);
 
     final Ebms3Receipt aEbms3Receipt = new Ebms3Receipt ();
+    // One owning document for all custom receipt elements
+    Document aReceiptDoc = null;
     if (aDSRefs.isNotEmpty () && bShouldUseNonRepudiation)
     {
       final NonRepudiationInformation aNonRepudiationInformation = new NonRepudiationInformation ();
@@ -131,7 +133,8 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
         aNonRepudiationInformation.addMessagePartNRInformation (aMessagePartNRInformation);
       }
 
-      final Element aNRIElement = new NonRepudiationInformationMarshaller ().getAsElement (aNonRepudiationInformation);
+      final Element aNRIElement = AS4Marshallers.getOutboundNonRepudiationInformationMarshaller ()
+                                                .getAsElement (aNonRepudiationInformation);
       if (aNRIElement == null)
         LOGGER.error ("Failed to serialize NonRepudiationInformation object");
       else
@@ -148,7 +151,8 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
       {
         // If the original usermessage is not signed, the receipt will contain
         // the original message part without wss4j security
-        final Document aWrappedDoc = XMLFactory.newDocument ();
+        aReceiptDoc = XMLFactory.newDocument ();
+        final Document aWrappedDoc = aReceiptDoc;
         if (aEbms3UserMessageToRespond != null)
         {
           // It is not possible to directly contain the original UserMessage,
@@ -159,28 +163,37 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
 
           // As the Receipt cannot be empty, it is wrapped in another element
           // of another namespace instead to work
-          final Element eWrappedRoot = (Element) aWrappedDoc.appendChild (aWrappedDoc.createElementNS (PHASE4_RECEIPT_WRAPPER_NS,
-                                                                                                       "OriginalUserMessage"));
-          eWrappedRoot.appendChild (aWrappedDoc.adoptNode (new Ebms3UserMessageMarshaller ().getAsElement (aEbms3UserMessageToRespond)));
+          final Element eWrappedRoot = aWrappedDoc.createElementNS (PHASE4_RECEIPT_WRAPPER_NS, "OriginalUserMessage");
+          if (AS4Marshallers.isOutboundTrusted ())
+          {
+            // The UserMessage is written directly into the DOM without JAXB
+            eWrappedRoot.appendChild (Ebms3DOMWriter.createUserMessageElement (aWrappedDoc,
+                                                                               aEbms3UserMessageToRespond));
+          }
+          else
+          {
+            eWrappedRoot.appendChild (aWrappedDoc.adoptNode (AS4Marshallers.getEbms3UserMessageMarshaller ()
+                                                                           .getAsElement (aEbms3UserMessageToRespond)));
+          }
+          aEbms3Receipt.addAny (eWrappedRoot);
         }
         else
         {
           // No user message provided
-          aWrappedDoc.appendChild (aWrappedDoc.createElementNS (PHASE4_RECEIPT_WRAPPER_NS,
-                                                                "WithoutOriginalUserMessage"));
+          aEbms3Receipt.addAny (aWrappedDoc.createElementNS (PHASE4_RECEIPT_WRAPPER_NS, "WithoutOriginalUserMessage"));
         }
-        aEbms3Receipt.addAny (aWrappedDoc.getDocumentElement ());
       }
     }
 
     if (!bNoCustomContentInReceipt)
     {
       // Add a small phase4 marker in the Receipt (since v3.0.0)
-      final Document aDoc = XMLFactory.newDocument ();
-      final Element eRoot = (Element) aDoc.appendChild (aDoc.createElementNS (PHASE4_RECEIPT_INFO_NS, "phase4"));
+      if (aReceiptDoc == null)
+        aReceiptDoc = XMLFactory.newDocument ();
+      final Element eRoot = aReceiptDoc.createElementNS (PHASE4_RECEIPT_INFO_NS, "phase4");
       eRoot.setAttributeNS (PHASE4_RECEIPT_INFO_NS, "version", CAS4Version.BUILD_VERSION);
       eRoot.setAttributeNS (PHASE4_RECEIPT_INFO_NS, "timestamp", CAS4Version.BUILD_TIMESTAMP);
-      aEbms3Receipt.addAny (aDoc.getDocumentElement ());
+      aEbms3Receipt.addAny (eRoot);
     }
 
     aSignalMessage.setReceipt (aEbms3Receipt);
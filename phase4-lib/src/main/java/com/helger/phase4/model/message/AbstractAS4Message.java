@@ -47,9 +47,8 @@ import com.helger.phase4.CAS4;
 import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.ebms3header.Ebms3Messaging;
 import com.helger.phase4.logging.Phase4LoggerFactory;
-import com.helger.phase4.marshaller.Ebms3MessagingMarshaller;
-import com.helger.phase4.marshaller.Soap11EnvelopeMarshaller;
-import com.helger.phase4.marshaller.Soap12EnvelopeMarshaller;
+import com.helger.phase4.marshaller.AS4Marshallers;
+import com.helger.phase4.marshaller.Ebms3DOMWriter;
 import com.helger.phase4.model.ESoapVersion;
 import com.helger.phase4.soap11.Soap11Body;
 import com.helger.phase4.soap11.Soap11Envelope;
@@ -174,43 +173,64 @@ public abstract class AbstractAS4Message <IMPLTYPE extends AbstractAS4Message <I
                                                            .withChronology (IsoChronology.INSTANCE);
   }
 
-  @NonNull
-  public final Document getAsSoapDocument (@Nullable final Node aSoapBodyPayload)
+  private static void _postProcessForDomibus (@NonNull final Element aEbms3Element)
   {
-    // Convert to DOM Node
-    final Element aEbms3Element = new Ebms3MessagingMarshaller ().getAsElement (m_aMessaging);
-    if (aEbms3Element == null)
-      throw new IllegalStateException ("Failed to write EBMS3 Messaging to XML");
-
-    if (AS4Configuration.isCompatibilityModeDomibus ())
+    // Do some timestamp post processing. See #335
+    Element aEbms3AnyMessage = XMLHelper.getChildElementIteratorNS (aEbms3Element, CAS4.EBMS_NS).next ();
+    if (aEbms3AnyMessage != null)
     {
-      // Do some timestamp post processing. See #335
-      Element aEbms3AnyMessage = XMLHelper.getChildElementIteratorNS (aEbms3Element, CAS4.EBMS_NS).next ();
-      if (aEbms3AnyMessage != null)
+      Element aEbms3MessageInfo = XMLHelper.getFirstChildElementOfName (aEbms3AnyMessage,
+                                                                        CAS4.EBMS_NS,
+                                                                        "MessageInfo");
+      if (aEbms3MessageInfo != null)
       {
-        Element aEbms3MessageInfo = XMLHelper.getFirstChildElementOfName (aEbms3AnyMessage,
-                                                                          CAS4.EBMS_NS,
-                                                                          "MessageInfo");
-        if (aEbms3MessageInfo != null)
+        Element aEbms3Timestamp = XMLHelper.getFirstChildElementOfName (aEbms3MessageInfo, CAS4.EBMS_NS, "Timestamp");
+        if (aEbms3Timestamp != null)
         {
-          Element aEbms3Timestamp = XMLHelper.getFirstChildElementOfName (aEbms3MessageInfo, CAS4.EBMS_NS, "Timestamp");
-          if (aEbms3Timestamp != null)
+          final String sValue = XMLHelper.getFirstChildText (aEbms3Timestamp);
+          final OffsetDateTime aODT = PDTWebDateHelper.getOffsetDateTimeFromXSD (sValue);
+          if ((aODT.get (ChronoField.MILLI_OF_SECOND) % 10) == 0)
           {
-            final String sValue = XMLHelper.getFirstChildText (aEbms3Timestamp);
-            final OffsetDateTime aODT = PDTWebDateHelper.getOffsetDateTimeFromXSD (sValue);
-            if ((aODT.get (ChronoField.MILLI_OF_SECOND) % 10) == 0)
-            {
-              String sNewValue = DOMIBUS_XSD_DATE_TIME.format (aODT);
-              LOGGER.info ("Changing MessageInfo/Timestamp from '" + sValue + "' to '" + sNewValue + "' for Domibus");
+            String sNewValue = DOMIBUS_XSD_DATE_TIME.format (aODT);
+            LOGGER.info ("Changing MessageInfo/Timestamp from '" + sValue + "' to '" + sNewValue + "' for Domibus");
 
-              // Replace in DOM
-              XMLHelper.removeAllChildElements (aEbms3Timestamp);
-              aEbms3Timestamp.appendChild (aEbms3Timestamp.getOwnerDocument ().createTextNode (sNewValue));
-            }
+            // Replace in DOM
+            XMLHelper.removeAllChildElements (aEbms3Timestamp);
+            aEbms3Timestamp.appendChild (aEbms3Timestamp.getOwnerDocument ().createTextNode (sNewValue));
           }
         }
       }
     }
+  }
+
+  @NonNull
+  public final Document getAsSoapDocument (@Nullable final Node aSoapBodyPayload)
+  {
+    if (AS4Marshallers.isOutboundTrusted ())
+    {
+      // Directly create the DOM - no JAXB and no XML Schema validation
+      final Document ret = Ebms3DOMWriter.createSoapDocument (m_eSoapVersion, m_aMessaging, aSoapBodyPayload);
+      if (ret != null)
+      {
+        if (AS4Configuration.isCompatibilityModeDomibus ())
+        {
+          final Element aSoapHeader = XMLHelper.getFirstChildElementOfName (ret.getDocumentElement (),
+                                                                            m_eSoapVersion.getNamespaceURI (),
+                                                                            m_eSoapVersion.getHeaderElementName ());
+          _postProcessForDomibus (XMLHelper.getFirstChildElementOfName (aSoapHeader, CAS4.EBMS_NS, "Messaging"));
+        }
+        return ret;
+      }
+      // Contains extension content that requires JAXB
+    }
+
+    // Convert to DOM Node
+    final Element aEbms3Element = AS4Marshallers.getOutboundEbms3MessagingMarshaller ().getAsElement (m_aMessaging);
+    if (aEbms3Element == null)
+      throw new IllegalStateException ("Failed to write EBMS3 Messaging to XML");
+
+    if (AS4Configuration.isCompatibilityModeDomibus ())
+      _postProcessForDomibus (aEbms3Element);
 
     final Node aRealSoapBodyPayload = aSoapBodyPayload instanceof Document d ? d.getDocumentElement ()
                                                                              : aSoapBodyPayload;
@@ -229,7 +249,7 @@ public abstract class AbstractAS4Message <IMPLTYPE extends AbstractAS4Message <I
         if (aRealSoapBodyPayload != null)
           aSoapEnv.getBody ().addAny (aRealSoapBodyPayload);
 
-        final Document ret = new Soap11EnvelopeMarshaller ().getAsDocument (aSoapEnv);
+        final Document ret = AS4Marshallers.getOutboundSoap11EnvelopeMarshaller ().getAsDocument (aSoapEnv);
         if (ret == null)
           throw new IllegalStateException ("Failed to serialize SOAP 1.1 document");
         return ret;
@@ -246,7 +266,7 @@ public abstract class AbstractAS4Message <IMPLTYPE extends AbstractAS4Message <I
         if (aRealSoapBodyPayload != null)
           aSoapEnv.getBody ().addAny (aRealSoapBodyPayload);
 
-        final Document ret = new Soap12EnvelopeMarshaller ().getAsDocument (aSoapEnv);
+        final Document ret = AS4Marshallers.getOutboundSoap12EnvelopeMarshaller ().getAsDocument (aSoapEnv);
         if (ret == null)
           throw new IllegalStateException ("Failed to serialize SOAP 1.2 document");
         return ret;
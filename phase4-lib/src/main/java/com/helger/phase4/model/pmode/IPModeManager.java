@@ -117,6 +117,24 @@ public interface IPModeManager
     });
   }
 
+  /**
+   * Find the first PMode that has the provided initiator and responder.
+   *
+   * @param aInitiator
+   *        The initiator to be searched. May be <code>null</code>.
+   * @param aResponder
+   *        The responder to be searched. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   * @since 4.5.5
+   */
+  @Nullable
+  default IPMode getPModeOfInitiatorAndResponder (@Nullable final PModeParty aInitiator,
+                                                  @Nullable final PModeParty aResponder)
+  {
+    return findFirst (x -> EqualsHelper.equals (x.getInitiator (), aInitiator) &&
+                           EqualsHelper.equals (x.getResponder (), aResponder));
+  }
+
   /**
    * Get a predicate that matches a PMode by ID or initiator and responder together.
    *
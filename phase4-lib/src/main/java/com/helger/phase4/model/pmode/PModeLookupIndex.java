@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.collection.commons.CommonsHashMap;
+import com.helger.collection.commons.ICommonsMap;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+
+/**
+ * Secondary indexes over the PModes of an {@link IPModeManager}, so that PModes can be found by
+ * service and action or by initiator and responder without iterating all PModes. The index is built
+ * lazily from the current PModes and is rebuilt on the next lookup after {@link #invalidate()} was
+ * called. Managers must call {@link #invalidate()} after each create, update and delete.<br>
+ * If multiple PModes share the same key, the first one in iteration order is indexed - this is
+ * consistent with {@link IPModeManager#findFirst(java.util.function.Predicate)}.<br>
+ * Note: PModes must only be modified via the owning manager, otherwise the index is not updated.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public final class PModeLookupIndex
+{
+  private static final class Index
+  {
+    private final long m_nVersion;
+    // Service to action to PMode
+    private final ICommonsMap <String, ICommonsMap <String, IPMode>> m_aByServiceAction = new CommonsHashMap <> ();
+    // Initiator to responder to PMode
+    private final ICommonsMap <PModeParty, ICommonsMap <PModeParty, IPMode>> m_aByInitiatorResponder = new CommonsHashMap <> ();
+
+    Index (final long nVersion, @NonNull final Iterable <? extends IPMode> aPModes)
+    {
+      m_nVersion = nVersion;
+      for (final IPMode aPMode : aPModes)
+      {
+        final PModeLeg aLeg = aPMode.getLeg1 ();
+        if (aLeg != null)
+        {
+          final PModeLegBusinessInformation aBI = aLeg.getBusinessInfo ();
+          if (aBI != null)
+            m_aByServiceAction.computeIfAbsent (aBI.getService (), k -> new CommonsHashMap <> ())
+                              .putIfAbsent (aBI.getAction (), aPMode);
+        }
+        m_aByInitiatorResponder.computeIfAbsent (aPMode.getInitiator (), k -> new CommonsHashMap <> ())
+                               .putIfAbsent (aPMode.getResponder (), aPMode);
+      }
+    }
+  }
+
+  private final Supplier <? extends Iterable <? extends IPMode>> m_aPModeSupplier;
+  private final AtomicLong m_aVersion = new AtomicLong (0);
+  private volatile Index m_aIndex;
+
+  /**
+   * Constructor
+   *
+   * @param aPModeSupplier
+   *        The supplier for all PModes of the owning manager. Invoked whenever the index needs to
+   *        be (re-)built. May not be <code>null</code>.
+   */
+  public PModeLookupIndex (@NonNull final Supplier <? extends Iterable <? extends IPMode>> aPModeSupplier)
+  {
+    ValueEnforcer.notNull (aPModeSupplier, "PModeSupplier");
+    m_aPModeSupplier = aPModeSupplier;
+  }
+
+  @NonNull
+  private Index _getIndex ()
+  {
+    final long nVersion = m_aVersion.get ();
+    Index ret = m_aIndex;
+    if (ret == null || ret.m_nVersion != nVersion)
+    {
+      // (Re-)build - if a modification happens concurrently, the version differs on the next access
+      ret = new Index (nVersion, m_aPModeSupplier.get ());
+      m_aIndex = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * Invalidate the index, because the PModes of the owning manager changed. The index is rebuilt
+   * on the next lookup.
+   */
+  public void invalidate ()
+  {
+    m_aVersion.incrementAndGet ();
+  }
+
+  @Nullable
+  private static <K, V> V _get (@NonNull final Map <K, ? extends Map <K, V>> aMap,
+                                @Nullable final K aKey1,
+                                @Nullable final K aKey2)
+  {
+    final Map <K, V> aInner = aMap.get (aKey1);
+    return aInner == null ? null : aInner.get (aKey2);
+  }
+
+  /**
+   * Find the first PMode that has the provided service and action in leg 1.
+   *
+   * @param sService
+   *        The service to be searched. May be <code>null</code>.
+   * @param sAction
+   *        The action to be searched. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   */
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return _get (_getIndex ().m_aByServiceAction, sService, sAction);
+  }
+
+  /**
+   * Find the first PMode that has the provided initiator and responder.
+   *
+   * @param aInitiator
+   *        The initiator to be searched. May be <code>null</code>.
+   * @param aResponder
+   *        The responder to be searched. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   */
+  @Nullable
+  public IPMode getPModeOfInitiatorAndResponder (@Nullable final PModeParty aInitiator,
+                                                 @Nullable final PModeParty aResponder)
+  {
+    return _get (_getIndex ().m_aByInitiatorResponder, aInitiator, aResponder);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Version", m_aVersion.get ()).getToString ();
+  }
+}
@@ -53,6 +53,7 @@ public class PModeManagerInMemory implements IPModeManager
   private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   @GuardedBy ("m_aRWLock")
   private final ICommonsMap <String, PMode> m_aMap = new CommonsHashMap <> ();
+  private final PModeLookupIndex m_aLookupIndex = new PModeLookupIndex (this::getAll);
 
   public PModeManagerInMemory ()
   {}
@@ -76,6 +77,7 @@ public class PModeManagerInMemory implements IPModeManager
     if (m_aMap.containsKey (sID))
       throw new IllegalArgumentException ("An object with ID '" + sID + "' is already contained!");
     m_aMap.put (sID, aPMode);
+    m_aLookupIndex.invalidate ();
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Created PMode with ID '" + aPMode.getID () + "'");
@@ -116,6 +118,7 @@ public class PModeManagerInMemory implements IPModeManager
         return EChange.UNCHANGED;
 
       BusinessObjectHelper.setLastModificationNow (aExistingPMode);
+      m_aLookupIndex.invalidate ();
     }
     finally
     {
@@ -128,23 +131,31 @@ public class PModeManagerInMemory implements IPModeManager
     return EChange.CHANGED;
   }
 
+  @Nullable
+  private IPMode _findExisting (@NonNull final PMode aPMode)
+  {
+    // The same PMode exists either if the ID is identical or if Initiator and Responder are
+    // identical
+    final IPMode ret = getPModeOfID (aPMode.getID ());
+    if (ret != null)
+      return ret;
+    return getPModeOfInitiatorAndResponder (aPMode.getInitiator (), aPMode.getResponder ());
+  }
+
   public void createOrUpdatePMode (@NonNull final PMode aPMode)
   {
     ValueEnforcer.notNull (aPMode, "PMode");
     _validatePMode (aPMode);
 
     // Try in read-lock
-    final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (),
-                                                                     aPMode.getInitiator (),
-                                                                     aPMode.getResponder ());
-    IPMode aExisting = findFirst (aFilter);
+    IPMode aExisting = _findExisting (aPMode);
     if (aExisting == null)
     {
       m_aRWLock.writeLock ().lock ();
       try
       {
         // Try again in write lock
-        aExisting = findFirst (aFilter);
+        aExisting = _findExisting (aPMode);
         if (aExisting == null)
         {
           // Create a new one
@@ -179,6 +190,7 @@ public class PModeManagerInMemory implements IPModeManager
     {
       if (BusinessObjectHelper.setDeletionNow (aDeletedPMode).isUnchanged ())
         return EChange.UNCHANGED;
+      m_aLookupIndex.invalidate ();
     }
     finally
     {
@@ -202,6 +214,7 @@ public class PModeManagerInMemory implements IPModeManager
     try
     {
       m_aMap.remove (sPModeID);
+      m_aLookupIndex.invalidate ();
     }
     finally
     {
@@ -244,4 +257,19 @@ public class PModeManagerInMemory implements IPModeManager
   {
     return m_aRWLock.readLockedGet (m_aMap::copyOfKeySet);
   }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aLookupIndex.getPModeOfServiceAndAction (sService, sAction);
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfInitiatorAndResponder (@Nullable final PModeParty aInitiator,
+                                                 @Nullable final PModeParty aResponder)
+  {
+    return m_aLookupIndex.getPModeOfInitiatorAndResponder (aInitiator, aResponder);
+  }
 }
@@ -16,8 +16,6 @@
  */
 package com.helger.phase4.model.pmode;
 
-import java.util.function.Predicate;
-
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
@@ -43,6 +41,8 @@ public class PModeManagerXML extends AbstractPhotonMapBasedWALDAO <IPMode, PMode
 {
   private static final Logger LOGGER = Phase4LoggerFactory.getLogger (PModeManagerXML.class);
 
+  private final PModeLookupIndex m_aLookupIndex = new PModeLookupIndex (this::getAll);
+
   public PModeManagerXML (@Nullable final String sFilename) throws DAOException
   {
     super (PMode.class, sFilename);
@@ -64,6 +64,7 @@ public class PModeManagerXML extends AbstractPhotonMapBasedWALDAO <IPMode, PMode
   private void _createPModeLocked (@NonNull final PMode aPMode)
   {
     internalCreateItem (aPMode);
+    m_aLookupIndex.invalidate ();
     AuditHelper.onAuditCreateSuccess (PMode.OT, aPMode.getID ());
 
     if (LOGGER.isDebugEnabled ())
@@ -113,6 +114,7 @@ public class PModeManagerXML extends AbstractPhotonMapBasedWALDAO <IPMode, PMode
         return EChange.UNCHANGED;
 
       BusinessObjectHelper.setLastModificationNow (aExistingPMode);
+      m_aLookupIndex.invalidate ();
       internalUpdateItem (aExistingPMode);
     }
     finally
@@ -127,23 +129,31 @@ public class PModeManagerXML extends AbstractPhotonMapBasedWALDAO <IPMode, PMode
     return EChange.CHANGED;
   }
 
+  @Nullable
+  private IPMode _findExisting (@NonNull final PMode aPMode)
+  {
+    // The same PMode exists either if the ID is identical or if Initiator and Responder are
+    // identical
+    final IPMode ret = getPModeOfID (aPMode.getID ());
+    if (ret != null)
+      return ret;
+    return getPModeOfInitiatorAndResponder (aPMode.getInitiator (), aPMode.getResponder ());
+  }
+
   public void createOrUpdatePMode (@NonNull final PMode aPMode)
   {
     ValueEnforcer.notNull (aPMode, "PMode");
     _validatePMode (aPMode);
 
     // Try in read-lock
-    final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (),
-                                                                     aPMode.getInitiator (),
-                                                                     aPMode.getResponder ());
-    IPMode aExisting = findFirst (aFilter);
+    IPMode aExisting = _findExisting (aPMode);
     if (aExisting == null)
     {
       m_aRWLock.writeLock ().lock ();
       try
       {
         // Try again in write lock
-        aExisting = findFirst (aFilter);
+        aExisting = _findExisting (aPMode);
         if (aExisting == null)
         {
           // Create a new one
@@ -180,6 +190,7 @@ public class PModeManagerXML extends AbstractPhotonMapBasedWALDAO <IPMode, PMode
         return EChange.UNCHANGED;
       }
       internalMarkItemDeleted (aDeletedPMode);
+      m_aLookupIndex.invalidate ();
     }
     finally
     {
@@ -207,6 +218,7 @@ public class PModeManagerXML extends AbstractPhotonMapBasedWALDAO <IPMode, PMode
     try
     {
       internalDeleteItem (sPModeID);
+      m_aLookupIndex.invalidate ();
     }
     finally
     {
@@ -222,4 +234,19 @@ public class PModeManagerXML extends AbstractPhotonMapBasedWALDAO <IPMode, PMode
   {
     return getOfID (sID);
   }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return m_aLookupIndex.getPModeOfServiceAndAction (sService, sAction);
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfInitiatorAndResponder (@Nullable final PModeParty aInitiator,
+                                                 @Nullable final PModeParty aResponder)
+  {
+    return m_aLookupIndex.getPModeOfInitiatorAndResponder (aInitiator, aResponder);
+  }
 }
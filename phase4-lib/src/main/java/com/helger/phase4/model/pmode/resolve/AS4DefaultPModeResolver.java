@@ -43,10 +43,28 @@ public class AS4DefaultPModeResolver implements IAS4PModeResolver
 
   private final String m_sAS4ProfileID;
   private final IAS4Profile m_aAS4Profile;
+  private final AS4PModeTemplateCache m_aTemplateCache;
 
   public AS4DefaultPModeResolver (@Nullable final String sAS4ProfileID)
+  {
+    this (sAS4ProfileID, AS4PModeTemplateCache.getDefaultInstance ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param sAS4ProfileID
+   *        The AS4 profile ID to use. May be <code>null</code>.
+   * @param aTemplateCache
+   *        The cache for the PMode templates created by the AS4 profile. May be <code>null</code> to
+   *        create a new template for every call.
+   * @since 4.5.5
+   */
+  public AS4DefaultPModeResolver (@Nullable final String sAS4ProfileID,
+                                  @Nullable final AS4PModeTemplateCache aTemplateCache)
   {
     m_sAS4ProfileID = sAS4ProfileID;
+    m_aTemplateCache = aTemplateCache;
     m_aAS4Profile = MetaAS4Manager.getProfileMgr ().getProfileOfID (sAS4ProfileID);
     if (m_aAS4Profile == null && StringHelper.isNotEmpty (sAS4ProfileID))
       LOGGER.error ("Failed to resolved the AS4 profile ID '" + sAS4ProfileID + "'");
@@ -73,6 +91,16 @@ public class AS4DefaultPModeResolver implements IAS4PModeResolver
     return m_aAS4Profile;
   }
 
+  /**
+   * @return The cache for the PMode templates created by the AS4 profile. May be <code>null</code>.
+   * @since 4.5.5
+   */
+  @Nullable
+  public final AS4PModeTemplateCache getTemplateCache ()
+  {
+    return m_aTemplateCache;
+  }
+
   @Nullable
   @OverrideOnDemand
   protected IPMode createDefaultPMode (@NonNull @Nonempty final String sInitiatorID,
@@ -82,6 +110,15 @@ public class AS4DefaultPModeResolver implements IAS4PModeResolver
     if (m_aAS4Profile != null)
     {
       // Create a default PMode template
+      final AS4PModeTemplateCache aTemplateCache = m_aTemplateCache;
+      if (aTemplateCache != null)
+        return aTemplateCache.getOrCreate (m_aAS4Profile.getID (),
+                                           sInitiatorID,
+                                           sResponderID,
+                                           sAddress,
+                                           () -> m_aAS4Profile.createPModeTemplate (sInitiatorID,
+                                                                                    sResponderID,
+                                                                                    sAddress));
       return m_aAS4Profile.createPModeTemplate (sInitiatorID, sResponderID, sAddress);
     }
 
@@ -123,6 +160,8 @@ public class AS4DefaultPModeResolver implements IAS4PModeResolver
   @Override
   public String toString ()
   {
-    return new ToStringGenerator (null).append ("AS4ProfileID", m_sAS4ProfileID).getToString ();
+    return new ToStringGenerator (null).append ("AS4ProfileID", m_sAS4ProfileID)
+                                       .append ("TemplateCache", m_aTemplateCache)
+                                       .getToString ();
   }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode.resolve;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.equals.EqualsHelper;
+import com.helger.base.hashcode.HashCodeGenerator;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * A bounded cache for the PMode templates created by AS4 profiles. Without a cache, a new PMode
+ * object graph is created for every inbound message that has no explicitly configured PMode. As the
+ * templates only depend on the profile, the initiator, the responder and the address, the same
+ * template instance can be reused. The cached templates are only exposed as {@link IPMode} and must
+ * not be modified.<br>
+ * If the maximum size is reached, an arbitrary entry is evicted before a new one is added.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4PModeTemplateCache
+{
+  @Immutable
+  private static final class Key
+  {
+    private final String m_sProfileID;
+    private final String m_sInitiatorID;
+    private final String m_sResponderID;
+    private final String m_sAddress;
+    private final int m_nHashCode;
+
+    Key (@NonNull final String sProfileID,
+         @NonNull final String sInitiatorID,
+         @NonNull final String sResponderID,
+         @Nullable final String sAddress)
+    {
+      m_sProfileID = sProfileID;
+      m_sInitiatorID = sInitiatorID;
+      m_sResponderID = sResponderID;
+      m_sAddress = sAddress;
+      m_nHashCode = new HashCodeGenerator (this).append (sProfileID)
+                                                .append (sInitiatorID)
+                                                .append (sResponderID)
+                                                .append (sAddress)
+                                                .getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return m_sProfileID.equals (rhs.m_sProfileID) &&
+             m_sInitiatorID.equals (rhs.m_sInitiatorID) &&
+             m_sResponderID.equals (rhs.m_sResponderID) &&
+             EqualsHelper.equals (m_sAddress, rhs.m_sAddress);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+  }
+
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+
+  private static final class SingletonHolder
+  {
+    static final AS4PModeTemplateCache INSTANCE = new AS4PModeTemplateCache (DEFAULT_MAX_SIZE);
+  }
+
+  private final int m_nMaxSize;
+  private final Map <Key, IPMode> m_aMap = new ConcurrentHashMap <> ();
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of templates to be cached. Must be &gt; 0.
+   */
+  public AS4PModeTemplateCache (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_nMaxSize = nMaxSize;
+  }
+
+  /**
+   * @return The global default instance. Never <code>null</code>.
+   */
+  @NonNull
+  public static AS4PModeTemplateCache getDefaultInstance ()
+  {
+    return SingletonHolder.INSTANCE;
+  }
+
+  /**
+   * @return The maximum number of cached templates. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * Get the cached template or create and cache a new one.
+   *
+   * @param sProfileID
+   *        The ID of the AS4 profile creating the template. May not be <code>null</code>.
+   * @param sInitiatorID
+   *        Initiator ID. May not be <code>null</code>.
+   * @param sResponderID
+   *        Responder ID. May not be <code>null</code>.
+   * @param sAddress
+   *        The address. May be <code>null</code>.
+   * @param aFactory
+   *        The factory to create the template on a cache miss. May not be <code>null</code>. If it
+   *        returns <code>null</code>, nothing is cached.
+   * @return The cached or newly created template. May be <code>null</code> if the factory returned
+   *         <code>null</code>.
+   */
+  @Nullable
+  public IPMode getOrCreate (@NonNull final String sProfileID,
+                             @NonNull final String sInitiatorID,
+                             @NonNull final String sResponderID,
+                             @Nullable final String sAddress,
+                             @NonNull final Supplier <? extends IPMode> aFactory)
+  {
+    final Key aKey = new Key (sProfileID, sInitiatorID, sResponderID, sAddress);
+    IPMode ret = m_aMap.get (aKey);
+    if (ret == null)
+    {
+      ret = aFactory.get ();
+      if (ret != null)
+      {
+        if (m_aMap.size () >= m_nMaxSize)
+        {
+          // Evict an arbitrary entry
+          final Iterator <Key> it = m_aMap.keySet ().iterator ();
+          if (it.hasNext ())
+          {
+            it.next ();
+            it.remove ();
+          }
+        }
+        final IPMode aOld = m_aMap.putIfAbsent (aKey, ret);
+        if (aOld != null)
+          ret = aOld;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Remove all cached templates, e.g. after a profile was changed.
+   */
+  public void clear ()
+  {
+    m_aMap.clear ();
+  }
+
+  /**
+   * @return The number of cached templates. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aMap.size ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxSize", m_nMaxSize).append ("Size", m_aMap.size ()).getToString ();
+  }
+}
@@ -18,6 +18,8 @@ package com.helger.phase4.sender;
 
 import java.io.IOException;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.apache.hc.core5.http.HttpResponse;
 import org.apache.hc.core5.http.io.HttpClientResponseHandler;
@@ -68,26 +70,22 @@ public final class AS4BidirectionalClientHelper
   private AS4BidirectionalClientHelper ()
   {}
 
-  public static void sendAS4UserMessageAndReceiveAS4SignalMessage (@NonNull final IAS4CryptoFactory aCryptoFactorySign,
-                                                                   @NonNull final IAS4CryptoFactory aCryptoFactoryCrypt,
-                                                                   @NonNull final IAS4PModeResolver aPModeResolver,
-                                                                   @NonNull final IAS4IncomingAttachmentFactory aIAF,
-                                                                   @NonNull final IAS4IncomingProfileSelector aIncomingProfileSelector,
-                                                                   @NonNull final AS4ClientUserMessage aClientUserMsg,
-                                                                   @NonNull final Locale aLocale,
-                                                                   @NonNull final String sURL,
-                                                                   @Nullable final IAS4ClientBuildMessageCallback aBuildMessageCallback,
-                                                                   @Nullable final IAS4OutgoingDumper aOutgoingDumper,
-                                                                   @Nullable final IAS4IncomingDumper aIncomingDumper,
-                                                                   @NonNull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
-                                                                   @NonNull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration,
-                                                                   @Nullable final IAS4RetryCallback aRetryCallback,
-                                                                   @Nullable final IAS4RawResponseConsumer aRawResponseConsumer,
-                                                                   @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer,
-                                                                   @Nullable final IAS4SignalMessageValidationResultHandler aSignalMsgValidationResultHandler) throws IOException,
-                                                                                                                                                               Phase4Exception,
-                                                                                                                                                               WSSecurityException,
-                                                                                                                                                               MessagingException
+  @NonNull
+  private static HttpClientResponseHandler <byte []> _createResponseHandler (@NonNull final Wrapper <HttpResponse> aWrappedHttpResponse)
+  {
+    return aHttpResponse -> {
+      // Accepts all response codes
+      final HttpResponseData aResponseData = GenericAS4HttpResponseHandler.INSTANCE.handleResponse (aHttpResponse);
+
+      // Remember source response object
+      aWrappedHttpResponse.set (aHttpResponse);
+
+      // Read response payload
+      return EntityUtils.toByteArray (aResponseData.entity ());
+    };
+  }
+
+  private static void _logUserMessage (@NonNull final AS4ClientUserMessage aClientUserMsg, @NonNull final String sURL)
   {
     LOGGER.info ("Sending AS4 UserMessage to '" +
                  sURL +
@@ -120,25 +118,25 @@ public final class AS4BidirectionalClientHelper
                       "]");
       }
     }
+  }
 
-    final Wrapper <HttpResponse> aWrappedHttpResponse = new Wrapper <> ();
-    final HttpClientResponseHandler <byte []> aHttpResponseHdl = aHttpResponse -> {
-      // Accepts all response codes
-      final HttpResponseData aResponseData = GenericAS4HttpResponseHandler.INSTANCE.handleResponse (aHttpResponse);
-
-      // Remember source response object
-      aWrappedHttpResponse.set (aHttpResponse);
-
-      // Read response payload
-      return EntityUtils.toByteArray (aResponseData.entity ());
-    };
-
-    // Main HTTP sending
-    final AS4ClientSentMessage <byte []> aClientSentMessage = aClientUserMsg.sendMessageWithRetries (sURL,
-                                                                                                     aHttpResponseHdl,
-                                                                                                     aBuildMessageCallback,
-                                                                                                     aOutgoingDumper,
-                                                                                                     aRetryCallback);
+  private static void _handleUserMessageResponse (@NonNull final IAS4CryptoFactory aCryptoFactorySign,
+                                                  @NonNull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                                  @NonNull final IAS4PModeResolver aPModeResolver,
+                                                  @NonNull final IAS4IncomingAttachmentFactory aIAF,
+                                                  @NonNull final IAS4IncomingProfileSelector aIncomingProfileSelector,
+                                                  @NonNull final AS4ClientUserMessage aClientUserMsg,
+                                                  @NonNull final Locale aLocale,
+                                                  @NonNull final String sURL,
+                                                  @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                                  @NonNull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
+                                                  @NonNull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration,
+                                                  @Nullable final IAS4RawResponseConsumer aRawResponseConsumer,
+                                                  @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer,
+                                                  @Nullable final IAS4SignalMessageValidationResultHandler aSignalMsgValidationResultHandler,
+                                                  @NonNull final AS4ClientSentMessage <byte []> aClientSentMessage,
+                                                  @Nullable final HttpResponse aHttpResponse) throws Phase4Exception
+  {
     final String sRequestAS4MessageID = aClientSentMessage.getMessageID ();
     LOGGER.info ("Successfully transmitted AS4 UserMessage with message ID '" +
                  sRequestAS4MessageID +
@@ -155,10 +153,10 @@ public final class AS4BidirectionalClientHelper
       final AS4IncomingMessageMetadata aResponseMessageMetadata = AS4IncomingMessageMetadata.createForResponse (sRequestAS4MessageID)
                                                                                             .setRemoteAddr (sURL)
                                                                                             .setRemoteTlsPeerCerts (aClientSentMessage.getRemoteTlsPeerCerts ());
-      if (aWrappedHttpResponse.isSet ())
+      if (aHttpResponse != null)
       {
         // Remember HTTP response status code retrieved
-        final int nResponseHttpStatusCode = aWrappedHttpResponse.get ().getCode ();
+        final int nResponseHttpStatusCode = aHttpResponse.getCode ();
         aResponseMessageMetadata.setResponseHttpStatusCode (nResponseHttpStatusCode);
         if (nResponseHttpStatusCode >= CHttp.HTTP_MULTIPLE_CHOICES)
           LOGGER.warn ("HTTP response uses non-success status code " + nResponseHttpStatusCode);
@@ -180,7 +178,7 @@ public final class AS4BidirectionalClientHelper
                                              aClientUserMsg.getPMode (),
                                              aLocale,
                                              aResponseMessageMetadata,
-                                             aWrappedHttpResponse.get (),
+                                             aHttpResponse,
                                              aClientSentMessage.getResponseContent (),
                                              aIncomingDumper,
                                              aIncomingSecurityConfiguration,
@@ -191,6 +189,130 @@ public final class AS4BidirectionalClientHelper
       LOGGER.info ("AS4 ResponseEntity is empty");
   }
 
+  public static void sendAS4UserMessageAndReceiveAS4SignalMessage (@NonNull final IAS4CryptoFactory aCryptoFactorySign,
+                                                                   @NonNull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                                                   @NonNull final IAS4PModeResolver aPModeResolver,
+                                                                   @NonNull final IAS4IncomingAttachmentFactory aIAF,
+                                                                   @NonNull final IAS4IncomingProfileSelector aIncomingProfileSelector,
+                                                                   @NonNull final AS4ClientUserMessage aClientUserMsg,
+                                                                   @NonNull final Locale aLocale,
+                                                                   @NonNull final String sURL,
+                                                                   @Nullable final IAS4ClientBuildMessageCallback aBuildMessageCallback,
+                                                                   @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                   @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                                                   @NonNull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
+                                                                   @NonNull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration,
+                                                                   @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                   @Nullable final IAS4RawResponseConsumer aRawResponseConsumer,
+                                                                   @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer,
+                                                                   @Nullable final IAS4SignalMessageValidationResultHandler aSignalMsgValidationResultHandler) throws IOException,
+                                                                                                                                                               Phase4Exception,
+                                                                                                                                                               WSSecurityException,
+                                                                                                                                                               MessagingException
+  {
+    _logUserMessage (aClientUserMsg, sURL);
+
+    final Wrapper <HttpResponse> aWrappedHttpResponse = new Wrapper <> ();
+
+    // Main HTTP sending
+    final AS4ClientSentMessage <byte []> aClientSentMessage = aClientUserMsg.sendMessageWithRetries (sURL,
+                                                                                                     _createResponseHandler (aWrappedHttpResponse),
+                                                                                                     aBuildMessageCallback,
+                                                                                                     aOutgoingDumper,
+                                                                                                     aRetryCallback);
+    _handleUserMessageResponse (aCryptoFactorySign,
+                                aCryptoFactoryCrypt,
+                                aPModeResolver,
+                                aIAF,
+                                aIncomingProfileSelector,
+                                aClientUserMsg,
+                                aLocale,
+                                sURL,
+                                aIncomingDumper,
+                                aIncomingSecurityConfiguration,
+                                aIncomingReceiverConfiguration,
+                                aRawResponseConsumer,
+                                aSignalMsgConsumer,
+                                aSignalMsgValidationResultHandler,
+                                aClientSentMessage,
+                                aWrappedHttpResponse.get ());
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendAS4UserMessageAndReceiveAS4SignalMessage(IAS4CryptoFactory, IAS4CryptoFactory, IAS4PModeResolver, IAS4IncomingAttachmentFactory, IAS4IncomingProfileSelector, AS4ClientUserMessage, Locale, String, IAS4ClientBuildMessageCallback, IAS4OutgoingDumper, IAS4IncomingDumper, IAS4IncomingSecurityConfiguration, IAS4IncomingReceiverConfiguration, IAS4RetryCallback, IAS4RawResponseConsumer, IAS4SignalMessageConsumer, IAS4SignalMessageValidationResultHandler)}.
+   * The message is built in the calling thread. Sending including all retries and the handling of
+   * the response happen asynchronously. Exceptions of the response handling complete the returned
+   * future exceptionally with a {@link CompletionException}. The resource helper of the client
+   * message must not be closed before the returned future is completed.
+   *
+   * @return The future that is completed after the response was handled. Never <code>null</code>.
+   * @throws IOException
+   *         in case of error when building the message
+   * @throws WSSecurityException
+   *         In case there is an issue with signing/encryption
+   * @throws MessagingException
+   *         in case something happens in MIME wrapping
+   * @since 4.5.5
+   */
+  @NonNull
+  public static CompletableFuture <Void> sendAS4UserMessageAndReceiveAS4SignalMessageAsync (@NonNull final IAS4CryptoFactory aCryptoFactorySign,
+                                                                                            @NonNull final IAS4CryptoFactory aCryptoFactoryCrypt,
+                                                                                            @NonNull final IAS4PModeResolver aPModeResolver,
+                                                                                            @NonNull final IAS4IncomingAttachmentFactory aIAF,
+                                                                                            @NonNull final IAS4IncomingProfileSelector aIncomingProfileSelector,
+                                                                                            @NonNull final AS4ClientUserMessage aClientUserMsg,
+                                                                                            @NonNull final Locale aLocale,
+                                                                                            @NonNull final String sURL,
+                                                                                            @Nullable final IAS4ClientBuildMessageCallback aBuildMessageCallback,
+                                                                                            @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                                            @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                                                                            @NonNull final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration,
+                                                                                            @NonNull final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration,
+                                                                                            @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                                            @Nullable final IAS4RawResponseConsumer aRawResponseConsumer,
+                                                                                            @Nullable final IAS4SignalMessageConsumer aSignalMsgConsumer,
+                                                                                            @Nullable final IAS4SignalMessageValidationResultHandler aSignalMsgValidationResultHandler) throws IOException,
+                                                                                                                                                                                         WSSecurityException,
+                                                                                                                                                                                         MessagingException
+  {
+    _logUserMessage (aClientUserMsg, sURL);
+
+    final Wrapper <HttpResponse> aWrappedHttpResponse = new Wrapper <> ();
+
+    // Main HTTP sending
+    return aClientUserMsg.sendMessageWithRetriesAsync (sURL,
+                                                       _createResponseHandler (aWrappedHttpResponse),
+                                                       aBuildMessageCallback,
+                                                       aOutgoingDumper,
+                                                       aRetryCallback)
+                         .thenAccept (aClientSentMessage -> {
+                           try
+                           {
+                             _handleUserMessageResponse (aCryptoFactorySign,
+                                                         aCryptoFactoryCrypt,
+                                                         aPModeResolver,
+                                                         aIAF,
+                                                         aIncomingProfileSelector,
+                                                         aClientUserMsg,
+                                                         aLocale,
+                                                         sURL,
+                                                         aIncomingDumper,
+                                                         aIncomingSecurityConfiguration,
+                                                         aIncomingReceiverConfiguration,
+                                                         aRawResponseConsumer,
+                                                         aSignalMsgConsumer,
+                                                         aSignalMsgValidationResultHandler,
+                                                         aClientSentMessage,
+                                                         aWrappedHttpResponse.get ());
+                           }
+                           catch (final Phase4Exception ex)
+                           {
+                             throw new CompletionException (ex);
+                           }
+                         });
+  }
+
   public static void sendAS4PullRequestAndReceiveAS4UserMessage (@NonNull final IAS4CryptoFactory aCryptoFactorySign,
                                                                  @NonNull final IAS4CryptoFactory aCryptoFactoryCrypt,
                                                                  @NonNull final IAS4PModeResolver aPModeResolver,
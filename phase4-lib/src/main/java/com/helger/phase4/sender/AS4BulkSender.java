@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.annotation.style.ReturnsMutableCopy;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.util.AS4Executors;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Send many AS4 user messages concurrently. Each message is sent via
+ * {@link AbstractAS4UserMessageBuilder#sendMessageAndCheckForReceipt(Consumer)} in a separate task.
+ * By default the tasks run on virtual threads (see {@link AS4Executors}), so that thousands of
+ * messages waiting for slow receivers don't need thousands of platform threads. The number of
+ * concurrently running sends is limited - if the limit is reached, the submitting thread is blocked
+ * until a running send is finished.<br>
+ * Note: each builder must only be submitted once and must not be modified afterwards.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4BulkSender implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_CONCURRENCY = 256;
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4BulkSender.class);
+
+  private final ExecutorService m_aExecutor;
+  private final boolean m_bOwnsExecutor;
+  private final int m_nMaxConcurrency;
+  private final Semaphore m_aPermits;
+  private final Consumer <? super Phase4Exception> m_aExceptionConsumer;
+
+  /**
+   * Constructor using a new executor from {@link AS4Executors#createTaskExecutor(String)} and the
+   * default maximum concurrency.
+   */
+  public AS4BulkSender ()
+  {
+    this (AS4Executors.createTaskExecutor ("phase4-bulk-send-"), true, DEFAULT_MAX_CONCURRENCY, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aExecutor
+   *        The executor to run the sends on. May not be <code>null</code>.
+   * @param bOwnsExecutor
+   *        <code>true</code> if the executor should be shut down on {@link #close()}.
+   * @param nMaxConcurrency
+   *        The maximum number of concurrently running sends. Must be &gt; 0.
+   * @param aExceptionConsumer
+   *        An optional consumer for exceptions thrown during sending. May be <code>null</code> in
+   *        which case the exceptions are logged.
+   */
+  public AS4BulkSender (@NonNull final ExecutorService aExecutor,
+                        final boolean bOwnsExecutor,
+                        @Nonnegative final int nMaxConcurrency,
+                        @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    ValueEnforcer.isGT0 (nMaxConcurrency, "MaxConcurrency");
+    m_aExecutor = aExecutor;
+    m_bOwnsExecutor = bOwnsExecutor;
+    m_nMaxConcurrency = nMaxConcurrency;
+    m_aPermits = new Semaphore (nMaxConcurrency);
+    m_aExceptionConsumer = aExceptionConsumer != null ? aExceptionConsumer
+                                                      : ex -> LOGGER.error ("Exception sending AS4 user message",
+                                                                            ex);
+  }
+
+  /**
+   * @return The maximum number of concurrently running sends. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxConcurrency ()
+  {
+    return m_nMaxConcurrency;
+  }
+
+  /**
+   * @return The number of currently running sends. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getInFlightCount ()
+  {
+    return m_nMaxConcurrency - m_aPermits.availablePermits ();
+  }
+
+  /**
+   * Submit a single message for sending. Blocks if the maximum concurrency is reached.
+   *
+   * @param aBuilder
+   *        The fully configured builder of the message to send. May not be <code>null</code>.
+   * @return A future that completes with the send result. Never <code>null</code>. The future
+   *         completes exceptionally, if the calling thread was interrupted while waiting or if this
+   *         sender is closed.
+   */
+  @NonNull
+  public CompletableFuture <EAS4UserMessageSendResult> submit (@NonNull final AbstractAS4UserMessageBuilder <?> aBuilder)
+  {
+    ValueEnforcer.notNull (aBuilder, "Builder");
+
+    try
+    {
+      // Back pressure
+      m_aPermits.acquire ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      return CompletableFuture.failedFuture (ex);
+    }
+
+    try
+    {
+      return CompletableFuture.supplyAsync ( () -> {
+        try
+        {
+          return aBuilder.sendMessageAndCheckForReceipt (m_aExceptionConsumer);
+        }
+        finally
+        {
+          m_aPermits.release ();
+        }
+      }, m_aExecutor);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      m_aPermits.release ();
+      return CompletableFuture.failedFuture (ex);
+    }
+  }
+
+  /**
+   * Submit all provided messages for sending. Blocks if the maximum concurrency is reached.
+   *
+   * @param aBuilders
+   *        The fully configured builders of the messages to send. May not be <code>null</code>.
+   * @return The futures in the order of the provided builders. Never <code>null</code>.
+   */
+  @NonNull
+  @ReturnsMutableCopy
+  public ICommonsList <CompletableFuture <EAS4UserMessageSendResult>> submitAll (@NonNull final Iterable <? extends AbstractAS4UserMessageBuilder <?>> aBuilders)
+  {
+    ValueEnforcer.notNull (aBuilders, "Builders");
+
+    final ICommonsList <CompletableFuture <EAS4UserMessageSendResult>> ret = new CommonsArrayList <> ();
+    for (final AbstractAS4UserMessageBuilder <?> aBuilder : aBuilders)
+      ret.add (submit (aBuilder));
+    return ret;
+  }
+
+  /**
+   * Send all provided messages and wait until all sends are finished.
+   *
+   * @param aBuilders
+   *        The fully configured builders of the messages to send. May not be <code>null</code>.
+   * @return The send results in the order of the provided builders. Never <code>null</code>.
+   *         Sends that could not be executed have the result
+   *         {@link EAS4UserMessageSendResult#TRANSPORT_ERROR}.
+   */
+  @NonNull
+  @ReturnsMutableCopy
+  public ICommonsList <EAS4UserMessageSendResult> sendAll (@NonNull final Iterable <? extends AbstractAS4UserMessageBuilder <?>> aBuilders)
+  {
+    return submitAll (aBuilders).getAllMapped (x -> x.exceptionally (ex -> {
+      LOGGER.error ("Failed to execute AS4 user message send", ex);
+      return EAS4UserMessageSendResult.TRANSPORT_ERROR;
+    }).join ());
+  }
+
+  /**
+   * Close this sender. If the executor is owned, it is shut down, but already submitted sends are
+   * still executed.
+   */
+  public void close ()
+  {
+    if (m_bOwnsExecutor)
+      m_aExecutor.shutdown ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Executor", m_aExecutor)
+                                       .append ("OwnsExecutor", m_bOwnsExecutor)
+                                       .append ("MaxConcurrency", m_nMaxConcurrency)
+                                       .getToString ();
+  }
+}
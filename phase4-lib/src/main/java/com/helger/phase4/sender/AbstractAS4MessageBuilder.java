@@ -18,6 +18,8 @@ package com.helger.phase4.sender;
 
 import java.time.OffsetDateTime;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 
 import org.jspecify.annotations.NonNull;
@@ -136,7 +138,9 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
    * Set the HTTP poster to be used. This is a very low level API and should only be used if you
    * know what you are doing! It allows you to overwrite how the message is sent over the wire.<br>
    * Note: if this method is used with a non-<code>null</code> parameter,
-   * {@link #httpClientFactory()} becomes useless
+   * {@link #httpClientFactory()} becomes useless<br>
+   * To reuse connections over multiple messages, a shared
+   * {@link com.helger.phase4.messaging.http.PooledHttpPoster} may be provided here.
    *
    * @param aCustomHttpPoster
    *        The new HTTP poster to be used. May be <code>null</code> which means "use the default"
@@ -910,6 +914,32 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
    */
   protected abstract void mainSendMessage () throws Phase4Exception;
 
+  /**
+   * Asynchronously send the AS4 message. This method is called after
+   * {@link #customizeBeforeSending()}. This method may only be called by {@link #sendMessageAsync()}.
+   * The default implementation synchronously invokes {@link #mainSendMessage()} and returns a
+   * completed future. Override this method to not block the calling thread while waiting for the
+   * response.
+   *
+   * @return The future that is completed after sending and handling the response. Never
+   *         <code>null</code>. A failure is indicated by completing the future exceptionally.
+   * @since 4.5.5
+   */
+  @OverrideOnDemand
+  @NonNull
+  protected CompletableFuture <Void> mainSendMessageAsync ()
+  {
+    try
+    {
+      mainSendMessage ();
+      return CompletableFuture.completedFuture (null);
+    }
+    catch (final Phase4Exception ex)
+    {
+      return CompletableFuture.failedFuture (ex);
+    }
+  }
+
   /**
    * Internal method that is invoked after successful sending took place. This can e.g. be used to
    * fulfill reporting requirements etc. This method must not throw an exception. This method is
@@ -921,6 +951,47 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   protected void afterSuccessfulSending ()
   {}
 
+  /**
+   * Perform all the steps before the main sending.
+   *
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @return <code>true</code> if the main sending should happen, <code>false</code> if not.
+   * @throws Phase4Exception
+   *         In case of any error
+   */
+  private boolean _prepareSending (@NonNull final AS4ResourceHelper aResHelper) throws Phase4Exception
+  {
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("About to send the AS4 message");
+
+    // Pre required field check
+    if (finishFields (aResHelper).isFailure ())
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("finishFields() prevented the AS4 message to be send");
+
+      return false;
+    }
+
+    if (!isEveryRequiredFieldSet ())
+    {
+      LOGGER.error ("At least one mandatory field is not set and therefore the AS4 message cannot be send.");
+      return false;
+    }
+
+    // Post required field check
+    customizeBeforeSending ();
+
+    if (m_aSenderInterrupt != null)
+      if (m_aSenderInterrupt.canSendDocument ().isBreak ())
+      {
+        LOGGER.warn ("The AS4 sender interrupt disabled the sending of the message.");
+        return false;
+      }
+    return true;
+  }
+
   /**
    * Synchronously send the AS4 message. First the internal "finishFields" method is called, to
    * ensure all dynamic fields are filled - on failure this methods exits. Afterwards
@@ -945,33 +1016,8 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   {
     try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
     {
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("About to send the AS4 message");
-
-      // Pre required field check
-      if (finishFields (aResHelper).isFailure ())
-      {
-        if (LOGGER.isDebugEnabled ())
-          LOGGER.debug ("finishFields() prevented the AS4 message to be send");
-
+      if (!_prepareSending (aResHelper))
         return ESuccess.FAILURE;
-      }
-
-      if (!isEveryRequiredFieldSet ())
-      {
-        LOGGER.error ("At least one mandatory field is not set and therefore the AS4 message cannot be send.");
-        return ESuccess.FAILURE;
-      }
-
-      // Post required field check
-      customizeBeforeSending ();
-
-      if (m_aSenderInterrupt != null)
-        if (m_aSenderInterrupt.canSendDocument ().isBreak ())
-        {
-          LOGGER.warn ("The AS4 sender interrupt disabled the sending of the message.");
-          return ESuccess.FAILURE;
-        }
 
       // Main sending
       mainSendMessage ();
@@ -985,4 +1031,48 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
       return ESuccess.SUCCESS;
     }
   }
+
+  /**
+   * Asynchronously send the AS4 message. All the steps of {@link #sendMessage()} up to the sender
+   * interrupt are performed synchronously in the calling thread. Afterwards
+   * {@link #mainSendMessageAsync()} is invoked and "afterSuccessfulSending" is called when it
+   * completed successfully. Any exception completes the returned future exceptionally, usually with
+   * a {@link CompletionException} wrapping a {@link Phase4Exception}.
+   *
+   * @return The future with {@link ESuccess#FAILURE} if not all mandatory parameters are set or if
+   *         the sending was interrupted, {@link ESuccess#SUCCESS} upon success. Never
+   *         <code>null</code>.
+   * @see #sendMessage()
+   * @since 4.5.5
+   */
+  @NonNull
+  public final CompletableFuture <ESuccess> sendMessageAsync ()
+  {
+    // Closed after the asynchronous sending finished
+    final AS4ResourceHelper aResHelper = new AS4ResourceHelper ();
+    CompletableFuture <ESuccess> aFuture;
+    try
+    {
+      if (!_prepareSending (aResHelper))
+        aFuture = CompletableFuture.completedFuture (ESuccess.FAILURE);
+      else
+      {
+        // Main sending
+        aFuture = mainSendMessageAsync ().thenApply (x -> {
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Finished main asynchronous AS4 message sending without exception");
+
+          // Post sending callback
+          afterSuccessfulSending ();
+
+          return ESuccess.SUCCESS;
+        });
+      }
+    }
+    catch (final Phase4Exception | RuntimeException ex)
+    {
+      aFuture = CompletableFuture.failedFuture (ex);
+    }
+    return aFuture.whenComplete ( (x, ex) -> aResHelper.close ());
+  }
 }
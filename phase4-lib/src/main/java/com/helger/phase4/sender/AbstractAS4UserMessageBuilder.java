@@ -17,6 +17,8 @@
 package com.helger.phase4.sender;
 
 import java.security.cert.X509Certificate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 
 import org.jspecify.annotations.NonNull;
@@ -928,6 +930,81 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
     return sendMessageAndCheckForReceipt (ex -> LOGGER.error ("Exception sending AS4 user message", ex));
   }
 
+  @NonNull
+  private static IAS4SignalMessageConsumer _createSignalMsgConsumer (@Nullable final IAS4SignalMessageConsumer aOriginalSignalMsgConsumer,
+                                                                     @NonNull final Wrapper <Ebms3SignalMessage> aSignalMsgKeeper)
+  {
+    final IAS4SignalMessageConsumer aInternalSignalMsgConsumer = (aSignalMsg,
+                                                                  aIncomingMessageMetadata,
+                                                                  aIncomingState) -> {
+      aSignalMsgKeeper.set (aSignalMsg);
+    };
+
+    if (aOriginalSignalMsgConsumer == null)
+    {
+      // Just store the message
+      return aInternalSignalMsgConsumer;
+    }
+
+    // Call the original handler and store the message
+    return (aSignalMsg, aIncomingMessageMetadata, aIncomingState) -> {
+      // Internal
+      aInternalSignalMsgConsumer.handleSignalMessage (aSignalMsg, aIncomingMessageMetadata, aIncomingState);
+      // and Original
+      aOriginalSignalMsgConsumer.handleSignalMessage (aSignalMsg, aIncomingMessageMetadata, aIncomingState);
+    };
+  }
+
+  @NonNull
+  private static EAS4UserMessageSendResult _getSendResult (@Nullable final Ebms3SignalMessage aSignalMsg)
+  {
+    if (aSignalMsg == null)
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Failed to get a SignalMessage as the response");
+
+      // Unexpected response - invalid XML or at least no Ebms3 signal message
+      return EAS4UserMessageSendResult.NO_SIGNAL_MESSAGE_RECEIVED;
+    }
+
+    if (aSignalMsg.hasErrorEntries ())
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("The received SignalMessage contains at least one error");
+
+      // An error was returned from the other side
+      // Errors have precedence over receipts
+      return EAS4UserMessageSendResult.AS4_ERROR_MESSAGE_RECEIVED;
+    }
+
+    if (aSignalMsg.getReceipt () != null)
+    {
+      // A receipt was returned - this is deemed success
+      return EAS4UserMessageSendResult.SUCCESS;
+    }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("The SignalMessage contains neither Errors nor a Receipt - unexpected SignalMessage layout.");
+
+    // Neither an error nor a receipt was returned - this is weird
+    return EAS4UserMessageSendResult.INVALID_SIGNAL_MESSAGE_RECEIVED;
+  }
+
+  @NonNull
+  private static EAS4UserMessageSendResult _getSendResult (@NonNull final Phase4Exception ex,
+                                                           @Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("An exception occurred sending out the AS4 message", ex);
+
+    if (aExceptionConsumer != null)
+      aExceptionConsumer.accept (ex);
+
+    // Something went wrong - see the logs
+    return ex.isRetryFeasible () ? EAS4UserMessageSendResult.TRANSPORT_ERROR
+                                 : EAS4UserMessageSendResult.TRANSPORT_ERROR_NO_RETRY;
+  }
+
   /**
    * This is a sanity method that encapsulates all the sending checks that are necessary to
    * determine overall sending success or error.<br>
@@ -948,30 +1025,11 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
     final IAS4SignalMessageConsumer aOriginalSignalMsgConsumer = m_aSignalMsgConsumer;
     // Store the received data
     final Wrapper <Ebms3SignalMessage> aSignalMsgKeeper = new Wrapper <> ();
-    final IAS4SignalMessageConsumer aInternalSignalMsgConsumer = (aSignalMsg,
-                                                                  aIncomingMessageMetadata,
-                                                                  aIncomingState) -> {
-      aSignalMsgKeeper.set (aSignalMsg);
-    };
 
     try
     {
       // this is not thread-safe because m_aSignalMsgConsumer is modified
-      if (aOriginalSignalMsgConsumer == null)
-      {
-        // Just store the message
-        m_aSignalMsgConsumer = aInternalSignalMsgConsumer;
-      }
-      else
-      {
-        // Call the original handler and store the message
-        m_aSignalMsgConsumer = (aSignalMsg, aIncomingMessageMetadata, aIncomingState) -> {
-          // Internal
-          aInternalSignalMsgConsumer.handleSignalMessage (aSignalMsg, aIncomingMessageMetadata, aIncomingState);
-          // and Original
-          aOriginalSignalMsgConsumer.handleSignalMessage (aSignalMsg, aIncomingMessageMetadata, aIncomingState);
-        };
-      }
+      m_aSignalMsgConsumer = _createSignalMsgConsumer (aOriginalSignalMsgConsumer, aSignalMsgKeeper);
 
       // Main sending
       if (sendMessage ().isFailure ())
@@ -980,54 +1038,73 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
         return EAS4UserMessageSendResult.INVALID_PARAMETERS;
       }
 
-      final Ebms3SignalMessage aSignalMsg = aSignalMsgKeeper.get ();
-      if (aSignalMsg == null)
-      {
-        if (LOGGER.isDebugEnabled ())
-          LOGGER.debug ("Failed to get a SignalMessage as the response");
-
-        // Unexpected response - invalid XML or at least no Ebms3 signal message
-        return EAS4UserMessageSendResult.NO_SIGNAL_MESSAGE_RECEIVED;
-      }
-
-      if (aSignalMsg.hasErrorEntries ())
-      {
-        if (LOGGER.isDebugEnabled ())
-          LOGGER.debug ("The received SignalMessage contains at least one error");
-
-        // An error was returned from the other side
-        // Errors have precedence over receipts
-        return EAS4UserMessageSendResult.AS4_ERROR_MESSAGE_RECEIVED;
-      }
-
-      if (aSignalMsg.getReceipt () != null)
-      {
-        // A receipt was returned - this is deemed success
-        return EAS4UserMessageSendResult.SUCCESS;
-      }
-
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("The SignalMessage contains neither Errors nor a Receipt - unexpected SignalMessage layout.");
-
-      // Neither an error nor a receipt was returned - this is weird
-      return EAS4UserMessageSendResult.INVALID_SIGNAL_MESSAGE_RECEIVED;
+      return _getSendResult (aSignalMsgKeeper.get ());
     }
     catch (final Phase4Exception ex)
     {
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("An exception occurred sending out the AS4 message", ex);
+      return _getSendResult (ex, aExceptionConsumer);
+    }
+    finally
+    {
+      // Restore the original value
+      m_aSignalMsgConsumer = aOriginalSignalMsgConsumer;
+    }
+  }
 
-      if (aExceptionConsumer != null)
-        aExceptionConsumer.accept (ex);
+  /**
+   * Asynchronous version of {@link #sendMessageAndCheckForReceipt(Consumer)}. The message is built
+   * in the calling thread and the HTTP sending including retries and the response handling happen
+   * asynchronously. The signal message consumer is only changed while the sending is started, so
+   * the builder may be modified as soon as this method returns.<br>
+   * Note: this method is not thread-safe, because it changes the signal message consumer
+   * internally.
+   *
+   * @param aExceptionConsumer
+   *        An optional Consumer that takes an eventually thrown {@link Phase4Exception}. May be
+   *        <code>null</code>.
+   * @return The future that is completed with {@link EAS4UserMessageSendResult#SUCCESS} only if all
+   *         parameters are correct, HTTP transmission was successful and if a positive AS4 Receipt
+   *         was returned. Never <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  public final CompletableFuture <EAS4UserMessageSendResult> sendMessageAndCheckForReceiptAsync (@Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    final IAS4SignalMessageConsumer aOriginalSignalMsgConsumer = m_aSignalMsgConsumer;
+    // Store the received data
+    final Wrapper <Ebms3SignalMessage> aSignalMsgKeeper = new Wrapper <> ();
 
-      // Something went wrong - see the logs
-      return ex.isRetryFeasible () ? EAS4UserMessageSendResult.TRANSPORT_ERROR
-                                   : EAS4UserMessageSendResult.TRANSPORT_ERROR_NO_RETRY;
+    final CompletableFuture <ESuccess> aFuture;
+    try
+    {
+      // The signal message consumer is taken when the sending is started
+      m_aSignalMsgConsumer = _createSignalMsgConsumer (aOriginalSignalMsgConsumer, aSignalMsgKeeper);
+
+      // Main sending
+      aFuture = sendMessageAsync ();
     }
     finally
     {
       // Restore the original value
       m_aSignalMsgConsumer = aOriginalSignalMsgConsumer;
     }
+
+    return aFuture.handle ( (eSuccess, ex) -> {
+      if (ex != null)
+      {
+        final Throwable aCause = ex instanceof CompletionException && ex.getCause () != null ? ex.getCause () : ex;
+        if (aCause instanceof final Phase4Exception aP4Ex)
+          return _getSendResult (aP4Ex, aExceptionConsumer);
+        throw new CompletionException (aCause);
+      }
+
+      if (eSuccess.isFailure ())
+      {
+        // Parameters are missing/incorrect
+        return EAS4UserMessageSendResult.INVALID_PARAMETERS;
+      }
+
+      return _getSendResult (aSignalMsgKeeper.get ());
+    });
   }
 }
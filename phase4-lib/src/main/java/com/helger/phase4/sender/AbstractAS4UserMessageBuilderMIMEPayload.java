@@ -18,6 +18,8 @@ package com.helger.phase4.sender;
 
 import java.io.IOException;
 import java.security.cert.CertPathBuilderException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
@@ -194,52 +196,83 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
     return null;
   }
 
-  @Override
-  protected final void mainSendMessage () throws Phase4Exception
+  @NonNull
+  private AS4ClientUserMessage _createUserMessage (@NonNull final AS4ResourceHelper aResHelper) throws IOException
   {
-    // Temporary file manager
-    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
-    {
-      // Start building AS4 User Message
-      final AS4ClientUserMessage aUserMsg = new AS4ClientUserMessage (aResHelper);
-      applyToUserMessage (aUserMsg);
+    // Start building AS4 User Message
+    final AS4ClientUserMessage aUserMsg = new AS4ClientUserMessage (aResHelper);
+    applyToUserMessage (aUserMsg);
 
-      if (m_aSendingDTConsumer != null)
+    if (m_aSendingDTConsumer != null)
+    {
+      try
       {
-        try
-        {
-          // Eventually this call will determine the sendingDateTime if none is
-          // set yet
-          m_aSendingDTConsumer.onEffectiveSendingDateTime (aUserMsg.ensureSendingDateTime ().getSendingDateTime ());
-        }
-        catch (final Exception ex)
-        {
-          LOGGER.error ("Failed to invoke IAS4SendingDateTimeConsumer", ex);
-        }
+        // Eventually this call will determine the sendingDateTime if none is
+        // set yet
+        m_aSendingDTConsumer.onEffectiveSendingDateTime (aUserMsg.ensureSendingDateTime ().getSendingDateTime ());
       }
-
-      // No payload in SOAP - only one attachment
-      aUserMsg.setPayload (null);
-
-      // Add main attachment
-      if (m_aPayload != null)
+      catch (final Exception ex)
       {
-        final WSS4JAttachment aMainAttachment = createMainAttachment (m_aPayload, aResHelper);
-        if (aMainAttachment != null)
-          aUserMsg.addAttachment (aMainAttachment);
+        LOGGER.error ("Failed to invoke IAS4SendingDateTimeConsumer", ex);
       }
+    }
+
+    // No payload in SOAP - only one attachment
+    aUserMsg.setPayload (null);
+
+    // Add main attachment
+    if (m_aPayload != null)
+    {
+      final WSS4JAttachment aMainAttachment = createMainAttachment (m_aPayload, aResHelper);
+      if (aMainAttachment != null)
+        aUserMsg.addAttachment (aMainAttachment);
+    }
 
-      // Add other attachments
+    // Add other attachments
+    {
+      int nIndex = 0;
+      for (final AS4OutgoingAttachment aAttachment : m_aAttachments)
       {
-        int nIndex = 0;
-        for (final AS4OutgoingAttachment aAttachment : m_aAttachments)
-        {
-          final WSS4JAttachment aOtherAttachment = createOtherAttachment (aAttachment, aResHelper, nIndex);
-          if (aOtherAttachment != null)
-            aUserMsg.addAttachment (aOtherAttachment);
-          nIndex++;
-        }
+        final WSS4JAttachment aOtherAttachment = createOtherAttachment (aAttachment, aResHelper, nIndex);
+        if (aOtherAttachment != null)
+          aUserMsg.addAttachment (aOtherAttachment);
+        nIndex++;
       }
+    }
+    return aUserMsg;
+  }
+
+  @NonNull
+  private Phase4Exception _getAsPhase4Exception (@NonNull final Exception ex)
+  {
+    if (ex instanceof final Phase4Exception aP4Ex)
+      return aP4Ex;
+
+    // TODO If this is an ExtendedHttpResponseException then the incoming
+    // dumper is never invoked
+
+    // Specific version to say "Only for Peppol PMode" - as there is no consistent PMode ID, this
+    // seems to be okay
+    if (m_aPMode != null && "urn:fdc:peppol.eu:2017:agreements:tia:ap_provider".equals (m_aPMode.getAgreement ()))
+    {
+      // Detect TLS / PKIX failures so users hitting the 4.5.0 truststore
+      // default change get a pointer at the migration wiki page
+      final String sTlsHint = _detectPeppolTlsHint (ex);
+      if (sTlsHint != null)
+        return new Phase4Exception (sTlsHint, ex);
+    }
+
+    // Wrap in phase4 Exception
+    return new Phase4Exception ("Wrapped Phase4Exception", ex);
+  }
+
+  @Override
+  protected final void mainSendMessage () throws Phase4Exception
+  {
+    // Temporary file manager
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ClientUserMessage aUserMsg = _createUserMessage (aResHelper);
 
       // Create on demand with all necessary parameters
       final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration = new AS4IncomingSecurityConfiguration ().setSigningParams (m_aSigningParams.getClone ())
@@ -268,29 +301,62 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
                                                                                  m_aSignalMsgConsumer,
                                                                                  m_aSignalMsgValidationResultHdl);
     }
-    catch (final Phase4Exception ex)
+    catch (final Exception ex)
     {
-      // Re-throw
-      throw ex;
+      throw _getAsPhase4Exception (ex);
     }
-    catch (final Exception ex)
+  }
+
+  @Override
+  @NonNull
+  protected final CompletableFuture <Void> mainSendMessageAsync ()
+  {
+    // Temporary file manager - closed after the asynchronous sending
+    final AS4ResourceHelper aResHelper = new AS4ResourceHelper ();
+    CompletableFuture <Void> aFuture;
+    try
     {
-      // TODO If this is an ExtendedHttpResponseException then the incoming
-      // dumper is never invoked
+      final AS4ClientUserMessage aUserMsg = _createUserMessage (aResHelper);
 
-      // Specific version to say "Only for Peppol PMode" - as there is no consistent PMode ID, this
-      // seems to be okay
-      if (m_aPMode != null && "urn:fdc:peppol.eu:2017:agreements:tia:ap_provider".equals (m_aPMode.getAgreement ()))
-      {
-        // Detect TLS / PKIX failures so users hitting the 4.5.0 truststore
-        // default change get a pointer at the migration wiki page
-        final String sTlsHint = _detectPeppolTlsHint (ex);
-        if (sTlsHint != null)
-          throw new Phase4Exception (sTlsHint, ex);
-      }
+      // Create on demand with all necessary parameters
+      final IAS4IncomingSecurityConfiguration aIncomingSecurityConfiguration = new AS4IncomingSecurityConfiguration ().setSigningParams (m_aSigningParams.getClone ())
+                                                                                                                      .setCryptParams (m_aCryptParams.getClone ())
+                                                                                                                      .setDecryptParameterModifier (m_aDecryptParameterModifier);
 
-      // Wrap in phase4 Exception
-      throw new Phase4Exception ("Wrapped Phase4Exception", ex);
+      // Use defaults
+      final IAS4IncomingReceiverConfiguration aIncomingReceiverConfiguration = new AS4IncomingReceiverConfiguration ();
+
+      // Main sending - the message is built in this thread
+      aFuture = AS4BidirectionalClientHelper.sendAS4UserMessageAndReceiveAS4SignalMessageAsync (m_aCryptoFactorySign,
+                                                                                                m_aCryptoFactoryCrypt,
+                                                                                                pmodeResolver (),
+                                                                                                incomingAttachmentFactory (),
+                                                                                                incomingProfileSelector (),
+                                                                                                aUserMsg,
+                                                                                                m_aLocale,
+                                                                                                m_sEndpointURL,
+                                                                                                m_aBuildMessageCallback,
+                                                                                                m_aOutgoingDumper,
+                                                                                                m_aIncomingDumper,
+                                                                                                aIncomingSecurityConfiguration,
+                                                                                                aIncomingReceiverConfiguration,
+                                                                                                m_aRetryCallback,
+                                                                                                m_aResponseConsumer,
+                                                                                                m_aSignalMsgConsumer,
+                                                                                                m_aSignalMsgValidationResultHdl);
+    }
+    catch (final Exception ex)
+    {
+      aFuture = CompletableFuture.failedFuture (ex);
     }
+
+    return aFuture.handle ( (x, ex) -> {
+      aResHelper.close ();
+      if (ex == null)
+        return null;
+
+      final Throwable aCause = ex instanceof CompletionException && ex.getCause () != null ? ex.getCause () : ex;
+      throw new CompletionException (aCause instanceof final Exception aEx ? _getAsPhase4Exception (aEx) : aCause);
+    });
   }
 }
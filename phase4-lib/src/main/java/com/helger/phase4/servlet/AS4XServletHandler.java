@@ -18,6 +18,8 @@ package com.helger.phase4.servlet;
 
 import java.nio.charset.Charset;
 import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
@@ -25,18 +27,20 @@ import org.slf4j.Logger;
 
 import com.helger.annotation.style.OverrideOnDemand;
 import com.helger.base.io.iface.IHasInputStream;
+import com.helger.base.string.StringHelper;
 import com.helger.http.CHttp;
 import com.helger.http.EHttpMethod;
 import com.helger.http.EHttpVersion;
 import com.helger.http.header.HttpHeaderMap;
 import com.helger.mime.IMimeType;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.AS4CryptoFactoryConfiguration;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.incoming.AS4IncomingMessageMetadata;
 import com.helger.phase4.incoming.AS4IncomingProfileSelectorConstant;
-import com.helger.phase4.incoming.AS4IncomingReceiverConfiguration;
 import com.helger.phase4.incoming.AS4RequestHandler;
+import com.helger.phase4.incoming.IAS4IncomingReceiverConfiguration;
 import com.helger.phase4.incoming.IAS4ResponseAbstraction;
 import com.helger.phase4.incoming.crypto.AS4IncomingSecurityConfiguration;
 import com.helger.phase4.incoming.mgr.AS4ProfileSelector;
@@ -60,6 +64,12 @@ import jakarta.servlet.http.HttpServletRequest;
 public class AS4XServletHandler implements IXServletSimpleHandler
 {
   private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4XServletHandler.class);
+  // The default PMode resolvers and receiver configurations are immutable and can be shared, so
+  // that the SOAP header processor registry can be reused across requests. Customizers that want to
+  // change them need to set new instances. Key is the AS4 profile ID.
+  private static final Map <String, AS4DefaultPModeResolver> DEFAULT_PMODE_RESOLVERS = new ConcurrentHashMap <> ();
+  // Key is the endpoint address of this AS4 endpoint
+  private static final Map <String, IAS4IncomingReceiverConfiguration> DEFAULT_RECEIVER_CONFIGURATIONS = new ConcurrentHashMap <> ();
 
   private IAS4ServletRequestHandlerCustomizer m_aRequestHandlerCustomizer;
 
@@ -71,6 +81,19 @@ public class AS4XServletHandler implements IXServletSimpleHandler
   public AS4XServletHandler ()
   {}
 
+  /**
+   * @return The immutable default receiver configuration, based on the current value of
+   *         {@link AS4Configuration#getThisEndpointAddress()}. Never <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  public static IAS4IncomingReceiverConfiguration getDefaultReceiverConfiguration ()
+  {
+    final String sEndpointAddress = AS4Configuration.getThisEndpointAddress ();
+    return DEFAULT_RECEIVER_CONFIGURATIONS.computeIfAbsent (StringHelper.getNotNull (sEndpointAddress, ""),
+                                                            k -> () -> sEndpointAddress);
+  }
+
   /**
    * @return The additional customizer. May be <code>null</code>.
    */
@@ -209,11 +232,12 @@ public class AS4XServletHandler implements IXServletSimpleHandler
       final IAS4CryptoFactory aCF = AS4CryptoFactoryConfiguration.getDefaultInstanceOrNull ();
       if (aCF != null)
         aHandler.setCryptoFactory (aCF);
-      aHandler.setPModeResolver (new AS4DefaultPModeResolver (sAS4ProfileID));
+      aHandler.setPModeResolver (DEFAULT_PMODE_RESOLVERS.computeIfAbsent (StringHelper.getNotNull (sAS4ProfileID, ""),
+                                                                          k -> new AS4DefaultPModeResolver (sAS4ProfileID)));
       aHandler.setIncomingProfileSelector (new AS4IncomingProfileSelectorConstant (sAS4ProfileID, true));
       aHandler.setIncomingAttachmentFactory (IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE);
       aHandler.setIncomingSecurityConfiguration (AS4IncomingSecurityConfiguration.createDefaultInstance ());
-      aHandler.setIncomingReceiverConfiguration (new AS4IncomingReceiverConfiguration ());
+      aHandler.setIncomingReceiverConfiguration (getDefaultReceiverConfiguration ());
 
       // Customize before handling
       if (aHandlerCustomizer != null)
@@ -31,7 +31,10 @@ import com.helger.web.scope.IRequestWebScopeWithoutResponse;
 public interface IAS4ServletRequestHandlerCustomizer
 {
   /**
-   * Called before the message is handled. <br>
+   * Called before the message is handled. This is the right place to configure e.g. a custom
+   * {@link com.helger.phase4.incoming.async.AS4AsyncProcessingEngine} via
+   * {@link AS4RequestHandler#setAsyncProcessingEngine(com.helger.phase4.incoming.async.AS4AsyncProcessingEngine)}.
+   * <br>
    * Note: was called "customize" until v0.9.4
    *
    * @param aRequestScope
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.io.file.FileHelper;
+
+/**
+ * An {@link IAS4SpoolEntry} that is backed by a file of an {@link IAS4Spool}.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+public class AS4FileSpoolEntry implements IAS4SpoolEntry
+{
+  private final IAS4Spool m_aSpool;
+  private final File m_aFile;
+  private final AtomicBoolean m_aClosed = new AtomicBoolean (false);
+
+  /**
+   * Constructor
+   *
+   * @param aSpool
+   *        The spool the file belongs to. May not be <code>null</code>.
+   * @param aFile
+   *        The file created by the spool. May not be <code>null</code>.
+   */
+  public AS4FileSpoolEntry (@NonNull final IAS4Spool aSpool, @NonNull final File aFile)
+  {
+    ValueEnforcer.notNull (aSpool, "Spool");
+    ValueEnforcer.notNull (aFile, "File");
+    m_aSpool = aSpool;
+    m_aFile = aFile;
+  }
+
+  @NonNull
+  public OutputStream getOutputStream () throws IOException
+  {
+    final OutputStream ret = FileHelper.getBufferedOutputStream (m_aFile);
+    if (ret == null)
+      throw new IOException ("Failed to open spool file '" + m_aFile.getAbsolutePath () + "' for writing");
+    return ret;
+  }
+
+  @Nullable
+  public InputStream getInputStream ()
+  {
+    return FileHelper.getBufferedInputStream (m_aFile);
+  }
+
+  public long getSize ()
+  {
+    return m_aFile.length ();
+  }
+
+  @NonNull
+  public File getFile ()
+  {
+    return m_aFile;
+  }
+
+  public void close ()
+  {
+    if (!m_aClosed.getAndSet (true))
+      m_aSpool.releaseFile (m_aFile);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("File", m_aFile).append ("Closed", m_aClosed.get ()).getToString ();
+  }
+}
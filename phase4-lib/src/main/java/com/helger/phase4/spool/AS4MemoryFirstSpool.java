@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.NotThreadSafe;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.CGlobal;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.io.file.FileHelper;
+
+/**
+ * An {@link IAS4Spool} that keeps the content of entries created via {@link #createEntry()} in
+ * memory, as long as it does not exceed a configurable threshold. Only if the threshold is exceeded
+ * while writing, the content is spilled to a file of the backing spool. Requests for plain files
+ * via {@link #createFile()} are directly forwarded to the backing spool.<br>
+ * The statistics of this spool cover the entries only - the statistics of the backing spool cover
+ * all files.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4MemoryFirstSpool implements IAS4Spool
+{
+  public static final int DEFAULT_IN_MEMORY_THRESHOLD = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private final IAS4Spool m_aBackingSpool;
+  private final int m_nInMemoryThreshold;
+  private final AS4SpoolStatistics m_aStats = new AS4SpoolStatistics ();
+  private final AtomicLong m_aSpilledCount = new AtomicLong (0);
+
+  /**
+   * A spool entry that starts in memory and switches to a file if the threshold is exceeded.
+   *
+   * @author Philip Helger
+   */
+  @NotThreadSafe
+  private final class MemoryFirstEntry implements IAS4SpoolEntry
+  {
+    private byte [] m_aBytes = new byte [0];
+    private File m_aFile;
+    private long m_nSize;
+    private boolean m_bClosed;
+
+    private void _discardContent ()
+    {
+      if (m_aFile != null)
+      {
+        m_aBackingSpool.releaseFile (m_aFile);
+        m_aFile = null;
+      }
+      m_aBytes = new byte [0];
+      m_nSize = 0;
+    }
+
+    @NonNull
+    public OutputStream getOutputStream ()
+    {
+      if (m_bClosed)
+        throw new IllegalStateException ("The spool entry was already closed");
+      _discardContent ();
+
+      return new OutputStream ()
+      {
+        private NonBlockingByteArrayOutputStream m_aBAOS = new NonBlockingByteArrayOutputStream ();
+        private OutputStream m_aFileOS;
+
+        private void _ensureCapacity (final int nAdditional) throws IOException
+        {
+          if (m_aFileOS == null && m_nSize + nAdditional > m_nInMemoryThreshold)
+          {
+            // Spill to the backing spool
+            m_aFile = m_aBackingSpool.createFile ();
+            m_aFileOS = FileHelper.getBufferedOutputStream (m_aFile);
+            if (m_aFileOS == null)
+              throw new IOException ("Failed to open spool file '" + m_aFile.getAbsolutePath () + "' for writing");
+            m_aBAOS.writeTo (m_aFileOS);
+            m_aBAOS = null;
+            m_aSpilledCount.incrementAndGet ();
+          }
+        }
+
+        @Override
+        public void write (final int b) throws IOException
+        {
+          _ensureCapacity (1);
+          if (m_aFileOS != null)
+            m_aFileOS.write (b);
+          else
+            m_aBAOS.write (b);
+          m_nSize++;
+        }
+
+        @Override
+        public void write (final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+        {
+          _ensureCapacity (nLen);
+          if (m_aFileOS != null)
+            m_aFileOS.write (aBuf, nOfs, nLen);
+          else
+            m_aBAOS.write (aBuf, nOfs, nLen);
+          m_nSize += nLen;
+        }
+
+        @Override
+        public void flush () throws IOException
+        {
+          if (m_aFileOS != null)
+            m_aFileOS.flush ();
+        }
+
+        @Override
+        public void close () throws IOException
+        {
+          if (m_aFileOS != null)
+            m_aFileOS.close ();
+          else
+            if (m_aBAOS != null)
+            {
+              m_aBytes = m_aBAOS.toByteArray ();
+              m_aBAOS = null;
+            }
+        }
+      };
+    }
+
+    @Nullable
+    public InputStream getInputStream ()
+    {
+      if (m_bClosed)
+        throw new IllegalStateException ("The spool entry was already closed");
+      return m_aFile != null ? FileHelper.getBufferedInputStream (m_aFile) : new NonBlockingByteArrayInputStream (m_aBytes);
+    }
+
+    public long getSize ()
+    {
+      return m_nSize;
+    }
+
+    @Nullable
+    public File getFile ()
+    {
+      return m_aFile;
+    }
+
+    public void close ()
+    {
+      if (!m_bClosed)
+      {
+        m_bClosed = true;
+        final long nSize = m_nSize;
+        _discardContent ();
+        m_aStats.onHandleReleased (nSize);
+      }
+    }
+  }
+
+  /**
+   * Constructor with the default threshold.
+   *
+   * @param aBackingSpool
+   *        The spool to use for files. May not be <code>null</code>.
+   */
+  public AS4MemoryFirstSpool (@NonNull final IAS4Spool aBackingSpool)
+  {
+    this (aBackingSpool, DEFAULT_IN_MEMORY_THRESHOLD);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aBackingSpool
+   *        The spool to use for files. May not be <code>null</code>.
+   * @param nInMemoryThreshold
+   *        The maximum number of bytes an entry may contain to be kept in memory. Must be &ge; 0.
+   */
+  public AS4MemoryFirstSpool (@NonNull final IAS4Spool aBackingSpool, @Nonnegative final int nInMemoryThreshold)
+  {
+    ValueEnforcer.notNull (aBackingSpool, "BackingSpool");
+    ValueEnforcer.isGE0 (nInMemoryThreshold, "InMemoryThreshold");
+    m_aBackingSpool = aBackingSpool;
+    m_nInMemoryThreshold = nInMemoryThreshold;
+  }
+
+  /**
+   * @return The backing spool used for files. Never <code>null</code>.
+   */
+  @NonNull
+  public final IAS4Spool getBackingSpool ()
+  {
+    return m_aBackingSpool;
+  }
+
+  /**
+   * @return The maximum number of bytes kept in memory per entry. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getInMemoryThreshold ()
+  {
+    return m_nInMemoryThreshold;
+  }
+
+  /**
+   * @return The number of entries that exceeded the threshold and were spilled to a file.
+   */
+  @Nonnegative
+  public final long getSpilledCount ()
+  {
+    return m_aSpilledCount.get ();
+  }
+
+  @NonNull
+  public File createFile () throws IOException
+  {
+    return m_aBackingSpool.createFile ();
+  }
+
+  public void releaseFile (@NonNull final File aFile)
+  {
+    m_aBackingSpool.releaseFile (aFile);
+  }
+
+  @Override
+  @NonNull
+  public IAS4SpoolEntry createEntry ()
+  {
+    final MemoryFirstEntry ret = new MemoryFirstEntry ();
+    m_aStats.onHandleCreated ();
+    return ret;
+  }
+
+  @NonNull
+  public final AS4SpoolStatistics getStatistics ()
+  {
+    return m_aStats;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("BackingSpool", m_aBackingSpool)
+                                       .append ("InMemoryThreshold", m_nInMemoryThreshold)
+                                       .append ("SpilledCount", m_aSpilledCount.get ())
+                                       .append ("Statistics", m_aStats)
+                                       .getToString ();
+  }
+}
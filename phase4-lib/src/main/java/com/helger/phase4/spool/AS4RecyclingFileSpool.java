@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jspecify.annotations.NonNull;
+import org.slf4j.Logger;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+
+/**
+ * A file based {@link IAS4Spool} that recycles released files instead of deleting them. A released
+ * file is truncated to 0 bytes and put into a pool, from which the next {@link #createFile()} call
+ * takes it. Only if the pool is full, released files are deleted. Optionally a number of files can
+ * be pre-allocated upon construction.<br>
+ * Note: the same file is handed out again after it was released, so any reference to it must be
+ * dropped upon release. Call {@link #close()} to delete all pooled files.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4RecyclingFileSpool extends AbstractAS4FileSpool implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_POOLED_FILES = 256;
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4RecyclingFileSpool.class);
+
+  private final File m_aDir;
+  private final int m_nMaxPooledFiles;
+  private final String m_sRunPrefix = FILE_PREFIX + Long.toString (System.currentTimeMillis (), 36) + "-";
+  private final AtomicLong m_aCounter = new AtomicLong (0);
+  private final Queue <File> m_aPool = new ConcurrentLinkedQueue <> ();
+  private final AtomicInteger m_aPoolSize = new AtomicInteger (0);
+  private final AtomicLong m_aRecycledCount = new AtomicLong (0);
+  private final AtomicBoolean m_aClosed = new AtomicBoolean (false);
+
+  /**
+   * Constructor with the default pool size and no pre-allocated files.
+   *
+   * @param aDir
+   *        The directory to create the files in. Is created if it does not exist. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         If the directory could not be created
+   */
+  public AS4RecyclingFileSpool (@NonNull final File aDir) throws IOException
+  {
+    this (aDir, DEFAULT_MAX_POOLED_FILES, 0);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDir
+   *        The directory to create the files in. Is created if it does not exist. May not be
+   *        <code>null</code>.
+   * @param nMaxPooledFiles
+   *        The maximum number of released files to keep for reuse. Must be &ge; 0.
+   * @param nPreAllocatedFiles
+   *        The number of files to create upfront. Must be between 0 and the maximum number of pooled
+   *        files.
+   * @throws IOException
+   *         If the directory or a file could not be created
+   */
+  public AS4RecyclingFileSpool (@NonNull final File aDir,
+                                @Nonnegative final int nMaxPooledFiles,
+                                @Nonnegative final int nPreAllocatedFiles) throws IOException
+  {
+    ValueEnforcer.notNull (aDir, "Dir");
+    ValueEnforcer.isGE0 (nMaxPooledFiles, "MaxPooledFiles");
+    ValueEnforcer.isBetweenInclusive (nPreAllocatedFiles, "PreAllocatedFiles", 0, nMaxPooledFiles);
+    if (!aDir.isDirectory () && !aDir.mkdirs ())
+      throw new IOException ("Failed to create spool directory '" + aDir.getAbsolutePath () + "'");
+    m_aDir = aDir;
+    m_nMaxPooledFiles = nMaxPooledFiles;
+
+    for (int i = 0; i < nPreAllocatedFiles; ++i)
+    {
+      m_aPool.add (_createNewFile ());
+      m_aPoolSize.incrementAndGet ();
+    }
+  }
+
+  /**
+   * @return The directory in which the files are created. Never <code>null</code>.
+   */
+  @NonNull
+  public final File getDirectory ()
+  {
+    return m_aDir;
+  }
+
+  /**
+   * @return The maximum number of files kept for reuse. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getMaxPooledFiles ()
+  {
+    return m_nMaxPooledFiles;
+  }
+
+  /**
+   * @return The number of files currently available for reuse. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getPooledFileCount ()
+  {
+    return m_aPoolSize.get ();
+  }
+
+  /**
+   * @return The number of times a pooled file was handed out again. Always &ge; 0.
+   */
+  @Nonnegative
+  public final long getRecycledCount ()
+  {
+    return m_aRecycledCount.get ();
+  }
+
+  @NonNull
+  private File _createNewFile () throws IOException
+  {
+    while (true)
+    {
+      final File ret = new File (m_aDir, m_sRunPrefix + m_aCounter.getAndIncrement () + FILE_SUFFIX);
+      if (ret.createNewFile ())
+        return ret;
+      // File already exists - try the next name
+    }
+  }
+
+  @Override
+  @NonNull
+  protected File internalCreateFile () throws IOException
+  {
+    final File aPooled = m_aPool.poll ();
+    if (aPooled != null)
+    {
+      m_aPoolSize.decrementAndGet ();
+      m_aRecycledCount.incrementAndGet ();
+      return aPooled;
+    }
+    return _createNewFile ();
+  }
+
+  @Override
+  protected void internalReleaseFile (@NonNull final File aFile)
+  {
+    if (!m_aClosed.get () && m_aPoolSize.incrementAndGet () <= m_nMaxPooledFiles)
+    {
+      // Reuse the file - keep the inode but drop the content
+      try (final FileChannel aChannel = FileChannel.open (aFile.toPath (), StandardOpenOption.WRITE))
+      {
+        aChannel.truncate (0);
+        m_aPool.add (aFile);
+        return;
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.warn ("Failed to truncate spool file '" + aFile.getAbsolutePath () + "' - deleting it", ex);
+      }
+    }
+    m_aPoolSize.decrementAndGet ();
+    deleteFile (aFile);
+  }
+
+  /**
+   * Delete all files currently available for reuse. Files released afterwards are deleted
+   * immediately.
+   */
+  public void close ()
+  {
+    m_aClosed.set (true);
+    File aFile;
+    while ((aFile = m_aPool.poll ()) != null)
+    {
+      m_aPoolSize.decrementAndGet ();
+      deleteFile (aFile);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Dir", m_aDir)
+                                       .append ("MaxPooledFiles", m_nMaxPooledFiles)
+                                       .append ("PooledFiles", m_aPoolSize.get ())
+                                       .append ("RecycledCount", m_aRecycledCount.get ())
+                                       .append ("Statistics", getStatistics ())
+                                       .getToString ();
+  }
+}
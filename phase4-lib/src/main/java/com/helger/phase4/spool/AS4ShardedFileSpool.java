@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jspecify.annotations.NonNull;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.string.StringHelper;
+import com.helger.base.tostring.ToStringGenerator;
+
+/**
+ * A file based {@link IAS4Spool} that distributes the files over a fixed number of sub-directories
+ * of a base directory, so that no single directory grows too large. The sub-directories are
+ * created once in the constructor and the file names are created from a counter, so no random
+ * names need to be probed. Released files are deleted.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4ShardedFileSpool extends AbstractAS4FileSpool
+{
+  public static final int DEFAULT_SHARD_COUNT = 64;
+
+  private final File m_aBaseDir;
+  private final File [] m_aShardDirs;
+  // Unique per instance, to avoid conflicts with files of earlier runs
+  private final String m_sRunPrefix = FILE_PREFIX + Long.toString (System.currentTimeMillis (), 36) + "-";
+  private final AtomicLong m_aCounter = new AtomicLong (0);
+
+  /**
+   * Constructor with the default number of shards.
+   *
+   * @param aBaseDir
+   *        The base directory. Is created if it does not exist. May not be <code>null</code>.
+   * @throws IOException
+   *         If a directory could not be created
+   */
+  public AS4ShardedFileSpool (@NonNull final File aBaseDir) throws IOException
+  {
+    this (aBaseDir, DEFAULT_SHARD_COUNT);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aBaseDir
+   *        The base directory. Is created if it does not exist. May not be <code>null</code>.
+   * @param nShardCount
+   *        The number of sub-directories to use. Must be &gt; 0.
+   * @throws IOException
+   *         If a directory could not be created
+   */
+  public AS4ShardedFileSpool (@NonNull final File aBaseDir, @Nonnegative final int nShardCount) throws IOException
+  {
+    ValueEnforcer.notNull (aBaseDir, "BaseDir");
+    ValueEnforcer.isGT0 (nShardCount, "ShardCount");
+    m_aBaseDir = aBaseDir;
+    m_aShardDirs = new File [nShardCount];
+    for (int i = 0; i < nShardCount; ++i)
+    {
+      final File aShardDir = new File (aBaseDir, StringHelper.getLeadingZero (i, 4));
+      if (!aShardDir.isDirectory () && !aShardDir.mkdirs ())
+        throw new IOException ("Failed to create spool directory '" + aShardDir.getAbsolutePath () + "'");
+      m_aShardDirs[i] = aShardDir;
+    }
+  }
+
+  /**
+   * @return The base directory. Never <code>null</code>.
+   */
+  @NonNull
+  public final File getBaseDir ()
+  {
+    return m_aBaseDir;
+  }
+
+  /**
+   * @return The number of sub-directories. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getShardCount ()
+  {
+    return m_aShardDirs.length;
+  }
+
+  @Override
+  @NonNull
+  protected File internalCreateFile () throws IOException
+  {
+    while (true)
+    {
+      final long nIndex = m_aCounter.getAndIncrement ();
+      final File aDir = m_aShardDirs[(int) (nIndex % m_aShardDirs.length)];
+      final File ret = new File (aDir, m_sRunPrefix + nIndex + FILE_SUFFIX);
+      if (ret.createNewFile ())
+        return ret;
+      // File already exists - try the next name
+    }
+  }
+
+  @Override
+  protected void internalReleaseFile (@NonNull final File aFile)
+  {
+    deleteFile (aFile);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("BaseDir", m_aBaseDir)
+                                       .append ("ShardCount", m_aShardDirs.length)
+                                       .append ("Statistics", getStatistics ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.tostring.ToStringGenerator;
+
+/**
+ * Runtime statistics of an {@link IAS4Spool}.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4SpoolStatistics
+{
+  private final AtomicLong m_aTotalHandles = new AtomicLong (0);
+  private final AtomicInteger m_aLiveHandles = new AtomicInteger (0);
+  private final AtomicLong m_aBytesWritten = new AtomicLong (0);
+
+  /**
+   * Called when a new file or entry was handed out.
+   */
+  public void onHandleCreated ()
+  {
+    m_aTotalHandles.incrementAndGet ();
+    m_aLiveHandles.incrementAndGet ();
+  }
+
+  /**
+   * Called when a file or entry was handed back.
+   *
+   * @param nBytesWritten
+   *        The number of bytes that were written to the handle. Must be &ge; 0.
+   */
+  public void onHandleReleased (@Nonnegative final long nBytesWritten)
+  {
+    m_aLiveHandles.decrementAndGet ();
+    m_aBytesWritten.addAndGet (nBytesWritten);
+  }
+
+  /**
+   * @return The number of files or entries handed out since startup.
+   */
+  @Nonnegative
+  public long getTotalHandleCount ()
+  {
+    return m_aTotalHandles.get ();
+  }
+
+  /**
+   * @return The number of files or entries that are currently in use.
+   */
+  @Nonnegative
+  public int getLiveHandleCount ()
+  {
+    return m_aLiveHandles.get ();
+  }
+
+  /**
+   * @return The number of bytes written to all released files or entries since startup.
+   */
+  @Nonnegative
+  public long getBytesWritten ()
+  {
+    return m_aBytesWritten.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("TotalHandles", m_aTotalHandles.get ())
+                                       .append ("LiveHandles", m_aLiveHandles.get ())
+                                       .append ("BytesWritten", m_aBytesWritten.get ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.jspecify.annotations.NonNull;
+
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * The default {@link IAS4Spool}: every file is created via {@link Files#createTempFile} in
+ * {@link AS4ResourceHelper#getTempDir()} (or the system temporary directory) and deleted when it is
+ * released.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class AS4TempFileSpool extends AbstractAS4FileSpool
+{
+  @Override
+  @NonNull
+  protected File internalCreateFile () throws IOException
+  {
+    final File aTempDir = AS4ResourceHelper.getTempDir ();
+    return aTempDir != null ? Files.createTempFile (aTempDir.toPath (), FILE_PREFIX, FILE_SUFFIX).toFile ()
+                            : Files.createTempFile (FILE_PREFIX, FILE_SUFFIX).toFile ();
+  }
+
+  @Override
+  protected void internalReleaseFile (@NonNull final File aFile)
+  {
+    deleteFile (aFile);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Statistics", getStatistics ()).getToString ();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jspecify.annotations.NonNull;
+import org.slf4j.Logger;
+
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.io.file.FileIOError;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * Abstract base class for file based {@link IAS4Spool} implementations, that takes care of the
+ * statistics.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public abstract class AbstractAS4FileSpool implements IAS4Spool
+{
+  protected static final String FILE_PREFIX = "phase4-res-";
+  protected static final String FILE_SUFFIX = ".tmp";
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AbstractAS4FileSpool.class);
+
+  private final AS4SpoolStatistics m_aStats = new AS4SpoolStatistics ();
+
+  /**
+   * Create a new empty file.
+   *
+   * @return The new file. Never <code>null</code>.
+   * @throws IOException
+   *         If file creation fails
+   */
+  @NonNull
+  protected abstract File internalCreateFile () throws IOException;
+
+  /**
+   * Dispose a file that is no longer needed.
+   *
+   * @param aFile
+   *        The file to dispose. Never <code>null</code>.
+   */
+  protected abstract void internalReleaseFile (@NonNull File aFile);
+
+  @NonNull
+  public final File createFile () throws IOException
+  {
+    final File ret = internalCreateFile ();
+    m_aStats.onHandleCreated ();
+    return ret;
+  }
+
+  public final void releaseFile (@NonNull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    final long nBytes = aFile.length ();
+    internalReleaseFile (aFile);
+    m_aStats.onHandleReleased (nBytes);
+  }
+
+  @NonNull
+  public final AS4SpoolStatistics getStatistics ()
+  {
+    return m_aStats;
+  }
+
+  /**
+   * Delete the provided file and log a warning if that fails.
+   *
+   * @param aFile
+   *        The file to delete. May not be <code>null</code>.
+   */
+  protected static void deleteFile (@NonNull final File aFile)
+  {
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Deleting temporary file '" + aFile.getAbsolutePath () + "'");
+
+    final FileIOError aError = AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aFile);
+    if (aError.isFailure ())
+      LOGGER.warn ("  Failed to delete temporary " +
+                   CAS4.LIB_NAME +
+                   " file " +
+                   aFile.getAbsolutePath () +
+                   ": " +
+                   aError.toString ());
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jspecify.annotations.NonNull;
+
+/**
+ * Abstraction for the temporary storage used by {@link com.helger.phase4.util.AS4ResourceHelper}
+ * for attachments, decrypted attachments, serialized payloads etc. Implementations must be
+ * thread-safe, as one spool is usually shared by all resource helpers.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+public interface IAS4Spool
+{
+  /**
+   * Create a new file that can be written to and read from. The file must be handed back via
+   * {@link #releaseFile(File)} when it is no longer needed.
+   *
+   * @return A new, empty file. Never <code>null</code>.
+   * @throws IOException
+   *         If file creation fails
+   */
+  @NonNull
+  File createFile () throws IOException;
+
+  /**
+   * Release a file previously created by {@link #createFile()}. Afterwards the file may be deleted
+   * or reused for other content, so it must not be accessed anymore.
+   *
+   * @param aFile
+   *        The file to release. May not be <code>null</code>.
+   */
+  void releaseFile (@NonNull File aFile);
+
+  /**
+   * Create a new spool entry. In contrast to {@link #createFile()} an entry does not need to be
+   * backed by a file. The entry must be closed when it is no longer needed.
+   *
+   * @return A new, empty spool entry. Never <code>null</code>.
+   * @throws IOException
+   *         If creation fails
+   */
+  @NonNull
+  default IAS4SpoolEntry createEntry () throws IOException
+  {
+    return new AS4FileSpoolEntry (this, createFile ());
+  }
+
+  /**
+   * @return The statistics of this spool. Never <code>null</code>.
+   */
+  @NonNull
+  AS4SpoolStatistics getStatistics ();
+}
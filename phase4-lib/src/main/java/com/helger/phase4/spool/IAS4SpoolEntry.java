@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.base.io.iface.IHasInputStream;
+
+/**
+ * A single entry of an {@link IAS4Spool}. The content is written once via
+ * {@link #getOutputStream()} and can afterwards be read as often as needed. Closing the entry
+ * releases the underlying resources.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+public interface IAS4SpoolEntry extends IHasInputStream, Closeable
+{
+  /**
+   * @return A new output stream to write the content to. Any previous content is discarded. The
+   *         returned stream must be closed before the content is read. Never <code>null</code>.
+   * @throws IOException
+   *         If the stream cannot be opened
+   */
+  @NonNull
+  OutputStream getOutputStream () throws IOException;
+
+  /**
+   * @return The number of bytes written so far.
+   */
+  long getSize ();
+
+  /**
+   * @return <code>true</code> if the content is held in memory, <code>false</code> if it is backed
+   *         by a file.
+   */
+  default boolean isInMemory ()
+  {
+    return getFile () == null;
+  }
+
+  /**
+   * @return The file backing this entry or <code>null</code> if the content is held in memory.
+   */
+  @Nullable
+  File getFile ();
+
+  @Override
+  default boolean isReadMultiple ()
+  {
+    return true;
+  }
+
+  /**
+   * Release the entry. Calling this more than once has no effect.
+   */
+  void close ();
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+
+import com.helger.annotation.Nonempty;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+
+/**
+ * The central factory for all threads and executors created by phase4. On Java 21 or later
+ * virtual threads are used for blocking tasks (e.g. HTTP sending and asynchronous processing),
+ * unless disabled via {@link AS4Configuration#isUseVirtualThreads()}. On older runtimes daemon
+ * platform threads are used.<br>
+ * Virtual threads are accessed via method handles, so that this class compiles and runs on Java
+ * 17 as well.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@Immutable
+public final class AS4Executors
+{
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4Executors.class);
+
+  // Thread.ofVirtual () - Thread.Builder.OfVirtual
+  private static final MethodHandle MH_OF_VIRTUAL;
+  // Thread.Builder.name (String, long)
+  private static final MethodHandle MH_BUILDER_NAME;
+  // Thread.Builder.factory ()
+  private static final MethodHandle MH_BUILDER_FACTORY;
+  // Executors.newThreadPerTaskExecutor (ThreadFactory)
+  private static final MethodHandle MH_THREAD_PER_TASK;
+
+  static
+  {
+    MethodHandle aOfVirtual = null;
+    MethodHandle aBuilderName = null;
+    MethodHandle aBuilderFactory = null;
+    MethodHandle aThreadPerTask = null;
+    try
+    {
+      final MethodHandles.Lookup aLookup = MethodHandles.publicLookup ();
+      final Class <?> aBuilderClass = Class.forName ("java.lang.Thread$Builder");
+      final Class <?> aOfVirtualClass = Class.forName ("java.lang.Thread$Builder$OfVirtual");
+      aOfVirtual = aLookup.findStatic (Thread.class, "ofVirtual", MethodType.methodType (aOfVirtualClass));
+      aBuilderName = aLookup.findVirtual (aBuilderClass,
+                                          "name",
+                                          MethodType.methodType (aBuilderClass, String.class, long.class));
+      aBuilderFactory = aLookup.findVirtual (aBuilderClass, "factory", MethodType.methodType (ThreadFactory.class));
+      aThreadPerTask = aLookup.findStatic (Executors.class,
+                                           "newThreadPerTaskExecutor",
+                                           MethodType.methodType (ExecutorService.class, ThreadFactory.class));
+    }
+    catch (final ReflectiveOperationException ex)
+    {
+      // Java 20 or older
+      aOfVirtual = null;
+    }
+    MH_OF_VIRTUAL = aOfVirtual;
+    MH_BUILDER_NAME = aBuilderName;
+    MH_BUILDER_FACTORY = aBuilderFactory;
+    MH_THREAD_PER_TASK = aThreadPerTask;
+  }
+
+  private AS4Executors ()
+  {}
+
+  /**
+   * @return <code>true</code> if the current runtime supports virtual threads (Java 21 or later).
+   */
+  public static boolean isVirtualThreadSupported ()
+  {
+    return MH_OF_VIRTUAL != null;
+  }
+
+  /**
+   * @return <code>true</code> if virtual threads are supported and enabled by the configuration.
+   */
+  public static boolean isVirtualThreadEnabled ()
+  {
+    return isVirtualThreadSupported () && AS4Configuration.isUseVirtualThreads ();
+  }
+
+  /**
+   * Create a factory for daemon platform threads.
+   *
+   * @param sPrefix
+   *        The thread name prefix. May neither be <code>null</code> nor empty.
+   * @return A new thread factory. Never <code>null</code>.
+   */
+  @NonNull
+  public static ThreadFactory createPlatformThreadFactory (@NonNull @Nonempty final String sPrefix)
+  {
+    ValueEnforcer.notEmpty (sPrefix, "Prefix");
+    final AtomicInteger aCounter = new AtomicInteger (0);
+    return r -> {
+      final Thread t = new Thread (r, sPrefix + aCounter.incrementAndGet ());
+      t.setDaemon (true);
+      return t;
+    };
+  }
+
+  @Nullable
+  private static ThreadFactory _createVirtualThreadFactory (@NonNull final String sPrefix)
+  {
+    try
+    {
+      final Object aBuilder = MH_OF_VIRTUAL.invoke ();
+      final Object aNamedBuilder = MH_BUILDER_NAME.invoke (aBuilder, sPrefix, 1L);
+      return (ThreadFactory) MH_BUILDER_FACTORY.invoke (aNamedBuilder);
+    }
+    catch (final Throwable t)
+    {
+      LOGGER.warn ("Failed to create virtual thread factory - falling back to platform threads", t);
+      return null;
+    }
+  }
+
+  /**
+   * Create a factory for threads executing blocking tasks. These are virtual threads if
+   * {@link #isVirtualThreadEnabled()} returns <code>true</code>, daemon platform threads otherwise.
+   *
+   * @param sPrefix
+   *        The thread name prefix. May neither be <code>null</code> nor empty.
+   * @return A new thread factory. Never <code>null</code>.
+   */
+  @NonNull
+  public static ThreadFactory createThreadFactory (@NonNull @Nonempty final String sPrefix)
+  {
+    ValueEnforcer.notEmpty (sPrefix, "Prefix");
+    if (isVirtualThreadEnabled ())
+    {
+      final ThreadFactory ret = _createVirtualThreadFactory (sPrefix);
+      if (ret != null)
+        return ret;
+    }
+    return createPlatformThreadFactory (sPrefix);
+  }
+
+  /**
+   * Create an unbounded executor for blocking tasks. If virtual threads are enabled, each task is
+   * executed in a new virtual thread, so that thousands of concurrently waiting tasks don't need
+   * thousands of platform threads. Otherwise a cached pool of daemon platform threads is used.
+   *
+   * @param sPrefix
+   *        The thread name prefix. May neither be <code>null</code> nor empty.
+   * @return A new executor. Never <code>null</code>. The caller is responsible for shutting it
+   *         down.
+   */
+  @NonNull
+  public static ExecutorService createTaskExecutor (@NonNull @Nonempty final String sPrefix)
+  {
+    ValueEnforcer.notEmpty (sPrefix, "Prefix");
+    if (isVirtualThreadEnabled ())
+    {
+      final ThreadFactory aTF = _createVirtualThreadFactory (sPrefix);
+      if (aTF != null)
+        try
+        {
+          return (ExecutorService) MH_THREAD_PER_TASK.invoke (aTF);
+        }
+        catch (final Throwable t)
+        {
+          LOGGER.warn ("Failed to create virtual thread executor - falling back to platform threads", t);
+        }
+    }
+    return Executors.newCachedThreadPool (createPlatformThreadFactory (sPrefix));
+  }
+}
@@ -0,0 +1,586 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.GuardedBy;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.annotation.style.OverrideOnDemand;
+import com.helger.base.concurrent.SimpleReadWriteLock;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+
+/**
+ * A generic bounded, TTL based cache for expensive remote lookups (like SMP queries or certificate
+ * revocation checks). Features:
+ * <ul>
+ * <li>Positive results are kept for {@link #getTimeToLive()}, negative results (<code>null</code>)
+ * are kept for {@link #getNegativeTimeToLive()}.</li>
+ * <li>The number of entries is limited - the least recently used entries are evicted first.</li>
+ * <li>Cache hits don't need any lock. Only storing a lookup result is exclusive, and only then an
+ * entry is evicted if the cache is full. The eviction scans all entries, which is cheap compared to
+ * the remote lookup that precedes it.</li>
+ * <li>Concurrent lookups for the same key are deduplicated, so that only one lookup is
+ * performed.</li>
+ * <li>If a refresh executor is present, an entry that is used after the refresh-ahead point of its
+ * lifetime is refreshed in the background. Additionally an expired entry may still be served for
+ * the stale grace period while it is refreshed in the background (stale-while-revalidate).</li>
+ * <li>Lookup errors are never cached.</li>
+ * </ul>
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ * @param <K>
+ *        The key type. Must implement equals and hashCode.
+ * @param <V>
+ *        The value type.
+ */
+@ThreadSafe
+public class AS4RefreshingCache <K, V>
+{
+  /**
+   * The lookup to perform on a cache miss or for a refresh.
+   *
+   * @param <V>
+   *        The value type
+   * @param <EX>
+   *        The exception type
+   */
+  @FunctionalInterface
+  public interface ILookup <V, EX extends Exception>
+  {
+    /**
+     * @return The looked up value or <code>null</code> for a negative result.
+     * @throws EX
+     *         In case of a lookup error
+     */
+    @Nullable
+    V lookup () throws EX;
+  }
+
+  /** Refresh entries that are used after 80% of their lifetime */
+  public static final double DEFAULT_REFRESH_AHEAD_FACTOR = 0.8;
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4RefreshingCache.class);
+
+  private static final class SingletonHolder
+  {
+    // Refreshing means blocking lookups - at most 2 at a time
+    static final ThreadFactory THREAD_FACTORY = AS4Executors.createThreadFactory ("phase4-cache-refresh-");
+    static final Executor DEFAULT_REFRESH_EXECUTOR = Executors.newFixedThreadPool (2, THREAD_FACTORY);
+  }
+
+  private static final class Entry <V>
+  {
+    private final V m_aValue;
+    private final long m_nRefreshNanos;
+    private final long m_nExpiryNanos;
+    private final AtomicBoolean m_aRefreshing = new AtomicBoolean (false);
+    // Only used for LRU eviction - lost updates don't matter
+    private volatile long m_nLastAccessNanos;
+
+    Entry (@Nullable final V aValue, final long nNowNanos, final long nRefreshNanos, final long nExpiryNanos)
+    {
+      m_aValue = aValue;
+      m_nLastAccessNanos = nNowNanos;
+      m_nRefreshNanos = nRefreshNanos;
+      m_nExpiryNanos = nExpiryNanos;
+    }
+  }
+
+  private final Duration m_aTTL;
+  private final Duration m_aNegativeTTL;
+  private final Duration m_aStaleGracePeriod;
+  private final int m_nMaxSize;
+  private final double m_dRefreshAheadFactor;
+  private final Executor m_aRefreshExecutor;
+
+  // Only the write lock is used, to serialize modifications and eviction. Reads need no lock.
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  private final Map <K, Entry <V>> m_aMap = new ConcurrentHashMap <> ();
+  private final Map <K, CompletableFuture <Entry <V>>> m_aInFlight = new ConcurrentHashMap <> ();
+
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aNegativeHits = new AtomicLong (0);
+  private final AtomicLong m_aStaleHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+  private final AtomicLong m_aDeduplicated = new AtomicLong (0);
+  private final AtomicLong m_aRefreshes = new AtomicLong (0);
+  private final AtomicLong m_aLookupErrors = new AtomicLong (0);
+  private final AtomicLong m_aEvictions = new AtomicLong (0);
+
+  /**
+   * Constructor
+   *
+   * @param aTTL
+   *        The time to live of positive results. May not be <code>null</code> and must be positive.
+   * @param aNegativeTTL
+   *        The time to live of negative results. May not be <code>null</code> and must not be
+   *        negative. Use {@link Duration#ZERO} to disable negative caching.
+   * @param aStaleGracePeriod
+   *        The time after expiry, in which a stale entry is still returned while it is refreshed in
+   *        the background. May not be <code>null</code> and must not be negative. Only effective if
+   *        a refresh executor is present.
+   * @param nMaxSize
+   *        The maximum number of entries. Must be &gt; 0.
+   * @param dRefreshAheadFactor
+   *        The fraction of the lifetime after which an entry is refreshed in the background, if it
+   *        is used. Must be between 0 and 1.
+   * @param aRefreshExecutor
+   *        The executor for background refreshes. May be <code>null</code> to disable background
+   *        refreshes.
+   */
+  public AS4RefreshingCache (@NonNull final Duration aTTL,
+                             @NonNull final Duration aNegativeTTL,
+                             @NonNull final Duration aStaleGracePeriod,
+                             @Nonnegative final int nMaxSize,
+                             final double dRefreshAheadFactor,
+                             @Nullable final Executor aRefreshExecutor)
+  {
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isTrue (!aTTL.isNegative () && !aTTL.isZero (), "TTL must be positive");
+    ValueEnforcer.notNull (aNegativeTTL, "NegativeTTL");
+    ValueEnforcer.isTrue (!aNegativeTTL.isNegative (), "NegativeTTL must not be negative");
+    ValueEnforcer.notNull (aStaleGracePeriod, "StaleGracePeriod");
+    ValueEnforcer.isTrue (!aStaleGracePeriod.isNegative (), "StaleGracePeriod must not be negative");
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    ValueEnforcer.isBetweenInclusive (dRefreshAheadFactor, "RefreshAheadFactor", 0d, 1d);
+    m_aTTL = aTTL;
+    m_aNegativeTTL = aNegativeTTL;
+    m_aStaleGracePeriod = aStaleGracePeriod;
+    m_nMaxSize = nMaxSize;
+    m_dRefreshAheadFactor = dRefreshAheadFactor;
+    m_aRefreshExecutor = aRefreshExecutor;
+  }
+
+  /**
+   * @return The default executor for background refreshes, using two daemon threads. Never
+   *         <code>null</code>.
+   */
+  @NonNull
+  public static Executor getDefaultRefreshExecutor ()
+  {
+    return SingletonHolder.DEFAULT_REFRESH_EXECUTOR;
+  }
+
+  @NonNull
+  public final Duration getTimeToLive ()
+  {
+    return m_aTTL;
+  }
+
+  @NonNull
+  public final Duration getNegativeTimeToLive ()
+  {
+    return m_aNegativeTTL;
+  }
+
+  @NonNull
+  public final Duration getStaleGracePeriod ()
+  {
+    return m_aStaleGracePeriod;
+  }
+
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  public final double getRefreshAheadFactor ()
+  {
+    return m_dRefreshAheadFactor;
+  }
+
+  @Nullable
+  public final Executor getRefreshExecutor ()
+  {
+    return m_aRefreshExecutor;
+  }
+
+  /**
+   * @return The current time in nanoseconds. Only used for relative comparisons. Overridable for
+   *         testing purposes.
+   */
+  @OverrideOnDemand
+  protected long getCurrentNanos ()
+  {
+    return System.nanoTime ();
+  }
+
+  /**
+   * Determine the time to live of the provided value. By default this is {@link #getTimeToLive()}
+   * for non-<code>null</code> values and {@link #getNegativeTimeToLive()} for <code>null</code>
+   * values. Override this to use value dependent lifetimes.
+   *
+   * @param aValue
+   *        The value to be cached. May be <code>null</code>.
+   * @return The time to live of the value. May not be <code>null</code> and must not be negative.
+   *         {@link Duration#ZERO} means that the value must be revalidated on the next access.
+   */
+  @NonNull
+  @OverrideOnDemand
+  protected Duration getTimeToLiveOf (@Nullable final V aValue)
+  {
+    return aValue != null ? m_aTTL : m_aNegativeTTL;
+  }
+
+  @NonNull
+  private Entry <V> _createEntry (@Nullable final V aValue)
+  {
+    final long nNow = getCurrentNanos ();
+    final long nTTL = getTimeToLiveOf (aValue).toNanos ();
+    return new Entry <> (aValue, nNow, nNow + (long) (nTTL * m_dRefreshAheadFactor), nNow + nTTL);
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _evictLeastRecentlyUsed (@NonNull final K aKeepKey)
+  {
+    while (m_aMap.size () > m_nMaxSize)
+    {
+      K aEldestKey = null;
+      long nEldestAccess = 0;
+      for (final Map.Entry <K, Entry <V>> aItem : m_aMap.entrySet ())
+      {
+        final long nAccess = aItem.getValue ().m_nLastAccessNanos;
+        if (!aItem.getKey ().equals (aKeepKey) && (aEldestKey == null || nAccess - nEldestAccess < 0))
+        {
+          aEldestKey = aItem.getKey ();
+          nEldestAccess = nAccess;
+        }
+      }
+      if (aEldestKey == null)
+        break;
+      m_aMap.remove (aEldestKey);
+      m_aEvictions.incrementAndGet ();
+    }
+  }
+
+  private void _store (@NonNull final K aKey, @NonNull final Entry <V> aEntry)
+  {
+    m_aRWLock.writeLocked ( () -> {
+      if (m_aMap.put (aKey, aEntry) == null)
+        _evictLeastRecentlyUsed (aKey);
+    });
+  }
+
+  @NonNull
+  @SuppressWarnings ("unchecked")
+  private <EX extends Exception> Entry <V> _lookupAndStore (@NonNull final K aKey,
+                                                            @NonNull final ILookup <V, EX> aLookup) throws EX
+  {
+    final CompletableFuture <Entry <V>> aNewFuture = new CompletableFuture <> ();
+    final CompletableFuture <Entry <V>> aExistingFuture = m_aInFlight.putIfAbsent (aKey, aNewFuture);
+    if (aExistingFuture != null)
+    {
+      // Another thread is already performing the same lookup
+      m_aDeduplicated.incrementAndGet ();
+      try
+      {
+        return aExistingFuture.get ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        // Don't wait any longer - perform the lookup without storing it
+        return _createEntry (aLookup.lookup ());
+      }
+      catch (final ExecutionException ex)
+      {
+        final Throwable aCause = ex.getCause ();
+        if (aCause instanceof final RuntimeException aRTEx)
+          throw aRTEx;
+        if (aCause instanceof final Error aError)
+          throw aError;
+        // All lookups of the same key are expected to throw the same exception type
+        throw (EX) aCause;
+      }
+    }
+
+    try
+    {
+      final Entry <V> aEntry = _createEntry (aLookup.lookup ());
+      // Don't store negative results if negative caching is disabled
+      if (aEntry.m_aValue != null || !m_aNegativeTTL.isZero ())
+        _store (aKey, aEntry);
+      else
+        m_aRWLock.writeLocked ( () -> m_aMap.remove (aKey));
+      aNewFuture.complete (aEntry);
+      return aEntry;
+    }
+    catch (final Exception ex)
+    {
+      m_aLookupErrors.incrementAndGet ();
+      aNewFuture.completeExceptionally (ex);
+      throw ex;
+    }
+    finally
+    {
+      m_aInFlight.remove (aKey, aNewFuture);
+    }
+  }
+
+  private void _refreshInBackground (@NonNull final K aKey,
+                                     @NonNull final Entry <V> aEntry,
+                                     @NonNull final ILookup <V, ?> aLookup)
+  {
+    if (!aEntry.m_aRefreshing.compareAndSet (false, true))
+    {
+      // Refresh is already scheduled
+      return;
+    }
+
+    try
+    {
+      m_aRefreshExecutor.execute ( () -> {
+        try
+        {
+          _lookupAndStore (aKey, aLookup);
+          m_aRefreshes.incrementAndGet ();
+        }
+        catch (final Exception ex)
+        {
+          // The old entry stays valid until it expires
+          LOGGER.warn ("Background refresh of cache entry " + aKey + " failed: " + ex.getMessage ());
+          aEntry.m_aRefreshing.set (false);
+        }
+      });
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // E.g. the executor was shut down - keep serving the old entry and try again with the next
+      // access
+      LOGGER.warn ("Background refresh of cache entry " + aKey + " was rejected: " + ex.getMessage ());
+      aEntry.m_aRefreshing.set (false);
+    }
+  }
+
+  /**
+   * Get the cached value for the provided key or perform the lookup if no valid entry is present.
+   *
+   * @param <EX>
+   *        The exception type of the lookup
+   * @param aKey
+   *        The cache key. May not be <code>null</code>.
+   * @param aLookup
+   *        The lookup to perform in case of a cache miss or for a background refresh. May not be
+   *        <code>null</code>. Note: the lookup may be invoked from a background thread after this
+   *        method returned.
+   * @return The value or <code>null</code> if the lookup (possibly a cached one) returned
+   *         <code>null</code>.
+   * @throws EX
+   *         If the lookup failed. Failures are never cached.
+   */
+  @Nullable
+  public <EX extends Exception> V getOrLookup (@NonNull final K aKey, @NonNull final ILookup <V, EX> aLookup) throws EX
+  {
+    return getOrLookup (aKey, aLookup, aLookup);
+  }
+
+  /**
+   * Get the cached value for the provided key or perform the lookup if no valid entry is present.
+   * Use this version, if a cache miss and a background refresh need to perform different lookups
+   * (e.g. because the lookup of the caller depends on parameters that are only valid for the
+   * current request).
+   *
+   * @param <EX>
+   *        The exception type of the lookup
+   * @param aKey
+   *        The cache key. May not be <code>null</code>.
+   * @param aLookup
+   *        The lookup to perform in case of a cache miss. May not be <code>null</code>.
+   * @param aRefreshLookup
+   *        The lookup to perform for a background refresh. May not be <code>null</code>. Note: the
+   *        lookup may be invoked from a background thread after this method returned.
+   * @return The value or <code>null</code> if the lookup (possibly a cached one) returned
+   *         <code>null</code>.
+   * @throws EX
+   *         If the lookup failed. Failures are never cached.
+   */
+  @Nullable
+  public <EX extends Exception> V getOrLookup (@NonNull final K aKey,
+                                               @NonNull final ILookup <V, EX> aLookup,
+                                               @NonNull final ILookup <V, ?> aRefreshLookup) throws EX
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+    ValueEnforcer.notNull (aLookup, "Lookup");
+    ValueEnforcer.notNull (aRefreshLookup, "RefreshLookup");
+
+    // No lock needed for reading
+    final Entry <V> aEntry = m_aMap.get (aKey);
+    if (aEntry != null)
+    {
+      final long nNow = getCurrentNanos ();
+      aEntry.m_nLastAccessNanos = nNow;
+      if (nNow - aEntry.m_nExpiryNanos < 0)
+      {
+        // Entry is valid
+        if (aEntry.m_aValue != null)
+          m_aHits.incrementAndGet ();
+        else
+          m_aNegativeHits.incrementAndGet ();
+
+        if (m_aRefreshExecutor != null && nNow - aEntry.m_nRefreshNanos >= 0)
+          _refreshInBackground (aKey, aEntry, aRefreshLookup);
+        return aEntry.m_aValue;
+      }
+
+      if (m_aRefreshExecutor != null && nNow - aEntry.m_nExpiryNanos < m_aStaleGracePeriod.toNanos ())
+      {
+        // Serve stale while revalidating
+        m_aStaleHits.incrementAndGet ();
+        _refreshInBackground (aKey, aEntry, aRefreshLookup);
+        return aEntry.m_aValue;
+      }
+    }
+
+    m_aMisses.incrementAndGet ();
+    return _lookupAndStore (aKey, aLookup).m_aValue;
+  }
+
+  /**
+   * Remove the entry with the provided key.
+   *
+   * @param aKey
+   *        The key to remove. May be <code>null</code>.
+   */
+  public void invalidate (@Nullable final K aKey)
+  {
+    if (aKey != null)
+      m_aRWLock.writeLocked ( () -> m_aMap.remove (aKey));
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear ()
+  {
+    m_aRWLock.writeLocked (m_aMap::clear);
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aMap.size ();
+  }
+
+  /**
+   * @return The number of cache hits with a non-<code>null</code> value.
+   */
+  @Nonnegative
+  public final long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  /**
+   * @return The number of cache hits with a cached negative result.
+   */
+  @Nonnegative
+  public final long getNegativeHitCount ()
+  {
+    return m_aNegativeHits.get ();
+  }
+
+  /**
+   * @return The number of expired entries served within the stale grace period.
+   */
+  @Nonnegative
+  public final long getStaleHitCount ()
+  {
+    return m_aStaleHits.get ();
+  }
+
+  /**
+   * @return The number of cache misses.
+   */
+  @Nonnegative
+  public final long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  /**
+   * @return The number of misses that waited for a concurrent lookup of the same key, instead of
+   *         performing their own lookup.
+   */
+  @Nonnegative
+  public final long getDeduplicatedCount ()
+  {
+    return m_aDeduplicated.get ();
+  }
+
+  /**
+   * @return The number of successful background refreshes.
+   */
+  @Nonnegative
+  public final long getRefreshCount ()
+  {
+    return m_aRefreshes.get ();
+  }
+
+  /**
+   * @return The number of failed lookups (including background refreshes).
+   */
+  @Nonnegative
+  public final long getLookupErrorCount ()
+  {
+    return m_aLookupErrors.get ();
+  }
+
+  /**
+   * @return The number of entries that were evicted because the maximum size was reached.
+   */
+  @Nonnegative
+  public final long getEvictionCount ()
+  {
+    return m_aEvictions.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TTL", m_aTTL)
+                                       .append ("NegativeTTL", m_aNegativeTTL)
+                                       .append ("StaleGracePeriod", m_aStaleGracePeriod)
+                                       .append ("MaxSize", m_nMaxSize)
+                                       .append ("RefreshAheadFactor", m_dRefreshAheadFactor)
+                                       .append ("RefreshExecutor", m_aRefreshExecutor)
+                                       .append ("Hits", m_aHits.get ())
+                                       .append ("NegativeHits", m_aNegativeHits.get ())
+                                       .append ("StaleHits", m_aStaleHits.get ())
+                                       .append ("Misses", m_aMisses.get ())
+                                       .getToString ();
+  }
+}
@@ -20,7 +20,6 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hc.core5.http.ContentType;
@@ -38,25 +37,28 @@ import com.helger.base.io.stream.StreamHelper;
 import com.helger.collection.commons.CommonsArrayList;
 import com.helger.collection.commons.ICommonsList;
 import com.helger.io.file.FileHelper;
-import com.helger.io.file.FileIOError;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.spool.AS4TempFileSpool;
+import com.helger.phase4.spool.IAS4Spool;
+import com.helger.phase4.spool.IAS4SpoolEntry;
 
 /**
  * A resource manager that keeps track of temporary files and other closables that will be closed
  * when this manager is closed. When calling {@link #createTempFile()} a new filename is created and
  * added to the list. When using {@link #addCloseable(Closeable)} the Closable is added for
- * postponed closing.
+ * postponed closing.<br>
+ * The temporary storage itself is provided by an {@link IAS4Spool}. By default the global spool
+ * from {@link #getDefaultSpool()} is used.
  *
  * @author Philip Helger
  */
 public class AS4ResourceHelper implements Closeable
 {
-  private static final String TEMP_FILE_PREFIX = "phase4-res-";
-  private static final String TEMP_FILE_SUFFIX = ".tmp";
   private static final Logger LOGGER = Phase4LoggerFactory.getLogger (AS4ResourceHelper.class);
 
   private static File s_aTempDir;
+  private static IAS4Spool s_aDefaultSpool = new AS4TempFileSpool ();
 
   /**
    * @return The temp file directory to use, or <code>null</code> for the system default.
@@ -86,15 +88,68 @@ public class AS4ResourceHelper implements Closeable
     s_aTempDir = aTempDir;
   }
 
+  /**
+   * @return The spool used by all resource helpers created with the default constructor. Never
+   *         <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  public static IAS4Spool getDefaultSpool ()
+  {
+    return s_aDefaultSpool;
+  }
+
+  /**
+   * Set the spool to be used by all resource helpers created afterwards with the default
+   * constructor.
+   *
+   * @param aSpool
+   *        The spool to use. May not be <code>null</code>.
+   * @since 4.5.5
+   */
+  public static void setDefaultSpool (@NonNull final IAS4Spool aSpool)
+  {
+    ValueEnforcer.notNull (aSpool, "Spool");
+    s_aDefaultSpool = aSpool;
+  }
+
+  private final IAS4Spool m_aSpool;
   private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   private final AtomicBoolean m_aInClose = new AtomicBoolean (false);
   @GuardedBy ("m_aRWLock")
   private final ICommonsList <File> m_aTempFiles = new CommonsArrayList <> ();
   @GuardedBy ("m_aRWLock")
+  private final ICommonsList <IAS4SpoolEntry> m_aSpoolEntries = new CommonsArrayList <> ();
+  @GuardedBy ("m_aRWLock")
   private final ICommonsList <Closeable> m_aCloseables = new CommonsArrayList <> ();
 
   public AS4ResourceHelper ()
-  {}
+  {
+    this (getDefaultSpool ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aSpool
+   *        The spool to create temporary files and entries with. May not be <code>null</code>.
+   * @since 4.5.5
+   */
+  public AS4ResourceHelper (@NonNull final IAS4Spool aSpool)
+  {
+    ValueEnforcer.notNull (aSpool, "Spool");
+    m_aSpool = aSpool;
+  }
+
+  /**
+   * @return The spool used by this instance. Never <code>null</code>.
+   * @since 4.5.5
+   */
+  @NonNull
+  public final IAS4Spool getSpool ()
+  {
+    return m_aSpool;
+  }
 
   /**
    * @return A new temporary {@link File} that will be deleted when {@link #close()} is called on
@@ -111,10 +166,7 @@ public class AS4ResourceHelper implements Closeable
       throw new IllegalStateException ("ResourceManager is already closing/closed!");
 
     // Create
-    final File ret = s_aTempDir != null ? Files.createTempFile (s_aTempDir.toPath (),
-                                                                TEMP_FILE_PREFIX,
-                                                                TEMP_FILE_SUFFIX).toFile ()
-                                        : Files.createTempFile (TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX).toFile ();
+    final File ret = m_aSpool.createFile ();
     // And remember
     m_aRWLock.writeLocked ( () -> m_aTempFiles.add (ret));
 
@@ -124,6 +176,29 @@ public class AS4ResourceHelper implements Closeable
     return ret;
   }
 
+  /**
+   * Create a new spool entry that is released when {@link #close()} is called on this instance.
+   * Depending on the spool, the content may be kept in memory. Prefer this over
+   * {@link #createTempFile()} if no {@link File} is needed.
+   *
+   * @return A new spool entry. Never <code>null</code>.
+   * @throws IOException
+   *         When entry creation fails.
+   * @throws IllegalStateException
+   *         If {@link #close()} was already called before
+   * @since 4.5.5
+   */
+  @NonNull
+  public IAS4SpoolEntry createSpoolEntry () throws IOException
+  {
+    if (m_aInClose.get ())
+      throw new IllegalStateException ("ResourceManager is already closing/closed!");
+
+    final IAS4SpoolEntry ret = m_aSpool.createEntry ();
+    m_aRWLock.writeLocked ( () -> m_aSpoolEntries.add (ret));
+    return ret;
+  }
+
   /**
    * @return A list of all known temp files. Never <code>null</code> but maybe empty.
    * @since 0.8.3
@@ -186,7 +261,16 @@ public class AS4ResourceHelper implements Closeable
           StreamHelper.close (aCloseable);
       }
 
-      // Get and delete all temp files
+      // Release all spool entries
+      final ICommonsList <IAS4SpoolEntry> aSpoolEntries = m_aRWLock.writeLockedGet ( () -> {
+        final ICommonsList <IAS4SpoolEntry> ret = m_aSpoolEntries.getClone ();
+        m_aSpoolEntries.clear ();
+        return ret;
+      });
+      for (final IAS4SpoolEntry aEntry : aSpoolEntries)
+        aEntry.close ();
+
+      // Get and release all temp files
       final ICommonsList <File> aTempFiles = m_aRWLock.writeLockedGet ( () -> {
         final ICommonsList <File> ret = m_aTempFiles.getClone ();
         m_aTempFiles.clear ();
@@ -195,22 +279,10 @@ public class AS4ResourceHelper implements Closeable
       if (aTempFiles.isNotEmpty ())
       {
         if (LOGGER.isDebugEnabled ())
-          LOGGER.debug ("Deleting " + aTempFiles.size () + " temporary " + CAS4.LIB_NAME + " files");
+          LOGGER.debug ("Releasing " + aTempFiles.size () + " temporary " + CAS4.LIB_NAME + " files");
 
         for (final File aFile : aTempFiles)
-        {
-          if (LOGGER.isDebugEnabled ())
-            LOGGER.debug ("Deleting temporary file '" + aFile.getAbsolutePath () + "'");
-
-          final FileIOError aError = AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aFile);
-          if (aError.isFailure ())
-            LOGGER.warn ("  Failed to delete temporary " +
-                         CAS4.LIB_NAME +
-                         " file " +
-                         aFile.getAbsolutePath () +
-                         ": " +
-                         aError.toString ());
-        }
+          m_aSpool.releaseFile (aFile);
       }
     }
   }
@@ -16,8 +16,11 @@
  */
 package com.helger.phase4.util;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Locale;
 
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -27,8 +30,10 @@ import javax.xml.transform.stream.StreamResult;
 import org.jspecify.annotations.NonNull;
 import org.w3c.dom.Node;
 
+import com.helger.annotation.WillNotClose;
 import com.helger.base.CGlobal;
 import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
 import com.helger.base.io.nonblocking.NonBlockingStringWriter;
 import com.helger.phase4.marshaller.Ebms3NamespaceHandler;
 import com.helger.xml.serialize.write.EXMLSerializeIndent;
@@ -62,15 +67,21 @@ public final class AS4XMLHelper
     return XMLWriter.getNodeAsString (aNode, XWS);
   }
 
+  @NonNull
+  private static Transformer _createTransformer () throws TransformerException
+  {
+    final TransformerFactory aFactory = XMLTransformerFactory.createTransformerFactory (new LoggingTransformErrorListener (Locale.ROOT),
+                                                                                        null);
+    XMLTransformerFactory.makeTransformerFactorySecure (aFactory, CGlobal.EMPTY_STRING_ARRAY);
+    return aFactory.newTransformer ();
+  }
+
   @NonNull
   private static String _serializeRT (@NonNull final Node aNode)
   {
     try
     {
-      final TransformerFactory aFactory = XMLTransformerFactory.createTransformerFactory (new LoggingTransformErrorListener (Locale.ROOT),
-                                                                                          null);
-      XMLTransformerFactory.makeTransformerFactorySecure (aFactory, CGlobal.EMPTY_STRING_ARRAY);
-      final Transformer aTransformer = aFactory.newTransformer ();
+      final Transformer aTransformer = _createTransformer ();
 
       try (final NonBlockingStringWriter aSW = new NonBlockingStringWriter ())
       {
@@ -93,4 +104,55 @@ public final class AS4XMLHelper
       return _serializeRT (aNode);
     return _serializePh (aNode);
   }
+
+  /**
+   * Serialize the provided node directly to the provided output stream, using the charset of
+   * {@link #XWS}. This avoids the intermediate String representation of
+   * {@link #serializeXML(Node)} and creates the same bytes as encoding that String with the charset
+   * of {@link #XWS}.
+   *
+   * @param aNode
+   *        The node to serialize. May not be <code>null</code>.
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>. The stream is not closed.
+   * @throws IOException
+   *         In case serialization fails
+   * @since 4.5.5
+   */
+  public static void serializeXML (@NonNull final Node aNode, @NonNull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aNode, "Node");
+    ValueEnforcer.notNull (aOS, "OutputStream");
+    try
+    {
+      final Transformer aTransformer = _createTransformer ();
+      aTransformer.setOutputProperty (OutputKeys.ENCODING, XWS.getCharset ().name ());
+      aTransformer.transform (new DOMSource (aNode), new StreamResult (aOS));
+    }
+    catch (final TransformerException ex)
+    {
+      throw new IOException ("Failed to serialize XML", ex);
+    }
+  }
+
+  /**
+   * Serialize the provided node to a byte array, using the charset of {@link #XWS}.
+   *
+   * @param aNode
+   *        The node to serialize. May not be <code>null</code>.
+   * @return The serialized bytes. Never <code>null</code>.
+   * @since 4.5.5
+   */
+  public static byte @NonNull [] serializeXMLToBytes (@NonNull final Node aNode)
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      serializeXML (aNode, aBAOS);
+      return aBAOS.toByteArray ();
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to serialize XML", ex);
+    }
+  }
 }
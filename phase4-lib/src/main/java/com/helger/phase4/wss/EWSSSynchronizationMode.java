@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.wss;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonempty;
+import com.helger.base.id.IHasID;
+import com.helger.base.lang.EnumHelper;
+
+/**
+ * Defines how {@link WSSSynchronizer} synchronizes the WSS4J actions.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+public enum EWSSSynchronizationMode implements IHasID <String>
+{
+  /**
+   * All WSS4J actions are run one after the other in a global lock. The WSSConfig is initialized
+   * and cleaned up for every action. This is the legacy behaviour.
+   */
+  EXCLUSIVE ("exclusive"),
+  /**
+   * The WSSConfig is initialized only once and all WSS4J actions may run in parallel. Each action
+   * uses its own WSSConfig instance. Only the initialization and clean up of the WSSConfig is
+   * exclusive, so it is guaranteed that no clean up happens while an action is running.
+   */
+  SHARED ("shared");
+
+  public static final EWSSSynchronizationMode DEFAULT = EXCLUSIVE;
+
+  private final String m_sID;
+
+  EWSSSynchronizationMode (@NonNull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @NonNull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EWSSSynchronizationMode getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EWSSSynchronizationMode.class, sID);
+  }
+
+  @Nullable
+  public static EWSSSynchronizationMode getFromIDOrDefault (@Nullable final String sID,
+                                                            @Nullable final EWSSSynchronizationMode eDefault)
+  {
+    return EnumHelper.getFromIDOrDefault (EWSSSynchronizationMode.class, sID, eDefault);
+  }
+}
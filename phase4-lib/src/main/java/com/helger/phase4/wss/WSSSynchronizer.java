@@ -16,21 +16,26 @@
  */
 package com.helger.phase4.wss;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.wss4j.dom.engine.WSSConfig;
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 
+import com.helger.annotation.concurrent.GuardedBy;
 import com.helger.annotation.concurrent.ThreadSafe;
 import com.helger.base.enforce.ValueEnforcer;
 import com.helger.base.functional.IThrowingSupplier;
 import com.helger.phase4.config.AS4Configuration;
 
 /**
- * A helper class to run all WSS stuff in a lock. {@link WSSConfig#init()} and
- * {@link WSSConfig#cleanUp()} is called for every invocation.<br>
+ * A helper class to run all WSS stuff in a lock. Depending on the {@link EWSSSynchronizationMode}
+ * either {@link WSSConfig#init()} and {@link WSSConfig#cleanUp()} is called for every invocation
+ * inside a global exclusive lock, or {@link WSSConfig#init()} is called only once and all
+ * invocations may run in parallel. Invocations may be nested, except that an exclusive invocation
+ * or {@link #cleanUpShared()} must not be nested inside a shared invocation of the same thread.
+ * This would require upgrading the shared lock and is therefore rejected with an
+ * {@link IllegalStateException} instead of blocking forever.<br>
  * Note: this class may only be invoked if {@link AS4Configuration#isWSS4JSynchronizedSecurity()}
  * returns <code>true</code>.
  *
@@ -40,7 +45,10 @@ import com.helger.phase4.config.AS4Configuration;
 @ThreadSafe
 public final class WSSSynchronizer
 {
-  private static final Lock LOCK = new ReentrantLock ();
+  // Write lock for exclusive mode and for init/cleanUp; read lock for shared mode
+  private static final ReentrantReadWriteLock RW_LOCK = new ReentrantReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static boolean s_bSharedInitialized = false;
 
   private WSSSynchronizer ()
   {}
@@ -62,13 +70,73 @@ public final class WSSSynchronizer
     });
   }
 
+  /**
+   * Run the provided supplier using the synchronization mode from
+   * {@link AS4Configuration#getWSS4JSynchronizationMode()}.
+   *
+   * @param <T>
+   *        return type
+   * @param <EX>
+   *        exception type
+   * @param aSupplier
+   *        The supplier to be invoked. May not be <code>null</code>.
+   * @return The result of the supplier. May be <code>null</code>.
+   * @throws EX
+   *         If the supplier throws an exception
+   */
   @Nullable
   public static <T, EX extends Exception> T call (@NonNull final IThrowingSupplier <T, EX> aSupplier) throws EX
   {
+    return call (AS4Configuration.getWSS4JSynchronizationMode (), aSupplier);
+  }
+
+  /**
+   * Run the provided supplier using the provided synchronization mode.
+   *
+   * @param <T>
+   *        return type
+   * @param <EX>
+   *        exception type
+   * @param eMode
+   *        The synchronization mode to use. May not be <code>null</code>.
+   * @param aSupplier
+   *        The supplier to be invoked. May not be <code>null</code>.
+   * @return The result of the supplier. May be <code>null</code>.
+   * @throws EX
+   *         If the supplier throws an exception
+   * @throws IllegalStateException
+   *         If an exclusive invocation is nested inside a shared invocation of the same thread
+   * @since 4.5.5
+   */
+  @Nullable
+  public static <T, EX extends Exception> T call (@NonNull final EWSSSynchronizationMode eMode,
+                                                  @NonNull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    ValueEnforcer.notNull (eMode, "Mode");
     ValueEnforcer.notNull (aSupplier, "Supplier");
 
+    if (eMode == EWSSSynchronizationMode.SHARED)
+      return _callShared (aSupplier);
+    return _callExclusive (aSupplier);
+  }
+
+  private static void _checkNotInShared (@NonNull final String sAction)
+  {
+    // The read lock cannot be upgraded to the write lock - that would block forever
+    if (RW_LOCK.getReadHoldCount () > 0 && !RW_LOCK.isWriteLockedByCurrentThread ())
+      throw new IllegalStateException ("Cannot " +
+                                       sAction +
+                                       " while the current thread is running a WSS invocation in " +
+                                       EWSSSynchronizationMode.SHARED +
+                                       " mode");
+  }
+
+  private static <T, EX extends Exception> T _callExclusive (@NonNull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    _checkNotInShared ("run a WSS invocation in " + EWSSSynchronizationMode.EXCLUSIVE + " mode");
+
     // Lock
-    LOCK.lock ();
+    RW_LOCK.writeLock ().lock ();
     try
     {
       // Register
@@ -82,12 +150,82 @@ public final class WSSSynchronizer
       {
         // Unregister
         WSSConfig.cleanUp ();
+        // Shared users need to re-initialize
+        s_bSharedInitialized = false;
       }
     }
     finally
     {
       // Unlock
-      LOCK.unlock ();
+      RW_LOCK.writeLock ().unlock ();
+    }
+  }
+
+  private static void _ensureSharedInitialized ()
+  {
+    RW_LOCK.writeLock ().lock ();
+    try
+    {
+      if (!s_bSharedInitialized)
+      {
+        WSSConfig.init ();
+        s_bSharedInitialized = true;
+      }
+    }
+    finally
+    {
+      RW_LOCK.writeLock ().unlock ();
+    }
+  }
+
+  private static <T, EX extends Exception> T _callShared (@NonNull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    // Acquire the shared lock with an initialized WSSConfig
+    while (true)
+    {
+      RW_LOCK.readLock ().lock ();
+      if (s_bSharedInitialized)
+        break;
+      RW_LOCK.readLock ().unlock ();
+      _ensureSharedInitialized ();
+    }
+
+    try
+    {
+      // Perform - other shared invocations may run in parallel
+      return aSupplier.get ();
+    }
+    finally
+    {
+      RW_LOCK.readLock ().unlock ();
+    }
+  }
+
+  /**
+   * Clean up the WSSConfig that was initialized by invocations in
+   * {@link EWSSSynchronizationMode#SHARED} mode. This waits until all running invocations are
+   * finished. Subsequent invocations in shared mode initialize the WSSConfig again.
+   *
+   * @throws IllegalStateException
+   *         If the current thread is running an invocation in shared mode
+   * @since 4.5.5
+   */
+  public static void cleanUpShared ()
+  {
+    _checkNotInShared ("clean up the shared WSSConfig");
+
+    RW_LOCK.writeLock ().lock ();
+    try
+    {
+      if (s_bSharedInitialized)
+      {
+        WSSConfig.cleanUp ();
+        s_bSharedInitialized = false;
+      }
+    }
+    finally
+    {
+      RW_LOCK.writeLock ().unlock ();
     }
   }
 }
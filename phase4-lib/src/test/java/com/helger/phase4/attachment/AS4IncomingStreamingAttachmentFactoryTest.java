@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.Test;
+
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.http.CHttpHeader;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+import jakarta.mail.internet.InternetHeaders;
+
+/**
+ * Test class for class {@link AS4IncomingStreamingAttachmentFactory}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4IncomingStreamingAttachmentFactoryTest
+{
+  @Test
+  public void testInMemoryAndFile () throws Exception
+  {
+    final byte [] aPayload = new byte [1000];
+    for (int i = 0; i < aPayload.length; ++i)
+      aPayload[i] = (byte) i;
+    final byte [] aEncoded = Base64.getMimeEncoder ().encode (aPayload);
+
+    // Threshold above and below the payload size
+    for (final int nThreshold : new int [] { 2000, 100 })
+      try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+      {
+        final AS4IncomingStreamingAttachmentFactory aFactory = new AS4IncomingStreamingAttachmentFactory (nThreshold);
+        final InternetHeaders aHeaders = new InternetHeaders (new NonBlockingByteArrayInputStream (("Content-Type: application/octet-stream\r\n" +
+                                                                                                     "Content-Transfer-Encoding: base64\r\n" +
+                                                                                                     "Content-ID: <abc@phase4>\r\n" +
+                                                                                                     "\r\n").getBytes (StandardCharsets.ISO_8859_1)));
+        final WSS4JAttachment aAttachment = aFactory.createAttachment (aHeaders,
+                                                                       new NonBlockingByteArrayInputStream (aEncoded),
+                                                                       aResHelper);
+        assertEquals ("abc@phase4", aAttachment.getId ());
+        assertEquals ("application/octet-stream", aAttachment.getMimeType ());
+        assertEquals (aPayload.length, aAttachment.getContentLength ());
+        assertFalse (aAttachment.hasContentDigest ());
+
+        // Can be read more than once
+        assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+        assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+        assertEquals ("<abc@phase4>", aAttachment.getHeaders ().get (CHttpHeader.CONTENT_ID));
+      }
+  }
+}
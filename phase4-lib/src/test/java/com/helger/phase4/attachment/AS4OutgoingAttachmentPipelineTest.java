@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.jspecify.annotations.NonNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.base.io.iface.IHasInputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.mime.CMimeType;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.crypto.ECryptoAlgorithmCrypt;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.crypto.ICryptoSessionKeyProvider;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4OutgoingAttachmentPipeline}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4OutgoingAttachmentPipelineTest
+{
+  private static final String DIGEST_URI = ECryptoAlgorithmSignDigest.DIGEST_SHA_256.getAlgorithmURI ();
+  private static final String CRYPT_URI = ECryptoAlgorithmCrypt.AES_128_GCM.getAlgorithmURI ();
+
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  /**
+   * Counts how often the source is opened.
+   */
+  private static final class CountingISP implements IHasInputStream
+  {
+    private final byte [] m_aBytes;
+    private final AtomicInteger m_aOpenCount = new AtomicInteger (0);
+
+    CountingISP (final byte @NonNull [] aBytes)
+    {
+      m_aBytes = aBytes;
+    }
+
+    @NonNull
+    public InputStream getInputStream ()
+    {
+      m_aOpenCount.incrementAndGet ();
+      return new NonBlockingByteArrayInputStream (m_aBytes);
+    }
+
+    public boolean isReadMultiple ()
+    {
+      return true;
+    }
+
+    int getOpenCount ()
+    {
+      return m_aOpenCount.get ();
+    }
+  }
+
+  private static byte @NonNull [] _createPayload (final int nSize)
+  {
+    // Random data is not compressible and therefore exceeds the in-memory
+    // threshold after compression
+    final byte [] ret = new byte [nSize];
+    new Random (nSize).nextBytes (ret);
+    return ret;
+  }
+
+  @NonNull
+  private static WSS4JAttachment _createCompressedAttachment (@NonNull final AS4ResourceHelper aResHelper,
+                                                              @NonNull final CountingISP aISP)
+  {
+    final WSS4JAttachment ret = new WSS4JAttachment (aResHelper, CMimeType.APPLICATION_XML.getAsString ());
+    ret.setUniqueID ();
+    ret.setCompressionMode (EAS4CompressionMode.GZIP);
+    ret.setUncompressedSourceStreamProvider (aISP, null);
+    return ret;
+  }
+
+  private static byte @NonNull [] _sha256 (final byte @NonNull [] aBytes) throws Exception
+  {
+    return MessageDigest.getInstance ("SHA-256").digest (aBytes);
+  }
+
+  @Test
+  public void testCompressDigestEncryptSinglePass () throws Exception
+  {
+    final byte [] aPayload = _createPayload (200_000);
+    final CountingISP aSrcISP = new CountingISP (aPayload);
+    final SecretKey aKey = ICryptoSessionKeyProvider.INSTANCE_RANDOM_AES_128.getSessionKey ();
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment a = _createCompressedAttachment (aResHelper, aSrcISP);
+      assertTrue (a.isCompressionPending ());
+
+      AS4OutgoingAttachmentPipeline.process (new CommonsArrayList <> (a), DIGEST_URI, aKey, CRYPT_URI, aResHelper);
+      // Compression, digest and encryption read the source exactly once
+      assertEquals (1, aSrcISP.getOpenCount ());
+      // The compressed content is not kept in addition to the cipher text
+      assertTrue (a.isCompressionPending ());
+
+      final IHasInputStream aEncryptedISP = a.getEncryptedSourceStreamProvider (aKey, CRYPT_URI);
+      assertNotNull (aEncryptedISP);
+      assertTrue (aEncryptedISP.isReadMultiple ());
+      assertNull (a.getEncryptedSourceStreamProvider (ICryptoSessionKeyProvider.INSTANCE_RANDOM_AES_128.getSessionKey (),
+                                                      CRYPT_URI));
+
+      // Sending and retrying reuse the spooled cipher text
+      final byte [] aEncrypted = StreamHelper.getAllBytes (aEncryptedISP);
+      assertArrayEquals (aEncrypted, StreamHelper.getAllBytes (aEncryptedISP));
+      assertEquals (aEncrypted.length, a.getEncryptedContentLength ());
+      assertEquals (1, aSrcISP.getOpenCount ());
+
+      // Layout is IV || cipher text
+      final byte [] aIV = Arrays.copyOf (aEncrypted, 12);
+      final Cipher aCipher = Cipher.getInstance ("AES/GCM/NoPadding");
+      aCipher.init (Cipher.DECRYPT_MODE, aKey, new GCMParameterSpec (128, aIV));
+      final byte [] aCompressed = aCipher.doFinal (aEncrypted, aIV.length, aEncrypted.length - aIV.length);
+
+      // The digest is over the compressed content
+      assertArrayEquals (_sha256 (aCompressed), a.getContentDigest ("SHA-256"));
+      assertNull (a.getContentDigest ("SHA-512"));
+
+      final byte [] aDecompressed = StreamHelper.getAllBytes (EAS4CompressionMode.GZIP.getDecompressStream (new NonBlockingByteArrayInputStream (aCompressed)));
+      assertArrayEquals (aPayload, aDecompressed);
+    }
+  }
+
+  @Test
+  public void testCompressDigestSinglePass () throws Exception
+  {
+    final byte [] aPayload = _createPayload (200_000);
+    final CountingISP aSrcISP = new CountingISP (aPayload);
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment a = _createCompressedAttachment (aResHelper, aSrcISP);
+
+      AS4OutgoingAttachmentPipeline.process (new CommonsArrayList <> (a), DIGEST_URI, null, null, aResHelper);
+      assertEquals (1, aSrcISP.getOpenCount ());
+      assertFalse (a.isCompressionPending ());
+
+      // The spooled compressed content is used for sending and retries
+      final byte [] aCompressed = StreamHelper.getAllBytes (a.getSourceStream ());
+      assertArrayEquals (aCompressed, StreamHelper.getAllBytes (a.getSourceStream ()));
+      assertArrayEquals (aCompressed, StreamHelper.getAllBytes (a.getCompressedSourceStreamProvider ()));
+      assertEquals (aCompressed.length, a.getContentLength ());
+      assertEquals (1, aSrcISP.getOpenCount ());
+
+      assertArrayEquals (_sha256 (aCompressed), a.getContentDigest ("SHA-256"));
+      assertArrayEquals (aPayload,
+                         StreamHelper.getAllBytes (EAS4CompressionMode.GZIP.getDecompressStream (new NonBlockingByteArrayInputStream (aCompressed))));
+    }
+  }
+
+  @Test
+  public void testDigestOnlyUncompressed () throws Exception
+  {
+    final byte [] aPayload = _createPayload (1000);
+    final CountingISP aSrcISP = new CountingISP (aPayload);
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment a = new WSS4JAttachment (aResHelper, CMimeType.APPLICATION_OCTET_STREAM.getAsString ());
+      a.setUniqueID ();
+      a.setSourceStreamProvider (aSrcISP);
+
+      AS4OutgoingAttachmentPipeline.process (new CommonsArrayList <> (a), DIGEST_URI, null, null, aResHelper);
+      assertEquals (1, aSrcISP.getOpenCount ());
+      assertArrayEquals (_sha256 (aPayload), a.getContentDigest ("SHA-256"));
+
+      // The repeatable source is not spooled again
+      assertEquals (aSrcISP, a.getInputStreamProvider ());
+    }
+  }
+
+  @Test
+  public void testNothingToDo () throws Exception
+  {
+    final CountingISP aSrcISP = new CountingISP (_createPayload (1000));
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // XML content is canonicalized by WSS4J, so no digest is precomputed
+      final WSS4JAttachment a = new WSS4JAttachment (aResHelper, CMimeType.APPLICATION_XML.getAsString ());
+      a.setUniqueID ();
+      a.setSourceStreamProvider (aSrcISP);
+
+      AS4OutgoingAttachmentPipeline.process (new CommonsArrayList <> (a), DIGEST_URI, null, null, aResHelper);
+      assertEquals (0, aSrcISP.getOpenCount ());
+      assertFalse (a.hasContentDigest ());
+    }
+  }
+
+  @Test
+  public void testDeferredCompression () throws Exception
+  {
+    final byte [] aPayload = _createPayload (1000);
+    final CountingISP aSrcISP = new CountingISP (aPayload);
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment a = _createCompressedAttachment (aResHelper, aSrcISP);
+
+      // Opening the stream does not compress
+      final InputStream aIS = a.getSourceStream ();
+      assertEquals (0, aSrcISP.getOpenCount ());
+      assertTrue (a.isCompressionPending ());
+
+      // Reading does
+      final byte [] aCompressed = StreamHelper.getAllBytes (aIS);
+      assertEquals (1, aSrcISP.getOpenCount ());
+      assertFalse (a.isCompressionPending ());
+      assertArrayEquals (aCompressed, StreamHelper.getAllBytes (a.getCompressedSourceStreamProvider ()));
+      assertEquals (1, aSrcISP.getOpenCount ());
+    }
+  }
+
+  @Test
+  public void testIsPrecomputedDigestSupported ()
+  {
+    assertTrue (AS4OutgoingAttachmentPipeline.isPrecomputedDigestSupported ("application/gzip"));
+    assertTrue (AS4OutgoingAttachmentPipeline.isPrecomputedDigestSupported ("application/pdf"));
+    assertTrue (AS4OutgoingAttachmentPipeline.isPrecomputedDigestSupported ("image/png"));
+    assertFalse (AS4OutgoingAttachmentPipeline.isPrecomputedDigestSupported (null));
+    assertFalse (AS4OutgoingAttachmentPipeline.isPrecomputedDigestSupported ("application/xml"));
+    assertFalse (AS4OutgoingAttachmentPipeline.isPrecomputedDigestSupported ("text/xml"));
+    assertFalse (AS4OutgoingAttachmentPipeline.isPrecomputedDigestSupported ("text/plain; charset=UTF-8"));
+    assertFalse (AS4OutgoingAttachmentPipeline.isPrecomputedDigestSupported ("application/soap+xml"));
+    assertFalse (AS4OutgoingAttachmentPipeline.isPrecomputedDigestSupported ("image/svg+xml"));
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4SpoolingOutputStream}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4SpoolingOutputStreamTest
+{
+  @Test
+  public void testInMemoryAndSpilled () throws Exception
+  {
+    final byte [] aPayload = new byte [1000];
+    for (int i = 0; i < aPayload.length; ++i)
+      aPayload[i] = (byte) i;
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // Fits exactly
+      AS4SpoolingOutputStream aOS = AS4SpoolingOutputStream.spool (new NonBlockingByteArrayInputStream (aPayload),
+                                                                   aPayload.length,
+                                                                   aResHelper);
+      assertTrue (aOS.isInMemory ());
+      assertEquals (aPayload.length, aOS.getSize ());
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aOS.getContent ()));
+
+      // One byte too much
+      aOS = AS4SpoolingOutputStream.spool (new NonBlockingByteArrayInputStream (aPayload),
+                                           aPayload.length - 1,
+                                           aResHelper);
+      assertFalse (aOS.isInMemory ());
+      assertEquals (aPayload.length, aOS.getSize ());
+      // Can be read more than once
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aOS.getContent ()));
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aOS.getContent ()));
+    }
+  }
+
+  @Test
+  public void testContentRequiresClose () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4SpoolingOutputStream aOS = new AS4SpoolingOutputStream (aResHelper, 10);
+      aOS.write (1);
+      try
+      {
+        aOS.getContent ();
+        fail ();
+      }
+      catch (final IllegalStateException ex)
+      {
+        // expected
+      }
+      aOS.close ();
+      assertEquals (1, aOS.getSize ());
+      assertArrayEquals (new byte [] { 1 }, StreamHelper.getAllBytes (aOS.getContent ()));
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.helger.phase4.attachment;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 import java.io.IOException;
@@ -107,4 +108,45 @@ public final class EAS4CompressionModeTest
       assertArrayEquals (aSrc, aDecompressed);
     }
   }
+
+  @Test
+  public void testParallelCompression () throws IOException
+  {
+    // Multiple blocks plus a partial one
+    final byte [] aSrc = new byte [AS4CompressionSettings.MIN_BLOCK_SIZE * 3 + 1234];
+    for (int i = 0; i < aSrc.length; ++i)
+      aSrc[i] = (byte) ((i * 31) % 97);
+
+    for (final AS4CompressionSettings aSettings : new AS4CompressionSettings [] { AS4CompressionSettings.SERIAL,
+                                                                                AS4CompressionSettings.createSerial (9),
+                                                                                AS4CompressionSettings.createParallel (1,
+                                                                                                                       AS4CompressionSettings.MIN_BLOCK_SIZE) })
+    {
+      final NonBlockingByteArrayOutputStream aCompressedOS = new NonBlockingByteArrayOutputStream ();
+      try (final OutputStream aOS = EAS4CompressionMode.GZIP.getCompressStream (aCompressedOS, aSettings))
+      {
+        aOS.write (aSrc);
+      }
+      final byte [] aCompressed = aCompressedOS.toByteArray ();
+
+      // Standard GZIP stream
+      final NonBlockingByteArrayOutputStream aDecompressedOS = new NonBlockingByteArrayOutputStream ();
+      _decompressPayload (new NonBlockingByteArrayInputStream (aCompressed), aDecompressedOS);
+      assertArrayEquals (aSrc, aDecompressedOS.toByteArray ());
+
+      // Pooled inflater stream
+      try (final InputStream aIS = EAS4CompressionMode.GZIP.getDecompressStream (new NonBlockingByteArrayInputStream (aCompressed)))
+      {
+        assertArrayEquals (aSrc, StreamHelper.getAllBytes (aIS));
+      }
+    }
+
+    // Empty input must create a valid stream as well
+    final NonBlockingByteArrayOutputStream aCompressedOS = new NonBlockingByteArrayOutputStream ();
+    EAS4CompressionMode.GZIP.getCompressStream (aCompressedOS, AS4CompressionSettings.PARALLEL).close ();
+    try (final InputStream aIS = EAS4CompressionMode.GZIP.getDecompressStream (new NonBlockingByteArrayInputStream (aCompressedOS.toByteArray ())))
+    {
+      assertEquals (0, StreamHelper.getAllBytes (aIS).length);
+    }
+  }
 }
@@ -174,6 +174,9 @@ public final class WSS4JAttachmentTest
       // payload
       final byte [] aDecompressed = StreamHelper.getAllBytes (EAS4CompressionMode.GZIP.getDecompressStream (aCompressedISP.getInputStream ()));
       assertArrayEquals (aXmlBytes, aDecompressed);
+
+      // Length was calculated while compressing
+      assertEquals (aRead.length, a.getContentLength ());
     }
   }
 }
@@ -25,6 +25,7 @@ import org.junit.Test;
 import com.helger.config.source.IConfigurationSource;
 import com.helger.config.source.resource.IConfigurationSourceResource;
 import com.helger.config.value.ConfiguredValue;
+import com.helger.phase4.wss.EWSSSynchronizationMode;
 
 /**
  * Test class of class {@link AS4Configuration}.
@@ -38,6 +39,7 @@ public final class AS4ConfigurationTest
   {
     assertTrue (AS4Configuration.isUseInMemoryManagers ());
     assertTrue (AS4Configuration.isWSS4JSynchronizedSecurity ());
+    assertEquals (EWSSSynchronizationMode.EXCLUSIVE, AS4Configuration.getWSS4JSynchronizationMode ());
 
     final ConfiguredValue aCV = AS4Configuration.getConfig ().getConfiguredValue (AS4Configuration.PROPERTY_PHASE4_WSS4J_SYNCSECURITY);
     assertNotNull (aCV);
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.junit.Test;
+
+import com.helger.base.state.ETriState;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.security.certificate.CertificateDecodeHelper;
+import com.helger.security.certificate.ECertificateCheckResult;
+import com.helger.security.certificate.TrustedCAChecker;
+import com.helger.security.revocation.ERevocationCheckMode;
+
+/**
+ * Test class for class {@link AS4CertificateVerdictCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CertificateVerdictCacheTest
+{
+  private static final String PEM = "-----BEGIN CERTIFICATE-----\n" +
+                                    "MIIFsDCCA5igAwIBAgIUF5iu6+gA+IBNSaWYX4mmzDxrQskwDQYJKoZIhvcNAQEL\n" +
+                                    "BQAwazELMAkGA1UEBhMCQkUxGTAXBgNVBAoTEE9wZW5QRVBQT0wgQUlTQkwxFjAU\n" +
+                                    "BgNVBAsTDUZPUiBURVNUIE9OTFkxKTAnBgNVBAMTIFBFUFBPTCBBQ0NFU1MgUE9J\n" +
+                                    "TlQgVEVTVCBDQSAtIEczMB4XDTI1MDkwOTAwMDAwMFoXDTI3MDgyOTIzNTk1OVow\n" +
+                                    "XjELMAkGA1UEBhMCQVQxIjAgBgNVBAoMGUhlbGdlciBJVCBDb25zdWx0aW5nIEdt\n" +
+                                    "YkgxFzAVBgNVBAsMDlBFUFBPTCBURVNUIEFQMRIwEAYDVQQDDAlQT1AwMDAzMDYw\n" +
+                                    "ggEiMA0GCSqGSIb3DQEBAQUAA4IBDwAwggEKAoIBAQC9hHOrfLXSMBe6VXXU1dBX\n" +
+                                    "6oqnRvx3IUwrBIn+NGuYl04FOm7nm7tZ6QIM2KTzuz7v9HFIgamHlxfHHk4GHYOL\n" +
+                                    "ye6xQfEEK51WxUt6N/erpttJ1dnr7X2kr2qbMTmWzPmW0puKi+ugFaLgMrkxu3yS\n" +
+                                    "GVKYRWnv1xGsukcgNeLQbOFwmMf47NfkiRNz9NymYTSc0/dgN6HCl1DHB1UtfoH1\n" +
+                                    "qWTnKkEK8B0puX59k8KqC8Qt/zbgyrC9n12V+b6GhixvS8ngmTp2AcBGcRaydL/G\n" +
+                                    "nyT+MTx463Ia5AUYhy+KmYh40hljXwFUl2j5pn36IvK0mQgNxPcurmAvhmcmjY/f\n" +
+                                    "AgMBAAGjggFXMIIBUzAMBgNVHRMBAf8EAjAAMB0GA1UdDgQWBBS8P6H20f6L7fgp\n" +
+                                    "9wPp3pDKTaAGhTAfBgNVHSMEGDAWgBSzzETvdq+Byd/zX6WeiHGtn6D3cDAOBgNV\n" +
+                                    "HQ8BAf8EBAMCBLAwFgYDVR0lAQH/BAwwCgYIKwYBBQUHAwIwgYoGCCsGAQUFBwEB\n" +
+                                    "BH4wfDArBggrBgEFBQcwAYYfaHR0cDovL29jc3Aub25lLm5sLmRpZ2ljZXJ0LmNv\n" +
+                                    "bTBNBggrBgEFBQcwAoZBaHR0cDovL2NhY2VydHMub25lLm5sLmRpZ2ljZXJ0LmNv\n" +
+                                    "bS9QRVBQT0xBQ0NFU1NQT0lOVFRFU1RDQS1HMy5jcnQwTgYDVR0fBEcwRTBDoEGg\n" +
+                                    "P4Y9aHR0cDovL2NybC5vbmUubmwuZGlnaWNlcnQuY29tL1BFUFBPTEFDQ0VTU1BP\n" +
+                                    "SU5UVEVTVENBLUczLmNybDANBgkqhkiG9w0BAQsFAAOCAgEAXbHWJXYKfhIin2T1\n" +
+                                    "o/RciJeAXEPbyh/lEqvw1TaSWxz0swo0HhVxC9XAA2ufZaZjOgps4tZTmxG9IxkX\n" +
+                                    "XO9B3nngMU3DOOfW73cYA0mFrDHLnaALaxgenCVgLyN/f22/8cbHYoUDNoOSBVCZ\n" +
+                                    "j0TFNpnMQvVXvzvr8lNjpf6hTevPvZEa+8Vy5aBlwbbGh1L8cgc1WToJ9OX7n7zz\n" +
+                                    "1waKwqyPukTjsNLiz7Nc6nOtBXUCgoTY+9G24FEN0k11kkM3cnhTODeQFZiRGHKv\n" +
+                                    "RdaZpBODyuVm/U8d5ewAFvpW1N+wTOVkB372Ctg0mMtN+6xd5/VJdoTYOFkjQ/Fa\n" +
+                                    "m32bZVJ2z8O5meGqWoDHLKoZfMYj6VMiwjTtsF1MK0qgj9AKvCcE6NGn5R8hZikq\n" +
+                                    "tp/Kvx4I8X94dK+jZr7AKZlJsqaQGhEo1BX0LN2JcnwAc3oNHOyzj3exfkPspUjf\n" +
+                                    "9DgwLZ+PNrSSLk+tJsMxEJTSIntSSpZOwhGtws5ZtQX3UEp2SwSUrnylCkgXq7yq\n" +
+                                    "qA3lX/8chHDoI+A1VNR1VOhO2cJN3I+mj16GoEFGxqroB9dcI2ARA9qpKXFX6P1g\n" +
+                                    "MPg8omdlrplC5QrXgIF23tXDeOmK/ezvlp2kP2g/KiCbVqvt8l2wwaTRqzNnSC0T\n" +
+                                    "RJ8ByMAV0Fj5XGS1Kl5UGv/BqGY=\n" +
+                                    "-----END CERTIFICATE-----\n";
+
+  private static final Duration PATH_TTL = Duration.ofHours (6);
+  private static final Duration REVOCATION_TTL = Duration.ofMinutes (30);
+
+  /**
+   * Doesn't check anything but remembers the check date times.
+   */
+  private static final class MockCache extends AS4CertificateVerdictCache
+  {
+    private final ICommonsList <OffsetDateTime> m_aCheckDTs = new CommonsArrayList <> ();
+    private ECertificateCheckResult m_eResult = ECertificateCheckResult.VALID;
+
+    MockCache ()
+    {
+      // No background rechecks
+      super (PATH_TTL, REVOCATION_TTL, Duration.ZERO, 100, DEFAULT_REFRESH_AHEAD_FACTOR, null);
+    }
+
+    @Override
+    protected ECertificateCheckResult performCheck (@NonNull final TrustedCAChecker aChecker,
+                                                    @Nullable final X509Certificate aCert,
+                                                    @NonNull final OffsetDateTime aCheckDT,
+                                                    @NonNull final ETriState eCacheRevocationCheckResult,
+                                                    @Nullable final ERevocationCheckMode eCheckMode)
+    {
+      m_aCheckDTs.add (aCheckDT);
+      return m_eResult;
+    }
+  }
+
+  @NonNull
+  private static X509Certificate _getCert ()
+  {
+    final X509Certificate ret = new CertificateDecodeHelper ().source (PEM).pemEncoded (true).getDecodedOrNull ();
+    assertNotNull (ret);
+    return ret;
+  }
+
+  @NonNull
+  private static OffsetDateTime _getCheckDT (@NonNull final X509Certificate aCert)
+  {
+    // Within the validity period, independent of the current date
+    return aCert.getNotBefore ().toInstant ().plus (Duration.ofDays (1)).atOffset (ZoneOffset.UTC);
+  }
+
+  @Test
+  public void testTimeToLive ()
+  {
+    final MockCache aCache = new MockCache ();
+    assertEquals (PATH_TTL, aCache.getPathTimeToLive ());
+    assertEquals (REVOCATION_TTL, aCache.getRevocationTimeToLive ());
+
+    assertEquals (REVOCATION_TTL, aCache.getTimeToLiveOf (ECertificateCheckResult.VALID));
+    assertEquals (PATH_TTL, aCache.getTimeToLiveOf (ECertificateCheckResult.REVOKED));
+    assertEquals (Duration.ZERO, aCache.getTimeToLiveOf (ECertificateCheckResult.REVOCATION_STATUS_UNKNOWN));
+    assertEquals (Duration.ZERO, aCache.getTimeToLiveOf (null));
+  }
+
+  @Test
+  public void testCallerCheckDateTime ()
+  {
+    final MockCache aCache = new MockCache ();
+    final TrustedCAChecker aChecker = new TrustedCAChecker (_getCert ());
+    final X509Certificate aCert = _getCert ();
+    final OffsetDateTime aCheckDT = _getCheckDT (aCert);
+
+    assertSame (ECertificateCheckResult.VALID, aCache.checkCertificate (aChecker, aCert, aCheckDT));
+    assertEquals (1, aCache.m_aCheckDTs.size ());
+    // The miss is checked for the date time of the caller
+    assertEquals (aCheckDT, aCache.m_aCheckDTs.getFirstOrNull ());
+
+    // Cached
+    assertSame (ECertificateCheckResult.VALID, aCache.checkCertificate (aChecker, aCert, aCheckDT.plusHours (1)));
+    assertEquals (1, aCache.m_aCheckDTs.size ());
+    assertEquals (1, aCache.getHitCount ());
+
+    // Outside of the validity period - never cached
+    final OffsetDateTime aInvalidDT = aCert.getNotBefore ().toInstant ().minusSeconds (1).atOffset (ZoneOffset.UTC);
+    aCache.checkCertificate (aChecker, aCert, aInvalidDT);
+    aCache.checkCertificate (aChecker, aCert, aInvalidDT);
+    assertEquals (3, aCache.m_aCheckDTs.size ());
+    assertEquals (aInvalidDT, aCache.m_aCheckDTs.getLastOrNull ());
+    assertEquals (1, aCache.size ());
+  }
+
+  @Test
+  public void testNotCached ()
+  {
+    final MockCache aCache = new MockCache ();
+    final TrustedCAChecker aChecker = new TrustedCAChecker (_getCert ());
+    final X509Certificate aCert = _getCert ();
+    final OffsetDateTime aCheckDT = _getCheckDT (aCert);
+
+    // Unknown revocation status is revalidated on each access
+    aCache.m_eResult = ECertificateCheckResult.REVOCATION_STATUS_UNKNOWN;
+    for (int i = 0; i < 3; ++i)
+      assertSame (ECertificateCheckResult.REVOCATION_STATUS_UNKNOWN,
+                  aCache.checkCertificate (aChecker, aCert, aCheckDT));
+    assertEquals (3, aCache.m_aCheckDTs.size ());
+    assertEquals (0, aCache.getHitCount ());
+
+    // Explicitly disabled revocation result caching bypasses the cache
+    aCache.m_aCheckDTs.clear ();
+    aCache.m_eResult = ECertificateCheckResult.VALID;
+    for (int i = 0; i < 3; ++i)
+      assertSame (ECertificateCheckResult.VALID,
+                  aCache.checkCertificate (aChecker, aCert, aCheckDT, ETriState.FALSE, null));
+    assertEquals (3, aCache.m_aCheckDTs.size ());
+    assertEquals (0, aCache.getHitCount ());
+
+    // No certificate
+    aCache.checkCertificate (aChecker, null, aCheckDT);
+    assertEquals (4, aCache.m_aCheckDTs.size ());
+  }
+
+  @Test
+  public void testKeySeparation ()
+  {
+    final MockCache aCache = new MockCache ();
+    final TrustedCAChecker aChecker1 = new TrustedCAChecker (_getCert ());
+    final TrustedCAChecker aChecker2 = new TrustedCAChecker (_getCert ());
+    final X509Certificate aCert = _getCert ();
+    final OffsetDateTime aCheckDT = _getCheckDT (aCert);
+    final ERevocationCheckMode eCheckMode = ERevocationCheckMode.values ()[0];
+
+    for (int i = 0; i < 2; ++i)
+    {
+      aCache.checkCertificate (aChecker1, aCert, aCheckDT, ETriState.UNDEFINED, null);
+      aCache.checkCertificate (aChecker2, aCert, aCheckDT, ETriState.UNDEFINED, null);
+      aCache.checkCertificate (aChecker1, aCert, aCheckDT, ETriState.TRUE, null);
+      aCache.checkCertificate (aChecker1, aCert, aCheckDT, ETriState.UNDEFINED, eCheckMode);
+    }
+    // Each combination is checked once
+    assertEquals (4, aCache.m_aCheckDTs.size ());
+    assertEquals (4, aCache.size ());
+    assertEquals (4, aCache.getHitCount ());
+
+    // The same certificate decoded again hits the same entry
+    aCache.checkCertificate (aChecker1, _getCert (), aCheckDT, ETriState.UNDEFINED, null);
+    assertEquals (4, aCache.m_aCheckDTs.size ());
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+
+import com.helger.base.state.EChange;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerFileLog}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerFileLogTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testBasic () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir,
+                                                                                 16,
+                                                                                 Duration.ofMinutes (5)))
+    {
+      assertTrue (aMgr.isEmpty ());
+
+      assertTrue (aMgr.registerAndCheck (null, "profile", "pmode").isContinue ());
+      assertTrue (aMgr.isEmpty ());
+
+      assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+      assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+      assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isBreak ());
+      assertEquals (2, aMgr.size ());
+      assertEquals (2, aMgr.getAll ().size ());
+
+      final IAS4DuplicateItem aItem = aMgr.getItemOfMessageID ("a");
+      assertNotNull (aItem);
+      assertEquals ("profile", aItem.getProfileID ());
+      assertEquals ("pmode", aItem.getPModeID ());
+      assertNull (aMgr.getItemOfMessageID ("b").getProfileID ());
+      assertNull (aMgr.getItemOfMessageID ("c"));
+
+      // Exceed the load factor of a single segment
+      for (int i = 0; i < 30; ++i)
+        assertTrue (aMgr.registerAndCheck ("id" + i, null, null).isContinue ());
+      assertEquals (32, aMgr.size ());
+      assertTrue (aMgr.getSegmentCount () > 1);
+      assertTrue (aMgr.registerAndCheck ("id0", null, null).isBreak ());
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isBreak ());
+
+      // Nothing is older than now - 1 hour
+      final OffsetDateTime aNow = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
+      assertTrue (aMgr.evictAllItemsBefore (aNow.minusHours (1)).isEmpty ());
+      assertEquals (32, aMgr.size ());
+
+      // Everything is older than now + 1 hour
+      assertEquals (32, aMgr.evictAllItemsBefore (aNow.plusHours (1)).size ());
+      assertTrue (aMgr.isEmpty ());
+      assertEquals (0, aMgr.getSegmentCount ());
+
+      // Can be registered again after eviction
+      assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+      assertEquals (EChange.CHANGED, aMgr.clearCache ());
+      assertEquals (EChange.UNCHANGED, aMgr.clearCache ());
+      assertTrue (aMgr.isEmpty ());
+    }
+  }
+
+  @Test
+  public void testRestart () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir))
+    {
+      assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+      assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+    }
+
+    // Reopen with consistent index
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir))
+    {
+      assertEquals (2, aMgr.size ());
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isBreak ());
+      assertTrue (aMgr.registerAndCheck ("c", null, null).isContinue ());
+    }
+
+    // Simulate a crash while writing: append an incomplete record
+    final File [] aLogFiles = aDir.listFiles ( (d, n) -> n.endsWith (AS4DuplicateManagerFileLog.LOG_FILE_EXTENSION));
+    assertNotNull (aLogFiles);
+    assertEquals (1, aLogFiles.length);
+    try (final RandomAccessFile aRAF = new RandomAccessFile (aLogFiles[0], "rw"))
+    {
+      aRAF.seek (aRAF.length ());
+      aRAF.writeInt (100);
+      aRAF.writeLong (0);
+    }
+
+    // The index is rebuilt and the incomplete record is dropped
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir))
+    {
+      assertEquals (3, aMgr.size ());
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isBreak ());
+      assertTrue (aMgr.registerAndCheck ("b", null, null).isBreak ());
+      assertTrue (aMgr.registerAndCheck ("c", null, null).isBreak ());
+      assertTrue (aMgr.registerAndCheck ("d", null, null).isContinue ());
+      assertEquals (4, aMgr.getAll ().size ());
+    }
+  }
+
+  @Test
+  public void testTombstone () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir))
+    {
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+      assertEquals (1, aMgr.getSegmentCount ());
+    }
+
+    // Simulate a segment that was marked as deleted, but whose files could not be deleted
+    final File [] aLogFiles = aDir.listFiles ( (d, n) -> n.endsWith (AS4DuplicateManagerFileLog.LOG_FILE_EXTENSION));
+    assertNotNull (aLogFiles);
+    assertEquals (1, aLogFiles.length);
+    try (final RandomAccessFile aRAF = new RandomAccessFile (aLogFiles[0], "rw"))
+    {
+      aRAF.setLength (0);
+    }
+
+    // The segment is not reloaded and its files are deleted
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir))
+    {
+      assertTrue (aMgr.isEmpty ());
+      assertEquals (0, aMgr.getSegmentCount ());
+      final String [] aFiles = aDir.list ();
+      assertNotNull (aFiles);
+      assertEquals (0, aFiles.length);
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+    }
+  }
+
+  @Test
+  public void testUnregister () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir))
+    {
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+      assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+      assertEquals (EChange.CHANGED, aMgr.unregister ("a"));
+      assertEquals (EChange.UNCHANGED, aMgr.unregister ("a"));
+      assertEquals (EChange.UNCHANGED, aMgr.unregister ("c"));
+      assertEquals (1, aMgr.size ());
+      assertNull (aMgr.getItemOfMessageID ("a"));
+      assertEquals (1, aMgr.getAll ().size ());
+      assertTrue (aMgr.registerAndCheck ("b", null, null).isBreak ());
+    }
+
+    // The removal is persistent in the index
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir))
+    {
+      assertEquals (1, aMgr.size ());
+      assertNull (aMgr.getItemOfMessageID ("a"));
+    }
+
+    // And in the log
+    final File [] aIndexFiles = aDir.listFiles ( (d, n) -> n.endsWith (AS4DuplicateManagerFileLog.INDEX_FILE_EXTENSION));
+    assertNotNull (aIndexFiles);
+    assertEquals (1, aIndexFiles.length);
+    assertTrue (aIndexFiles[0].delete ());
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir))
+    {
+      assertEquals (1, aMgr.size ());
+      assertNull (aMgr.getItemOfMessageID ("a"));
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+      assertTrue (aMgr.registerAndCheck ("b", null, null).isBreak ());
+      assertEquals (2, aMgr.size ());
+    }
+  }
+
+  @Test
+  public void testDisposalDuration () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir,
+                                                                                 16,
+                                                                                 Duration.ofMillis (10),
+                                                                                 Duration.ofMillis (200)))
+    {
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isBreak ());
+      Thread.sleep (300);
+
+      // Starts a new segment and deletes the old one
+      assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+      assertEquals (1, aMgr.getSegmentCount ());
+      assertEquals (1, aMgr.size ());
+      assertTrue (aMgr.registerAndCheck ("a", null, null).isContinue ());
+      assertTrue (aMgr.registerAndCheck ("b", null, null).isBreak ());
+    }
+  }
+
+  @Test
+  public void testConcurrentRegistration () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final int nThreads = 8;
+    final int nIDs = 500;
+    final AtomicInteger aContinueCount = new AtomicInteger ();
+    try (final AS4DuplicateManagerFileLog aMgr = new AS4DuplicateManagerFileLog (aDir,
+                                                                                 64,
+                                                                                 Duration.ofMinutes (5)))
+    {
+      final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+      try
+      {
+        final CountDownLatch aStart = new CountDownLatch (1);
+        final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> ();
+        for (int t = 0; t < nThreads; ++t)
+          aFutures.add (aES.submit ( () -> {
+            aStart.await ();
+            // All threads register the same IDs
+            for (int i = 0; i < nIDs; ++i)
+              if (aMgr.registerAndCheck ("id" + i, null, null).isContinue ())
+                aContinueCount.incrementAndGet ();
+            return null;
+          }));
+        aStart.countDown ();
+        for (final Future <?> aFuture : aFutures)
+          aFuture.get ();
+      }
+      finally
+      {
+        aES.shutdown ();
+      }
+
+      // Each ID was accepted exactly once, even across segments of increasing size
+      assertEquals (nIDs, aContinueCount.get ());
+      assertEquals (nIDs, aMgr.size ());
+      assertTrue (aMgr.getSegmentCount () > 1);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.base.state.EChange;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.mgr.AS4ManagerFactoryInMemory;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerInMemoryBucketed}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerInMemoryBucketedTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testManagerFactory ()
+  {
+    assertTrue (new AS4ManagerFactoryInMemory (true).createDuplicateManager () instanceof AS4DuplicateManagerInMemoryBucketed);
+    assertTrue (new AS4ManagerFactoryInMemory (false).createDuplicateManager () instanceof AS4DuplicateManagerInMemory);
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    final AS4DuplicateManagerInMemoryBucketed aMgr = new AS4DuplicateManagerInMemoryBucketed (Duration.ofSeconds (1));
+    assertTrue (aMgr.isEmpty ());
+
+    assertTrue (aMgr.registerAndCheck (null, "profile", "pmode").isContinue ());
+    assertTrue (aMgr.isEmpty ());
+
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+    assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isBreak ());
+    assertEquals (2, aMgr.size ());
+    assertEquals (2, aMgr.getAll ().size ());
+    assertNotNull (aMgr.getItemOfMessageID ("a"));
+    assertNull (aMgr.getItemOfMessageID ("c"));
+
+    // Unregister
+    assertEquals (EChange.CHANGED, aMgr.unregister ("b"));
+    assertEquals (EChange.UNCHANGED, aMgr.unregister ("b"));
+    assertEquals (EChange.UNCHANGED, aMgr.unregister (null));
+    assertTrue (aMgr.registerAndCheck ("b", null, null).isContinue ());
+    assertEquals (2, aMgr.size ());
+
+    // Nothing is older than now - 1 hour
+    final OffsetDateTime aNow = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
+    assertTrue (aMgr.evictAllItemsBefore (aNow.minusHours (1)).isEmpty ());
+    assertEquals (2, aMgr.size ());
+
+    // Everything is older than now + 1 hour
+    assertEquals (2, aMgr.evictAllItemsBefore (aNow.plusHours (1)).size ());
+    assertTrue (aMgr.isEmpty ());
+    assertEquals (0, aMgr.getBucketCount ());
+
+    // Can be registered again after eviction
+    assertTrue (aMgr.registerAndCheck ("a", "profile", "pmode").isContinue ());
+    assertEquals (EChange.CHANGED, aMgr.clearCache ());
+    assertEquals (EChange.UNCHANGED, aMgr.clearCache ());
+    assertTrue (aMgr.isEmpty ());
+  }
+
+  @Test
+  public void testConcurrentRegistrationAndEviction () throws Exception
+  {
+    final AS4DuplicateManagerInMemoryBucketed aMgr = new AS4DuplicateManagerInMemoryBucketed (Duration.ofMillis (1));
+    final OffsetDateTime aRefDT = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().plusHours (1);
+    final int nThreads = 4;
+    final int nIDs = 5_000;
+    final AtomicBoolean aRunning = new AtomicBoolean (true);
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads + 1);
+    try
+    {
+      final CountDownLatch aStart = new CountDownLatch (1);
+      // Evicts all buckets while they are filled
+      final Future <?> aEvictor = aES.submit ( () -> {
+        aStart.await ();
+        while (aRunning.get ())
+          aMgr.evictAllItemsBefore (aRefDT);
+        return null;
+      });
+      final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> ();
+      for (int t = 0; t < nThreads; ++t)
+      {
+        final String sPrefix = "t" + t + "-";
+        aFutures.add (aES.submit ( () -> {
+          aStart.await ();
+          for (int i = 0; i < nIDs; ++i)
+            aMgr.registerAndCheck (sPrefix + i, null, null);
+          return null;
+        }));
+      }
+      aStart.countDown ();
+      for (final Future <?> aFuture : aFutures)
+        aFuture.get ();
+      aRunning.set (false);
+      aEvictor.get ();
+    }
+    finally
+    {
+      aES.shutdown ();
+    }
+
+    // No item may remain that is not contained in a bucket
+    aMgr.evictAllItemsBefore (aRefDT);
+    assertTrue (aMgr.isEmpty ());
+    assertEquals (0, aMgr.getBucketCount ());
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.phase4.util.AS4Executors;
+
+/**
+ * Test class for class {@link AS4AsyncProcessingEngine}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AsyncProcessingEngineTest
+{
+  @Test
+  public void testDefault ()
+  {
+    assertSame (EAS4AsyncRejectionPolicy.REJECT, AS4AsyncProcessingEngine.DEFAULT_REJECTION_POLICY);
+    assertSame (EAS4AsyncRejectionPolicy.REJECT, AS4AsyncProcessingEngine.getDefaultInstance ().getRejectionPolicy ());
+  }
+
+  @Test
+  public void testDefaultThreadCount ()
+  {
+    // Not limited by the number of CPUs with virtual threads
+    assertEquals (AS4Executors.isVirtualThreadEnabled () ? AS4AsyncProcessingEngine.DEFAULT_VIRTUAL_THREAD_COUNT
+                                                         : AS4AsyncProcessingEngine.DEFAULT_PLATFORM_THREAD_COUNT,
+                  AS4AsyncProcessingEngine.getDefaultThreadCount ());
+  }
+
+  @Test
+  public void testManyBlockingTasks () throws Exception
+  {
+    // More blocked tasks than CPUs - all must run at the same time
+    final int nThreads = Runtime.getRuntime ().availableProcessors () * 4 + 8;
+    final CountDownLatch aAllStarted = new CountDownLatch (nThreads);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    try (final AS4AsyncProcessingEngine aEngine = new AS4AsyncProcessingEngine ("test-blocking-",
+                                                                                nThreads,
+                                                                                1,
+                                                                                EAS4AsyncRejectionPolicy.REJECT))
+    {
+      assertEquals (nThreads, aEngine.getThreadCount ());
+      final ICommonsList <CompletableFuture <Void>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nThreads; ++i)
+        aFutures.add (aEngine.submit ("blocking" + i, () -> {
+          aAllStarted.countDown ();
+          aRelease.await ();
+        }));
+      assertTrue (aAllStarted.await (10, TimeUnit.SECONDS));
+      assertEquals (0, aEngine.getQueueSize ());
+
+      aRelease.countDown ();
+      for (final CompletableFuture <Void> aFuture : aFutures)
+        aFuture.get (10, TimeUnit.SECONDS);
+      assertEquals (nThreads, aEngine.getCompletedCount ());
+      assertEquals (0, aEngine.getRejectedCount ());
+    }
+  }
+
+  @Test
+  public void testReject () throws Exception
+  {
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    try (final AS4AsyncProcessingEngine aEngine = new AS4AsyncProcessingEngine ("test-reject-",
+                                                                                1,
+                                                                                1,
+                                                                                EAS4AsyncRejectionPolicy.REJECT))
+    {
+      // Occupy the only thread and the only queue slot
+      final CompletableFuture <Void> aFuture1 = aEngine.submit ("blocking", () -> {
+        aStarted.countDown ();
+        aRelease.await ();
+      });
+      assertTrue (aStarted.await (10, TimeUnit.SECONDS));
+      final CompletableFuture <Void> aFuture2 = aEngine.submit ("queued", () -> {});
+      assertEquals (1, aEngine.getQueueSize ());
+
+      try
+      {
+        aEngine.submit ("overload", () -> fail ("Must not be executed"));
+        fail ();
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // expected
+      }
+      assertEquals (1, aEngine.getRejectedCount ());
+      assertEquals (2, aEngine.getSubmittedCount ());
+
+      aRelease.countDown ();
+      aFuture1.get (10, TimeUnit.SECONDS);
+      aFuture2.get (10, TimeUnit.SECONDS);
+      assertEquals (2, aEngine.getCompletedCount ());
+    }
+  }
+
+  @Test
+  public void testCallerRuns () throws Exception
+  {
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    try (final AS4AsyncProcessingEngine aEngine = new AS4AsyncProcessingEngine ("test-callerruns-",
+                                                                                1,
+                                                                                1,
+                                                                                EAS4AsyncRejectionPolicy.CALLER_RUNS))
+    {
+      final CompletableFuture <Void> aFuture1 = aEngine.submit ("blocking", () -> {
+        aStarted.countDown ();
+        aRelease.await ();
+      });
+      assertTrue (aStarted.await (10, TimeUnit.SECONDS));
+      aEngine.submit ("queued", () -> {});
+
+      // Executed synchronously in the calling thread
+      final AtomicReference <Thread> aExecThread = new AtomicReference <> ();
+      final CompletableFuture <Void> aFuture3 = aEngine.submit ("overload",
+                                                                () -> aExecThread.set (Thread.currentThread ()));
+      assertTrue (aFuture3.isDone ());
+      assertSame (Thread.currentThread (), aExecThread.get ());
+      assertEquals (0, aEngine.getRejectedCount ());
+      assertEquals (1, aEngine.getCallerRunsCount ());
+
+      aRelease.countDown ();
+      aFuture1.get (10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testClosed ()
+  {
+    final AS4AsyncProcessingEngine aEngine = new AS4AsyncProcessingEngine ("test-closed-",
+                                                                           1,
+                                                                           1,
+                                                                           EAS4AsyncRejectionPolicy.CALLER_RUNS);
+    aEngine.close ();
+    try
+    {
+      // Even with CALLER_RUNS nothing is executed after close
+      aEngine.submit ("closed", () -> fail ("Must not be executed"));
+      fail ();
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // expected
+    }
+  }
+}
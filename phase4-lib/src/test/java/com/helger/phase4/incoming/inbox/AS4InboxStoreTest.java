@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.inbox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.attachment.AS4OutgoingAttachment;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.incoming.AS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.AS4IncomingMessageState;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4InboxStore}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4InboxStoreTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testStoreAndLoad () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final byte [] aPayload = "<?xml version='1.0'?><root>inbox</root>".getBytes (StandardCharsets.UTF_8);
+
+    final String sEntryID;
+    final String sMessageID;
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4InboxStore aStore = new AS4InboxStore (aDir);
+      assertTrue (aStore.getAllPendingEntryIDs ().isEmpty ());
+
+      final Ebms3UserMessage aUserMessage = new Ebms3UserMessage ();
+      aUserMessage.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo ());
+      sMessageID = aUserMessage.getMessageInfo ().getMessageId ();
+
+      final WSS4JAttachment aAttachment = WSS4JAttachment.createOutgoingFileAttachment (AS4OutgoingAttachment.builder ()
+                                                                                                             .data (aPayload)
+                                                                                                             .mimeTypeXML ()
+                                                                                                             .compressionGZIP ()
+                                                                                                             .build (),
+                                                                                        aResHelper);
+
+      final AS4IncomingMessageMetadata aMetadata = AS4IncomingMessageMetadata.createForRequest ()
+                                                                             .setRemoteAddr ("127.0.0.1");
+      final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+      aHeaders.addHeader ("X-Test", "value");
+
+      final AS4IncomingMessageState aState = new AS4IncomingMessageState (ESoapVersion.SOAP_12,
+                                                                          aResHelper,
+                                                                          Locale.US);
+      aState.setMessageID (sMessageID);
+      aState.setInitiatorID ("initiator");
+
+      sEntryID = aStore.store (aMetadata,
+                               aHeaders,
+                               aUserMessage,
+                               null,
+                               null,
+                               new CommonsArrayList <> (aAttachment),
+                               aState);
+      assertEquals (new CommonsArrayList <> (sEntryID), aStore.getAllPendingEntryIDs ());
+      assertEquals (0, aStore.getAttempts (sEntryID));
+      assertEquals (1, aStore.incrementAttempts (sEntryID));
+    }
+
+    // Reopen as after a restart
+    final AS4InboxStore aStore = new AS4InboxStore (aDir);
+    assertEquals (new CommonsArrayList <> (sEntryID), aStore.getAllPendingEntryIDs ());
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4InboxMessage aMsg = aStore.load (sEntryID, aResHelper, Locale.US, null);
+      assertNotNull (aMsg);
+      assertEquals (1, aMsg.getAttempts ());
+      assertEquals (sMessageID, aMsg.getUserMessage ().getMessageInfo ().getMessageId ());
+      assertEquals (sMessageID, aMsg.getIncomingState ().getMessageID ());
+      assertEquals ("initiator", aMsg.getIncomingState ().getInitiatorID ());
+      assertEquals ("127.0.0.1", aMsg.getMessageMetadata ().getRemoteAddr ());
+      assertEquals ("value", aMsg.getHttpHeaders ().getFirstHeaderValue ("X-Test"));
+      assertNull (aMsg.getPayloadNode ());
+
+      assertEquals (1, aMsg.getAttachments ().size ());
+      final WSS4JAttachment aAttachment = aMsg.getAttachments ().getFirstOrNull ();
+      assertEquals (EAS4CompressionMode.GZIP, aAttachment.getCompressionMode ());
+      assertArrayEquals (aPayload, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+
+    aStore.moveToFailed (sEntryID);
+    assertTrue (aStore.getAllPendingEntryIDs ().isEmpty ());
+    assertEquals (1, aStore.getFailedEntryCount ());
+  }
+}
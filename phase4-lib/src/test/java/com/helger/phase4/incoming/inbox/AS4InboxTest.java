@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.inbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.w3c.dom.Node;
+
+import com.helger.annotation.Nonempty;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.error.AS4ErrorList;
+import com.helger.phase4.incoming.AS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.AS4IncomingMessageState;
+import com.helger.phase4.incoming.IAS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.IAS4IncomingMessageState;
+import com.helger.phase4.incoming.spi.AS4MessageProcessorResult;
+import com.helger.phase4.incoming.spi.AS4SignalMessageProcessorResult;
+import com.helger.phase4.incoming.spi.IAS4IncomingMessageProcessorSPI;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4Inbox}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4InboxTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  /**
+   * Waits until it is released and counts the processed user messages.
+   */
+  private static final class BlockingSPI implements IAS4IncomingMessageProcessorSPI
+  {
+    private final CountDownLatch m_aRelease = new CountDownLatch (1);
+    private final AtomicInteger m_aCount = new AtomicInteger (0);
+
+    @NonNull
+    public AS4MessageProcessorResult processAS4UserMessage (@NonNull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                                            @NonNull final HttpHeaderMap aHttpHeaders,
+                                                            @NonNull final Ebms3UserMessage aUserMessage,
+                                                            @NonNull final IPMode aPMode,
+                                                            @Nullable final Node aPayload,
+                                                            @Nullable final ICommonsList <WSS4JAttachment> aIncomingAttachments,
+                                                            @NonNull final IAS4IncomingMessageState aIncomingState,
+                                                            @NonNull final AS4ErrorList aProcessingErrorMessages)
+    {
+      try
+      {
+        if (!m_aRelease.await (10, TimeUnit.SECONDS))
+          return AS4MessageProcessorResult.createFailure ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        return AS4MessageProcessorResult.createFailure ();
+      }
+      m_aCount.incrementAndGet ();
+      return AS4MessageProcessorResult.createSuccess ();
+    }
+
+    @NonNull
+    public AS4SignalMessageProcessorResult processAS4SignalMessage (@NonNull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                                                    @NonNull final HttpHeaderMap aHttpHeaders,
+                                                                    @NonNull final Ebms3SignalMessage aSignalMessage,
+                                                                    @Nullable final IPMode aPMode,
+                                                                    @NonNull final IAS4IncomingMessageState aIncomingState,
+                                                                    @NonNull final AS4ErrorList aProcessingErrorMessages)
+    {
+      return AS4SignalMessageProcessorResult.createSuccess ();
+    }
+
+    public void processAS4ResponseMessage (@NonNull final IAS4IncomingMessageMetadata aIncomingMessageMetadata,
+                                           @NonNull final IAS4IncomingMessageState aIncomingState,
+                                           @NonNull @Nonempty final String sResponseMessageID,
+                                           final byte @Nullable [] aResponseBytes,
+                                           final boolean bResponsePayloadIsAvailable,
+                                           @NonNull final AS4ErrorList aEbmsErrorMessages)
+    {}
+  }
+
+  @Test
+  public void testQueueOverflowStaysInStore () throws Exception
+  {
+    final int nMessages = 20;
+    final AS4InboxStore aStore = new AS4InboxStore (m_aTempFolder.newFolder ());
+    final BlockingSPI aSPI = new BlockingSPI ();
+
+    try (final AS4Inbox aInbox = new AS4Inbox (aStore, 1, 2, 1, Duration.ZERO, Locale.US);
+         final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      assertEquals (2, aInbox.getQueueCapacity ());
+      aInbox.setProcessorSupplier ( () -> new CommonsArrayList <> (aSPI));
+
+      for (int i = 0; i < nMessages; ++i)
+      {
+        final Ebms3UserMessage aUserMessage = new Ebms3UserMessage ();
+        aUserMessage.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo ());
+        final AS4IncomingMessageState aState = new AS4IncomingMessageState (ESoapVersion.SOAP_12,
+                                                                            aResHelper,
+                                                                            Locale.US);
+        aState.setMessageID (aUserMessage.getMessageInfo ().getMessageId ());
+        // The worker and the queue are busy, but accepting does not fail
+        aInbox.accept (AS4IncomingMessageMetadata.createForRequest ().setRemoteAddr ("127.0.0.1"),
+                       new HttpHeaderMap (),
+                       aUserMessage,
+                       null,
+                       null,
+                       null,
+                       aState);
+      }
+      assertEquals (nMessages, aInbox.getBacklogSize ());
+      assertEquals (nMessages, aStore.getAllPendingEntryIDs ().size ());
+
+      // Let the worker run - the entries that did not fit into the queue are taken from the store
+      aSPI.m_aRelease.countDown ();
+      final long nEnd = System.currentTimeMillis () + 10_000;
+      while (aInbox.getProcessedCount () < nMessages && System.currentTimeMillis () < nEnd)
+        Thread.sleep (10);
+
+      assertEquals (nMessages, aInbox.getProcessedCount ());
+      assertEquals (nMessages, aSPI.m_aCount.get ());
+      assertEquals (0, aInbox.getFailedCount ());
+      assertEquals (0, aInbox.getBacklogSize ());
+      assertTrue (aStore.getAllPendingEntryIDs ().isEmpty ());
+    }
+  }
+}
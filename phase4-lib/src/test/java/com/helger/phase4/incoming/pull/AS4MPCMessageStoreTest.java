@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.pull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.Duration;
+
+import org.jspecify.annotations.NonNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+
+import com.helger.base.state.EChange;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.model.message.MessageHelperMethods;
+
+/**
+ * Test class for class {@link AS4MPCMessageStore}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4MPCMessageStoreTest
+{
+  private static final String MPC1 = "urn:test:mpc1";
+  private static final String MPC2 = "urn:test:mpc2";
+
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @NonNull
+  private static Ebms3UserMessage _createUserMessage (@NonNull final String sMessageID)
+  {
+    final Ebms3UserMessage ret = new Ebms3UserMessage ();
+    ret.setPartyInfo (MessageHelperMethods.createEbms3PartyInfo ("fromRole", "fromParty", "toRole", "toParty"));
+    ret.setCollaborationInfo (MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                 "urn:any",
+                                                                                 null,
+                                                                                 "svcType",
+                                                                                 "svc",
+                                                                                 "action",
+                                                                                 MessageHelperMethods.createRandomConversationID ()));
+    ret.setPayloadInfo (MessageHelperMethods.createEbms3PayloadInfo (false, new CommonsArrayList <> ()));
+    ret.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo (sMessageID, null));
+    return ret;
+  }
+
+  @NonNull
+  private static String _getMessageID (@NonNull final Ebms3UserMessage aUserMessage)
+  {
+    return aUserMessage.getMessageInfo ().getMessageId ();
+  }
+
+  @Test
+  public void testBasic () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    // Head cache size of 1, so that messages are also read from disk
+    try (final AS4MPCMessageStore aStore = new AS4MPCMessageStore (aDir, Duration.ofMinutes (5), 1))
+    {
+      assertTrue (aStore.isEmpty ());
+      assertNull (aStore.dequeue (MPC1));
+
+      assertEquals (EChange.CHANGED, aStore.enqueue (MPC1, _createUserMessage ("a")));
+      assertEquals (EChange.CHANGED, aStore.enqueue (MPC1, _createUserMessage ("b")));
+      assertEquals (EChange.CHANGED, aStore.enqueue (MPC2, _createUserMessage ("c")));
+      assertEquals (EChange.UNCHANGED, aStore.enqueue (MPC2, _createUserMessage ("a")));
+      assertEquals (3, aStore.size ());
+      assertEquals (2, aStore.getPendingCount (MPC1));
+      assertEquals (1, aStore.getPendingCount (MPC2));
+
+      // FIFO per MPC
+      assertEquals ("a", _getMessageID (aStore.dequeue (MPC1)));
+      final Ebms3UserMessage aB = aStore.dequeue (MPC1);
+      assertNotNull (aB);
+      assertEquals ("b", _getMessageID (aB));
+      // Read from disk
+      assertEquals ("action", aB.getCollaborationInfo ().getAction ());
+      assertNull (aStore.dequeue (MPC1));
+      assertEquals (0, aStore.getPendingCount (MPC1));
+      assertEquals (2, aStore.getInFlightCount (MPC1));
+
+      // Acknowledge
+      assertEquals (EChange.CHANGED, aStore.acknowledge ("a"));
+      assertEquals (EChange.UNCHANGED, aStore.acknowledge ("a"));
+      assertEquals (EChange.UNCHANGED, aStore.acknowledge ("unknown"));
+      assertEquals (1, aStore.getInFlightCount (MPC1));
+      assertEquals (2, aStore.size ());
+
+      // Default MPC
+      assertEquals (EChange.CHANGED, aStore.enqueue (null, _createUserMessage ("d")));
+      assertEquals ("d", _getMessageID (aStore.dequeue ("")));
+      assertEquals ("c", _getMessageID (aStore.dequeue (MPC2)));
+
+      // Compact
+      final long nOldSize = aStore.getLogFileSize ();
+      assertEquals (EChange.CHANGED, aStore.acknowledge ("d"));
+      aStore.compact ();
+      assertTrue (aStore.getLogFileSize () < nOldSize);
+      assertEquals (2, aStore.size ());
+      assertEquals (EChange.CHANGED, aStore.acknowledge ("b"));
+      assertEquals (EChange.CHANGED, aStore.acknowledge ("c"));
+      assertTrue (aStore.isEmpty ());
+    }
+  }
+
+  @Test
+  public void testPrefetch () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4MPCMessageStore aStore = new AS4MPCMessageStore (aDir, Duration.ofMinutes (5), 2))
+    {
+      final Ebms3UserMessage aA = _createUserMessage ("a");
+      aStore.enqueue (MPC1, aA);
+      aStore.enqueue (MPC2, _createUserMessage ("x"));
+      for (final String sID : new String [] { "b", "c", "d", "e" })
+        aStore.enqueue (MPC1, _createUserMessage (sID));
+
+      // Changes to the enqueued instance don't affect the stored message
+      aA.getCollaborationInfo ().setAction ("changed");
+
+      final Ebms3UserMessage aDequeuedA = aStore.dequeue (MPC1);
+      assertNotNull (aDequeuedA);
+      assertNotSame (aA, aDequeuedA);
+      assertEquals ("action", aDequeuedA.getCollaborationInfo ().getAction ());
+
+      // Prefetched and not prefetched messages in the original order
+      for (final String sID : new String [] { "b", "c", "d", "e" })
+        assertEquals (sID, _getMessageID (aStore.dequeue (MPC1)));
+      assertNull (aStore.dequeue (MPC1));
+      assertEquals ("x", _getMessageID (aStore.dequeue (MPC2)));
+
+      // Acknowledging prefetched messages
+      aStore.enqueue (MPC1, _createUserMessage ("f"));
+      aStore.enqueue (MPC1, _createUserMessage ("g"));
+      aStore.enqueue (MPC1, _createUserMessage ("h"));
+      assertEquals ("f", _getMessageID (aStore.dequeue (MPC1)));
+      assertEquals (EChange.CHANGED, aStore.acknowledge ("g"));
+      assertEquals ("h", _getMessageID (aStore.dequeue (MPC1)));
+      assertNull (aStore.dequeue (MPC1));
+    }
+  }
+
+  @Test
+  public void testRedelivery () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4MPCMessageStore aStore = new AS4MPCMessageStore (aDir, Duration.ofMillis (100), 16))
+    {
+      aStore.enqueue (MPC1, _createUserMessage ("a"));
+      aStore.enqueue (MPC1, _createUserMessage ("b"));
+
+      assertEquals ("a", _getMessageID (aStore.dequeue (MPC1)));
+      Thread.sleep (200);
+
+      // Not acknowledged in time - handed out again before "b"
+      assertEquals ("a", _getMessageID (aStore.dequeue (MPC1)));
+      assertEquals ("b", _getMessageID (aStore.dequeue (MPC1)));
+      assertNull (aStore.dequeue (MPC1));
+      assertEquals (2, aStore.getInFlightCount (MPC1));
+
+      aStore.acknowledge ("a");
+      Thread.sleep (200);
+      assertEquals ("b", _getMessageID (aStore.dequeue (MPC1)));
+      assertNull (aStore.dequeue (MPC1));
+    }
+  }
+
+  @Test
+  public void testAcknowledgeByParty () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4MPCMessageStore aStore = new AS4MPCMessageStore (aDir, Duration.ofMillis (100), 16))
+    {
+      aStore.enqueue (MPC1, _createUserMessage ("a"));
+      aStore.enqueue (MPC1, _createUserMessage ("b"));
+
+      // Not yet handed out
+      assertEquals (EChange.UNCHANGED, aStore.acknowledge ("a", "party1"));
+
+      assertEquals ("a", _getMessageID (aStore.dequeue (MPC1, "party1")));
+      assertEquals (EChange.UNCHANGED, aStore.acknowledge ("a", "party2"));
+      assertEquals (EChange.UNCHANGED, aStore.acknowledge ("a", null));
+      assertEquals (EChange.CHANGED, aStore.acknowledge ("a", "party1"));
+
+      // A redelivery belongs to the party that pulled last
+      assertEquals ("b", _getMessageID (aStore.dequeue (MPC1, "party1")));
+      Thread.sleep (200);
+      assertEquals ("b", _getMessageID (aStore.dequeue (MPC1, "party2")));
+      assertEquals (EChange.UNCHANGED, aStore.acknowledge ("b", "party1"));
+      assertEquals (EChange.CHANGED, aStore.acknowledge ("b", "party2"));
+      assertTrue (aStore.isEmpty ());
+    }
+  }
+
+  @Test
+  public void testRestart () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final AS4MPCMessageStore aStore = new AS4MPCMessageStore (aDir))
+    {
+      aStore.enqueue (MPC1, _createUserMessage ("a"));
+      aStore.enqueue (MPC1, _createUserMessage ("b"));
+      aStore.enqueue (MPC1, _createUserMessage ("c"));
+      assertEquals ("a", _getMessageID (aStore.dequeue (MPC1)));
+      assertEquals ("b", _getMessageID (aStore.dequeue (MPC1)));
+      aStore.acknowledge ("a");
+    }
+
+    // Simulate a crash while writing: append an incomplete record
+    final File aLogFile = new File (aDir, AS4MPCMessageStore.LOG_FILE_NAME);
+    try (final RandomAccessFile aRAF = new RandomAccessFile (aLogFile, "rw"))
+    {
+      aRAF.seek (aRAF.length ());
+      aRAF.writeInt (100);
+      aRAF.writeByte (1);
+    }
+
+    // The unacknowledged in flight message is pending again
+    try (final AS4MPCMessageStore aStore = new AS4MPCMessageStore (aDir))
+    {
+      assertEquals (2, aStore.size ());
+      assertEquals (2, aStore.getPendingCount (MPC1));
+      assertEquals ("b", _getMessageID (aStore.dequeue (MPC1)));
+      assertEquals ("c", _getMessageID (aStore.dequeue (MPC1)));
+      assertNull (aStore.dequeue (MPC1));
+    }
+  }
+
+  private static void _assertDequeueFails (@NonNull final AS4MPCMessageStore aStore, @NonNull final String sMPCID)
+  {
+    try
+    {
+      aStore.dequeue (sMPCID);
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testFailingRead () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final File aLogFile = new File (aDir, AS4MPCMessageStore.LOG_FILE_NAME);
+    // No head cache, so that each message is read from the log file
+    try (final AS4MPCMessageStore aStore = new AS4MPCMessageStore (aDir, Duration.ofMillis (100), 0))
+    {
+      aStore.enqueue (MPC1, _createUserMessage ("a"));
+      aStore.enqueue (MPC1, _createUserMessage ("b"));
+      final byte [] aLog = Files.readAllBytes (aLogFile.toPath ());
+
+      // Pending message cannot be read
+      try (final RandomAccessFile aRAF = new RandomAccessFile (aLogFile, "rw"))
+      {
+        aRAF.setLength (0);
+      }
+      _assertDequeueFails (aStore, MPC1);
+      assertEquals (2, aStore.getPendingCount (MPC1));
+      assertEquals (0, aStore.getInFlightCount (MPC1));
+
+      Files.write (aLogFile.toPath (), aLog);
+      assertEquals ("a", _getMessageID (aStore.dequeue (MPC1)));
+      assertEquals (1, aStore.getPendingCount (MPC1));
+      assertEquals (1, aStore.getInFlightCount (MPC1));
+      Thread.sleep (200);
+
+      // Redelivery cannot be read
+      try (final RandomAccessFile aRAF = new RandomAccessFile (aLogFile, "rw"))
+      {
+        aRAF.setLength (0);
+      }
+      _assertDequeueFails (aStore, MPC1);
+      assertEquals (1, aStore.getPendingCount (MPC1));
+      assertEquals (1, aStore.getInFlightCount (MPC1));
+
+      // The redelivery is still handed out first
+      Files.write (aLogFile.toPath (), aLog);
+      assertEquals ("a", _getMessageID (aStore.dequeue (MPC1)));
+      assertEquals ("b", _getMessageID (aStore.dequeue (MPC1)));
+      assertNull (aStore.dequeue (MPC1));
+      assertEquals (0, aStore.getPendingCount (MPC1));
+      assertEquals (2, aStore.getInFlightCount (MPC1));
+      assertEquals (2, aStore.size ());
+    }
+  }
+}
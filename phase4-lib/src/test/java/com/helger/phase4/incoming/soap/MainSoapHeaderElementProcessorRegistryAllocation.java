@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming.soap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import org.jspecify.annotations.NonNull;
+import org.slf4j.Logger;
+import org.w3c.dom.Document;
+
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.crypto.AS4CryptoFactoryConfiguration;
+import com.helger.phase4.crypto.AS4SigningParams;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.error.AS4ErrorList;
+import com.helger.phase4.incoming.AS4IncomingHandler;
+import com.helger.phase4.incoming.AS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.AS4IncomingProfileSelectorConstant;
+import com.helger.phase4.incoming.AS4IncomingReceiverConfiguration;
+import com.helger.phase4.incoming.IAS4IncomingMessageState;
+import com.helger.phase4.incoming.IAS4IncomingProfileSelector;
+import com.helger.phase4.incoming.crypto.AS4IncomingSecurityConfiguration;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.messaging.crypto.AS4Signer;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.message.AS4UserMessage;
+import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.model.pmode.DefaultPMode;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.resolve.IAS4PModeResolver;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Compare the number of bytes allocated and the time needed for processing a signed inbound
+ * UserMessage with {@link AS4IncomingHandler#processEbmsMessage} - once with a SOAP header element
+ * processor registry newly created per message and once with the registry reused from the cache.
+ * Uses the per-thread allocation counter of the JVM, so no additional benchmark framework is needed.
+ *
+ * @author Philip Helger
+ */
+public final class MainSoapHeaderElementProcessorRegistryAllocation
+{
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (MainSoapHeaderElementProcessorRegistryAllocation.class);
+  private static final int WARMUP = 500;
+  private static final int ITERATIONS = 5_000;
+  private static final ESoapVersion SOAP_VERSION = ESoapVersion.AS4_DEFAULT;
+
+  private static long _getAllocatedBytes ()
+  {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ()).getCurrentThreadAllocatedBytes ();
+  }
+
+  @NonNull
+  private static Document _createSignedUserMessage (@NonNull final IPMode aPMode,
+                                                    @NonNull final IAS4CryptoFactory aCF,
+                                                    @NonNull final AS4ResourceHelper aResHelper) throws Exception
+  {
+    final AS4UserMessage aMsg = AS4UserMessage.create (MessageHelperMethods.createEbms3MessageInfo (),
+                                                       MessageHelperMethods.createEbms3PayloadInfo (false, null),
+                                                       MessageHelperMethods.createEbms3CollaborationInfo (aPMode.getID (),
+                                                                                                          null,
+                                                                                                          null,
+                                                                                                          null,
+                                                                                                          CAS4.DEFAULT_SERVICE_URL,
+                                                                                                          CAS4.DEFAULT_ACTION_URL,
+                                                                                                          "conv"),
+                                                       MessageHelperMethods.createEbms3PartyInfo (CAS4.DEFAULT_INITIATOR_URL,
+                                                                                                  aPMode.getInitiatorID (),
+                                                                                                  CAS4.DEFAULT_RESPONDER_URL,
+                                                                                                  aPMode.getResponderID ()),
+                                                       null,
+                                                       null,
+                                                       SOAP_VERSION);
+    return AS4Signer.createSignedMessage (aCF,
+                                          aMsg.getAsSoapDocument (),
+                                          SOAP_VERSION,
+                                          aMsg.getMessagingID (),
+                                          null,
+                                          aResHelper,
+                                          false,
+                                          AS4SigningParams.createDefault ());
+  }
+
+  private static int _processMessage (@NonNull final Supplier <SoapHeaderElementProcessorRegistry> aRegistrySupplier,
+                                      @NonNull final Document aSignedDoc,
+                                      @NonNull final IAS4IncomingProfileSelector aProfileSelector) throws Exception
+  {
+    // WSS4J modifies the document while processing
+    final Document aDoc = (Document) aSignedDoc.cloneNode (true);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ErrorList aErrorList = new AS4ErrorList ();
+      final IAS4IncomingMessageState aState = AS4IncomingHandler.processEbmsMessage (aResHelper,
+                                                                                     Locale.US,
+                                                                                     aRegistrySupplier.get (),
+                                                                                     new HttpHeaderMap (),
+                                                                                     aDoc,
+                                                                                     SOAP_VERSION,
+                                                                                     new CommonsArrayList <> (),
+                                                                                     aProfileSelector,
+                                                                                     aErrorList,
+                                                                                     AS4IncomingMessageMetadata.createForRequest ());
+      if (!aState.isSoapHeaderElementProcessingSuccessful () || aErrorList.isNotEmpty ())
+        throw new IllegalStateException ("Failed to process the sample message: " + aErrorList);
+      return System.identityHashCode (aState);
+    }
+  }
+
+  private static void _measure (@NonNull final String sName,
+                                @NonNull final Supplier <SoapHeaderElementProcessorRegistry> aRegistrySupplier,
+                                @NonNull final Document aSignedDoc,
+                                @NonNull final IAS4IncomingProfileSelector aProfileSelector) throws Exception
+  {
+    int nHash = 0;
+    for (int i = 0; i < WARMUP; ++i)
+      nHash += _processMessage (aRegistrySupplier, aSignedDoc, aProfileSelector);
+
+    final long nStartBytes = _getAllocatedBytes ();
+    final long nStartNanos = System.nanoTime ();
+    for (int i = 0; i < ITERATIONS; ++i)
+      nHash += _processMessage (aRegistrySupplier, aSignedDoc, aProfileSelector);
+    final long nNanos = System.nanoTime () - nStartNanos;
+    final long nBytes = _getAllocatedBytes () - nStartBytes;
+
+    LOGGER.info (sName +
+                 ": " +
+                 (nBytes / ITERATIONS) +
+                 " bytes and " +
+                 (nNanos / ITERATIONS / 1_000) +
+                 " us per message [" +
+                 nHash +
+                 "]");
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    // The PMode manager and the crypto configuration need the global scope
+    final AS4TestRule aRule = new AS4TestRule ();
+    aRule.before ();
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final IPMode aPMode = DefaultPMode.getOrCreateDefaultPMode ("initiator", "responder", null, false);
+      final IAS4PModeResolver aPModeResolver = (sPModeID,
+                                                sService,
+                                                sAction,
+                                                sInitiatorID,
+                                                sResponderID,
+                                                sAgreementRef,
+                                                sAddress) -> aPMode;
+      final IAS4CryptoFactory aCF = AS4CryptoFactoryConfiguration.getDefaultInstance ();
+      final AS4IncomingSecurityConfiguration aSecCfg = AS4IncomingSecurityConfiguration.createDefaultInstance ();
+      final AS4IncomingReceiverConfiguration aReceiverCfg = new AS4IncomingReceiverConfiguration ();
+      final IAS4IncomingProfileSelector aProfileSelector = new AS4IncomingProfileSelectorConstant (null, false);
+      final Document aSignedDoc = _createSignedUserMessage (aPMode, aCF, aResHelper);
+
+      // Alternate the order to see the influence of the JIT
+      for (int nRun = 0; nRun < 2; ++nRun)
+      {
+        _measure ("createDefault",
+                  () -> SoapHeaderElementProcessorRegistry.createDefault (aPModeResolver,
+                                                                          aCF,
+                                                                          aCF,
+                                                                          null,
+                                                                          aSecCfg,
+                                                                          aReceiverCfg),
+                  aSignedDoc,
+                  aProfileSelector);
+        _measure ("getOrCreateDefault",
+                  () -> SoapHeaderElementProcessorRegistry.getOrCreateDefault (aPModeResolver,
+                                                                               aCF,
+                                                                               aCF,
+                                                                               null,
+                                                                               aSecCfg,
+                                                                               aReceiverCfg),
+                  aSignedDoc,
+                  aProfileSelector);
+      }
+    }
+    finally
+    {
+      aRule.after ();
+    }
+  }
+}
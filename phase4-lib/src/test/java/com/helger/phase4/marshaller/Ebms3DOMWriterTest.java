@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import org.jspecify.annotations.NonNull;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.datetime.xml.XMLOffsetDateTime;
+import com.helger.io.resource.ClassPathResource;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.message.AS4ReceiptMessage;
+import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.soap12.Soap12Envelope;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Test class for class {@link Ebms3DOMWriter}.
+ *
+ * @author Philip Helger
+ */
+public final class Ebms3DOMWriterTest
+{
+  @NonNull
+  private static String _getTimestamp (@NonNull final Element aUserMessage)
+  {
+    return aUserMessage.getElementsByTagNameNS (CAS4.EBMS_NS, "Timestamp").item (0).getTextContent ();
+  }
+
+  @Test
+  public void testUserMessageSameAsJAXB ()
+  {
+    final Ebms3Messaging aMessaging = new Ebms3MessagingMarshaller ().read (new ClassPathResource ("external/soap11test/UserMessage-no-soap.xml"));
+    assertNotNull (aMessaging);
+    final Ebms3UserMessage aUserMessage = aMessaging.getUserMessageAtIndex (0);
+    final Ebms3UserMessageMarshaller aMarshaller = new Ebms3UserMessageMarshaller ();
+
+    // With and without fractional seconds
+    for (final OffsetDateTime aDT : new OffsetDateTime [] { OffsetDateTime.of (2026, 1, 2, 3, 4, 5, 678_000_000, ZoneOffset.UTC),
+                                                            OffsetDateTime.of (2026, 1, 2, 3, 4, 0, 0, ZoneOffset.UTC) })
+    {
+      aUserMessage.getMessageInfo ().setTimestamp (XMLOffsetDateTime.of (aDT));
+
+      final Element eJAXB = aMarshaller.getAsElement (aUserMessage);
+      assertNotNull (eJAXB);
+      final Element eWriter = Ebms3DOMWriter.createUserMessageElement (XMLFactory.newDocument (), aUserMessage);
+
+      // Same lexical form of the Timestamp
+      assertEquals (_getTimestamp (eJAXB), _getTimestamp (eWriter));
+
+      // Same content
+      final Ebms3UserMessage aFromJAXB = aMarshaller.read (eJAXB);
+      final Ebms3UserMessage aFromWriter = aMarshaller.read (eWriter);
+      assertNotNull (aFromJAXB);
+      assertNotNull (aFromWriter);
+      assertEquals (aFromJAXB, aFromWriter);
+      assertEquals (aUserMessage, aFromWriter);
+    }
+  }
+
+  @Test
+  public void testUserMessageRoundtrip ()
+  {
+    final Ebms3Messaging aMessaging = new Ebms3MessagingMarshaller ().read (new ClassPathResource ("external/soap11test/UserMessage-no-soap.xml"));
+    assertNotNull (aMessaging);
+
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eMessaging = Ebms3DOMWriter.createMessagingElement (aDoc, aMessaging);
+    assertNotNull (eMessaging);
+    aDoc.appendChild (eMessaging);
+
+    // Read again with XML Schema validation
+    final Ebms3Messaging aReRead = new Ebms3MessagingMarshaller ().read (aDoc);
+    assertNotNull (aReRead);
+    assertEquals (aMessaging, aReRead);
+  }
+
+  @Test
+  public void testReceipt ()
+  {
+    final Ebms3UserMessage aUserMessage = new Ebms3UserMessage ();
+    aUserMessage.setPartyInfo (MessageHelperMethods.createEbms3PartyInfo ("fromRole",
+                                                                          "fromParty",
+                                                                          "toRole",
+                                                                          "toParty"));
+    aUserMessage.setCollaborationInfo (MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                          "urn:any",
+                                                                                          null,
+                                                                                          "svcType",
+                                                                                          "svc",
+                                                                                          "action",
+                                                                                          MessageHelperMethods.createRandomConversationID ()));
+    aUserMessage.setPayloadInfo (MessageHelperMethods.createEbms3PayloadInfo (false, new CommonsArrayList <> ()));
+    aUserMessage.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo ());
+
+    final AS4ReceiptMessage aReceipt = AS4ReceiptMessage.create (ESoapVersion.SOAP_12,
+                                                                 MessageHelperMethods.createRandomMessageID (),
+                                                                 aUserMessage,
+                                                                 null,
+                                                                 false,
+                                                                 null);
+    final Ebms3Messaging aMessaging = new Ebms3Messaging ();
+    aMessaging.addSignalMessage (aReceipt.getEbms3SignalMessage ());
+
+    final Document aSoapDoc = Ebms3DOMWriter.createSoapDocument (ESoapVersion.SOAP_12, aMessaging, null);
+    assertNotNull (aSoapDoc);
+
+    // Read again with XML Schema validation
+    final Soap12Envelope aSoapEnv = new Soap12EnvelopeMarshaller ().read (aSoapDoc);
+    assertNotNull (aSoapEnv);
+    final Ebms3Messaging aReRead = new Ebms3MessagingMarshaller ().read ((Element) aSoapEnv.getHeader ()
+                                                                                           .getAnyAtIndex (0));
+    assertNotNull (aReRead);
+    assertEquals (1, aReRead.getSignalMessageCount ());
+    assertEquals (aUserMessage.getMessageInfo ().getMessageId (),
+                  aReRead.getSignalMessageAtIndex (0).getMessageInfo ().getRefToMessageId ());
+  }
+}
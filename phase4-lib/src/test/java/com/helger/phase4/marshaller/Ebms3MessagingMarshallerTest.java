@@ -126,6 +126,23 @@ public final class Ebms3MessagingMarshallerTest
     assertNull (aMessage);
   }
 
+  @Test
+  public void testUserMessageMessageInfoIDMissingNoValidation ()
+  {
+    final CollectingValidationEventHandler aCVEH = new CollectingValidationEventHandler ();
+    final Soap11Envelope aEnv = new Soap11EnvelopeMarshaller (false).setValidationEventHandler (aCVEH)
+                                                                    .read (new ClassPathResource (PATH11 +
+                                                                                                  "MessageInfoIDMissing.xml"));
+    assertNotNull (aEnv);
+
+    // Without XML Schema validation the missing ID is not detected
+    final Ebms3Messaging aMessage = new Ebms3MessagingMarshaller (false).setValidationEventHandler (aCVEH)
+                                                                        .read ((Element) aEnv.getHeader ()
+                                                                                             .getAnyAtIndex (0));
+    assertNotNull (aMessage);
+    assertTrue (aCVEH.getErrorList ().isEmpty ());
+  }
+
   @Test
   public void testExpectSoap11ButFileIsSoap12 ()
   {
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.slf4j.Logger;
+
+import com.helger.io.resource.ClassPathResource;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+
+/**
+ * Compare the CPU time per message needed to serialize an ebMS 3 Messaging header - once with XML
+ * Schema validation (the default) and once in the "trusted outbound" mode without validation. Uses
+ * the per-thread CPU time of the JVM, so no additional benchmark framework is needed.
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4MarshallersTrustedOutbound
+{
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (MainAS4MarshallersTrustedOutbound.class);
+  private static final int WARMUP = 5_000;
+  private static final int ITERATIONS = 50_000;
+
+  private static void _measure (final String sName,
+                                final Ebms3MessagingMarshaller aMarshaller,
+                                final Ebms3Messaging aMessaging)
+  {
+    final ThreadMXBean aMXBean = ManagementFactory.getThreadMXBean ();
+    int nHash = 0;
+    for (int i = 0; i < WARMUP; ++i)
+      nHash += System.identityHashCode (aMarshaller.getAsElement (aMessaging));
+
+    final long nStartCPU = aMXBean.getCurrentThreadCpuTime ();
+    for (int i = 0; i < ITERATIONS; ++i)
+      nHash += System.identityHashCode (aMarshaller.getAsElement (aMessaging));
+    final long nCPU = aMXBean.getCurrentThreadCpuTime () - nStartCPU;
+
+    LOGGER.info (sName + ": " + (nCPU / ITERATIONS) + " ns CPU time per message [" + nHash + "]");
+  }
+
+  public static void main (final String [] args)
+  {
+    final Ebms3Messaging aMessaging = new Ebms3MessagingMarshaller ().read (new ClassPathResource ("external/soap11test/UserMessage-no-soap.xml"));
+    if (aMessaging == null)
+      throw new IllegalStateException ("Failed to read test message");
+
+    _measure ("Validating", new Ebms3MessagingMarshaller (true), aMessaging);
+    _measure ("Trusted outbound", new Ebms3MessagingMarshaller (false), aMessaging);
+    _measure ("Validating", new Ebms3MessagingMarshaller (true), aMessaging);
+    _measure ("Trusted outbound", new Ebms3MessagingMarshaller (false), aMessaging);
+  }
+}
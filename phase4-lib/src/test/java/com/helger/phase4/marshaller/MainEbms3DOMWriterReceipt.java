@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.w3c.dom.Document;
+
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.message.AS4ReceiptMessage;
+import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.soap12.Soap12Body;
+import com.helger.phase4.soap12.Soap12Envelope;
+import com.helger.phase4.soap12.Soap12Header;
+
+/**
+ * Compare the number of receipts per second that can be created and serialized to a SOAP
+ * document - once via JAXB (with and without XML Schema validation) and once via
+ * {@link Ebms3DOMWriter}. A receipt is created for every inbound message.
+ *
+ * @author Philip Helger
+ */
+public final class MainEbms3DOMWriterReceipt
+{
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (MainEbms3DOMWriterReceipt.class);
+  private static final int WARMUP = 5_000;
+  private static final int ITERATIONS = 50_000;
+
+  private static Document _viaJAXB (final boolean bValidate, final Ebms3Messaging aMessaging)
+  {
+    final Soap12Envelope aSoapEnv = new Soap12Envelope ();
+    aSoapEnv.setHeader (new Soap12Header ());
+    aSoapEnv.getHeader ().addAny (new Ebms3MessagingMarshaller (bValidate).getAsElement (aMessaging));
+    aSoapEnv.setBody (new Soap12Body ());
+    return new Soap12EnvelopeMarshaller (bValidate).getAsDocument (aSoapEnv);
+  }
+
+  private static int _run (final int nCount,
+                           final Ebms3UserMessage aUserMessage,
+                           final Function <Ebms3Messaging, Document> aWriter)
+  {
+    int nHash = 0;
+    for (int i = 0; i < nCount; ++i)
+    {
+      final AS4ReceiptMessage aReceipt = AS4ReceiptMessage.create (ESoapVersion.SOAP_12,
+                                                                   MessageHelperMethods.createRandomMessageID (),
+                                                                   aUserMessage,
+                                                                   null,
+                                                                   false,
+                                                                   null);
+      final Ebms3Messaging aMessaging = new Ebms3Messaging ();
+      aMessaging.addSignalMessage (aReceipt.getEbms3SignalMessage ());
+      nHash += System.identityHashCode (aWriter.apply (aMessaging));
+    }
+    return nHash;
+  }
+
+  private static void _measure (final String sName,
+                                final Ebms3UserMessage aUserMessage,
+                                final Function <Ebms3Messaging, Document> aWriter)
+  {
+    int nHash = _run (WARMUP, aUserMessage, aWriter);
+
+    final long nStartNanos = System.nanoTime ();
+    nHash += _run (ITERATIONS, aUserMessage, aWriter);
+    final long nNanos = System.nanoTime () - nStartNanos;
+
+    LOGGER.info (sName + ": " + (ITERATIONS * 1_000_000_000L / nNanos) + " receipts per second [" + nHash + "]");
+  }
+
+  public static void main (final String [] args)
+  {
+    final Ebms3UserMessage aUserMessage = new Ebms3UserMessage ();
+    aUserMessage.setPartyInfo (MessageHelperMethods.createEbms3PartyInfo ("fromRole",
+                                                                          "fromParty",
+                                                                          "toRole",
+                                                                          "toParty"));
+    aUserMessage.setCollaborationInfo (MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                          "urn:any",
+                                                                                          null,
+                                                                                          "svcType",
+                                                                                          "svc",
+                                                                                          "action",
+                                                                                          MessageHelperMethods.createRandomConversationID ()));
+    aUserMessage.setPayloadInfo (MessageHelperMethods.createEbms3PayloadInfo (false, new CommonsArrayList <> ()));
+    aUserMessage.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo ());
+
+    for (int nRun = 0; nRun < 2; ++nRun)
+    {
+      _measure ("JAXB validating", aUserMessage, x -> _viaJAXB (true, x));
+      _measure ("JAXB trusted", aUserMessage, x -> _viaJAXB (false, x));
+      _measure ("Direct DOM", aUserMessage, x -> Ebms3DOMWriter.createSoapDocument (ESoapVersion.SOAP_12, x, null));
+    }
+  }
+}
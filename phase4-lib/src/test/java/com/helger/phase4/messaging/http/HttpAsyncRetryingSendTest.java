@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.junit.Test;
+
+import com.helger.base.state.EContinue;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.dump.IAS4OutgoingDumper;
+
+/**
+ * Test class for class {@link HttpAsyncRetryingSend}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpAsyncRetryingSendTest
+{
+  private static final int MAX_RETRIES = 2;
+
+  /**
+   * An {@link IHttpPoster} that only uses the default implementations and fails every attempt.
+   */
+  private static final class FailingHttpPoster implements IHttpPoster
+  {
+    private final AtomicInteger m_aAttempts = new AtomicInteger (0);
+
+    @NonNull
+    public HttpClientFactory getHttpClientFactory ()
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    @NonNull
+    public IHttpPoster setHttpClientFactory (@NonNull final HttpClientFactory aHttpClientFactory)
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    @Nullable
+    public Consumer <? super HttpPost> getHttpCustomizer ()
+    {
+      return null;
+    }
+
+    @NonNull
+    public IHttpPoster setHttpCustomizer (@Nullable final Consumer <? super HttpPost> aHttpCustomizer)
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    public boolean isQuoteHttpHeaders ()
+    {
+      return false;
+    }
+
+    @NonNull
+    public IHttpPoster setQuoteHttpHeaders (final boolean bQuoteHttpHeaders)
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    @Deprecated (forRemoval = true, since = "4.5.1")
+    public <T> T sendGenericMessage (@NonNull final String sURL,
+                                     @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                     @NonNull final HttpEntity aHttpEntity,
+                                     @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler) throws IOException
+    {
+      m_aAttempts.incrementAndGet ();
+      throw new IOException ("Simulated failure");
+    }
+
+    @Deprecated (forRemoval = true, since = "4.5.1")
+    public <T> T sendGenericMessageWithRetries (@NonNull final String sURL,
+                                                @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                @NonNull final HttpEntity aHttpEntity,
+                                                @NonNull final String sMessageID,
+                                                @NonNull final HttpRetrySettings aRetrySettings,
+                                                @NonNull final HttpClientResponseHandler <? extends T> aResponseHandler,
+                                                @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                @Nullable final IAS4RetryCallback aRetryCallback) throws IOException
+    {
+      // The asynchronous version must not block in the synchronous retries
+      throw new UnsupportedOperationException ();
+    }
+  }
+
+  /**
+   * Remembers all the delays passed to the callback.
+   */
+  private static final class RecordingRetryCallback implements IAS4RetryCallback
+  {
+    private final ICommonsList <Integer> m_aTries = new CommonsArrayList <> ();
+    private final ICommonsList <Long> m_aDelays = new CommonsArrayList <> ();
+
+    @NonNull
+    public synchronized EContinue onBeforeRetry (@NonNull final String sMessageID,
+                                                 @NonNull final String sURL,
+                                                 final int nTry,
+                                                 final int nMaxTries,
+                                                 final long nRetryIntervalMS,
+                                                 @NonNull final Exception ex)
+    {
+      assertEquals (1 + MAX_RETRIES, nMaxTries);
+      m_aTries.add (Integer.valueOf (nTry));
+      m_aDelays.add (Long.valueOf (nRetryIntervalMS));
+      return EContinue.CONTINUE;
+    }
+  }
+
+  @NonNull
+  private static HttpRetrySettings _createRetrySettings ()
+  {
+    return new HttpRetrySettings ().setMaxRetries (MAX_RETRIES).setDurationBeforeRetry (Duration.ofMillis (20));
+  }
+
+  @NonNull
+  private static HttpEntity _createEntity ()
+  {
+    // Repeatable
+    return new StringEntity ("<test/>", ContentType.APPLICATION_XML);
+  }
+
+  private static void _assertFailedWithIOException (@NonNull final CompletableFuture <?> aFuture) throws Exception
+  {
+    try
+    {
+      aFuture.get (30, TimeUnit.SECONDS);
+      fail ();
+    }
+    catch (final ExecutionException ex)
+    {
+      assertTrue (ex.getCause ().toString (), ex.getCause () instanceof IOException);
+    }
+  }
+
+  private static void _assertRetried (@NonNull final RecordingRetryCallback aRetryCallback)
+  {
+    assertEquals (new CommonsArrayList <> (Integer.valueOf (0), Integer.valueOf (1)), aRetryCallback.m_aTries);
+    for (final Long aDelay : aRetryCallback.m_aDelays)
+      assertTrue ("Delay " + aDelay, aDelay.longValue () > 0);
+  }
+
+  @Test
+  public void testBasicHttpPosterRefusedConnection () throws Exception
+  {
+    // Find a local port that nobody listens on
+    final int nPort;
+    try (final ServerSocket aSocket = new ServerSocket (0))
+    {
+      nPort = aSocket.getLocalPort ();
+    }
+
+    final ExecutorService aSendExecutor = Executors.newFixedThreadPool (2);
+    try (final HttpRetryScheduler aScheduler = new HttpRetryScheduler (aSendExecutor,
+                                                                       HttpRetryScheduler.DEFAULT_JITTER_FACTOR))
+    {
+      final BasicHttpPoster aPoster = new BasicHttpPoster ().setRetryScheduler (aScheduler);
+      final RecordingRetryCallback aRetryCallback = new RecordingRetryCallback ();
+      final CompletableFuture <Integer> aFuture = aPoster.sendGenericMessageWithRetriesAsync ("http://localhost:" +
+                                                                                             nPort +
+                                                                                             "/as4",
+                                                                                             null,
+                                                                                             _createEntity (),
+                                                                                             "msg-basic",
+                                                                                             _createRetrySettings (),
+                                                                                             x -> Integer.valueOf (x.getCode ()),
+                                                                                             null,
+                                                                                             aRetryCallback,
+                                                                                             null);
+      _assertFailedWithIOException (aFuture);
+      _assertRetried (aRetryCallback);
+    }
+    finally
+    {
+      aSendExecutor.shutdownNow ();
+    }
+  }
+
+  @Test
+  public void testDefaultHttpPoster () throws Exception
+  {
+    final FailingHttpPoster aPoster = new FailingHttpPoster ();
+    final RecordingRetryCallback aRetryCallback = new RecordingRetryCallback ();
+    final CompletableFuture <Integer> aFuture = aPoster.sendGenericMessageWithRetriesAsync ("http://localhost/as4",
+                                                                                           null,
+                                                                                           _createEntity (),
+                                                                                           "msg-default",
+                                                                                           _createRetrySettings (),
+                                                                                           x -> Integer.valueOf (x.getCode ()),
+                                                                                           null,
+                                                                                           aRetryCallback,
+                                                                                           null);
+    _assertFailedWithIOException (aFuture);
+    _assertRetried (aRetryCallback);
+    // One original try and all the retries
+    assertEquals (1 + MAX_RETRIES, aPoster.m_aAttempts.get ());
+  }
+
+  @Test
+  public void testRetryStoppedByCallback () throws Exception
+  {
+    final FailingHttpPoster aPoster = new FailingHttpPoster ();
+    final CompletableFuture <Integer> aFuture = aPoster.sendGenericMessageWithRetriesAsync ("http://localhost/as4",
+                                                                                           null,
+                                                                                           _createEntity (),
+                                                                                           "msg-break",
+                                                                                           _createRetrySettings (),
+                                                                                           x -> Integer.valueOf (x.getCode ()),
+                                                                                           null,
+                                                                                           (sMessageID,
+                                                                                            sURL,
+                                                                                            nTry,
+                                                                                            nMaxTries,
+                                                                                            nRetryIntervalMS,
+                                                                                            ex) -> EContinue.BREAK,
+                                                                                           null);
+    _assertFailedWithIOException (aFuture);
+    assertEquals (1, aPoster.m_aAttempts.get ());
+  }
+}
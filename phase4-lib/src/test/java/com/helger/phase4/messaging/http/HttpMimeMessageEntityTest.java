@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
+import com.helger.base.io.stream.HasInputStream;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.io.file.SimpleFileIO;
+import com.helger.mime.CMimeType;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.messaging.mime.AS4MimeMessage;
+import com.helger.phase4.messaging.mime.AS4MimeMessageHelper;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Test class for class {@link HttpMimeMessageEntity}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpMimeMessageEntityTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  private static Document _createSoapDoc ()
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    aDoc.appendChild (aDoc.createElementNS (ESoapVersion.SOAP_12.getNamespaceURI (), "S12:Envelope"));
+    return aDoc;
+  }
+
+  private static byte [] _getWritten (final HttpMimeMessageEntity aEntity) throws Exception
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      aEntity.writeTo (aBAOS);
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Test
+  public void testKnownLength () throws Exception
+  {
+    final File aFile = m_aTempFolder.newFile ();
+    SimpleFileIO.writeFile (aFile, "File content".getBytes (StandardCharsets.ISO_8859_1));
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final ICommonsList <WSS4JAttachment> aAttachments = new CommonsArrayList <> ();
+      aAttachments.add (WSS4JAttachment.createOutgoingFileAttachment ("In-memory content".getBytes (StandardCharsets.ISO_8859_1),
+                                                                      null,
+                                                                      "mem.txt",
+                                                                      CMimeType.TEXT_PLAIN,
+                                                                      null,
+                                                                      null,
+                                                                      aResHelper));
+      aAttachments.add (WSS4JAttachment.createOutgoingFileAttachment (aFile,
+                                                                      null,
+                                                                      "file.txt",
+                                                                      CMimeType.TEXT_PLAIN,
+                                                                      null,
+                                                                      null,
+                                                                      aResHelper));
+
+      final AS4MimeMessage aMsg = AS4MimeMessageHelper.generateMimeMessage (ESoapVersion.SOAP_12,
+                                                                           _createSoapDoc (),
+                                                                           aAttachments);
+      final HttpMimeMessageEntity aEntity = HttpMimeMessageEntity.create (aMsg);
+      assertNotNull (aEntity.getKnownLengthWriter ());
+      assertTrue (aEntity.isRepeatable ());
+
+      // Must be identical to the Jakarta Mail serialization
+      final byte [] aExpected;
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        aMsg.writeTo (aBAOS);
+        aExpected = aBAOS.toByteArray ();
+      }
+      byte [] aWritten = _getWritten (aEntity);
+      assertArrayEquals (aExpected, aWritten);
+      assertEquals (aWritten.length, aEntity.getContentLength ());
+
+      // Remove the headers, as done before sending
+      AS4MimeMessageHelper.getAndRemoveAllHeaders (aMsg);
+      aWritten = _getWritten (aEntity);
+      assertEquals (aWritten.length, aEntity.getContentLength ());
+      assertArrayEquals (aWritten, _getWritten (aEntity));
+    }
+  }
+
+  @Test
+  public void testUnknownLength () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aAttachment = new WSS4JAttachment (aResHelper, CMimeType.TEXT_PLAIN.getAsString ());
+      aAttachment.setId ("unknown");
+      final byte [] aBytes = "abc".getBytes (StandardCharsets.ISO_8859_1);
+      aAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aBytes)));
+
+      final AS4MimeMessage aMsg = AS4MimeMessageHelper.generateMimeMessage (ESoapVersion.SOAP_12,
+                                                                           _createSoapDoc (),
+                                                                           new CommonsArrayList <> (aAttachment));
+      final HttpMimeMessageEntity aEntity = HttpMimeMessageEntity.create (aMsg);
+      assertNull (aEntity.getKnownLengthWriter ());
+      assertEquals (-1, aEntity.getContentLength ());
+    }
+  }
+}
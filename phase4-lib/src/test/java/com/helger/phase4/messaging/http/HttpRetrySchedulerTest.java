@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link HttpRetryScheduler}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpRetrySchedulerTest
+{
+  @Test
+  public void testDestinationKey ()
+  {
+    assertEquals ("https://ap.example.org:8443", HttpRetryScheduler.getDestinationKey ("https://ap.example.org:8443/as4"));
+    assertEquals ("http://localhost", HttpRetryScheduler.getDestinationKey ("http://localhost/as4?x=y"));
+    assertEquals ("bla", HttpRetryScheduler.getDestinationKey ("bla"));
+  }
+
+  @Test
+  public void testJitterAndBackoff () throws Exception
+  {
+    try (final HttpRetryScheduler aScheduler = new HttpRetryScheduler (Runnable::run, 0.2))
+    {
+      for (int i = 0; i < 100; ++i)
+      {
+        final long nMillis = aScheduler.getJittered (Duration.ofMillis (1000)).toMillis ();
+        assertTrue (nMillis >= 800 && nMillis <= 1200);
+      }
+
+      // Longer backoff of the same destination wins
+      final String sKey = HttpRetryScheduler.getDestinationKey ("https://ap.example.org/as4");
+      aScheduler.onFailedAttempt (sKey, Duration.ofMinutes (5));
+      assertTrue (aScheduler.onFailedAttempt (sKey, Duration.ofSeconds (1)).toMillis () > 60_000);
+      assertEquals (1, aScheduler.getDestinationsInBackoffCount ());
+      aScheduler.onSuccessfulAttempt (sKey);
+      assertEquals (0, aScheduler.getDestinationsInBackoffCount ());
+
+      // Scheduling executes the task
+      final CountDownLatch aLatch = new CountDownLatch (1);
+      aScheduler.schedule (aLatch::countDown, Duration.ofMillis (10));
+      assertTrue (aLatch.await (5, TimeUnit.SECONDS));
+    }
+  }
+}
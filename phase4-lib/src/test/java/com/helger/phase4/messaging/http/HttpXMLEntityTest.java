@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Test class for class {@link HttpXMLEntity}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpXMLEntityTest
+{
+  private static byte [] _getWritten (final HttpXMLEntity aEntity) throws Exception
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      aEntity.writeTo (aBAOS);
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Test
+  public void testBasic () throws Exception
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eRoot = (Element) aDoc.appendChild (aDoc.createElementNS (ESoapVersion.SOAP_12.getNamespaceURI (),
+                                                                           "S12:Envelope"));
+    eRoot.appendChild (aDoc.createTextNode ("Special chars: äöü€"));
+
+    // Must be identical to the String based serialization
+    final byte [] aExpected = AS4XMLHelper.serializeXML (aDoc).getBytes (AS4XMLHelper.XWS.getCharset ());
+
+    final HttpXMLEntity aMemEntity = new HttpXMLEntity (aDoc, ESoapVersion.SOAP_12.getMimeType ());
+    assertTrue (aMemEntity.isRepeatable ());
+    assertTrue (aMemEntity.isInMemory ());
+    assertEquals (aExpected.length, aMemEntity.getContentLength ());
+    assertArrayEquals (aExpected, _getWritten (aMemEntity));
+    assertArrayEquals (aExpected, StreamHelper.getAllBytes (aMemEntity.getContent ()));
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // Below the threshold
+      HttpXMLEntity aEntity = new HttpXMLEntity (aDoc, ESoapVersion.SOAP_12.getMimeType (), aResHelper);
+      assertTrue (aEntity.isInMemory ());
+      assertEquals (aExpected.length, aEntity.getContentLength ());
+      assertArrayEquals (aExpected, _getWritten (aEntity));
+
+      // Spilled to a file
+      aEntity = new HttpXMLEntity (aDoc, ESoapVersion.SOAP_12.getMimeType (), aResHelper, 16);
+      assertFalse (aEntity.isInMemory ());
+      assertEquals (aExpected.length, aEntity.getContentLength ());
+      // Repeatable
+      assertArrayEquals (aExpected, _getWritten (aEntity));
+      assertArrayEquals (aExpected, _getWritten (aEntity));
+      assertArrayEquals (aExpected, StreamHelper.getAllBytes (aEntity.getContent ()));
+    }
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.jspecify.annotations.NonNull;
+import org.junit.Test;
+
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.phase4.util.AS4Executors;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test class for class {@link PooledHttpPoster}.
+ *
+ * @author Philip Helger
+ */
+public final class PooledHttpPosterTest
+{
+  /**
+   * Counts the concurrently handled requests and remembers the maximum.
+   */
+  private static final class ActiveCounter
+  {
+    private final AtomicInteger m_aActive = new AtomicInteger (0);
+    private final AtomicInteger m_aMaxActive = new AtomicInteger (0);
+
+    void inc ()
+    {
+      m_aMaxActive.accumulateAndGet (m_aActive.incrementAndGet (), Math::max);
+    }
+
+    void dec ()
+    {
+      m_aActive.decrementAndGet ();
+    }
+
+    int getMax ()
+    {
+      return m_aMaxActive.get ();
+    }
+  }
+
+  /**
+   * A local HTTP endpoint that answers every request after a delay and remembers the maximum
+   * number of concurrently handled requests.
+   */
+  private static final class SlowEndpoint implements AutoCloseable
+  {
+    private final HttpServer m_aServer;
+    private final ExecutorService m_aExecutor = Executors.newCachedThreadPool ();
+    private final ActiveCounter m_aActive = new ActiveCounter ();
+    private final AtomicInteger m_aRequests = new AtomicInteger (0);
+
+    SlowEndpoint (@NonNull final Duration aDelay, @NonNull final ActiveCounter aTotalActive) throws IOException
+    {
+      m_aServer = HttpServer.create (new InetSocketAddress (InetAddress.getLoopbackAddress (), 0), 0);
+      m_aServer.createContext ("/", aExchange -> {
+        m_aActive.inc ();
+        aTotalActive.inc ();
+        try
+        {
+          m_aRequests.incrementAndGet ();
+          // Read the complete request
+          StreamHelper.getAllBytes (aExchange.getRequestBody ());
+          Thread.sleep (aDelay.toMillis ());
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        finally
+        {
+          // Before the response is sent, so that the next request of the client is not counted
+          // too early
+          aTotalActive.dec ();
+          m_aActive.dec ();
+        }
+        aExchange.sendResponseHeaders (200, -1);
+        aExchange.close ();
+      });
+      m_aServer.setExecutor (m_aExecutor);
+      m_aServer.start ();
+    }
+
+    @NonNull
+    String getURL ()
+    {
+      return "http://127.0.0.1:" + m_aServer.getAddress ().getPort () + "/as4";
+    }
+
+    int getMaxActive ()
+    {
+      return m_aActive.getMax ();
+    }
+
+    int getRequestCount ()
+    {
+      return m_aRequests.get ();
+    }
+
+    public void close ()
+    {
+      m_aServer.stop (0);
+      m_aExecutor.shutdownNow ();
+    }
+  }
+
+  @NonNull
+  private static CompletableFuture <Integer> _sendAsync (@NonNull final PooledHttpPoster aPoster,
+                                                         @NonNull final String sURL,
+                                                         @NonNull final ExecutorService aExecutor)
+  {
+    return CompletableFuture.supplyAsync ( () -> {
+      try
+      {
+        return aPoster.sendGenericMessage (sURL,
+                                           null,
+                                           new StringEntity ("<test/>", ContentType.APPLICATION_XML),
+                                           x -> Integer.valueOf (x.getCode ()),
+                                           null);
+      }
+      catch (final IOException ex)
+      {
+        throw new IllegalStateException (ex);
+      }
+    }, aExecutor);
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    try (final PooledHttpPoster aPoster = new PooledHttpPoster (5, 10, Duration.ofSeconds (10)))
+    {
+      assertEquals (5, aPoster.getMaxConnectionsPerRoute ());
+      assertEquals (10, aPoster.getMaxConnectionsTotal ());
+      assertEquals (Duration.ofSeconds (10), aPoster.getIdleEvictionDuration ());
+      assertEquals (0, aPoster.getActiveRequestCount ());
+      assertEquals (0, aPoster.getRouteCount ());
+      assertFalse (aPoster.isClosed ());
+
+      aPoster.close ();
+      assertTrue (aPoster.isClosed ());
+    }
+  }
+
+  @Test
+  public void testConnectionPoolLimits ()
+  {
+    try (final PooledHttpPoster aPoster = new PooledHttpPoster (5, 10, Duration.ofSeconds (10)))
+    {
+      final HttpClientConnectionManager aConnMgr = aPoster.createPooledConnectionManager (new HttpClientFactory ());
+      try
+      {
+        // Same limits as the permits of the poster
+        assertTrue (aConnMgr instanceof PoolingHttpClientConnectionManager);
+        assertEquals (10, ((PoolingHttpClientConnectionManager) aConnMgr).getMaxTotal ());
+        assertEquals (5, ((PoolingHttpClientConnectionManager) aConnMgr).getDefaultMaxPerRoute ());
+      }
+      finally
+      {
+        StreamHelper.close (aConnMgr);
+      }
+    }
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testInvalidLimits ()
+  {
+    new PooledHttpPoster (0, 10, Duration.ofSeconds (10)).close ();
+  }
+
+  @Test
+  public void testSlowEndpoint () throws Exception
+  {
+    // Many more concurrent sends than CPUs, each waiting for the slow endpoint
+    final int nRequests = 50;
+    final Duration aDelay = Duration.ofMillis (200);
+    final ExecutorService aExecutor = AS4Executors.createTaskExecutor ("test-pooled-");
+    try (final SlowEndpoint aEndpoint = new SlowEndpoint (aDelay, new ActiveCounter ());
+         final PooledHttpPoster aPoster = new PooledHttpPoster (nRequests, nRequests, Duration.ofSeconds (10)))
+    {
+      final long nStart = System.nanoTime ();
+      final ICommonsList <CompletableFuture <Integer>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nRequests; ++i)
+        aFutures.add (_sendAsync (aPoster, aEndpoint.getURL (), aExecutor));
+      for (final CompletableFuture <Integer> aFuture : aFutures)
+        assertEquals (Integer.valueOf (200), aFuture.get (30, TimeUnit.SECONDS));
+      final long nMillis = TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - nStart);
+
+      assertEquals (nRequests, aEndpoint.getRequestCount ());
+      // The waiting requests don't block each other
+      assertTrue ("Max active: " + aEndpoint.getMaxActive (), aEndpoint.getMaxActive () > 1);
+      assertTrue ("Took " + nMillis + " ms", nMillis < nRequests * aDelay.toMillis () / 2);
+      assertEquals (0, aPoster.getActiveRequestCount ());
+      assertEquals (1, aPoster.getRouteCount ());
+    }
+    finally
+    {
+      aExecutor.shutdownNow ();
+    }
+  }
+
+  @Test
+  public void testLimitsBlockConcurrentRequests () throws Exception
+  {
+    final int nMaxPerRoute = 2;
+    final int nMaxTotal = 3;
+    final int nRequestsPerRoute = 8;
+    // Counts the active requests of both endpoints
+    final ActiveCounter aTotalActive = new ActiveCounter ();
+    final ExecutorService aExecutor = AS4Executors.createTaskExecutor ("test-limits-");
+    try (final SlowEndpoint aEndpoint1 = new SlowEndpoint (Duration.ofMillis (100), aTotalActive);
+         final SlowEndpoint aEndpoint2 = new SlowEndpoint (Duration.ofMillis (100), aTotalActive);
+         final PooledHttpPoster aPoster = new PooledHttpPoster (nMaxPerRoute, nMaxTotal, Duration.ofSeconds (10)))
+    {
+      final ICommonsList <CompletableFuture <Integer>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nRequestsPerRoute; ++i)
+      {
+        aFutures.add (_sendAsync (aPoster, aEndpoint1.getURL (), aExecutor));
+        aFutures.add (_sendAsync (aPoster, aEndpoint2.getURL (), aExecutor));
+      }
+
+      for (final CompletableFuture <Integer> aFuture : aFutures)
+        assertEquals (Integer.valueOf (200), aFuture.get (30, TimeUnit.SECONDS));
+
+      // All requests were sent, but never more than allowed at the same time
+      assertEquals (nRequestsPerRoute, aEndpoint1.getRequestCount ());
+      assertEquals (nRequestsPerRoute, aEndpoint2.getRequestCount ());
+      assertTrue ("Max active: " + aEndpoint1.getMaxActive (), aEndpoint1.getMaxActive () <= nMaxPerRoute);
+      assertTrue ("Max active: " + aEndpoint2.getMaxActive (), aEndpoint2.getMaxActive () <= nMaxPerRoute);
+      assertTrue ("Max total active: " + aTotalActive.getMax (), aTotalActive.getMax () <= nMaxTotal);
+      // The limits were actually reached, so the other requests had to wait
+      assertTrue ("Max total active: " + aTotalActive.getMax (), aTotalActive.getMax () > 1);
+      assertEquals (0, aPoster.getActiveRequestCount ());
+      assertEquals (2, aPoster.getRouteCount ());
+    }
+    finally
+    {
+      aExecutor.shutdownNow ();
+    }
+  }
+}
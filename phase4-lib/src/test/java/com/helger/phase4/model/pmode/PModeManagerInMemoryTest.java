@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.CAS4;
+
+/**
+ * Test class for class {@link PModeManagerInMemory}.
+ *
+ * @author Philip Helger
+ */
+public final class PModeManagerInMemoryTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testLookupIndex ()
+  {
+    final PModeManagerInMemory aMgr = new PModeManagerInMemory ();
+    assertNull (aMgr.getPModeOfServiceAndAction (CAS4.DEFAULT_SERVICE_URL, CAS4.DEFAULT_ACTION_URL));
+
+    final PMode aPMode1 = (PMode) DefaultPMode.getOrCreateDefaultPMode ("i1", "r1", null, false);
+    aMgr.createPMode (aPMode1);
+    assertSame (aPMode1, aMgr.getPModeOfServiceAndAction (CAS4.DEFAULT_SERVICE_URL, CAS4.DEFAULT_ACTION_URL));
+    assertSame (aPMode1, aMgr.getPModeOfInitiatorAndResponder (aPMode1.getInitiator (), aPMode1.getResponder ()));
+    assertNull (aMgr.getPModeOfServiceAndAction (CAS4.DEFAULT_SERVICE_URL, "other"));
+
+    final PMode aPMode2 = (PMode) DefaultPMode.getOrCreateDefaultPMode ("i2", "r2", null, false);
+    aMgr.createPMode (aPMode2);
+    assertSame (aPMode2, aMgr.getPModeOfInitiatorAndResponder (aPMode2.getInitiator (), aPMode2.getResponder ()));
+    assertNull (aMgr.getPModeOfInitiatorAndResponder (aPMode1.getInitiator (), aPMode2.getResponder ()));
+
+    // Index is updated on deletion
+    aMgr.deletePMode (aPMode1.getID ());
+    assertNull (aMgr.getPModeOfInitiatorAndResponder (aPMode1.getInitiator (), aPMode1.getResponder ()));
+    assertSame (aPMode2, aMgr.getPModeOfServiceAndAction (CAS4.DEFAULT_SERVICE_URL, CAS4.DEFAULT_ACTION_URL));
+    aMgr.deletePMode (aPMode2.getID ());
+    assertNull (aMgr.getPModeOfServiceAndAction (CAS4.DEFAULT_SERVICE_URL, CAS4.DEFAULT_ACTION_URL));
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4MemoryFirstSpool}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4MemoryFirstSpoolTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testSpill () throws Exception
+  {
+    final AS4ShardedFileSpool aFileSpool = new AS4ShardedFileSpool (m_aTempFolder.newFolder (), 4);
+    final AS4MemoryFirstSpool aSpool = new AS4MemoryFirstSpool (aFileSpool, 10);
+
+    final byte [] aSmall = "small".getBytes ();
+    final byte [] aLarge = "this is larger than ten bytes".getBytes ();
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper (aSpool))
+    {
+      final IAS4SpoolEntry aEntry1 = aResHelper.createSpoolEntry ();
+      try (final OutputStream aOS = aEntry1.getOutputStream ())
+      {
+        aOS.write (aSmall);
+      }
+      assertTrue (aEntry1.isInMemory ());
+      assertEquals (aSmall.length, aEntry1.getSize ());
+      assertArrayEquals (aSmall, StreamHelper.getAllBytes (aEntry1.getInputStream ()));
+
+      final IAS4SpoolEntry aEntry2 = aResHelper.createSpoolEntry ();
+      try (final OutputStream aOS = aEntry2.getOutputStream ())
+      {
+        // Write in pieces, to spill in between
+        aOS.write (aLarge, 0, 5);
+        aOS.write (aLarge, 5, aLarge.length - 5);
+      }
+      assertFalse (aEntry2.isInMemory ());
+      assertNotNull (aEntry2.getFile ());
+      assertEquals (aLarge.length, aEntry2.getSize ());
+      assertArrayEquals (aLarge, StreamHelper.getAllBytes (aEntry2.getInputStream ()));
+      assertArrayEquals (aLarge, StreamHelper.getAllBytes (aEntry2.getInputStream ()));
+
+      assertEquals (2, aSpool.getStatistics ().getLiveHandleCount ());
+      assertEquals (1, aSpool.getSpilledCount ());
+      assertEquals (1, aFileSpool.getStatistics ().getLiveHandleCount ());
+    }
+
+    assertEquals (0, aSpool.getStatistics ().getLiveHandleCount ());
+    assertEquals (2, aSpool.getStatistics ().getTotalHandleCount ());
+    assertEquals (aSmall.length + aLarge.length, aSpool.getStatistics ().getBytesWritten ());
+    assertEquals (0, aFileSpool.getStatistics ().getLiveHandleCount ());
+    assertEquals (aLarge.length, aFileSpool.getStatistics ().getBytesWritten ());
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.spool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.io.file.SimpleFileIO;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4RecyclingFileSpool}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4RecyclingFileSpoolTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testRecycling () throws Exception
+  {
+    try (final AS4RecyclingFileSpool aSpool = new AS4RecyclingFileSpool (m_aTempFolder.newFolder (), 1, 1))
+    {
+      assertEquals (1, aSpool.getPooledFileCount ());
+
+      final File aFile1;
+      final File aFile2;
+      try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper (aSpool))
+      {
+        aFile1 = aResHelper.createTempFile ();
+        aFile2 = aResHelper.createTempFile ();
+        assertEquals (0, aSpool.getPooledFileCount ());
+        assertEquals (1, aSpool.getRecycledCount ());
+        SimpleFileIO.writeFile (aFile1, new byte [] { 1, 2, 3 });
+        SimpleFileIO.writeFile (aFile2, new byte [] { 4, 5 });
+        assertEquals (2, aSpool.getStatistics ().getLiveHandleCount ());
+      }
+
+      // Only one file is pooled, the other one is deleted
+      assertEquals (1, aSpool.getPooledFileCount ());
+      assertEquals (0, aSpool.getStatistics ().getLiveHandleCount ());
+      assertEquals (5, aSpool.getStatistics ().getBytesWritten ());
+      assertTrue (aFile1.exists ());
+      assertEquals (0, aFile1.length ());
+      assertFalse (aFile2.exists ());
+
+      // The pooled file is reused
+      assertEquals (aFile1, aSpool.createFile ());
+      assertEquals (2, aSpool.getRecycledCount ());
+      aSpool.releaseFile (aFile1);
+    }
+  }
+}
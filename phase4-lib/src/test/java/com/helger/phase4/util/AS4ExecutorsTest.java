@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.helger.base.concurrent.ThreadHelper;
+
+/**
+ * Test class for class {@link AS4Executors}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ExecutorsTest
+{
+  @Test
+  public void testPlatformThreadFactory () throws Exception
+  {
+    final Thread t = AS4Executors.createPlatformThreadFactory ("test-").newThread ( () -> {});
+    assertTrue (t.isDaemon ());
+    assertEquals ("test-1", t.getName ());
+  }
+
+  @Test
+  public void testSlowBlockingSends () throws Exception
+  {
+    // Runs on every JDK: slow sends must neither be queued nor limited by the number of CPUs
+    final int nTasks = Runtime.getRuntime ().availableProcessors () * 8 + 64;
+    final CountDownLatch aAllStarted = new CountDownLatch (nTasks);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final AtomicInteger aFinished = new AtomicInteger (0);
+
+    final ExecutorService aExecutor = AS4Executors.createTaskExecutor ("test-blocking-send-");
+    try
+    {
+      for (int i = 0; i < nTasks; ++i)
+        aExecutor.execute ( () -> {
+          aAllStarted.countDown ();
+          try
+          {
+            // Waiting for the slow receiver
+            aRelease.await ();
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+          }
+          aFinished.incrementAndGet ();
+        });
+
+      // All sends are blocked at the same time
+      assertTrue (aAllStarted.await (30, TimeUnit.SECONDS));
+      assertEquals (0, aFinished.get ());
+      aRelease.countDown ();
+    }
+    finally
+    {
+      aExecutor.shutdown ();
+      assertTrue (aExecutor.awaitTermination (30, TimeUnit.SECONDS));
+    }
+    assertEquals (nTasks, aFinished.get ());
+  }
+
+  @Test
+  public void testManySlowTasks () throws Exception
+  {
+    Assume.assumeTrue ("Virtual threads are not enabled", AS4Executors.isVirtualThreadEnabled ());
+
+    // Simulates sends to slow receivers: each task is blocked for a while
+    final int nTasks = 5_000;
+    final ThreadMXBean aThreadMX = ManagementFactory.getThreadMXBean ();
+    final int nPlatformThreadsBefore = aThreadMX.getThreadCount ();
+    final CountDownLatch aAllStarted = new CountDownLatch (nTasks);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final AtomicInteger aFinished = new AtomicInteger (0);
+
+    final ExecutorService aExecutor = AS4Executors.createTaskExecutor ("test-slow-send-");
+    try
+    {
+      for (int i = 0; i < nTasks; ++i)
+        aExecutor.execute ( () -> {
+          aAllStarted.countDown ();
+          try
+          {
+            aRelease.await ();
+            ThreadHelper.sleep (10);
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+          }
+          aFinished.incrementAndGet ();
+        });
+
+      // All tasks are blocked at the same time
+      assertTrue (aAllStarted.await (30, TimeUnit.SECONDS));
+
+      // Only a small number of platform (carrier) threads is needed for that
+      final int nPlatformThreadsDuring = aThreadMX.getThreadCount ();
+      assertTrue ("Platform threads: " + nPlatformThreadsBefore + " -> " + nPlatformThreadsDuring,
+                  nPlatformThreadsDuring - nPlatformThreadsBefore < Runtime.getRuntime ().availableProcessors () + 64);
+
+      aRelease.countDown ();
+    }
+    finally
+    {
+      aExecutor.shutdown ();
+      assertTrue (aExecutor.awaitTermination (30, TimeUnit.SECONDS));
+    }
+    assertEquals (nTasks, aFinished.get ());
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4RefreshingCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4RefreshingCacheTest
+{
+  private static final class TestCache extends AS4RefreshingCache <String, String>
+  {
+    private final AtomicLong m_aNow = new AtomicLong (0);
+
+    TestCache ()
+    {
+      this (10);
+    }
+
+    TestCache (final int nMaxSize)
+    {
+      // Execute refreshes synchronously
+      this (nMaxSize, Runnable::run);
+    }
+
+    TestCache (final int nMaxSize, final Executor aRefreshExecutor)
+    {
+      super (Duration.ofSeconds (100),
+             Duration.ofSeconds (10),
+             Duration.ofSeconds (50),
+             nMaxSize,
+             0.8,
+             aRefreshExecutor);
+    }
+
+    @Override
+    protected long getCurrentNanos ()
+    {
+      return m_aNow.get ();
+    }
+
+    void advance (final Duration aDuration)
+    {
+      m_aNow.addAndGet (aDuration.toNanos ());
+    }
+  }
+
+  @Test
+  public void testStaleWhileRevalidate ()
+  {
+    final TestCache aCache = new TestCache ();
+    final AtomicInteger aLookups = new AtomicInteger (0);
+
+    assertEquals ("v1", aCache.getOrLookup ("a", () -> "v" + aLookups.incrementAndGet ()));
+
+    // Expired but within the grace period - the stale value is returned and refreshed
+    aCache.advance (Duration.ofSeconds (120));
+    assertEquals ("v1", aCache.getOrLookup ("a", () -> "v" + aLookups.incrementAndGet ()));
+    assertEquals (1, aCache.getStaleHitCount ());
+    assertEquals (1, aCache.getRefreshCount ());
+    assertEquals ("v2", aCache.getOrLookup ("a", () -> "v" + aLookups.incrementAndGet ()));
+    assertEquals (1, aCache.getHitCount ());
+
+    // Beyond the grace period - synchronous lookup
+    aCache.advance (Duration.ofSeconds (151));
+    assertEquals ("v3", aCache.getOrLookup ("a", () -> "v" + aLookups.incrementAndGet ()));
+    assertEquals (2, aCache.getMissCount ());
+
+    // Stale negative entries are refreshed as well
+    assertNull (aCache.getOrLookup ("b", () -> null));
+    aCache.advance (Duration.ofSeconds (20));
+    assertNull (aCache.getOrLookup ("b", () -> "found"));
+    assertEquals ("found", aCache.getOrLookup ("b", () -> "other"));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction ()
+  {
+    final TestCache aCache = new TestCache (2);
+    aCache.getOrLookup ("a", () -> "a1");
+    aCache.advance (Duration.ofSeconds (1));
+    aCache.getOrLookup ("b", () -> "b1");
+    aCache.advance (Duration.ofSeconds (1));
+
+    // Use "a", so that "b" is the least recently used one
+    assertEquals ("a1", aCache.getOrLookup ("a", () -> "a2"));
+    aCache.advance (Duration.ofSeconds (1));
+    aCache.getOrLookup ("c", () -> "c1");
+    assertEquals (2, aCache.size ());
+    assertEquals (1, aCache.getEvictionCount ());
+
+    assertEquals ("a1", aCache.getOrLookup ("a", () -> "a3"));
+    assertEquals ("c1", aCache.getOrLookup ("c", () -> "c2"));
+    assertEquals ("b2", aCache.getOrLookup ("b", () -> "b2"));
+  }
+
+  @Test
+  public void testSeparateRefreshLookup ()
+  {
+    final TestCache aCache = new TestCache ();
+    assertEquals ("miss", aCache.getOrLookup ("a", () -> "miss", () -> "refresh"));
+
+    // Within the refresh-ahead window - only the refresh lookup is used
+    aCache.advance (Duration.ofSeconds (85));
+    assertEquals ("miss", aCache.getOrLookup ("a", () -> "miss2", () -> "refresh"));
+    assertEquals (1, aCache.getRefreshCount ());
+    assertEquals ("refresh", aCache.getOrLookup ("a", () -> "miss3", () -> "refresh2"));
+  }
+
+  @Test
+  public void testRejectedRefresh ()
+  {
+    // Rejects until it is "started"
+    final AtomicBoolean aAccepting = new AtomicBoolean (false);
+    final TestCache aCache = new TestCache (10, x -> {
+      if (!aAccepting.get ())
+        throw new RejectedExecutionException ("Executor is shut down");
+      x.run ();
+    });
+    assertEquals ("v1", aCache.getOrLookup ("a", () -> "v1"));
+
+    // The stale value is served, even though the refresh could not be scheduled
+    aCache.advance (Duration.ofSeconds (120));
+    assertEquals ("v1", aCache.getOrLookup ("a", () -> "v2"));
+    assertEquals ("v1", aCache.getOrLookup ("a", () -> "v2"));
+    assertEquals (2, aCache.getStaleHitCount ());
+    assertEquals (0, aCache.getRefreshCount ());
+
+    // The next access schedules the refresh again
+    aAccepting.set (true);
+    assertEquals ("v1", aCache.getOrLookup ("a", () -> "v2"));
+    assertEquals (1, aCache.getRefreshCount ());
+    assertEquals ("v2", aCache.getOrLookup ("a", () -> "v3"));
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.wss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import com.helger.base.concurrent.ThreadHelper;
+
+/**
+ * Test class for class {@link WSSSynchronizer}.
+ *
+ * @author Philip Helger
+ */
+public final class WSSSynchronizerTest
+{
+  private static final int THREADS = 4;
+
+  @AfterClass
+  public static void afterClass ()
+  {
+    WSSSynchronizer.cleanUpShared ();
+  }
+
+  private static int _getMaxParallelInvocations (final EWSSSynchronizationMode eMode) throws Exception
+  {
+    final AtomicInteger aActive = new AtomicInteger (0);
+    final AtomicInteger aMaxActive = new AtomicInteger (0);
+    final ExecutorService aES = Executors.newFixedThreadPool (THREADS);
+    for (int i = 0; i < THREADS * 3; ++i)
+      aES.submit ( () -> WSSSynchronizer.call (eMode, () -> {
+        aMaxActive.accumulateAndGet (aActive.incrementAndGet (), Math::max);
+        ThreadHelper.sleep (50);
+        aActive.decrementAndGet ();
+        return null;
+      }));
+    aES.shutdown ();
+    assertTrue (aES.awaitTermination (1, TimeUnit.MINUTES));
+    return aMaxActive.get ();
+  }
+
+  @Test
+  public void testExclusive () throws Exception
+  {
+    assertEquals (1, _getMaxParallelInvocations (EWSSSynchronizationMode.EXCLUSIVE));
+  }
+
+  @Test
+  public void testShared () throws Exception
+  {
+    assertTrue (_getMaxParallelInvocations (EWSSSynchronizationMode.SHARED) > 1);
+  }
+
+  /**
+   * Run the provided action in another thread, while a shared invocation is running. The action
+   * must not complete before the shared invocation is finished.
+   */
+  private static void _assertWaitsForShared (final Runnable aAction) throws Exception
+  {
+    final CountDownLatch aSharedStarted = new CountDownLatch (1);
+    final CountDownLatch aReleaseShared = new CountDownLatch (1);
+    final AtomicInteger aSharedActive = new AtomicInteger (0);
+    final ExecutorService aES = Executors.newFixedThreadPool (2);
+    try
+    {
+      final Future <?> aShared = aES.submit ( () -> WSSSynchronizer.call (EWSSSynchronizationMode.SHARED, () -> {
+        aSharedActive.incrementAndGet ();
+        aSharedStarted.countDown ();
+        aReleaseShared.await ();
+        aSharedActive.decrementAndGet ();
+        return null;
+      }));
+      assertTrue (aSharedStarted.await (10, TimeUnit.SECONDS));
+
+      final AtomicInteger aSharedActiveSeen = new AtomicInteger (-1);
+      final Future <?> aOther = aES.submit ( () -> {
+        aAction.run ();
+        aSharedActiveSeen.set (aSharedActive.get ());
+      });
+
+      // Blocked as long as the shared invocation is running
+      try
+      {
+        aOther.get (200, TimeUnit.MILLISECONDS);
+      }
+      catch (final TimeoutException ex)
+      {
+        // expected
+      }
+      assertFalse (aOther.isDone ());
+
+      aReleaseShared.countDown ();
+      aShared.get (10, TimeUnit.SECONDS);
+      aOther.get (10, TimeUnit.SECONDS);
+      assertEquals (0, aSharedActiveSeen.get ());
+    }
+    finally
+    {
+      aReleaseShared.countDown ();
+      aES.shutdown ();
+      assertTrue (aES.awaitTermination (1, TimeUnit.MINUTES));
+    }
+  }
+
+  @Test
+  public void testExclusiveWaitsForShared () throws Exception
+  {
+    // In contrast to not synchronizing at all, exclusive invocations never overlap with shared
+    // ones, as they clean up the WSSConfig afterwards
+    _assertWaitsForShared ( () -> WSSSynchronizer.call (EWSSSynchronizationMode.EXCLUSIVE, () -> null));
+  }
+
+  @Test
+  public void testCleanUpSharedWaitsForShared () throws Exception
+  {
+    // The WSSConfig is never cleaned up while a shared invocation is running
+    _assertWaitsForShared (WSSSynchronizer::cleanUpShared);
+
+    // Shared invocations after the clean up re-initialize the WSSConfig
+    assertEquals ("ok", WSSSynchronizer.call (EWSSSynchronizationMode.SHARED, () -> "ok"));
+  }
+
+  @Test
+  public void testNested ()
+  {
+    // Shared in shared, shared in exclusive and exclusive in exclusive are fine
+    assertEquals ("ok",
+                  WSSSynchronizer.call (EWSSSynchronizationMode.SHARED,
+                                        () -> WSSSynchronizer.call (EWSSSynchronizationMode.SHARED, () -> "ok")));
+    assertEquals ("ok",
+                  WSSSynchronizer.call (EWSSSynchronizationMode.EXCLUSIVE,
+                                        () -> WSSSynchronizer.call (EWSSSynchronizationMode.SHARED, () -> "ok")));
+    assertEquals ("ok",
+                  WSSSynchronizer.call (EWSSSynchronizationMode.EXCLUSIVE,
+                                        () -> WSSSynchronizer.call (EWSSSynchronizationMode.EXCLUSIVE, () -> "ok")));
+
+    // Exclusive in shared would never get the lock
+    try
+    {
+      WSSSynchronizer.call (EWSSSynchronizationMode.SHARED,
+                            () -> WSSSynchronizer.call (EWSSSynchronizationMode.EXCLUSIVE, () -> "ok"));
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+
+    // Same for the clean up
+    try
+    {
+      WSSSynchronizer.call (EWSSSynchronizationMode.SHARED, () -> {
+        WSSSynchronizer.cleanUpShared ();
+        return null;
+      });
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+
+    // The locks were released properly
+    assertEquals ("ok", WSSSynchronizer.call (EWSSSynchronizationMode.EXCLUSIVE, () -> "ok"));
+    WSSSynchronizer.cleanUpShared ();
+  }
+}
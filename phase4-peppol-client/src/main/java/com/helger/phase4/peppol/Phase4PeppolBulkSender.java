@@ -0,0 +1,758 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.w3c.dom.Document;
+
+import com.helger.annotation.Nonempty;
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.annotation.style.OverrideOnDemand;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.string.StringHelper;
+import com.helger.base.timing.StopWatch;
+import com.helger.base.tostring.ToStringGenerator;
+import com.helger.base.wrapper.Wrapper;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.peppol.sml.ISMLInfo;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.client.IAS4ClientBuildMessageCallback;
+import com.helger.phase4.crypto.AS4CertificateVerdictCache;
+import com.helger.phase4.crypto.AS4CryptoFactoryConfiguration;
+import com.helger.phase4.crypto.ECryptoMode;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderPeppol;
+import com.helger.phase4.dynamicdiscovery.AS4SMPEndpointCache;
+import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
+import com.helger.phase4.incoming.IAS4SignalMessageConsumer;
+import com.helger.phase4.logging.Phase4LoggerFactory;
+import com.helger.phase4.messaging.http.HttpRetryScheduler;
+import com.helger.phase4.messaging.http.PooledHttpPoster;
+import com.helger.phase4.messaging.mime.AS4MimeMessage;
+import com.helger.phase4.model.message.AS4UserMessage;
+import com.helger.phase4.model.message.AbstractAS4Message;
+import com.helger.phase4.peppol.Phase4PeppolSender.AbstractPeppolUserMessageBuilder;
+import com.helger.phase4.peppol.Phase4PeppolSender.PeppolUserMessageBuilder;
+import com.helger.phase4.profile.peppol.Phase4PeppolHttpClientSettings;
+import com.helger.phase4.sender.EAS4UserMessageSendResult;
+import com.helger.phase4.sender.IAS4RawResponseConsumer;
+import com.helger.phase4.sender.IAS4SendingDateTimeConsumer;
+import com.helger.phase4.util.AS4Executors;
+import com.helger.phase4.util.Phase4Exception;
+import com.helger.xsds.peppol.smp1.EndpointType;
+
+/**
+ * Send many Peppol messages at once. Per batch the expensive parts that are identical for many
+ * messages are shared:
+ * <ul>
+ * <li>SMP lookups are cached in a shared {@link AS4SMPEndpointCache}, so that each receiver
+ * endpoint is only resolved once. Use
+ * {@link AbstractPeppolUserMessageBuilder#smlDynamicDiscovery(ISMLInfo, AS4SMPEndpointCache)} to
+ * skip the DNS lookup of the SMP for cached endpoints as well</li>
+ * <li>Receiver AP certificate checks are cached in a shared {@link AS4CertificateVerdictCache}</li>
+ * <li>HTTP connections and TLS sessions are reused via a shared {@link PooledHttpPoster}</li>
+ * <li>One prepared crypto factory is used for signing and encrypting all messages</li>
+ * </ul>
+ * Each message passes three pipelined stages:
+ * <ol>
+ * <li>The resolution of the receiver endpoint (blocking network I/O, virtual threads if
+ * available)</li>
+ * <li>Building the message - SBDH creation, compression, signing and encryption. This is CPU bound
+ * and runs on a pool with one platform thread per processor.</li>
+ * <li>The HTTP exchange and the receipt handling, which run asynchronously and don't block any of
+ * the other stages.</li>
+ * </ol>
+ * All stages are limited by the maximum number of messages in flight. Messages are grouped by the
+ * resolved destination (scheme, host and port) and the number of concurrent sends per destination
+ * is limited, so that a single receiver AP is not flooded. The results are returned as a stream of
+ * {@link Phase4PeppolSendingReport}s in the order in which they complete.<br>
+ * Note: the bulk sender adds its own report related consumers (endpoint URL, technical contact,
+ * certificate, sending date time, build message callback, raw response and signal message) on each
+ * builder. Consumers that are already set on the builder are still invoked. For
+ * {@link PeppolUserMessageBuilder} a random SBDH instance identifier is set, if none is present.
+ * Caches and HTTP poster are only installed if the builder has none set. The shared crypto factory
+ * is installed if the builder has none or one created from the configuration (the default). Each
+ * builder must only be passed once.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class Phase4PeppolBulkSender implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_CONCURRENCY_PER_ENDPOINT = 8;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 512;
+  public static final Duration DEFAULT_IDLE_EVICTION_DURATION = Duration.ofMinutes (1);
+  public static final Duration DEFAULT_CLOSE_TIMEOUT = Duration.ofMinutes (5);
+
+  private static final Logger LOGGER = Phase4LoggerFactory.getLogger (Phase4PeppolBulkSender.class);
+  // End of results marker
+  private static final Object END = new Object ();
+
+  private final ISMLInfo m_aSMLInfo;
+  private final int m_nMaxConcurrencyPerEndpoint;
+  private final int m_nMaxInFlight;
+  private final ExecutorService m_aResolveExecutor;
+  private final ExecutorService m_aBuildExecutor;
+  private final ExecutorService m_aSendExecutor;
+  private final Semaphore m_aInFlightPermits;
+  private final AtomicBoolean m_aClosed = new AtomicBoolean (false);
+  private final AS4SMPEndpointCache <EndpointType> m_aEndpointCache = new AS4SMPEndpointCache <> ();
+  private final AS4CertificateVerdictCache m_aCertificateVerdictCache = new AS4CertificateVerdictCache ();
+  private final PooledHttpPoster m_aHttpPoster;
+  private final IAS4CryptoFactory m_aCryptoFactory;
+  // Destination key to the permits of that destination
+  private final Map <String, Semaphore> m_aEndpointPermits = new ConcurrentHashMap <> ();
+
+  /**
+   * Constructor using the default limits and the Peppol HTTP client settings.
+   *
+   * @param aSMLInfo
+   *        The SML information to be put into the sending reports. May not be <code>null</code>.
+   */
+  public Phase4PeppolBulkSender (@NonNull final ISMLInfo aSMLInfo)
+  {
+    this (aSMLInfo,
+          DEFAULT_MAX_CONCURRENCY_PER_ENDPOINT,
+          DEFAULT_MAX_IN_FLIGHT,
+          new HttpClientFactory (new Phase4PeppolHttpClientSettings ()));
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aSMLInfo
+   *        The SML information to be put into the sending reports. May not be <code>null</code>.
+   * @param nMaxConcurrencyPerEndpoint
+   *        The maximum number of concurrent sends to the same destination. Must be &gt; 0.
+   * @param nMaxInFlight
+   *        The maximum number of messages that are in progress at the same time. If the limit is
+   *        reached, no further messages are taken from the input until a message is finished. Must
+   *        be &gt; 0.
+   * @param aHttpClientFactory
+   *        The HTTP client factory to be used for the shared HTTP poster. May be <code>null</code>
+   *        to not use a shared HTTP poster at all.
+   */
+  public Phase4PeppolBulkSender (@NonNull final ISMLInfo aSMLInfo,
+                                 @Nonnegative final int nMaxConcurrencyPerEndpoint,
+                                 @Nonnegative final int nMaxInFlight,
+                                 @Nullable final HttpClientFactory aHttpClientFactory)
+  {
+    this (aSMLInfo,
+          nMaxConcurrencyPerEndpoint,
+          nMaxInFlight,
+          aHttpClientFactory,
+          AS4CryptoFactoryConfiguration.getDefaultInstanceOrNull ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aSMLInfo
+   *        The SML information to be put into the sending reports. May not be <code>null</code>.
+   * @param nMaxConcurrencyPerEndpoint
+   *        The maximum number of concurrent sends to the same destination. Must be &gt; 0.
+   * @param nMaxInFlight
+   *        The maximum number of messages that are in progress at the same time. If the limit is
+   *        reached, no further messages are taken from the input until a message is finished. Must
+   *        be &gt; 0.
+   * @param aHttpClientFactory
+   *        The HTTP client factory to be used for the shared HTTP poster. May be <code>null</code>
+   *        to not use a shared HTTP poster at all.
+   * @param aCryptoFactory
+   *        The crypto factory for signing and encrypting that is shared by all messages. It is
+   *        prepared once, so that the key store and trust store are not loaded per message. May be
+   *        <code>null</code> to use the crypto factories of the builders.
+   */
+  public Phase4PeppolBulkSender (@NonNull final ISMLInfo aSMLInfo,
+                                 @Nonnegative final int nMaxConcurrencyPerEndpoint,
+                                 @Nonnegative final int nMaxInFlight,
+                                 @Nullable final HttpClientFactory aHttpClientFactory,
+                                 @Nullable final IAS4CryptoFactory aCryptoFactory)
+  {
+    ValueEnforcer.notNull (aSMLInfo, "SMLInfo");
+    ValueEnforcer.isGT0 (nMaxConcurrencyPerEndpoint, "MaxConcurrencyPerEndpoint");
+    ValueEnforcer.isGT0 (nMaxInFlight, "MaxInFlight");
+    m_aSMLInfo = aSMLInfo;
+    m_nMaxConcurrencyPerEndpoint = nMaxConcurrencyPerEndpoint;
+    m_nMaxInFlight = nMaxInFlight;
+    // SMP lookups are blocking network I/O - the number is limited by the in flight permits
+    m_aResolveExecutor = AS4Executors.createTaskExecutor ("phase4-peppol-bulk-resolve-");
+    // Building, signing and encrypting is CPU bound - one platform thread per processor
+    m_aBuildExecutor = Executors.newFixedThreadPool (Runtime.getRuntime ().availableProcessors (),
+                                                     AS4Executors.createPlatformThreadFactory ("phase4-peppol-bulk-build-"));
+    m_aSendExecutor = AS4Executors.createTaskExecutor ("phase4-peppol-bulk-send-");
+    m_aInFlightPermits = new Semaphore (nMaxInFlight);
+    if (aHttpClientFactory != null)
+    {
+      m_aHttpPoster = new PooledHttpPoster (nMaxConcurrencyPerEndpoint, nMaxInFlight, DEFAULT_IDLE_EVICTION_DURATION);
+      m_aHttpPoster.setHttpClientFactory (aHttpClientFactory);
+    }
+    else
+      m_aHttpPoster = null;
+    if (aCryptoFactory != null)
+    {
+      // Create the lazily initialized crypto object once, before it is used concurrently
+      aCryptoFactory.getCrypto (ECryptoMode.ENCRYPT_SIGN);
+    }
+    m_aCryptoFactory = aCryptoFactory;
+  }
+
+  /**
+   * @return The maximum number of concurrent sends to the same destination. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxConcurrencyPerEndpoint ()
+  {
+    return m_nMaxConcurrencyPerEndpoint;
+  }
+
+  /**
+   * @return The maximum number of messages in progress at the same time. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxInFlight ()
+  {
+    return m_nMaxInFlight;
+  }
+
+  /**
+   * @return The SMP endpoint cache shared by all messages. Never <code>null</code>.
+   */
+  @NonNull
+  public final AS4SMPEndpointCache <EndpointType> getEndpointCache ()
+  {
+    return m_aEndpointCache;
+  }
+
+  /**
+   * @return The certificate verdict cache shared by all messages. Never <code>null</code>.
+   */
+  @NonNull
+  public final AS4CertificateVerdictCache getCertificateVerdictCache ()
+  {
+    return m_aCertificateVerdictCache;
+  }
+
+  /**
+   * @return The crypto factory shared by all messages. May be <code>null</code>.
+   */
+  @Nullable
+  public final IAS4CryptoFactory getCryptoFactory ()
+  {
+    return m_aCryptoFactory;
+  }
+
+  /**
+   * @return The number of messages currently in progress. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getInFlightCount ()
+  {
+    return m_nMaxInFlight - m_aInFlightPermits.availablePermits ();
+  }
+
+  /**
+   * @return The number of distinct destinations messages were sent to so far. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getDestinationCount ()
+  {
+    return m_aEndpointPermits.size ();
+  }
+
+  private static boolean _isReplaceableCryptoFactory (@Nullable final IAS4CryptoFactory aCryptoFactory)
+  {
+    return aCryptoFactory == null || aCryptoFactory instanceof AS4CryptoFactoryConfiguration;
+  }
+
+  @NonNull
+  private Phase4PeppolSendingReport _createReport (@NonNull final AbstractPeppolUserMessageBuilder <?> aBuilder)
+  {
+    final Phase4PeppolSendingReport aReport = new Phase4PeppolSendingReport (m_aSMLInfo);
+    aReport.setSenderID (aBuilder.m_aSenderID);
+    aReport.setReceiverID (aBuilder.m_aReceiverID);
+    aReport.setDocTypeID (aBuilder.m_aDocTypeID);
+    aReport.setProcessID (aBuilder.m_aProcessID);
+    aReport.setCountryC1 (aBuilder.m_sCountryC1);
+    aReport.setSenderPartyID (aBuilder.fromPartyID ());
+
+    // Share the caches and the HTTP connections
+    final IAS4EndpointDetailProvider aEndpointDetailProvider = aBuilder.endpointDetailProvider ();
+    if (aEndpointDetailProvider instanceof final AS4EndpointDetailProviderPeppol aPeppolProvider &&
+        aPeppolProvider.getEndpointCache () == null)
+      aPeppolProvider.setEndpointCache (m_aEndpointCache);
+    if (aBuilder.certificateVerdictCache () == null)
+      aBuilder.certificateVerdictCache (m_aCertificateVerdictCache);
+    if (m_aHttpPoster != null && aBuilder.customHttpPoster () == null)
+      aBuilder.customHttpPoster (m_aHttpPoster);
+    if (m_aCryptoFactory != null)
+    {
+      // The default crypto factories are created per builder from the configuration
+      if (_isReplaceableCryptoFactory (aBuilder.cryptoFactorySign ()))
+        aBuilder.cryptoFactorySign (m_aCryptoFactory);
+      if (_isReplaceableCryptoFactory (aBuilder.cryptoFactoryCrypt ()))
+        aBuilder.cryptoFactoryCrypt (m_aCryptoFactory);
+    }
+
+    // Determine the SBDH instance identifier up front, so that the SBD itself is not needed and the
+    // streaming SBD creation can still be used
+    if (aBuilder instanceof final PeppolUserMessageBuilder aPUMBuilder)
+    {
+      String sInstanceIdentifier = aPUMBuilder.sbdhInstanceIdentifier ();
+      if (StringHelper.isEmpty (sInstanceIdentifier))
+      {
+        sInstanceIdentifier = UUID.randomUUID ().toString ();
+        aPUMBuilder.sbdhInstanceIdentifier (sInstanceIdentifier);
+      }
+      aReport.setSBDHInstanceIdentifier (sInstanceIdentifier);
+    }
+
+    // Fill the report while sending - explicitly remember the existing consumers
+    final Consumer <String> aExistingEndpointURLConsumer = aBuilder.endpointURLConsumer ();
+    final Consumer <String> aExistingTechnicalContactConsumer = aBuilder.technicalContactConsumer ();
+    final IPhase4PeppolCertificateCheckResultHandler aExistingCertificateConsumer = aBuilder.certificateConsumer ();
+    final IAS4SendingDateTimeConsumer aExistingSendingDTConsumer = aBuilder.sendingDateTimeConsumer ();
+    final IAS4ClientBuildMessageCallback aExistingBuildMessageCallback = aBuilder.buildMessageCallback ();
+    final IAS4SignalMessageConsumer aExistingSignalMsgConsumer = aBuilder.signalMsgConsumer ();
+
+    aBuilder.endpointURLConsumer (sEndpointURL -> {
+      aReport.setC3EndpointURL (sEndpointURL);
+      if (aExistingEndpointURLConsumer != null)
+        aExistingEndpointURLConsumer.accept (sEndpointURL);
+    });
+    aBuilder.technicalContactConsumer (sTechnicalContact -> {
+      aReport.setC3TechnicalContact (sTechnicalContact);
+      if (aExistingTechnicalContactConsumer != null)
+        aExistingTechnicalContactConsumer.accept (sTechnicalContact);
+    });
+    aBuilder.certificateConsumer ( (aAPCertificate, aCheckDT, eCertCheckResult) -> {
+      aReport.setC3Cert (aAPCertificate);
+      aReport.setC3CertCheckDT (aCheckDT);
+      aReport.setC3CertCheckResult (eCertCheckResult);
+      if (aExistingCertificateConsumer != null)
+        aExistingCertificateConsumer.onCertificateCheckResult (aAPCertificate, aCheckDT, eCertCheckResult);
+    });
+    aBuilder.sendingDateTimeConsumer (aSendingDT -> {
+      aReport.setAS4SendingDT (aSendingDT);
+      if (aExistingSendingDTConsumer != null)
+        aExistingSendingDTConsumer.onEffectiveSendingDateTime (aSendingDT);
+    });
+    aBuilder.buildMessageCallback (new IAS4ClientBuildMessageCallback ()
+    {
+      public void onAS4Message (@NonNull final AbstractAS4Message <?> aMsg)
+      {
+        final AS4UserMessage aUserMsg = (AS4UserMessage) aMsg;
+        aReport.setAS4MessageID (aUserMsg.getEbms3UserMessage ().getMessageInfo ().getMessageId ());
+        aReport.setAS4ConversationID (aUserMsg.getEbms3UserMessage ().getCollaborationInfo ().getConversationId ());
+        if (aExistingBuildMessageCallback != null)
+          aExistingBuildMessageCallback.onAS4Message (aMsg);
+      }
+
+      public void onBuiltAttachments (@NonNull @Nonempty final ICommonsList <WSS4JAttachment> aAttachments)
+      {
+        if (aExistingBuildMessageCallback != null)
+          aExistingBuildMessageCallback.onBuiltAttachments (aAttachments);
+      }
+
+      public void onSoapDocument (@NonNull final Document aDoc)
+      {
+        if (aExistingBuildMessageCallback != null)
+          aExistingBuildMessageCallback.onSoapDocument (aDoc);
+      }
+
+      public void onSignedSoapDocument (@NonNull final Document aDoc)
+      {
+        if (aExistingBuildMessageCallback != null)
+          aExistingBuildMessageCallback.onSignedSoapDocument (aDoc);
+      }
+
+      public void onEncryptedSoapDocument (@NonNull final Document aDoc)
+      {
+        if (aExistingBuildMessageCallback != null)
+          aExistingBuildMessageCallback.onEncryptedSoapDocument (aDoc);
+      }
+
+      public void onEncryptedMimeMessage (@NonNull final AS4MimeMessage aMimeMsg)
+      {
+        if (aExistingBuildMessageCallback != null)
+          aExistingBuildMessageCallback.onEncryptedMimeMessage (aMimeMsg);
+      }
+    });
+    aBuilder.rawResponseConsumer (IAS4RawResponseConsumer.and (aReport::setRawHttpResponse,
+                                                               aBuilder.rawResponseConsumer ()));
+    aBuilder.signalMsgConsumer ( (aSignalMsg, aMessageMetadata, aState) -> {
+      aReport.setAS4ReceivedSignalMsg (aSignalMsg);
+      if (aExistingSignalMsgConsumer != null)
+        aExistingSignalMsgConsumer.handleSignalMessage (aSignalMsg, aMessageMetadata, aState);
+    });
+    return aReport;
+  }
+
+  /**
+   * Stage 1: resolve the receiver endpoint. The endpoint detail provider remembers the result, so
+   * that the lookup is not repeated when sending.
+   *
+   * @return The destination key or <code>null</code> if the resolution failed.
+   */
+  @Nullable
+  private static String _resolve (@NonNull final AbstractPeppolUserMessageBuilder <?> aBuilder,
+                                  @NonNull final Phase4PeppolSendingReport aReport)
+  {
+    final IAS4EndpointDetailProvider aEndpointDetailProvider = aBuilder.endpointDetailProvider ();
+    if (aEndpointDetailProvider == null)
+    {
+      aReport.setLookupError ("No endpoint detail provider is present");
+      return null;
+    }
+
+    final StopWatch aSW = StopWatch.createdStarted ();
+    try
+    {
+      aEndpointDetailProvider.init (aBuilder.m_aDocTypeID, aBuilder.m_aProcessID, aBuilder.m_aReceiverID);
+      return HttpRetryScheduler.getDestinationKey (aEndpointDetailProvider.getReceiverAPEndpointURL ());
+    }
+    catch (final Phase4Exception | RuntimeException ex)
+    {
+      LOGGER.error ("Failed to resolve the receiver endpoint of '" + aBuilder.m_aReceiverID + "'", ex);
+      aReport.setLookupError ("Failed to resolve the receiver endpoint: " + ex.getMessage ());
+      aReport.setLookupException (ex);
+      return null;
+    }
+    finally
+    {
+      aReport.setLookupDurationMillis (aSW.stopAndGetMillis ());
+    }
+  }
+
+  /**
+   * Wait for a free sending slot of the provided destination. This happens at the end of stage 1,
+   * so that no thread of the build stage is blocked by a busy destination.
+   *
+   * @return The permits of the destination, of which one was acquired. Never <code>null</code>.
+   */
+  @NonNull
+  private Semaphore _acquireDestinationPermit (@NonNull final String sDestinationKey)
+  {
+    final Semaphore aPermits = m_aEndpointPermits.computeIfAbsent (sDestinationKey,
+                                                                   k -> new Semaphore (m_nMaxConcurrencyPerEndpoint));
+    aPermits.acquireUninterruptibly ();
+    return aPermits;
+  }
+
+  /**
+   * Stage 2 and 3: build the message in the calling thread and send it asynchronously. The
+   * destination permit is released after the sending finished.
+   */
+  @NonNull
+  private CompletableFuture <Phase4PeppolSendingReport> _send (@NonNull final AbstractPeppolUserMessageBuilder <?> aBuilder,
+                                                              @NonNull final Phase4PeppolSendingReport aReport,
+                                                              @NonNull final Semaphore aPermits)
+  {
+    final StopWatch aSW = StopWatch.createdStarted ();
+    final Wrapper <Phase4Exception> aCaughtEx = new Wrapper <> ();
+    CompletableFuture <EAS4UserMessageSendResult> aFuture;
+    try
+    {
+      aFuture = sendMessageAsync (aBuilder, aCaughtEx::set);
+    }
+    catch (final RuntimeException ex)
+    {
+      aFuture = CompletableFuture.failedFuture (ex);
+    }
+
+    return aFuture.handle ( (eResult, ex) -> {
+      aPermits.release ();
+      aReport.setAS4SendingDurationMillis (aSW.stopAndGetMillis ());
+
+      boolean bExceptionCaught = false;
+      if (ex != null)
+      {
+        final Throwable aCause = ex instanceof CompletionException && ex.getCause () != null ? ex.getCause () : ex;
+        LOGGER.error ("Error sending Peppol message via AS4", aCause);
+        aReport.setAS4SendingException (aCause instanceof final Exception aEx ? aEx
+                                                                               : new IllegalStateException (aCause));
+        bExceptionCaught = true;
+      }
+      else
+      {
+        aReport.setAS4SendingResult (eResult);
+        if (aCaughtEx.isSet ())
+        {
+          final Phase4Exception aP4Ex = aCaughtEx.get ();
+          LOGGER.error ("Error sending Peppol message via AS4", aP4Ex);
+          aReport.setAS4SendingException (aP4Ex);
+          bExceptionCaught = true;
+        }
+      }
+
+      final boolean bSendingSuccess = eResult != null && eResult.isSuccess ();
+      aReport.setSendingSuccess (bSendingSuccess);
+      aReport.setOverallSuccess (bSendingSuccess && !bExceptionCaught);
+      return aReport;
+    });
+  }
+
+  /**
+   * Send a single message and wait for the receipt asynchronously. This method is invoked in a
+   * thread of the build stage after the receiver endpoint was resolved, while a permit for the
+   * destination is held. It should return as soon as the message is built, and leave the HTTP
+   * exchange to the returned future.
+   *
+   * @param aBuilder
+   *        The builder of the message to be sent. Never <code>null</code>.
+   * @param aExceptionConsumer
+   *        The consumer for a caught exception. Never <code>null</code>.
+   * @return The future with the sending result. May not be <code>null</code>.
+   */
+  @NonNull
+  @OverrideOnDemand
+  protected CompletableFuture <EAS4UserMessageSendResult> sendMessageAsync (@NonNull final AbstractPeppolUserMessageBuilder <?> aBuilder,
+                                                                           @NonNull final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    return aBuilder.sendMessageAndCheckForReceiptAsync (aExceptionConsumer);
+  }
+
+  @NonNull
+  private CompletableFuture <Phase4PeppolSendingReport> _process (@NonNull final AbstractPeppolUserMessageBuilder <?> aBuilder)
+  {
+    final StopWatch aSW = StopWatch.createdStarted ();
+    final Phase4PeppolSendingReport aReport = _createReport (aBuilder);
+    return CompletableFuture.supplyAsync ( () -> {
+      final String sDestinationKey = _resolve (aBuilder, aReport);
+      return sDestinationKey == null ? null : _acquireDestinationPermit (sDestinationKey);
+    }, m_aResolveExecutor).thenComposeAsync (aPermits -> {
+      if (aPermits == null)
+        return CompletableFuture.completedFuture (aReport);
+      return _send (aBuilder, aReport, aPermits);
+    }, m_aBuildExecutor).exceptionally (ex -> {
+      // E.g. rejected because of shutdown
+      LOGGER.error ("Error processing Peppol message", ex);
+      aReport.setAS4SendingException (ex instanceof final Exception aEx ? aEx : new IllegalStateException (ex));
+      aReport.setSendingSuccess (false);
+      aReport.setOverallSuccess (false);
+      return aReport;
+    }).whenComplete ( (x, ex) -> aReport.setOverallDurationMillis (aSW.stopAndGetMillis ()));
+  }
+
+  /**
+   * Send all provided messages. The input stream is consumed lazily in the background, so that at
+   * most the configured number of messages is in progress at the same time.
+   *
+   * @param aBuilders
+   *        The builders of the messages to be sent. May not be <code>null</code>. Each builder must
+   *        be completely filled and must not be modified afterwards.
+   * @return A stream with one sending report per message, in the order in which they complete.
+   *         Never <code>null</code>. Retrieving the next element blocks until the next message is
+   *         finished. If the bulk sender is closed in the meantime, the messages that were not yet
+   *         started are not sent and not reported.
+   * @throws IllegalStateException
+   *         If the bulk sender was already closed
+   */
+  @NonNull
+  public Stream <Phase4PeppolSendingReport> sendAll (@NonNull final Stream <? extends AbstractPeppolUserMessageBuilder <?>> aBuilders)
+  {
+    ValueEnforcer.notNull (aBuilders, "Builders");
+    if (m_aClosed.get ())
+      throw new IllegalStateException ("The bulk sender was already closed");
+
+    final BlockingQueue <Object> aResults = new LinkedBlockingQueue <> ();
+    // 1 for the producer itself
+    final AtomicInteger aOutstanding = new AtomicInteger (1);
+    final Runnable aOnFinished = () -> {
+      if (aOutstanding.decrementAndGet () == 0)
+        aResults.add (END);
+    };
+    final Consumer <Phase4PeppolSendingReport> aOnReport = aReport -> {
+      aResults.add (aReport);
+      m_aInFlightPermits.release ();
+      aOnFinished.run ();
+    };
+
+    m_aSendExecutor.execute ( () -> {
+      try
+      {
+        final Iterator <? extends AbstractPeppolUserMessageBuilder <?>> aBuilderIter = aBuilders.iterator ();
+        while (aBuilderIter.hasNext ())
+        {
+          final AbstractPeppolUserMessageBuilder <?> aBuilder = aBuilderIter.next ();
+          m_aInFlightPermits.acquireUninterruptibly ();
+          if (m_aClosed.get ())
+          {
+            m_aInFlightPermits.release ();
+            LOGGER.warn ("The bulk sender was closed - not sending the remaining messages");
+            break;
+          }
+          aOutstanding.incrementAndGet ();
+          final CompletableFuture <Phase4PeppolSendingReport> aFuture;
+          try
+          {
+            aFuture = _process (aBuilder);
+          }
+          catch (final RuntimeException ex)
+          {
+            // E.g. rejected because of shutdown - continue with the next message
+            LOGGER.error ("Error starting to process Peppol message", ex);
+            final Phase4PeppolSendingReport aReport = new Phase4PeppolSendingReport (m_aSMLInfo);
+            aReport.setAS4SendingException (ex);
+            aReport.setSendingSuccess (false);
+            aReport.setOverallSuccess (false);
+            aOnReport.accept (aReport);
+            continue;
+          }
+          aFuture.thenAccept (aOnReport);
+        }
+      }
+      catch (final RuntimeException ex)
+      {
+        LOGGER.error ("Error reading the messages to be sent", ex);
+      }
+      finally
+      {
+        aOnFinished.run ();
+      }
+    });
+
+    final Iterator <Phase4PeppolSendingReport> aIter = new Iterator <> ()
+    {
+      private Object m_aNext;
+
+      public boolean hasNext ()
+      {
+        if (m_aNext == null)
+        {
+          try
+          {
+            m_aNext = aResults.take ();
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+            m_aNext = END;
+          }
+        }
+        return m_aNext != END;
+      }
+
+      public Phase4PeppolSendingReport next ()
+      {
+        if (!hasNext ())
+          throw new NoSuchElementException ();
+        final Phase4PeppolSendingReport ret = (Phase4PeppolSendingReport) m_aNext;
+        m_aNext = null;
+        return ret;
+      }
+    };
+    return StreamSupport.stream (Spliterators.spliteratorUnknownSize (aIter,
+                                                                      Spliterator.NONNULL | Spliterator.ORDERED),
+                                 false);
+  }
+
+  /**
+   * Same as {@link #close(Duration)} using {@link #DEFAULT_CLOSE_TIMEOUT}.
+   */
+  public void close ()
+  {
+    close (DEFAULT_CLOSE_TIMEOUT);
+  }
+
+  /**
+   * Stop taking new messages, wait until all messages in progress are finished, shutdown the
+   * executors and close the shared HTTP poster. Messages that are still in progress after the
+   * timeout are abandoned.
+   *
+   * @param aTimeout
+   *        The maximum time to wait for the messages in progress. May not be <code>null</code>.
+   */
+  public void close (@NonNull final Duration aTimeout)
+  {
+    ValueEnforcer.notNull (aTimeout, "Timeout");
+    if (!m_aClosed.compareAndSet (false, true))
+      return;
+
+    final long nDeadline = System.nanoTime () + aTimeout.toNanos ();
+    try
+    {
+      // All permits are available once no message is in progress
+      if (m_aInFlightPermits.tryAcquire (m_nMaxInFlight, aTimeout.toNanos (), TimeUnit.NANOSECONDS))
+      {
+        // Wake up a producer waiting for a permit, so that it notices the close
+        m_aInFlightPermits.release (m_nMaxInFlight);
+      }
+      else
+        LOGGER.warn ("Closing the bulk sender with " + getInFlightCount () + " messages still in progress");
+
+      m_aResolveExecutor.shutdown ();
+      m_aBuildExecutor.shutdown ();
+      m_aSendExecutor.shutdown ();
+      // Only the producers may still run
+      final long nRemainingNanos = Math.max (0, nDeadline - System.nanoTime ());
+      m_aSendExecutor.awaitTermination (nRemainingNanos, TimeUnit.NANOSECONDS);
+    }
+    catch (final InterruptedException ex)
+    {
+      LOGGER.warn ("Interrupted while waiting for the messages in progress");
+      Thread.currentThread ().interrupt ();
+      m_aResolveExecutor.shutdown ();
+      m_aBuildExecutor.shutdown ();
+      m_aSendExecutor.shutdown ();
+    }
+    finally
+    {
+      if (m_aHttpPoster != null)
+        m_aHttpPoster.close ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxConcurrencyPerEndpoint", m_nMaxConcurrencyPerEndpoint)
+                                       .append ("MaxInFlight", m_nMaxInFlight)
+                                       .append ("DestinationCount", m_aEndpointPermits.size ())
+                                       .append ("HttpPoster", m_aHttpPoster)
+                                       .append ("CryptoFactory", m_aCryptoFactory)
+                                       .append ("Closed", m_aClosed.get ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocumentHeader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.base.string.StringHelper;
+import com.helger.sbdh.CSBDH;
+import com.helger.xml.XMLFactory;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+
+/**
+ * A DOM-free writer for Standard Business Documents. The SBDH header is emitted via StAX and the
+ * business payload bytes are copied through verbatim. Only the root element of the payload is
+ * peeked to determine namespace URI and local name. This allows the creation of an SBD for
+ * arbitrary large payloads without materializing the payload in memory.<br>
+ * Verbatim copying requires the payload to be UTF-8 (or US-ASCII) encoded and to not contain a
+ * DOCTYPE declaration.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@Immutable
+public final class Phase4PeppolSBDHStreamWriter
+{
+  private static final String SBDH_PREFIX = "sh";
+  private static final String ELEMENT_STANDARD_BUSINESS_DOCUMENT = "StandardBusinessDocument";
+  private static final String ELEMENT_STANDARD_BUSINESS_DOCUMENT_HEADER = "StandardBusinessDocumentHeader";
+  private static final byte [] UTF8_BOM = { (byte) 0xef, (byte) 0xbb, (byte) 0xbf };
+  private static final byte [] XML_DECL_START = "<?xml".getBytes (StandardCharsets.US_ASCII);
+  private static final byte [] SBD_END = ("</" +
+                                          SBDH_PREFIX +
+                                          ":" +
+                                          ELEMENT_STANDARD_BUSINESS_DOCUMENT +
+                                          ">").getBytes (StandardCharsets.US_ASCII);
+
+  private static final class SingletonHolder
+  {
+    static final XMLInputFactory INPUT_FACTORY = _createInputFactory ();
+    static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory ();
+    static final JAXBContext JAXB_CONTEXT = _createJAXBContext ();
+  }
+
+  private Phase4PeppolSBDHStreamWriter ()
+  {}
+
+  @NonNull
+  private static XMLInputFactory _createInputFactory ()
+  {
+    final XMLInputFactory ret = XMLInputFactory.newFactory ();
+    // No DTDs and no external entities - XXE prevention
+    ret.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    ret.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    ret.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    return ret;
+  }
+
+  @NonNull
+  private static JAXBContext _createJAXBContext ()
+  {
+    try
+    {
+      return JAXBContext.newInstance (StandardBusinessDocumentHeader.class);
+    }
+    catch (final JAXBException ex)
+    {
+      throw new IllegalStateException ("Failed to create JAXBContext for the SBDH header", ex);
+    }
+  }
+
+  private static boolean _isVerbatimEncoding (@Nullable final String sEncoding)
+  {
+    return sEncoding == null ||
+           sEncoding.equalsIgnoreCase (StandardCharsets.UTF_8.name ()) ||
+           sEncoding.equalsIgnoreCase ("UTF8") ||
+           sEncoding.equalsIgnoreCase (StandardCharsets.US_ASCII.name ());
+  }
+
+  /**
+   * Peek the root element of the provided XML payload. Only the XML prolog and the root element
+   * start tag are read.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. Is not closed by this
+   *        method.
+   * @return The qualified name of the root element or <code>null</code> if the payload cannot be
+   *         copied verbatim into an SBD, because of its encoding or a DOCTYPE declaration.
+   * @throws XMLStreamException
+   *         If the payload is not well-formed or has no root element.
+   */
+  @Nullable
+  public static QName peekRootElement (@NonNull final InputStream aIS) throws XMLStreamException
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+
+    final XMLStreamReader aReader = SingletonHolder.INPUT_FACTORY.createXMLStreamReader (aIS);
+    try
+    {
+      if (!_isVerbatimEncoding (aReader.getCharacterEncodingScheme ()) ||
+          !_isVerbatimEncoding (aReader.getEncoding ()))
+        return null;
+
+      while (aReader.hasNext ())
+      {
+        final int nEvent = aReader.next ();
+        if (nEvent == XMLStreamConstants.DTD)
+          return null;
+        if (nEvent == XMLStreamConstants.START_ELEMENT)
+          return aReader.getName ();
+      }
+      throw new XMLStreamException ("The payload has no root element");
+    }
+    finally
+    {
+      aReader.close ();
+    }
+  }
+
+  /**
+   * Create an empty placeholder element with the provided name. This can be used as the business
+   * message of {@link com.helger.peppol.sbdh.PeppolSBDHData}, if only the header should be
+   * created.
+   *
+   * @param aRootName
+   *        The qualified name of the payload root element. May not be <code>null</code>.
+   * @return A new element without children. Never <code>null</code>.
+   */
+  @NonNull
+  public static Element createPlaceholderElement (@NonNull final QName aRootName)
+  {
+    ValueEnforcer.notNull (aRootName, "RootName");
+
+    final Document aDoc = XMLFactory.newDocument ();
+    final String sNamespaceURI = aRootName.getNamespaceURI ();
+    final String sPrefix = aRootName.getPrefix ();
+    final Element ret = aDoc.createElementNS (StringHelper.isEmpty (sNamespaceURI) ? null : sNamespaceURI,
+                                              StringHelper.isEmpty (sPrefix) ? aRootName.getLocalPart ()
+                                                                             : sPrefix + ":" + aRootName.getLocalPart ());
+    aDoc.appendChild (ret);
+    return ret;
+  }
+
+  private static int _readFully (@NonNull final InputStream aIS,
+                                 final byte @NonNull [] aBuf,
+                                 final int nOfs,
+                                 final int nLen) throws IOException
+  {
+    int nTotal = 0;
+    while (nTotal < nLen)
+    {
+      final int nRead = aIS.read (aBuf, nOfs + nTotal, nLen - nTotal);
+      if (nRead < 0)
+        break;
+      nTotal += nRead;
+    }
+    return nTotal;
+  }
+
+  /**
+   * Skip an eventual UTF-8 BOM and the XML declaration of the provided stream.
+   */
+  private static void _skipXMLDeclaration (@NonNull final PushbackInputStream aIS) throws IOException
+  {
+    final byte [] aBuf = new byte [UTF8_BOM.length];
+    int nRead = _readFully (aIS, aBuf, 0, aBuf.length);
+    if (nRead != UTF8_BOM.length ||
+        aBuf[0] != UTF8_BOM[0] ||
+        aBuf[1] != UTF8_BOM[1] ||
+        aBuf[2] != UTF8_BOM[2])
+    {
+      // No BOM
+      if (nRead > 0)
+        aIS.unread (aBuf, 0, nRead);
+    }
+
+    final byte [] aDecl = new byte [XML_DECL_START.length + 1];
+    nRead = _readFully (aIS, aDecl, 0, aDecl.length);
+    boolean bIsDecl = nRead == aDecl.length;
+    for (int i = 0; bIsDecl && i < XML_DECL_START.length; ++i)
+      if (aDecl[i] != XML_DECL_START[i])
+        bIsDecl = false;
+    // Must be followed by whitespace, otherwise it is a PI like "<?xml-stylesheet"
+    if (bIsDecl && Character.isWhitespace (aDecl[XML_DECL_START.length]))
+    {
+      // Skip until "?>"
+      int nPrev = -1;
+      int nCur;
+      while ((nCur = aIS.read ()) >= 0)
+      {
+        if (nPrev == '?' && nCur == '>')
+          return;
+        nPrev = nCur;
+      }
+      throw new IOException ("Unterminated XML declaration in payload");
+    }
+    if (nRead > 0)
+      aIS.unread (aDecl, 0, nRead);
+  }
+
+  /**
+   * Write a complete Standard Business Document to the provided output stream. The header is
+   * marshalled via StAX and the payload is copied verbatim, only an eventual BOM and XML
+   * declaration are skipped. The payload must have been checked with
+   * {@link #peekRootElement(InputStream)} before.
+   *
+   * @param aHeader
+   *        The SBDH header to write. May not be <code>null</code>.
+   * @param aPayloadIS
+   *        The input stream of the payload. May not be <code>null</code>. Is not closed by this
+   *        method.
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>. Is not closed by this
+   *        method.
+   * @throws IOException
+   *         In case of an IO error
+   * @throws XMLStreamException
+   *         In case of an XML writing error
+   * @throws JAXBException
+   *         In case the header cannot be marshalled
+   */
+  public static void writeStandardBusinessDocument (@NonNull final StandardBusinessDocumentHeader aHeader,
+                                                    @NonNull final InputStream aPayloadIS,
+                                                    @NonNull final OutputStream aOS) throws IOException,
+                                                                                     XMLStreamException,
+                                                                                     JAXBException
+  {
+    ValueEnforcer.notNull (aHeader, "Header");
+    ValueEnforcer.notNull (aPayloadIS, "PayloadIS");
+    ValueEnforcer.notNull (aOS, "OS");
+
+    // Root element and header via StAX
+    final XMLStreamWriter aWriter = SingletonHolder.OUTPUT_FACTORY.createXMLStreamWriter (aOS,
+                                                                                           StandardCharsets.UTF_8.name ());
+    aWriter.writeStartDocument (StandardCharsets.UTF_8.name (), "1.0");
+    aWriter.writeStartElement (SBDH_PREFIX, ELEMENT_STANDARD_BUSINESS_DOCUMENT, CSBDH.SBDH_NS);
+    aWriter.writeNamespace (SBDH_PREFIX, CSBDH.SBDH_NS);
+    aWriter.setPrefix (SBDH_PREFIX, CSBDH.SBDH_NS);
+
+    final Marshaller aMarshaller = SingletonHolder.JAXB_CONTEXT.createMarshaller ();
+    aMarshaller.setProperty (Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+    aMarshaller.marshal (new JAXBElement <> (new QName (CSBDH.SBDH_NS, ELEMENT_STANDARD_BUSINESS_DOCUMENT_HEADER),
+                                             StandardBusinessDocumentHeader.class,
+                                             aHeader),
+                         aWriter);
+    // Don't close the writer, as that would not write the end element anyway
+    aWriter.flush ();
+
+    // Payload verbatim
+    final PushbackInputStream aPIS = new PushbackInputStream (aPayloadIS, XML_DECL_START.length + 1);
+    _skipXMLDeclaration (aPIS);
+    if (StreamHelper.copyByteStream ()
+                    .from (aPIS)
+                    .closeFrom (false)
+                    .to (aOS)
+                    .closeTo (false)
+                    .build ()
+                    .isFailure ())
+      throw new IOException ("Failed to copy the payload into the SBD");
+
+    // End of root element
+    aOS.write (SBD_END);
+    aOS.flush ();
+  }
+}
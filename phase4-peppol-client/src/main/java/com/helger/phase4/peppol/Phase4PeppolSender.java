@@ -19,6 +19,7 @@ package com.helger.phase4.peppol;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
@@ -26,10 +27,14 @@ import java.time.OffsetDateTime;
 import java.util.UUID;
 import java.util.function.Consumer;
 
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
 import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocumentHeader;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -39,11 +44,14 @@ import com.helger.annotation.concurrent.Immutable;
 import com.helger.annotation.concurrent.NotThreadSafe;
 import com.helger.base.enforce.ValueEnforcer;
 import com.helger.base.io.iface.IHasInputStream;
+import com.helger.base.io.nonblocking.NonBlockingBufferedOutputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
 import com.helger.base.state.ESuccess;
 import com.helger.base.state.ETriState;
 import com.helger.base.string.StringHelper;
 import com.helger.cache.regex.RegExHelper;
 import com.helger.diver.api.coord.DVRCoordinate;
+import com.helger.io.file.FileHelper;
 import com.helger.mime.CMimeType;
 import com.helger.mime.IMimeType;
 import com.helger.peppol.reporting.api.PeppolReportingHelper;
@@ -59,6 +67,7 @@ import com.helger.peppol.sbdh.payload.PeppolSBDHPayloadTextMarshaller;
 import com.helger.peppol.sbdh.spec12.BinaryContentType;
 import com.helger.peppol.sbdh.spec12.TextContentType;
 import com.helger.peppol.security.PeppolTrustedCA;
+import com.helger.peppol.sml.ISMLInfo;
 import com.helger.peppolid.IDocumentTypeIdentifier;
 import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.IProcessIdentifier;
@@ -70,8 +79,10 @@ import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.AS4OutgoingAttachment;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.AS4CertificateVerdictCache;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderPeppol;
+import com.helger.phase4.dynamicdiscovery.AS4SMPEndpointCache;
 import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
 import com.helger.phase4.logging.Phase4LoggerFactory;
 import com.helger.phase4.mgr.MetaAS4Manager;
@@ -98,6 +109,8 @@ import com.helger.smpclient.url.PeppolNaptrURLProvider;
 import com.helger.xml.serialize.read.DOMReader;
 import com.helger.xsds.peppol.smp1.EndpointType;
 
+import jakarta.xml.bind.JAXBException;
+
 /**
  * This class contains all the specifics to send AS4 messages to the Peppol Network. See
  * <code>sendAS4Message</code> as the main method to trigger the sending, with all potential
@@ -429,6 +442,8 @@ public final class Phase4PeppolSender
    * @param aCAChecker
    *        The Peppol CA checker to be used to verify the Peppol AP certificate. May not be
    *        <code>null</code>.
+   * @param aVerdictCache
+   *        The optional cache for the check results. May be <code>null</code>.
    * @param aReceiverCert
    *        The determined receiver AP certificate to check. Never <code>null</code>.
    * @param aCertificateConsumer
@@ -450,6 +465,7 @@ public final class Phase4PeppolSender
    *         in case of error
    */
   private static void _checkReceiverAPCert (@NonNull final TrustedCAChecker aCAChecker,
+                                            @Nullable final AS4CertificateVerdictCache aVerdictCache,
                                             @Nullable final X509Certificate aReceiverCert,
                                             @Nullable final IPhase4PeppolCertificateCheckResultHandler aCertificateConsumer,
                                             @NonNull final ETriState eCacheRevocationCheckResult,
@@ -460,10 +476,15 @@ public final class Phase4PeppolSender
       LOGGER.debug ("Using the following receiver AP certificate from the SMP: " + aReceiverCert);
 
     final OffsetDateTime aNow = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
-    final ECertificateCheckResult eCertCheckResult = aCAChecker.checkCertificate (aReceiverCert,
-                                                                                  aNow,
-                                                                                  eCacheRevocationCheckResult,
-                                                                                  eCheckMode);
+    final ECertificateCheckResult eCertCheckResult = aVerdictCache != null ? aVerdictCache.checkCertificate (aCAChecker,
+                                                                                                             aReceiverCert,
+                                                                                                             aNow,
+                                                                                                             eCacheRevocationCheckResult,
+                                                                                                             eCheckMode)
+                                                                           : aCAChecker.checkCertificate (aReceiverCert,
+                                                                                                          aNow,
+                                                                                                          eCacheRevocationCheckResult,
+                                                                                                          eCheckMode);
 
     // Interested in the certificate?
     if (aCertificateConsumer != null)
@@ -553,6 +574,7 @@ public final class Phase4PeppolSender
     private ETriState m_eAPCacheRevocationCheckResult = ETriState.UNDEFINED;
     private ERevocationCheckMode m_eAPRevocationCheckMode;
     private boolean m_bAPRevocationSoftFail = CertificateRevocationCheckerDefaults.isAllowSoftFail ();
+    private AS4CertificateVerdictCache m_aCertificateVerdictCache;
     private boolean m_bPerformSeatIDCheck = DEFAULT_PERFORM_SEATID_CHECK;
 
     // Status var
@@ -783,6 +805,16 @@ public final class Phase4PeppolSender
       return thisAsT ();
     }
 
+    /**
+     * @return The currently set endpoint detail provider. May be <code>null</code>.
+     * @since 4.5.5
+     */
+    @Nullable
+    public final IAS4EndpointDetailProvider endpointDetailProvider ()
+    {
+      return m_aEndpointDetailProvider;
+    }
+
     /**
      * Set the SMP client to be used. This is the point where e.g. the differentiation between SMK
      * and SML can be done. This must be set prior to sending. If the endpoint information are
@@ -801,6 +833,49 @@ public final class Phase4PeppolSender
       return endpointDetailProvider (AS4EndpointDetailProviderPeppol.create (aSMPClient));
     }
 
+    /**
+     * Set the SMP client to be used together with a shared endpoint cache. Use this if many
+     * messages are sent to recurring receivers, so that the SMP lookup is not performed for every
+     * single message.
+     *
+     * @param aSMPClient
+     *        The SMP client to be used. May not be <code>null</code>.
+     * @param aEndpointCache
+     *        The shared endpoint cache to be used. May be <code>null</code>.
+     * @return this for chaining
+     * @see #smpClient(SMPClientReadOnly)
+     * @since 4.5.5
+     */
+    @NonNull
+    public final IMPLTYPE smpClient (@NonNull final SMPClientReadOnly aSMPClient,
+                                     @Nullable final AS4SMPEndpointCache <EndpointType> aEndpointCache)
+    {
+      return endpointDetailProvider (AS4EndpointDetailProviderPeppol.create (aSMPClient)
+                                                                    .setEndpointCache (aEndpointCache));
+    }
+
+    /**
+     * Use dynamic discovery via the provided SML together with a shared endpoint cache. In contrast
+     * to {@link #smpClient(SMPClientReadOnly, AS4SMPEndpointCache)} the SMP client is only created
+     * if the endpoint is not cached, so the DNS lookup of the receiver's SMP is skipped for cached
+     * endpoints. The SMP is resolved with {@link Phase4PeppolSender#URL_PROVIDER}.
+     *
+     * @param aSMLInfo
+     *        The SML to use for resolving the SMP of the receiver. May not be <code>null</code>.
+     * @param aEndpointCache
+     *        The shared endpoint cache to be used. May be <code>null</code>.
+     * @return this for chaining
+     * @see #smpClient(SMPClientReadOnly, AS4SMPEndpointCache)
+     * @since 4.5.5
+     */
+    @NonNull
+    public final IMPLTYPE smlDynamicDiscovery (@NonNull final ISMLInfo aSMLInfo,
+                                               @Nullable final AS4SMPEndpointCache <EndpointType> aEndpointCache)
+    {
+      return endpointDetailProvider (AS4EndpointDetailProviderPeppol.createDynamic (URL_PROVIDER, aSMLInfo)
+                                                                    .setEndpointCache (aEndpointCache));
+    }
+
     /**
      * Use this method to explicit set the AP certificate and AP endpoint URL that was retrieved
      * from a previous SMP query.
@@ -838,6 +913,16 @@ public final class Phase4PeppolSender
       return endpointDetailProvider (new AS4EndpointDetailProviderConstant (aCert, sDestURL));
     }
 
+    /**
+     * @return The currently set consumer for the retrieved certificate. May be <code>null</code>.
+     * @since 4.5.5
+     */
+    @Nullable
+    public final IPhase4PeppolCertificateCheckResultHandler certificateConsumer ()
+    {
+      return m_aAPCertificateConsumer;
+    }
+
     /**
      * Set an optional Consumer for the retrieved certificate from the endpoint details provider,
      * independent of its usability.
@@ -853,6 +938,16 @@ public final class Phase4PeppolSender
       return thisAsT ();
     }
 
+    /**
+     * @return The currently set consumer for the destination AP address. May be <code>null</code>.
+     * @since 4.5.5
+     */
+    @Nullable
+    public final Consumer <String> endpointURLConsumer ()
+    {
+      return m_aAPEndpointURLConsumer;
+    }
+
     /**
      * Set an optional Consumer for the destination AP address retrieved from the endpoint details
      * provider, independent of its usability.
@@ -869,6 +964,16 @@ public final class Phase4PeppolSender
       return thisAsT ();
     }
 
+    /**
+     * @return The currently set consumer for the technical contact. May be <code>null</code>.
+     * @since 4.5.5
+     */
+    @Nullable
+    public final Consumer <String> technicalContactConsumer ()
+    {
+      return m_aAPTechnicalContactConsumer;
+    }
+
     /**
      * Set an optional Consumer for the technical contact retrieved from the endpoint details
      * provider, independent of its usability.
@@ -983,6 +1088,36 @@ public final class Phase4PeppolSender
       return thisAsT ();
     }
 
+    /**
+     * @return The currently set cache for the receiver AP certificate check results. May be
+     *         <code>null</code>.
+     * @since 4.5.5
+     */
+    @Nullable
+    public final AS4CertificateVerdictCache certificateVerdictCache ()
+    {
+      return m_aCertificateVerdictCache;
+    }
+
+    /**
+     * Set the cache for the receiver AP certificate check results. If set, the path validation and
+     * revocation check results are reused for subsequent messages to the same receiver AP. This is
+     * only applied if {@link #checkReceiverAPCertificate(boolean)} is <code>true</code>.
+     *
+     * @param aCertificateVerdictCache
+     *        The cache to use. May be <code>null</code> to check the certificate on every send (the
+     *        default).
+     * @return this for chaining
+     * @see AS4CertificateVerdictCache#getDefaultInstance()
+     * @since 4.5.5
+     */
+    @NonNull
+    public final IMPLTYPE certificateVerdictCache (@Nullable final AS4CertificateVerdictCache aCertificateVerdictCache)
+    {
+      m_aCertificateVerdictCache = aCertificateVerdictCache;
+      return thisAsT ();
+    }
+
     /**
      * Disable the SeatID check for outbound messages - this is only needed when handling Nemhandel
      * messages. Based on issue #376.
@@ -1059,6 +1194,7 @@ public final class Phase4PeppolSender
         // Check if the received certificate is a valid Peppol AP certificate
         // Throws Phase4PeppolException in case of error
         _checkReceiverAPCert (m_aCAChecker,
+                              m_aCertificateVerdictCache,
                               aReceiverCert,
                               m_aAPCertificateConsumer,
                               m_eAPCacheRevocationCheckResult,
@@ -1294,6 +1430,8 @@ public final class Phase4PeppolSender
   @NotThreadSafe
   public static class PeppolUserMessageBuilder extends AbstractPeppolUserMessageBuilder <PeppolUserMessageBuilder>
   {
+    public static final boolean DEFAULT_STREAMING_SBDH_CREATION = false;
+
     private String m_sSBDHInstanceIdentifier;
     private String m_sSBDHStandard;
     private String m_sSBDHTypeVersion;
@@ -1304,6 +1442,7 @@ public final class Phase4PeppolSender
     private byte [] m_aPayloadBytes;
     private IHasInputStream m_aPayloadHasIS;
     private Consumer <? super StandardBusinessDocument> m_aSBDDocumentConsumer;
+    private boolean m_bStreamingSBDHCreation = DEFAULT_STREAMING_SBDH_CREATION;
 
     private IValidationExecutorSetRegistry <IValidationSourceXML> m_aVESRegistry;
     private DVRCoordinate m_aVESID;
@@ -1317,6 +1456,16 @@ public final class Phase4PeppolSender
     public PeppolUserMessageBuilder ()
     {}
 
+    /**
+     * @return The currently set SBDH instance identifier. May be <code>null</code>.
+     * @since 4.5.5
+     */
+    @Nullable
+    public String sbdhInstanceIdentifier ()
+    {
+      return m_sSBDHInstanceIdentifier;
+    }
+
     /**
      * Set the SBDH instance identifier. If none is provided, a random ID is used. Usually this must
      * NOT be set. In case of a retry, the same Instance Identifier should be used. Also an MLR
@@ -1548,6 +1697,30 @@ public final class Phase4PeppolSender
       return this;
     }
 
+    /**
+     * Enable or disable the streaming creation of the SBD. If enabled, the payload provided as bytes
+     * or as an input stream provider is not parsed into a DOM. Instead only the root element is
+     * peeked, the SBDH header is written via StAX and the payload bytes are copied verbatim into the
+     * SBD, which is compressed directly into the outgoing attachment file. This massively reduces
+     * the memory consumption for large payloads.<br>
+     * The streaming creation is only used, if the payload is not provided as a DOM element, no SBD
+     * document consumer and no validation is configured, an input stream provider can be read
+     * multiple times and the payload is UTF-8 encoded without a DOCTYPE. Otherwise the regular DOM
+     * based creation is used.
+     *
+     * @param bStreamingSBDHCreation
+     *        <code>true</code> to enable streaming creation, <code>false</code> to disable it.
+     * @return this for chaining
+     * @since 4.5.5
+     * @see #DEFAULT_STREAMING_SBDH_CREATION
+     */
+    @NonNull
+    public PeppolUserMessageBuilder streamingSBDHCreation (final boolean bStreamingSBDHCreation)
+    {
+      m_bStreamingSBDHCreation = bStreamingSBDHCreation;
+      return this;
+    }
+
     /**
      * Set a custom validation registry to use in VESID lookup. This may be needed if other Peppol
      * formats like XRechnung or SimplerInvoicing should be send through this client. The same
@@ -1628,9 +1801,126 @@ public final class Phase4PeppolSender
       return validationConfiguration (null, null);
     }
 
+    @NonNull
+    private InputStream _openPayloadStream () throws Phase4PeppolException
+    {
+      if (m_aPayloadBytes != null)
+        return new NonBlockingByteArrayInputStream (m_aPayloadBytes);
+
+      final InputStream ret = m_aPayloadHasIS.getBufferedInputStream ();
+      if (ret == null)
+        throw new Phase4PeppolException ("Failed to create payload InputStream from provider").setRetryFeasible (false);
+      return ret;
+    }
+
+    /**
+     * @return The root element name of the payload or <code>null</code> if streaming SBD creation
+     *         cannot be used.
+     */
+    @Nullable
+    private QName _getStreamingRootElement () throws Phase4PeppolException
+    {
+      if (!m_bStreamingSBDHCreation ||
+          m_aPayloadElement != null ||
+          m_aSBDDocumentConsumer != null ||
+          m_aVESID != null)
+        return null;
+      if (m_aPayloadBytes == null && (m_aPayloadHasIS == null || !m_aPayloadHasIS.isReadMultiple ()))
+        return null;
+
+      try (final InputStream aIS = _openPayloadStream ())
+      {
+        final QName ret = Phase4PeppolSBDHStreamWriter.peekRootElement (aIS);
+        if (ret == null && LOGGER.isDebugEnabled ())
+          LOGGER.debug ("The payload cannot be copied verbatim - falling back to DOM based SBD creation");
+        return ret;
+      }
+      catch (final IOException | XMLStreamException ex)
+      {
+        throw new Phase4PeppolException ("Failed to parse the payload root element", ex).setRetryFeasible (false);
+      }
+    }
+
+    @NonNull
+    private ESuccess _finishFieldsStreaming (@NonNull final AS4ResourceHelper aResHelper,
+                                             @NonNull final QName aRootName) throws Phase4Exception
+    {
+      // Consistency checks
+      if (StringHelper.isEmpty (aRootName.getNamespaceURI ()))
+        throw new Phase4PeppolException ("The root element of the parsed XML document does not have a namespace URI").setRetryFeasible (false);
+      if (CSBDH.SBDH_NS.equals (aRootName.getNamespaceURI ()))
+        throw new Phase4PeppolException ("You cannot set a Standard Business Document as the payload for the regular builder. The SBD is created automatically inside of this builder. Use Phase4PeppolSender.sbdhBuilder() if you have a pre-build SBD.").setRetryFeasible (false);
+
+      // Perform SMP lookup
+      if (super.finishFields (aResHelper).isFailure ())
+        return ESuccess.FAILURE;
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Start creating SBDH for AS4 message in streaming mode");
+
+      // Only a placeholder element is needed to create the header
+      final PeppolSBDHData aPeppolSBDH = _createPeppolSBDHData (m_aSenderID,
+                                                                m_aReceiverID,
+                                                                m_aDocTypeID,
+                                                                m_aProcessID,
+                                                                m_sCountryC1,
+                                                                m_sSBDHInstanceIdentifier,
+                                                                m_sSBDHStandard,
+                                                                m_sSBDHTypeVersion,
+                                                                m_sSBDHType,
+                                                                m_aMLSTo,
+                                                                m_eMLSType,
+                                                                Phase4PeppolSBDHStreamWriter.createPlaceholderElement (aRootName),
+                                                                false);
+      if (aPeppolSBDH == null)
+      {
+        // A log message was already provided
+        return ESuccess.FAILURE;
+      }
+
+      final StandardBusinessDocumentHeader aHeader = new PeppolSBDHDataWriter ().setFavourSpeed (true)
+                                                                               .createStandardBusinessDocument (aPeppolSBDH)
+                                                                               .getStandardBusinessDocumentHeader ();
+
+      // Write the SBD and compress it on the fly, so that no second pass is needed
+      final EAS4CompressionMode eCompressionMode = m_bCompressPayload ? EAS4CompressionMode.GZIP : null;
+      try
+      {
+        final File aTempSBDFile = aResHelper.createTempFile ();
+        try (final NonBlockingBufferedOutputStream aFOS = FileHelper.getBufferedOutputStream (aTempSBDFile))
+        {
+          if (aFOS == null)
+            throw new IOException ("Failed to open " + aTempSBDFile.getAbsolutePath () + " for writing");
+          try (final OutputStream aOS = eCompressionMode != null ? eCompressionMode.getCompressStream (aFOS) : aFOS;
+               final InputStream aPayloadIS = _openPayloadStream ())
+          {
+            Phase4PeppolSBDHStreamWriter.writeStandardBusinessDocument (aHeader, aPayloadIS, aOS);
+          }
+        }
+
+        // Now we have the main payload
+        payload (AS4OutgoingAttachment.builder ()
+                                      .data (aTempSBDFile)
+                                      .mimeType (m_aPayloadMimeType)
+                                      .compression (eCompressionMode)
+                                      .dataIsCompressed (eCompressionMode != null)
+                                      .contentID (m_sPayloadContentID));
+      }
+      catch (final IOException | XMLStreamException | JAXBException ex)
+      {
+        throw new Phase4PeppolException ("Failed to create the SBDH in streaming mode", ex);
+      }
+      return ESuccess.SUCCESS;
+    }
+
     @Override
     protected ESuccess finishFields (@NonNull final AS4ResourceHelper aResHelper) throws Phase4Exception
     {
+      // Avoid creating a DOM if possible
+      final QName aStreamingRootName = _getStreamingRootElement ();
+      if (aStreamingRootName != null)
+        return _finishFieldsStreaming (aResHelper, aStreamingRootName);
+
       // Ensure a DOM element is present
       final Element aPayloadElement;
       final boolean bClonePayloadElement;
@@ -54,7 +54,7 @@ import com.helger.phase4.client.AS4ClientSentMessage;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderPeppol;
 import com.helger.phase4.ebms3header.Ebms3Error;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
-import com.helger.phase4.marshaller.Ebms3SignalMessageMarshaller;
+import com.helger.phase4.marshaller.AS4Marshallers;
 import com.helger.phase4.sender.EAS4UserMessageSendResult;
 import com.helger.security.certificate.CertificateHelper;
 import com.helger.security.certificate.ECertificateCheckResult;
@@ -1083,7 +1083,7 @@ public class Phase4PeppolSendingReport
     }
 
     if (hasAS4ReceivedSignalMsg ())
-      aJson.add ("as4ReceivedSignalMsg", new Ebms3SignalMessageMarshaller ().getAsString (m_aAS4ReceivedSignalMsg));
+      aJson.add ("as4ReceivedSignalMsg", AS4Marshallers.getEbms3SignalMessageMarshaller ().getAsString (m_aAS4ReceivedSignalMsg));
     aJson.add ("as4ResponseError", m_bAS4ResponseError);
     if (hasAS4ResponseErrors ())
     {
@@ -1280,7 +1280,7 @@ public class Phase4PeppolSendingReport
 
     if (hasAS4ReceivedSignalMsg ())
       ret.addElementNS (sNamespaceURI, "AS4ReceivedSignalMsg")
-         .addChild (new Ebms3SignalMessageMarshaller ().getAsMicroElement (m_aAS4ReceivedSignalMsg));
+         .addChild (AS4Marshallers.getEbms3SignalMessageMarshaller ().getAsMicroElement (m_aAS4ReceivedSignalMsg));
     ret.addElementNS (sNamespaceURI, "AS4ResponseError").addText (m_bAS4ResponseError);
     if (hasAS4ResponseErrors ())
     {
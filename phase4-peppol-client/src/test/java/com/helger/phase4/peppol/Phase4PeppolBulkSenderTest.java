@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.jspecify.annotations.NonNull;
+import org.junit.Test;
+
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.peppol.sml.ESML;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
+import com.helger.phase4.peppol.Phase4PeppolSender.AbstractPeppolUserMessageBuilder;
+import com.helger.phase4.peppol.Phase4PeppolSender.PeppolUserMessageBuilder;
+import com.helger.phase4.sender.EAS4UserMessageSendResult;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Test class for class {@link Phase4PeppolBulkSender}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolBulkSenderTest
+{
+  private static final String URL_SLOW = "https://slow.example.org/as4";
+  private static final String URL_FAST = "https://fast.example.org/as4";
+  private static final int MAX_PER_ENDPOINT = 2;
+
+  /**
+   * Doesn't send anything but tracks the number of concurrent sends per endpoint. Sends to the slow
+   * endpoint block until they are released.
+   */
+  private static final class MockBulkSender extends Phase4PeppolBulkSender
+  {
+    // Simulates the asynchronous HTTP exchange
+    private final ExecutorService m_aIOExecutor = Executors.newCachedThreadPool ();
+    private final CountDownLatch m_aReleaseSlow = new CountDownLatch (1);
+    private final Map <String, AtomicInteger> m_aActive = new ConcurrentHashMap <> ();
+    private final Map <String, AtomicInteger> m_aMaxActive = new ConcurrentHashMap <> ();
+
+    MockBulkSender ()
+    {
+      super (ESML.DIGIT_TEST, MAX_PER_ENDPOINT, 100, null);
+    }
+
+    @Override
+    protected CompletableFuture <EAS4UserMessageSendResult> sendMessageAsync (@NonNull final AbstractPeppolUserMessageBuilder <?> aBuilder,
+                                                                             @NonNull final Consumer <? super Phase4Exception> aExceptionConsumer)
+    {
+      final String sURL;
+      try
+      {
+        sURL = aBuilder.endpointDetailProvider ().getReceiverAPEndpointURL ();
+      }
+      catch (final Phase4Exception ex)
+      {
+        throw new IllegalStateException (ex);
+      }
+      // Like the real sending
+      aBuilder.endpointURLConsumer ().accept (sURL);
+
+      final AtomicInteger aActive = m_aActive.computeIfAbsent (sURL, k -> new AtomicInteger ());
+      final int nActive = aActive.incrementAndGet ();
+      m_aMaxActive.computeIfAbsent (sURL, k -> new AtomicInteger ()).accumulateAndGet (nActive, Math::max);
+      return CompletableFuture.supplyAsync ( () -> {
+        try
+        {
+          if (URL_SLOW.equals (sURL))
+            m_aReleaseSlow.await (10, TimeUnit.SECONDS);
+          else
+            Thread.sleep (5);
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        finally
+        {
+          aActive.decrementAndGet ();
+        }
+        return EAS4UserMessageSendResult.SUCCESS;
+      }, m_aIOExecutor);
+    }
+
+    int getActive (@NonNull final String sURL)
+    {
+      final AtomicInteger ret = m_aActive.get (sURL);
+      return ret == null ? 0 : ret.get ();
+    }
+
+    int getMaxActive (@NonNull final String sURL)
+    {
+      final AtomicInteger ret = m_aMaxActive.get (sURL);
+      return ret == null ? 0 : ret.get ();
+    }
+
+    @Override
+    public void close (@NonNull final Duration aTimeout)
+    {
+      super.close (aTimeout);
+      m_aIOExecutor.shutdown ();
+    }
+  }
+
+  @NonNull
+  private static PeppolUserMessageBuilder _createBuilder (@NonNull final String sReceiverID,
+                                                          @NonNull final String sURL)
+  {
+    return Phase4PeppolSender.builder ()
+                             .documentTypeID (Phase4PeppolSender.IF.createDocumentTypeIdentifierWithDefaultScheme ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1"))
+                             .processID (Phase4PeppolSender.IF.createProcessIdentifierWithDefaultScheme ("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0"))
+                             .senderParticipantID (Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:phase4-test-sender"))
+                             .receiverParticipantID (Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme (sReceiverID))
+                             .endpointDetailProvider (new IAS4EndpointDetailProvider ()
+                             {
+                               public void init (@NonNull final IDocumentTypeIdentifier aDocTypeID,
+                                                 @NonNull final IProcessIdentifier aProcID,
+                                                 @NonNull final IParticipantIdentifier aReceiverID)
+                               {}
+
+                               public X509Certificate getReceiverAPCertificate ()
+                               {
+                                 return null;
+                               }
+
+                               public String getReceiverAPEndpointURL ()
+                               {
+                                 return sURL;
+                               }
+
+                               public String getReceiverTechnicalContact ()
+                               {
+                                 return null;
+                               }
+                             });
+  }
+
+  @Test
+  public void testOrderAndEndpointLimit ()
+  {
+    final ICommonsList <PeppolUserMessageBuilder> aBuilders = new CommonsArrayList <> ();
+    for (int i = 0; i < 6; ++i)
+    {
+      aBuilders.add (_createBuilder ("9915:slow", URL_SLOW));
+      aBuilders.add (_createBuilder ("9915:fast", URL_FAST));
+    }
+
+    // Pre-existing consumers must still be invoked
+    final AtomicInteger aExistingConsumerCount = new AtomicInteger ();
+    aBuilders.getFirstOrNull ().endpointURLConsumer (x -> aExistingConsumerCount.incrementAndGet ());
+    aBuilders.getLastOrNull ().sbdhInstanceIdentifier ("my-instance-id");
+
+    try (final MockBulkSender aSender = new MockBulkSender ())
+    {
+      final Iterator <Phase4PeppolSendingReport> aIter = aSender.sendAll (aBuilders.stream ()).iterator ();
+
+      // The slow endpoint doesn't block the fast one - reports come in order of completion
+      for (int i = 0; i < 6; ++i)
+      {
+        assertTrue (aIter.hasNext ());
+        final Phase4PeppolSendingReport aReport = aIter.next ();
+        assertEquals ("9915:fast", aReport.getReceiverID ().getValue ());
+        assertEquals (URL_FAST, aReport.getC3EndpointURL ());
+        assertTrue (aReport.isOverallSuccess ());
+        assertNotNull (aReport.getSBDHInstanceIdentifier ());
+      }
+
+      aSender.m_aReleaseSlow.countDown ();
+      for (int i = 0; i < 6; ++i)
+      {
+        assertTrue (aIter.hasNext ());
+        final Phase4PeppolSendingReport aReport = aIter.next ();
+        assertEquals ("9915:slow", aReport.getReceiverID ().getValue ());
+        assertTrue (aReport.isOverallSuccess ());
+      }
+      assertFalse (aIter.hasNext ());
+
+      assertTrue (aSender.getMaxActive (URL_SLOW) <= MAX_PER_ENDPOINT);
+      assertTrue (aSender.getMaxActive (URL_FAST) <= MAX_PER_ENDPOINT);
+      assertEquals (2, aSender.getDestinationCount ());
+      assertEquals (0, aSender.getInFlightCount ());
+      assertEquals (1, aExistingConsumerCount.get ());
+      assertEquals ("my-instance-id", aBuilders.getLastOrNull ().sbdhInstanceIdentifier ());
+    }
+  }
+
+  @Test
+  public void testSynchronousFailure ()
+  {
+    try (final MockBulkSender aSender = new MockBulkSender ())
+    {
+      aSender.m_aReleaseSlow.countDown ();
+
+      // The null builder fails before it is handed over to the executors
+      final ICommonsList <Phase4PeppolSendingReport> aReports = new CommonsArrayList <> ();
+      aSender.sendAll (Stream.of (_createBuilder ("9915:fast", URL_FAST), null, _createBuilder ("9915:fast", URL_FAST)))
+             .forEach (aReports::add);
+
+      assertEquals (3, aReports.size ());
+      assertEquals (2, aReports.stream ().filter (Phase4PeppolSendingReport::isOverallSuccess).count ());
+      final Phase4PeppolSendingReport aFailed = aReports.findFirst (x -> !x.isOverallSuccess ());
+      assertNotNull (aFailed);
+      assertTrue (aFailed.getAS4SendingException () instanceof NullPointerException);
+      assertEquals (0, aSender.getInFlightCount ());
+    }
+  }
+
+  @Test
+  public void testCloseWaitsForMessagesInProgress () throws Exception
+  {
+    final MockBulkSender aSender = new MockBulkSender ();
+    final ICommonsList <Phase4PeppolSendingReport> aReports = new CommonsArrayList <> ();
+    final Iterator <Phase4PeppolSendingReport> aIter = aSender.sendAll (Stream.of (_createBuilder ("9915:slow",
+                                                                                                  URL_SLOW),
+                                                                                  _createBuilder ("9915:slow",
+                                                                                                  URL_SLOW)))
+                                                             .iterator ();
+
+    // Wait until both messages are in progress
+    while (aSender.getActive (URL_SLOW) < 2)
+      Thread.sleep (5);
+    assertEquals (2, aSender.getInFlightCount ());
+
+    final Thread aReleaser = new Thread ( () -> {
+      try
+      {
+        Thread.sleep (200);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      aSender.m_aReleaseSlow.countDown ();
+    });
+    aReleaser.start ();
+
+    // Blocks until the slow messages are released
+    aSender.close ();
+    assertEquals (0, aSender.getInFlightCount ());
+    aIter.forEachRemaining (aReports::add);
+    assertEquals (2, aReports.size ());
+    assertEquals (2, aReports.stream ().filter (Phase4PeppolSendingReport::isOverallSuccess).count ());
+    aReleaser.join ();
+
+    try
+    {
+      aSender.sendAll (Stream.empty ());
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocumentHeader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
+import com.helger.sbdh.CSBDH;
+import com.helger.xml.XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link Phase4PeppolSBDHStreamWriter}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolSBDHStreamWriterTest
+{
+  private static final String NS_INVOICE = "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2";
+  private static final String PAYLOAD = "\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                                        "<!-- comment -->\n" +
+                                        "<Invoice xmlns=\"" +
+                                        NS_INVOICE +
+                                        "\"><ID>\u00e4\u00f6\u00fc</ID></Invoice>";
+
+  @Test
+  public void testPeekRootElement () throws Exception
+  {
+    final QName aName = Phase4PeppolSBDHStreamWriter.peekRootElement (new NonBlockingByteArrayInputStream (PAYLOAD.getBytes (StandardCharsets.UTF_8)));
+    assertNotNull (aName);
+    assertEquals (NS_INVOICE, aName.getNamespaceURI ());
+    assertEquals ("Invoice", aName.getLocalPart ());
+
+    // Other encodings can't be copied verbatim
+    assertNull (Phase4PeppolSBDHStreamWriter.peekRootElement (new NonBlockingByteArrayInputStream ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a xmlns=\"urn:x\"/>".getBytes (StandardCharsets.ISO_8859_1))));
+  }
+
+  @Test
+  public void testWrite () throws Exception
+  {
+    final StandardBusinessDocumentHeader aHeader = new StandardBusinessDocumentHeader ();
+    aHeader.setHeaderVersion ("1.0");
+
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    Phase4PeppolSBDHStreamWriter.writeStandardBusinessDocument (aHeader,
+                                                                new NonBlockingByteArrayInputStream (PAYLOAD.getBytes (StandardCharsets.UTF_8)),
+                                                                aBAOS);
+
+    final Document aDoc = DOMReader.readXMLDOM (aBAOS.toByteArray ());
+    assertNotNull (aDoc);
+    final Element eRoot = aDoc.getDocumentElement ();
+    assertEquals (CSBDH.SBDH_NS, eRoot.getNamespaceURI ());
+    assertEquals ("StandardBusinessDocument", eRoot.getLocalName ());
+    assertEquals (2, XMLHelper.getChildElementCount (eRoot));
+
+    final Element eHeader = XMLHelper.getFirstChildElement (eRoot);
+    assertEquals (CSBDH.SBDH_NS, eHeader.getNamespaceURI ());
+    assertEquals ("StandardBusinessDocumentHeader", eHeader.getLocalName ());
+
+    final Element ePayload = XMLHelper.getFirstChildElementOfName (eRoot, NS_INVOICE, "Invoice");
+    assertNotNull (ePayload);
+    assertEquals ("\u00e4\u00f6\u00fc", ePayload.getTextContent ());
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import org.jspecify.annotations.NonNull;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+
+import com.helger.annotation.style.IsSPIInterface;
+import com.helger.base.io.iface.IHasInputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.stream.HasInputStream;
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.peppol.sbdh.PeppolSBDHData;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.error.AS4ErrorList;
+import com.helger.phase4.incoming.IAS4IncomingMessageMetadata;
+import com.helger.phase4.incoming.IAS4IncomingMessageState;
+
+/**
+ * A special variant of {@link IPhase4PeppolIncomingSBDHandlerSPI} that receives the incoming SBD as
+ * a stream instead of a byte array and a JAXB tree. If all registered handlers implement this
+ * interface, {@link Phase4PeppolServletMessageProcessorSPI} switches to the streaming receive mode:
+ * the decompressed SBD is only spooled (usually to disk) and just the SBDH header is parsed, so
+ * that the memory consumption is independent of the payload size.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@IsSPIInterface
+public interface IPhase4PeppolIncomingSBDStreamHandlerSPI extends IPhase4PeppolIncomingSBDHandlerSPI
+{
+  /**
+   * Handle the provided incoming StandardBusinessDocument in a streaming way.
+   *
+   * @param aMessageMetadata
+   *        Message metadata. Includes data when and from whom it was received. Never
+   *        <code>null</code>.
+   * @param aHeaders
+   *        The (HTTP) headers of the incoming request. Never <code>null</code>.
+   * @param aUserMessage
+   *        The received EBMS user message. Never <code>null</code>.
+   * @param aSBDStreamProvider
+   *        The provider for the raw SBD bytes. These are the bytes as received via AS4, just
+   *        decrypted and decompressed. The provider can be read multiple times, but is only valid
+   *        until the processing of the message is finished. Never <code>null</code>.
+   * @param aBusinessPayloadStreamProvider
+   *        The provider for just the business payload contained in the SBD, as a standalone XML
+   *        document. The business payload is only extracted if this provider is accessed. The
+   *        provider can be read multiple times, but is only valid until the processing of the
+   *        message is finished. Never <code>null</code>.
+   * @param aPeppolSBD
+   *        The pre-parsed Peppol Standard Business Document. Note: in the streaming receive mode,
+   *        the contained business message is only an empty placeholder element with the name of
+   *        the real payload root element. Never <code>null</code>.
+   * @param aState
+   *        The message state. Can e.g. be used to retrieve information about the certificate found
+   *        in the message. Never <code>null</code>.
+   * @param aProcessingErrorMessages
+   *        List for error messages that occur during processing. Never <code>null</code>.
+   * @throws Exception
+   *         In case it cannot be processed.
+   */
+  void handleIncomingSBDStream (@NonNull IAS4IncomingMessageMetadata aMessageMetadata,
+                                @NonNull HttpHeaderMap aHeaders,
+                                @NonNull Ebms3UserMessage aUserMessage,
+                                @NonNull IHasInputStream aSBDStreamProvider,
+                                @NonNull IHasInputStream aBusinessPayloadStreamProvider,
+                                @NonNull PeppolSBDHData aPeppolSBD,
+                                @NonNull IAS4IncomingMessageState aState,
+                                @NonNull AS4ErrorList aProcessingErrorMessages) throws Exception;
+
+  /**
+   * Default implementation that bridges the non-streaming invocation to
+   * {@link #handleIncomingSBDStream(IAS4IncomingMessageMetadata, HttpHeaderMap, Ebms3UserMessage, IHasInputStream, IHasInputStream, PeppolSBDHData, IAS4IncomingMessageState, AS4ErrorList)}.
+   * This is used if this handler is combined with handlers that don't support streaming.
+   */
+  @Override
+  default void handleIncomingSBD (@NonNull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                  @NonNull final HttpHeaderMap aHeaders,
+                                  @NonNull final Ebms3UserMessage aUserMessage,
+                                  final byte @NonNull [] aSBDBytes,
+                                  @NonNull final StandardBusinessDocument aSBD,
+                                  @NonNull final PeppolSBDHData aPeppolSBD,
+                                  @NonNull final IAS4IncomingMessageState aState,
+                                  @NonNull final AS4ErrorList aProcessingErrorMessages) throws Exception
+  {
+    final IHasInputStream aSBDStreamProvider = new HasInputStream ( () -> new NonBlockingByteArrayInputStream (aSBDBytes),
+                                                                   true);
+    handleIncomingSBDStream (aMessageMetadata,
+                             aHeaders,
+                             aUserMessage,
+                             aSBDStreamProvider,
+                             Phase4PeppolSBDHStreamReader.createBusinessPayloadProvider (aSBDStreamProvider,
+                                                                                        aState.getResourceHelper ()),
+                             aPeppolSBD,
+                             aState,
+                             aProcessingErrorMessages);
+  }
+}
@@ -65,6 +65,16 @@ public class Phase4PeppolAS4Servlet extends AbstractXServlet
    */
   public static class Phase4PeppolServletRequestHandlerCustomizer implements IAS4ServletRequestHandlerCustomizer
   {
+    // Make sure, Peppol only accepts BinarySecurityToken. The same instance is used for all
+    // requests, so that the SOAP header processors can be reused.
+    private static final IAS4DecryptParameterModifier DECRYPT_PARAMETER_MODIFIER = new IAS4DecryptParameterModifier ()
+    {
+      public void modifyWSSConfig (@NonNull final WSSConfig aWSSConfig)
+      {
+        aWSSConfig.setValidator (WSConstants.SIGNATURE, new AS4CertificateOnlySignatureTrustValidator ());
+      }
+    };
+
     @OverridingMethodsMustInvokeSuper
     public void customizeBeforeHandling (@NonNull final IRequestWebScopeWithoutResponse aRequestScope,
                                          @NonNull final AS4UnifiedResponse aUnifiedResponse,
@@ -72,13 +82,7 @@ public class Phase4PeppolAS4Servlet extends AbstractXServlet
     {
       // Make sure, Peppol only accepts BinarySecurityToken
       final AS4IncomingSecurityConfiguration aIncomingSecCfg = AS4IncomingSecurityConfiguration.createDefaultInstance ();
-      aIncomingSecCfg.setDecryptParameterModifier (new IAS4DecryptParameterModifier ()
-      {
-        public void modifyWSSConfig (@NonNull final WSSConfig aWSSConfig)
-        {
-          aWSSConfig.setValidator (WSConstants.SIGNATURE, new AS4CertificateOnlySignatureTrustValidator ());
-        }
-      });
+      aIncomingSecCfg.setDecryptParameterModifier (DECRYPT_PARAMETER_MODIFIER);
       aRequestHandler.setIncomingSecurityConfiguration (aIncomingSecCfg);
     }
 
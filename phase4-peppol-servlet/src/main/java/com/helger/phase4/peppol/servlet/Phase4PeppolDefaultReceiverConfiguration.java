@@ -33,6 +33,7 @@ import com.helger.peppol.sml.ISMLInfo;
 import com.helger.peppolid.factory.IIdentifierFactory;
 import com.helger.peppolid.factory.PeppolIdentifierFactory;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.crypto.AS4CertificateVerdictCache;
 import com.helger.phase4.logging.Phase4LoggerFactory;
 import com.helger.phase4.peppol.servlet.Phase4PeppolReceiverConfiguration.Phase4PeppolReceiverConfigurationBuilder;
 import com.helger.security.certificate.TrustedCAChecker;
@@ -79,6 +80,8 @@ public final class Phase4PeppolDefaultReceiverConfiguration
   private static boolean s_bAPRevocationSoftFail = CertificateRevocationCheckerDefaults.isAllowSoftFail ();
   private static ETriState s_eAPCacheRevocationCheckResult = ETriState.UNDEFINED;
   private static ERevocationCheckMode s_eAPRevocationCheckMode;
+  private static Phase4PeppolReceiverRegistrationCache s_aRegistrationCache;
+  private static AS4CertificateVerdictCache s_aAPCertificateVerdictCache;
 
   private Phase4PeppolDefaultReceiverConfiguration ()
   {}
@@ -537,6 +540,55 @@ public final class Phase4PeppolDefaultReceiverConfiguration
     }
   }
 
+  /**
+   * @return The cache for the SMP registration check of the receiver. May be <code>null</code>
+   *         (the default) if an SMP lookup should be performed for every incoming message.
+   * @since 4.5.5
+   */
+  @Nullable
+  public static Phase4PeppolReceiverRegistrationCache getRegistrationCache ()
+  {
+    return s_aRegistrationCache;
+  }
+
+  /**
+   * Set the cache for the SMP registration check of the receiver.
+   *
+   * @param a
+   *        The cache to use. May be <code>null</code> to perform an SMP lookup for every incoming
+   *        message.
+   * @since 4.5.5
+   */
+  public static void setRegistrationCache (@Nullable final Phase4PeppolReceiverRegistrationCache a)
+  {
+    s_aRegistrationCache = a;
+  }
+
+  /**
+   * @return The cache for the results of the inbound signing certificate check. May be
+   *         <code>null</code> (the default) if the certificate of every incoming message should be
+   *         checked.
+   * @since 4.5.5
+   */
+  @Nullable
+  public static AS4CertificateVerdictCache getAPCertificateVerdictCache ()
+  {
+    return s_aAPCertificateVerdictCache;
+  }
+
+  /**
+   * Set the cache for the results of the inbound signing certificate check.
+   *
+   * @param a
+   *        The cache to use. May be <code>null</code> to check the certificate of every incoming
+   *        message.
+   * @since 4.5.5
+   */
+  public static void setAPCertificateVerdictCache (@Nullable final AS4CertificateVerdictCache a)
+  {
+    s_aAPCertificateVerdictCache = a;
+  }
+
   /**
    * Get the statically configured data as a {@link Phase4PeppolReceiverConfigurationBuilder}
    * instance. This allows for modification before building the final object.
@@ -575,7 +627,9 @@ public final class Phase4PeppolDefaultReceiverConfiguration
                                             .apCAChecker (getAPCAChecker ())
                                             .apRevocationSoftFail (isAPRevocationSoftFail ())
                                             .apCacheRevocationCheckResult (getAPCacheRevocationCheckResult ())
-                                            .apRevocationCheckMode (getAPRevocationCheckMode ());
+                                            .apRevocationCheckMode (getAPRevocationCheckMode ())
+                                            .registrationCache (getRegistrationCache ())
+                                            .apCertificateVerdictCache (getAPCertificateVerdictCache ());
   }
 
   /**
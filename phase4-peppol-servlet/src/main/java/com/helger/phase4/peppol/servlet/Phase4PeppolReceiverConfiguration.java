@@ -16,6 +16,7 @@
  */
 package com.helger.phase4.peppol.servlet;
 
+import java.net.URI;
 import java.security.cert.X509Certificate;
 
 import org.jspecify.annotations.NonNull;
@@ -33,6 +34,7 @@ import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.factory.IIdentifierFactory;
 import com.helger.peppolid.factory.PeppolIdentifierFactory;
 import com.helger.peppolid.factory.SimpleIdentifierFactory;
+import com.helger.phase4.crypto.AS4CertificateVerdictCache;
 import com.helger.security.certificate.TrustedCAChecker;
 import com.helger.security.revocation.CertificateRevocationCheckerDefaults;
 import com.helger.security.revocation.ERevocationCheckMode;
@@ -70,6 +72,8 @@ public final class Phase4PeppolReceiverConfiguration
   private final boolean m_bAPRevocationSoftFail;
   private final ETriState m_eAPCacheRevocationCheckResult;
   private final ERevocationCheckMode m_eAPRevocationCheckMode;
+  private final Phase4PeppolReceiverRegistrationCache m_aRegistrationCache;
+  private final AS4CertificateVerdictCache m_aAPCertificateVerdictCache;
 
   /**
    * Constructor
@@ -147,6 +151,99 @@ public final class Phase4PeppolReceiverConfiguration
                                             final boolean bAPRevocationSoftFail,
                                             @NonNull final ETriState eAPCacheRevocationCheckResult,
                                             @Nullable final ERevocationCheckMode eAPRevocationCheckMode)
+  {
+    this (bReceiverCheckEnabled,
+          aSMPClient,
+          aSMLInfo,
+          aSMPURLProvider,
+          eSMPRevocationCheckMode,
+          bSMPRevocationSoftFail,
+          sAS4EndpointURL,
+          aAPCertificate,
+          aSBDHIdentifierFactory,
+          bPerformSBDHValueChecks,
+          bCheckSBDHForMandatoryCountryC1,
+          bCheckAPSigningCertificateRevocation,
+          aAPCAChecker,
+          bAPRevocationSoftFail,
+          eAPCacheRevocationCheckResult,
+          eAPRevocationCheckMode,
+          null,
+          null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bReceiverCheckEnabled
+   *        <code>true</code> if the receiver checks are enabled, <code>false</code> otherwise
+   * @param aSMPClient
+   *        The SMP metadata provider to be used. May be <code>null</code> if {@code aSMLInfo} is
+   *        provided instead.
+   * @param aSMLInfo
+   *        The SML information for dynamic SMP client resolution per participant ID. May be
+   *        <code>null</code> if {@code aSMPClient} is provided instead.
+   * @param aSMPURLProvider
+   *        The SMP URL provider to be used for dynamic SMP client resolution. May be
+   *        <code>null</code> to use the default ({@link PeppolNaptrURLProvider#INSTANCE}).
+   * @param eSMPRevocationCheckMode
+   *        The revocation check mode to apply when verifying SMP response certificates.
+   *        <code>null</code> means "use the JVM-wide default".
+   * @param bSMPRevocationSoftFail
+   *        <code>true</code> to accept an indeterminable revocation status of an SMP response
+   *        certificate (soft-fail), <code>false</code> to reject.
+   * @param sAS4EndpointURL
+   *        The endpoint URL to check against. May neither be <code>null</code> nor empty if
+   *        receiver checks are enabled.
+   * @param aAPCertificate
+   *        The AP certificate to be used for compatibility. May not be <code>null</code> if
+   *        receiver checks are enabled.
+   * @param aSBDHIdentifierFactory
+   *        The identifier factory to be used for SBDH parsing. May not be <code>null</code>.
+   * @param bPerformSBDHValueChecks
+   *        <code>true</code> if SBDH value checks should be performed.
+   * @param bCheckSBDHForMandatoryCountryC1
+   *        <code>true</code> if SBDH value checks should be performed for mandatory C1 country
+   *        code.
+   * @param bCheckAPSigningCertificateRevocation
+   *        <code>true</code> if signing certificate revocation checks should be performed.
+   * @param aAPCAChecker
+   *        The Peppol AP CA checker. May not be <code>null</code>.
+   * @param bAPRevocationSoftFail
+   *        <code>true</code> to accept an unknown revocation status of the inbound signing
+   *        certificate as valid, <code>false</code> to treat it as invalid.
+   * @param eAPCacheRevocationCheckResult
+   *        Override for the revocation result caching flag of the inbound signing certificate
+   *        check. Must not be <code>null</code>.
+   * @param eAPRevocationCheckMode
+   *        Override for the revocation check mode of the inbound signing certificate check. May be
+   *        <code>null</code>.
+   * @param aRegistrationCache
+   *        The cache for the SMP registration check of the receiver. May be <code>null</code> to
+   *        perform an SMP lookup for every incoming message.
+   * @param aAPCertificateVerdictCache
+   *        The cache for the results of the inbound signing certificate check. May be
+   *        <code>null</code> to check the certificate of every incoming message.
+   * @since 4.5.5
+   */
+  public Phase4PeppolReceiverConfiguration (final boolean bReceiverCheckEnabled,
+                                            @Nullable final ISMPExtendedServiceMetadataProvider aSMPClient,
+                                            @Nullable final ISMLInfo aSMLInfo,
+                                            @Nullable final ISMPURLProvider aSMPURLProvider,
+                                            @Nullable final ERevocationCheckMode eSMPRevocationCheckMode,
+                                            final boolean bSMPRevocationSoftFail,
+                                            @Nullable final String sAS4EndpointURL,
+                                            @Nullable final X509Certificate aAPCertificate,
+                                            @NonNull final IIdentifierFactory aSBDHIdentifierFactory,
+                                            final boolean bPerformSBDHValueChecks,
+                                            final boolean bCheckSBDHForMandatoryCountryC1,
+                                            final boolean bCheckAPSigningCertificateRevocation,
+                                            @NonNull final TrustedCAChecker aAPCAChecker,
+                                            final boolean bAPRevocationSoftFail,
+                                            @NonNull final ETriState eAPCacheRevocationCheckResult,
+                                            @Nullable final ERevocationCheckMode eAPRevocationCheckMode,
+                                            @Nullable final Phase4PeppolReceiverRegistrationCache aRegistrationCache,
+                                            @Nullable final AS4CertificateVerdictCache aAPCertificateVerdictCache)
   {
     if (bReceiverCheckEnabled)
     {
@@ -173,6 +270,8 @@ public final class Phase4PeppolReceiverConfiguration
     m_bAPRevocationSoftFail = bAPRevocationSoftFail;
     m_eAPCacheRevocationCheckResult = eAPCacheRevocationCheckResult;
     m_eAPRevocationCheckMode = eAPRevocationCheckMode;
+    m_aRegistrationCache = aRegistrationCache;
+    m_aAPCertificateVerdictCache = aAPCertificateVerdictCache;
   }
 
   public boolean isReceiverCheckEnabled ()
@@ -244,9 +343,18 @@ public final class Phase4PeppolReceiverConfiguration
     return m_bSMPRevocationSoftFail;
   }
 
+  @NonNull
+  private SMPClientReadOnly _createSMPClient (@NonNull final SMPClientReadOnly aSMPClient)
+  {
+    aSMPClient.setRevocationCheckMode (m_eSMPRevocationCheckMode);
+    aSMPClient.setAllowRevocationSoftFail (m_bSMPRevocationSoftFail);
+    return aSMPClient;
+  }
+
   /**
    * Get the existing SMP client or create a new one dynamically for the provided recipient
-   * participant ID using the configured SML info and URL provider.
+   * participant ID using the configured SML info and URL provider. If a registration cache is
+   * configured, the SMP clients are reused per SMP host.
    *
    * @param aRecipientID
    *        The recipient participant identifier. May not be <code>null</code>.
@@ -268,10 +376,14 @@ public final class Phase4PeppolReceiverConfiguration
     if (m_aSMLInfo != null)
     {
       // SMP with dynamic discovery
-      final SMPClientReadOnly aSMPClient = new SMPClientReadOnly (m_aSMPURLProvider, aRecipientID, m_aSMLInfo);
-      aSMPClient.setRevocationCheckMode (m_eSMPRevocationCheckMode);
-      aSMPClient.setAllowRevocationSoftFail (m_bSMPRevocationSoftFail);
-      return aSMPClient;
+      if (m_aRegistrationCache != null)
+      {
+        // Reuse the SMP client per SMP host
+        final URI aSMPHostURI = m_aSMPURLProvider.getSMPURIOfParticipant (aRecipientID, m_aSMLInfo);
+        return m_aRegistrationCache.getOrCreateSMPClient (aSMPHostURI,
+                                                          x -> _createSMPClient (new SMPClientReadOnly (x)));
+      }
+      return _createSMPClient (new SMPClientReadOnly (m_aSMPURLProvider, aRecipientID, m_aSMLInfo));
     }
     return null;
   }
@@ -384,6 +496,28 @@ public final class Phase4PeppolReceiverConfiguration
     return m_eAPRevocationCheckMode;
   }
 
+  /**
+   * @return The cache for the SMP registration check of the receiver. May be <code>null</code> if
+   *         an SMP lookup should be performed for every incoming message.
+   * @since 4.5.5
+   */
+  @Nullable
+  public Phase4PeppolReceiverRegistrationCache getRegistrationCache ()
+  {
+    return m_aRegistrationCache;
+  }
+
+  /**
+   * @return The cache for the results of the inbound signing certificate check. May be
+   *         <code>null</code> if the certificate of every incoming message should be checked.
+   * @since 4.5.5
+   */
+  @Nullable
+  public AS4CertificateVerdictCache getAPCertificateVerdictCache ()
+  {
+    return m_aAPCertificateVerdictCache;
+  }
+
   @Override
   public String toString ()
   {
@@ -404,6 +538,8 @@ public final class Phase4PeppolReceiverConfiguration
                                        .append ("APRevocationSoftFail", m_bAPRevocationSoftFail)
                                        .append ("APCacheRevocationCheckResult", m_eAPCacheRevocationCheckResult)
                                        .append ("APRevocationCheckMode", m_eAPRevocationCheckMode)
+                                       .append ("RegistrationCache", m_aRegistrationCache)
+                                       .append ("APCertificateVerdictCache", m_aAPCertificateVerdictCache)
                                        .getToString ();
   }
 
@@ -454,6 +590,8 @@ public final class Phase4PeppolReceiverConfiguration
     private boolean m_bAPRevocationSoftFail;
     private ETriState m_eAPCacheRevocationCheckResult = ETriState.UNDEFINED;
     private ERevocationCheckMode m_eAPRevocationCheckMode;
+    private Phase4PeppolReceiverRegistrationCache m_aRegistrationCache;
+    private AS4CertificateVerdictCache m_aAPCertificateVerdictCache;
 
     public Phase4PeppolReceiverConfigurationBuilder ()
     {}
@@ -475,7 +613,9 @@ public final class Phase4PeppolReceiverConfiguration
                                                            .apCAChecker (aSrc.getAPCAChecker ())
                                                            .apRevocationSoftFail (aSrc.isAPRevocationSoftFail ())
                                                            .apCacheRevocationCheckResult (aSrc.getAPCacheRevocationCheckResult ())
-                                                           .apRevocationCheckMode (aSrc.getAPRevocationCheckMode ());
+                                                           .apRevocationCheckMode (aSrc.getAPRevocationCheckMode ())
+                                                           .registrationCache (aSrc.getRegistrationCache ())
+                                                           .apCertificateVerdictCache (aSrc.getAPCertificateVerdictCache ());
     }
 
     @NonNull
@@ -716,6 +856,42 @@ public final class Phase4PeppolReceiverConfiguration
       return this;
     }
 
+    /**
+     * Set the cache for the SMP registration check of the receiver. If set, the SMP endpoint of
+     * each recipient, document type, process and transport profile is cached and dynamically
+     * resolved SMP clients are reused per SMP host.
+     *
+     * @param a
+     *        The cache to use. May be <code>null</code> to perform an SMP lookup for every
+     *        incoming message (the default).
+     * @return this for chaining
+     * @since 4.5.5
+     */
+    @NonNull
+    public Phase4PeppolReceiverConfigurationBuilder registrationCache (@Nullable final Phase4PeppolReceiverRegistrationCache a)
+    {
+      m_aRegistrationCache = a;
+      return this;
+    }
+
+    /**
+     * Set the cache for the results of the inbound signing certificate check. If set, path
+     * validation and revocation checks are not repeated for every message of the same sender.
+     *
+     * @param a
+     *        The cache to use. May be <code>null</code> to check the certificate of every incoming
+     *        message (the default).
+     * @return this for chaining
+     * @see AS4CertificateVerdictCache#getDefaultInstance()
+     * @since 4.5.5
+     */
+    @NonNull
+    public Phase4PeppolReceiverConfigurationBuilder apCertificateVerdictCache (@Nullable final AS4CertificateVerdictCache a)
+    {
+      m_aAPCertificateVerdictCache = a;
+      return this;
+    }
+
     @NonNull
     public Phase4PeppolReceiverConfiguration build ()
     {
@@ -748,7 +924,9 @@ public final class Phase4PeppolReceiverConfiguration
                                                     m_aAPCAChecker,
                                                     m_bAPRevocationSoftFail,
                                                     m_eAPCacheRevocationCheckResult,
-                                                    m_eAPRevocationCheckMode);
+                                                    m_eAPRevocationCheckMode,
+                                                    m_aRegistrationCache,
+                                                    m_aAPCertificateVerdictCache);
     }
   }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import com.helger.annotation.Nonempty;
+import com.helger.annotation.Nonnegative;
+import com.helger.annotation.concurrent.ThreadSafe;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.peppol.sml.ISMLInfo;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.util.AS4RefreshingCache;
+import com.helger.smpclient.AbstractGenericSMPClient;
+import com.helger.smpclient.peppol.SMPClientReadOnly;
+import com.helger.xsds.peppol.smp1.EndpointType;
+
+/**
+ * A cache for the receiver side check, if an incoming message is registered in our SMP. The SMP
+ * endpoint of each combination of recipient, document type, process and transport profile is
+ * cached, so that not every incoming message requires an SMP lookup. The comparison with our own
+ * endpoint URL and AP certificate is still performed for every message. A <code>null</code> value
+ * means that no endpoint is registered (negative entry).<br>
+ * Additionally this class keeps one SMP client per SMP host, so that dynamically resolved SMP
+ * clients are reused.<br>
+ * The SMP (the configured SMP client or the SML used for dynamic resolution) is part of the cache
+ * key, so a single instance can be shared for all {@link Phase4PeppolReceiverConfiguration}
+ * objects.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@ThreadSafe
+public class Phase4PeppolReceiverRegistrationCache extends AS4RefreshingCache <String, EndpointType>
+{
+  public static final Duration DEFAULT_TTL = Duration.ofHours (1);
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes (1);
+  public static final Duration DEFAULT_STALE_GRACE_PERIOD = Duration.ofHours (1);
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+
+  private final Map <URI, SMPClientReadOnly> m_aSMPClients = new ConcurrentHashMap <> ();
+
+  /**
+   * Constructor using the default settings and the default background refresh executor.
+   */
+  public Phase4PeppolReceiverRegistrationCache ()
+  {
+    this (DEFAULT_TTL,
+          DEFAULT_NEGATIVE_TTL,
+          DEFAULT_STALE_GRACE_PERIOD,
+          DEFAULT_MAX_SIZE,
+          DEFAULT_REFRESH_AHEAD_FACTOR,
+          getDefaultRefreshExecutor ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aTTL
+   *        The time to live of a found registration. May not be <code>null</code> and must be
+   *        positive.
+   * @param aNegativeTTL
+   *        The time to live of a missing registration. May not be <code>null</code> and must not be
+   *        negative. Use {@link Duration#ZERO} to disable negative caching.
+   * @param aStaleGracePeriod
+   *        The time after expiry, in which a stale registration is still used while it is refreshed
+   *        in the background. This avoids a dependency on SMP availability. May not be
+   *        <code>null</code> and must not be negative.
+   * @param nMaxSize
+   *        The maximum number of entries. Must be &gt; 0.
+   * @param dRefreshAheadFactor
+   *        The fraction of the lifetime after which an entry is refreshed in the background, if it
+   *        is used. Must be between 0 and 1.
+   * @param aRefreshExecutor
+   *        The executor for background refreshes. May be <code>null</code> to disable background
+   *        refreshes.
+   */
+  public Phase4PeppolReceiverRegistrationCache (@NonNull final Duration aTTL,
+                                                @NonNull final Duration aNegativeTTL,
+                                                @NonNull final Duration aStaleGracePeriod,
+                                                @Nonnegative final int nMaxSize,
+                                                final double dRefreshAheadFactor,
+                                                @Nullable final Executor aRefreshExecutor)
+  {
+    super (aTTL, aNegativeTTL, aStaleGracePeriod, nMaxSize, dRefreshAheadFactor, aRefreshExecutor);
+  }
+
+  /**
+   * Get the identity of the SMP that is queried for the provided receiver configuration. This is
+   * either the host URI (or the object identity) of the configured SMP client or the DNS zone of the
+   * SML used for dynamic resolution.
+   *
+   * @param aReceiverConfig
+   *        The receiver configuration to use. May not be <code>null</code>.
+   * @return The SMP identity and never <code>null</code>.
+   */
+  @NonNull
+  @Nonempty
+  public static String getSMPID (@NonNull final Phase4PeppolReceiverConfiguration aReceiverConfig)
+  {
+    ValueEnforcer.notNull (aReceiverConfig, "ReceiverConfig");
+    final Object aSMPClient = aReceiverConfig.getSMPClient ();
+    if (aSMPClient instanceof final AbstractGenericSMPClient <?> aGenericClient)
+      return "smp:" + aGenericClient.getSMPHostURI ();
+    if (aSMPClient != null)
+      return "smp:" +
+             aSMPClient.getClass ().getName () +
+             '@' +
+             Integer.toHexString (System.identityHashCode (aSMPClient));
+    final ISMLInfo aSMLInfo = aReceiverConfig.getSMLInfo ();
+    return "sml:" + (aSMLInfo == null ? "" : aSMLInfo.getDNSZone ());
+  }
+
+  /**
+   * Get the cache key for the provided parameters.
+   *
+   * @param sSMPID
+   *        The identity of the queried SMP as returned by
+   *        {@link #getSMPID(Phase4PeppolReceiverConfiguration)}. May not be <code>null</code>.
+   * @param aRecipientID
+   *        Recipient participant ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcessID
+   *        Process ID. May not be <code>null</code>.
+   * @param aTransportProfile
+   *        Transport profile. May not be <code>null</code>.
+   * @return The cache key and never <code>null</code>.
+   */
+  @NonNull
+  public static String getCacheKey (@NonNull final String sSMPID,
+                                    @NonNull final IParticipantIdentifier aRecipientID,
+                                    @NonNull final IDocumentTypeIdentifier aDocTypeID,
+                                    @NonNull final IProcessIdentifier aProcessID,
+                                    @NonNull final ISMPTransportProfile aTransportProfile)
+  {
+    // The URI encoded identifiers never contain a line break
+    return sSMPID +
+           '\n' +
+           aRecipientID.getURIEncoded () +
+           '\n' +
+           aDocTypeID.getURIEncoded () +
+           '\n' +
+           aProcessID.getURIEncoded () +
+           '\n' +
+           aTransportProfile.getID ();
+  }
+
+  /**
+   * Get the SMP client for the provided SMP host or create a new one.
+   *
+   * @param aSMPHostURI
+   *        The URI of the SMP host. May not be <code>null</code>.
+   * @param aFactory
+   *        The factory to create a new SMP client if none is present yet. May not be
+   *        <code>null</code>.
+   * @return The shared SMP client for the host. Never <code>null</code>.
+   */
+  @NonNull
+  public SMPClientReadOnly getOrCreateSMPClient (@NonNull final URI aSMPHostURI,
+                                                 @NonNull final Function <? super URI, ? extends SMPClientReadOnly> aFactory)
+  {
+    return m_aSMPClients.computeIfAbsent (aSMPHostURI, aFactory);
+  }
+
+  /**
+   * @return The number of currently shared SMP clients.
+   */
+  @Nonnegative
+  public int getSMPClientCount ()
+  {
+    return m_aSMPClients.size ();
+  }
+
+  @Override
+  public void clear ()
+  {
+    super.clear ();
+    m_aSMPClients.clear ();
+  }
+}
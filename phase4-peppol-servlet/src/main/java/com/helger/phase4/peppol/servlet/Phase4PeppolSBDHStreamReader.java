@@ -0,0 +1,600 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.Schema;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocumentHeader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.annotation.WillNotClose;
+import com.helger.annotation.concurrent.Immutable;
+import com.helger.base.CGlobal;
+import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.iface.IHasInputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
+import com.helger.base.io.stream.HasInputStream;
+import com.helger.base.string.StringHelper;
+import com.helger.base.wrapper.Wrapper;
+import com.helger.collection.commons.CommonsLinkedHashMap;
+import com.helger.collection.commons.ICommonsOrderedMap;
+import com.helger.diagnostics.error.SingleError;
+import com.helger.diagnostics.error.list.ErrorList;
+import com.helger.jaxb.validation.CollectingValidationEventHandler;
+import com.helger.phase4.spool.IAS4SpoolEntry;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.sbdh.SBDMarshaller;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.schema.XMLSchemaCache;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Unmarshaller;
+
+/**
+ * A StAX based reader for Standard Business Documents, that only reads the SBDH header and leaves
+ * the business payload untouched. This is the basis for the streaming receive mode, where the SBD
+ * stays on disk and is never materialized as a whole in memory.<br>
+ * The returned {@link StandardBusinessDocument} contains the complete JAXB header, but only an
+ * empty placeholder element for the business payload, that has the same namespace URI and local
+ * name as the original payload root element. That is sufficient to run
+ * {@link com.helger.peppol.sbdh.PeppolSBDHDataReader} on it.
+ *
+ * @author Philip Helger
+ * @since 4.5.5
+ */
+@Immutable
+public final class Phase4PeppolSBDHStreamReader
+{
+  /** The SBDH namespace URI */
+  public static final String SBDH_NS = "http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader";
+  /** The local name of the SBD root element */
+  public static final String ELEMENT_STANDARD_BUSINESS_DOCUMENT = "StandardBusinessDocument";
+  /** The local name of the SBDH header element */
+  public static final String ELEMENT_STANDARD_BUSINESS_DOCUMENT_HEADER = "StandardBusinessDocumentHeader";
+
+  private static final int BUFFER_SIZE = 16 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private static final class SingletonHolder
+  {
+    static final XMLInputFactory INPUT_FACTORY = _createInputFactory ();
+    static final JAXBContext JAXB_CONTEXT = _createJAXBContext ();
+    // The same XSDs as used by the DOM based reading
+    static final Schema SBDH_SCHEMA = XMLSchemaCache.getInstance ().getSchema (new SBDMarshaller ().getOriginalXSDs ());
+  }
+
+  private Phase4PeppolSBDHStreamReader ()
+  {}
+
+  @NonNull
+  private static XMLInputFactory _createInputFactory ()
+  {
+    final XMLInputFactory ret = XMLInputFactory.newFactory ();
+    // No DTDs and no external entities - XXE prevention
+    ret.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    ret.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    ret.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    return ret;
+  }
+
+  @NonNull
+  private static JAXBContext _createJAXBContext ()
+  {
+    try
+    {
+      return JAXBContext.newInstance (StandardBusinessDocumentHeader.class);
+    }
+    catch (final JAXBException ex)
+    {
+      throw new IllegalStateException ("Failed to create JAXBContext for the SBDH header", ex);
+    }
+  }
+
+  private static boolean _isSBDHElement (@NonNull final XMLStreamReader aReader, @NonNull final String sLocalName)
+  {
+    return SBDH_NS.equals (aReader.getNamespaceURI ()) && sLocalName.equals (aReader.getLocalName ());
+  }
+
+  /**
+   * Move the reader to the next start element on the same level. Only whitespace and comments may
+   * be in between.
+   *
+   * @return <code>true</code> if a start element was found, <code>false</code> if an end element
+   *         was found.
+   */
+  private static boolean _nextStartElement (@NonNull final XMLStreamReader aReader) throws XMLStreamException
+  {
+    while (aReader.hasNext ())
+    {
+      final int nEvent = aReader.next ();
+      if (nEvent == XMLStreamConstants.START_ELEMENT)
+        return true;
+      if (nEvent == XMLStreamConstants.END_ELEMENT || nEvent == XMLStreamConstants.END_DOCUMENT)
+        return false;
+    }
+    return false;
+  }
+
+  /**
+   * Read the SBDH header from the provided input stream, without reading the business payload. The
+   * header is validated against the SBDH XML Schema while it is read.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. Is not closed by this
+   *        method.
+   * @param aErrorList
+   *        The error list to be filled in case of errors. May not be <code>null</code>.
+   * @return The Standard Business Document with the full header and a placeholder element as the
+   *         business payload or <code>null</code> if the provided stream does not contain a
+   *         Standard Business Document or if the header is invalid. In that case the error list
+   *         contains at least one error.
+   */
+  @Nullable
+  public static StandardBusinessDocument readHeader (@NonNull final InputStream aIS,
+                                                     @NonNull final ErrorList aErrorList)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    ValueEnforcer.notNull (aErrorList, "ErrorList");
+
+    try
+    {
+      final XMLStreamReader aReader = SingletonHolder.INPUT_FACTORY.createXMLStreamReader (aIS);
+      try
+      {
+        // Root element
+        if (!_nextStartElement (aReader) || !_isSBDHElement (aReader, ELEMENT_STANDARD_BUSINESS_DOCUMENT))
+        {
+          aErrorList.add (SingleError.builderError ()
+                                     .errorText ("The root element is not the expected {" +
+                                                 SBDH_NS +
+                                                 "}" +
+                                                 ELEMENT_STANDARD_BUSINESS_DOCUMENT)
+                                     .build ());
+          return null;
+        }
+
+        // The header must be the first child
+        if (!_nextStartElement (aReader) || !_isSBDHElement (aReader, ELEMENT_STANDARD_BUSINESS_DOCUMENT_HEADER))
+        {
+          aErrorList.add (SingleError.builderError ()
+                                     .errorText ("The " +
+                                                 ELEMENT_STANDARD_BUSINESS_DOCUMENT +
+                                                 " does not start with the mandatory " +
+                                                 ELEMENT_STANDARD_BUSINESS_DOCUMENT_HEADER +
+                                                 " element")
+                                     .build ());
+          return null;
+        }
+
+        // Read and validate only the header via JAXB - afterwards the reader is positioned after
+        // the header
+        final CollectingValidationEventHandler aCVEH = new CollectingValidationEventHandler ();
+        final Unmarshaller aUnmarshaller = SingletonHolder.JAXB_CONTEXT.createUnmarshaller ();
+        aUnmarshaller.setSchema (SingletonHolder.SBDH_SCHEMA);
+        aUnmarshaller.setEventHandler (aCVEH);
+        final StandardBusinessDocumentHeader aHeader = aUnmarshaller.unmarshal (aReader,
+                                                                               StandardBusinessDocumentHeader.class)
+                                                                   .getValue ();
+        aErrorList.addAll (aCVEH.getErrorList ());
+        if (aCVEH.getErrorList ().containsAtLeastOneError ())
+          return null;
+
+        // Find the business payload root element
+        final boolean bHasPayload = aReader.isStartElement () || _nextStartElement (aReader);
+        if (!bHasPayload)
+        {
+          aErrorList.add (SingleError.builderError ()
+                                     .errorText ("The " + ELEMENT_STANDARD_BUSINESS_DOCUMENT + " contains no business payload")
+                                     .build ());
+          return null;
+        }
+
+        // Create only an empty placeholder element with the same name
+        final Document aDoc = XMLFactory.newDocument ();
+        final String sNamespaceURI = aReader.getNamespaceURI ();
+        final String sPrefix = aReader.getPrefix ();
+        final String sQName = StringHelper.isEmpty (sPrefix) ? aReader.getLocalName ()
+                                                             : sPrefix + ":" + aReader.getLocalName ();
+        final Element aPlaceholder = aDoc.createElementNS (StringHelper.isEmpty (sNamespaceURI) ? null : sNamespaceURI,
+                                                           sQName);
+        aDoc.appendChild (aPlaceholder);
+
+        final StandardBusinessDocument ret = new StandardBusinessDocument ();
+        ret.setStandardBusinessDocumentHeader (aHeader);
+        ret.setAny (aPlaceholder);
+        return ret;
+      }
+      finally
+      {
+        aReader.close ();
+      }
+    }
+    catch (final XMLStreamException | JAXBException | RuntimeException ex)
+    {
+      aErrorList.add (SingleError.builderError ()
+                                 .errorText ("Failed to read the SBDH header: " + ex.getMessage ())
+                                 .linkedException (ex)
+                                 .build ());
+      return null;
+    }
+  }
+
+  /**
+   * A single pass byte level scanner that copies the business payload element of an SBD unchanged.
+   * It only understands as much XML as is needed to find element boundaries. All markup delimiters
+   * are ASCII, so this works for all ASCII compatible encodings, including UTF-8.
+   *
+   * @author Philip Helger
+   */
+  private static final class RawPayloadCopier
+  {
+    private static final Pattern PATTERN_ATTR = Pattern.compile ("\\s+([^\\s=/>]+)\\s*=\\s*(\"[^\"]*\"|'[^']*')");
+    private static final Pattern PATTERN_ENCODING = Pattern.compile ("encoding\\s*=\\s*[\"']([A-Za-z0-9._\\-]+)[\"']");
+    private static final byte [] END_PI = { '?', '>' };
+    private static final byte [] END_COMMENT = { '-', '-', '>' };
+    private static final byte [] END_CDATA = { ']', ']', '>' };
+
+    private final InputStream m_aIS;
+    private final OutputStream m_aOS;
+    // If true, every byte read is written to the output stream
+    private boolean m_bCopy = false;
+
+    RawPayloadCopier (@NonNull final InputStream aIS, @NonNull final OutputStream aOS)
+    {
+      m_aIS = aIS;
+      m_aOS = aOS;
+    }
+
+    private int _read () throws IOException, XMLStreamException
+    {
+      final int ret = m_aIS.read ();
+      if (ret < 0)
+        throw new XMLStreamException ("Unexpected end of the " + ELEMENT_STANDARD_BUSINESS_DOCUMENT);
+      if (m_bCopy)
+        m_aOS.write (ret);
+      return ret;
+    }
+
+    private void _skipUntil (final byte @NonNull [] aEnd,
+                             @Nullable final NonBlockingByteArrayOutputStream aCollector) throws IOException,
+                                                                                         XMLStreamException
+    {
+      // The last bytes read, to handle e.g. "]]]>" correctly
+      final int [] aLast = new int [aEnd.length];
+      int nRead = 0;
+      while (true)
+      {
+        final int c = _read ();
+        if (aCollector != null)
+          aCollector.write (c);
+        System.arraycopy (aLast, 1, aLast, 0, aLast.length - 1);
+        aLast[aLast.length - 1] = c;
+        nRead++;
+        if (nRead >= aEnd.length)
+        {
+          boolean bMatch = true;
+          for (int i = 0; i < aEnd.length && bMatch; ++i)
+            bMatch = aLast[i] == aEnd[i];
+          if (bMatch)
+            return;
+        }
+      }
+    }
+
+    /**
+     * Skip a markup construct that starts with "&lt;!".
+     */
+    private void _skipDeclaration () throws IOException, XMLStreamException
+    {
+      final int c = _read ();
+      if (c == '-' && _read () == '-')
+        _skipUntil (END_COMMENT, null);
+      else
+        if (c == '[')
+          _skipUntil (END_CDATA, null);
+        else
+          throw new XMLStreamException ("DTDs are not supported");
+    }
+
+    /**
+     * Read the rest of a start tag, after the "&lt;" and the first character.
+     *
+     * @return The complete start tag as ISO-8859-1 string, to keep the original bytes.
+     */
+    @NonNull
+    private String _readStartTag (final int nFirst) throws IOException, XMLStreamException
+    {
+      final NonBlockingByteArrayOutputStream aTag = new NonBlockingByteArrayOutputStream ();
+      aTag.write ('<');
+      aTag.write (nFirst);
+      int nQuote = 0;
+      int c = nFirst;
+      while (c != '>' || nQuote != 0)
+      {
+        c = _read ();
+        aTag.write (c);
+        if (nQuote != 0)
+        {
+          if (c == nQuote)
+            nQuote = 0;
+        }
+        else
+          if (c == '"' || c == '\'')
+            nQuote = c;
+      }
+      return aTag.getAsString (StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean _isSelfClosing (@NonNull final String sTag)
+    {
+      return sTag.endsWith ("/>");
+    }
+
+    @NonNull
+    private static String _getTagName (@NonNull final String sTag)
+    {
+      int nEnd = 1;
+      while (nEnd < sTag.length () && " \t\r\n/>".indexOf (sTag.charAt (nEnd)) < 0)
+        nEnd++;
+      return sTag.substring (1, nEnd);
+    }
+
+    /**
+     * @return The namespace prefix ("" for the default namespace) to the complete namespace
+     *         declaration attribute, in the original order.
+     */
+    @NonNull
+    private static ICommonsOrderedMap <String, String> _getNamespaceDeclarations (@NonNull final String sTag)
+    {
+      final ICommonsOrderedMap <String, String> ret = new CommonsLinkedHashMap <> ();
+      final Matcher aMatcher = PATTERN_ATTR.matcher (sTag);
+      while (aMatcher.find ())
+      {
+        final String sName = aMatcher.group (1);
+        if (sName.equals ("xmlns"))
+          ret.put ("", sName + "=" + aMatcher.group (2));
+        else
+          if (sName.startsWith ("xmlns:"))
+            ret.put (sName.substring (6), sName + "=" + aMatcher.group (2));
+      }
+      return ret;
+    }
+
+    /**
+     * Copy the content of the payload element including its end tag.
+     */
+    private void _copyElementContent () throws IOException, XMLStreamException
+    {
+      m_bCopy = true;
+      int nDepth = 1;
+      while (nDepth > 0)
+      {
+        if (_read () != '<')
+          continue;
+
+        final int c = _read ();
+        if (c == '?')
+          _skipUntil (END_PI, null);
+        else
+          if (c == '!')
+            _skipDeclaration ();
+          else
+            if (c == '/')
+            {
+              _skipUntil (new byte [] { '>' }, null);
+              nDepth--;
+            }
+            else
+              if (!_isSelfClosing (_readStartTag (c)))
+                nDepth++;
+      }
+      m_bCopy = false;
+    }
+
+    void copy () throws IOException, XMLStreamException
+    {
+      // Skip a UTF-8 BOM
+      m_aIS.mark (3);
+      final int b0 = m_aIS.read ();
+      final int b1 = m_aIS.read ();
+      final int b2 = m_aIS.read ();
+      if (b0 == 0xfe || b0 == 0xff || b0 == 0 || b1 == 0)
+        throw new XMLStreamException ("Only ASCII compatible encodings are supported for the " +
+                                      ELEMENT_STANDARD_BUSINESS_DOCUMENT);
+      if (b0 != 0xef || b1 != 0xbb || b2 != 0xbf)
+        m_aIS.reset ();
+
+      String sEncoding = StandardCharsets.UTF_8.name ();
+      ICommonsOrderedMap <String, String> aRootNamespaces = null;
+      int nDepth = 0;
+      while (true)
+      {
+        final int nByte = m_aIS.read ();
+        if (nByte < 0)
+          break;
+        if (nByte != '<')
+          continue;
+
+        final int c = _read ();
+        if (c == '?')
+        {
+          final NonBlockingByteArrayOutputStream aPI = new NonBlockingByteArrayOutputStream ();
+          _skipUntil (END_PI, aPI);
+          final String sPI = aPI.getAsString (StandardCharsets.ISO_8859_1);
+          if (aRootNamespaces == null && sPI.length () > 3 && sPI.startsWith ("xml") && sPI.charAt (3) <= ' ')
+          {
+            // The XML declaration
+            final Matcher aMatcher = PATTERN_ENCODING.matcher (sPI);
+            if (aMatcher.find ())
+              sEncoding = aMatcher.group (1);
+          }
+        }
+        else
+          if (c == '!')
+            _skipDeclaration ();
+          else
+            if (c == '/')
+            {
+              _skipUntil (new byte [] { '>' }, null);
+              nDepth--;
+              if (nDepth <= 0)
+                break;
+            }
+            else
+            {
+              final String sTag = _readStartTag (c);
+              final boolean bSelfClosing = _isSelfClosing (sTag);
+              if (nDepth == 0)
+                aRootNamespaces = _getNamespaceDeclarations (sTag);
+              else
+                if (nDepth == 1)
+                {
+                  final String sName = _getTagName (sTag);
+                  final String sLocalName = sName.substring (sName.indexOf (':') + 1);
+                  if (!ELEMENT_STANDARD_BUSINESS_DOCUMENT_HEADER.equals (sLocalName))
+                  {
+                    // Found the payload - re-declare the root namespaces that are not overwritten
+                    final ICommonsOrderedMap <String, String> aPayloadNamespaces = _getNamespaceDeclarations (sTag);
+                    final StringBuilder aNSDecls = new StringBuilder ();
+                    for (final Map.Entry <String, String> aEntry : aRootNamespaces.entrySet ())
+                      if (!aPayloadNamespaces.containsKey (aEntry.getKey ()))
+                        aNSDecls.append (' ').append (aEntry.getValue ());
+
+                    final int nNameEnd = 1 + sName.length ();
+                    final String sNewTag = sTag.substring (0, nNameEnd) + aNSDecls + sTag.substring (nNameEnd);
+                    m_aOS.write (("<?xml version=\"1.0\" encoding=\"" + sEncoding + "\"?>").getBytes (StandardCharsets.ISO_8859_1));
+                    m_aOS.write (sNewTag.getBytes (StandardCharsets.ISO_8859_1));
+                    if (!bSelfClosing)
+                      _copyElementContent ();
+                    return;
+                  }
+                }
+              if (!bSelfClosing)
+                nDepth++;
+            }
+      }
+      throw new XMLStreamException ("The " + ELEMENT_STANDARD_BUSINESS_DOCUMENT + " contains no business payload");
+    }
+  }
+
+  /**
+   * Copy the business payload element of the Standard Business Document read from the provided
+   * input stream to the provided output stream. The bytes of the payload are copied unchanged, so
+   * that e.g. signatures inside the payload stay valid and no XML serialization takes place. All
+   * namespace declarations of the SBD root element are re-declared on the payload root element, so
+   * that the result is a standalone XML document.<br>
+   * Note: the SBD must use an ASCII compatible encoding like UTF-8 and must not contain a DTD. The
+   * well-formedness of the payload is not checked.
+   *
+   * @param aIS
+   *        The input stream with the SBD to read from. May not be <code>null</code>. Is not closed
+   *        by this method.
+   * @param aOS
+   *        The output stream to write the business payload to. May not be <code>null</code>. Is
+   *        not closed by this method.
+   * @throws IOException
+   *         In case of a read or write error
+   * @throws XMLStreamException
+   *         In case the SBD contains no business payload or is not supported
+   */
+  public static void copyBusinessPayload (@NonNull @WillNotClose final InputStream aIS,
+                                          @NonNull @WillNotClose final OutputStream aOS) throws IOException,
+                                                                                       XMLStreamException
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    ValueEnforcer.notNull (aOS, "OutputStream");
+
+    final BufferedOutputStream aBufferedOS = new BufferedOutputStream (aOS, BUFFER_SIZE);
+    new RawPayloadCopier (new BufferedInputStream (aIS, BUFFER_SIZE), aBufferedOS).copy ();
+    aBufferedOS.flush ();
+  }
+
+  /**
+   * Create an input stream provider for the business payload of the provided SBD. The business
+   * payload is extracted lazily on first access into a spool entry of the provided resource
+   * helper, so that no costs arise if it is never used.
+   *
+   * @param aSBDISP
+   *        The input stream provider for the full SBD. Must be readable multiple times. May not be
+   *        <code>null</code>.
+   * @param aResHelper
+   *        The resource helper to create the spool entry. May not be <code>null</code>.
+   * @return A new input stream provider that can be read multiple times. Never <code>null</code>.
+   */
+  @NonNull
+  public static IHasInputStream createBusinessPayloadProvider (@NonNull final IHasInputStream aSBDISP,
+                                                              @NonNull final AS4ResourceHelper aResHelper)
+  {
+    ValueEnforcer.notNull (aSBDISP, "SBDISP");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    final Wrapper <IAS4SpoolEntry> aSpoolEntryWrapper = new Wrapper <> ();
+    // A lock instead of "synchronized" so that the extraction I/O does not pin virtual threads
+    final Lock aLock = new ReentrantLock ();
+    return new HasInputStream ( () -> {
+      aLock.lock ();
+      try
+      {
+        IAS4SpoolEntry aSpoolEntry = aSpoolEntryWrapper.get ();
+        if (aSpoolEntry == null)
+        {
+          try (final InputStream aSrcIS = aSBDISP.getInputStream ())
+          {
+            if (aSrcIS == null)
+              throw new IllegalStateException ("Failed to create InputStream from " + aSBDISP);
+
+            aSpoolEntry = aResHelper.createSpoolEntry ();
+            try (final OutputStream aOS = aSpoolEntry.getOutputStream ())
+            {
+              copyBusinessPayload (aSrcIS, aOS);
+            }
+          }
+          catch (final IOException | XMLStreamException ex)
+          {
+            throw new IllegalStateException ("Failed to extract the business payload from the SBD", ex);
+          }
+          aSpoolEntryWrapper.set (aSpoolEntry);
+        }
+        return aSpoolEntry.getInputStream ();
+      }
+      finally
+      {
+        aLock.unlock ();
+      }
+    }, true);
+  }
+}
@@ -41,8 +41,10 @@ import com.helger.annotation.style.ReturnsMutableCopy;
 import com.helger.annotation.style.ReturnsMutableObject;
 import com.helger.annotation.style.UnsupportedOperation;
 import com.helger.annotation.style.UsedViaReflection;
+import com.helger.annotation.style.VisibleForTesting;
 import com.helger.base.debug.GlobalDebug;
 import com.helger.base.enforce.ValueEnforcer;
+import com.helger.base.io.iface.IHasInputStream;
 import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
 import com.helger.base.io.stream.StreamHelper;
 import com.helger.base.spi.ServiceLoaderHelper;
@@ -73,6 +75,7 @@ import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.IAS4Attachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.AS4CertificateVerdictCache;
 import com.helger.phase4.ebms3header.Ebms3From;
 import com.helger.phase4.ebms3header.Ebms3PartyId;
 import com.helger.phase4.ebms3header.Ebms3Property;
@@ -91,6 +94,7 @@ import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.error.EEbmsError;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.profile.peppol.PeppolPMode;
+import com.helger.phase4.spool.IAS4SpoolEntry;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.phase4.util.Phase4IncomingException;
 import com.helger.sbdh.SBDMarshaller;
@@ -129,6 +133,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
     private Charset m_aCharset;
     private EAS4CompressionMode m_eCompressionMode;
     private byte [] m_aPayloadBytes;
+    private IHasInputStream m_aSBDStreamProvider;
     private StandardBusinessDocument m_aSBDH;
 
     private ReadAttachment ()
@@ -164,12 +169,32 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
       return m_eCompressionMode;
     }
 
+    /**
+     * @return The payload bytes. Never <code>null</code>.
+     * @throws IllegalStateException
+     *         In streaming mode. Use {@link #sbdStreamProvider()} instead.
+     */
     @ReturnsMutableObject
     public byte @NonNull [] payloadBytes ()
     {
+      if (m_aPayloadBytes == null)
+        throw new IllegalStateException ("The payload bytes are not available in streaming mode");
       return m_aPayloadBytes;
     }
 
+    /**
+     * @return The provider for the spooled payload. Never <code>null</code>.
+     * @throws IllegalStateException
+     *         If not in streaming mode. Use {@link #payloadBytes()} instead.
+     */
+    @NonNull
+    public IHasInputStream sbdStreamProvider ()
+    {
+      if (m_aSBDStreamProvider == null)
+        throw new IllegalStateException ("The payload stream is only available in streaming mode");
+      return m_aSBDStreamProvider;
+    }
+
     @NonNull
     @ReturnsMutableObject
     public StandardBusinessDocument standardBusinessDocument ()
@@ -229,6 +254,21 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
     return this;
   }
 
+  /**
+   * Check if the streaming receive mode is used. That is the case, if at least one handler is
+   * present and all handlers implement {@link IPhase4PeppolIncomingSBDStreamHandlerSPI}. In
+   * streaming mode the decompressed SBD is spooled via the resource helper of the incoming message
+   * and only the SBDH header is parsed.
+   *
+   * @return <code>true</code> if the streaming receive mode is used, <code>false</code> if not.
+   * @since 4.5.5
+   */
+  public final boolean isStreamingMode ()
+  {
+    return !m_aHandlers.isEmpty () &&
+           m_aHandlers.stream ().allMatch (IPhase4PeppolIncomingSBDStreamHandlerSPI.class::isInstance);
+  }
+
   /**
    * @return the transport profile to be handled. Never <code>null</code>. By default it is "Peppol
    *         AS4 v2" (see {@link #DEFAULT_TRANSPORT_PROFILE}).
@@ -328,6 +368,50 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
     }
   }
 
+  @Nullable
+  @VisibleForTesting
+  final EndpointType getReceiverEndpointCached (@NonNull final String sLogPrefix,
+                                                @NonNull final Phase4PeppolReceiverConfiguration aReceiverCheckData,
+                                                @Nullable final IParticipantIdentifier aRecipientID,
+                                                @Nullable final IDocumentTypeIdentifier aDocTypeID,
+                                                @Nullable final IProcessIdentifier aProcessID) throws Phase4PeppolServletException,
+                                                                                               SMPDNSResolutionException
+  {
+    final Phase4PeppolReceiverRegistrationCache aCache = aReceiverCheckData.getRegistrationCache ();
+    if (aCache == null || aRecipientID == null || aDocTypeID == null || aProcessID == null)
+    {
+      // Resolve SMP client - either pre-configured or dynamically via SML
+      final ISMPExtendedServiceMetadataProvider aSMPClient = aRecipientID != null ? aReceiverCheckData.getOrCreateSMPClientForRecipient (aRecipientID)
+                                                                                  : aReceiverCheckData.getSMPClient ();
+      return _getReceiverEndpoint (sLogPrefix, aSMPClient, aRecipientID, aDocTypeID, aProcessID);
+    }
+
+    try
+    {
+      // The SMP client is only resolved on a cache miss, to avoid the DNS lookup
+      final String sSMPID = Phase4PeppolReceiverRegistrationCache.getSMPID (aReceiverCheckData);
+      return aCache.getOrLookup (Phase4PeppolReceiverRegistrationCache.getCacheKey (sSMPID,
+                                                                                    aRecipientID,
+                                                                                    aDocTypeID,
+                                                                                    aProcessID,
+                                                                                    m_aTransportProfile),
+                                 () -> _getReceiverEndpoint (sLogPrefix,
+                                                             aReceiverCheckData.getOrCreateSMPClientForRecipient (aRecipientID),
+                                                             aRecipientID,
+                                                             aDocTypeID,
+                                                             aProcessID));
+    }
+    catch (final Phase4PeppolServletException | SMPDNSResolutionException | RuntimeException ex)
+    {
+      throw ex;
+    }
+    catch (final Exception ex)
+    {
+      // Cannot happen
+      throw new IllegalStateException (ex);
+    }
+  }
+
   private static void _checkIfReceiverEndpointURLMatches (@NonNull final String sLogPrefix,
                                                           @NonNull @Nonempty final String sOwnAPUrl,
                                                           @NonNull final EndpointType aRecipientEndpoint) throws Phase4PeppolServletException
@@ -632,11 +716,20 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
       final X509Certificate aSenderSigningCert = aIncomingState.getSigningCertificate ();
       // Check if signing AP certificate is revoked, honoring per-receive overrides for caching
       // and revocation check mode (falling back to the JVM-wide defaults if not configured).
-      final ECertificateCheckResult eCertCheckResult = aReceiverCheckData.getAPCAChecker ()
-                                                                         .checkCertificate (aSenderSigningCert,
-                                                                                            aNow,
-                                                                                            aReceiverCheckData.getAPCacheRevocationCheckResult (),
-                                                                                            aReceiverCheckData.getAPRevocationCheckMode ());
+      final AS4CertificateVerdictCache aVerdictCache = aReceiverCheckData.getAPCertificateVerdictCache ();
+      final ECertificateCheckResult eCertCheckResult;
+      if (aVerdictCache != null)
+        eCertCheckResult = aVerdictCache.checkCertificate (aReceiverCheckData.getAPCAChecker (),
+                                                           aSenderSigningCert,
+                                                           aNow,
+                                                           aReceiverCheckData.getAPCacheRevocationCheckResult (),
+                                                           aReceiverCheckData.getAPRevocationCheckMode ());
+      else
+        eCertCheckResult = aReceiverCheckData.getAPCAChecker ()
+                                             .checkCertificate (aSenderSigningCert,
+                                                                aNow,
+                                                                aReceiverCheckData.getAPCacheRevocationCheckResult (),
+                                                                aReceiverCheckData.getAPRevocationCheckMode ());
       if (eCertCheckResult.isInvalid ())
       {
         if (aReceiverCheckData.isAPRevocationSoftFail () &&
@@ -669,6 +762,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
 
     // Read all attachments and copy them into local objects. That eventually
     // includes decompressing them.
+    final boolean bStreamingMode = isStreamingMode ();
     final ICommonsList <ReadAttachment> aReadAttachments = new CommonsArrayList <> ();
     if (aIncomingAttachments != null)
     {
@@ -685,19 +779,32 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
         // This stream is decompressing if needed
         try (final InputStream aSIS = aIncomingAttachment.getSourceStream ())
         {
-          // Get a decompressed copy
-          // And yes, for very large files, this is not a good idea
-          final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
-          if (StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aSIS, aBAOS).isSuccess ())
+          if (bStreamingMode)
+          {
+            // Spool the decompressed data - usually to disk - and read it from there
+            final IAS4SpoolEntry aSpoolEntry = aIncomingState.getResourceHelper ().createSpoolEntry ();
+            if (StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aSIS, aSpoolEntry.getOutputStream ())
+                            .isSuccess ())
+            {
+              a.m_aSBDStreamProvider = aSpoolEntry;
+            }
+          }
+          else
           {
-            a.m_aPayloadBytes = aBAOS.getBufferOrCopy ();
+            // Get a decompressed copy
+            // And yes, for very large files, this is not a good idea
+            final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+            if (StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aSIS, aBAOS).isSuccess ())
+            {
+              a.m_aPayloadBytes = aBAOS.getBufferOrCopy ();
+            }
           }
         }
         catch (final IOException | AS4DecompressException ex)
         {
           // Fall through
         }
-        if (a.m_aPayloadBytes == null)
+        if (a.m_aPayloadBytes == null && a.m_aSBDStreamProvider == null)
         {
           final String sDetails = "Failed to decompress the payload of attachment #" + nAttachmentIndex;
           LOGGER.error (sLogPrefix + sDetails);
@@ -709,10 +816,26 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
         }
 
         // Read data as SBDH
-        // Hint for production systems: this may take a huge amount of memory,
-        // if the payload is large
         final ErrorList aSBDHErrors = new ErrorList ();
-        a.m_aSBDH = new SBDMarshaller ().setCollectErrors (aSBDHErrors).read (a.m_aPayloadBytes);
+        if (bStreamingMode)
+        {
+          // Only the SBDH header is read - the business payload is not parsed
+          try (final InputStream aSBDIS = a.m_aSBDStreamProvider.getInputStream ())
+          {
+            a.m_aSBDH = Phase4PeppolSBDHStreamReader.readHeader (aSBDIS, aSBDHErrors);
+          }
+          catch (final IOException ex)
+          {
+            // Error is handled below
+            a.m_aSBDH = null;
+          }
+        }
+        else
+        {
+          // Hint for production systems: this may take a huge amount of memory,
+          // if the payload is large. Consider using the streaming mode.
+          a.m_aSBDH = new SBDMarshaller ().setCollectErrors (aSBDHErrors).read (a.m_aPayloadBytes);
+        }
 
         // Only fail if the first attachment is not an SBDH. The check for
         // exactly 1 attachment comes below
@@ -759,7 +882,9 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
                         "] and [" +
                         StringHelper.getToString (a.m_aCharset, "no charset") +
                         "] and length is " +
-                        (a.m_aPayloadBytes == null ? "<error>" : Integer.toString (a.m_aPayloadBytes.length)) +
+                        (a.m_aPayloadBytes != null ? Integer.toString (a.m_aPayloadBytes.length)
+                                                   : a.m_aSBDStreamProvider instanceof final IAS4SpoolEntry aSE ? Long.toString (aSE.getSize ())
+                                                                                                                 : "<error>") +
                         " bytes" +
                         (a.m_eCompressionMode == null ? "" : " of compressed payload"));
         nAttachmentIndex++;
@@ -1065,14 +1190,11 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
         final IParticipantIdentifier aReceiverID = aPeppolSBDH.getReceiverAsIdentifier ();
         final IDocumentTypeIdentifier aDocTypeID = aPeppolSBDH.getDocumentTypeAsIdentifier ();
         final IProcessIdentifier aProcessID = aPeppolSBDH.getProcessAsIdentifier ();
-        // Resolve SMP client - either pre-configured or dynamically via SML
-        final ISMPExtendedServiceMetadataProvider aSMPClient = aReceiverID != null ? aReceiverCheckData.getOrCreateSMPClientForRecipient (aReceiverID)
-                                                                                   : aReceiverCheckData.getSMPClient ();
-        final EndpointType aReceiverEndpoint = _getReceiverEndpoint (sLogPrefix,
-                                                                     aSMPClient,
-                                                                     aReceiverID,
-                                                                     aDocTypeID,
-                                                                     aProcessID);
+        final EndpointType aReceiverEndpoint = getReceiverEndpointCached (sLogPrefix,
+                                                                          aReceiverCheckData,
+                                                                          aReceiverID,
+                                                                          aDocTypeID,
+                                                                          aProcessID);
         if (aReceiverEndpoint == null)
         {
           final String sMsg = "Failed to resolve SMP endpoint for provided receiver ID (" +
@@ -1161,14 +1283,32 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4IncomingMessa
         {
           if (LOGGER.isDebugEnabled ())
             LOGGER.debug (sLogPrefix + "Invoking Peppol handler " + aHandler);
-          aHandler.handleIncomingSBD (aMessageMetadata,
-                                      aHttpHeaders.getClone (),
-                                      aUserMessage.clone (),
-                                      aReadAttachment.payloadBytes (),
-                                      aReadAttachment.standardBusinessDocument (),
-                                      aPeppolSBDH,
-                                      aIncomingState,
-                                      aProcessingErrorMessages);
+          if (bStreamingMode)
+          {
+            // Checked in isStreamingMode
+            final IPhase4PeppolIncomingSBDStreamHandlerSPI aStreamHandler = (IPhase4PeppolIncomingSBDStreamHandlerSPI) aHandler;
+            final IHasInputStream aSBDStreamProvider = aReadAttachment.sbdStreamProvider ();
+            aStreamHandler.handleIncomingSBDStream (aMessageMetadata,
+                                                    aHttpHeaders.getClone (),
+                                                    aUserMessage.clone (),
+                                                    aSBDStreamProvider,
+                                                    Phase4PeppolSBDHStreamReader.createBusinessPayloadProvider (aSBDStreamProvider,
+                                                                                                               aIncomingState.getResourceHelper ()),
+                                                    aPeppolSBDH,
+                                                    aIncomingState,
+                                                    aProcessingErrorMessages);
+          }
+          else
+          {
+            aHandler.handleIncomingSBD (aMessageMetadata,
+                                        aHttpHeaders.getClone (),
+                                        aUserMessage.clone (),
+                                        aReadAttachment.payloadBytes (),
+                                        aReadAttachment.standardBusinessDocument (),
+                                        aPeppolSBDH,
+                                        aIncomingState,
+                                        aProcessingErrorMessages);
+          }
         }
         catch (final Exception ex)
         {
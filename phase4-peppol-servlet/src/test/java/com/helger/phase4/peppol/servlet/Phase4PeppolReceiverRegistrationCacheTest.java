@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+import org.junit.Test;
+
+import com.helger.peppol.smp.ESMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.peppolid.factory.PeppolIdentifierFactory;
+import com.helger.smpclient.exception.SMPClientException;
+import com.helger.smpclient.peppol.SMPClientReadOnly;
+import com.helger.xsds.peppol.smp1.SignedServiceMetadataType;
+
+/**
+ * Test class for class {@link Phase4PeppolReceiverRegistrationCache}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolReceiverRegistrationCacheTest
+{
+  private static final IParticipantIdentifier RECEIVER = PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:receiver");
+  private static final IDocumentTypeIdentifier DOCTYPE = PeppolIdentifierFactory.INSTANCE.createDocumentTypeIdentifierWithDefaultScheme ("urn:test:doctype");
+  private static final IProcessIdentifier PROCESS = PeppolIdentifierFactory.INSTANCE.createProcessIdentifierWithDefaultScheme ("urn:test:process");
+
+  private static final class TestCache extends Phase4PeppolReceiverRegistrationCache
+  {
+    private final AtomicLong m_aNow = new AtomicLong (0);
+
+    TestCache ()
+    {
+      // Execute refreshes synchronously
+      super (Duration.ofSeconds (100), Duration.ofSeconds (10), Duration.ofSeconds (50), 10, 0.8, Runnable::run);
+    }
+
+    @Override
+    protected long getCurrentNanos ()
+    {
+      return m_aNow.get ();
+    }
+
+    void advance (final Duration aDuration)
+    {
+      m_aNow.addAndGet (aDuration.toNanos ());
+    }
+  }
+
+  /**
+   * An SMP client that counts the lookups and finds no registration.
+   */
+  private static final class CountingSMPClient extends SMPClientReadOnly
+  {
+    private final AtomicInteger m_aLookups = new AtomicInteger (0);
+    private final AtomicBoolean m_aFailing = new AtomicBoolean (false);
+
+    CountingSMPClient (@NonNull final String sSMPHostURI)
+    {
+      super (URI.create (sSMPHostURI));
+    }
+
+    @Override
+    @Nullable
+    public SignedServiceMetadataType getSchemeSpecificServiceMetadataOrNull (@NonNull final IParticipantIdentifier aServiceGroupID,
+                                                                             @NonNull final IDocumentTypeIdentifier aDocumentTypeID) throws SMPClientException
+    {
+      m_aLookups.incrementAndGet ();
+      if (m_aFailing.get ())
+        throw new SMPClientException ("SMP is not available");
+      return null;
+    }
+  }
+
+  @NonNull
+  private static Phase4PeppolReceiverConfiguration _createReceiverConfig (@NonNull final CountingSMPClient aSMPClient,
+                                                                          @NonNull final Phase4PeppolReceiverRegistrationCache aCache)
+  {
+    return Phase4PeppolReceiverConfiguration.builder ()
+                                            .receiverCheckEnabled (false)
+                                            .serviceMetadataProvider (aSMPClient)
+                                            .sbdhIdentifierFactoryPeppol ()
+                                            .apCAChecker (Phase4PeppolDefaultReceiverConfiguration.DEFAULT_PEPPOL_AP_CA_CHECKER)
+                                            .registrationCache (aCache)
+                                            .build ();
+  }
+
+  @Test
+  public void testCacheKey ()
+  {
+    final String sKey = Phase4PeppolReceiverRegistrationCache.getCacheKey ("smp:a",
+                                                                            RECEIVER,
+                                                                            DOCTYPE,
+                                                                            PROCESS,
+                                                                            ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2);
+    assertEquals (sKey,
+                  Phase4PeppolReceiverRegistrationCache.getCacheKey ("smp:a",
+                                                                     RECEIVER,
+                                                                     DOCTYPE,
+                                                                     PROCESS,
+                                                                     ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2));
+    assertNotEquals (sKey,
+                     Phase4PeppolReceiverRegistrationCache.getCacheKey ("smp:b",
+                                                                        RECEIVER,
+                                                                        DOCTYPE,
+                                                                        PROCESS,
+                                                                        ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2));
+
+    // The SMP is part of the key
+    final TestCache aCache = new TestCache ();
+    final CountingSMPClient aSMP1 = new CountingSMPClient ("http://smp1.example.org");
+    final CountingSMPClient aSMP2 = new CountingSMPClient ("http://smp2.example.org");
+    assertNotEquals (Phase4PeppolReceiverRegistrationCache.getSMPID (_createReceiverConfig (aSMP1, aCache)),
+                     Phase4PeppolReceiverRegistrationCache.getSMPID (_createReceiverConfig (aSMP2, aCache)));
+  }
+
+  @Test
+  public void testSMPClientsAreShared ()
+  {
+    final TestCache aCache = new TestCache ();
+    final URI aURI = URI.create ("http://smp.example.org");
+    final SMPClientReadOnly aClient = aCache.getOrCreateSMPClient (aURI, SMPClientReadOnly::new);
+    assertSame (aClient, aCache.getOrCreateSMPClient (aURI, x -> {
+      throw new IllegalStateException ("Should not be called");
+    }));
+    assertEquals (1, aCache.getSMPClientCount ());
+    aCache.clear ();
+    assertEquals (0, aCache.getSMPClientCount ());
+  }
+
+  @Test
+  public void testProcessorSPIUsesCache () throws Exception
+  {
+    final TestCache aCache = new TestCache ();
+    final CountingSMPClient aSMPClient = new CountingSMPClient ("http://smp.example.org");
+    final Phase4PeppolReceiverConfiguration aReceiverConfig = _createReceiverConfig (aSMPClient, aCache);
+    final Phase4PeppolServletMessageProcessorSPI aSPI = new Phase4PeppolServletMessageProcessorSPI ();
+
+    // Miss - the SMP is queried
+    assertNull (aSPI.getReceiverEndpointCached ("", aReceiverConfig, RECEIVER, DOCTYPE, PROCESS));
+    assertEquals (1, aSMPClient.m_aLookups.get ());
+    assertEquals (1, aCache.getMissCount ());
+
+    // The negative result is cached
+    assertNull (aSPI.getReceiverEndpointCached ("", aReceiverConfig, RECEIVER, DOCTYPE, PROCESS));
+    assertEquals (1, aSMPClient.m_aLookups.get ());
+    assertEquals (1, aCache.getNegativeHitCount ());
+
+    // Another transport profile is another entry
+    aSPI.setTransportProfile (ESMPTransportProfile.TRANSPORT_PROFILE_BDXR_AS4);
+    assertNull (aSPI.getReceiverEndpointCached ("", aReceiverConfig, RECEIVER, DOCTYPE, PROCESS));
+    assertEquals (2, aSMPClient.m_aLookups.get ());
+
+    // Incomplete identifiers bypass the cache
+    assertNull (aSPI.getReceiverEndpointCached ("", aReceiverConfig, RECEIVER, DOCTYPE, null));
+    assertEquals (2, aCache.getMissCount ());
+    assertEquals (2, aCache.size ());
+  }
+
+  @Test
+  public void testProcessorSPISMPErrors () throws Exception
+  {
+    final TestCache aCache = new TestCache ();
+    final CountingSMPClient aSMPClient = new CountingSMPClient ("http://smp.example.org");
+    final Phase4PeppolReceiverConfiguration aReceiverConfig = _createReceiverConfig (aSMPClient, aCache);
+    final Phase4PeppolServletMessageProcessorSPI aSPI = new Phase4PeppolServletMessageProcessorSPI ();
+
+    // Errors are not cached
+    aSMPClient.m_aFailing.set (true);
+    try
+    {
+      aSPI.getReceiverEndpointCached ("", aReceiverConfig, RECEIVER, DOCTYPE, PROCESS);
+      fail ();
+    }
+    catch (final Phase4PeppolServletException ex)
+    {
+      // expected
+    }
+    assertEquals (0, aCache.size ());
+    assertEquals (1, aCache.getLookupErrorCount ());
+
+    aSMPClient.m_aFailing.set (false);
+    assertNull (aSPI.getReceiverEndpointCached ("", aReceiverConfig, RECEIVER, DOCTYPE, PROCESS));
+    assertEquals (1, aCache.size ());
+
+    // Expired, but the failed refresh keeps the old entry within the grace period
+    aCache.advance (Duration.ofSeconds (15));
+    aSMPClient.m_aFailing.set (true);
+    assertNull (aSPI.getReceiverEndpointCached ("", aReceiverConfig, RECEIVER, DOCTYPE, PROCESS));
+    assertEquals (1, aCache.getStaleHitCount ());
+    assertEquals (0, aCache.getRefreshCount ());
+    assertEquals (3, aSMPClient.m_aLookups.get ());
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+import org.w3c.dom.Element;
+
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayOutputStream;
+import com.helger.diagnostics.error.list.ErrorList;
+
+/**
+ * Test class for class {@link Phase4PeppolSBDHStreamReader}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolSBDHStreamReaderTest
+{
+  private static final String SBD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                                    "<sh:StandardBusinessDocument xmlns:sh=\"http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader\"" +
+                                    " xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\">" +
+                                    "<sh:StandardBusinessDocumentHeader>" +
+                                    "<sh:HeaderVersion>1.0</sh:HeaderVersion>" +
+                                    "<sh:Sender><sh:Identifier Authority=\"iso6523-actorid-upis\">9915:sender</sh:Identifier></sh:Sender>" +
+                                    "<sh:Receiver><sh:Identifier Authority=\"iso6523-actorid-upis\">9915:receiver</sh:Identifier></sh:Receiver>" +
+                                    "<sh:DocumentIdentification>" +
+                                    "<sh:Standard>urn:oasis:names:specification:ubl:schema:xsd:Invoice-2</sh:Standard>" +
+                                    "<sh:TypeVersion>2.1</sh:TypeVersion>" +
+                                    "<sh:InstanceIdentifier>123456789</sh:InstanceIdentifier>" +
+                                    "<sh:Type>Invoice</sh:Type>" +
+                                    "<sh:CreationDateAndTime>2023-10-25T15:42:10Z</sh:CreationDateAndTime>" +
+                                    "</sh:DocumentIdentification>" +
+                                    "</sh:StandardBusinessDocumentHeader>" +
+                                    "<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\">" +
+                                    "<cbc:ID>Inv1</cbc:ID>" +
+                                    "</Invoice>" +
+                                    "</sh:StandardBusinessDocument>";
+
+  @Test
+  public void testReadHeader ()
+  {
+    final ErrorList aErrorList = new ErrorList ();
+    final StandardBusinessDocument aSBD = Phase4PeppolSBDHStreamReader.readHeader (new NonBlockingByteArrayInputStream (SBD.getBytes (StandardCharsets.UTF_8)),
+                                                                                  aErrorList);
+    assertNotNull (aSBD);
+    assertTrue (aErrorList.isEmpty ());
+    assertEquals ("9915:sender",
+                  aSBD.getStandardBusinessDocumentHeader ().getSender ().get (0).getIdentifier ().getValue ());
+    assertEquals ("Invoice", aSBD.getStandardBusinessDocumentHeader ().getDocumentIdentification ().getType ());
+
+    // Only a placeholder
+    final Element aPayload = (Element) aSBD.getAny ();
+    assertEquals ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2", aPayload.getNamespaceURI ());
+    assertEquals ("Invoice", aPayload.getLocalName ());
+    assertFalse (aPayload.hasChildNodes ());
+  }
+
+  @Test
+  public void testReadHeaderInvalid ()
+  {
+    final ErrorList aErrorList = new ErrorList ();
+    assertNull (Phase4PeppolSBDHStreamReader.readHeader (new NonBlockingByteArrayInputStream ("<Invoice/>".getBytes (StandardCharsets.UTF_8)),
+                                                         aErrorList));
+    assertFalse (aErrorList.isEmpty ());
+  }
+
+  @Test
+  public void testCopyBusinessPayload () throws Exception
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    Phase4PeppolSBDHStreamReader.copyBusinessPayload (new NonBlockingByteArrayInputStream (SBD.getBytes (StandardCharsets.UTF_8)),
+                                                      aBAOS);
+    final String sPayload = aBAOS.getAsString (StandardCharsets.UTF_8);
+    assertTrue (sPayload, sPayload.contains ("<cbc:ID>Inv1</cbc:ID>"));
+    // The namespace of the SBD root must be re-declared
+    assertTrue (sPayload,
+                sPayload.contains ("xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\""));
+    assertFalse (sPayload, sPayload.contains ("<sh:"));
+  }
+
+  @Test
+  public void testReadHeaderSchemaInvalid ()
+  {
+    // The mandatory HeaderVersion is missing
+    final String sSBD = SBD.replace ("<sh:HeaderVersion>1.0</sh:HeaderVersion>", "");
+    final ErrorList aErrorList = new ErrorList ();
+    assertNull (Phase4PeppolSBDHStreamReader.readHeader (new NonBlockingByteArrayInputStream (sSBD.getBytes (StandardCharsets.UTF_8)),
+                                                         aErrorList));
+    assertTrue (aErrorList.containsAtLeastOneError ());
+  }
+
+  @Test
+  public void testCopyBusinessPayloadRaw () throws Exception
+  {
+    // Formatting, comments, CDATA and character references must be kept as they are
+    final String sPayloadContent = "\n  <!-- a > comment -->\n  <cbc:ID>Inv&#x31;</cbc:ID>" +
+                                   "<cbc:Note attr=\"a>b\" other='c/>'><![CDATA[<x>]]]]></cbc:Note>" +
+                                   "<cbc:Empty/><cbc:Note>\u00e4\u20ac</cbc:Note>\n";
+    final String sSBD = SBD.replace ("<cbc:ID>Inv1</cbc:ID>", sPayloadContent);
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    Phase4PeppolSBDHStreamReader.copyBusinessPayload (new NonBlockingByteArrayInputStream (sSBD.getBytes (StandardCharsets.UTF_8)),
+                                                      aBAOS);
+    final String sPayload = aBAOS.getAsString (StandardCharsets.UTF_8);
+    assertEquals ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                  "<Invoice xmlns:sh=\"http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader\"" +
+                  " xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\"" +
+                  " xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\">" +
+                  sPayloadContent +
+                  "</Invoice>",
+                  sPayload);
+
+    // No payload
+    try
+    {
+      Phase4PeppolSBDHStreamReader.copyBusinessPayload (new NonBlockingByteArrayInputStream (SBD.substring (0,
+                                                                                                            SBD.indexOf ("<Invoice"))
+                                                                                                .getBytes (StandardCharsets.UTF_8)),
+                                                        new NonBlockingByteArrayOutputStream ());
+      fail ();
+    }
+    catch (final XMLStreamException ex)
+    {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.incoming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.jspecify.annotations.NonNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+import com.helger.base.io.iface.IHasInputStream;
+import com.helger.base.io.nonblocking.NonBlockingByteArrayInputStream;
+import com.helger.base.io.stream.StreamHelper;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.http.CHttpHeader;
+import com.helger.http.header.HttpHeaderMap;
+import com.helger.mime.IMimeType;
+import com.helger.phase4.AS4TestConstants;
+import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.crypto.AS4CryptoFactoryConfiguration;
+import com.helger.phase4.crypto.AS4SigningParams;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.incoming.crypto.AS4IncomingSecurityConfiguration;
+import com.helger.phase4.incoming.pull.AS4MPCMessageStore;
+import com.helger.phase4.messaging.crypto.AS4Signer;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.ESoapVersion;
+import com.helger.phase4.model.error.EEbmsError;
+import com.helger.phase4.model.message.AS4PullRequestMessage;
+import com.helger.phase4.model.message.AS4ReceiptMessage;
+import com.helger.phase4.model.message.MessageHelperMethods;
+import com.helger.phase4.model.mpc.MPC;
+import com.helger.phase4.model.pmode.resolve.AS4DefaultPModeResolver;
+import com.helger.phase4.server.AbstractAS4TestSetUp;
+import com.helger.phase4.test.profile.AS4TestProfileRegistarSPI;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.photon.app.mock.PhotonAppWebTestRule;
+
+/**
+ * Test class for class {@link AS4RequestHandler} serving PullRequests from an
+ * {@link AS4MPCMessageStore}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4RequestHandlerPullRequestTest extends AbstractAS4TestSetUp
+{
+  private static final ESoapVersion SOAP_VERSION = ESoapVersion.AS4_DEFAULT;
+  private static final String PROFILE_ID = AS4TestProfileRegistarSPI.AS4_PROFILE_ID_MAY_SIGN_MAY_CRYPT;
+
+  @Rule
+  public final PhotonAppWebTestRule m_aTestRule = new PhotonAppWebTestRule ();
+
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  private final IAS4CryptoFactory m_aCryptoFactory = AS4CryptoFactoryConfiguration.getDefaultInstance ();
+  private AS4ResourceHelper m_aResHelper;
+  private AS4MPCMessageStore m_aStore;
+
+  @Before
+  public void createStore () throws Exception
+  {
+    m_aResHelper = new AS4ResourceHelper ();
+    m_aStore = new AS4MPCMessageStore (m_aTempFolder.newFolder ());
+  }
+
+  @After
+  public void closeStore () throws Exception
+  {
+    m_aStore.close ();
+    m_aResHelper.close ();
+  }
+
+  @NonNull
+  private static Ebms3UserMessage _createUserMessage ()
+  {
+    final Ebms3UserMessage ret = new Ebms3UserMessage ();
+    ret.setPartyInfo (MessageHelperMethods.createEbms3PartyInfo ("fromRole", "fromParty", "toRole", "toParty"));
+    ret.setCollaborationInfo (MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                 "urn:any",
+                                                                                 null,
+                                                                                 AS4TestConstants.TEST_SERVICE_TYPE,
+                                                                                 AS4TestConstants.TEST_SERVICE,
+                                                                                 AS4TestConstants.TEST_ACTION,
+                                                                                 MessageHelperMethods.createRandomConversationID ()));
+    ret.setPayloadInfo (MessageHelperMethods.createEbms3PayloadInfo (false, new CommonsArrayList <> ()));
+    ret.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo ());
+    return ret;
+  }
+
+  @NonNull
+  private Document _sign (@NonNull final Document aDoc, @NonNull final String sMessagingID) throws Exception
+  {
+    return AS4Signer.createSignedMessage (m_aCryptoFactory,
+                                          aDoc,
+                                          SOAP_VERSION,
+                                          sMessagingID,
+                                          null,
+                                          m_aResHelper,
+                                          true,
+                                          AS4SigningParams.createDefault ());
+  }
+
+  @NonNull
+  private Document _createPullRequest (@NonNull final String sMPCID, final boolean bSign) throws Exception
+  {
+    final AS4PullRequestMessage aMsg = AS4PullRequestMessage.create (SOAP_VERSION,
+                                                                     MessageHelperMethods.createEbms3MessageInfo (),
+                                                                     sMPCID,
+                                                                     null);
+    final Document aDoc = aMsg.getAsSoapDocument ();
+    return bSign ? _sign (aDoc, aMsg.getMessagingID ()) : aDoc;
+  }
+
+  @NonNull
+  private Document _createReceipt (@NonNull final Ebms3UserMessage aUserMessage, final boolean bSign) throws Exception
+  {
+    final AS4ReceiptMessage aMsg = AS4ReceiptMessage.create (SOAP_VERSION,
+                                                             MessageHelperMethods.createRandomMessageID (),
+                                                             aUserMessage,
+                                                             null,
+                                                             false,
+                                                             null);
+    final Document aDoc = aMsg.getAsSoapDocument ();
+    return bSign ? _sign (aDoc, aMsg.getMessagingID ()) : aDoc;
+  }
+
+  /**
+   * Let a fresh handler process the document, the same way the servlet does.
+   */
+  @NonNull
+  private String _handle (@NonNull final Document aDoc) throws Exception
+  {
+    final byte [] aRequest = AS4XMLHelper.serializeXMLToBytes (aDoc);
+    final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+    aHeaders.addHeader (CHttpHeader.CONTENT_TYPE, SOAP_VERSION.getMimeType ().getAsString ());
+
+    final byte [][] aResponse = { new byte [0] };
+    final IAS4ResponseAbstraction aHttpResponse = new IAS4ResponseAbstraction ()
+    {
+      public void setContent (final byte @NonNull [] aBytes, @NonNull final Charset aCharset)
+      {
+        aResponse[0] = aBytes;
+      }
+
+      public void setContent (@NonNull final HttpHeaderMap aHeaderMap, @NonNull final IHasInputStream aHasIS)
+      {
+        aResponse[0] = StreamHelper.getAllBytes (aHasIS);
+      }
+
+      public void setMimeType (@NonNull final IMimeType aMimeType)
+      {}
+
+      public void setStatus (final int nStatusCode)
+      {}
+    };
+
+    try (final AS4RequestHandler aHandler = new AS4RequestHandler (AS4IncomingMessageMetadata.createForRequest ()))
+    {
+      aHandler.setCryptoFactory (m_aCryptoFactory);
+      aHandler.setPModeResolver (new AS4DefaultPModeResolver (PROFILE_ID));
+      aHandler.setIncomingProfileSelector (new AS4IncomingProfileSelectorConstant (PROFILE_ID, true));
+      aHandler.setIncomingAttachmentFactory (IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE);
+      aHandler.setIncomingSecurityConfiguration (AS4IncomingSecurityConfiguration.createDefaultInstance ());
+      aHandler.setIncomingReceiverConfiguration (new AS4IncomingReceiverConfiguration ());
+      aHandler.setMPCMessageStore (m_aStore);
+      aHandler.handleRequest (new NonBlockingByteArrayInputStream (aRequest), aHeaders, aHttpResponse);
+    }
+    return new String (aResponse[0], StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testPullAndAcknowledge () throws Exception
+  {
+    final Ebms3UserMessage aUserMessage = _createUserMessage ();
+    final String sMessageID = aUserMessage.getMessageInfo ().getMessageId ();
+    m_aStore.enqueue (AS4TestConstants.DEFAULT_MPC, aUserMessage);
+
+    // The pull returns the stored message
+    final String sResponse = _handle (_createPullRequest (AS4TestConstants.DEFAULT_MPC, true));
+    assertTrue (sResponse, sResponse.contains (AS4TestConstants.USERMESSAGE_ASSERTCHECK));
+    assertTrue (sResponse, sResponse.contains (sMessageID));
+    assertEquals (0, m_aStore.getPendingCount (AS4TestConstants.DEFAULT_MPC));
+    assertEquals (1, m_aStore.getInFlightCount (AS4TestConstants.DEFAULT_MPC));
+
+    // A Receipt of another party does not acknowledge it
+    _handle (_createReceipt (aUserMessage, false));
+    assertEquals (1, m_aStore.getInFlightCount (AS4TestConstants.DEFAULT_MPC));
+
+    // The Receipt of the pulling party does
+    _handle (_createReceipt (aUserMessage, true));
+    assertEquals (0, m_aStore.getInFlightCount (AS4TestConstants.DEFAULT_MPC));
+    assertTrue (m_aStore.isEmpty ());
+  }
+
+  @Test
+  public void testPullEmptyMPC () throws Exception
+  {
+    final String sResponse = _handle (_createPullRequest (AS4TestConstants.DEFAULT_MPC, false));
+    assertTrue (sResponse, sResponse.contains (EEbmsError.EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL.getErrorCode ()));
+  }
+
+  @Test
+  public void testPullNotAuthorized () throws Exception
+  {
+    // Known MPC that is not bound to the PMode of the PullRequest
+    final String sMPCID = "urn:test:mpc:not-authorized";
+    if (MetaAS4Manager.getMPCMgr ().getMPCOfID (sMPCID) == null)
+      MetaAS4Manager.getMPCMgr ().createMPC (new MPC (sMPCID));
+    m_aStore.enqueue (sMPCID, _createUserMessage ());
+
+    final String sResponse = _handle (_createPullRequest (sMPCID, false));
+    assertTrue (sResponse, sResponse.contains (EEbmsError.EBMS_FAILED_AUTHENTICATION.getErrorCode ()));
+    assertFalse (sResponse, sResponse.contains (AS4TestConstants.USERMESSAGE_ASSERTCHECK));
+    assertEquals (1, m_aStore.getPendingCount (sMPCID));
+  }
+}
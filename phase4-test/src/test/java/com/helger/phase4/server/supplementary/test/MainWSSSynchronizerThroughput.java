@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.supplementary.test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import com.helger.base.timing.StopWatch;
+import com.helger.collection.commons.CommonsArrayList;
+import com.helger.collection.commons.ICommonsList;
+import com.helger.io.resource.ClassPathResource;
+import com.helger.phase4.crypto.AS4CryptoFactoryConfiguration;
+import com.helger.phase4.crypto.ECryptoAlgorithmSign;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.crypto.ECryptoKeyIdentifierType;
+import com.helger.phase4.crypto.ECryptoMode;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.wss.EWSSSynchronizationMode;
+import com.helger.phase4.wss.WSSConfigManager;
+import com.helger.phase4.wss.WSSSynchronizer;
+import com.helger.scope.mgr.ScopeManager;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Multi-threaded sign and verify benchmark, comparing the throughput of the different
+ * {@link EWSSSynchronizationMode}s. The results depend on the machine, so this is not a test.
+ *
+ * @author Philip Helger
+ */
+public final class MainWSSSynchronizerThroughput
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainWSSSynchronizerThroughput.class);
+  private static final int THREADS = Math.max (2, Math.min (8, Runtime.getRuntime ().availableProcessors ()));
+  private static final int OPS_PER_THREAD = 25;
+
+  private static void _signAndVerify (final IAS4CryptoFactory aCryptoFactory) throws Exception
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource ("UserMessageWithoutWSSE.xml"));
+    final WSSecHeader aSecHeader = new WSSecHeader (aDoc);
+    aSecHeader.insertSecurityHeader ();
+
+    final WSSecSignature aBuilder = new WSSecSignature (aSecHeader);
+    aBuilder.setUserInfo (aCryptoFactory.getKeyAlias (),
+                          aCryptoFactory.getKeyPasswordPerAlias (aCryptoFactory.getKeyAlias ()));
+    aBuilder.setKeyIdentifierType (ECryptoKeyIdentifierType.BST_DIRECT_REFERENCE.getTypeID ());
+    aBuilder.setSignatureAlgorithm (ECryptoAlgorithmSign.RSA_SHA_256.getAlgorithmURI ());
+    aBuilder.setDigestAlgo (ECryptoAlgorithmSignDigest.DIGEST_SHA_256.getAlgorithmURI ());
+    final Document aSignedDoc = aBuilder.build (aCryptoFactory.getCrypto (ECryptoMode.ENCRYPT_SIGN));
+
+    final WSSecurityEngine aSecEngine = new WSSecurityEngine ();
+    aSecEngine.setWssConfig (WSSConfigManager.createStaticWSSConfig ());
+    final WSHandlerResult aResults = aSecEngine.processSecurityHeader (aSignedDoc,
+                                                                       null,
+                                                                       null,
+                                                                       aCryptoFactory.getCrypto (ECryptoMode.ENCRYPT_SIGN));
+    if (aResults.getActionResults ().get (Integer.valueOf (WSConstants.SIGN)).size () != 1)
+      throw new IllegalStateException ("Signature verification failed");
+  }
+
+  private static void _measure (final EWSSSynchronizationMode eMode) throws Exception
+  {
+    final IAS4CryptoFactory aCryptoFactory = AS4CryptoFactoryConfiguration.getDefaultInstance ();
+    final AtomicInteger aActive = new AtomicInteger (0);
+    final AtomicInteger aMaxActive = new AtomicInteger (0);
+
+    // Warm up
+    WSSSynchronizer.call (eMode, () -> {
+      _signAndVerify (aCryptoFactory);
+      return null;
+    });
+
+    final ExecutorService aES = Executors.newFixedThreadPool (THREADS);
+    final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> ();
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < THREADS * OPS_PER_THREAD; ++i)
+      aFutures.add (aES.submit ( () -> WSSSynchronizer.call (eMode, () -> {
+        aMaxActive.accumulateAndGet (aActive.incrementAndGet (), Math::max);
+        try
+        {
+          _signAndVerify (aCryptoFactory);
+        }
+        finally
+        {
+          aActive.decrementAndGet ();
+        }
+        return null;
+      })));
+    for (final Future <?> aFuture : aFutures)
+      aFuture.get ();
+    aSW.stop ();
+    aES.shutdown ();
+    aES.awaitTermination (1, TimeUnit.MINUTES);
+
+    final double dOpsPerSec = THREADS * OPS_PER_THREAD * 1000d / Math.max (1, aSW.getMillis ());
+    LOGGER.info (eMode +
+                 ": " +
+                 THREADS +
+                 " threads, max " +
+                 aMaxActive.get () +
+                 " in parallel, " +
+                 dOpsPerSec +
+                 " sign/verify operations per second");
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    ScopeManager.onGlobalBegin ("MainWSSSynchronizerThroughput");
+    try
+    {
+      for (int nRun = 0; nRun < 2; ++nRun)
+      {
+        _measure (EWSSSynchronizationMode.EXCLUSIVE);
+        _measure (EWSSSynchronizationMode.SHARED);
+      }
+    }
+    finally
+    {
+      WSSSynchronizer.cleanUpShared ();
+      ScopeManager.onGlobalEnd ();
+    }
+  }
+}